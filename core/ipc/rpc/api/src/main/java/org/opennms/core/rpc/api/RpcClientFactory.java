@@ -36,4 +36,15 @@ package org.opennms.core.rpc.api;
 public interface RpcClientFactory {
 
     <R extends RpcRequest, S extends RpcResponse> RpcClient<R, S> getClient(RpcModule<R, S> module);
+
+    /**
+     * Whether requests for the given location are executed directly in this
+     * JVM, instead of being sent to a remote system.
+     *
+     * @param location the location of a request, may be null
+     * @return true if the requests are executed locally
+     */
+    default boolean isLocal(String location) {
+        return location == null;
+    }
 }
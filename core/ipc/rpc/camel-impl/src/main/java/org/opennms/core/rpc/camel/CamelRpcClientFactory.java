@@ -56,7 +56,7 @@ public class CamelRpcClientFactory implements RpcClientFactory {
         return new RpcClient<S,T>() {
             @Override
             public CompletableFuture<T> execute(S request) {
-                if (request.getLocation() == null || request.getLocation().equals(location)) {
+                if (isLocal(request.getLocation())) {
                     // The request is for the current location, invoke it directly
                     return module.execute(request);
                 }
@@ -82,6 +82,11 @@ public class CamelRpcClientFactory implements RpcClientFactory {
         };
     }
 
+    @Override
+    public boolean isLocal(String location) {
+        return location == null || location.equals(this.location);
+    }
+
     public void setLocation(String location) {
         this.location = location;
     }
@@ -51,4 +51,9 @@ public class MockRpcClientFactory implements RpcClientFactory {
             }
         };
     }
+
+    @Override
+    public boolean isLocal(String location) {
+        return true;
+    }
 }
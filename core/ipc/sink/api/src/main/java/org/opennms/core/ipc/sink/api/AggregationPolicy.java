@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.api;
+
+/**
+ * Bounds the batches that a producer combines messages into.
+ *
+ * A batch is sent as soon as it holds {@link #getCompletionSize()} messages or
+ * {@link #getCompletionIntervalMs()} milliseconds after its first message was
+ * added, whichever comes first.
+ */
+public final class AggregationPolicy {
+
+    private final int completionSize;
+    private final long completionIntervalMs;
+
+    /**
+     * @param completionSize maximum number of messages in a batch
+     * @param completionIntervalMs maximum time a message waits for its batch to complete
+     */
+    public AggregationPolicy(int completionSize, long completionIntervalMs) {
+        if (completionSize < 1) {
+            throw new IllegalArgumentException("completionSize must be positive: " + completionSize);
+        }
+        if (completionIntervalMs < 1) {
+            throw new IllegalArgumentException("completionIntervalMs must be positive: " + completionIntervalMs);
+        }
+        this.completionSize = completionSize;
+        this.completionIntervalMs = completionIntervalMs;
+    }
+
+    public int getCompletionSize() {
+        return completionSize;
+    }
+
+    public long getCompletionIntervalMs() {
+        return completionIntervalMs;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AggregationPolicy[completionSize=%d, completionIntervalMs=%d]", completionSize, completionIntervalMs);
+    }
+}
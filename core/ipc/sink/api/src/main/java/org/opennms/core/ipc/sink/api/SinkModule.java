@@ -28,6 +28,8 @@
 
 package org.opennms.core.ipc.sink.api;
 
+import java.nio.charset.StandardCharsets;
+
 /**
  * Defines how the messages will be routed and marshaled/unmarshaled over the wire.
  *
@@ -53,4 +55,32 @@ public interface SinkModule<T extends Message> {
      * Unmarshals the message from a string.
      */
     T unmarshal(String message);
+
+    /**
+     * Marshals the message to bytes.
+     *
+     * Defaults to the UTF-8 encoding of {@link #marshal(Message)}, modules
+     * that have a more compact representation should override both this
+     * and {@link #unmarshalBytes(byte[])}.
+     */
+    default byte[] marshalBytes(T message) {
+        return marshal(message).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Unmarshals the message from bytes produced by {@link #marshalBytes(Message)}.
+     */
+    default T unmarshalBytes(byte[] message) {
+        return unmarshal(new String(message, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Defines how messages are combined into batches before they are sent
+     * over the wire.
+     *
+     * @return the policy, or null if every message should be sent on its own
+     */
+    default AggregationPolicy getAggregationPolicy() {
+        return null;
+    }
 }
@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.camel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.opennms.core.ipc.sink.api.AggregationPolicy;
+import org.opennms.core.ipc.sink.api.Message;
+import org.opennms.core.ipc.sink.api.MessageProducer;
+import org.opennms.core.ipc.sink.api.SinkModule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Combines messages into {@link SinkEnvelope}s according to the module's
+ * {@link AggregationPolicy}.
+ *
+ * Messages are marshalled on the calling thread. A batch is handed to the
+ * sender on the thread that completes it, or on the scheduler's thread
+ * when the completion interval elapses first.
+ */
+public class AggregatingMessageProducer<T extends Message> implements MessageProducer<T> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AggregatingMessageProducer.class);
+
+    private final SinkModule<T> module;
+    private final int completionSize;
+    private final long completionIntervalMs;
+    private final ScheduledExecutorService scheduler;
+    private final Consumer<byte[]> sender;
+
+    private List<byte[]> batch;
+
+    /**
+     * Incremented every time a batch is taken, so that a timer that was
+     * armed for an earlier batch does not flush the current one early.
+     */
+    private long generation = 0;
+
+    public AggregatingMessageProducer(SinkModule<T> module, AggregationPolicy policy,
+            ScheduledExecutorService scheduler, Consumer<byte[]> sender) {
+        this.module = Objects.requireNonNull(module);
+        this.completionSize = policy.getCompletionSize();
+        this.completionIntervalMs = policy.getCompletionIntervalMs();
+        this.scheduler = Objects.requireNonNull(scheduler);
+        this.sender = Objects.requireNonNull(sender);
+        this.batch = new ArrayList<>(completionSize);
+    }
+
+    @Override
+    public void send(T message) {
+        final byte[] bytes = module.marshalBytes(message);
+        List<byte[]> completed = null;
+        synchronized (this) {
+            batch.add(bytes);
+            if (batch.size() >= completionSize) {
+                completed = takeBatch();
+            } else if (batch.size() == 1) {
+                final long armedFor = generation;
+                try {
+                    scheduler.schedule(() -> flush(armedFor), completionIntervalMs, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    // The scheduler was shut down, don't hold on to the message
+                    completed = takeBatch();
+                }
+            }
+        }
+        if (completed != null) {
+            sender.accept(SinkEnvelope.encode(completed));
+        }
+    }
+
+    /**
+     * Sends the pending messages, if any.
+     */
+    public void flush() {
+        final List<byte[]> completed;
+        synchronized (this) {
+            if (batch.isEmpty()) {
+                return;
+            }
+            completed = takeBatch();
+        }
+        sender.accept(SinkEnvelope.encode(completed));
+    }
+
+    private void flush(long armedFor) {
+        final List<byte[]> completed;
+        synchronized (this) {
+            if (armedFor != generation || batch.isEmpty()) {
+                return;
+            }
+            completed = takeBatch();
+        }
+        try {
+            sender.accept(SinkEnvelope.encode(completed));
+        } catch (Throwable t) {
+            LOG.warn("Failed to send batch of {} messages for module {}.", completed.size(), module.getId(), t);
+        }
+    }
+
+    private List<byte[]> takeBatch() {
+        final List<byte[]> completed = batch;
+        batch = new ArrayList<>(completionSize);
+        generation++;
+        return completed;
+    }
+}
@@ -72,6 +72,16 @@ public class CamelMessageConsumerManager implements MessageConsumerManager {
             .forEach(c -> c.handleMessage(message));
     }
 
+    /**
+     * Unmarshals every message in the given {@link SinkEnvelope} and
+     * dispatches them to the module's consumers.
+     */
+    public <T extends Message> void dispatchEnvelope(SinkModule<T> module, byte[] envelope) {
+        for (final byte[] messageBytes : SinkEnvelope.decode(envelope)) {
+            dispatch(module, module.unmarshalBytes(messageBytes));
+        }
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public <T extends Message> void registerConsumer(MessageConsumer<T> consumer)
@@ -29,13 +29,18 @@
 package org.opennms.core.ipc.sink.camel;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 import org.apache.camel.Endpoint;
 import org.apache.camel.EndpointInject;
 import org.apache.camel.ProducerTemplate;
 import org.opennms.core.ipc.sink.api.SinkModule;
 import org.opennms.core.camel.JmsQueueNameFactory;
+import org.opennms.core.ipc.sink.api.AggregationPolicy;
 import org.opennms.core.ipc.sink.api.Message;
 import org.opennms.core.ipc.sink.api.MessageProducer;
 import org.opennms.core.ipc.sink.api.MessageProducerFactory;
@@ -43,6 +48,10 @@ import org.opennms.core.ipc.sink.api.MessageProducerFactory;
 /**
  * Message producer that sends messages via JMS.
  *
+ * Messages are sent as {@link SinkEnvelope}s. Modules that define an
+ * {@link AggregationPolicy} have their messages combined into batches,
+ * all others are sent in an envelope of their own.
+ *
  * @author jwhite
  */
 public class CamelRemoteMessageProducerFactory implements MessageProducerFactory {
@@ -53,17 +62,48 @@ public class CamelRemoteMessageProducerFactory implements MessageProducerFactory
     @EndpointInject(uri = "direct:sendMessage", context = "sinkClient")
     private Endpoint endpoint;
 
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "Sink-Aggregation-Timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final List<AggregatingMessageProducer<?>> aggregatingProducers = new CopyOnWriteArrayList<>();
+
     @Override
     public <T extends Message> MessageProducer<T> getProducer(SinkModule<T> module) {
+        final JmsQueueNameFactory queueNameFactory = new JmsQueueNameFactory(
+                CamelSinkConstants.JMS_QUEUE_PREFIX, module.getId());
+        final String queueName = queueNameFactory.getName();
+
+        final AggregationPolicy policy = module.getAggregationPolicy();
+        if (policy != null) {
+            final AggregatingMessageProducer<T> producer = new AggregatingMessageProducer<>(module, policy, scheduler,
+                    envelope -> sendEnvelope(queueName, envelope));
+            aggregatingProducers.add(producer);
+            return producer;
+        }
+
         return new MessageProducer<T>() {
             @Override
             public void send(T message) {
-                final JmsQueueNameFactory queueNameFactory = new JmsQueueNameFactory(
-                        CamelSinkConstants.JMS_QUEUE_PREFIX, module.getId());
-                Map<String, Object> headers = new HashMap<>();
-                headers.put(CamelSinkConstants.JMS_QUEUE_NAME_HEADER, queueNameFactory.getName());
-                template.sendBodyAndHeaders(endpoint, module.marshal(message), headers);
+                sendEnvelope(queueName, SinkEnvelope.encode(module.marshalBytes(message)));
             }
         };
     }
+
+    private void sendEnvelope(String queueName, byte[] envelope) {
+        Map<String, Object> headers = new HashMap<>();
+        headers.put(CamelSinkConstants.JMS_QUEUE_NAME_HEADER, queueName);
+        headers.put(CamelSinkConstants.SINK_ENCODING_HEADER, CamelSinkConstants.SINK_ENCODING_ENVELOPE);
+        template.sendBodyAndHeaders(endpoint, envelope, headers);
+    }
+
+    /**
+     * Sends any pending batches and stops the aggregation timer.
+     */
+    public void destroy() {
+        scheduler.shutdown();
+        aggregatingProducers.forEach(AggregatingMessageProducer::flush);
+    }
 }
@@ -32,4 +32,10 @@ public interface CamelSinkConstants {
     static String JMS_QUEUE_PREFIX = "Sink";
     static String JMS_QUEUE_NAME_HEADER = "JmsQueueName";
     static String CAMEL_JMS_REQUEST_TIMEOUT_HEADER = "CamelJmsRequestTimeout";
+    static String SINK_ENCODING_HEADER = "SinkEncoding";
+    /**
+     * The body is a {@link SinkEnvelope}. Messages without the
+     * {@link #SINK_ENCODING_HEADER} carry a single marshalled string.
+     */
+    static String SINK_ENCODING_ENVELOPE = "envelope";
 }
@@ -54,10 +54,15 @@ public class CamelSinkServerProcessor implements AsyncProcessor {
 
     @Override
     public boolean process(Exchange exchange, AsyncCallback callback) {
-        final String messageAsString = exchange.getIn().getBody(String.class);
         try {
-            final Message message = module.unmarshal(messageAsString);
-            consumerManager.dispatch(module, message);
+            if (CamelSinkConstants.SINK_ENCODING_ENVELOPE.equals(exchange.getIn().getHeader(CamelSinkConstants.SINK_ENCODING_HEADER))) {
+                consumerManager.dispatchEnvelope(module, exchange.getIn().getBody(byte[].class));
+            } else {
+                // Sent by a producer that predates the envelopes
+                final String messageAsString = exchange.getIn().getBody(String.class);
+                final Message message = module.unmarshal(messageAsString);
+                consumerManager.dispatch(module, message);
+            }
         } catch (final Throwable t) {
             exchange.setException(t);
         } finally {
@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.camel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compact binary envelope that carries one or more marshalled messages.
+ *
+ * The envelope starts with a version byte that is followed by the number
+ * of messages. Each message is prefixed with its length. The count and the
+ * lengths are encoded as unsigned varints, so that small messages only
+ * carry one or two bytes of framing.
+ */
+public final class SinkEnvelope {
+
+    public static final byte VERSION = 1;
+
+    private SinkEnvelope() {
+    }
+
+    public static byte[] encode(byte[] message) {
+        return encode(Collections.singletonList(message));
+    }
+
+    public static byte[] encode(List<byte[]> messages) {
+        int size = 1 + varintSize(messages.size());
+        for (final byte[] message : messages) {
+            size += varintSize(message.length) + message.length;
+        }
+
+        final byte[] envelope = new byte[size];
+        envelope[0] = VERSION;
+        int offset = writeVarint(envelope, 1, messages.size());
+        for (final byte[] message : messages) {
+            offset = writeVarint(envelope, offset, message.length);
+            System.arraycopy(message, 0, envelope, offset, message.length);
+            offset += message.length;
+        }
+        return envelope;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the envelope is malformed
+     */
+    public static List<byte[]> decode(byte[] envelope) {
+        if (envelope == null || envelope.length < 2) {
+            throw new IllegalArgumentException("Envelope is too short.");
+        }
+        if (envelope[0] != VERSION) {
+            throw new IllegalArgumentException("Unsupported envelope version: " + envelope[0]);
+        }
+
+        final int[] offset = { 1 };
+        final int count = readVarint(envelope, offset);
+        // Every message needs at least one byte for its length
+        if (count > envelope.length - offset[0]) {
+            throw new IllegalArgumentException("Envelope claims " + count + " messages but only has " + envelope.length + " bytes.");
+        }
+        final List<byte[]> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final int length = readVarint(envelope, offset);
+            if (length > envelope.length - offset[0]) {
+                throw new IllegalArgumentException("Message " + i + " of " + length + " bytes exceeds the envelope.");
+            }
+            final byte[] message = new byte[length];
+            System.arraycopy(envelope, offset[0], message, 0, length);
+            offset[0] += length;
+            messages.add(message);
+        }
+        if (offset[0] != envelope.length) {
+            throw new IllegalArgumentException("Envelope has " + (envelope.length - offset[0]) + " trailing bytes.");
+        }
+        return messages;
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    private static int writeVarint(byte[] buffer, int offset, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer[offset++] = (byte)((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[offset++] = (byte)value;
+        return offset;
+    }
+
+    private static int readVarint(byte[] buffer, int[] offset) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (offset[0] >= buffer.length) {
+                throw new IllegalArgumentException("Envelope ends in the middle of a length.");
+            }
+            final byte b = buffer[offset[0]++];
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new IllegalArgumentException("Negative length in envelope.");
+                }
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed length in envelope.");
+    }
+}
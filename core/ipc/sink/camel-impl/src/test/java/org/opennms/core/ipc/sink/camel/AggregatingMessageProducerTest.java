@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.camel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.core.ipc.sink.api.AggregationPolicy;
+import org.opennms.core.ipc.sink.camel.logmessage.LogMessage;
+import org.opennms.core.ipc.sink.camel.logmessage.LogMessageBinaryModule;
+
+public class AggregatingMessageProducerTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    private final List<byte[]> envelopes = new CopyOnWriteArrayList<>();
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void sendsWhenBatchIsComplete() {
+        final LogMessageBinaryModule module = new LogMessageBinaryModule(new AggregationPolicy(10, TimeUnit.MINUTES.toMillis(1)));
+        final AggregatingMessageProducer<LogMessage> producer = new AggregatingMessageProducer<>(module, module.getAggregationPolicy(), scheduler, envelopes::add);
+
+        final List<LogMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            final LogMessage message = new LogMessage("host" + i, i, "message " + i);
+            messages.add(message);
+            producer.send(message);
+        }
+
+        // Two complete batches, the last 5 are still pending
+        assertEquals(2, envelopes.size());
+        producer.flush();
+        assertEquals(3, envelopes.size());
+        assertEquals(messages, decode(module, envelopes));
+
+        // Nothing left to flush
+        producer.flush();
+        assertEquals(3, envelopes.size());
+    }
+
+    @Test
+    public void sendsWhenIntervalElapses() throws InterruptedException {
+        final LogMessageBinaryModule module = new LogMessageBinaryModule(new AggregationPolicy(100, 50));
+        final CountDownLatch sent = new CountDownLatch(1);
+        final AggregatingMessageProducer<LogMessage> producer = new AggregatingMessageProducer<>(module, module.getAggregationPolicy(), scheduler, envelope -> {
+            envelopes.add(envelope);
+            sent.countDown();
+        });
+
+        final LogMessage message = new LogMessage("host", 1L, "message");
+        producer.send(message);
+        producer.send(message);
+        assertEquals(0, envelopes.size());
+
+        assertTrue(sent.await(10, TimeUnit.SECONDS));
+        assertEquals(1, envelopes.size());
+        assertEquals(2, SinkEnvelope.decode(envelopes.get(0)).size());
+    }
+
+    @Test
+    public void sendsImmediatelyOnceSchedulerIsShutdown() {
+        final LogMessageBinaryModule module = new LogMessageBinaryModule(new AggregationPolicy(100, TimeUnit.MINUTES.toMillis(1)));
+        final AggregatingMessageProducer<LogMessage> producer = new AggregatingMessageProducer<>(module, module.getAggregationPolicy(), scheduler, envelopes::add);
+        scheduler.shutdown();
+
+        producer.send(new LogMessage("host", 1L, "message"));
+        assertEquals(1, envelopes.size());
+    }
+
+    private static List<LogMessage> decode(LogMessageBinaryModule module, List<byte[]> envelopes) {
+        final List<LogMessage> messages = new ArrayList<>();
+        for (byte[] envelope : envelopes) {
+            for (byte[] message : SinkEnvelope.decode(envelope)) {
+                messages.add(module.unmarshalBytes(message));
+            }
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.camel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.core.ipc.sink.api.SinkModule;
+import org.opennms.core.ipc.sink.camel.logmessage.LogMessage;
+import org.opennms.core.ipc.sink.camel.logmessage.LogMessageBinaryModule;
+import org.opennms.core.ipc.sink.camel.logmessage.LogMessageXmlModule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the number of messages per second that can be marshalled into
+ * envelopes and unmarshalled again, comparing the XML and binary codecs
+ * with and without batching. The JMS transport itself is not included.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.opennms.core.ipc.sink.camel.SinkEncodingBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SinkEncodingBenchmark {
+
+    private static final int BATCH_SIZE = 100;
+
+    private final LogMessageXmlModule m_xmlModule = new LogMessageXmlModule();
+    private final LogMessageBinaryModule m_binaryModule = new LogMessageBinaryModule();
+    private LogMessage[] m_messages;
+
+    @Setup
+    public void setUp() {
+        m_messages = new LogMessage[BATCH_SIZE];
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            m_messages[i] = new LogMessage("192.168.0." + i, 1477000000000L + i,
+                    "<31>main: 2010-08-19 localhost foo" + i + ": load test " + i + " on tty1");
+        }
+    }
+
+    @Benchmark
+    public void xmlSingle(Blackhole bh) {
+        roundTrip(m_xmlModule, m_messages[0], bh);
+    }
+
+    @Benchmark
+    public void binarySingle(Blackhole bh) {
+        roundTrip(m_binaryModule, m_messages[0], bh);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void xmlBatched(Blackhole bh) {
+        roundTrip(m_xmlModule, m_messages, bh);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void binaryBatched(Blackhole bh) {
+        roundTrip(m_binaryModule, m_messages, bh);
+    }
+
+    private static void roundTrip(SinkModule<LogMessage> module, LogMessage message, Blackhole bh) {
+        final byte[] envelope = SinkEnvelope.encode(module.marshalBytes(message));
+        bh.consume(module.unmarshalBytes(SinkEnvelope.decode(envelope).get(0)));
+    }
+
+    private static void roundTrip(SinkModule<LogMessage> module, LogMessage[] messages, Blackhole bh) {
+        final List<byte[]> batch = new ArrayList<>(messages.length);
+        for (LogMessage message : messages) {
+            batch.add(module.marshalBytes(message));
+        }
+        for (byte[] message : SinkEnvelope.decode(SinkEnvelope.encode(batch))) {
+            bh.consume(module.unmarshalBytes(message));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SinkEncodingBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
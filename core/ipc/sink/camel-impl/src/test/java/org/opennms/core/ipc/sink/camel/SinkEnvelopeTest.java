@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.camel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SinkEnvelopeTest {
+
+    @Test
+    public void canEncodeAndDecode() {
+        final List<byte[]> messages = new ArrayList<>();
+        messages.add(new byte[0]);
+        messages.add("a".getBytes(StandardCharsets.UTF_8));
+        // Long enough to need a multi-byte length
+        final byte[] large = new byte[70000];
+        Arrays.fill(large, (byte)0x7f);
+        messages.add(large);
+
+        final List<byte[]> decoded = SinkEnvelope.decode(SinkEnvelope.encode(messages));
+        assertEquals(messages.size(), decoded.size());
+        for (int i = 0; i < messages.size(); i++) {
+            assertArrayEquals(messages.get(i), decoded.get(i));
+        }
+    }
+
+    @Test
+    public void canEncodeSingleMessage() {
+        final byte[] message = "heartbeat".getBytes(StandardCharsets.UTF_8);
+        final byte[] envelope = SinkEnvelope.encode(message);
+        // version + count + length + body
+        assertEquals(3 + message.length, envelope.length);
+        assertArrayEquals(message, SinkEnvelope.decode(envelope).get(0));
+    }
+
+    @Test
+    public void canEncodeEmptyEnvelope() {
+        assertEquals(0, SinkEnvelope.decode(SinkEnvelope.encode(Collections.emptyList())).size());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void rejectsUnknownVersion() {
+        final byte[] envelope = SinkEnvelope.encode("x".getBytes(StandardCharsets.UTF_8));
+        envelope[0] = 2;
+        SinkEnvelope.decode(envelope);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void rejectsTruncatedEnvelope() {
+        final byte[] envelope = SinkEnvelope.encode("xyz".getBytes(StandardCharsets.UTF_8));
+        SinkEnvelope.decode(Arrays.copyOf(envelope, envelope.length - 1));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void rejectsTrailingBytes() {
+        final byte[] envelope = SinkEnvelope.encode("xyz".getBytes(StandardCharsets.UTF_8));
+        SinkEnvelope.decode(Arrays.copyOf(envelope, envelope.length + 1));
+    }
+}
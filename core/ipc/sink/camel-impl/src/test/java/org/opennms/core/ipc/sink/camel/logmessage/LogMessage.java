@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.camel.logmessage;
+
+import java.util.Objects;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import org.opennms.core.ipc.sink.api.Message;
+
+@XmlRootElement(name="log-message")
+@XmlAccessorType(XmlAccessType.NONE)
+public class LogMessage implements Message {
+
+    @XmlAttribute(name="host")
+    private String host;
+
+    @XmlAttribute(name="timestamp")
+    private long timestamp;
+
+    @XmlElement(name="body")
+    private String body;
+
+    public LogMessage() {
+        // No-arg constructor for JAXB
+    }
+
+    public LogMessage(String host, long timestamp, String body) {
+        this.host = host;
+        this.timestamp = timestamp;
+        this.body = body;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof LogMessage)) {
+            return false;
+        }
+        final LogMessage other = (LogMessage) obj;
+        return Objects.equals(host, other.host)
+                && timestamp == other.timestamp
+                && Objects.equals(body, other.body);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(host, timestamp, body);
+    }
+}
@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.camel.logmessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import org.opennms.core.ipc.sink.api.AggregationPolicy;
+
+/**
+ * Marshals the {@link LogMessage}s to a compact binary form, and
+ * optionally combines them into batches.
+ */
+public class LogMessageBinaryModule extends LogMessageXmlModule {
+
+    private final AggregationPolicy aggregationPolicy;
+
+    public LogMessageBinaryModule() {
+        this(null);
+    }
+
+    public LogMessageBinaryModule(AggregationPolicy aggregationPolicy) {
+        this.aggregationPolicy = aggregationPolicy;
+    }
+
+    @Override
+    public byte[] marshalBytes(LogMessage message) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + message.getBody().length());
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(message.getHost());
+            out.writeLong(message.getTimestamp());
+            out.writeUTF(message.getBody());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public LogMessage unmarshalBytes(byte[] message) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(message))) {
+            return new LogMessage(in.readUTF(), in.readLong(), in.readUTF());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public AggregationPolicy getAggregationPolicy() {
+        return aggregationPolicy;
+    }
+}
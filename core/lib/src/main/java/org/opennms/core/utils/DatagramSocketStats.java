@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.utils;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Receive and drop counters of a single UDP socket. Receivers that read
+ * from several sockets keep one instance per socket and register each of
+ * them with the platform MBean server.
+ */
+public class DatagramSocketStats implements DatagramSocketStatsMBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DatagramSocketStats.class);
+
+    private final AtomicLong m_received = new AtomicLong();
+    private final AtomicLong m_dropped = new AtomicLong();
+    private final AtomicLong m_truncated = new AtomicLong();
+
+    private ObjectName m_objectName;
+
+    public void received() {
+        m_received.incrementAndGet();
+    }
+
+    public void dropped() {
+        m_dropped.incrementAndGet();
+    }
+
+    public void truncated() {
+        m_truncated.incrementAndGet();
+    }
+
+    @Override
+    public long getDatagramsReceived() {
+        return m_received.get();
+    }
+
+    @Override
+    public long getDatagramsDropped() {
+        return m_dropped.get();
+    }
+
+    @Override
+    public long getDatagramsTruncated() {
+        return m_truncated.get();
+    }
+
+    /**
+     * Registers the counters as <code>&lt;domain&gt;:type=ReceiveSocket,port=&lt;port&gt;,index=&lt;index&gt;</code>.
+     * Failures are logged and otherwise ignored.
+     */
+    public synchronized void register(final String domain, final int port, final int index) {
+        unregister();
+        try {
+            final ObjectName objectName = new ObjectName(domain + ":type=ReceiveSocket,port=" + port + ",index=" + index);
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+            m_objectName = objectName;
+        } catch (final JMException e) {
+            LOG.warn("Failed to register the statistics of socket {} on port {}", index, port, e);
+        }
+    }
+
+    public synchronized void unregister() {
+        if (m_objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(m_objectName);
+        } catch (final JMException e) {
+            LOG.debug("Failed to unregister {}", m_objectName, e);
+        } finally {
+            m_objectName = null;
+        }
+    }
+}
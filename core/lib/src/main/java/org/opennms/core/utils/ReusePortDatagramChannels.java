@@ -0,0 +1,231 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.utils;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Opens UDP channels that are bound to the same address and port with
+ * SO_REUSEPORT, so that the kernel spreads the incoming datagrams over one
+ * receive queue per channel instead of funneling them through a single
+ * socket.
+ *
+ * Java 9 and later expose the option as
+ * <code>StandardSocketOptions.SO_REUSEPORT</code>. Java 8 doesn't, so on
+ * Linux the option is set on the channel's file descriptor with the same
+ * native call that the JDK uses for the standard socket options. On other
+ * platforms, or if the option can't be set, a single channel is opened.
+ */
+public abstract class ReusePortDatagramChannels {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReusePortDatagramChannels.class);
+
+    /**
+     * SOL_SOCKET and SO_REUSEPORT as defined by Linux.
+     */
+    private static final int LINUX_SOL_SOCKET = 1;
+    private static final int LINUX_SO_REUSEPORT = 15;
+
+    /**
+     * Sets SO_REUSEPORT on a channel that isn't bound yet.
+     */
+    private interface ReusePortSetter {
+        void setReusePort(DatagramChannel channel) throws IOException;
+    }
+
+    private static final ReusePortSetter REUSE_PORT_SETTER = getReusePortSetter();
+
+    private static final boolean REUSE_PORT_SUPPORTED = checkReusePortSupported();
+
+    private static ReusePortSetter getReusePortSetter() {
+        final SocketOption<Boolean> option = getReusePortOption();
+        if (option != null) {
+            return channel -> channel.setOption(option, true);
+        }
+        if (System.getProperty("os.name", "").toLowerCase().startsWith("linux")) {
+            return getLinuxReusePortSetter();
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> getReusePortOption() {
+        try {
+            return (SocketOption<Boolean>)StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+        } catch (final NoSuchFieldException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Calls setsockopt() through sun.nio.ch.Net.setIntOption0(), which backs
+     * DatagramChannel.setOption() on Java 8.
+     */
+    private static ReusePortSetter getLinuxReusePortSetter() {
+        try {
+            final Method getFD = Class.forName("sun.nio.ch.SelChImpl").getMethod("getFD");
+            Method setIntOption = null;
+            for (final Method method : Class.forName("sun.nio.ch.Net").getDeclaredMethods()) {
+                if ("setIntOption0".equals(method.getName())) {
+                    setIntOption = method;
+                }
+            }
+            if (setIntOption == null) {
+                return null;
+            }
+            setIntOption.setAccessible(true);
+
+            // (FileDescriptor fd, boolean mayNeedConversion, int level, int opt, int arg[, boolean isIPv6])
+            final Method setsockopt = setIntOption;
+            final boolean hasIPv6Flag = setsockopt.getParameterCount() == 6;
+            return channel -> {
+                try {
+                    final FileDescriptor fd = (FileDescriptor)getFD.invoke(channel);
+                    if (hasIPv6Flag) {
+                        setsockopt.invoke(null, fd, false, LINUX_SOL_SOCKET, LINUX_SO_REUSEPORT, 1, false);
+                    } else {
+                        setsockopt.invoke(null, fd, false, LINUX_SOL_SOCKET, LINUX_SO_REUSEPORT, 1);
+                    }
+                } catch (final InvocationTargetException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException)e.getCause();
+                    }
+                    throw new IOException("Failed to set SO_REUSEPORT", e.getCause());
+                } catch (final IllegalAccessException | RuntimeException e) {
+                    throw new IOException("Failed to set SO_REUSEPORT", e);
+                }
+            };
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            LOG.debug("Unable to access the JDK's socket option implementation", e);
+            return null;
+        }
+    }
+
+    private static boolean checkReusePortSupported() {
+        if (REUSE_PORT_SETTER == null) {
+            return false;
+        }
+        try (final DatagramChannel channel = DatagramChannel.open()) {
+            REUSE_PORT_SETTER.setReusePort(channel);
+            return true;
+        } catch (final IOException e) {
+            LOG.debug("SO_REUSEPORT is not supported", e);
+            return false;
+        }
+    }
+
+    /**
+     * @return true if several channels can share a port on this platform
+     */
+    public static boolean isReusePortSupported() {
+        return REUSE_PORT_SUPPORTED;
+    }
+
+    /**
+     * Translates a configured socket count into the number of channels to
+     * open. A count of zero or less means one channel per processor.
+     */
+    public static int getSocketCount(final int configured) {
+        return configured > 0 ? configured : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Opens <code>count</code> channels that are all bound to the given
+     * address. If SO_REUSEPORT is not supported, only one channel is opened.
+     *
+     * @param bindAddress the local address, with port 0 all channels share the first ephemeral port
+     * @param count the number of channels to open
+     * @return the bound channels, never empty
+     */
+    public static List<DatagramChannel> open(final InetSocketAddress bindAddress, final int count) throws IOException {
+        int channelCount = Math.max(1, count);
+        if (channelCount > 1 && !REUSE_PORT_SUPPORTED) {
+            LOG.warn("SO_REUSEPORT is not supported on this platform, receiving on one socket instead of {} on {}", channelCount, bindAddress);
+            channelCount = 1;
+        }
+
+        final List<DatagramChannel> channels = new ArrayList<>(channelCount);
+        try {
+            InetSocketAddress address = bindAddress;
+            for (int i = 0; i < channelCount; i++) {
+                final DatagramChannel channel = open(address, channelCount > 1);
+                channels.add(channel);
+                address = (InetSocketAddress)channel.getLocalAddress();
+            }
+        } catch (final IOException e) {
+            for (final DatagramChannel channel : channels) {
+                try {
+                    channel.close();
+                } catch (final IOException ce) {
+                    LOG.debug("Failed to close channel on {}", bindAddress, ce);
+                }
+            }
+            throw e;
+        }
+        LOG.debug("Opened {} channel(s) on {}", channelCount, bindAddress);
+        return channels;
+    }
+
+    /**
+     * Opens a single channel bound to the given address.
+     *
+     * @param bindAddress the local address
+     * @param reusePort whether SO_REUSEPORT should be set before binding
+     */
+    public static DatagramChannel open(final InetSocketAddress bindAddress, final boolean reusePort) throws IOException {
+        final DatagramChannel channel = DatagramChannel.open();
+        try {
+            // Set SO_REUSEADDR so that we can rebind to a port that was recently closed
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            if (reusePort) {
+                if (!REUSE_PORT_SUPPORTED) {
+                    throw new IOException("SO_REUSEPORT is not supported on this platform");
+                }
+                REUSE_PORT_SETTER.setReusePort(channel);
+            }
+            channel.bind(bindAddress);
+            return channel;
+        } catch (final IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+}
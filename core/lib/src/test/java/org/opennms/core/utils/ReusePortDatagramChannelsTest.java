@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ReusePortDatagramChannelsTest {
+
+    @Test
+    public void testSocketCount() {
+        assertEquals(3, ReusePortDatagramChannels.getSocketCount(3));
+        assertEquals(Runtime.getRuntime().availableProcessors(), ReusePortDatagramChannels.getSocketCount(0));
+    }
+
+    @Test
+    public void testSingleChannel() throws IOException {
+        final List<DatagramChannel> channels = ReusePortDatagramChannels.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1);
+        try {
+            assertEquals(1, channels.size());
+            assertEquals(1, receiveAll(channels, send(channels.get(0), 1)));
+        } finally {
+            close(channels);
+        }
+    }
+
+    @Test
+    public void testChannelsShareThePort() throws Exception {
+        assumeTrue(ReusePortDatagramChannels.isReusePortSupported());
+
+        final List<DatagramChannel> channels = ReusePortDatagramChannels.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 4);
+        try {
+            assertEquals(4, channels.size());
+            final InetSocketAddress address = (InetSocketAddress)channels.get(0).getLocalAddress();
+            for (final DatagramChannel channel : channels) {
+                assertEquals(address, channel.getLocalAddress());
+            }
+
+            // Every datagram must be delivered to exactly one of the channels
+            assertEquals(100, receiveAll(channels, send(channels.get(0), 100)));
+        } finally {
+            close(channels);
+        }
+    }
+
+    @Test
+    public void testStats() {
+        final DatagramSocketStats stats = new DatagramSocketStats();
+        stats.received();
+        stats.received();
+        stats.dropped();
+        assertEquals(2, stats.getDatagramsReceived());
+        assertEquals(1, stats.getDatagramsDropped());
+        assertEquals(0, stats.getDatagramsTruncated());
+    }
+
+    private static int send(final DatagramChannel target, final int count) throws IOException {
+        final InetSocketAddress address = (InetSocketAddress)target.getLocalAddress();
+        for (int i = 0; i < count; i++) {
+            // Use a new source port for each datagram so that the kernel spreads them
+            try (final DatagramChannel sender = DatagramChannel.open()) {
+                sender.send(ByteBuffer.wrap(("datagram " + i).getBytes(StandardCharsets.US_ASCII)), address);
+            }
+        }
+        return count;
+    }
+
+    private static int receiveAll(final List<DatagramChannel> channels, final int expected) throws IOException {
+        for (final DatagramChannel channel : channels) {
+            channel.configureBlocking(false);
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(64);
+        final long timeout = System.currentTimeMillis() + 5000;
+        int received = 0;
+        while (received < expected && System.currentTimeMillis() < timeout) {
+            for (final DatagramChannel channel : channels) {
+                buffer.clear();
+                while (channel.receive(buffer) != null) {
+                    received++;
+                    buffer.clear();
+                }
+            }
+        }
+        return received;
+    }
+
+    private static void close(final List<DatagramChannel> channels) throws IOException {
+        for (final DatagramChannel channel : channels) {
+            channel.close();
+        }
+    }
+}
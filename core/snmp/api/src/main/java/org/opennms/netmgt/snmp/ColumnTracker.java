@@ -42,6 +42,7 @@ public class ColumnTracker extends CollectionTracker {
     
     private SnmpObjId m_base;
     private SnmpObjId m_last;
+    private SnmpInstId m_lastInstance;
     private int m_maxRepetitions;
 
     public ColumnTracker(SnmpObjId base) {
@@ -99,14 +100,13 @@ public class ColumnTracker extends CollectionTracker {
 
 
                 m_last = responseObjId;
-                if (m_base.isPrefixOf(responseObjId) && !m_base.equals(responseObjId)) {
-                    SnmpInstId inst = responseObjId.getInstance(m_base);
-                    if (inst != null) {
-                        storeResult(new SnmpResult(m_base, inst, val));
+                m_lastInstance = null;
+                if (m_base.isPrefixOf(responseObjId)) {
+                    if (responseObjId.length() > m_base.length()) {
+                        m_lastInstance = responseObjId.getInstance(m_base.length());
+                        storeResult(new SnmpResult(m_base, m_lastInstance, val));
                     }
-                }
-                
-                if (!m_base.isPrefixOf(m_last)) {
+                } else {
                     setFinished(true);
                 }
                 
@@ -153,11 +153,7 @@ public class ColumnTracker extends CollectionTracker {
     }
 
     public SnmpInstId getLastInstance() {
-        if (m_base.isPrefixOf(m_last) && !m_base.equals(m_last)) {
-            return m_last.getInstance(m_base);
-        } else {
-            return null;
-        }
+        return m_lastInstance;
     }
 
     @Override
@@ -172,11 +168,17 @@ public class ColumnTracker extends CollectionTracker {
         // Store the result
         responses.stream()
             .flatMap(res -> res.getResults().stream())
-            .filter(res -> {
-                SnmpObjId responseOid = SnmpObjId.get(res.getBase(), res.getInstance());
-                return m_base.isPrefixOf(responseOid) && !m_base.equals(responseOid);
-            })
+            .filter(res -> isInColumn(res))
             .forEach(res -> storeResult(res));
         setFinished(true);
     }
+
+    private boolean isInColumn(SnmpResult res) {
+        if (m_base.equals(res.getBase())) {
+            // the usual case, avoid building the full oid
+            return res.getInstance().length() > 0;
+        }
+        SnmpObjId responseOid = SnmpObjId.get(res.getBase(), res.getInstance());
+        return m_base.isPrefixOf(responseOid) && !m_base.equals(responseOid);
+    }
 }
@@ -38,6 +38,10 @@ public class SnmpInstId extends SnmpObjId {
         super(instanceIds);
     }
 
+    SnmpInstId(int[] instanceIds, boolean clone) {
+        super(instanceIds, clone);
+    }
+
     public SnmpInstId(String instance) {
         super(instance);
     }
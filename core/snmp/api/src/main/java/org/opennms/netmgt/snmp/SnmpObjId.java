@@ -29,16 +29,27 @@
 package org.opennms.netmgt.snmp;
 
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class SnmpObjId implements Comparable<SnmpObjId> {
-    
-    /* FIXME: Change the implementation of this to cache oids and share common prefixes
-     * This should enhance the amount of garbage we generate a great deal at least for
-     * this class.
+
+    /**
+     * The maximum number of OIDs kept by {@link #get(String)}.
      */
+    private static final int MAX_INTERNED_OIDS = Integer.getInteger("org.opennms.snmp.maxInternedOids", 10000);
+
+    /**
+     * OIDs parsed by {@link #get(String)}, by their string form. The OIDs
+     * that are parsed from strings are mostly the configured ones, which are
+     * a bounded set, so the table simply stops growing once it is full.
+     */
+    private static final ConcurrentMap<String, SnmpObjId> s_interned = new ConcurrentHashMap<String, SnmpObjId>();
 
     private int[] m_ids;
 
+    private int m_hashCode = 0;
+
     protected  SnmpObjId() {
         // No-arg constructor for JAXB
         m_ids = new int[0];
@@ -144,9 +155,13 @@ public class SnmpObjId implements Comparable<SnmpObjId> {
 
     @Override
     public int hashCode() {
-        int h = 31;
-        for(int i = 0; i < m_ids.length; i++) {
-            h = h + 37*m_ids[i];
+        int h = m_hashCode;
+        if (h == 0) {
+            h = 31;
+            for(int i = 0; i < m_ids.length; i++) {
+                h = 37*h + m_ids[i];
+            }
+            m_hashCode = h;
         }
         return h;
     }
@@ -214,8 +229,22 @@ public class SnmpObjId implements Comparable<SnmpObjId> {
         return ids;
     }
 
+    /**
+     * Returns the OID for the string. Since OIDs are immutable the returned
+     * instance may be shared with other callers.
+     */
     public static SnmpObjId get(String oid) {
-        return new SnmpObjId(oid);
+        SnmpObjId objId = s_interned.get(oid);
+        if (objId == null) {
+            objId = new SnmpObjId(oid);
+            if (s_interned.size() < MAX_INTERNED_OIDS) {
+                final SnmpObjId interned = s_interned.putIfAbsent(oid, objId);
+                if (interned != null) {
+                    objId = interned;
+                }
+            }
+        }
+        return objId;
     }
 
     public static SnmpObjId get(int[] ids) {
@@ -253,9 +282,17 @@ public class SnmpObjId implements Comparable<SnmpObjId> {
     public SnmpInstId getInstance(SnmpObjId base) {
         if (!base.isPrefixOf(this)) return null;
         
-        int[] instanceIds = new int[length() - base.length()];
-        System.arraycopy(m_ids, base.length(), instanceIds, 0, instanceIds.length);
-        return new SnmpInstId(instanceIds);
+        return getInstance(base.length());
+    }
+
+    /**
+     * Returns the sub-identifiers that follow a prefix of the given length,
+     * without checking the prefix.
+     */
+    SnmpInstId getInstance(int prefixLength) {
+        int[] instanceIds = new int[length() - prefixLength];
+        System.arraycopy(m_ids, prefixLength, instanceIds, 0, instanceIds.length);
+        return new SnmpInstId(instanceIds, false);
     }
 
     public int length() {
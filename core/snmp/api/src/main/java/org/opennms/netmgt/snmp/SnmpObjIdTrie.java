@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp;
+
+import java.util.Arrays;
+
+/**
+ * A prefix trie keyed by the sub-identifiers of {@link SnmpObjId}s.
+ * <p>
+ * A lookup walks the sub-identifiers of an OID once and returns the entry
+ * registered for the longest prefix of that OID, without allocating. Each
+ * entry keeps the first {@link SnmpObjId} instance registered for it, so the
+ * trie also serves to intern the OIDs of a collection.
+ * </p>
+ * <p>
+ * The trie is not synchronized. It may be read by several threads once it
+ * is built.
+ * </p>
+ *
+ * @param <T> the type of the values
+ */
+public class SnmpObjIdTrie<T> {
+
+    private static final int[] NO_SUB_IDS = new int[0];
+
+    public static class Entry<T> {
+        private int[] m_subIds = NO_SUB_IDS;
+        @SuppressWarnings("unchecked")
+        private Entry<T>[] m_children = new Entry[0];
+        private SnmpObjId m_objId;
+        private T m_value;
+
+        /**
+         * @return the OID this entry was registered with
+         */
+        public SnmpObjId getObjId() {
+            return m_objId;
+        }
+
+        public T getValue() {
+            return m_value;
+        }
+
+        /**
+         * Returns the instance of the given OID relative to this entry.
+         * The OID must be one for which this entry was returned by
+         * {@link SnmpObjIdTrie#getLongestPrefix(SnmpObjId)}.
+         */
+        public SnmpInstId getInstance(SnmpObjId objId) {
+            return objId.getInstance(m_objId.length());
+        }
+
+        private Entry<T> getChild(int subId) {
+            final int index = Arrays.binarySearch(m_subIds, subId);
+            return index < 0 ? null : m_children[index];
+        }
+
+        private Entry<T> getOrAddChild(int subId) {
+            int index = Arrays.binarySearch(m_subIds, subId);
+            if (index >= 0) {
+                return m_children[index];
+            }
+            index = -index - 1;
+            final int[] subIds = new int[m_subIds.length + 1];
+            System.arraycopy(m_subIds, 0, subIds, 0, index);
+            System.arraycopy(m_subIds, index, subIds, index + 1, m_subIds.length - index);
+            subIds[index] = subId;
+            final Entry<T>[] children = Arrays.copyOf(m_children, m_children.length + 1);
+            System.arraycopy(m_children, index, children, index + 1, m_children.length - index);
+            children[index] = new Entry<T>();
+            m_subIds = subIds;
+            m_children = children;
+            return children[index];
+        }
+    }
+
+    private final Entry<T> m_root = new Entry<T>();
+    private int m_size = 0;
+
+    /**
+     * Associates the value with the OID, replacing any previous value.
+     *
+     * @return the interned instance of the OID
+     */
+    public SnmpObjId put(SnmpObjId objId, T value) {
+        Entry<T> entry = m_root;
+        for (int i = 0; i < objId.length(); i++) {
+            entry = entry.getOrAddChild(objId.getSubIdAt(i));
+        }
+        if (entry.m_objId == null) {
+            entry.m_objId = objId;
+            m_size++;
+        }
+        entry.m_value = value;
+        return entry.m_objId;
+    }
+
+    /**
+     * @return the entry registered for exactly this OID, or null
+     */
+    public Entry<T> getEntry(SnmpObjId objId) {
+        Entry<T> entry = m_root;
+        for (int i = 0; i < objId.length() && entry != null; i++) {
+            entry = entry.getChild(objId.getSubIdAt(i));
+        }
+        return entry == null || entry.m_objId == null ? null : entry;
+    }
+
+    /**
+     * @return the value registered for exactly this OID, or null
+     */
+    public T get(SnmpObjId objId) {
+        final Entry<T> entry = getEntry(objId);
+        return entry == null ? null : entry.m_value;
+    }
+
+    /**
+     * @return the interned instance of an equal OID, or the OID itself if
+     *         none was registered
+     */
+    public SnmpObjId intern(SnmpObjId objId) {
+        final Entry<T> entry = getEntry(objId);
+        return entry == null ? objId : entry.m_objId;
+    }
+
+    /**
+     * Returns the entry registered for the longest prefix of the OID, which
+     * may be the OID itself.
+     *
+     * @return the entry, or null if no prefix of the OID is registered
+     */
+    public Entry<T> getLongestPrefix(SnmpObjId objId) {
+        Entry<T> longest = m_root.m_objId == null ? null : m_root;
+        Entry<T> entry = m_root;
+        for (int i = 0; i < objId.length(); i++) {
+            entry = entry.getChild(objId.getSubIdAt(i));
+            if (entry == null) {
+                break;
+            }
+            if (entry.m_objId != null) {
+                longest = entry;
+            }
+        }
+        return longest;
+    }
+
+    public int size() {
+        return m_size;
+    }
+
+    public boolean isEmpty() {
+        return m_size == 0;
+    }
+}
@@ -44,6 +44,7 @@ public class SnmpTableResult implements RowResultFactory {
     private final RowResultFactory m_rowResultFactory;
 
     private final List<SnmpObjId> m_finishedColumns;
+    private SnmpObjId[] m_finishedColumnArray = new SnmpObjId[0];
     private final Map<SnmpInstId,SnmpRowResult> m_pendingData;
     private volatile boolean m_finished = false;
     
@@ -87,7 +88,7 @@ public class SnmpTableResult implements RowResultFactory {
         SnmpInstId lastInstance = null;
 
         for (SnmpRowResult row : m_pendingData.values()) {
-            if (row.isComplete(m_finishedColumns.toArray(new SnmpObjId[m_finishedColumns.size()]))) {
+            if (row.isComplete(m_finishedColumnArray)) {
                 lastInstance = row.getInstance();
             }
         }
@@ -112,6 +113,7 @@ public class SnmpTableResult implements RowResultFactory {
 
     public void columnFinished(SnmpObjId columnId) {
         m_finishedColumns.add(columnId);
+        m_finishedColumnArray = m_finishedColumns.toArray(new SnmpObjId[m_finishedColumns.size()]);
         handleCompleteRows();
     }
 
@@ -48,6 +48,8 @@ public class TableTracker extends CollectionTracker implements RowCallback, RowR
 
     private final List<ColumnTracker> m_columnTrackers;
 
+    private final SnmpObjIdTrie<ColumnTracker> m_columns = new SnmpObjIdTrie<ColumnTracker>();
+
     public TableTracker(SnmpObjId... ids) {
         this(null, ids);
     }
@@ -61,7 +63,9 @@ public class TableTracker extends CollectionTracker implements RowCallback, RowR
 
         m_columnTrackers = new ArrayList<ColumnTracker>(columns.length);
         for (SnmpObjId id : columns) {
-            m_columnTrackers.add(new ColumnTracker(this, id, maxRepetitions));
+            final ColumnTracker tracker = new ColumnTracker(this, id, maxRepetitions);
+            m_columnTrackers.add(tracker);
+            m_columns.put(id, tracker);
         }
     }
 
@@ -208,10 +212,13 @@ public class TableTracker extends CollectionTracker implements RowCallback, RowR
 
     @Override
     public void handleWalkResponses(List<WalkResponse> responses) {
-        // Store each result
+        // Store each result, sharing the column oids with the trackers
         responses.stream()
             .flatMap(res -> res.getResults().stream())
-            .forEach(res -> storeResult(res));
+            .forEach(res -> {
+                res.setBase(m_columns.intern(res.getBase()));
+                storeResult(res);
+            });
         // Mark all of the base columns as completed
         m_columnTrackers.stream()
             .map(c -> c.getBase())
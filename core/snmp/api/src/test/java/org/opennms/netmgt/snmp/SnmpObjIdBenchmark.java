@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Resolves the response OIDs of a synthetic interface table to their
+ * columns, once by scanning the columns with {@link SnmpObjId#isPrefixOf(SnmpObjId)}
+ * and once with a {@link SnmpObjIdTrie}, and compares parsing the column
+ * OIDs with {@link SnmpObjId#get(String)} to building new instances.
+ *
+ * The GC profiler is enabled so that the allocation rate per operation is
+ * reported along with the throughput.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.opennms.netmgt.snmp.SnmpObjIdBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SnmpObjIdBenchmark {
+
+    private static final String IF_ENTRY = ".1.3.6.1.2.1.2.2.1";
+    private static final String IF_X_ENTRY = ".1.3.6.1.2.1.31.1.1.1";
+
+    @Param({"1000"})
+    public int m_interfaces;
+
+    private String[] m_columnOids;
+    private SnmpObjId[] m_columns;
+    private SnmpObjIdTrie<SnmpObjId> m_trie;
+    private SnmpObjId[] m_responses;
+
+    @Setup
+    public void setUp() {
+        final List<String> columnOids = new ArrayList<String>();
+        for (int column = 1; column <= 22; column++) {
+            columnOids.add(IF_ENTRY + "." + column);
+        }
+        for (int column = 1; column <= 19; column++) {
+            columnOids.add(IF_X_ENTRY + "." + column);
+        }
+        m_columnOids = columnOids.toArray(new String[columnOids.size()]);
+
+        m_columns = new SnmpObjId[m_columnOids.length];
+        m_trie = new SnmpObjIdTrie<SnmpObjId>();
+        for (int i = 0; i < m_columnOids.length; i++) {
+            m_columns[i] = SnmpObjId.get(m_columnOids[i]);
+            m_trie.put(m_columns[i], m_columns[i]);
+        }
+
+        m_responses = new SnmpObjId[m_columns.length * m_interfaces];
+        int i = 0;
+        for (int ifIndex = 1; ifIndex <= m_interfaces; ifIndex++) {
+            for (SnmpObjId column : m_columns) {
+                m_responses[i++] = column.append(new int[] { ifIndex });
+            }
+        }
+    }
+
+    @Benchmark
+    public void parseColumns(Blackhole bh) {
+        for (String oid : m_columnOids) {
+            bh.consume(new SnmpObjId(oid));
+        }
+    }
+
+    @Benchmark
+    public void getInternedColumns(Blackhole bh) {
+        for (String oid : m_columnOids) {
+            bh.consume(SnmpObjId.get(oid));
+        }
+    }
+
+    @Benchmark
+    public void resolveByScanning(Blackhole bh) {
+        for (SnmpObjId response : m_responses) {
+            for (SnmpObjId column : m_columns) {
+                if (column.isPrefixOf(response) && !column.equals(response)) {
+                    bh.consume(new SnmpResult(column, response.getInstance(column), null));
+                    break;
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void resolveWithTrie(Blackhole bh) {
+        for (SnmpObjId response : m_responses) {
+            final SnmpObjIdTrie.Entry<SnmpObjId> entry = m_trie.getLongestPrefix(response);
+            if (entry != null && entry.getObjId().length() < response.length()) {
+                bh.consume(new SnmpResult(entry.getValue(), entry.getInstance(response), null));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SnmpObjIdBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class SnmpObjIdTrieTest {
+
+    private static final SnmpObjId IF_IN_OCTETS = SnmpObjId.get(".1.3.6.1.2.1.2.2.1.10");
+    private static final SnmpObjId IF_OUT_OCTETS = SnmpObjId.get(".1.3.6.1.2.1.2.2.1.16");
+    private static final SnmpObjId IF_ENTRY = SnmpObjId.get(".1.3.6.1.2.1.2.2.1");
+
+    @Test
+    public void testExactMatch() {
+        final SnmpObjIdTrie<String> trie = new SnmpObjIdTrie<String>();
+        trie.put(IF_IN_OCTETS, "ifInOctets");
+        trie.put(IF_OUT_OCTETS, "ifOutOctets");
+        assertEquals(2, trie.size());
+
+        assertEquals("ifInOctets", trie.get(SnmpObjId.get(".1.3.6.1.2.1.2.2.1.10")));
+        assertEquals("ifOutOctets", trie.get(IF_OUT_OCTETS));
+        assertNull(trie.get(IF_ENTRY));
+        assertNull(trie.get(SnmpObjId.get(".1.3.6.1.2.1.2.2.1.10.1")));
+
+        trie.put(new SnmpObjId(IF_IN_OCTETS), "replaced");
+        assertEquals(2, trie.size());
+        assertEquals("replaced", trie.get(IF_IN_OCTETS));
+    }
+
+    @Test
+    public void testLongestPrefix() {
+        final SnmpObjIdTrie<String> trie = new SnmpObjIdTrie<String>();
+        trie.put(IF_ENTRY, "ifEntry");
+        trie.put(IF_IN_OCTETS, "ifInOctets");
+
+        final SnmpObjId response = SnmpObjId.get(".1.3.6.1.2.1.2.2.1.10.27");
+        SnmpObjIdTrie.Entry<String> entry = trie.getLongestPrefix(response);
+        assertEquals("ifInOctets", entry.getValue());
+        assertSame(IF_IN_OCTETS, entry.getObjId());
+        assertEquals(new SnmpInstId(27), entry.getInstance(response));
+
+        entry = trie.getLongestPrefix(SnmpObjId.get(".1.3.6.1.2.1.2.2.1.16.27"));
+        assertEquals("ifEntry", entry.getValue());
+        assertEquals(SnmpObjId.get("16.27"), entry.getInstance(SnmpObjId.get(".1.3.6.1.2.1.2.2.1.16.27")));
+
+        assertNull(trie.getLongestPrefix(SnmpObjId.get(".1.3.6.1.2.1.1.3.0")));
+        assertNull(trie.getLongestPrefix(SnmpObjId.get(".1.3.6.1.2.1.2.2")));
+    }
+
+    @Test
+    public void testIntern() {
+        final SnmpObjIdTrie<Integer> trie = new SnmpObjIdTrie<Integer>();
+        assertSame(IF_IN_OCTETS, trie.put(IF_IN_OCTETS, 1));
+        assertSame(IF_IN_OCTETS, trie.put(new SnmpObjId(IF_IN_OCTETS), 2));
+        assertSame(IF_IN_OCTETS, trie.intern(new SnmpObjId(IF_IN_OCTETS)));
+        assertSame(IF_OUT_OCTETS, trie.intern(IF_OUT_OCTETS));
+    }
+
+    @Test
+    public void testUnsignedSubIds() {
+        final SnmpObjIdTrie<String> trie = new SnmpObjIdTrie<String>();
+        final SnmpObjId large = SnmpObjId.get(".1.3.6.1.4.1." + (((long)Integer.MAX_VALUE) + 10L));
+        trie.put(large, "large");
+        trie.put(SnmpObjId.get(".1.3.6.1.4.1.5"), "small");
+        assertEquals("large", trie.getLongestPrefix(large.append("1.2")).getValue());
+        assertEquals("small", trie.getLongestPrefix(SnmpObjId.get(".1.3.6.1.4.1.5.1")).getValue());
+    }
+}
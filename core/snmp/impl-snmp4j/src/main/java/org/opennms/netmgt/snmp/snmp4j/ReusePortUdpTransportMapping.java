@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+
+import org.opennms.core.utils.DatagramSocketStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.TransportStateReference;
+import org.snmp4j.security.SecurityLevel;
+import org.snmp4j.smi.UdpAddress;
+import org.snmp4j.transport.UdpTransportMapping;
+
+/**
+ * A UDP transport mapping that reads from a {@link DatagramChannel} which
+ * was opened with SO_REUSEPORT. Several of these mappings can listen on the
+ * same trap port, each with its own socket queue, receive buffer and listen
+ * thread. Their receive and drop counters are registered in JMX.
+ */
+public class ReusePortUdpTransportMapping extends UdpTransportMapping {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReusePortUdpTransportMapping.class);
+
+    /**
+     * JMX domain that the per-socket statistics are registered in.
+     */
+    private static final String JMX_DOMAIN = "org.opennms.netmgt.trapd";
+
+    /**
+     * Bounds of the pause after a failed receive, doubled on each consecutive
+     * failure.
+     */
+    private static final long MIN_RECEIVE_ERROR_BACKOFF_MS = 10;
+    private static final long MAX_RECEIVE_ERROR_BACKOFF_MS = 1000;
+
+    private final DatagramChannel m_channel;
+    private final int m_index;
+    private final DatagramSocketStats m_stats = new DatagramSocketStats();
+
+    private volatile Thread m_listenThread;
+
+    public ReusePortUdpTransportMapping(final DatagramChannel channel, final int index) throws IOException {
+        super(toUdpAddress((InetSocketAddress)channel.getLocalAddress()));
+        m_channel = channel;
+        m_index = index;
+    }
+
+    private static UdpAddress toUdpAddress(final InetSocketAddress address) {
+        return new UdpAddress(address.getAddress(), address.getPort());
+    }
+
+    public DatagramSocketStats getStats() {
+        return m_stats;
+    }
+
+    @Override
+    public void sendMessage(final UdpAddress address, final byte[] message, final TransportStateReference tmStateReference) throws IOException {
+        LOG.debug("Sending message of {} bytes to {} on socket {}", message.length, address, m_index);
+        m_channel.send(ByteBuffer.wrap(message), new InetSocketAddress(address.getInetAddress(), address.getPort()));
+    }
+
+    @Override
+    public synchronized void listen() throws IOException {
+        if (m_listenThread != null) {
+            throw new SocketException("Port already listening");
+        }
+        if (!m_channel.isOpen()) {
+            throw new ClosedChannelException();
+        }
+        m_stats.register(JMX_DOMAIN, udpAddress.getPort(), m_index);
+
+        final Thread listenThread = new Thread(this::receive, "ReusePortUdpTransportMapping_" + udpAddress + "_" + m_index);
+        listenThread.setDaemon(true);
+        m_listenThread = listenThread;
+        listenThread.start();
+    }
+
+    @Override
+    public boolean isListening() {
+        return m_listenThread != null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        final Thread listenThread;
+        synchronized (this) {
+            listenThread = m_listenThread;
+            m_listenThread = null;
+        }
+        try {
+            m_channel.close();
+        } finally {
+            m_stats.unregister();
+        }
+        if (listenThread != null && listenThread != Thread.currentThread()) {
+            try {
+                listenThread.join();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void receive() {
+        final ByteBuffer buffer = ByteBuffer.allocate(getMaxInboundMessageSize());
+        long backoff = 0;
+        while (m_channel.isOpen()) {
+            final InetSocketAddress source;
+            buffer.clear();
+            try {
+                source = (InetSocketAddress)m_channel.receive(buffer);
+                backoff = 0;
+            } catch (final ClosedChannelException e) {
+                break;
+            } catch (final IOException e) {
+                if (!m_channel.isOpen()) {
+                    break;
+                }
+                // Errors that persist would otherwise turn this loop into a busy spin
+                backoff = Math.min(Math.max(backoff * 2, MIN_RECEIVE_ERROR_BACKOFF_MS), MAX_RECEIVE_ERROR_BACKOFF_MS);
+                LOG.warn("Failed to receive a datagram on socket {} of {}, retrying in {}ms", m_index, udpAddress, backoff, e);
+                try {
+                    Thread.sleep(backoff);
+                } catch (final InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                continue;
+            }
+
+            m_stats.received();
+            if (!buffer.hasRemaining()) {
+                // The datagram filled the whole buffer and was most likely cut short
+                m_stats.truncated();
+            }
+            buffer.flip();
+
+            // Message processing may continue on other threads, so hand over a copy
+            final byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+
+            final TransportStateReference stateReference = new TransportStateReference(this, udpAddress, null, SecurityLevel.undefined, SecurityLevel.undefined, false, m_channel);
+            try {
+                fireProcessMessage(toUdpAddress(source), ByteBuffer.wrap(bytes), stateReference);
+            } catch (final RuntimeException e) {
+                m_stats.dropped();
+                LOG.warn("Failed to process a datagram from {} on socket {}", source, m_index, e);
+            }
+        }
+        LOG.debug("Stopped listening on socket {} of {}", m_index, udpAddress);
+    }
+}
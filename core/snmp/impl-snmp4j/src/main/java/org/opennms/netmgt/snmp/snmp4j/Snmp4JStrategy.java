@@ -30,8 +30,11 @@ package org.opennms.netmgt.snmp.snmp4j;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -39,6 +42,7 @@ import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 
+import org.opennms.core.utils.ReusePortDatagramChannels;
 import org.opennms.netmgt.snmp.CollectionTracker;
 import org.opennms.netmgt.snmp.SnmpAgentConfig;
 import org.opennms.netmgt.snmp.SnmpConfiguration;
@@ -85,6 +89,13 @@ public class Snmp4JStrategy implements SnmpStrategy {
 
     private static final transient Logger LOG = LoggerFactory.getLogger(Snmp4JStrategy.class);
 
+    /**
+     * Number of sockets that listen on the trap port. With more than one, each socket
+     * is opened with SO_REUSEPORT and has its own receive buffer and listen thread.
+     * A value of 0 opens one socket per processor.
+     */
+    private static final int TRAP_RECEIVE_SOCKETS = Integer.getInteger("org.opennms.snmp.snmp4j.trapReceiveSockets", 1);
+
     private static Map<TrapNotificationListener, RegistrationInfo> s_registrations = new HashMap<TrapNotificationListener, RegistrationInfo>();
 
     private static boolean s_initialized = false;
@@ -471,6 +482,24 @@ public class Snmp4JStrategy implements SnmpStrategy {
         
     }
 
+    /**
+     * The multi-socket receiver lives in org.opennms.core.lib, which is an
+     * optional import of this bundle, so it is only touched when more than
+     * one socket is configured and it falls back to a single socket when the
+     * package isn't wired in.
+     */
+    private static int getTrapReceiveSockets() {
+        if (TRAP_RECEIVE_SOCKETS <= 1) {
+            return 1;
+        }
+        try {
+            return ReusePortDatagramChannels.getSocketCount(TRAP_RECEIVE_SOCKETS);
+        } catch (final NoClassDefFoundError e) {
+            LOG.warn("org.opennms.core.utils is not available, receiving traps on one socket instead of {}", TRAP_RECEIVE_SOCKETS);
+            return 1;
+        }
+    }
+
         @Override
     public void registerForTraps(final TrapNotificationListener listener, final TrapProcessorFactory processorFactory, InetAddress address, int snmpTrapPort, List<SnmpV3User> snmpUsers) throws IOException {
     	final RegistrationInfo info = new RegistrationInfo(listener, address, snmpTrapPort);
@@ -485,11 +514,25 @@ public class Snmp4JStrategy implements SnmpStrategy {
         	udpAddress = new UdpAddress(address, snmpTrapPort);
         }
 
-        // Set socket option SO_REUSEADDR so that we can bind to the port even if it
-        // has recently been closed by passing 'true' as the second argument here.
-        final TransportMapping<UdpAddress> transport = new DefaultUdpTransportMapping(udpAddress, true);
-        info.setTransportMapping(transport);
-        Snmp snmp = new Snmp(transport);
+        final List<TransportMapping<UdpAddress>> transports = new ArrayList<>();
+        final int receiveSockets = getTrapReceiveSockets();
+        if (receiveSockets > 1) {
+            final InetSocketAddress bindAddress = address == null ? new InetSocketAddress(snmpTrapPort) : new InetSocketAddress(address, snmpTrapPort);
+            final List<DatagramChannel> channels = ReusePortDatagramChannels.open(bindAddress, receiveSockets);
+            for (int i = 0; i < channels.size(); i++) {
+                transports.add(new ReusePortUdpTransportMapping(channels.get(i), i));
+            }
+        } else {
+            // Set socket option SO_REUSEADDR so that we can bind to the port even if it
+            // has recently been closed by passing 'true' as the second argument here.
+            transports.add(new DefaultUdpTransportMapping(udpAddress, true));
+        }
+        info.setTransportMapping(transports.get(0));
+        Snmp snmp = new Snmp(transports.get(0));
+        // The session listens on, and dispatches the traps from, all of the transports
+        for (int i = 1; i < transports.size(); i++) {
+            snmp.addTransportMapping(transports.get(i));
+        }
         snmp.addCommandResponder(m_trapHandler);
 
         if (snmpUsers != null) {
@@ -168,6 +168,18 @@ public class SnmpObjIdTest extends TestCase {
         SnmpObjId oid2 = SnmpObjId.get(".1.3.5.7.0");
         assertEquals(oid, oid2.decrement());
     }
+
+    public void testGetIsInterned() {
+        SnmpObjId oid = SnmpObjId.get(".1.3.6.1.2.1.2.2.1.10");
+        assertSame(oid, SnmpObjId.get(".1.3.6.1.2.1.2.2.1.10"));
+        assertEquals(oid, SnmpObjId.get("1.3.6.1.2.1.2.2.1.10"));
+    }
+
+    public void testHashCode() {
+        assertEquals(SnmpObjId.get(".1.2.3").hashCode(), new SnmpInstId("1.2.3").hashCode());
+        // columns and instances of a table must not collide
+        assertFalse(SnmpObjId.get(".1.3.6.1.2.1.2.2.1.10.5").hashCode() == SnmpObjId.get(".1.3.6.1.2.1.2.2.1.11.4").hashCode());
+    }
     
     
 
@@ -32,6 +32,7 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.stream.Collectors;
 
 import org.opennms.core.rpc.api.RpcClient;
@@ -43,6 +44,7 @@ import org.opennms.netmgt.snmp.SnmpResult;
 import org.opennms.netmgt.snmp.SnmpValue;
 import org.opennms.netmgt.snmp.proxy.LocationAwareSnmpClient;
 import org.opennms.netmgt.snmp.proxy.SNMPRequestBuilder;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 
@@ -50,15 +52,33 @@ import org.springframework.beans.factory.annotation.Autowired;
  * Location-aware SNMP client that builds a {@link SnmpRequestDTO} and delegates
  * the request to either a local, or a remote @{link SnmpRequestExecutor}.
  *
+ * Concurrent requests for the same location are combined into batches by
+ * a {@link SnmpRequestBatcher}.
+ *
  * @author jwhite
  */
-public class LocationAwareSnmpClientRpcImpl implements LocationAwareSnmpClient, InitializingBean {
+public class LocationAwareSnmpClientRpcImpl implements LocationAwareSnmpClient, InitializingBean, DisposableBean {
+
+    /**
+     * Maximum number of requests that are sent to a location in a single RPC.
+     */
+    public static final int DEFAULT_MAX_BATCH_SIZE = Integer.getInteger("org.opennms.snmp.rpc.batch.maxSize", 25);
+
+    /**
+     * Maximum number of milliseconds a request waits for others to join its batch.
+     * Batching is disabled when set to 0.
+     */
+    public static final long DEFAULT_MAX_BATCH_DELAY_MS = Long.getLong("org.opennms.snmp.rpc.batch.maxDelayMs", 5);
 
     @Autowired
     private RpcClientFactory rpcClientFactory;
 
     private RpcClient<SnmpRequestDTO, SnmpMultiResponseDTO> delegate;
 
+    private ScheduledThreadPoolExecutor batchScheduler;
+
+    private SnmpRequestBatcher batcher;
+
     public LocationAwareSnmpClientRpcImpl() { }
 
     public LocationAwareSnmpClientRpcImpl(RpcClientFactory rpcClientFactory) {
@@ -69,6 +89,26 @@ public class LocationAwareSnmpClientRpcImpl implements LocationAwareSnmpClient,
     @Override
     public void afterPropertiesSet() {
         delegate = rpcClientFactory.getClient(new SnmpProxyRpcModule());
+        batchScheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            final Thread thread = new Thread(r, "SNMP-RPC-Batcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Every batched request arms a timeout that is cancelled once it is answered
+        batchScheduler.setRemoveOnCancelPolicy(true);
+        batcher = new SnmpRequestBatcher(delegate::execute, rpcClientFactory::isLocal, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_BATCH_DELAY_MS,
+                batchScheduler);
+    }
+
+    /**
+     * Stops the batch scheduler. The batches that are already pending are
+     * still sent, later requests are sent one by one.
+     */
+    @Override
+    public void destroy() {
+        if (batchScheduler != null) {
+            batchScheduler.shutdown();
+        }
     }
 
     @Override
@@ -123,6 +163,6 @@ public class LocationAwareSnmpClientRpcImpl implements LocationAwareSnmpClient,
     }
 
     public CompletableFuture<SnmpMultiResponseDTO> execute(SnmpRequestDTO request) {
-        return delegate.execute(request);
+        return batcher.execute(request);
     }
 }
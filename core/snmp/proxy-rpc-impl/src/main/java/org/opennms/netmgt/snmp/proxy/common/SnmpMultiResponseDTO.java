@@ -34,6 +34,7 @@ import java.util.Objects;
 
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 
@@ -46,6 +47,18 @@ public class SnmpMultiResponseDTO implements RpcResponse {
     @XmlElement(name="response")
     private List<SnmpResponseDTO> responses = new ArrayList<>(0);
 
+    /**
+     * Responses to the {@link SnmpRequestDTO#getSubRequests()}, in the same order.
+     */
+    @XmlElement(name="snmp-response")
+    private List<SnmpMultiResponseDTO> subResponses = new ArrayList<>(0);
+
+    /**
+     * Set instead of the responses when a sub-request failed.
+     */
+    @XmlAttribute(name="error")
+    private String error;
+
     public void setResponses(List<SnmpResponseDTO> responses) {
         this.responses = responses;
     }
@@ -54,9 +67,25 @@ public class SnmpMultiResponseDTO implements RpcResponse {
         return responses;
     }
 
+    public void setSubResponses(List<SnmpMultiResponseDTO> subResponses) {
+        this.subResponses = subResponses;
+    }
+
+    public List<SnmpMultiResponseDTO> getSubResponses() {
+        return subResponses;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
     @Override
     public int hashCode() {
-        return Objects.hash(responses);
+        return Objects.hash(responses, subResponses, error);
     }
 
     @Override
@@ -68,6 +97,8 @@ public class SnmpMultiResponseDTO implements RpcResponse {
         if (getClass() != obj.getClass())
             return false;
         final SnmpMultiResponseDTO other = (SnmpMultiResponseDTO) obj;
-        return Objects.equals(this.responses, other.responses);
+        return Objects.equals(this.responses, other.responses)
+                && Objects.equals(this.subResponses, other.subResponses)
+                && Objects.equals(this.error, other.error);
     }
 }
@@ -37,6 +37,10 @@ public class SnmpProxyRpcModule extends AbstractXmlRpcModule<SnmpRequestDTO, Snm
 
     @Override
     public CompletableFuture<SnmpMultiResponseDTO> execute(SnmpRequestDTO request) {
+        if (!request.getSubRequests().isEmpty()) {
+            return executeBatch(request.getSubRequests());
+        }
+
         CompletableFuture<SnmpMultiResponseDTO> combinedFuture = CompletableFuture
                 .completedFuture(new SnmpMultiResponseDTO());
         for (SnmpGetRequestDTO getRequest : request.getGetRequests()) {
@@ -54,6 +58,36 @@ public class SnmpProxyRpcModule extends AbstractXmlRpcModule<SnmpRequestDTO, Snm
         return combinedFuture;
     }
 
+    /**
+     * Executes all of the sub-requests in parallel. A failed sub-request is
+     * reported in its own response and does not affect the others.
+     */
+    private CompletableFuture<SnmpMultiResponseDTO> executeBatch(List<SnmpRequestDTO> subRequests) {
+        final List<CompletableFuture<SnmpMultiResponseDTO>> futures = new ArrayList<>(subRequests.size());
+        for (SnmpRequestDTO subRequest : subRequests) {
+            CompletableFuture<SnmpMultiResponseDTO> future;
+            try {
+                future = execute(subRequest);
+            } catch (Throwable t) {
+                future = new CompletableFuture<>();
+                future.completeExceptionally(t);
+            }
+            futures.add(future.exceptionally(t -> {
+                final SnmpMultiResponseDTO errorResponse = new SnmpMultiResponseDTO();
+                errorResponse.setError(t.getMessage() != null ? t.getMessage() : t.getClass().getName());
+                return errorResponse;
+            }));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()]))
+                .thenApply(v -> {
+                    final SnmpMultiResponseDTO response = new SnmpMultiResponseDTO();
+                    for (CompletableFuture<SnmpMultiResponseDTO> future : futures) {
+                        response.getSubResponses().add(future.join());
+                    }
+                    return response;
+                });
+    }
+
     private CompletableFuture<Collection<SnmpResponseDTO>> walk(SnmpRequestDTO request, List<SnmpWalkRequestDTO> walks) {
         final CompletableFuture<Collection<SnmpResponseDTO>> future = new CompletableFuture<>();
         final Map<String, SnmpResponseDTO> responsesByCorrelationId = new LinkedHashMap<>();
@@ -0,0 +1,267 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp.proxy.common;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Groups concurrent requests for the same location into a single
+ * {@link SnmpRequestDTO}, so that one RPC round trip serves many agents.
+ *
+ * A batch is sent as soon as it holds the maximum number of requests, or
+ * once the maximum delay has elapsed since its first request was added.
+ * Requests that are executed locally, i.e. without a location or for the
+ * location of this system, are never batched nor delayed.
+ *
+ * Systems that predate batching ignore the sub-requests and answer with
+ * no sub-responses. The requests of such a batch are sent again one by one,
+ * and the location is sent single requests for a while before batching is
+ * tried again.
+ *
+ * A batch lives as long as its most patient request, so a batched request
+ * fails once its own time-to-live has elapsed instead of waiting for the
+ * slowest request of its batch.
+ */
+public class SnmpRequestBatcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SnmpRequestBatcher.class);
+
+    /**
+     * How long a location that failed to answer a batch is sent single requests.
+     */
+    private static final long UNBATCHED_INTERVAL_MS = TimeUnit.MINUTES.toMillis(10);
+
+    private final Function<SnmpRequestDTO, CompletableFuture<SnmpMultiResponseDTO>> delegate;
+    private final Predicate<String> isLocal;
+    private final int maxBatchSize;
+    private final long maxDelayMs;
+    private final ScheduledExecutorService scheduler;
+
+    private final Map<String, Batch> pendingBatchesByLocation = new HashMap<>();
+
+    private final Map<String, Long> unbatchedUntilByLocation = new ConcurrentHashMap<>();
+
+    public SnmpRequestBatcher(Function<SnmpRequestDTO, CompletableFuture<SnmpMultiResponseDTO>> delegate,
+            int maxBatchSize, long maxDelayMs, ScheduledExecutorService scheduler) {
+        this(delegate, location -> location == null, maxBatchSize, maxDelayMs, scheduler);
+    }
+
+    public SnmpRequestBatcher(Function<SnmpRequestDTO, CompletableFuture<SnmpMultiResponseDTO>> delegate,
+            Predicate<String> isLocal, int maxBatchSize, long maxDelayMs, ScheduledExecutorService scheduler) {
+        this.delegate = Objects.requireNonNull(delegate);
+        this.isLocal = Objects.requireNonNull(isLocal);
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayMs = maxDelayMs;
+        this.scheduler = Objects.requireNonNull(scheduler);
+    }
+
+    public CompletableFuture<SnmpMultiResponseDTO> execute(SnmpRequestDTO request) {
+        if (maxBatchSize < 2 || maxDelayMs < 1 || isLocal.test(request.getLocation()) || isUnbatched(request.getLocation())) {
+            return delegate.apply(request);
+        }
+
+        final CompletableFuture<SnmpMultiResponseDTO> future = new CompletableFuture<>();
+        expireAfterTimeToLive(request, future);
+        Batch completed = null;
+        synchronized (pendingBatchesByLocation) {
+            Batch batch = pendingBatchesByLocation.get(request.getLocation());
+            if (batch == null) {
+                batch = new Batch(request.getLocation());
+                pendingBatchesByLocation.put(request.getLocation(), batch);
+                final Batch armedFor = batch;
+                try {
+                    scheduler.schedule(() -> flush(armedFor), maxDelayMs, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    // The scheduler was shut down, send the request on its own
+                    pendingBatchesByLocation.remove(request.getLocation());
+                    return delegate.apply(request);
+                }
+            }
+            batch.add(request, future);
+            if (batch.size() >= maxBatchSize) {
+                pendingBatchesByLocation.remove(request.getLocation());
+                completed = batch;
+            }
+        }
+        if (completed != null) {
+            send(completed);
+        }
+        return future;
+    }
+
+    private void expireAfterTimeToLive(SnmpRequestDTO request, CompletableFuture<SnmpMultiResponseDTO> future) {
+        final Long timeToLive = request.getTimeToLive();
+        if (timeToLive == null) {
+            return;
+        }
+        final ScheduledFuture<?> timeout;
+        try {
+            timeout = scheduler.schedule(() -> future.completeExceptionally(new TimeoutException(String.format(
+                    "SNMP request to location %s timed out after %d ms.", request.getLocation(), timeToLive))),
+                    timeToLive, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // The scheduler was shut down, the RPC's own time-to-live still applies
+            return;
+        }
+        future.whenComplete((response, ex) -> timeout.cancel(false));
+    }
+
+    private boolean isUnbatched(String location) {
+        final Long unbatchedUntil = unbatchedUntilByLocation.get(location);
+        if (unbatchedUntil == null) {
+            return false;
+        }
+        if (System.currentTimeMillis() < unbatchedUntil) {
+            return true;
+        }
+        unbatchedUntilByLocation.remove(location, unbatchedUntil);
+        return false;
+    }
+
+    private void flush(Batch batch) {
+        synchronized (pendingBatchesByLocation) {
+            if (pendingBatchesByLocation.get(batch.location) != batch) {
+                // Already sent when it filled up
+                return;
+            }
+            pendingBatchesByLocation.remove(batch.location);
+        }
+        send(batch);
+    }
+
+    private void send(Batch batch) {
+        if (batch.size() == 1) {
+            forward(execute(batch.requests.get(0), true), batch.futures.get(0));
+            return;
+        }
+
+        final SnmpRequestDTO batchRequest = new SnmpRequestDTO();
+        batchRequest.setLocation(batch.location);
+        batchRequest.setDescription(String.format("batch of %d requests", batch.size()));
+        batchRequest.setTimeToLive(batch.getTimeToLive());
+        batchRequest.setSubRequests(batch.requests);
+        LOG.debug("Sending {} requests to location {} in a single batch.", batch.size(), batch.location);
+
+        execute(batchRequest, false).whenComplete((response, ex) -> {
+            if (ex != null) {
+                batch.futures.forEach(f -> f.completeExceptionally(ex));
+                return;
+            }
+            if (response.getSubResponses().size() != batch.size()) {
+                LOG.warn("Batch of {} requests to location {} returned {} responses, the location may not support batches. "
+                        + "Sending the requests one by one.", batch.size(), batch.location, response.getSubResponses().size());
+                unbatchedUntilByLocation.put(batch.location, System.currentTimeMillis() + UNBATCHED_INTERVAL_MS);
+                for (int i = 0; i < batch.size(); i++) {
+                    forward(execute(batch.requests.get(i), true), batch.futures.get(i));
+                }
+                return;
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                final SnmpMultiResponseDTO subResponse = response.getSubResponses().get(i);
+                if (subResponse.getError() != null) {
+                    batch.futures.get(i).completeExceptionally(new IllegalStateException(String.format(
+                            "SNMP request to location %s failed: %s", batch.location, subResponse.getError())));
+                } else {
+                    batch.futures.get(i).complete(subResponse);
+                }
+            }
+        });
+    }
+
+    private CompletableFuture<SnmpMultiResponseDTO> execute(SnmpRequestDTO request, boolean single) {
+        try {
+            return delegate.apply(request);
+        } catch (Throwable t) {
+            LOG.warn("Failed to send {} to location {}.", single ? "request" : "batch", request.getLocation(), t);
+            final CompletableFuture<SnmpMultiResponseDTO> future = new CompletableFuture<>();
+            future.completeExceptionally(t);
+            return future;
+        }
+    }
+
+    private static void forward(CompletableFuture<SnmpMultiResponseDTO> from, CompletableFuture<SnmpMultiResponseDTO> to) {
+        from.whenComplete((response, ex) -> {
+            if (ex != null) {
+                to.completeExceptionally(ex);
+            } else {
+                to.complete(response);
+            }
+        });
+    }
+
+    private static class Batch {
+        private final String location;
+        private final List<SnmpRequestDTO> requests = new ArrayList<>();
+        private final List<CompletableFuture<SnmpMultiResponseDTO>> futures = new ArrayList<>();
+
+        private Batch(String location) {
+            this.location = location;
+        }
+
+        private void add(SnmpRequestDTO request, CompletableFuture<SnmpMultiResponseDTO> future) {
+            requests.add(request);
+            futures.add(future);
+        }
+
+        private int size() {
+            return requests.size();
+        }
+
+        /**
+         * The batch may live as long as its most patient request. A request
+         * without a time-to-live never expires.
+         */
+        private Long getTimeToLive() {
+            Long timeToLive = 0L;
+            for (SnmpRequestDTO request : requests) {
+                if (request.getTimeToLive() == null) {
+                    return null;
+                }
+                timeToLive = Math.max(timeToLive, request.getTimeToLive());
+            }
+            return timeToLive;
+        }
+    }
+}
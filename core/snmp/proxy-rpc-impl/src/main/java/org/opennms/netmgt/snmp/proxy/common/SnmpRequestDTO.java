@@ -61,6 +61,13 @@ public class SnmpRequestDTO implements RpcRequest {
     @XmlElement(name="walk")
     private List<SnmpWalkRequestDTO> walks = new ArrayList<>(0);
 
+    /**
+     * Requests for other agents at the same location that are executed
+     * along with this one, see {@link SnmpRequestBatcher}.
+     */
+    @XmlElement(name="snmp-request")
+    private List<SnmpRequestDTO> subRequests = new ArrayList<>(0);
+
     @XmlTransient
     private Long timeToLive;
 
@@ -96,6 +103,14 @@ public class SnmpRequestDTO implements RpcRequest {
         return walks;
     }
 
+    public void setSubRequests(List<SnmpRequestDTO> subRequests) {
+        this.subRequests = subRequests;
+    }
+
+    public List<SnmpRequestDTO> getSubRequests() {
+        return subRequests;
+    }
+
     public String getDescription() {
         return description;
     }
@@ -119,7 +134,7 @@ public class SnmpRequestDTO implements RpcRequest {
 
     @Override
     public int hashCode() {
-        return Objects.hash(location, agent, gets, walks, description, timeToLive);
+        return Objects.hash(location, agent, gets, walks, subRequests, description, timeToLive);
     }
 
     @Override
@@ -135,6 +150,7 @@ public class SnmpRequestDTO implements RpcRequest {
                 && Objects.equals(this.agent, other.agent)
                 && Objects.equals(this.gets, other.gets)
                 && Objects.equals(this.walks, other.walks)
+                && Objects.equals(this.subRequests, other.subRequests)
                 && Objects.equals(this.description, other.description)
                 && Objects.equals(this.timeToLive, other.timeToLive);
     }
@@ -29,11 +29,14 @@
 package org.opennms.netmgt.snmp.proxy.common;
 
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Dictionary;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 
 import org.apache.camel.Component;
@@ -226,6 +229,27 @@ public class LocationAwareSnmpClientIT extends CamelBlueprintTest {
         assertEquals(SnmpObjId.get(".1.3.6.1.2.1.4.32.1.5.1.1.4.127.0.0.0.8"), result.toSnmpObjId());
     }
 
+    /**
+     * Verifies that concurrent GETs for the same location are combined into
+     * batches, and that every request still receives its own result.
+     */
+    @Test
+    public void canGetConcurrentlyInBatchesViaCurrentLocation() throws InterruptedException, ExecutionException {
+        final List<CompletableFuture<SnmpValue>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(locationAwareSnmpClient.get(agentConfig, SnmpObjId.get(".1.3.6.1.2.1.4.34.1.3.1.4.127.0.0.1"))
+                    .withLocation(identity.getLocation())
+                    .execute());
+            futures.add(locationAwareSnmpClient.get(agentConfig, SnmpObjId.get(".1.3.6.1.2.1.4.34.1.3.1.4.172.17.0.1"))
+                    .withLocation(identity.getLocation())
+                    .execute());
+        }
+        for (int i = 0; i < futures.size(); i += 2) {
+            assertEquals(1, futures.get(i).get().toInt());
+            assertEquals(7, futures.get(i + 1).get().toInt());
+        }
+    }
+
     /**
      * Verifies that the IP Address tables can be walked when using a remote location.
      *
@@ -61,6 +61,22 @@ public class SnmpMultiResponseDTOTest extends XmlTestNoCastor<SnmpMultiResponseD
                             "</result>\n" +
                         "</response>\n" +
                     "</snmp-response>"
+                },
+                {
+                    getBatchedSnmpMultiResponse(),
+                    "<?xml version=\"1.0\"?>\n" +
+                    "<snmp-response>\n" +
+                        "<snmp-response>\n" +
+                            "<response correlation-id=\"42\">\n" +
+                                "<result>\n" +
+                                  "<base>.1.3.6.1.2</base>\n" +
+                                  "<instance>1.3.6.1.2.1.4.34.1.3.1.2.3.4</instance>\n" +
+                                  "<value type=\"70\">Cg==</value>\n" +
+                                "</result>\n" +
+                            "</response>\n" +
+                        "</snmp-response>\n" +
+                        "<snmp-response error=\"Timeout\"/>\n" +
+                    "</snmp-response>"
                 }
         });
     }
@@ -79,4 +95,14 @@ public class SnmpMultiResponseDTOTest extends XmlTestNoCastor<SnmpMultiResponseD
         multiResponseDTO.getResponses().add(responseDTO);
         return multiResponseDTO;
     }
+
+    private static SnmpMultiResponseDTO getBatchedSnmpMultiResponse() {
+        final SnmpMultiResponseDTO failedResponseDTO = new SnmpMultiResponseDTO();
+        failedResponseDTO.setError("Timeout");
+
+        final SnmpMultiResponseDTO batchResponseDTO = new SnmpMultiResponseDTO();
+        batchResponseDTO.getSubResponses().add(getSnmpMultiResponse());
+        batchResponseDTO.getSubResponses().add(failedResponseDTO);
+        return batchResponseDTO;
+    }
 }
@@ -0,0 +1,238 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp.proxy.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class SnmpRequestBatcherTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    private final List<SnmpRequestDTO> sentRequests = new CopyOnWriteArrayList<>();
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void sendsBatchWhenFull() throws Exception {
+        final SnmpRequestBatcher batcher = new SnmpRequestBatcher(this::echo, 3, TimeUnit.MINUTES.toMillis(1), scheduler);
+
+        final List<CompletableFuture<SnmpMultiResponseDTO>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            futures.add(batcher.execute(request("remote", "request-" + i)));
+        }
+
+        assertEquals(1, sentRequests.size());
+        assertEquals(3, sentRequests.get(0).getSubRequests().size());
+        assertEquals("remote", sentRequests.get(0).getLocation());
+        for (int i = 0; i < 3; i++) {
+            assertEquals("request-" + i, futures.get(i).get().getResponses().get(0).getCorrelationId());
+        }
+    }
+
+    @Test
+    public void sendsBatchWhenDelayElapses() throws Exception {
+        final SnmpRequestBatcher batcher = new SnmpRequestBatcher(this::echo, 100, 20, scheduler);
+
+        final CompletableFuture<SnmpMultiResponseDTO> first = batcher.execute(request("remote", "first"));
+        final CompletableFuture<SnmpMultiResponseDTO> second = batcher.execute(request("remote", "second"));
+        assertFalse(first.isDone());
+
+        assertEquals("first", first.get(10, TimeUnit.SECONDS).getResponses().get(0).getCorrelationId());
+        assertEquals("second", second.get(10, TimeUnit.SECONDS).getResponses().get(0).getCorrelationId());
+        assertEquals(1, sentRequests.size());
+    }
+
+    @Test
+    public void sendsSingleRequestWithoutBatch() throws Exception {
+        final SnmpRequestBatcher batcher = new SnmpRequestBatcher(this::echo, 100, 20, scheduler);
+
+        final SnmpRequestDTO request = request("remote", "alone");
+        assertEquals("alone", batcher.execute(request).get(10, TimeUnit.SECONDS).getResponses().get(0).getCorrelationId());
+        assertEquals(1, sentRequests.size());
+        assertEquals(request, sentRequests.get(0));
+    }
+
+    @Test
+    public void doesNotMixLocations() throws Exception {
+        final SnmpRequestBatcher batcher = new SnmpRequestBatcher(this::echo, 2, TimeUnit.MINUTES.toMillis(1), scheduler);
+
+        batcher.execute(request("east", "e1"));
+        batcher.execute(request("west", "w1"));
+        assertEquals(0, sentRequests.size());
+        batcher.execute(request("east", "e2"));
+        assertEquals(1, sentRequests.size());
+        assertEquals("east", sentRequests.get(0).getLocation());
+    }
+
+    @Test
+    public void doesNotDelayRequestsWithoutLocation() throws Exception {
+        final SnmpRequestBatcher batcher = new SnmpRequestBatcher(this::echo, 100, TimeUnit.MINUTES.toMillis(1), scheduler);
+
+        assertTrue(batcher.execute(request(null, "local")).isDone());
+        assertEquals(1, sentRequests.size());
+    }
+
+    @Test
+    public void doesNotDelayRequestsForTheLocalLocation() throws Exception {
+        final SnmpRequestBatcher batcher = new SnmpRequestBatcher(this::echo, "Default"::equals, 100, TimeUnit.MINUTES.toMillis(1), scheduler);
+
+        assertTrue(batcher.execute(request("Default", "local")).isDone());
+        assertFalse(batcher.execute(request("remote", "remote")).isDone());
+        assertEquals(1, sentRequests.size());
+        assertEquals("local", sentRequests.get(0).getDescription());
+    }
+
+    @Test
+    public void fallsBackToSingleRequestsWhenSubRequestsAreIgnored() throws Exception {
+        // Answers batches like a system that doesn't know about sub-requests
+        final SnmpRequestBatcher batcher = new SnmpRequestBatcher(request -> {
+            sentRequests.add(request);
+            if (!request.getSubRequests().isEmpty()) {
+                return CompletableFuture.completedFuture(new SnmpMultiResponseDTO());
+            }
+            return CompletableFuture.completedFuture(echoResponse(request));
+        }, 2, TimeUnit.MINUTES.toMillis(1), scheduler);
+
+        final CompletableFuture<SnmpMultiResponseDTO> first = batcher.execute(request("remote", "first"));
+        final CompletableFuture<SnmpMultiResponseDTO> second = batcher.execute(request("remote", "second"));
+
+        assertEquals("first", first.get().getResponses().get(0).getCorrelationId());
+        assertEquals("second", second.get().getResponses().get(0).getCorrelationId());
+        assertEquals(3, sentRequests.size());
+
+        // Later requests to the location are no longer batched
+        assertEquals("third", batcher.execute(request("remote", "third")).get().getResponses().get(0).getCorrelationId());
+        assertEquals(4, sentRequests.size());
+        assertTrue(sentRequests.get(3).getSubRequests().isEmpty());
+    }
+
+    @Test
+    public void failsOnlyTheFailedSubRequest() throws Exception {
+        final SnmpRequestBatcher batcher = new SnmpRequestBatcher(this::echo, 2, TimeUnit.MINUTES.toMillis(1), scheduler);
+
+        final CompletableFuture<SnmpMultiResponseDTO> failed = batcher.execute(request("remote", "fail"));
+        final CompletableFuture<SnmpMultiResponseDTO> succeeded = batcher.execute(request("remote", "ok"));
+
+        assertEquals("ok", succeeded.get().getResponses().get(0).getCorrelationId());
+        try {
+            failed.get();
+            fail("Expected the sub-request to fail.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage().contains("agent timed out"));
+        }
+    }
+
+    @Test
+    public void usesLongestTimeToLive() throws Exception {
+        final SnmpRequestBatcher batcher = new SnmpRequestBatcher(this::echo, 2, TimeUnit.MINUTES.toMillis(1), scheduler);
+
+        final SnmpRequestDTO shortLived = request("remote", "short");
+        shortLived.setTimeToLive(1000L);
+        final SnmpRequestDTO longLived = request("remote", "long");
+        longLived.setTimeToLive(5000L);
+        batcher.execute(shortLived);
+        batcher.execute(longLived);
+
+        assertEquals(Long.valueOf(5000L), sentRequests.get(0).getTimeToLive());
+    }
+
+    @Test
+    public void expiresBatchedRequestAfterItsTimeToLive() throws Exception {
+        // The batch is held back for longer than the request may live
+        final SnmpRequestBatcher batcher = new SnmpRequestBatcher(this::echo, 100, TimeUnit.MINUTES.toMillis(1), scheduler);
+
+        final SnmpRequestDTO shortLived = request("remote", "short");
+        shortLived.setTimeToLive(50L);
+        final CompletableFuture<SnmpMultiResponseDTO> expired = batcher.execute(shortLived);
+        final CompletableFuture<SnmpMultiResponseDTO> pending = batcher.execute(request("remote", "patient"));
+
+        try {
+            expired.get(10, TimeUnit.SECONDS);
+            fail("Expected the request to time out.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertFalse(pending.isDone());
+        assertEquals(0, sentRequests.size());
+    }
+
+    private static SnmpRequestDTO request(String location, String description) {
+        final SnmpRequestDTO request = new SnmpRequestDTO();
+        request.setLocation(location);
+        request.setDescription(description);
+        return request;
+    }
+
+    /**
+     * Answers every (sub-)request with a response whose correlation id is
+     * the request's description, like {@link SnmpProxyRpcModule} would.
+     */
+    private CompletableFuture<SnmpMultiResponseDTO> echo(SnmpRequestDTO request) {
+        sentRequests.add(request);
+        if (request.getSubRequests().isEmpty()) {
+            return CompletableFuture.completedFuture(echoResponse(request));
+        }
+        final SnmpMultiResponseDTO response = new SnmpMultiResponseDTO();
+        for (SnmpRequestDTO subRequest : request.getSubRequests()) {
+            response.getSubResponses().add(echoResponse(subRequest));
+        }
+        return CompletableFuture.completedFuture(response);
+    }
+
+    private static SnmpMultiResponseDTO echoResponse(SnmpRequestDTO request) {
+        final SnmpMultiResponseDTO response = new SnmpMultiResponseDTO();
+        if ("fail".equals(request.getDescription())) {
+            response.setError("agent timed out");
+            return response;
+        }
+        final SnmpResponseDTO responseDTO = new SnmpResponseDTO();
+        responseDTO.setCorrelationId(request.getDescription());
+        response.getResponses().add(responseDTO);
+        return response;
+    }
+}
@@ -28,17 +28,22 @@
 
 package org.opennms.netmgt.bsm.daemon;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import org.opennms.netmgt.bsm.service.BusinessServiceManager;
 import org.opennms.netmgt.bsm.service.BusinessServiceStateChangeHandler;
 import org.opennms.netmgt.bsm.service.BusinessServiceStateMachine;
 import org.opennms.netmgt.bsm.service.internal.AlarmWrapperImpl;
 import org.opennms.netmgt.bsm.service.internal.SeverityMapper;
+import org.opennms.netmgt.bsm.service.model.AlarmWrapper;
 import org.opennms.netmgt.bsm.service.model.BusinessService;
 import org.opennms.netmgt.bsm.service.model.Status;
 import org.opennms.netmgt.config.api.EventConfDao;
@@ -81,6 +86,10 @@ public class Bsmd implements SpringServiceDaemon, BusinessServiceStateChangeHand
 
     protected static final String POLL_INTERVAL_KEY = "org.opennms.features.bsm.pollInterval";
 
+    protected static final long DEFAULT_BATCH_INTERVAL = 0; // milliseconds, disabled
+
+    protected static final String BATCH_INTERVAL_KEY = "org.opennms.features.bsm.batchInterval";
+
     public static final String NAME = "Bsmd";
 
     @Autowired
@@ -106,6 +115,14 @@ public class Bsmd implements SpringServiceDaemon, BusinessServiceStateChangeHand
 
     final ScheduledExecutorService alarmPoller = Executors.newScheduledThreadPool(1);
 
+    /**
+     * Alarms waiting to be applied to the state machine in the next batch, by reduction key.
+     * Only used when batching is enabled.
+     */
+    private final Map<String, AlarmWrapper> m_pendingAlarms = new LinkedHashMap<>();
+
+    private long m_batchInterval = DEFAULT_BATCH_INTERVAL;
+
     @Override
     public void afterPropertiesSet() throws Exception {
         Objects.requireNonNull(m_stateMachine, "stateMachine cannot be null");
@@ -123,6 +140,7 @@ public class Bsmd implements SpringServiceDaemon, BusinessServiceStateChangeHand
 
         handleConfigurationChanged();
         startAlarmPolling();
+        startAlarmBatching();
     }
 
     private void startAlarmPolling() {
@@ -135,7 +153,7 @@ public class Bsmd implements SpringServiceDaemon, BusinessServiceStateChangeHand
                     m_template.execute(new TransactionCallbackWithoutResult() {
                         @Override
                         protected void doInTransactionWithoutResult(TransactionStatus status) {
-                            m_alarmDao.findAll().forEach(alarm -> handleAlarm(alarm));
+                            handleAlarms(m_alarmDao.findAll());
                         }
                     });
                 } catch (Exception ex) {
@@ -148,6 +166,56 @@ public class Bsmd implements SpringServiceDaemon, BusinessServiceStateChangeHand
 
     }
 
+    /**
+     * Applies the queued alarms to the state machine at a fixed delay, so that bursts
+     * of alarms propagate through the graph once per batch instead of once per alarm.
+     */
+    private void startAlarmBatching() {
+        m_batchInterval = getBatchInterval();
+        if (m_batchInterval <= 0) {
+            return;
+        }
+        alarmPoller.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flushPendingAlarms();
+                } catch (Exception ex) {
+                    LOG.error("Error while applying the pending alarms", ex);
+                }
+            }
+        }, m_batchInterval, m_batchInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private void flushPendingAlarms() {
+        final List<AlarmWrapper> alarms;
+        synchronized (m_pendingAlarms) {
+            if (m_pendingAlarms.isEmpty()) {
+                return;
+            }
+            alarms = new ArrayList<>(m_pendingAlarms.values());
+            m_pendingAlarms.clear();
+        }
+        LOG.debug("Applying a batch of {} alarms.", alarms.size());
+        m_stateMachine.handleNewOrUpdatedAlarms(alarms);
+    }
+
+    protected long getBatchInterval() {
+        final String batchIntervalProperty = System.getProperty(BATCH_INTERVAL_KEY, Long.toString(DEFAULT_BATCH_INTERVAL));
+        try {
+            long batchInterval = Long.valueOf(batchIntervalProperty);
+            if (batchInterval < 0) {
+                LOG.warn("Defined batchInterval must be greater than or equal to 0, but was {}. Falling back to default: {}", batchInterval, DEFAULT_BATCH_INTERVAL);
+                return DEFAULT_BATCH_INTERVAL;
+            }
+            LOG.debug("Using batch interval {}", batchInterval);
+            return batchInterval;
+        } catch (Exception ex) {
+            LOG.warn("The defined batchInterval {} could not be interpreted as long value. Falling back to default: {}", batchIntervalProperty, DEFAULT_BATCH_INTERVAL);
+            return DEFAULT_BATCH_INTERVAL;
+        }
+    }
+
     protected long getPollInterval() {
         final String pollIntervalProperty = System.getProperty(POLL_INTERVAL_KEY, Long.toString(DEFAULT_POLL_INTERVAL));
         try {
@@ -246,7 +314,29 @@ public class Bsmd implements SpringServiceDaemon, BusinessServiceStateChangeHand
     private void handleAlarm(OnmsAlarm alarm) {
         AlarmWrapperImpl alarmWrapper = new AlarmWrapperImpl(alarm);
         LOG.debug("Handling alarm with id: {}, reduction key: {} and severity: {} and status: {}", alarm.getId(), alarm.getReductionKey(), alarm.getSeverity(), alarmWrapper.getStatus());
-        m_stateMachine.handleNewOrUpdatedAlarm(alarmWrapper);
+        if (m_batchInterval > 0) {
+            synchronized (m_pendingAlarms) {
+                m_pendingAlarms.put(alarmWrapper.getReductionKey(), alarmWrapper);
+            }
+        } else {
+            m_stateMachine.handleNewOrUpdatedAlarm(alarmWrapper);
+        }
+    }
+
+    private void handleAlarms(List<OnmsAlarm> alarms) {
+        final List<AlarmWrapper> alarmWrappers = alarms.stream()
+                .map(AlarmWrapperImpl::new)
+                .collect(Collectors.toList());
+        LOG.debug("Handling {} alarms.", alarmWrappers.size());
+        if (m_batchInterval > 0) {
+            // The polled alarms were read after the pending ones were queued, so their
+            // states replace the pending states of the same reduction keys
+            synchronized (m_pendingAlarms) {
+                alarmWrappers.forEach(a -> m_pendingAlarms.put(a.getReductionKey(), a));
+            }
+        } else {
+            m_stateMachine.handleNewOrUpdatedAlarms(alarmWrappers);
+        }
     }
 
     /**
@@ -329,6 +419,7 @@ public class Bsmd implements SpringServiceDaemon, BusinessServiceStateChangeHand
     public void destroy() throws Exception {
         LOG.info("Stopping bsmd...");
         alarmPoller.shutdown();
+        flushPendingAlarms();
     }
 
     public void setAlarmDao(AlarmDao alarmDao) {
@@ -29,6 +29,7 @@
 package org.opennms.netmgt.bsm.service;
 
 import java.io.File;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -95,6 +96,14 @@ public interface BusinessServiceStateMachine {
      */
     void handleNewOrUpdatedAlarm(AlarmWrapper alarm);
 
+    /**
+     * Updates the states of the Business Services for a batch of alarms.
+     *
+     * Only the last alarm of every reduction key is applied, and every affected
+     * vertex is reduced once for the whole batch.
+     */
+    void handleNewOrUpdatedAlarms(Collection<AlarmWrapper> alarms);
+
     /**
      * Registers a state change handler.
      *
@@ -40,6 +40,17 @@ public class Ignore implements MapFunction {
         return Optional.empty();
     }
 
+    @Override
+    public boolean equals(Object obj) {
+        // Stateless, all instances are interchangeable
+        return obj != null && getClass() == obj.getClass();
+    }
+
+    @Override
+    public int hashCode() {
+        return getClass().hashCode();
+    }
+
     @Override
     public <T> T accept(MapFunctionVisitor<T> visitor) {
         return visitor.visit(this);
@@ -44,6 +44,17 @@ public class Increase implements MapFunction {
         return Optional.of(Status.get(newId));
     }
 
+    @Override
+    public boolean equals(Object obj) {
+        // Stateless, all instances are interchangeable
+        return obj != null && getClass() == obj.getClass();
+    }
+
+    @Override
+    public int hashCode() {
+        return getClass().hashCode();
+    }
+
     @Override
     public <T> T accept(MapFunctionVisitor<T> visitor) {
         return visitor.visit(this);
@@ -63,7 +63,7 @@ public class SetTo implements MapFunction {
             return false;
         }
         final SetTo other = (SetTo) obj;
-        return Objects.equals(m_severity, other.m_severity) && super.equals(obj);
+        return Objects.equals(m_severity, other.m_severity);
     }
 
     @Override
@@ -29,6 +29,7 @@
 package org.opennms.netmgt.bsm.service.model.functions.reduce;
 
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
@@ -96,6 +97,23 @@ public class ExponentialPropagation implements ReductionFunction {
         return this.base;
     }
 
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final ExponentialPropagation other = (ExponentialPropagation) obj;
+        return Objects.equals(base, other.base);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(base);
+    }
+
     @Override
     public <T> T accept(ReduceFunctionVisitor<T> visitor) {
         return visitor.visit(this);
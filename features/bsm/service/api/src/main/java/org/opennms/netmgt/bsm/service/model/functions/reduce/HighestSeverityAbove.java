@@ -71,6 +71,23 @@ public class HighestSeverityAbove implements ReductionFunction {
         return threshold;
     }
 
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final HighestSeverityAbove other = (HighestSeverityAbove) obj;
+        return Objects.equals(threshold, other.threshold);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(threshold);
+    }
+
     @Override
     public <T> T accept(ReduceFunctionVisitor<T> visitor) {
         return visitor.visit(this);
@@ -31,6 +31,7 @@ package org.opennms.netmgt.bsm.service.model.functions.reduce;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.TreeMap;
 import java.util.stream.Collectors;
@@ -67,6 +68,23 @@ public class Threshold implements ReductionFunction {
         return m_threshold;
     }
 
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final Threshold other = (Threshold) obj;
+        return Objects.equals(m_threshold, other.m_threshold);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(m_threshold);
+    }
+
     @Override
     public String toString() {
         return MoreObjects.toStringHelper(this)
@@ -41,13 +41,16 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NavigableMap;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import javax.imageio.ImageIO;
 
@@ -69,12 +72,14 @@ import org.opennms.netmgt.bsm.service.model.graph.GraphEdge;
 import org.opennms.netmgt.bsm.service.model.graph.GraphVertex;
 import org.opennms.netmgt.bsm.service.model.graph.internal.BusinessServiceGraphImpl;
 import org.opennms.netmgt.bsm.service.model.graph.internal.GraphAlgorithms;
+import org.opennms.netmgt.bsm.service.model.graph.internal.GraphEdgeImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 import edu.uci.ics.jung.algorithms.layout.KKLayout;
@@ -85,46 +90,62 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
     private static final Logger LOG = LoggerFactory.getLogger(DefaultBusinessServiceStateMachine.class);
     public static final Status MIN_SEVERITY = Status.NORMAL;
 
+    /**
+     * Levels of the graph with at least this many vertices to reduce in a
+     * single batch have their reductions calculated in parallel.
+     */
+    private static final int PARALLEL_REDUCTION_THRESHOLD = 64;
+
     @Autowired
     private AlarmProvider m_alarmProvider;
 
     private final List<BusinessServiceStateChangeHandler> m_handlers = Lists.newArrayList();
     private final ReadWriteLock m_rwLock = new ReentrantReadWriteLock();
-    private BusinessServiceGraph m_g = new BusinessServiceGraphImpl(Collections.emptyList());
+    private final BusinessServiceGraphImpl m_g = new BusinessServiceGraphImpl(Collections.emptyList());
+
+    /**
+     * Statuses published for readers after every update, so that the operational
+     * status can be queried without waiting for the updates in progress, and
+     * without seeing the statuses of an update that is only partly applied.
+     */
+    private volatile PublishedStatuses m_published = PublishedStatuses.of(m_g);
 
     @Override
     public void setBusinessServices(List<BusinessService> businessServices) {
         m_rwLock.writeLock().lock();
         try {
-            // Create a new graph
-            BusinessServiceGraph g = new BusinessServiceGraphImpl(businessServices);
-
-            // Prime the graph with the state from the previous graph and
-            // keep track of the new reductions keys
-            Set<String> reductionsKeysToLookup = Sets.newHashSet();
-            for (String reductionKey : g.getReductionKeys()) {
-                GraphVertex reductionKeyVertex = m_g.getVertexByReductionKey(reductionKey);
-                if (reductionKeyVertex != null) {
-                    updateAndPropagateVertex(g, g.getVertexByReductionKey(reductionKey), reductionKeyVertex.getStatus());
-                } else {
-                    reductionsKeysToLookup.add(reductionKey);
-                }
-            }
+            // Apply the business services that changed to the graph, the
+            // vertices and edges of the others keep their state
+            final BusinessServiceGraphImpl.Changes changes = m_g.update(businessServices);
 
-            if (m_alarmProvider == null && reductionsKeysToLookup.size() > 0) {
+            Map<GraphVertex, Status> reductionKeyStatuses = Maps.newLinkedHashMap();
+            if (m_alarmProvider == null && changes.getAddedReductionKeys().size() > 0) {
                 LOG.warn("There are one or more reduction keys to lookup, but no alarm provider is set.");
             } else {
                 // Query the status of the reductions keys that were added
                 // We do this so that we can immediately reflect the state of the new
                 // graph without having to wait for calls to handleNewOrUpdatedAlarm()
-                for (String reductionKey : reductionsKeysToLookup) {
+                for (String reductionKey : changes.getAddedReductionKeys()) {
                     AlarmWrapper alarm = m_alarmProvider.lookup(reductionKey);
                     if (alarm != null) {
-                        updateAndPropagateVertex(g, g.getVertexByReductionKey(reductionKey), alarm.getStatus());
+                        reductionKeyStatuses.put(m_g.getVertexByReductionKey(reductionKey), alarm.getStatus());
                     }
                 }
             }
-            m_g = g;
+
+            // The edges that were added take the status of their child
+            for (GraphEdge edge : changes.getAddedEdges()) {
+                edge.setStatus(mapStatus(edge, m_g.getDest(edge).getStatus()));
+            }
+
+            // Propagate all of the statuses at once, instead of once per reduction key
+            final Map<GraphVertex, Status> previousStatuses = updateAndPropagateVertices(m_g, reductionKeyStatuses, changes.getVerticesToReduce());
+            onStatusesUpdated(previousStatuses);
+            if (changes.isStructureChanged()) {
+                m_published = PublishedStatuses.of(m_g);
+            } else {
+                publish(previousStatuses.keySet());
+            }
         } finally {
             m_rwLock.writeLock().unlock();
         }
@@ -135,13 +156,36 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
         m_rwLock.writeLock().lock();
         try {
             // Recursively propagate the status
-            updateAndPropagateVertex(m_g, m_g.getVertexByReductionKey(alarm.getReductionKey()), alarm.getStatus());
+            final Set<GraphVertex> updatedVertices = Sets.newHashSet();
+            updateAndPropagateVertex(m_g, m_g.getVertexByReductionKey(alarm.getReductionKey()), alarm.getStatus(), updatedVertices);
+            publish(updatedVertices);
+        } finally {
+            m_rwLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void handleNewOrUpdatedAlarms(Collection<AlarmWrapper> alarms) {
+        m_rwLock.writeLock().lock();
+        try {
+            // Only the last status of every reduction key needs to be applied
+            final Map<GraphVertex, Status> reductionKeyStatuses = Maps.newLinkedHashMap();
+            for (AlarmWrapper alarm : alarms) {
+                final GraphVertex vertex = m_g.getVertexByReductionKey(alarm.getReductionKey());
+                if (vertex != null) {
+                    reductionKeyStatuses.put(vertex, alarm.getStatus());
+                }
+            }
+
+            final Map<GraphVertex, Status> previousStatuses = updateAndPropagateVertices(m_g, reductionKeyStatuses, Collections.emptySet());
+            onStatusesUpdated(previousStatuses);
+            publish(previousStatuses.keySet());
         } finally {
             m_rwLock.writeLock().unlock();
         }
     }
 
-    private void updateAndPropagateVertex(BusinessServiceGraph graph, GraphVertex vertex, Status newStatus) {
+    private void updateAndPropagateVertex(BusinessServiceGraph graph, GraphVertex vertex, Status newStatus, Set<GraphVertex> updatedVertices) {
         if (vertex == null) {
             // Nothing to do here
             return;
@@ -157,21 +201,15 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
             return;
         }
         vertex.setStatus(newStatus);
+        updatedVertices.add(vertex);
 
         // Notify the listeners
-        onStatusUpdated(graph, vertex, previousStatus);
+        onStatusUpdated(vertex, previousStatus);
 
         // Update the edges with the mapped status
         List<GraphEdge> updatedEges = Lists.newArrayList();
         for (GraphEdge edge : graph.getInEdges(vertex)) {
-            Status mappedStatus = newStatus;
-            if (newStatus.isGreaterThan(MIN_SEVERITY)) {
-                // Only apply the map function when the status is > the minimum
-                mappedStatus = edge.getMapFunction().map(newStatus).orElse(MIN_SEVERITY);
-            } else {
-                mappedStatus = newStatus;
-            }
-
+            Status mappedStatus = mapStatus(edge, newStatus);
             if (mappedStatus.equals(edge.getStatus())) {
                 // The status hasn't changed
                 continue;
@@ -184,31 +222,100 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
 
         // Propagate once all of the edges have been updated
         for (GraphEdge edge : updatedEges) {
-            reduceUpdateAndPropagateVertex(graph, graph.getOpposite(vertex, edge));
+            reduceUpdateAndPropagateVertex(graph, graph.getOpposite(vertex, edge), updatedVertices);
         }
     }
 
-    private void reduceUpdateAndPropagateVertex(BusinessServiceGraph graph, GraphVertex vertex) {
+    private void reduceUpdateAndPropagateVertex(BusinessServiceGraph graph, GraphVertex vertex, Set<GraphVertex> updatedVertices) {
         if (vertex == null) {
             // Nothing to do here
             return;
         }
 
+        // Reduce, update and propagate
+        updateAndPropagateVertex(graph, vertex, reduce(graph, vertex), updatedVertices);
+    }
+
+    /**
+     * Updates the given vertices and propagates their statuses up the graph one
+     * level at a time, starting with the deepest one. Every parent is reduced once,
+     * after all of its children have been updated, rather than once for every
+     * child that changed. The reductions of a level are independent of each other
+     * and are calculated in parallel when the level is large enough.
+     *
+     * @param verticesToReduceFirst vertices to reduce even if none of their children changed
+     * @return the vertices whose status changed, mapped to their status before the update
+     */
+    private Map<GraphVertex, Status> updateAndPropagateVertices(BusinessServiceGraph graph, Map<GraphVertex, Status> newStatuses, Collection<GraphVertex> verticesToReduceFirst) {
+        final Map<GraphVertex, Status> previousStatuses = Maps.newLinkedHashMap();
+        final NavigableMap<Integer, Set<GraphVertex>> verticesToReduce = Maps.newTreeMap();
+        for (GraphVertex vertex : verticesToReduceFirst) {
+            verticesToReduce.computeIfAbsent(vertex.getLevel(), l -> Sets.newLinkedHashSet()).add(vertex);
+        }
+        for (Entry<GraphVertex, Status> entry : newStatuses.entrySet()) {
+            updateVertex(graph, entry.getKey(), entry.getValue(), previousStatuses, verticesToReduce);
+        }
+
+        while (!verticesToReduce.isEmpty()) {
+            // Parents are always on a lower level than their children
+            final List<GraphVertex> vertices = Lists.newArrayList(verticesToReduce.pollLastEntry().getValue());
+            final Stream<GraphVertex> stream = vertices.size() >= PARALLEL_REDUCTION_THRESHOLD ? vertices.parallelStream() : vertices.stream();
+            final List<Status> reducedStatuses = stream.map(v -> reduce(graph, v)).collect(Collectors.toList());
+            for (int i = 0; i < vertices.size(); i++) {
+                updateVertex(graph, vertices.get(i), reducedStatuses.get(i), previousStatuses, verticesToReduce);
+            }
+        }
+        return previousStatuses;
+    }
+
+    private static void updateVertex(BusinessServiceGraph graph, GraphVertex vertex, Status newStatus, Map<GraphVertex, Status> previousStatuses, NavigableMap<Integer, Set<GraphVertex>> verticesToReduce) {
+        // Apply lower bound
+        newStatus = newStatus.isLessThan(MIN_SEVERITY) ? MIN_SEVERITY : newStatus;
+
+        // Update the status if necessary
+        final Status previousStatus = vertex.getStatus();
+        if (previousStatus.equals(newStatus)) {
+            return;
+        }
+        vertex.setStatus(newStatus);
+        previousStatuses.putIfAbsent(vertex, previousStatus);
+
+        // Update the edges with the mapped status, and mark their parents for reduction
+        for (GraphEdge edge : graph.getInEdges(vertex)) {
+            final Status mappedStatus = mapStatus(edge, newStatus);
+            if (mappedStatus.equals(edge.getStatus())) {
+                continue;
+            }
+            edge.setStatus(mappedStatus);
+
+            final GraphVertex parent = graph.getOpposite(vertex, edge);
+            verticesToReduce.computeIfAbsent(parent.getLevel(), l -> Sets.newLinkedHashSet()).add(parent);
+        }
+    }
+
+    private static Status mapStatus(GraphEdge edge, Status status) {
+        if (status.isGreaterThan(MIN_SEVERITY)) {
+            // Only apply the map function when the status is > the minimum
+            return edge.getMapFunction().map(status).orElse(MIN_SEVERITY);
+        }
+        return status;
+    }
+
+    private static Status reduce(BusinessServiceGraph graph, GraphVertex vertex) {
         // Calculate the weighed statuses from the child edges
         List<StatusWithIndex> statuses = weighEdges(graph.getOutEdges(vertex));
 
         // Reduce
         Optional<StatusWithIndices> reducedStatus = vertex.getReductionFunction().reduce(statuses);
-
-        Status newStatus;
         if (reducedStatus.isPresent()) {
-            newStatus = reducedStatus.get().getStatus();
+            return reducedStatus.get().getStatus();
         } else {
-            newStatus = MIN_SEVERITY;
+            return MIN_SEVERITY;
         }
+    }
 
-        // Update and propagate
-        updateAndPropagateVertex(graph, vertex, newStatus);
+    private void publish(Collection<GraphVertex> updatedVertices) {
+        m_published = m_published.update(updatedVertices);
     }
 
     public static List<StatusWithIndex> weighEdges(Collection<GraphEdge> edges) {
@@ -247,84 +354,47 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
         return statuses;
     }
 
-    private void onStatusUpdated(BusinessServiceGraph graph, GraphVertex vertex, Status previousStatus) {
+    private void onStatusUpdated(GraphVertex vertex, Status previousStatus) {
         BusinessService businessService = vertex.getBusinessService();
         if (businessService == null) {
             // Only send updates for business services (and not for reduction keys)
             return;
         }
 
-        if (graph != m_g) {
-            // We're working with a new graph, only send a status update if the new status is different
-            // than the one in the previous graph
-            GraphVertex previousVertex = m_g.getVertexByBusinessServiceId(businessService.getId());
-            if (previousVertex != null && vertex.getStatus().equals(previousVertex.getStatus())) {
-                // The vertex for this business service in the previous graph
-                // had the same status, don't issue any notifications
-                return;
-            }
-        }
-
         for (BusinessServiceStateChangeHandler handler : m_handlers) {
             handler.handleBusinessServiceStateChanged(businessService, vertex.getStatus(), previousStatus);
         }
     }
 
+    private void onStatusesUpdated(Map<GraphVertex, Status> previousStatuses) {
+        for (Entry<GraphVertex, Status> entry : previousStatuses.entrySet()) {
+            if (entry.getKey().getStatus().equals(entry.getValue())) {
+                // The status changed back during the batch
+                continue;
+            }
+            onStatusUpdated(entry.getKey(), entry.getValue());
+        }
+    }
+
     @Override
     public Status getOperationalStatus(BusinessService businessService) {
         Objects.requireNonNull(businessService);
-        m_rwLock.readLock().lock();
-        try {
-            GraphVertex vertex = m_g.getVertexByBusinessServiceId(businessService.getId());
-            if (vertex != null) {
-                return vertex.getStatus();
-            }
-            return null;
-        } finally {
-            m_rwLock.readLock().unlock();
-        }
+        return m_published.getStatus(PublishedStatuses.Index::getBusinessServiceIndex, businessService.getId());
     }
 
     @Override
     public Status getOperationalStatus(IpService ipService) {
-        m_rwLock.readLock().lock();
-        try {
-            GraphVertex vertex = m_g.getVertexByIpServiceId(ipService.getId());
-            if (vertex != null) {
-                return vertex.getStatus();
-            }
-            return null;
-        } finally {
-            m_rwLock.readLock().unlock();
-        }
+        return m_published.getStatus(PublishedStatuses.Index::getIpServiceIndex, ipService.getId());
     }
 
     @Override
     public Status getOperationalStatus(String reductionKey) {
-        m_rwLock.readLock().lock();
-        try {
-            GraphVertex vertex = m_g.getVertexByReductionKey(reductionKey);
-            if (vertex != null) {
-                return vertex.getStatus();
-            }
-            return null;
-        } finally {
-            m_rwLock.readLock().unlock();
-        }
+        return m_published.getStatus(PublishedStatuses.Index::getReductionKeyIndex, reductionKey);
     }
 
     @Override
     public Status getOperationalStatus(Edge edge) {
-        m_rwLock.readLock().lock();
-        try {
-            GraphVertex vertex = m_g.getVertexByEdgeId(edge.getId());
-            if (vertex != null) {
-                return vertex.getStatus();
-            }
-            return null;
-        } finally {
-            m_rwLock.readLock().unlock();
-        }
+        return m_published.getStatus(PublishedStatuses.Index::getEdgeIndex, edge.getId());
     }
 
     public void setAlarmProvider(AlarmProvider alarmProvider) {
@@ -436,9 +506,10 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
 
             // Prime the state
             if (preserveState) {
+                final List<AlarmWrapper> alarms = Lists.newArrayList();
                 for (String reductionKey : graph.getReductionKeys()) {
                     GraphVertex reductionKeyVertex = graph.getVertexByReductionKey(reductionKey);
-                    sm.handleNewOrUpdatedAlarm(new AlarmWrapper() {
+                    alarms.add(new AlarmWrapper() {
                         @Override
                         public String getReductionKey() {
                             return reductionKey;
@@ -455,6 +526,7 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
                         }
                     });
                 }
+                sm.handleNewOrUpdatedAlarms(alarms);
             }
             return sm;
         } finally {
@@ -543,4 +615,121 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
     private List<GraphVertex> calculateImpact(GraphVertex vertex) {
         return GraphAlgorithms.calculateImpact(m_g, vertex);
     }
+
+    /**
+     * Immutable statuses of the vertices in a graph, as published for the
+     * readers once an alarm or a batch of alarms has been handled. The
+     * statuses are kept in fixed size chunks. An update copies the chunks
+     * holding the vertices it changed and shares all of the others with the
+     * previous statuses, so it costs as much as the vertices it touched plus
+     * one reference per chunk. The graph is changed in place, so the readers
+     * find the vertices in an index of their own.
+     */
+    private static final class PublishedStatuses {
+        private static final int CHUNK_SIZE = 64;
+
+        /**
+         * Position of every vertex in the chunks, shared by all the statuses
+         * published until the vertices or edges of the graph change.
+         */
+        private static final class Index {
+            private final Map<GraphVertex, Integer> m_vertexIndices = new HashMap<>();
+            private final Map<Long, Integer> m_businessServiceIndices = new HashMap<>();
+            private final Map<Integer, Integer> m_ipServiceIndices = new HashMap<>();
+            private final Map<String, Integer> m_reductionKeyIndices = new HashMap<>();
+            private final Map<Long, Integer> m_edgeIndices = new HashMap<>();
+
+            private Index(BusinessServiceGraph graph) {
+                for (GraphVertex vertex : graph.getVertices()) {
+                    final Integer index = m_vertexIndices.size();
+                    m_vertexIndices.put(vertex, index);
+                    if (vertex.getBusinessService() != null) {
+                        m_businessServiceIndices.put(vertex.getBusinessService().getId(), index);
+                    }
+                    if (vertex.getIpService() != null) {
+                        m_ipServiceIndices.put(vertex.getIpService().getId(), index);
+                    }
+                    if (vertex.getReductionKey() != null) {
+                        m_reductionKeyIndices.put(vertex.getReductionKey(), index);
+                    }
+                }
+                for (GraphEdge edge : graph.getEdges()) {
+                    final Long edgeId = ((GraphEdgeImpl)edge).getEdgeId();
+                    if (edgeId != null) {
+                        m_edgeIndices.put(edgeId, m_vertexIndices.get(graph.getDest(edge)));
+                    }
+                }
+            }
+
+            private int size() {
+                return m_vertexIndices.size();
+            }
+
+            private Integer getVertexIndex(GraphVertex vertex) {
+                return m_vertexIndices.get(vertex);
+            }
+
+            private Integer getBusinessServiceIndex(Long id) {
+                return m_businessServiceIndices.get(id);
+            }
+
+            private Integer getIpServiceIndex(Integer id) {
+                return m_ipServiceIndices.get(id);
+            }
+
+            private Integer getReductionKeyIndex(String reductionKey) {
+                return m_reductionKeyIndices.get(reductionKey);
+            }
+
+            private Integer getEdgeIndex(Long id) {
+                return m_edgeIndices.get(id);
+            }
+        }
+
+        private final Index m_index;
+        private final Status[][] m_chunks;
+
+        private PublishedStatuses(Index index, Status[][] chunks) {
+            m_index = index;
+            m_chunks = chunks;
+        }
+
+        private static PublishedStatuses of(BusinessServiceGraph graph) {
+            final Index index = new Index(graph);
+            final Status[][] chunks = new Status[(index.size() + CHUNK_SIZE - 1) / CHUNK_SIZE][];
+            for (int i = 0; i < chunks.length; i++) {
+                chunks[i] = new Status[CHUNK_SIZE];
+            }
+            for (Entry<GraphVertex, Integer> entry : index.m_vertexIndices.entrySet()) {
+                chunks[entry.getValue() / CHUNK_SIZE][entry.getValue() % CHUNK_SIZE] = entry.getKey().getStatus();
+            }
+            return new PublishedStatuses(index, chunks);
+        }
+
+        private PublishedStatuses update(Collection<GraphVertex> vertices) {
+            if (vertices.isEmpty()) {
+                return this;
+            }
+            final Status[][] chunks = m_chunks.clone();
+            final boolean[] copied = new boolean[chunks.length];
+            for (GraphVertex vertex : vertices) {
+                final Integer index = m_index.getVertexIndex(vertex);
+                if (index == null) {
+                    continue;
+                }
+                final int chunk = index / CHUNK_SIZE;
+                if (!copied[chunk]) {
+                    chunks[chunk] = chunks[chunk].clone();
+                    copied[chunk] = true;
+                }
+                chunks[chunk][index % CHUNK_SIZE] = vertex.getStatus();
+            }
+            return new PublishedStatuses(m_index, chunks);
+        }
+
+        private <K> Status getStatus(BiFunction<Index, K, Integer> lookup, K key) {
+            final Integer index = lookup.apply(m_index, key);
+            return index == null ? null : m_chunks[index / CHUNK_SIZE][index % CHUNK_SIZE];
+        }
+    }
 }
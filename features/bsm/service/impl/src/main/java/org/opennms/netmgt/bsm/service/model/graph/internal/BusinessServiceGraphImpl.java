@@ -28,7 +28,10 @@
 
 package org.opennms.netmgt.bsm.service.model.graph.internal;
 
+import java.util.ArrayDeque;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -47,6 +50,7 @@ import org.opennms.netmgt.bsm.service.model.graph.BusinessServiceGraph;
 import org.opennms.netmgt.bsm.service.model.graph.GraphEdge;
 import org.opennms.netmgt.bsm.service.model.graph.GraphVertex;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
@@ -66,14 +70,58 @@ public class BusinessServiceGraphImpl extends DirectedSparseMultigraph<GraphVert
 
     public BusinessServiceGraphImpl(final List<? extends BusinessService> businessServices) {
         // Build the graph
+        final Changes changes = new Changes();
         Objects.requireNonNull(businessServices).stream()
-            .forEach(b -> addBusinessServiceVertex(b));
+            .forEach(b -> addBusinessServiceVertex(b, changes));
 
         // Calculate and index the hierarchical levels
         calculateAndIndexLevels();
     }
 
-    private GraphVertex addBusinessServiceVertex(BusinessService businessService) {
+    /**
+     * Applies the given business services to the graph in place. Only the
+     * vertices and edges of the business services that were added, removed or
+     * changed are touched, and only the levels of the vertices below them are
+     * calculated again. The other vertices and edges keep their status.
+     *
+     * @return the changes, which the statuses of the graph must be updated for
+     */
+    public Changes update(final List<? extends BusinessService> businessServices) {
+        final Map<Long, BusinessService> businessServicesById = Maps.newLinkedHashMap();
+        for (BusinessService businessService : Objects.requireNonNull(businessServices)) {
+            businessServicesById.put(businessService.getId(), businessService);
+        }
+
+        // Remove the business services that are gone
+        final Changes changes = new Changes();
+        for (GraphVertex vertex : Lists.newArrayList(m_verticesByBusinessServiceId.values())) {
+            if (!businessServicesById.containsKey(vertex.getBusinessService().getId())) {
+                removeBusinessServiceVertex(vertex, changes);
+            }
+        }
+
+        // Add the new business services, and update the existing ones
+        for (BusinessService businessService : businessServicesById.values()) {
+            final GraphVertex vertex = m_verticesByBusinessServiceId.get(businessService.getId());
+            if (vertex == null) {
+                addBusinessServiceVertex(businessService, changes);
+            } else {
+                updateBusinessServiceVertex((GraphVertexImpl)vertex, businessService, changes);
+            }
+        }
+
+        // Only remove the vertices that lost all of their parents now, so that
+        // the edges that were replaced keep pointing to the same vertices
+        removeOrphans(changes);
+        reindexLevels(changes.m_verticesToReindex);
+
+        changes.m_addedEdges.removeIf(e -> !containsEdge(e));
+        changes.m_verticesToReduce.removeIf(v -> !containsVertex(v));
+        changes.m_addedReductionKeys.removeIf(k -> !m_verticesByReductionKey.containsKey(k));
+        return changes;
+    }
+
+    private GraphVertex addBusinessServiceVertex(BusinessService businessService, Changes changes) {
         // Use an existing vertex if we already created one
         GraphVertex businessServiceVertex = m_verticesByBusinessServiceId.get(businessService.getId());
         if (businessServiceVertex != null) {
@@ -86,64 +134,162 @@ public class BusinessServiceGraphImpl extends DirectedSparseMultigraph<GraphVert
         addVertex(businessServiceVertex);
         // Index
         m_verticesByBusinessServiceId.put(businessService.getId(), businessServiceVertex);
+        changes.vertexAdded(businessServiceVertex);
 
         for (Edge edge : businessService.getEdges()) {
-            // Create the edge
-            GraphEdge graphEdge = new GraphEdgeImpl(edge);
-
-            // Use an existing vertex if we already created one
-            final GraphVertex[] vertexForEdge = {getExistingVertex(edge)};
-
-            // If we couldn't find an existing vertex, create one
-            if (vertexForEdge[0] == null) {
-                edge.accept(new EdgeVisitor<Void>() {
+            addBusinessServiceEdge(businessServiceVertex, edge, changes);
+        }
+        return businessServiceVertex;
+    }
 
-                    @Override
-                    public Void visit(ChildEdge edge) {
-                        vertexForEdge[0] = addBusinessServiceVertex(edge.getChild());
-                        return null;
-                    }
+    private void addBusinessServiceEdge(GraphVertex businessServiceVertex, Edge edge, Changes changes) {
+        // Create the edge
+        GraphEdge graphEdge = new GraphEdgeImpl(edge);
 
-                    @Override
-                    public Void visit(IpServiceEdge edge) {
-                        // There are multiple reductions keys for this edge
-                        // Create an intermediary vertex using the Most Critical reduction function
-                        vertexForEdge[0] = new GraphVertexImpl(REDUCE_HIGHEST_SEVERITY, edge.getIpService());
-                        addVertex(vertexForEdge[0]);
-                        m_verticesByIpServiceId.put(vertexForEdge[0].getIpService().getId(), vertexForEdge[0]);
-
-                        // SPECIAL CASE: Map the reductions keys to the intermediary vertex using the Identity map
-                        for (String reductionKey : edge.getReductionKeys()) {
-                            GraphVertex reductionKeyVertex = m_verticesByReductionKey.get(reductionKey);
-                            if (reductionKeyVertex == null) { // not already added
-                                reductionKeyVertex = new GraphVertexImpl(REDUCE_HIGHEST_SEVERITY, reductionKey);
-                                addVertex(reductionKeyVertex);
-                                m_verticesByReductionKey.put(reductionKey, reductionKeyVertex);
-                            }
-                            // Always add an edge
-                            GraphEdgeImpl intermediaryEdge = new GraphEdgeImpl(MAP_IDENTITY);
-                            addEdge(intermediaryEdge, vertexForEdge[0], reductionKeyVertex);
+        // Use an existing vertex if we already created one
+        final GraphVertex[] vertexForEdge = {getExistingVertex(edge)};
+
+        // If we couldn't find an existing vertex, create one
+        if (vertexForEdge[0] == null) {
+            edge.accept(new EdgeVisitor<Void>() {
+
+                @Override
+                public Void visit(ChildEdge edge) {
+                    vertexForEdge[0] = addBusinessServiceVertex(edge.getChild(), changes);
+                    return null;
+                }
+
+                @Override
+                public Void visit(IpServiceEdge edge) {
+                    // There are multiple reductions keys for this edge
+                    // Create an intermediary vertex using the Most Critical reduction function
+                    vertexForEdge[0] = new GraphVertexImpl(REDUCE_HIGHEST_SEVERITY, edge.getIpService());
+                    addVertex(vertexForEdge[0]);
+                    m_verticesByIpServiceId.put(vertexForEdge[0].getIpService().getId(), vertexForEdge[0]);
+                    changes.vertexAdded(vertexForEdge[0]);
+
+                    // SPECIAL CASE: Map the reductions keys to the intermediary vertex using the Identity map
+                    for (String reductionKey : edge.getReductionKeys()) {
+                        GraphVertex reductionKeyVertex = m_verticesByReductionKey.get(reductionKey);
+                        if (reductionKeyVertex == null) { // not already added
+                            reductionKeyVertex = addReductionKeyVertex(reductionKey, changes);
                         }
-                        return null;
+                        // Always add an edge
+                        GraphEdgeImpl intermediaryEdge = new GraphEdgeImpl(MAP_IDENTITY);
+                        addEdge(intermediaryEdge, vertexForEdge[0], reductionKeyVertex);
+                        changes.edgeAdded(intermediaryEdge, reductionKeyVertex);
                     }
+                    return null;
+                }
+
+                @Override
+                public Void visit(ReductionKeyEdge edge) {
+                    vertexForEdge[0] = addReductionKeyVertex(edge.getReductionKey(), changes);
+                    return null;
+                }
+            });
+        }
 
-                    @Override
-                    public Void visit(ReductionKeyEdge edge) {
-                        String reductionKey = edge.getReductionKey();
-                        vertexForEdge[0] = new GraphVertexImpl(REDUCE_HIGHEST_SEVERITY, edge.getReductionKey());
-                        addVertex(vertexForEdge[0]);
-                        m_verticesByReductionKey.put(reductionKey, vertexForEdge[0]);
-                        return null;
-                    }
-                });
+        // Link and index
+        addEdge(graphEdge, businessServiceVertex, vertexForEdge[0]);
+        m_verticesByEdgeId.put(edge.getId(), vertexForEdge[0]);
+        m_edgesByEdgeId.put(edge.getId(), graphEdge);
+        changes.edgeAdded(graphEdge, vertexForEdge[0]);
+        changes.m_verticesToReduce.add(businessServiceVertex);
+    }
+
+    private GraphVertex addReductionKeyVertex(String reductionKey, Changes changes) {
+        final GraphVertex reductionKeyVertex = new GraphVertexImpl(REDUCE_HIGHEST_SEVERITY, reductionKey);
+        addVertex(reductionKeyVertex);
+        m_verticesByReductionKey.put(reductionKey, reductionKeyVertex);
+        changes.vertexAdded(reductionKeyVertex);
+        return reductionKeyVertex;
+    }
+
+    private void updateBusinessServiceVertex(GraphVertexImpl businessServiceVertex, BusinessService businessService, Changes changes) {
+        businessServiceVertex.setBusinessService(businessService);
+        if (!Objects.equals(businessServiceVertex.getReductionFunction(), businessService.getReduceFunction())) {
+            businessServiceVertex.setReductionFunction(businessService.getReduceFunction());
+            changes.m_verticesToReduce.add(businessServiceVertex);
+        }
+
+        // Replace the edges that changed, and remove the ones that are gone
+        final Map<Long, GraphEdge> graphEdgesByEdgeId = Maps.newHashMap();
+        for (GraphEdge graphEdge : getOutEdges(businessServiceVertex)) {
+            graphEdgesByEdgeId.put(((GraphEdgeImpl)graphEdge).getEdgeId(), graphEdge);
+        }
+        for (Edge edge : businessService.getEdges()) {
+            final GraphEdge graphEdge = graphEdgesByEdgeId.remove(edge.getId());
+            if (graphEdge != null) {
+                if (isUnchanged(graphEdge, edge)) {
+                    continue;
+                }
+                removeBusinessServiceEdge(graphEdge, changes);
             }
+            addBusinessServiceEdge(businessServiceVertex, edge, changes);
+        }
+        for (GraphEdge graphEdge : graphEdgesByEdgeId.values()) {
+            removeBusinessServiceEdge(graphEdge, changes);
+            changes.m_verticesToReduce.add(businessServiceVertex);
+        }
+    }
+
+    private boolean isUnchanged(GraphEdge graphEdge, Edge edge) {
+        return getDest(graphEdge) == getExistingVertex(edge)
+                && graphEdge.getWeight() == edge.getWeight()
+                && Objects.equals(graphEdge.getFriendlyName(), edge.getFriendlyName())
+                && Objects.equals(graphEdge.getMapFunction(), edge.getMapFunction());
+    }
 
-            // Link and index
-            addEdge(graphEdge, businessServiceVertex, vertexForEdge[0]);
-            m_verticesByEdgeId.put(edge.getId(), vertexForEdge[0]);
-            m_edgesByEdgeId.put(edge.getId(), graphEdge);
+    private void removeBusinessServiceVertex(GraphVertex businessServiceVertex, Changes changes) {
+        for (GraphEdge graphEdge : Lists.newArrayList(getInEdges(businessServiceVertex))) {
+            changes.m_verticesToReduce.add(getSource(graphEdge));
+            removeBusinessServiceEdge(graphEdge, changes);
+        }
+        for (GraphEdge graphEdge : Lists.newArrayList(getOutEdges(businessServiceVertex))) {
+            removeBusinessServiceEdge(graphEdge, changes);
+        }
+        m_verticesByBusinessServiceId.remove(businessServiceVertex.getBusinessService().getId());
+        removeVertex(businessServiceVertex);
+        unindexLevel(businessServiceVertex);
+        changes.m_structureChanged = true;
+    }
+
+    private void removeBusinessServiceEdge(GraphEdge graphEdge, Changes changes) {
+        final GraphVertex child = getDest(graphEdge);
+        final Long edgeId = ((GraphEdgeImpl)graphEdge).getEdgeId();
+        if (m_edgesByEdgeId.remove(edgeId, graphEdge)) {
+            m_verticesByEdgeId.remove(edgeId);
+        }
+        removeEdge(graphEdge);
+        changes.m_orphanCandidates.add(child);
+        changes.m_verticesToReindex.add(child);
+        changes.m_structureChanged = true;
+    }
+
+    /**
+     * Removes the IP service and reduction key vertices that are no longer
+     * used by any business service.
+     */
+    private void removeOrphans(Changes changes) {
+        final Deque<GraphVertex> candidates = new ArrayDeque<>(changes.m_orphanCandidates);
+        while (!candidates.isEmpty()) {
+            final GraphVertex vertex = candidates.pop();
+            if (vertex.getBusinessService() != null || !containsVertex(vertex) || !getInEdges(vertex).isEmpty()) {
+                continue;
+            }
+            final Collection<GraphVertex> children = getSuccessors(vertex);
+            removeVertex(vertex);
+            unindexLevel(vertex);
+            if (vertex.getIpService() != null) {
+                m_verticesByIpServiceId.remove(vertex.getIpService().getId());
+            }
+            if (vertex.getReductionKey() != null) {
+                m_verticesByReductionKey.remove(vertex.getReductionKey());
+            }
+            candidates.addAll(children);
+            changes.m_verticesToReindex.addAll(children);
         }
-        return businessServiceVertex;
     }
 
     private GraphVertex getExistingVertex(Edge edge) {
@@ -198,6 +344,108 @@ public class BusinessServiceGraphImpl extends DirectedSparseMultigraph<GraphVert
         }
     }
 
+    /**
+     * Calculates the levels of the given vertices from the levels of their
+     * parents, and then the levels of the vertices below the ones whose level
+     * changed.
+     */
+    private void reindexLevels(Collection<GraphVertex> vertices) {
+        // Levels out of date can't add up to more than this in an acyclic graph
+        final int maxLevel = getVertexCount() + m_verticesByLevel.keySet().stream().max(Integer::compare).orElse(0);
+        final Deque<GraphVertex> verticesToReindex = new ArrayDeque<>(vertices);
+        while (!verticesToReindex.isEmpty()) {
+            final GraphVertexImpl vertex = (GraphVertexImpl)verticesToReindex.poll();
+            if (!containsVertex(vertex)) {
+                continue;
+            }
+            int level = 0;
+            for (GraphVertex parent : getPredecessors(vertex)) {
+                level = Math.max(level, parent.getLevel() + 1);
+            }
+            if (level > maxLevel) {
+                // There's a cycle, leave it to the level indexer
+                m_verticesByLevel.clear();
+                getVertices().forEach(v -> ((GraphVertexImpl)v).setLevel(-1));
+                calculateAndIndexLevels();
+                return;
+            }
+            if (level == vertex.getLevel()) {
+                continue;
+            }
+            unindexLevel(vertex);
+            vertex.setLevel(level);
+            m_verticesByLevel.computeIfAbsent(level, l -> Sets.newHashSet()).add(vertex);
+            verticesToReindex.addAll(getSuccessors(vertex));
+        }
+    }
+
+    private void unindexLevel(GraphVertex vertex) {
+        final Set<GraphVertex> verticesAtLevel = m_verticesByLevel.get(vertex.getLevel());
+        if (verticesAtLevel != null && verticesAtLevel.remove(vertex) && verticesAtLevel.isEmpty()) {
+            m_verticesByLevel.remove(vertex.getLevel());
+        }
+    }
+
+    /**
+     * Edges collect the status of their child and vertices reduce the
+     * statuses of their edges as the statuses change, so these are the
+     * changes made to the graph that the statuses haven't been updated for.
+     */
+    public static class Changes {
+        private final Set<String> m_addedReductionKeys = Sets.newLinkedHashSet();
+        private final Set<GraphEdge> m_addedEdges = Sets.newLinkedHashSet();
+        private final Set<GraphVertex> m_verticesToReduce = Sets.newLinkedHashSet();
+        private final Set<GraphVertex> m_verticesToReindex = Sets.newLinkedHashSet();
+        private final Set<GraphVertex> m_orphanCandidates = Sets.newHashSet();
+        private boolean m_structureChanged = false;
+
+        private void vertexAdded(GraphVertex vertex) {
+            if (vertex.getReductionKey() != null) {
+                m_addedReductionKeys.add(vertex.getReductionKey());
+            } else {
+                m_verticesToReduce.add(vertex);
+            }
+            m_verticesToReindex.add(vertex);
+            m_structureChanged = true;
+        }
+
+        private void edgeAdded(GraphEdge edge, GraphVertex child) {
+            m_addedEdges.add(edge);
+            m_verticesToReindex.add(child);
+            m_structureChanged = true;
+        }
+
+        /**
+         * @return the reduction keys that were added, whose status is unknown
+         */
+        public Set<String> getAddedReductionKeys() {
+            return Collections.unmodifiableSet(m_addedReductionKeys);
+        }
+
+        /**
+         * @return the edges that were added, whose status isn't mapped from
+         * the status of their child yet
+         */
+        public Set<GraphEdge> getAddedEdges() {
+            return Collections.unmodifiableSet(m_addedEdges);
+        }
+
+        /**
+         * @return the vertices whose edges or reduction function changed, and
+         * that must be reduced again
+         */
+        public Set<GraphVertex> getVerticesToReduce() {
+            return Collections.unmodifiableSet(m_verticesToReduce);
+        }
+
+        /**
+         * @return true if vertices or edges were added or removed
+         */
+        public boolean isStructureChanged() {
+            return m_structureChanged;
+        }
+    }
+
     @Override
     public GraphVertex getVertexByBusinessServiceId(Long id) {
         return m_verticesByBusinessServiceId.get(id);
@@ -34,24 +34,34 @@ import org.opennms.netmgt.bsm.service.model.graph.GraphEdge;
 
 public class GraphEdgeImpl extends GraphElement implements GraphEdge {
 
+    private final Long m_edgeId;
     private final MapFunction m_mapFunction;
     private final int m_weight;
     private final String m_friendlyName;
 
     public GraphEdgeImpl(MapFunction mapFunction) {
-        this(mapFunction, 1, null);
+        this(null, mapFunction, 1, null);
     }
 
     public GraphEdgeImpl(Edge edge) {
-        this(edge.getMapFunction(), edge.getWeight(), edge.getFriendlyName());
+        this(edge.getId(), edge.getMapFunction(), edge.getWeight(), edge.getFriendlyName());
     }
 
-    private GraphEdgeImpl(MapFunction mapFunction, int weight, String friendlyName) {
+    private GraphEdgeImpl(Long edgeId, MapFunction mapFunction, int weight, String friendlyName) {
+        m_edgeId = edgeId;
         m_mapFunction = mapFunction;
         m_weight = weight;
         m_friendlyName = friendlyName;
     }
 
+    /**
+     * @return the id of the business service edge, or null for the edges
+     * between an IP service and its reduction keys
+     */
+    public Long getEdgeId() {
+        return m_edgeId;
+    }
+
     public MapFunction getMapFunction() {
         return m_mapFunction;
     }
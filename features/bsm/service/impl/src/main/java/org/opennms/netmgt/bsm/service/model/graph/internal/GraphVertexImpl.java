@@ -34,7 +34,7 @@ import org.opennms.netmgt.bsm.service.model.functions.reduce.ReductionFunction;
 import org.opennms.netmgt.bsm.service.model.graph.GraphVertex;
 
 public class GraphVertexImpl extends GraphElement implements GraphVertex, Comparable<GraphVertexImpl> {
-    private final BusinessService m_businessService;
+    private BusinessService m_businessService;
     private final IpService m_ipService;
     private final String m_reductionKey;
     private ReductionFunction m_reductionFunction;
@@ -74,6 +74,14 @@ public class GraphVertexImpl extends GraphElement implements GraphVertex, Compar
         return m_businessService;
     }
 
+    void setBusinessService(BusinessService businessService) {
+        m_businessService = businessService;
+    }
+
+    void setReductionFunction(ReductionFunction reductionFunction) {
+        m_reductionFunction = reductionFunction;
+    }
+
     @Override
     public IpService getIpService() {
         return m_ipService;
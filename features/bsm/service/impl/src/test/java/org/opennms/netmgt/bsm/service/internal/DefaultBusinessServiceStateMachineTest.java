@@ -30,9 +30,12 @@ package org.opennms.netmgt.bsm.service.internal;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.List;
 
 import org.junit.Rule;
@@ -150,6 +153,66 @@ public class DefaultBusinessServiceStateMachineTest {
         assertEquals(1, stateChangeHandler.getStateChanges().size());
     }
 
+    @Test
+    public void canApplyChangedBusinessServicesInPlace() {
+        // Create a simple hierarchy
+        MockBusinessServiceHierarchy h = MockBusinessServiceHierarchy.builder()
+                .withBusinessService(1)
+                    .withReductionKey(1, "a1")
+                    .withReductionKey(2, "a2")
+                    .commit()
+                .build();
+        BusinessService b1 = h.getBusinessServiceById(1);
+
+        // Setup the state machine
+        DefaultBusinessServiceStateMachine stateMachine = new DefaultBusinessServiceStateMachine();
+        LoggingStateChangeHandler stateChangeHandler = new LoggingStateChangeHandler();
+        stateMachine.addHandler(stateChangeHandler, Maps.newHashMap());
+        stateMachine.setBusinessServices(h.getBusinessServices());
+        GraphVertex a2Vertex = stateMachine.getGraph().getVertexByReductionKey("a2");
+
+        stateMachine.handleNewOrUpdatedAlarms(Arrays.asList(
+                new MockAlarmWrapper("a1", Status.CRITICAL),
+                new MockAlarmWrapper("a2", Status.MINOR)));
+        assertEquals(Status.CRITICAL, stateMachine.getOperationalStatus(b1));
+        assertEquals(1, stateChangeHandler.getStateChanges().size());
+
+        // Remove the edge with the critical status
+        h = MockBusinessServiceHierarchy.builder()
+                .withBusinessService(1)
+                    .withReductionKey(2, "a2")
+                    .commit()
+                .build();
+        stateMachine.setBusinessServices(h.getBusinessServices());
+
+        // The remaining reduction key keeps its vertex and its status
+        assertSame(a2Vertex, stateMachine.getGraph().getVertexByReductionKey("a2"));
+        assertNull(stateMachine.getOperationalStatus("a1"));
+        assertEquals(Status.MINOR, stateMachine.getOperationalStatus("a2"));
+        assertEquals(Status.MINOR, stateMachine.getOperationalStatus(h.getEdgeByReductionKey("a2")));
+        assertEquals(Status.MINOR, stateMachine.getOperationalStatus(b1));
+        assertEquals(2, stateChangeHandler.getStateChanges().size());
+
+        // Change the reduction function
+        HighestSeverityAbove highestSeverityAbove = new HighestSeverityAbove();
+        highestSeverityAbove.setThreshold(Status.MINOR);
+        h = MockBusinessServiceHierarchy.builder()
+                .withBusinessService(1)
+                    .withReductionFunction(highestSeverityAbove)
+                    .withReductionKey(2, "a2")
+                    .commit()
+                .build();
+        stateMachine.setBusinessServices(h.getBusinessServices());
+        assertEquals(Status.NORMAL, stateMachine.getOperationalStatus(b1));
+        assertEquals(3, stateChangeHandler.getStateChanges().size());
+
+        // Reloading the same business services changes nothing
+        stateMachine.setBusinessServices(h.getBusinessServices());
+        assertEquals(Status.NORMAL, stateMachine.getOperationalStatus(b1));
+        assertEquals(Status.MINOR, stateMachine.getOperationalStatus("a2"));
+        assertEquals(3, stateChangeHandler.getStateChanges().size());
+    }
+
     @Test
     public void canPerformRootCauseAndImpactAnalysis() {
         // Create a hierarchy using all of the available reduction functions
@@ -235,6 +298,67 @@ public class DefaultBusinessServiceStateMachineTest {
         assertEquals("b1", impacts.get(0).getBusinessService().getName());
     }
 
+    @Test
+    public void canHandleBatchesOfAlarms() {
+        // Create a hierarchy with two levels of business services
+        Threshold threshold = new Threshold();
+        threshold.setThreshold(0.5f);
+
+        MockBusinessServiceHierarchy h = MockBusinessServiceHierarchy.builder()
+                .withBusinessService(1)
+                    .withName("b1")
+                    .withBusinessService(2)
+                        .withName("b2")
+                        .withReductionKey(21, "a1")
+                        .withReductionKey(22, "a2")
+                    .commit()
+                    .withBusinessService(3)
+                        .withName("b3")
+                        .withReductionFunction(threshold)
+                        .withReductionKey(34, "a4")
+                        .withReductionKey(35, "a5")
+                        .withReductionKey(36, "a6")
+                        .withReductionKey(37, "a7")
+                    .commit()
+                .commit()
+                .build();
+
+        // Setup the state machine
+        DefaultBusinessServiceStateMachine stateMachine = new DefaultBusinessServiceStateMachine();
+        LoggingStateChangeHandler stateChangeHandler = new LoggingStateChangeHandler();
+        stateMachine.addHandler(stateChangeHandler, Maps.newHashMap());
+        stateMachine.setBusinessServices(h.getBusinessServices());
+
+        // Send all of the alarms in a single batch, the last status for a1 should win
+        stateMachine.handleNewOrUpdatedAlarms(Arrays.asList(
+                new MockAlarmWrapper("a1", Status.CRITICAL),
+                new MockAlarmWrapper("a4", Status.MAJOR),
+                new MockAlarmWrapper("a6", Status.CRITICAL),
+                new MockAlarmWrapper("a7", Status.MAJOR),
+                new MockAlarmWrapper("a1", Status.MINOR),
+                new MockAlarmWrapper("unknown", Status.CRITICAL)));
+
+        // Verify the state
+        assertEquals(Status.MAJOR, stateMachine.getOperationalStatus(h.getBusinessServiceById(1)));
+        assertEquals(Status.MINOR, stateMachine.getOperationalStatus(h.getBusinessServiceById(2)));
+        assertEquals(Status.MAJOR, stateMachine.getOperationalStatus(h.getBusinessServiceById(3)));
+        assertEquals(Status.MINOR, stateMachine.getOperationalStatus("a1"));
+
+        // A single state change should have been generated for every business service
+        assertEquals(3, stateChangeHandler.getStateChanges().size());
+
+        // Clearing the alarms should bring everything back to normal, with one more change per business service
+        stateMachine.handleNewOrUpdatedAlarms(Arrays.asList(
+                new MockAlarmWrapper("a1", Status.NORMAL),
+                new MockAlarmWrapper("a4", Status.NORMAL),
+                new MockAlarmWrapper("a6", Status.NORMAL),
+                new MockAlarmWrapper("a7", Status.NORMAL)));
+        assertEquals(Status.NORMAL, stateMachine.getOperationalStatus(h.getBusinessServiceById(1)));
+        assertEquals(Status.NORMAL, stateMachine.getOperationalStatus(h.getBusinessServiceById(2)));
+        assertEquals(Status.NORMAL, stateMachine.getOperationalStatus(h.getBusinessServiceById(3)));
+        assertEquals(6, stateChangeHandler.getStateChanges().size());
+    }
+
     @Test
     public void canRenderGraphToPng() {
         // Create a simple hierarchy
@@ -29,6 +29,10 @@
 package org.opennms.netmgt.bsm.service.model.graph.internal;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import java.util.List;
 import java.util.Map;
@@ -41,6 +45,7 @@ import org.opennms.netmgt.bsm.mock.MockBusinessServiceHierarchy;
 import org.opennms.netmgt.bsm.mock.MockBusinessServiceHierarchy.Builder;
 import org.opennms.netmgt.bsm.service.model.BusinessService;
 import org.opennms.netmgt.bsm.service.model.graph.BusinessServiceGraph;
+import org.opennms.netmgt.bsm.service.model.graph.GraphVertex;
 
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
@@ -152,4 +157,87 @@ public class BusinessServiceGraphImplTest {
             assertEquals(expectedLevel, graph.getVertexByBusinessServiceId(id).getLevel());
         }
     }
+
+    @Test
+    public void canUpdateTheGraphInPlace() {
+        /**
+         * Starts with a graph that looks like:
+         *   B1     B3
+         *    |      |
+         *   B2     RK[b]
+         *    |
+         *   RK[a]
+         */
+        MockBusinessServiceHierarchy h = MockBusinessServiceHierarchy.builder()
+                .withBusinessService(1)
+                    .withBusinessService(2)
+                        .withReductionKey(1, "a")
+                    .commit()
+                .commit()
+                .withBusinessService(3)
+                    .withReductionKey(2, "b")
+                .commit()
+                .build();
+        BusinessServiceGraphImpl graph = new BusinessServiceGraphImpl(h.getBusinessServices());
+        GraphVertex b2 = graph.getVertexByBusinessServiceId(2L);
+        GraphVertex a = graph.getVertexByReductionKey("a");
+
+        /**
+         * And moves it to:
+         *   B3
+         *    |
+         *   B1     B4
+         *    |      |
+         *   B2     RK[c]
+         *    |
+         *   RK[a]
+         */
+        h = MockBusinessServiceHierarchy.builder()
+                .withBusinessService(3)
+                    .withBusinessService(1)
+                        .withBusinessService(2)
+                            .withReductionKey(1, "a")
+                        .commit()
+                    .commit()
+                .commit()
+                .withBusinessService(4)
+                    .withReductionKey(3, "c")
+                .commit()
+                .build();
+        BusinessServiceGraphImpl.Changes changes = graph.update(h.getBusinessServices());
+
+        // The vertices that are still used are kept
+        assertSame(b2, graph.getVertexByBusinessServiceId(2L));
+        assertSame(a, graph.getVertexByReductionKey("a"));
+        assertNull(graph.getVertexByReductionKey("b"));
+        assertEquals(Sets.newHashSet("a", "c"), graph.getReductionKeys());
+        assertEquals(Sets.newHashSet("c"), changes.getAddedReductionKeys());
+        assertEquals(Sets.newHashSet(graph.getVertexByBusinessServiceId(3L), graph.getVertexByBusinessServiceId(4L)), changes.getVerticesToReduce());
+        assertTrue(changes.isStructureChanged());
+        assertSameLevels(new BusinessServiceGraphImpl(h.getBusinessServices()), graph);
+
+        // Nothing changes the second time around
+        changes = graph.update(h.getBusinessServices());
+        assertFalse(changes.isStructureChanged());
+        assertTrue(changes.getVerticesToReduce().isEmpty());
+        assertTrue(changes.getAddedEdges().isEmpty());
+        assertSameLevels(new BusinessServiceGraphImpl(h.getBusinessServices()), graph);
+    }
+
+    private static void assertSameLevels(BusinessServiceGraph expected, BusinessServiceGraph actual) {
+        assertEquals(expected.getVertexCount(), actual.getVertexCount());
+        assertEquals(expected.getEdgeCount(), actual.getEdgeCount());
+        for (int level = -1; level <= expected.getVertexCount(); level++) {
+            assertEquals(String.format("Mismatch at level %d", level), keys(expected.getVerticesByLevel(level)), keys(actual.getVerticesByLevel(level)));
+            for (GraphVertex vertex : actual.getVerticesByLevel(level)) {
+                assertEquals(level, vertex.getLevel());
+            }
+        }
+    }
+
+    private static Set<String> keys(Set<GraphVertex> vertices) {
+        return vertices.stream()
+                .map(v -> v.getBusinessService() != null ? "BS" + v.getBusinessService().getId() : "RK" + v.getReductionKey())
+                .collect(Collectors.toSet());
+    }
 }
@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.collection.support;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.opennms.netmgt.collection.api.AttributeGroup;
+import org.opennms.netmgt.collection.api.CollectionAttribute;
+import org.opennms.netmgt.collection.api.CollectionResource;
+import org.opennms.netmgt.collection.api.CollectionSet;
+import org.opennms.netmgt.collection.api.CollectionSetVisitor;
+
+/**
+ * Delegates the visit calls to each of the given visitors in turn,
+ * so that a collection set can be walked once for all of them.
+ */
+public class CompositeCollectionSetVisitor implements CollectionSetVisitor {
+
+    private final CollectionSetVisitor[] m_visitors;
+
+    public CompositeCollectionSetVisitor(CollectionSetVisitor... visitors) {
+        m_visitors = visitors.clone();
+    }
+
+    public CompositeCollectionSetVisitor(List<? extends CollectionSetVisitor> visitors) {
+        m_visitors = visitors.toArray(new CollectionSetVisitor[visitors.size()]);
+    }
+
+    public List<CollectionSetVisitor> getVisitors() {
+        return Arrays.asList(m_visitors);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void visitCollectionSet(CollectionSet set) {
+        for (CollectionSetVisitor visitor : m_visitors) {
+            visitor.visitCollectionSet(set);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void visitResource(CollectionResource resource) {
+        for (CollectionSetVisitor visitor : m_visitors) {
+            visitor.visitResource(resource);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void visitGroup(AttributeGroup group) {
+        for (CollectionSetVisitor visitor : m_visitors) {
+            visitor.visitGroup(group);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void visitAttribute(CollectionAttribute attribute) {
+        for (CollectionSetVisitor visitor : m_visitors) {
+            visitor.visitAttribute(attribute);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void completeAttribute(CollectionAttribute attribute) {
+        for (CollectionSetVisitor visitor : m_visitors) {
+            visitor.completeAttribute(attribute);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void completeGroup(AttributeGroup group) {
+        for (CollectionSetVisitor visitor : m_visitors) {
+            visitor.completeGroup(group);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void completeResource(CollectionResource resource) {
+        for (CollectionSetVisitor visitor : m_visitors) {
+            visitor.completeResource(resource);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void completeCollectionSet(CollectionSet set) {
+        for (CollectionSetVisitor visitor : m_visitors) {
+            visitor.completeCollectionSet(set);
+        }
+    }
+}
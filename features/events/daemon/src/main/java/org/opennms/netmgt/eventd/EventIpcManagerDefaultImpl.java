@@ -37,7 +37,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.RejectedExecutionHandler;
@@ -61,7 +63,14 @@ import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 
 import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import com.lmax.disruptor.EventTranslatorTwoArg;
+import com.lmax.disruptor.FatalExceptionHandler;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.WorkHandler;
+import com.lmax.disruptor.WorkerPool;
 
 /**
  * An implementation of the EventIpcManager interface that can be used to
@@ -99,19 +108,34 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
     }
 
     /**
-     * Hash table of list of event listeners keyed by event UEI
+     * Hash table of list of event listeners keyed by event UEI, only modified
+     * while holding the lock on this object.
      */
     private Map<String, List<EventListener>> m_ueiListeners = new HashMap<String, List<EventListener>>();
 
     /**
-     * The list of event listeners interested in all events
+     * The list of event listeners interested in all events, only modified
+     * while holding the lock on this object.
      */
     private List<EventListener> m_listeners = new ArrayList<EventListener>();
 
+    /**
+     * Immutable copy of {@link #m_ueiListeners} and {@link #m_listeners} that
+     * is swapped in whenever the listeners change so that broadcasting an
+     * event never needs to lock.
+     */
+    private volatile RoutingTable m_routingTable = new RoutingTable(m_listeners, m_ueiListeners);
+
     /**
      * Hash table of event listener threads keyed by the listener's id
      */
-    private Map<String, EventListenerExecutor> m_listenerThreads = new HashMap<String, EventListenerExecutor>();
+    private Map<String, EventListenerExecutor> m_listenerThreads = new ConcurrentHashMap<String, EventListenerExecutor>();
+
+    /**
+     * When true, events are handed to each listener through a bounded ring
+     * buffer instead of a {@link ThreadPoolExecutor}.
+     */
+    private boolean m_useRingBuffers = Boolean.getBoolean("org.opennms.eventd.listenerRingBuffers");
 
     /**
      * The thread pool handling the events
@@ -126,28 +150,124 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
 
     private final MetricRegistry m_registry;
 
+    /**
+     * Read-only view of the listeners that is used to route events.
+     */
+    private static class RoutingTable {
+        private final List<EventListener> m_listeners;
+        private final Map<String, List<EventListener>> m_ueiListeners;
+
+        RoutingTable(List<EventListener> listeners, Map<String, List<EventListener>> ueiListeners) {
+            m_listeners = Collections.unmodifiableList(new ArrayList<EventListener>(listeners));
+            final Map<String, List<EventListener>> copy = new HashMap<String, List<EventListener>>();
+            for (Map.Entry<String, List<EventListener>> entry : ueiListeners.entrySet()) {
+                if (!entry.getValue().isEmpty()) {
+                    copy.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<EventListener>(entry.getValue())));
+                }
+            }
+            m_ueiListeners = Collections.unmodifiableMap(copy);
+        }
+    }
+
     /**
      * A thread dedicated to each listener. The events meant for each listener
-     * is added to an execution queue when the 'sendNow()' is called. The
-     * ListenerThread reads events off of this queue and sends them to the
-     * appropriate listener.
+     * are queued when the 'sendNow()' is called and are then delivered to the
+     * listener in the order in which they were queued.
+     *
+     * The number of queued events, the number of events that were dropped
+     * because the queue was full and the time events spent waiting in the
+     * queue are tracked in the metric registry under "listeners.<name>".
      */
-    private static class EventListenerExecutor {
+    private abstract static class EventListenerExecutor {
         /**
          * Listener to which this thread is dedicated
          */
-        private final EventListener m_listener;
+        protected final EventListener m_listener;
+
+        private final MetricRegistry m_registry;
+
+        protected final Meter m_dropped;
+
+        protected final Histogram m_lag;
+
+        EventListenerExecutor(EventListener listener, MetricRegistry registry) {
+            m_listener = listener;
+            m_registry = registry;
+
+            removeMetrics();
+            m_registry.register(metricName("queued"), new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return getQueued();
+                }
+            });
+            m_dropped = m_registry.meter(metricName("dropped"));
+            m_lag = m_registry.histogram(metricName("lag"));
+        }
+
+        private String metricName(String name) {
+            return MetricRegistry.name("listeners", m_listener.getName(), name);
+        }
+
+        private void removeMetrics() {
+            m_registry.remove(metricName("queued"));
+            m_registry.remove(metricName("dropped"));
+            m_registry.remove(metricName("lag"));
+        }
+
+        protected void dispatch(Event event, long queuedAt) {
+            m_lag.update(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - queuedAt));
+            try {
+                LOG.debug("run: calling onEvent on {} for event {} dbid {} with time {}", m_listener.getName(), event.getUei(), event.getDbid(), event.getTime());
+
+                // Make sure we restore our log4j logging prefix after onEvent is called
+                Map<String,String> mdc = Logging.getCopyOfContextMap();
+                try {
+                    m_listener.onEvent(event);
+                } finally {
+                    Logging.setContextMap(mdc);
+                }
+            } catch (Throwable t) {
+                LOG.warn("run: an unexpected error occured during ListenerThread {}", m_listener.getName(), t);
+            }
+        }
+
+        protected void discard() {
+            LOG.warn("Listener {}'s event queue is full, discarding event", m_listener.getName());
+            m_dropped.mark();
+        }
+
+        /**
+         * Queues the event for delivery to the listener, or discards
+         * it if the listener's queue is full.
+         */
+        public abstract void addEvent(Event event);
 
         /**
-         * The thread that is running this runnable.
+         * @return the number of events waiting to be delivered
          */
-        private final ExecutorService m_delegateThread;
+        protected abstract long getQueued();
 
         /**
-         * Constructor
+         * Stops the execution of this listener once the events that
+         * are already queued have been delivered.
          */
-        EventListenerExecutor(EventListener listener, Integer handlerQueueLength) {
-            m_listener = listener;
+        public void stop() {
+            removeMetrics();
+        }
+    }
+
+    /**
+     * Delivers events using a single-threaded {@link ThreadPoolExecutor}.
+     */
+    private static class ThreadPoolEventListenerExecutor extends EventListenerExecutor {
+        /**
+         * The thread that is running this runnable.
+         */
+        private final ThreadPoolExecutor m_delegateThread;
+
+        ThreadPoolEventListenerExecutor(EventListener listener, Integer handlerQueueLength, MetricRegistry registry) {
+            super(listener, registry);
             // You could also do Executors.newSingleThreadExecutor() here
             m_delegateThread = new ThreadPoolExecutor(
                     1,
@@ -163,38 +283,129 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
                     new RejectedExecutionHandler() {
                         @Override
                         public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
-                            LOG.warn("Listener {}'s event queue is full, discarding event", m_listener.getName());
+                            discard();
                         }
                     }
             );
         }
 
+        @Override
         public void addEvent(final Event event) {
+            final long queuedAt = System.nanoTime();
             m_delegateThread.execute(new Runnable() {
                 @Override
                 public void run() {
-                    try {
-                        LOG.debug("run: calling onEvent on {} for event {} dbid {} with time {}", m_listener.getName(), event.getUei(), event.getDbid(), event.getTime());
-
-                        // Make sure we restore our log4j logging prefix after onEvent is called
-                        Map<String,String> mdc = Logging.getCopyOfContextMap();
-                        try {
-                            m_listener.onEvent(event);
-                        } finally {
-                            Logging.setContextMap(mdc);
-                        }
-                    } catch (Throwable t) {
-                        LOG.warn("run: an unexpected error occured during ListenerThread {}", m_listener.getName(), t);
-                    }
+                    dispatch(event, queuedAt);
                 }
             });
         }
 
+        @Override
+        protected long getQueued() {
+            return m_delegateThread.getQueue().size();
+        }
+
+        @Override
+        public void stop() {
+            super.stop();
+            m_delegateThread.shutdown();
+        }
+    }
+
+    /**
+     * Entry on a listener's ring buffer. A <code>null</code> event
+     * is used to tell the consumer to stop.
+     */
+    private static class ListenerEvent {
+        private Event m_event;
+        private long m_queuedAt;
+    }
+
+    private static final EventTranslatorTwoArg<ListenerEvent, Event, Long> LISTENER_EVENT_TRANSLATOR =
+            new EventTranslatorTwoArg<ListenerEvent, Event, Long>() {
+                @Override
+                public void translateTo(ListenerEvent listenerEvent, long sequence, Event event, Long queuedAt) {
+                    listenerEvent.m_event = event;
+                    listenerEvent.m_queuedAt = queuedAt;
+                }
+            };
+
+    /**
+     * Delivers events using a bounded, multi-producer {@link RingBuffer}
+     * with a single consumer thread. Publishing never blocks and takes
+     * no locks, events are discarded when the ring buffer is full.
+     */
+    private static class RingBufferEventListenerExecutor extends EventListenerExecutor implements WorkHandler<ListenerEvent> {
+
+        private static final int DEFAULT_RING_BUFFER_SIZE = 8192;
+
+        private final RingBuffer<ListenerEvent> m_ringBuffer;
+
+        private final WorkerPool<ListenerEvent> m_workerPool;
+
+        private final ExecutorService m_executor;
+
+        @SuppressWarnings("unchecked")
+        RingBufferEventListenerExecutor(EventListener listener, Integer handlerQueueLength, MetricRegistry registry) {
+            super(listener, registry);
+            m_ringBuffer = RingBuffer.createMultiProducer(ListenerEvent::new, ringBufferSize(handlerQueueLength));
+            m_workerPool = new WorkerPool<ListenerEvent>(
+                    m_ringBuffer,
+                    m_ringBuffer.newBarrier(),
+                    new FatalExceptionHandler(),
+                    this);
+            m_ringBuffer.addGatingSequences(m_workerPool.getWorkerSequences());
+
+            // See ThreadPoolEventListenerExecutor for why the LogPreservingThreadFactory is used
+            m_executor = Executors.newSingleThreadExecutor(new LogPreservingThreadFactory(m_listener.getName(), 1));
+            m_workerPool.start(m_executor);
+        }
+
         /**
-         * Stops the execution of this listener.
+         * Rounds the configured queue length up to the next power of two.
          */
+        private static int ringBufferSize(Integer handlerQueueLength) {
+            if (handlerQueueLength == null || handlerQueueLength <= 0) {
+                return DEFAULT_RING_BUFFER_SIZE;
+            }
+            return handlerQueueLength == 1 ? 1 : Integer.highestOneBit(handlerQueueLength - 1) << 1;
+        }
+
+        @Override
+        public void addEvent(Event event) {
+            if (!m_ringBuffer.tryPublishEvent(LISTENER_EVENT_TRANSLATOR, event, System.nanoTime())) {
+                discard();
+            }
+        }
+
+        @Override
+        public void onEvent(ListenerEvent listenerEvent) {
+            final Event event = listenerEvent.m_event;
+            // Don't hold on to the event once it has been delivered
+            listenerEvent.m_event = null;
+
+            if (event == null) {
+                // Everything that was queued before stop() was called has been delivered
+                m_workerPool.halt();
+                m_executor.shutdown();
+                return;
+            }
+            dispatch(event, listenerEvent.m_queuedAt);
+        }
+
+        @Override
+        protected long getQueued() {
+            return m_ringBuffer.getBufferSize() - m_ringBuffer.remainingCapacity();
+        }
+
+        @Override
         public void stop() {
-            m_delegateThread.shutdown();
+            super.stop();
+            if (!m_ringBuffer.tryPublishEvent(LISTENER_EVENT_TRANSLATOR, null, System.nanoTime())) {
+                LOG.warn("Listener {}'s event queue is full, discarding queued events", m_listener.getName());
+                m_workerPool.halt();
+                m_executor.shutdown();
+            }
         }
     }
 
@@ -269,12 +480,13 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
     public void broadcastNow(Event event) {
         LOG.debug("Event ID {} to be broadcasted: {}", event.getDbid(), event.getUei());
 
-        if (m_listeners.isEmpty()) {
+        final RoutingTable routingTable = m_routingTable;
+        if (routingTable.m_listeners.isEmpty()) {
             LOG.debug("No listeners interested in all events");
         }
 
         // Send to listeners interested in receiving all events
-        for (EventListener listener : m_listeners) {
+        for (EventListener listener : routingTable.m_listeners) {
             queueEventToListener(event, listener);
         }
 
@@ -289,8 +501,9 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
          */
         Set<EventListener> sentToListeners = new HashSet<EventListener>();
         for (String uei = event.getUei(); uei.length() > 0; ) {
-            if (m_ueiListeners.containsKey(uei)) {
-                for (EventListener listener : m_ueiListeners.get(uei)) {
+            final List<EventListener> ueiListeners = routingTable.m_ueiListeners.get(uei);
+            if (ueiListeners != null) {
+                for (EventListener listener : ueiListeners) {
                     if (!sentToListeners.contains(listener)) {
                         queueEventToListener(event, listener);
                         sentToListeners.add(listener);
@@ -315,7 +528,13 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
     }
 
     private void queueEventToListener(Event event, EventListener listener) {
-        m_listenerThreads.get(listener.getName()).addEvent(event);
+        final EventListenerExecutor listenerThread = m_listenerThreads.get(listener.getName());
+        if (listenerThread == null) {
+            // the listener was removed after we took our copy of the routing table
+            LOG.debug("Listener {} is no longer registered, discarding event", listener.getName());
+            return;
+        }
+        listenerThread.addEvent(event);
     }
 
     /**
@@ -336,6 +555,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         for (String uei : m_ueiListeners.keySet()) {
             removeUeiForListener(uei, listener);
         }
+
+        publishRoutingTable();
     }
 
     /**
@@ -363,6 +584,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
 
         // Since we have a UEI-specific listener, remove the match-all listener
         removeMatchAllForListener(listener);
+
+        publishRoutingTable();
     }
 
     /**
@@ -397,6 +620,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         for (String uei : ueis) {
             removeUeiForListener(uei, listener);
         }
+
+        publishRoutingTable();
     }
 
     /**
@@ -416,6 +641,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         Assert.notNull(uei, "uei argument cannot be null");
 
         removeUeiForListener(uei, listener);
+
+        publishRoutingTable();
     }
 
     /**
@@ -436,11 +663,12 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
             removeUeiForListener(uei, listener);
         }
 
-        // stop and remove the listener thread for this listener
-        if (m_listenerThreads.containsKey(listener.getName())) {
-            m_listenerThreads.get(listener.getName()).stop();
+        publishRoutingTable();
 
-            m_listenerThreads.remove(listener.getName());
+        // stop and remove the listener thread for this listener
+        final EventListenerExecutor listenerThread = m_listenerThreads.remove(listener.getName());
+        if (listenerThread != null) {
+            listenerThread.stop();
         }
     }
 
@@ -453,10 +681,22 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
             return;
         }
         
-        EventListenerExecutor listenerThread = new EventListenerExecutor(listener, m_handlerQueueLength);
+        final EventListenerExecutor listenerThread;
+        if (m_useRingBuffers) {
+            listenerThread = new RingBufferEventListenerExecutor(listener, m_handlerQueueLength, m_registry);
+        } else {
+            listenerThread = new ThreadPoolEventListenerExecutor(listener, m_handlerQueueLength, m_registry);
+        }
         m_listenerThreads.put(listener.getName(), listenerThread);
     }
 
+    /**
+     * Makes the current listeners visible to {@link #broadcastNow(Event)}.
+     */
+    private void publishRoutingTable() {
+        m_routingTable = new RoutingTable(m_listeners, m_ueiListeners);
+    }
+
     /**
      * Add to uei listeners.
      */
@@ -593,12 +833,28 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         m_handlerQueueLength = size;
     }
 
+    /**
+     * <p>isUseRingBuffers</p>
+     *
+     * @return true if events are queued to the listeners using ring buffers
+     */
+    public boolean isUseRingBuffers() {
+        return m_useRingBuffers;
+    }
+
+    /**
+     * <p>setUseRingBuffers</p>
+     *
+     * Only affects listeners that are added after the call.
+     *
+     * @param useRingBuffers a boolean.
+     */
+    public void setUseRingBuffers(boolean useRingBuffers) {
+        m_useRingBuffers = useRingBuffers;
+    }
+
     @Override
     public boolean hasEventListener(final String uei) {
-        if (this.m_ueiListeners.containsKey(uei)) {
-            return this.m_ueiListeners.get(uei).size() > 0;
-        } else {
-            return false;
-        }
+        return m_routingTable.m_ueiListeners.containsKey(uei);
     }
 }
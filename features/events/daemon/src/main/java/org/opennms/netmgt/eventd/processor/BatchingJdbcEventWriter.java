@@ -0,0 +1,415 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd.processor;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.utils.DBUtils;
+import org.opennms.netmgt.eventd.EventdConstants;
+import org.opennms.netmgt.events.api.EventProcessor;
+import org.opennms.netmgt.events.api.EventProcessorException;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Header;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.Timer.Context;
+
+/**
+ * An event writer that groups the events handed to it by concurrent eventd
+ * handler threads and inserts them using a single JDBC batch per transaction.
+ *
+ * The events are written with group commit: the flusher takes all of the
+ * events that were queued while the previous batch was being written, and
+ * writes them as soon as the queue is empty. It never waits for more events
+ * to arrive. A batch holds at most {@link #getBatchSize()} events, and no more
+ * than {@link #getBatchTimeout()} milliseconds are spent collecting it. The
+ * ids for all of the events in a batch are fetched with a single query
+ * before the insert.
+ *
+ * {@link #process(Header, Event)} only returns once the event was committed
+ * and its database id was set, so processors that run after this one (i.e.
+ * the broadcast to alarmd and the other daemons) see the same state as
+ * with {@link JdbcEventWriter}.
+ *
+ * When a batch is rejected by the database, its events are retried one at a
+ * time so that a single bad event doesn't fail the other events of its batch.
+ *
+ * When the PostgreSQL JDBC driver is configured with
+ * <code>reWriteBatchedInserts=true</code> the batches are sent as multi-row
+ * inserts.
+ */
+public class BatchingJdbcEventWriter extends AbstractJdbcPersister implements EventProcessor, InitializingBean, DisposableBean {
+    private static final Logger LOG = LoggerFactory.getLogger(BatchingJdbcEventWriter.class);
+
+    /**
+     * Fetches a given number of ids from the events sequence.
+     */
+    public static final String DEFAULT_GET_NEXT_IDS_STRING = "SELECT nextval('eventsNxtId') FROM generate_series(1, ?)";
+
+    private int m_batchSize = 256;
+
+    private volatile long m_batchTimeout = 10;
+
+    private String m_getNextIdsString = DEFAULT_GET_NEXT_IDS_STRING;
+
+    private final BlockingQueue<PendingEvent> m_queue = new LinkedBlockingQueue<PendingEvent>();
+
+    private ExecutorService m_flusher;
+
+    private volatile boolean m_running = false;
+
+    private final Meter m_eventsWritten;
+
+    private final Meter m_eventsFailed;
+
+    private final Histogram m_batchSizes;
+
+    private final Timer m_flushTimer;
+
+    /**
+     * An event waiting to be written by the flusher thread.
+     */
+    private static class PendingEvent {
+        private final Header m_header;
+        private final Event m_event;
+        private final CountDownLatch m_written = new CountDownLatch(1);
+        private volatile Exception m_exception;
+
+        PendingEvent(Header header, Event event) {
+            m_header = header;
+            m_event = event;
+        }
+
+        void complete(Exception exception) {
+            m_exception = exception;
+            m_written.countDown();
+        }
+
+        void await() throws EventProcessorException {
+            try {
+                m_written.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new EventProcessorException(e);
+            }
+            if (m_exception != null) {
+                throw new EventProcessorException(m_exception);
+            }
+        }
+    }
+
+    public BatchingJdbcEventWriter(MetricRegistry registry) {
+        Objects.requireNonNull(registry);
+        m_eventsWritten = registry.meter("events.persist.written");
+        m_eventsFailed = registry.meter("events.persist.failed");
+        m_batchSizes = registry.histogram("events.persist.batch-size");
+        m_flushTimer = registry.timer("events.persist.flush");
+        registry.remove("events.persist.queued");
+        registry.register("events.persist.queued", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return m_queue.size();
+            }
+        });
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void afterPropertiesSet() throws SQLException {
+        super.afterPropertiesSet();
+        Assert.state(m_batchSize > 0, "property batchSize must be positive");
+        Assert.state(m_batchTimeout >= 0, "property batchTimeout must not be negative");
+        Assert.state(m_getNextIdsString != null, "property getNextIdsString must be set");
+
+        m_running = true;
+        m_flusher = Executors.newSingleThreadExecutor(new LogPreservingThreadFactory(getClass().getSimpleName(), 1));
+        m_flusher.execute(new Runnable() {
+            @Override
+            public void run() {
+                flushLoop();
+            }
+        });
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void destroy() throws Exception {
+        m_running = false;
+        if (m_flusher != null) {
+            m_flusher.shutdownNow();
+            m_flusher.awaitTermination(m_batchTimeout + 1000, TimeUnit.MILLISECONDS);
+        }
+        // Fail anything that was left behind so that no handler thread is stuck
+        final List<PendingEvent> remaining = new ArrayList<PendingEvent>();
+        m_queue.drainTo(remaining);
+        for (final PendingEvent pending : remaining) {
+            pending.complete(new IllegalStateException("BatchingJdbcEventWriter has been stopped"));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Queues the event for the next batch and waits for it to be written.
+     */
+    @Override
+    public void process(final Header eventHeader, final Event event) throws EventProcessorException {
+        if (!checkEventSanityAndDoWeProcess(event, "BatchingJdbcEventWriter")) {
+            return;
+        }
+        if (!m_running) {
+            throw new EventProcessorException("BatchingJdbcEventWriter is not running");
+        }
+
+        LOG.debug("BatchingJdbcEventWriter: queuing {} nodeid: {} ipaddr: {} serviceid: {} time: {}", event.getUei(), event.getNodeid(), event.getInterface(), event.getService(), event.getTime());
+
+        final PendingEvent pending = new PendingEvent(eventHeader, event);
+        m_queue.add(pending);
+        pending.await();
+
+        LOG.debug("EventWriter finished for : {}", event.getUei());
+    }
+
+    private void flushLoop() {
+        final List<PendingEvent> batch = new ArrayList<PendingEvent>(m_batchSize);
+        while (m_running) {
+            try {
+                // Wait for the first event of the batch, then take whatever
+                // else is queued. The handler threads wait for their events
+                // to be written, so waiting for more events to arrive would
+                // only delay them.
+                final PendingEvent first = m_queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(m_batchTimeout);
+                while (batch.size() < m_batchSize && System.nanoTime() < deadline) {
+                    if (m_queue.drainTo(batch, m_batchSize - batch.size()) == 0) {
+                        break;
+                    }
+                }
+
+                flush(batch);
+            } catch (InterruptedException e) {
+                LOG.debug("BatchingJdbcEventWriter was interrupted, stopping.");
+                Thread.currentThread().interrupt();
+                for (final PendingEvent pending : batch) {
+                    pending.complete(e);
+                }
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(final List<PendingEvent> batch) {
+        m_batchSizes.update(batch.size());
+
+        try (Context context = m_flushTimer.time()) {
+            write(batch);
+        }
+    }
+
+    private void write(final List<PendingEvent> batch) {
+        try {
+            writeBatch(batch);
+        } catch (final BatchUpdateException|RuntimeException e) {
+            if (batch.size() > 1) {
+                // A single bad event fails the whole batch, retry the events
+                // one at a time so that only the offending ones are lost
+                LOG.warn("Error inserting a batch of {} events into the datastore, retrying them one at a time.", batch.size(), e);
+                for (final PendingEvent pending : batch) {
+                    write(Collections.singletonList(pending));
+                }
+            } else {
+                fail(batch, e);
+            }
+            return;
+        } catch (final Exception e) {
+            fail(batch, e);
+            return;
+        }
+
+        m_eventsWritten.mark(batch.size());
+        for (final PendingEvent pending : batch) {
+            pending.complete(null);
+        }
+    }
+
+    private void fail(final List<PendingEvent> batch, final Exception e) {
+        LOG.warn("Error inserting {} event(s) into the datastore.", batch.size(), e);
+        m_eventsFailed.mark(batch.size());
+        for (final PendingEvent pending : batch) {
+            pending.complete(e);
+        }
+    }
+
+    private void writeBatch(final List<PendingEvent> batch) throws SQLException {
+        final DBUtils d = new DBUtils(getClass());
+        try {
+            final Connection connection = getDataSource().getConnection();
+            d.watch(connection);
+            connection.setAutoCommit(false);
+
+            try {
+                final int[] eventIds = getNextIds(connection, batch.size(), d);
+
+                final PreparedStatement insStmt = connection.prepareStatement(EventdConstants.SQL_DB_INS_EVENT);
+                d.watch(insStmt);
+                for (int i = 0; i < batch.size(); i++) {
+                    final PendingEvent pending = batch.get(i);
+                    insStmt.clearParameters();
+                    setEventParameters(insStmt, eventIds[i], pending.m_header, pending.m_event);
+                    insStmt.addBatch();
+                }
+                insStmt.executeBatch();
+
+                connection.commit();
+            } catch (final SQLException e) {
+                try {
+                    connection.rollback();
+                } catch (final Throwable e2) {
+                    LOG.warn("Rollback of transaction failed.", e2);
+                }
+                throw e;
+            }
+
+            // Only hand out the ids once the events have been committed
+            for (int i = 0; i < batch.size(); i++) {
+                final Event event = batch.get(i).m_event;
+                synchronized (event) {
+                    event.setDbid(eventIds[i]);
+                }
+            }
+        } finally {
+            d.cleanUp();
+        }
+
+        LOG.debug("SUCCESSFULLY added {} events into the EVENTS table.", batch.size());
+    }
+
+    private int[] getNextIds(final Connection connection, final int count, final DBUtils d) throws SQLException {
+        final PreparedStatement stmt = connection.prepareStatement(m_getNextIdsString);
+        d.watch(stmt);
+        stmt.setInt(1, count);
+        final ResultSet rs = stmt.executeQuery();
+        d.watch(rs);
+
+        final int[] ids = new int[count];
+        int i = 0;
+        while (rs.next() && i < count) {
+            ids[i++] = rs.getInt(1);
+        }
+        if (i != count) {
+            throw new SQLException("Expected " + count + " event ids but only got " + i);
+        }
+        return ids;
+    }
+
+    /**
+     * <p>getBatchSize</p>
+     *
+     * @return the maximum number of events written in a single batch
+     */
+    public int getBatchSize() {
+        return m_batchSize;
+    }
+
+    /**
+     * <p>setBatchSize</p>
+     *
+     * @param batchSize the maximum number of events written in a single batch
+     */
+    public void setBatchSize(int batchSize) {
+        m_batchSize = batchSize;
+    }
+
+    /**
+     * <p>getBatchTimeout</p>
+     *
+     * @return the maximum number of milliseconds spent collecting the events of a batch
+     */
+    public long getBatchTimeout() {
+        return m_batchTimeout;
+    }
+
+    /**
+     * <p>setBatchTimeout</p>
+     *
+     * @param batchTimeout the maximum number of milliseconds spent collecting the events of a batch
+     */
+    public void setBatchTimeout(long batchTimeout) {
+        m_batchTimeout = batchTimeout;
+    }
+
+    /**
+     * <p>getGetNextIdsString</p>
+     *
+     * @return the query used to fetch the ids for a batch, takes the number of ids as its only parameter
+     */
+    public String getGetNextIdsString() {
+        return m_getNextIdsString;
+    }
+
+    /**
+     * <p>setGetNextIdsString</p>
+     *
+     * @param getNextIdsString the query used to fetch the ids for a batch, takes the number of ids as its only parameter
+     */
+    public void setGetNextIdsString(String getNextIdsString) {
+        m_getNextIdsString = getNextIdsString;
+    }
+}
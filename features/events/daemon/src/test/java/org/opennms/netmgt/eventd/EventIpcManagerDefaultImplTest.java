@@ -412,6 +412,35 @@ public class EventIpcManagerDefaultImplTest extends TestCase {
         assertTrue("could not remove broadcasted event--did it make it?", m_listener.getEvents().remove(e));
     }
     
+    public void testAddEventListenerWithRingBuffersAndBroadcast() throws Exception {
+        EventIpcManagerDefaultImpl manager = new EventIpcManagerDefaultImpl(m_registry);
+        manager.setEventHandler(m_eventHandler);
+        manager.setHandlerPoolSize(5);
+        manager.setHandlerQueueLength(100);
+        manager.setUseRingBuffers(true);
+        manager.afterPropertiesSet();
+
+        EventBuilder bldr = new EventBuilder("uei.opennms.org/foo", "testAddEventListenerWithRingBuffersAndBroadcast");
+        Event e = bldr.getEvent();
+
+        m_mocks.replayAll();
+
+        manager.addEventListener(m_listener, "uei.opennms.org/");
+        manager.broadcastNow(e);
+        Thread.sleep(100);
+
+        m_mocks.verifyAll();
+
+        assertTrue("could not remove broadcasted event--did it make it?", m_listener.getEvents().remove(e));
+        assertEquals(0L, m_registry.getGauges().get("listeners.party on, Wayne.queued").getValue());
+        assertEquals(1L, m_registry.getHistograms().get("listeners.party on, Wayne.lag").getCount());
+        assertEquals(0L, m_registry.getMeters().get("listeners.party on, Wayne.dropped").getCount());
+
+        manager.removeEventListener(m_listener);
+        assertFalse(manager.hasEventListener("uei.opennms.org/"));
+        assertNull(m_registry.getGauges().get("listeners.party on, Wayne.queued"));
+    }
+
     public void testAddEventListenerWithUeiAndBroadcastThenAddEventListener() throws Exception {
         EventBuilder bldr = new EventBuilder("uei.opennms.org/foo", "testAddEventListenerWithUeiAndBroadcastThenAddEventListener");
         Event e = bldr.getEvent();
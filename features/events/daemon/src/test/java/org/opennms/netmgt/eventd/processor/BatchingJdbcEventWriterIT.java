@@ -0,0 +1,271 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opennms.core.test.OpenNMSJUnit4ClassRunner;
+import org.opennms.core.test.db.annotations.JUnitTemporaryDatabase;
+import org.opennms.netmgt.dao.api.EventdServiceManager;
+import org.opennms.netmgt.eventd.EventUtil;
+import org.opennms.netmgt.events.api.EventProcessor;
+import org.opennms.netmgt.events.api.EventProcessorException;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.test.JUnitConfigurationEnvironment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+
+/**
+ * Verifies the batching writer and compares its throughput to the
+ * {@link JdbcEventWriter} against a temporary database.
+ */
+@RunWith(OpenNMSJUnit4ClassRunner.class)
+@ContextConfiguration(locations={
+        "classpath:/META-INF/opennms/applicationContext-soa.xml",
+        "classpath:/META-INF/opennms/applicationContext-dao.xml",
+        "classpath*:/META-INF/opennms/component-dao.xml",
+        "classpath:/META-INF/opennms/applicationContext-commonConfigs.xml",
+        "classpath:/META-INF/opennms/applicationContext-minimal-conf.xml",
+        "classpath:/META-INF/opennms/applicationContext-eventUtil.xml"
+})
+@JUnitConfigurationEnvironment
+@JUnitTemporaryDatabase(reuseDatabase=false)
+public class BatchingJdbcEventWriterIT {
+    private static final Logger LOG = LoggerFactory.getLogger(BatchingJdbcEventWriterIT.class);
+
+    private static final int THREADS = 8;
+
+    private static final int EVENTS_PER_THREAD = 500;
+
+    @Autowired
+    private DataSource m_dataSource;
+
+    @Autowired
+    private EventdServiceManager m_eventdServiceManager;
+
+    @Autowired
+    private EventUtil m_eventUtil;
+
+    @Autowired
+    private JdbcTemplate m_jdbcTemplate;
+
+    private final MetricRegistry m_registry = new MetricRegistry();
+
+    private BatchingJdbcEventWriter m_batchingWriter;
+
+    @Before
+    public void setUp() throws Exception {
+        m_batchingWriter = new BatchingJdbcEventWriter(m_registry);
+        m_batchingWriter.setDataSource(m_dataSource);
+        m_batchingWriter.setEventdServiceManager(m_eventdServiceManager);
+        m_batchingWriter.setEventUtil(m_eventUtil);
+        m_batchingWriter.setGetNextIdString("SELECT nextval('eventsNxtId')");
+        m_batchingWriter.setBatchSize(64);
+        m_batchingWriter.setBatchTimeout(5);
+        m_batchingWriter.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_batchingWriter.destroy();
+    }
+
+    @Test
+    public void testIdsAreAssigned() throws Exception {
+        final List<Event> events = writeConcurrently(m_batchingWriter, 4, 25);
+
+        final Set<Integer> ids = new HashSet<Integer>();
+        for (final Event event : events) {
+            assertTrue(event.getDbid() > 0);
+            ids.add(event.getDbid());
+        }
+        assertEquals(100, ids.size());
+        assertEquals(Integer.valueOf(100), m_jdbcTemplate.queryForObject("SELECT COUNT(*) FROM events", Integer.class));
+        assertEquals(100, m_registry.meter("events.persist.written").getCount());
+
+        // Every id must refer to the event that it was assigned to
+        for (final Event event : events) {
+            assertEquals(event.getSource(), m_jdbcTemplate.queryForObject("SELECT eventSource FROM events WHERE eventId = ?", String.class, event.getDbid()));
+        }
+    }
+
+    @Test
+    public void testBadEventOnlyFailsItself() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(10);
+        try {
+            final List<Future<Event>> futures = new ArrayList<Future<Event>>();
+            for (int i = 0; i < 10; i++) {
+                // The events table doesn't accept events without a source
+                final String source = i == 5 ? null : "good-" + i;
+                futures.add(executor.submit(new Callable<Event>() {
+                    @Override
+                    public Event call() throws Exception {
+                        final EventBuilder bldr = new EventBuilder("uei.opennms.org/test/batching", source);
+                        bldr.setLogDest("logndisplay");
+                        bldr.setLogMessage("test");
+                        final Event event = bldr.getEvent();
+                        m_batchingWriter.process(null, event);
+                        return event;
+                    }
+                }));
+            }
+
+            for (int i = 0; i < 10; i++) {
+                try {
+                    assertTrue(futures.get(i).get().getDbid() > 0);
+                    assertTrue("only the event without a source should fail", i != 5);
+                } catch (final ExecutionException e) {
+                    assertEquals(5, i);
+                    assertTrue(e.getCause() instanceof EventProcessorException);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(Integer.valueOf(9), m_jdbcTemplate.queryForObject("SELECT COUNT(*) FROM events", Integer.class));
+        assertEquals(9, m_registry.meter("events.persist.written").getCount());
+        assertEquals(1, m_registry.meter("events.persist.failed").getCount());
+    }
+
+    /**
+     * The senders wait for their events to be written, so at most one event
+     * per sender is queued at any time. The writer must not wait for batches
+     * that can never fill up.
+     */
+    @Test
+    public void testConcurrentSendersAreGroupCommitted() throws Exception {
+        final long batchTimeout = 1000;
+        final int eventsPerThread = 50;
+        m_batchingWriter.setBatchSize(256);
+        m_batchingWriter.setBatchTimeout(batchTimeout);
+
+        final long start = System.currentTimeMillis();
+        writeConcurrently(m_batchingWriter, THREADS, eventsPerThread);
+        final long elapsed = System.currentTimeMillis() - start;
+
+        final Snapshot batchSizes = m_registry.histogram("events.persist.batch-size").getSnapshot();
+        LOG.info("BatchingJdbcEventWriter: {} events from {} senders in {} ms, mean batch size {}, max batch size {}.",
+                THREADS * eventsPerThread, THREADS, elapsed, batchSizes.getMean(), batchSizes.getMax());
+
+        assertEquals(Integer.valueOf(THREADS * eventsPerThread), m_jdbcTemplate.queryForObject("SELECT COUNT(*) FROM events", Integer.class));
+        // Waiting out the timeout for every batch would take at least eventsPerThread seconds
+        assertTrue("writing took " + elapsed + "ms", elapsed < eventsPerThread * batchTimeout / 5);
+        // Events queued while a batch is written go into the next one
+        assertTrue("mean batch size was " + batchSizes.getMean(), batchSizes.getMean() > 1.0);
+        assertTrue("max batch size was " + batchSizes.getMax(), batchSizes.getMax() <= THREADS);
+    }
+
+    @Test
+    public void testThroughput() throws Exception {
+        final JdbcEventWriter jdbcWriter = new JdbcEventWriter();
+        jdbcWriter.setDataSource(m_dataSource);
+        jdbcWriter.setEventdServiceManager(m_eventdServiceManager);
+        jdbcWriter.setEventUtil(m_eventUtil);
+        jdbcWriter.setGetNextIdString("SELECT nextval('eventsNxtId')");
+        jdbcWriter.afterPropertiesSet();
+
+        // warm up
+        writeConcurrently(jdbcWriter, THREADS, 50);
+        writeConcurrently(m_batchingWriter, THREADS, 50);
+
+        long start = System.currentTimeMillis();
+        writeConcurrently(jdbcWriter, THREADS, EVENTS_PER_THREAD);
+        final long jdbcElapsed = System.currentTimeMillis() - start;
+
+        start = System.currentTimeMillis();
+        writeConcurrently(m_batchingWriter, THREADS, EVENTS_PER_THREAD);
+        final long batchingElapsed = System.currentTimeMillis() - start;
+
+        final int total = THREADS * EVENTS_PER_THREAD;
+        LOG.info("JdbcEventWriter: {} events in {} ms.", total, jdbcElapsed);
+        LOG.info("BatchingJdbcEventWriter: {} events in {} ms, mean batch size {}.", total, batchingElapsed,
+                m_registry.histogram("events.persist.batch-size").getSnapshot().getMean());
+
+        assertEquals(Integer.valueOf(2 * (total + THREADS * 50)), m_jdbcTemplate.queryForObject("SELECT COUNT(*) FROM events", Integer.class));
+    }
+
+    private static List<Event> writeConcurrently(final EventProcessor writer, final int threads, final int eventsPerThread) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<List<Event>>> futures = new ArrayList<Future<List<Event>>>();
+            for (int i = 0; i < threads; i++) {
+                final int thread = i;
+                futures.add(executor.submit(new Callable<List<Event>>() {
+                    @Override
+                    public List<Event> call() throws Exception {
+                        final List<Event> events = new ArrayList<Event>(eventsPerThread);
+                        for (int j = 0; j < eventsPerThread; j++) {
+                            final EventBuilder bldr = new EventBuilder("uei.opennms.org/test/batching", "thread-" + thread + "-" + j);
+                            bldr.setLogDest("logndisplay");
+                            bldr.setLogMessage("test");
+                            bldr.addParam("index", j);
+                            final Event event = bldr.getEvent();
+                            writer.process(null, event);
+                            events.add(event);
+                        }
+                        return events;
+                    }
+                }));
+            }
+
+            final List<Event> events = new ArrayList<Event>();
+            for (final Future<List<Event>> future : futures) {
+                events.addAll(future.get());
+            }
+            return events;
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * Finds all occurrences of a fixed set of strings in a text using the
+ * Aho-Corasick algorithm, in a single pass over the text.
+ *
+ * Instances are immutable once built and can be shared between threads.
+ */
+public class AhoCorasick {
+
+    private static final int[] NO_OUTPUTS = new int[0];
+
+    /**
+     * Sorted transition characters of each state.
+     */
+    private final char[][] m_keys;
+
+    /**
+     * Target states, aligned with {@link #m_keys}.
+     */
+    private final int[][] m_targets;
+
+    private final int[] m_fail;
+
+    /**
+     * Indices of the patterns that end at each state, including those
+     * reachable through the failure links.
+     */
+    private final int[][] m_outputs;
+
+    /**
+     * @param patterns the strings to search for, referenced by their index in the list
+     */
+    public AhoCorasick(final List<String> patterns) {
+        // Build the trie
+        final List<TreeMap<Character, Integer>> children = new ArrayList<>();
+        final List<List<Integer>> outputs = new ArrayList<>();
+        children.add(new TreeMap<Character, Integer>());
+        outputs.add(new ArrayList<Integer>());
+        for (int i = 0; i < patterns.size(); i++) {
+            final String pattern = patterns.get(i);
+            if (pattern == null || pattern.isEmpty()) {
+                throw new IllegalArgumentException("Patterns must not be empty.");
+            }
+            int state = 0;
+            for (int k = 0; k < pattern.length(); k++) {
+                final Character c = pattern.charAt(k);
+                Integer next = children.get(state).get(c);
+                if (next == null) {
+                    next = children.size();
+                    children.add(new TreeMap<Character, Integer>());
+                    outputs.add(new ArrayList<Integer>());
+                    children.get(state).put(c, next);
+                }
+                state = next;
+            }
+            outputs.get(state).add(i);
+        }
+
+        final int numStates = children.size();
+        m_keys = new char[numStates][];
+        m_targets = new int[numStates][];
+        for (int state = 0; state < numStates; state++) {
+            final TreeMap<Character, Integer> transitions = children.get(state);
+            m_keys[state] = new char[transitions.size()];
+            m_targets[state] = new int[transitions.size()];
+            int k = 0;
+            for (final Map.Entry<Character, Integer> entry : transitions.entrySet()) {
+                m_keys[state][k] = entry.getKey();
+                m_targets[state][k] = entry.getValue();
+                k++;
+            }
+        }
+
+        // Compute the failure links breadth-first, so that the links of shallower states are known
+        m_fail = new int[numStates];
+        m_outputs = new int[numStates][];
+        m_outputs[0] = toArray(outputs.get(0));
+        final Queue<Integer> queue = new ArrayDeque<>();
+        for (final int child : m_targets[0]) {
+            m_fail[child] = 0;
+            m_outputs[child] = toArray(outputs.get(child));
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            final int state = queue.remove();
+            for (int k = 0; k < m_keys[state].length; k++) {
+                final char c = m_keys[state][k];
+                final int child = m_targets[state][k];
+
+                int fail = m_fail[state];
+                while (fail != 0 && next(fail, c) < 0) {
+                    fail = m_fail[fail];
+                }
+                final int target = next(fail, c);
+                m_fail[child] = target >= 0 ? target : 0;
+
+                final List<Integer> childOutputs = outputs.get(child);
+                for (final int output : m_outputs[m_fail[child]]) {
+                    childOutputs.add(output);
+                }
+                m_outputs[child] = toArray(childOutputs);
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * Sets the bits of all the patterns that occur in the given text.
+     */
+    public void findAll(final CharSequence text, final BitSet found) {
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            int next = next(state, c);
+            while (next < 0 && state != 0) {
+                state = m_fail[state];
+                next = next(state, c);
+            }
+            state = next < 0 ? 0 : next;
+            for (final int output : m_outputs[state]) {
+                found.set(output);
+            }
+        }
+    }
+
+    private int next(final int state, final char c) {
+        final int k = Arrays.binarySearch(m_keys[state], c);
+        return k >= 0 ? m_targets[state][k] : -1;
+    }
+
+    private static int[] toArray(final List<Integer> values) {
+        if (values.isEmpty()) {
+            return NO_OUTPUTS;
+        }
+        final int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+}
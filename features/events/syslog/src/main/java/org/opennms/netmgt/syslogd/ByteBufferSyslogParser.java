@@ -0,0 +1,357 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.TimeZone;
+
+/**
+ * Base class for hand-written syslog parsers that scan the bytes of a
+ * received message in a single pass, without decoding the message into a
+ * {@link String} first or running regular expressions over it.
+ *
+ * Each parser follows the same backtracking order as the pattern of the
+ * corresponding {@link SyslogParser} and produces the same {@link SyslogMessage}.
+ * Whenever a message is not in the form that the parser understands (it
+ * contains line breaks or non-ASCII characters, a field is malformed, or a
+ * timestamp would only be accepted by the lenient date parsing of the
+ * regex parsers) {@link #parse(ByteBuffer)} returns null and the caller is
+ * expected to fall back to the regex parser.
+ *
+ * The parsers are stateless and can be shared between threads.
+ */
+public abstract class ByteBufferSyslogParser {
+
+    /**
+     * Returned by {@link #parseTimestamp} methods when the timestamp cannot be
+     * parsed strictly.
+     */
+    protected static final long INVALID_TIME = Long.MIN_VALUE;
+
+    /**
+     * Returned by parsers that have matched the message but cannot build the same
+     * {@link SyslogMessage} as the regex parser, which stops them from trying any
+     * alternative matches.
+     */
+    protected static final SyslogMessage UNPARSEABLE = new SyslogMessage();
+
+    private static final byte[][] MONTHS = {
+        "jan".getBytes(StandardCharsets.US_ASCII), "feb".getBytes(StandardCharsets.US_ASCII), "mar".getBytes(StandardCharsets.US_ASCII),
+        "apr".getBytes(StandardCharsets.US_ASCII), "may".getBytes(StandardCharsets.US_ASCII), "jun".getBytes(StandardCharsets.US_ASCII),
+        "jul".getBytes(StandardCharsets.US_ASCII), "aug".getBytes(StandardCharsets.US_ASCII), "sep".getBytes(StandardCharsets.US_ASCII),
+        "oct".getBytes(StandardCharsets.US_ASCII), "nov".getBytes(StandardCharsets.US_ASCII), "dec".getBytes(StandardCharsets.US_ASCII)
+    };
+
+    private static final int NUM_FACILITIES = SyslogFacility.values().length;
+
+    private static final int[] DAYS_IN_MONTH = { 31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31 };
+
+    private static volatile int s_currentYear;
+    private static volatile long s_currentYearExpires = Long.MIN_VALUE;
+
+    private static final ByteBufferSyslogParser RFC5424 = new Rfc5424ByteBufferParser();
+    private static final ByteBufferSyslogParser SYSLOGNG = new SyslogNGByteBufferParser();
+    private static final ByteBufferSyslogParser JUNIPER = new JuniperByteBufferParser();
+
+    /**
+     * @param parserClassName the regex parser that is configured in <code>syslogd-configuration.xml</code>
+     * @return the equivalent hand-written parser or null if there is none
+     */
+    public static ByteBufferSyslogParser forParser(final String parserClassName) {
+        if (Rfc5424SyslogParser.class.getName().equals(parserClassName)) {
+            return RFC5424;
+        } else if (SyslogNGParser.class.getName().equals(parserClassName)) {
+            return SYSLOGNG;
+        } else if (JuniperSyslogParser.class.getName().equals(parserClassName)) {
+            return JUNIPER;
+        }
+        return null;
+    }
+
+    /**
+     * Parses the remaining bytes of the buffer, which are not consumed.
+     *
+     * @return the parsed message or null if the regex parser must be used instead
+     */
+    public SyslogMessage parse(final ByteBuffer buffer) {
+        final int start = buffer.position();
+        int end = buffer.limit();
+        // Same as the stripping of a trailing NUL in ConvertToEvent
+        if (end > start && buffer.get(end - 1) == 0) {
+            end--;
+        }
+        // The regex parsers see non-ASCII bytes as replacement characters and treat
+        // line breaks specially, leave these messages to them
+        for (int i = start; i < end; i++) {
+            final byte b = buffer.get(i);
+            if (b < 0 || b == '\n' || b == '\r') {
+                return null;
+            }
+        }
+        final SyslogMessage message = parse(buffer, start, end);
+        return message == UNPARSEABLE ? null : message;
+    }
+
+    protected abstract SyslogMessage parse(ByteBuffer buffer, int start, int end);
+
+    /**
+     * @return true if {@link SyslogFacility#getFacilityForCode(int)} can look up the
+     *   facility of the given priority field
+     */
+    protected static boolean isSupportedPriority(final int priorityField) {
+        return priorityField >= 0 && ((priorityField & SyslogFacility.MASK) >> 3) < NUM_FACILITIES;
+    }
+
+    /**
+     * @return the character at the given index, or -1 if the index is past the end
+     */
+    protected static int at(final ByteBuffer buffer, final int index, final int end) {
+        return index < end ? buffer.get(index) : -1;
+    }
+
+    /**
+     * @return true if the character matches <code>\s</code>
+     */
+    protected static boolean isWhitespace(final int c) {
+        return c == ' ' || c == '\t' || c == 0x0B || c == '\f';
+    }
+
+    /**
+     * @return true if the character matches <code>\S</code>
+     */
+    protected static boolean isNonWhitespace(final int c) {
+        return c >= 0 && !isWhitespace(c);
+    }
+
+    protected static boolean isDigit(final int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * @return the index of the first character at or after the given index that does not match <code>\S</code>
+     */
+    protected static int skipNonWhitespace(final ByteBuffer buffer, int index, final int end) {
+        while (isNonWhitespace(at(buffer, index, end))) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * @return the index of the first character at or after the given index that does not match <code>\s</code>
+     */
+    protected static int skipWhitespace(final ByteBuffer buffer, int index, final int end) {
+        while (isWhitespace(at(buffer, index, end))) {
+            index++;
+        }
+        return index;
+    }
+
+    protected static int skipDigits(final ByteBuffer buffer, int index, final int end) {
+        while (isDigit(at(buffer, index, end))) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * @return the value of the digits between the given indices or -1 if there are
+     *   none or too many of them to be parsed as an <code>int</code> safely
+     */
+    protected static int digits(final ByteBuffer buffer, final int start, final int end) {
+        if (start >= end || end - start > 9) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            final int c = at(buffer, i, end);
+            if (!isDigit(c)) {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    protected static boolean regionMatches(final ByteBuffer buffer, final int index, final int end, final String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (at(buffer, index + i, end) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes the characters between the given indices.
+     */
+    protected static String string(final ByteBuffer buffer, final int start, final int end) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + start, end - start, StandardCharsets.US_ASCII);
+        }
+        final char[] chars = new char[end - start];
+        for (int i = start; i < end; i++) {
+            chars[i - start] = (char)buffer.get(i);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Equivalent to <code>string(buffer, start, end).trim()</code>.
+     */
+    protected static String trimmedString(final ByteBuffer buffer, int start, int end) {
+        while (start < end && buffer.get(start) <= ' ') {
+            start++;
+        }
+        while (end > start && buffer.get(end - 1) <= ' ') {
+            end--;
+        }
+        return string(buffer, start, end);
+    }
+
+    /**
+     * Parses a timestamp such as <code>Dec  7 12:02:06</code> that was matched by
+     * <code>\S\S\S\s+\d{1,2}\s+\d\d:\d\d:\d\d</code> in the current year, as
+     * {@link SyslogParser#parseDate(String)} does.
+     *
+     * @return the time in milliseconds or {@link #INVALID_TIME}
+     */
+    protected static long parseBsdTimestamp(final ByteBuffer buffer, final int start, final int end) {
+        int month = -1;
+        for (int m = 0; m < MONTHS.length; m++) {
+            if (Character.toLowerCase(at(buffer, start, end)) == MONTHS[m][0]
+                    && Character.toLowerCase(at(buffer, start + 1, end)) == MONTHS[m][1]
+                    && Character.toLowerCase(at(buffer, start + 2, end)) == MONTHS[m][2]) {
+                month = m + 1;
+                break;
+            }
+        }
+        // SimpleDateFormat only allows a single space before the day and the time,
+        // but skips any additional spaces and tabs before the numbers
+        int i = start + 3;
+        if (month < 0 || at(buffer, i++, end) != ' ') {
+            return INVALID_TIME;
+        }
+        while (at(buffer, i, end) == ' ' || at(buffer, i, end) == '\t') {
+            i++;
+        }
+        final int dayStart = i;
+        i = skipDigits(buffer, i, end);
+        final int day = digits(buffer, dayStart, i);
+        if (at(buffer, i++, end) != ' ') {
+            return INVALID_TIME;
+        }
+        while (at(buffer, i, end) == ' ' || at(buffer, i, end) == '\t') {
+            i++;
+        }
+        if (i + 8 != end || at(buffer, i + 2, end) != ':' || at(buffer, i + 5, end) != ':') {
+            return INVALID_TIME;
+        }
+        final int hour = digits(buffer, i, i + 2);
+        final int minute = digits(buffer, i + 3, i + 5);
+        final int second = digits(buffer, i + 6, i + 8);
+
+        // February 29th rolls over to March 1st in the non-leap default year of the date format
+        if (month == 2 && day == 29) {
+            return INVALID_TIME;
+        }
+        return epochMillis(currentYear(), month, day, hour, minute, second);
+    }
+
+    /**
+     * Parses a date such as <code>2007-01-01</code> in UTC, as {@link SyslogParser#parseDate(String)} does.
+     *
+     * @return the time in milliseconds or {@link #INVALID_TIME}
+     */
+    protected static long parseIsoDate(final ByteBuffer buffer, final int start, final int end) {
+        if (end - start != 10 || at(buffer, start + 4, end) != '-' || at(buffer, start + 7, end) != '-') {
+            return INVALID_TIME;
+        }
+        final int year = digits(buffer, start, start + 4);
+        if (year < 1900 || year > 2099) {
+            return INVALID_TIME;
+        }
+        return epochMillis(year, digits(buffer, start + 5, start + 7), digits(buffer, start + 8, start + 10), 0, 0, 0);
+    }
+
+    /**
+     * @return the time in milliseconds or {@link #INVALID_TIME} if any of the fields
+     *   is out of range
+     */
+    protected static long epochMillis(final int year, final int month, final int day, final int hour, final int minute, final int second) {
+        // Years before the Gregorian cutover are left to GregorianCalendar
+        if (year < 1583 || year > 9999 || month < 1 || month > 12 || day < 1 || day > DAYS_IN_MONTH[month - 1]
+                || (month == 2 && day == 29 && !isLeapYear(year))
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return INVALID_TIME;
+        }
+        return ((daysFromCivil(year, month, day) * 24 + hour) * 60 + minute) * 60000L + second * 1000L;
+    }
+
+    private static boolean isLeapYear(final int year) {
+        return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+    }
+
+    /**
+     * @return the number of days since 1970-01-01 in the proleptic Gregorian calendar
+     */
+    private static long daysFromCivil(int year, final int month, final int day) {
+        year -= month <= 2 ? 1 : 0;
+        final long era = (year >= 0 ? year : year - 399) / 400;
+        final long yearOfEra = year - era * 400;
+        final long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        final long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * @return the current year in the default time zone, which is refreshed every second
+     */
+    private static int currentYear() {
+        final long now = System.currentTimeMillis();
+        if (now >= s_currentYearExpires) {
+            final long localDays = Math.floorDiv(now + TimeZone.getDefault().getOffset(now), 86400000L);
+            s_currentYear = yearFromDays(localDays);
+            s_currentYearExpires = now + 1000;
+        }
+        return s_currentYear;
+    }
+
+    private static int yearFromDays(final long days) {
+        final long z = days + 719468;
+        final long era = (z >= 0 ? z : z - 146096) / 146097;
+        final long dayOfEra = z - era * 146097;
+        final long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        final long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        final long mp = (5 * dayOfYear + 2) / 153;
+        final long month = mp < 10 ? mp + 3 : mp - 9;
+        return (int)(yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+    }
+}
@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+
+/**
+ * Hand-written equivalent of the {@link JuniperSyslogParser}.
+ *
+ * <pre>&lt;PRI&gt;TIMESTAMP HOST PROCESS[PID]: MESSAGE</pre>
+ */
+public class JuniperByteBufferParser extends ByteBufferSyslogParser {
+
+    @Override
+    protected SyslogMessage parse(final ByteBuffer buffer, final int start, final int end) {
+        int i = start;
+
+        // <PRI>
+        if (at(buffer, i++, end) != '<') {
+            return null;
+        }
+        final int priorityStart = i;
+        i = skipDigits(buffer, i, end);
+        if (at(buffer, i, end) != '>') {
+            return null;
+        }
+        final int priorityField = digits(buffer, priorityStart, i++);
+        if (!isSupportedPriority(priorityField)) {
+            return null;
+        }
+
+        // TIMESTAMP
+        final int timestampStart = skipWhitespace(buffer, i, end);
+        final int timestampEnd = SyslogNGByteBufferParser.matchBsdTimestamp(buffer, timestampStart, end);
+        if (timestampEnd < 0) {
+            return null;
+        }
+
+        // HOST
+        final int hostStart = skipWhitespace(buffer, timestampEnd, end);
+        final int hostEnd = skipNonWhitespace(buffer, hostStart, end);
+        if (hostStart == timestampEnd || hostEnd == hostStart) {
+            return null;
+        }
+
+        // PROCESS[PID]:
+        final int processStart = skipWhitespace(buffer, hostEnd, end);
+        final int tokenEnd = skipNonWhitespace(buffer, processStart, end);
+        if (processStart == hostEnd || at(buffer, tokenEnd, end) != ' ' || at(buffer, tokenEnd - 1, end) != ':' || at(buffer, tokenEnd - 2, end) != ']') {
+            return null;
+        }
+        final int pidEnd = tokenEnd - 2;
+        final int pidStart = skipDigitsBackwards(buffer, processStart, pidEnd);
+        final int processEnd = pidStart - 1;
+        if (pidStart == pidEnd || processEnd <= processStart || at(buffer, processEnd, end) != '[') {
+            return null;
+        }
+        final int processId = digits(buffer, pidStart, pidEnd);
+        if (processId < 0) {
+            return null;
+        }
+
+        final long time = parseBsdTimestamp(buffer, timestampStart, timestampEnd);
+        if (time == INVALID_TIME) {
+            return null;
+        }
+
+        final SyslogMessage message = new SyslogMessage();
+        message.setParserClass(JuniperSyslogParser.class);
+        message.setFacility(SyslogFacility.getFacilityForCode(priorityField));
+        message.setSeverity(SyslogSeverity.getSeverityForCode(priorityField));
+        message.setDate(new Date(time));
+        message.setHostName(string(buffer, hostStart, hostEnd));
+        message.setProcessName(string(buffer, processStart, processEnd));
+        message.setProcessId(processId);
+        message.setMessage(trimmedString(buffer, tokenEnd + 1, end));
+        return message;
+    }
+
+    private static int skipDigitsBackwards(final ByteBuffer buffer, final int start, int index) {
+        while (index > start && isDigit(buffer.get(index - 1))) {
+            index--;
+        }
+        return index;
+    }
+}
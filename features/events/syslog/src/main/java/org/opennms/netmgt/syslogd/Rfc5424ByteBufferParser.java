@@ -0,0 +1,228 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+
+/**
+ * Hand-written equivalent of the {@link Rfc5424SyslogParser}.
+ *
+ * <pre>&lt;PRI&gt;VERSION TIMESTAMP HOSTNAME APP-NAME PROCID MSGID STRUCTURED-DATA [BOM]MSG</pre>
+ */
+public class Rfc5424ByteBufferParser extends ByteBufferSyslogParser {
+
+    @Override
+    protected SyslogMessage parse(final ByteBuffer buffer, final int start, final int end) {
+        int i = start;
+
+        // <PRI>
+        if (at(buffer, i++, end) != '<') {
+            return null;
+        }
+        final int priorityStart = i;
+        i = skipDigits(buffer, i, end);
+        if (i - priorityStart > 3 || at(buffer, i, end) != '>') {
+            return null;
+        }
+        final int priorityField = digits(buffer, priorityStart, i++);
+        if (!isSupportedPriority(priorityField)) {
+            return null;
+        }
+
+        // VERSION
+        final int versionStart = i;
+        i = skipDigits(buffer, i, end);
+        if (i - versionStart > 2 || at(buffer, i, end) != ' ') {
+            return null;
+        }
+        final int version = digits(buffer, versionStart, i++);
+
+        // TIMESTAMP
+        final int timestampStart = i;
+        i = skipNonWhitespace(buffer, i, end);
+        if (at(buffer, i, end) != ' ') {
+            return null;
+        }
+        final long time = parseTimestamp(buffer, timestampStart, i++);
+        if (time == INVALID_TIME) {
+            return null;
+        }
+
+        // HOSTNAME
+        final int hostStart = i;
+        i = skipNonWhitespace(buffer, i, end);
+        if (at(buffer, i, end) != ' ') {
+            return null;
+        }
+        final int hostEnd = i++;
+
+        // APP-NAME
+        final int appStart = i;
+        i = skipNonWhitespace(buffer, i, end);
+        if (at(buffer, i, end) != ' ') {
+            return null;
+        }
+        final int appEnd = i++;
+
+        // PROCID
+        final int processIdStart = i;
+        int processId = -1;
+        if (at(buffer, i, end) == '-') {
+            i++;
+        } else {
+            i = skipDigits(buffer, i, end);
+            processId = digits(buffer, processIdStart, i);
+            if (processId < 0) {
+                return null;
+            }
+        }
+        if (at(buffer, i++, end) != ' ') {
+            return null;
+        }
+
+        // MSGID
+        final int messageIdStart = i;
+        i = skipNonWhitespace(buffer, i, end);
+        if (at(buffer, i, end) != ' ') {
+            return null;
+        }
+        final int messageIdEnd = i++;
+
+        // STRUCTURED-DATA: either the NILVALUE or a sequence of elements which the
+        // regex parser delimits by the first closing bracket
+        if (at(buffer, i, end) == '-') {
+            i++;
+        } else {
+            while (at(buffer, i, end) == '[') {
+                int c;
+                do {
+                    c = at(buffer, ++i, end);
+                    if (c < 0) {
+                        return null;
+                    }
+                } while (c != ']');
+                i++;
+            }
+        }
+
+        // MSG
+        String messageText = null;
+        if (i < end) {
+            if (at(buffer, i++, end) != ' ') {
+                return null;
+            }
+            if (regionMatches(buffer, i, end, "BOM")) {
+                i += 3;
+            }
+            if (i < end) {
+                messageText = trimmedString(buffer, i, end);
+            }
+        }
+
+        final SyslogMessage message = new SyslogMessage();
+        message.setParserClass(Rfc5424SyslogParser.class);
+        message.setFacility(SyslogFacility.getFacilityForCode(priorityField));
+        message.setSeverity(SyslogSeverity.getSeverityForCode(priorityField));
+        if (version >= 0) {
+            message.setVersion(version);
+        }
+        message.setDate(new Date(time));
+        if (!isNil(buffer, hostStart, hostEnd, end)) {
+            message.setHostName(string(buffer, hostStart, hostEnd));
+        }
+        if (!isNil(buffer, appStart, appEnd, end)) {
+            message.setProcessName(string(buffer, appStart, appEnd));
+        }
+        if (processId >= 0) {
+            message.setProcessId(processId);
+        }
+        if (!isNil(buffer, messageIdStart, messageIdEnd, end)) {
+            message.setMessageID(string(buffer, messageIdStart, messageIdEnd));
+        }
+        if (messageText != null) {
+            message.setMessage(messageText);
+        }
+        return message;
+    }
+
+    private static boolean isNil(final ByteBuffer buffer, final int start, final int fieldEnd, final int end) {
+        return fieldEnd - start == 1 && at(buffer, start, end) == '-';
+    }
+
+    /**
+     * Parses an RFC 3339 timestamp such as <code>2003-10-11T22:14:15.003Z</code> or
+     * <code>2011-11-15T14:42:18+01:00</code>.
+     *
+     * For compatibility with {@link Rfc5424SyslogParser#parseDate(String)}, the digits
+     * of the fractional seconds are added as a number of milliseconds.
+     *
+     * @return the time in milliseconds or {@link #INVALID_TIME}
+     */
+    protected static long parseTimestamp(final ByteBuffer buffer, final int start, final int end) {
+        if (end - start < 20 || at(buffer, start + 4, end) != '-' || at(buffer, start + 7, end) != '-' || at(buffer, start + 10, end) != 'T'
+                || at(buffer, start + 13, end) != ':' || at(buffer, start + 16, end) != ':') {
+            return INVALID_TIME;
+        }
+        final long time = epochMillis(digits(buffer, start, start + 4), digits(buffer, start + 5, start + 7), digits(buffer, start + 8, start + 10),
+                digits(buffer, start + 11, start + 13), digits(buffer, start + 14, start + 16), digits(buffer, start + 17, start + 19));
+        if (time == INVALID_TIME) {
+            return INVALID_TIME;
+        }
+
+        int i = start + 19;
+        int fraction = 0;
+        if (at(buffer, i, end) == '.') {
+            final int fractionStart = ++i;
+            i = skipDigits(buffer, i, end);
+            fraction = digits(buffer, fractionStart, i);
+            if (fraction < 0) {
+                return INVALID_TIME;
+            }
+        }
+
+        final int c = at(buffer, i, end);
+        if (c == 'Z' && i + 1 == end) {
+            return time + fraction;
+        } else if (c == '+' || c == '-') {
+            final int hours = digits(buffer, i + 1, i + 3);
+            i += 3;
+            if (at(buffer, i, end) == ':') {
+                i++;
+            }
+            final int minutes = digits(buffer, i, i + 2);
+            if (i + 2 != end || hours < 0 || hours > 23 || minutes < 0 || minutes > 59) {
+                return INVALID_TIME;
+            }
+            final long offset = (hours * 60 + minutes) * 60000L;
+            return time + fraction - (c == '+' ? offset : -offset);
+        }
+        return INVALID_TIME;
+    }
+}
@@ -33,7 +33,6 @@ import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
 import java.util.concurrent.Callable;
 
 import javax.xml.bind.annotation.XmlAccessType;
@@ -179,9 +178,9 @@ public class SyslogConnection implements Callable<Callable<?>> {
                 m_location,
                 m_sourceAddress,
                 m_port,
-                // Decode the packet content as ASCII
+                // Parsed directly or decoded as ASCII
                 // TODO: Support more character encodings?
-                StandardCharsets.US_ASCII.decode(m_bytes).toString(),
+                m_bytes,
                 m_config
             );
 
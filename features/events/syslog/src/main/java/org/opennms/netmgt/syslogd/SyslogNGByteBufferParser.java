@@ -0,0 +1,212 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+
+/**
+ * Hand-written equivalent of the {@link SyslogNGParser}.
+ *
+ * <pre>&lt;PRI&gt;[IDENT[:] ]TIMESTAMP HOST [PROCESS[[PID]]: ]MESSAGE</pre>
+ *
+ * The optional identifier is matched lazily by the regex parser, so the
+ * shortest identifier that leaves a valid remainder is tried first here too.
+ */
+public class SyslogNGByteBufferParser extends ByteBufferSyslogParser {
+
+    @Override
+    protected SyslogMessage parse(final ByteBuffer buffer, final int start, final int end) {
+        int i = start;
+
+        // <PRI>
+        if (at(buffer, i++, end) != '<') {
+            return null;
+        }
+        final int priorityStart = i;
+        i = skipDigits(buffer, i, end);
+        if (i - priorityStart > 3 || at(buffer, i, end) != '>') {
+            return null;
+        }
+        final int priorityField = digits(buffer, priorityStart, i++);
+        if (!isSupportedPriority(priorityField)) {
+            return null;
+        }
+
+        // IDENT, in the order in which the regex backtracks
+        final int identStart = i;
+        final int identLimit = skipNonWhitespace(buffer, identStart, end);
+        for (int identEnd = identStart; identEnd <= identLimit; identEnd++) {
+            if (at(buffer, identEnd, end) == ':' && at(buffer, identEnd + 1, end) == ' ') {
+                final SyslogMessage message = parseTimestamp(buffer, identStart, identEnd, identEnd + 2, end, priorityField);
+                if (message != null) {
+                    return message;
+                }
+            }
+            if (at(buffer, identEnd, end) == ' ') {
+                final SyslogMessage message = parseTimestamp(buffer, identStart, identEnd, identEnd + 1, end, priorityField);
+                if (message != null) {
+                    return message;
+                }
+            }
+            final SyslogMessage message = parseTimestamp(buffer, identStart, identEnd, identEnd, end, priorityField);
+            if (message != null) {
+                return message;
+            }
+        }
+        return null;
+    }
+
+    private static SyslogMessage parseTimestamp(final ByteBuffer buffer, final int identStart, final int identEnd, final int timestampStart, final int end, final int priorityField) {
+        // \d\d\d\d-\d\d-\d\d
+        int timestampEnd = timestampStart + 10;
+        if (isDigit(at(buffer, timestampStart, end)) && isDigit(at(buffer, timestampStart + 1, end)) && isDigit(at(buffer, timestampStart + 2, end)) && isDigit(at(buffer, timestampStart + 3, end))
+                && at(buffer, timestampStart + 4, end) == '-' && isDigit(at(buffer, timestampStart + 5, end)) && isDigit(at(buffer, timestampStart + 6, end))
+                && at(buffer, timestampStart + 7, end) == '-' && isDigit(at(buffer, timestampStart + 8, end)) && isDigit(at(buffer, timestampStart + 9, end))) {
+            final SyslogMessage message = parseHost(buffer, identStart, identEnd, timestampStart, timestampEnd, end, priorityField);
+            if (message != null) {
+                return message;
+            }
+        }
+
+        // \S\S\S\s+\d{1,2}\s+\d\d:\d\d:\d\d
+        timestampEnd = matchBsdTimestamp(buffer, timestampStart, end);
+        if (timestampEnd >= 0) {
+            return parseHost(buffer, identStart, identEnd, timestampStart, timestampEnd, end, priorityField);
+        }
+        return null;
+    }
+
+    private static SyslogMessage parseHost(final ByteBuffer buffer, final int identStart, final int identEnd, final int timestampStart, final int timestampEnd, final int end, final int priorityField) {
+        // " (\S+) "
+        int i = timestampEnd;
+        if (at(buffer, i++, end) != ' ') {
+            return null;
+        }
+        final int hostStart = i;
+        i = skipNonWhitespace(buffer, i, end);
+        if (i == hostStart || at(buffer, i, end) != ' ') {
+            return null;
+        }
+        final int hostEnd = i++;
+
+        // An optional "PROCESS[PID]:" token followed by whitespace and the message
+        final int tokenStart = i;
+        final int tokenEnd = skipNonWhitespace(buffer, tokenStart, end);
+        int processEnd = -1;
+        int processId = -1;
+        int messageStart = tokenStart;
+        if (tokenEnd - tokenStart >= 2 && at(buffer, tokenEnd - 1, end) == ':') {
+            final int next = skipWhitespace(buffer, tokenEnd, end);
+            if (next > tokenEnd && isNonWhitespace(at(buffer, next, end))) {
+                processEnd = tokenEnd - 1;
+                messageStart = next;
+                // A trailing [PID] after at least one character of the process name
+                if (at(buffer, processEnd - 1, end) == ']') {
+                    final int pidEnd = processEnd - 1;
+                    int pidStart = pidEnd;
+                    while (pidStart > tokenStart && isDigit(at(buffer, pidStart - 1, end))) {
+                        pidStart--;
+                    }
+                    if (pidStart < pidEnd && pidStart - 1 > tokenStart && at(buffer, pidStart - 1, end) == '[') {
+                        processId = digits(buffer, pidStart, pidEnd);
+                        if (processId < 0) {
+                            return UNPARSEABLE;
+                        }
+                        processEnd = pidStart - 1;
+                    }
+                }
+            }
+        }
+        if (!isNonWhitespace(at(buffer, messageStart, end))) {
+            return null;
+        }
+        final String messageText = trimmedString(buffer, messageStart, end);
+
+        // The regex parser would fall back to the current time
+        final long time = timestampEnd - timestampStart == 10
+                ? parseIsoDate(buffer, timestampStart, timestampEnd)
+                : parseBsdTimestamp(buffer, timestampStart, timestampEnd);
+        if (time == INVALID_TIME) {
+            return UNPARSEABLE;
+        }
+
+        final SyslogMessage message = new SyslogMessage();
+        message.setParserClass(SyslogNGParser.class);
+        message.setFacility(SyslogFacility.getFacilityForCode(priorityField));
+        message.setSeverity(SyslogSeverity.getSeverityForCode(priorityField));
+        if (identEnd > identStart) {
+            message.setMessageID(string(buffer, identStart, identEnd));
+        }
+        message.setDate(new Date(time));
+        message.setHostName(string(buffer, hostStart, hostEnd));
+        if (processEnd >= 0) {
+            message.setProcessName(string(buffer, tokenStart, processEnd));
+        }
+        if (processId >= 0) {
+            message.setProcessId(processId);
+        }
+        message.setMessage(messageText);
+        return message;
+    }
+
+    /**
+     * Matches <code>\S\S\S\s+\d{1,2}\s+\d\d:\d\d:\d\d</code>.
+     *
+     * @return the index after the timestamp or -1 if it does not match
+     */
+    protected static int matchBsdTimestamp(final ByteBuffer buffer, final int start, final int end) {
+        int i = start;
+        if (!isNonWhitespace(at(buffer, i, end)) || !isNonWhitespace(at(buffer, i + 1, end)) || !isNonWhitespace(at(buffer, i + 2, end))) {
+            return -1;
+        }
+        i += 3;
+        int next = skipWhitespace(buffer, i, end);
+        if (next == i) {
+            return -1;
+        }
+        i = next;
+        next = skipDigits(buffer, i, end);
+        if (next == i || next - i > 2) {
+            return -1;
+        }
+        i = next;
+        next = skipWhitespace(buffer, i, end);
+        if (next == i) {
+            return -1;
+        }
+        i = next;
+        if (isDigit(at(buffer, i, end)) && isDigit(at(buffer, i + 1, end)) && at(buffer, i + 2, end) == ':'
+                && isDigit(at(buffer, i + 3, end)) && isDigit(at(buffer, i + 4, end)) && at(buffer, i + 5, end) == ':'
+                && isDigit(at(buffer, i + 6, end)) && isDigit(at(buffer, i + 7, end))) {
+            return i + 8;
+        }
+        return -1;
+    }
+}
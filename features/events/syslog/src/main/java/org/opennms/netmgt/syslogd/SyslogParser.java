@@ -35,6 +35,8 @@ import java.util.Calendar;
 import java.util.Date;
 import java.util.Locale;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -53,21 +55,38 @@ public class SyslogParser {
     private Boolean m_matched = null;
     private boolean m_traceEnabled = false;
     
+    /**
+     * Constructors of the parser classes by the class names in the configuration,
+     * so that these are only looked up once.
+     */
+    private static final ConcurrentMap<String, Constructor<? extends SyslogParser>> s_constructors = new ConcurrentHashMap<>();
+
     public static SyslogParser getParserInstance(SyslogdConfig config, String text) throws MessageDiscardedException {
-        Class<? extends SyslogParser> m_parserClass = null;
-        try {
-            m_parserClass = Class.forName(config.getParser()).asSubclass(SyslogParser.class);
-        } catch (final Exception ex) {
-            LOG.debug("Unable to instantiate Syslog parser class specified in config: {}", config.getParser(), ex);
-            m_parserClass = CustomSyslogParser.class;
+        final String parserClassName = String.valueOf(config.getParser());
+        Constructor<? extends SyslogParser> m = s_constructors.get(parserClassName);
+        if (m == null) {
+            Class<? extends SyslogParser> m_parserClass = null;
+            try {
+                m_parserClass = Class.forName(config.getParser()).asSubclass(SyslogParser.class);
+            } catch (final Exception ex) {
+                LOG.debug("Unable to instantiate Syslog parser class specified in config: {}", config.getParser(), ex);
+                m_parserClass = CustomSyslogParser.class;
+            }
+
+            try {
+                m = m_parserClass.getConstructor(SyslogdConfig.class, String.class);
+            } catch (final Exception ex) {
+                LOG.debug("Unable to get parser for class '{}'", m_parserClass.getName(), ex);
+                throw new MessageDiscardedException(ex);
+            }
+            s_constructors.putIfAbsent(parserClassName, m);
         }
 
         final SyslogParser retval;
         try {
-            Constructor<? extends SyslogParser> m = m_parserClass.getConstructor(SyslogdConfig.class, String.class);
             retval = (SyslogParser)m.newInstance(config, text);
         } catch (final Exception ex) {
-            LOG.debug("Unable to get parser for class '{}'", m_parserClass.getName(), ex);
+            LOG.debug("Unable to get parser for class '{}'", m.getDeclaringClass().getName(), ex);
             throw new MessageDiscardedException(ex);
         }
 
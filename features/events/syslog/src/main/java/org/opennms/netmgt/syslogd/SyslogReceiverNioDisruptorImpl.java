@@ -35,13 +35,19 @@ import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.opennms.core.concurrent.ExecutorFactory;
 import org.opennms.core.concurrent.ExecutorFactoryJavaImpl;
 import org.opennms.core.logging.Logging;
+import org.opennms.core.utils.DatagramSocketStats;
 import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.core.utils.ReusePortDatagramChannels;
 import org.opennms.netmgt.config.SyslogdConfig;
 import org.opennms.netmgt.dao.api.DistPollerDao;
 import org.slf4j.Logger;
@@ -59,6 +65,12 @@ import com.lmax.disruptor.dsl.Disruptor;
  * to store the packet data. The packets are then decoded using async 
  * {@link CompletableFuture} calls that are executed on a set of {@link ExecutorService}
  * thread pools.
+ *
+ * By default, all listener threads share one socket. When more than one receive
+ * socket is configured, the receiver opens that many SO_REUSEPORT channels on the
+ * syslog port so that the kernel spreads the datagrams over several socket queues.
+ * Each of these channels has its own listener thread and ring buffer, and its
+ * receive and drop counters are registered in JMX.
  * 
  * @author Seth
  */
@@ -69,6 +81,11 @@ public class SyslogReceiverNioDisruptorImpl implements SyslogReceiver {
 
     private static final int SOCKET_TIMEOUT = 500;
 
+    /**
+     * JMX domain that the per-socket statistics are registered in.
+     */
+    private static final String JMX_DOMAIN = "org.opennms.netmgt.syslogd";
+
     /**
      * This size is used as the size of each {@link ByteBuffer} used to capture syslog
      * messages.
@@ -79,12 +96,20 @@ public class SyslogReceiverNioDisruptorImpl implements SyslogReceiver {
 
     /**
      * This is the number of NIO listener threads that will process {@link DatagramChannel#receive(ByteBuffer)}
-     * calls on the syslog port.
+     * calls on the syslog port when all of them share a single socket.
      * 
      * TODO: Make this configurable
      */
     public static final int SOCKET_RECEIVER_THREADS = Runtime.getRuntime().availableProcessors();
 
+    /**
+     * This is the default number of sockets that are opened on the syslog port. With
+     * more than one socket, each of them is opened with SO_REUSEPORT and is served by
+     * its own listener thread and ring buffer. A value of 0 opens one socket per
+     * processor.
+     */
+    public static final int DEFAULT_RECEIVE_SOCKETS = Integer.getInteger("org.opennms.netmgt.syslogd.receiveSockets", 1);
+
     /**
      * This is the number of threads that are used to parse syslog messages into
      * OpenNMS events.
@@ -103,12 +128,18 @@ public class SyslogReceiverNioDisruptorImpl implements SyslogReceiver {
     /**
      * This is the size of the LMAX Disruptor queue that contains preallocated
      * {@link ByteBufferMessage} instances. This is the number of simultaneous
-     * messages that can be in-flight at any given time.
+     * messages that can be in-flight at any given time. When several sockets
+     * are used, it is divided among their ring buffers.
      * 
      * TODO: Make this configurable
      */
     public static final int SOCKET_BYTE_BUFFER_QUEUE_SIZE = 65536;
 
+    /**
+     * This is the smallest ring buffer that is allocated for a socket.
+     */
+    private static final int MIN_SOCKET_BYTE_BUFFER_QUEUE_SIZE = 1024;
+
     /**
      * This is the size of the LMAX Disruptor queue that contains {@link SyslogConnection}
      * tasks that will convert the syslog bytes into OpenNMS events.
@@ -129,7 +160,12 @@ public class SyslogReceiverNioDisruptorImpl implements SyslogReceiver {
      */
     private volatile boolean m_stop;
 
-    private DatagramChannel m_channel;
+    /**
+     * The number of sockets to open on the syslog port.
+     */
+    private int m_receiveSockets = DEFAULT_RECEIVE_SOCKETS;
+
+    private final List<SocketReceiver> m_receivers = new CopyOnWriteArrayList<>();
 
     /**
      * The context thread
@@ -149,8 +185,11 @@ public class SyslogReceiverNioDisruptorImpl implements SyslogReceiver {
     private ExecutorService m_syslogConnectionExecutor;
     private ExecutorService m_syslogProcessorExecutor;
 
-    private final Disruptor<ByteBufferMessage> m_byteBuffers;
-    private final RingBuffer<ByteBufferMessage> m_ringBuffer;
+    private final Meter m_packetMeter = METRICS.meter(MetricRegistry.name(getClass(), "packets"));
+    private final Meter m_processorMeter = METRICS.meter(MetricRegistry.name(getClass(), "processors"));
+    private final Meter m_connectionMeter = METRICS.meter(MetricRegistry.name(getClass(), "connections"));
+    private final Meter m_dropMeter = METRICS.meter(MetricRegistry.name(getClass(), "drops"));
+    private final Histogram m_packetSizeHistogram = METRICS.histogram(MetricRegistry.name(getClass(), "packetSize"));
 
     /**
      * This class is a container for a preallocated {@link ByteBuffer} that is
@@ -159,6 +198,9 @@ public class SyslogReceiverNioDisruptorImpl implements SyslogReceiver {
     private static class ByteBufferMessage {
         // Allocate a buffer that's big enough to handle any sane syslog message
         public final ByteBuffer buffer = ByteBuffer.allocate(MAX_PACKET_SIZE);
+
+        // Set while the buffer is held by a message that is being converted
+        public final AtomicBoolean inUse = new AtomicBoolean(false);
     }
 
     public static DatagramChannel openChannel(SyslogdConfig config) throws SocketException, IOException {
@@ -167,12 +209,16 @@ public class SyslogReceiverNioDisruptorImpl implements SyslogReceiver {
         // unit tests trying to rebind to an address where other tests
         // also bound. This shouldn't have any effect at runtime.
         channel.socket().setReuseAddress(true);
+        channel.socket().bind(getBindAddress(config));
+        return channel;
+    }
+
+    private static InetSocketAddress getBindAddress(SyslogdConfig config) {
         if (config.getListenAddress() != null && config.getListenAddress().length() != 0) {
-            channel.socket().bind(new InetSocketAddress(InetAddressUtils.addr(config.getListenAddress()), config.getSyslogPort()));
+            return new InetSocketAddress(InetAddressUtils.addr(config.getListenAddress()), config.getSyslogPort());
         } else {
-            channel.socket().bind(new InetSocketAddress(config.getSyslogPort()));
+            return new InetSocketAddress(config.getSyslogPort());
         }
-        return channel;
     }
 
     /**
@@ -189,29 +235,7 @@ public class SyslogReceiverNioDisruptorImpl implements SyslogReceiver {
         }
 
         m_stop = false;
-        m_channel = null;
         m_config = config;
-
-        //m_socketReceivers = m_executorFactory.newExecutor(SOCKET_RECEIVER_THREADS, Integer.MAX_VALUE, "OpenNMS.Syslogd", "socketReceivers");
-        //m_syslogConnectionExecutor = m_executorFactory.newExecutor(EVENT_PARSER_THREADS, Integer.MAX_VALUE, "OpenNMS.Syslogd", "syslogConnections");
-        //m_syslogProcessorExecutor = m_executorFactory.newExecutor(EVENT_SENDER_THREADS, Integer.MAX_VALUE, "OpenNMS.Syslogd", "syslogProcessors");
-
-        // We can use a null executor here because we're not queueing executable tasks.
-        // We're just using this ring buffer to access preallocated ByteBuffers.
-        m_byteBuffers = new Disruptor<ByteBufferMessage>(ByteBufferMessage::new, SOCKET_BYTE_BUFFER_QUEUE_SIZE, null);
-        m_byteBuffers.start();
-        m_ringBuffer = m_byteBuffers.getRingBuffer();
-
-        /*
-         * TODO: Do we need to do anything to warm up the ring buffer? Probably not I guess.
-
-        for (int i = 0; i < 8192; i++) {
-            long sequence = ringBuffer.next();
-            try {
-                ringBuffer.get(sequence);
-            }
-        }
-        */
     }
 
     @Override
@@ -237,6 +261,18 @@ public class SyslogReceiverNioDisruptorImpl implements SyslogReceiver {
         m_executorFactory = executorFactory;
     }
 
+    public int getReceiveSockets() {
+        return m_receiveSockets;
+    }
+
+    /**
+     * Sets the number of SO_REUSEPORT sockets to open on the syslog port. 1 shares
+     * a single socket between all listener threads and 0 opens one socket per processor.
+     */
+    public void setReceiveSockets(int receiveSockets) {
+        m_receiveSockets = receiveSockets;
+    }
+
     /**
      * stop the current receiver
      * @throws InterruptedException
@@ -253,13 +289,10 @@ public class SyslogReceiverNioDisruptorImpl implements SyslogReceiver {
         m_syslogConnectionExecutor.shutdown();
         m_syslogProcessorExecutor.shutdown();
 
-        try {
-            m_channel.close();
-        } catch (IOException e) {
-            LOG.warn("Exception while closing syslog channel: " + e.getMessage());
-        } finally {
-            m_channel = null;
+        for (SocketReceiver receiver : m_receivers) {
+            receiver.close();
         }
+        m_receivers.clear();
 
         if (m_context != null) {
             LOG.debug("Stopping and joining thread context {}", m_context.getName());
@@ -280,12 +313,6 @@ public class SyslogReceiverNioDisruptorImpl implements SyslogReceiver {
         // Get a log instance
         Logging.putPrefix(Syslogd.LOG4J_CATEGORY);
 
-        // Create some metrics
-        Meter packetMeter = METRICS.meter(MetricRegistry.name(getClass(), "packets"));
-        Meter processorMeter = METRICS.meter(MetricRegistry.name(getClass(), "processors"));
-        Meter connectionMeter = METRICS.meter(MetricRegistry.name(getClass(), "connections"));
-        Histogram packetSizeHistogram = METRICS.histogram(MetricRegistry.name(getClass(), "packetSize"));
-
         if (m_stop) {
             LOG.debug("Stop flag set before thread started, exiting");
             return;
@@ -293,134 +320,230 @@ public class SyslogReceiverNioDisruptorImpl implements SyslogReceiver {
             LOG.debug("Thread context started");
         }
 
-        m_socketReceivers = m_executorFactory.newExecutor(SOCKET_RECEIVER_THREADS, Integer.MAX_VALUE, "OpenNMS.Syslogd", "socketReceivers");
-        m_syslogConnectionExecutor = m_executorFactory.newExecutor(EVENT_PARSER_THREADS, Integer.MAX_VALUE, "OpenNMS.Syslogd", "syslogConnections");
-        m_syslogProcessorExecutor = m_executorFactory.newExecutor(EVENT_SENDER_THREADS, Integer.MAX_VALUE, "OpenNMS.Syslogd", "syslogProcessors");
-
+        final List<DatagramChannel> channels;
         try {
             LOG.debug("Opening syslog channel...");
-            m_channel = openChannel(m_config);
+            channels = openChannels();
         } catch (IOException e) {
-            LOG.warn("An I/O error occured while trying to set the socket timeout", e);
+            LOG.error("An I/O error occured while trying to open the syslog channel", e);
+            return;
         }
 
-        // set an SO timeout to make sure we don't block forever
-        // if a socket is closed.
-        try {
-            LOG.debug("Setting socket timeout to {}ms", SOCKET_TIMEOUT);
-            m_channel.socket().setSoTimeout(SOCKET_TIMEOUT);
-        } catch (SocketException e) {
-            LOG.warn("An I/O error occured while trying to set the socket timeout", e);
+        // Share the ring buffer capacity between the sockets
+        final int ringBufferSize = channels.size() == 1 ? SOCKET_BYTE_BUFFER_QUEUE_SIZE : Math.max(MIN_SOCKET_BYTE_BUFFER_QUEUE_SIZE, Integer.highestOneBit(SOCKET_BYTE_BUFFER_QUEUE_SIZE / channels.size()));
+        final int threadsPerSocket = channels.size() == 1 ? SOCKET_RECEIVER_THREADS : 1;
+
+        m_socketReceivers = m_executorFactory.newExecutor(channels.size() * threadsPerSocket, Integer.MAX_VALUE, "OpenNMS.Syslogd", "socketReceivers");
+        m_syslogConnectionExecutor = m_executorFactory.newExecutor(EVENT_PARSER_THREADS, Integer.MAX_VALUE, "OpenNMS.Syslogd", "syslogConnections");
+        m_syslogProcessorExecutor = m_executorFactory.newExecutor(EVENT_SENDER_THREADS, Integer.MAX_VALUE, "OpenNMS.Syslogd", "syslogProcessors");
+
+        for (int i = 0; i < channels.size(); i++) {
+            final SocketReceiver receiver = new SocketReceiver(i, channels.get(i), ringBufferSize);
+            m_receivers.add(receiver);
+            for (int j = 0; j < threadsPerSocket; j++) {
+                m_socketReceivers.execute(receiver);
+            }
         }
+    }
 
-        // Increase the receive buffer for the socket
-        try {
-            LOG.debug("Attempting to set receive buffer size to {}", Integer.MAX_VALUE);
-            m_channel.socket().setReceiveBufferSize(Integer.MAX_VALUE);
-            LOG.debug("Actual receive buffer size is {}", m_channel.socket().getReceiveBufferSize());
-        } catch (SocketException e) {
-            LOG.info("Failed to set the receive buffer to {}", Integer.MAX_VALUE, e);
+    private List<DatagramChannel> openChannels() throws IOException {
+        final int sockets = ReusePortDatagramChannels.getSocketCount(m_receiveSockets);
+        if (sockets == 1) {
+            return Collections.singletonList(openChannel(m_config));
         }
+        return ReusePortDatagramChannels.open(getBindAddress(m_config), sockets);
+    }
 
-        for (int i = 0; i < SOCKET_RECEIVER_THREADS; i++) {
-            m_socketReceivers.execute(new Runnable() {
-                public void run() {
+    /**
+     * A channel on the syslog port together with the ring buffer of
+     * {@link ByteBufferMessage} instances that its listener threads
+     * receive datagrams into.
+     */
+    private class SocketReceiver implements Runnable {
+        private final int m_index;
+        private final DatagramChannel m_channel;
+        private final Disruptor<ByteBufferMessage> m_byteBuffers;
+        private final RingBuffer<ByteBufferMessage> m_ringBuffer;
+        private final DatagramSocketStats m_stats = new DatagramSocketStats();
+
+        /**
+         * Datagrams that arrive while every buffer is in flight are read into
+         * this buffer and discarded so that the socket queue keeps draining.
+         */
+        private final ThreadLocal<ByteBuffer> m_discardBuffer = ThreadLocal.withInitial(() -> ByteBuffer.allocate(MAX_PACKET_SIZE));
+
+        public SocketReceiver(final int index, final DatagramChannel channel, final int ringBufferSize) {
+            m_index = index;
+            m_channel = channel;
+
+            // set an SO timeout to make sure we don't block forever
+            // if a socket is closed.
+            try {
+                LOG.debug("Setting socket timeout to {}ms", SOCKET_TIMEOUT);
+                m_channel.socket().setSoTimeout(SOCKET_TIMEOUT);
+            } catch (SocketException e) {
+                LOG.warn("An I/O error occured while trying to set the socket timeout", e);
+            }
 
-                    // set to avoid numerous tracing message
-                    boolean ioInterrupted = false;
+            // Increase the receive buffer for the socket
+            try {
+                LOG.debug("Attempting to set receive buffer size to {}", Integer.MAX_VALUE);
+                m_channel.socket().setReceiveBufferSize(Integer.MAX_VALUE);
+                LOG.debug("Actual receive buffer size is {}", m_channel.socket().getReceiveBufferSize());
+            } catch (SocketException e) {
+                LOG.info("Failed to set the receive buffer to {}", Integer.MAX_VALUE, e);
+            }
 
-                    // now start processing incoming requests
-                    while (!m_stop) {
-                        if (m_context.isInterrupted()) {
-                            LOG.debug("Thread context interrupted");
-                            break;
-                        }
+            // We can use a null executor here because we're not queueing executable tasks.
+            // We're just using this ring buffer to access preallocated ByteBuffers.
+            m_byteBuffers = new Disruptor<ByteBufferMessage>(ByteBufferMessage::new, ringBufferSize, null);
+            m_byteBuffers.start();
+            m_ringBuffer = m_byteBuffers.getRingBuffer();
+
+            m_stats.register(JMX_DOMAIN, m_config.getSyslogPort(), m_index);
+        }
 
+        public void close() {
+            try {
+                m_channel.close();
+            } catch (IOException e) {
+                LOG.warn("Exception while closing syslog channel {}: {}", m_index, e.getMessage());
+            }
+            m_stats.unregister();
+        }
+
+        private void release(final long sequence, final ByteBufferMessage message) {
+            // Clear the buffer so that it's ready for writing again
+            message.buffer.clear();
+            message.inUse.set(false);
+
+            // Release the buffer back to the disruptor
+            m_ringBuffer.publish(sequence);
+        }
+
+        @Override
+        public void run() {
+
+            // set to avoid numerous tracing message
+            boolean ioInterrupted = false;
+
+            // now start processing incoming requests
+            while (!m_stop) {
+                if (m_context.isInterrupted()) {
+                    LOG.debug("Thread context interrupted");
+                    break;
+                }
+
+                try {
+                    /*
+                    if (!ioInterrupted) {
+                        LOG.debug("Waiting on a datagram to arrive");
+                    }
+                    */
+
+                    // Check out a ByteBufferMessage
+                    final long sequence = m_ringBuffer.next();
+
+                    // Fetch the ByteBufferMessage
+                    final ByteBufferMessage message = m_ringBuffer.get(sequence);
+
+                    // Nothing gates the ring buffer, so the slot can still be held by a
+                    // message that is being converted. Drain the datagram and count the drop.
+                    if (!message.inUse.compareAndSet(false, true)) {
                         try {
-                            /*
-                            if (!ioInterrupted) {
-                                LOG.debug("Waiting on a datagram to arrive");
-                            }
-                            */
-
-                            // Check out a ByteBufferMessage
-                            final long sequence = m_ringBuffer.next();
-
-                            // Fetch the ByteBufferMessage
-                            final ByteBufferMessage message = m_ringBuffer.get(sequence);
-
-                            // Write the datagram into the ByteBuffer
-                            final InetSocketAddress source = (InetSocketAddress)m_channel.receive(message.buffer);
-
-                            // Increment the packet counter
-                            packetMeter.mark();
-
-                            // Flip the buffer from write to read mode
-                            message.buffer.flip();
-
-                            // Create a metric for the syslog packet size
-                            packetSizeHistogram.update(message.buffer.remaining());
-
-                            /*
-                            CompletableFuture<Void> processPacket = CompletableFuture.supplyAsync(
-                                () -> new SyslogConnection(source.getAddress(), source.getPort(), message.buffer, m_config, null),
-                                m_syslogConnectionExecutor
-                            )
-                            .thenApplyAsync(c -> c.call(), m_syslogConnectionExecutor)
-                            .thenAcceptAsync(c -> c.call(), m_syslogProcessorExecutor);
-                            */
-
-                            SyslogConnection conn = new SyslogConnection(source.getAddress(), source.getPort(), message.buffer, m_config, m_distPollerDao.whoami().getId(), m_distPollerDao.whoami().getLocation());
-
-                            // Convert the syslog packet into an OpenNMS event
-                            CompletableFuture<SyslogProcessor> proc = CompletableFuture.supplyAsync(conn::call, m_syslogConnectionExecutor);
-
-                            // After the bytes are converted into an event...
-                            proc.thenRun(() -> {
-                                // Clear the buffer so that it's ready for writing again
-                                message.buffer.clear();
-
-                                if (sequence % 50 == 0) {
-                                    LOG.debug("Released 50 more datagrams");
-                                }
-
-                                // Release the buffer back to the disruptor
-                                m_ringBuffer.publish(sequence);
-
-                                // Increment the counter
-                                processorMeter.mark();
-                            });
-
-                            // Broadcast the event on the event channel
-                            proc.thenAcceptAsync(c -> c.call(), m_syslogProcessorExecutor).thenRun(() -> connectionMeter.mark());
-
-                            // reset the flag
-                            ioInterrupted = false; 
-                        } catch (SocketTimeoutException e) {
-                            ioInterrupted = true;
-                            continue;
-                        } catch (InterruptedIOException e) {
-                            ioInterrupted = true;
-                            continue;
-                        /*
-                        TODO: Figure out how to handle exceptions appropriately in the async code
-                        } catch (ExecutionException e) {
-                            LOG.error("Task execution failed in {}", this.getClass().getSimpleName(), e);
-                            break;
-                        } catch (InterruptedException e) {
-                            LOG.error("Task interrupted in {}", this.getClass().getSimpleName(), e);
-                            break;
-                        */
-                        } catch (IOException e) {
-                            LOG.error("An I/O exception occured on the datagram receipt port, exiting", e);
-                            break;
+                            final ByteBuffer discard = m_discardBuffer.get();
+                            discard.clear();
+                            m_channel.receive(discard);
+                            m_stats.received();
+                            m_stats.dropped();
+                            m_dropMeter.mark();
+                        } finally {
+                            m_ringBuffer.publish(sequence);
+                        }
+                        continue;
+                    }
+
+                    // Write the datagram into the ByteBuffer
+                    final InetSocketAddress source;
+                    try {
+                        source = (InetSocketAddress)m_channel.receive(message.buffer);
+                    } catch (IOException e) {
+                        release(sequence, message);
+                        throw e;
+                    }
+
+                    // Increment the packet counters
+                    m_packetMeter.mark();
+                    m_stats.received();
+                    if (!message.buffer.hasRemaining()) {
+                        // The datagram filled the whole buffer and was most likely cut short
+                        m_stats.truncated();
+                    }
+
+                    // Flip the buffer from write to read mode
+                    message.buffer.flip();
+
+                    // Create a metric for the syslog packet size
+                    m_packetSizeHistogram.update(message.buffer.remaining());
+
+                    /*
+                    CompletableFuture<Void> processPacket = CompletableFuture.supplyAsync(
+                        () -> new SyslogConnection(source.getAddress(), source.getPort(), message.buffer, m_config, null),
+                        m_syslogConnectionExecutor
+                    )
+                    .thenApplyAsync(c -> c.call(), m_syslogConnectionExecutor)
+                    .thenAcceptAsync(c -> c.call(), m_syslogProcessorExecutor);
+                    */
+
+                    SyslogConnection conn = new SyslogConnection(source.getAddress(), source.getPort(), message.buffer, m_config, m_distPollerDao.whoami().getId(), m_distPollerDao.whoami().getLocation());
+
+                    // Convert the syslog packet into an OpenNMS event
+                    CompletableFuture<SyslogProcessor> proc = CompletableFuture.supplyAsync(conn::call, m_syslogConnectionExecutor);
+
+                    // After the bytes are converted into an event, or the conversion failed...
+                    proc.whenComplete((c, t) -> {
+                        release(sequence, message);
+
+                        if (sequence % 50 == 0) {
+                            LOG.debug("Released 50 more datagrams");
                         }
 
-                    } // end while status OK
-
-                    LOG.debug("Thread context exiting");
+                        // Increment the counter
+                        m_processorMeter.mark();
+                    });
+
+                    // Broadcast the event on the event channel
+                    proc.thenAcceptAsync(c -> c.call(), m_syslogProcessorExecutor).thenRun(() -> m_connectionMeter.mark());
+
+                    // reset the flag
+                    ioInterrupted = false; 
+                } catch (SocketTimeoutException e) {
+                    ioInterrupted = true;
+                    continue;
+                } catch (InterruptedIOException e) {
+                    ioInterrupted = true;
+                    continue;
+                /*
+                TODO: Figure out how to handle exceptions appropriately in the async code
+                } catch (ExecutionException e) {
+                    LOG.error("Task execution failed in {}", this.getClass().getSimpleName(), e);
+                    break;
+                } catch (InterruptedException e) {
+                    LOG.error("Task interrupted in {}", this.getClass().getSimpleName(), e);
+                    break;
+                */
+                } catch (IOException e) {
+                    if (m_stop) {
+                        // The channel was closed by stop()
+                        break;
+                    }
+                    LOG.error("An I/O exception occured on the datagram receipt port, exiting", e);
+                    break;
                 }
-            });
+
+            } // end while status OK
+
+            LOG.debug("Thread context exiting");
         }
     }
 }
@@ -0,0 +1,595 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import static org.opennms.core.utils.InetAddressUtils.str;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.opennms.netmgt.config.SyslogdConfig;
+import org.opennms.netmgt.config.syslogd.HideMatch;
+import org.opennms.netmgt.config.syslogd.HideMessage;
+import org.opennms.netmgt.config.syslogd.ParameterAssignment;
+import org.opennms.netmgt.config.syslogd.UeiList;
+import org.opennms.netmgt.config.syslogd.UeiMatch;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>&lt;ueiList&gt;</code> and <code>&lt;hideMessage&gt;</code> rules of a
+ * {@link SyslogdConfig}, compiled once when the configuration is loaded.
+ *
+ * All of the regular expressions are compiled up front. The literal text that a rule
+ * requires in order to match (the expression of a substring rule, or the run of literal
+ * characters that every match of a regular expression must contain and that the fewest
+ * other rules share) is fed into an {@link AhoCorasick} automaton, so that a single pass
+ * over the message yields the rules that could possibly match. Only those candidates, along with the rules that have
+ * no literal text to look for, are evaluated and they are evaluated in the order in which
+ * they appear in the configuration so that the first matching rule still wins.
+ *
+ * {@link Matcher}s are kept per thread and reused, so that no locks are taken on the
+ * matching path.
+ */
+public class SyslogRuleEngine {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SyslogRuleEngine.class);
+
+    /**
+     * Stands in for expressions that could not be compiled, which never match.
+     */
+    private static final Pattern INVALID_PATTERN = Pattern.compile("(?!)");
+
+    private static volatile SyslogRuleEngine s_lastEngine;
+
+    private final UeiList m_ueiList;
+    private final HideMessage m_hideMessage;
+    private final String m_discardUei;
+
+    private final UeiRule[] m_ueiRules;
+    private final RuleIndex m_ueiIndex;
+
+    private final HideRule[] m_hideRules;
+    private final RuleIndex m_hideIndex;
+
+    private final ThreadLocal<Matcher[]> m_matchers;
+
+    /**
+     * Returns the engine for the rules of the given configuration.
+     *
+     * The most recently built engine is reused for as long as the configuration
+     * returns the same rule lists, and is rebuilt after these are reloaded.
+     */
+    public static SyslogRuleEngine forConfig(final SyslogdConfig config) {
+        final UeiList ueiList = config.getUeiList();
+        final HideMessage hideMessage = config.getHideMessages();
+        final String discardUei = config.getDiscardUei();
+
+        final SyslogRuleEngine engine = s_lastEngine;
+        if (engine != null && engine.m_ueiList == ueiList && engine.m_hideMessage == hideMessage && Objects.equals(engine.m_discardUei, discardUei)) {
+            return engine;
+        }
+        // Concurrent callers may build the same engine twice, which is harmless
+        final SyslogRuleEngine newEngine = new SyslogRuleEngine(ueiList, hideMessage, discardUei);
+        s_lastEngine = newEngine;
+        return newEngine;
+    }
+
+    public SyslogRuleEngine(final UeiList ueiList, final HideMessage hideMessage, final String discardUei) {
+        m_ueiList = ueiList;
+        m_hideMessage = hideMessage;
+        m_discardUei = discardUei;
+
+        final List<UeiRule> ueiRules = new ArrayList<>();
+        final List<List<String>> ueiLiterals = new ArrayList<>();
+        if (ueiList != null) {
+            for (final UeiMatch ueiMatch : ueiList.getUeiMatchCollection()) {
+                final String type = ueiMatch.getMatch().getType();
+                final String expression = ueiMatch.getMatch().getExpression();
+                final boolean substring = "substr".equals(type);
+                if (!substring && !type.startsWith("regex")) {
+                    // Never matched anything
+                    continue;
+                }
+                ueiRules.add(new UeiRule(ueiMatch, substring ? null : compile(expression), discardUei));
+                ueiLiterals.add(substring ? Collections.singletonList(expression) : requiredLiterals(expression));
+            }
+        }
+        m_ueiRules = ueiRules.toArray(new UeiRule[ueiRules.size()]);
+        m_ueiIndex = new RuleIndex(ueiLiterals);
+
+        final List<HideRule> hideRules = new ArrayList<>();
+        final List<List<String>> hideLiterals = new ArrayList<>();
+        if (hideMessage != null) {
+            for (final HideMatch hideMatch : hideMessage.getHideMatchCollection()) {
+                final String type = hideMatch.getMatch().getType();
+                final String expression = hideMatch.getMatch().getExpression();
+                if ("substr".equals(type)) {
+                    hideRules.add(new HideRule(expression, null));
+                    hideLiterals.add(Collections.singletonList(expression));
+                } else if ("regex".equals(type)) {
+                    hideRules.add(new HideRule(expression, compile(expression)));
+                    hideLiterals.add(requiredLiterals(expression));
+                }
+            }
+        }
+        m_hideRules = hideRules.toArray(new HideRule[hideRules.size()]);
+        m_hideIndex = new RuleIndex(hideLiterals);
+
+        final int numMatchers = m_ueiRules.length + m_hideRules.length;
+        m_matchers = new ThreadLocal<Matcher[]>() {
+            @Override
+            protected Matcher[] initialValue() {
+                return new Matcher[numMatchers];
+            }
+        };
+
+        LOG.debug("Compiled {} UEI rules ({} without prefilter) and {} hide rules ({} without prefilter).",
+                m_ueiRules.length, m_ueiIndex.getUnfilteredCount(), m_hideRules.length, m_hideIndex.getUnfilteredCount());
+    }
+
+    /**
+     * Applies the first matching UEI rule to the event that is being built.
+     *
+     * @return true if one of the rules matched
+     * @throws MessageDiscardedException if the matching rule is the discard-uei
+     */
+    public boolean matchUei(final SyslogMessage message, final String facilityTxt, final String priorityTxt, final InetAddress hostAddress, final EventBuilder bldr) throws MessageDiscardedException {
+        if (m_ueiList == null) {
+            LOG.debug("No ueiList configured.");
+            return false;
+        }
+        if (m_ueiRules.length == 0) {
+            return false;
+        }
+
+        final String matchedText = message.getMatchedMessage();
+        final String regexText = matchedText != null ? matchedText : message.getFullText();
+        final String facility = facilityTxt.toLowerCase(Locale.ROOT);
+        final String priority = priorityTxt.toLowerCase(Locale.ROOT);
+        final String hostAddressTxt = str(hostAddress);
+        final Matcher[] matchers = m_matchers.get();
+
+        // Substring rules never match if there is no matched text, so scanning the
+        // text of the regex rules covers both
+        final BitSet candidates = m_ueiIndex.candidates(regexText);
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            final UeiRule rule = m_ueiRules[i];
+            if (!rule.matchesOtherStuff(facility, priority, message.getProcessName(), message.getHostName(), hostAddressTxt)) {
+                continue;
+            }
+            if (rule.m_pattern == null) {
+                if (matchedText != null && matchedText.contains(rule.m_expression)) {
+                    rule.apply(bldr, null);
+                    return true;
+                }
+                LOG.trace("No substring match for text of a Syslogd event to : {}", rule.m_expression);
+            } else if (rule.m_pattern != INVALID_PATTERN) {
+                final Matcher matcher = matcher(matchers, i, rule.m_pattern, regexText);
+                if (matcher.find()) {
+                    rule.apply(bldr, matcher);
+                    return true;
+                }
+                LOG.trace("Message '{}' did not regex-match pattern '{}'", message.getMessage(), rule.m_expression);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if any of the hide rules matches the given text
+     */
+    public boolean shouldHide(final String fullText) {
+        if (m_hideMessage == null) {
+            LOG.debug("No hideMessage configured.");
+            return false;
+        }
+        if (m_hideRules.length == 0) {
+            return false;
+        }
+
+        final Matcher[] matchers = m_matchers.get();
+        final BitSet candidates = m_hideIndex.candidates(fullText);
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            final HideRule rule = m_hideRules[i];
+            if (rule.m_pattern == null) {
+                if (fullText.contains(rule.m_expression)) {
+                    return true;
+                }
+            } else if (rule.m_pattern != INVALID_PATTERN && matcher(matchers, m_ueiRules.length + i, rule.m_pattern, fullText).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Matcher matcher(final Matcher[] matchers, final int index, final Pattern pattern, final String text) {
+        Matcher matcher = matchers[index];
+        if (matcher == null) {
+            matcher = pattern.matcher(text);
+            matchers[index] = matcher;
+        } else {
+            matcher.reset(text);
+        }
+        return matcher;
+    }
+
+    private static Pattern compile(final String expression) {
+        try {
+            return Pattern.compile(expression, Pattern.MULTILINE);
+        } catch (final PatternSyntaxException pse) {
+            LOG.warn("Failed to compile regex pattern '{}'", expression, pse);
+            return INVALID_PATTERN;
+        }
+    }
+
+    private static Pattern compileOptional(final String expression) {
+        return expression == null ? null : compile(expression);
+    }
+
+    private static final Pattern EMBEDDED_FLAGS = Pattern.compile("\\(\\?[idmsuxU-]");
+
+    /**
+     * Determines strings that every text matched by the given regular expression
+     * must contain.
+     *
+     * The search is deliberately conservative: groups, character classes and
+     * quantified characters are skipped, and expressions with top-level alternations
+     * or embedded flags yield no literals at all.
+     *
+     * @return the runs of literal characters, empty if none could be determined
+     */
+    protected static List<String> requiredLiterals(final String expression) {
+        if (expression == null || EMBEDDED_FLAGS.matcher(expression).find() || expression.contains("\\Q")) {
+            return Collections.emptyList();
+        }
+
+        final List<String> literals = new ArrayList<>();
+        final StringBuilder run = new StringBuilder();
+        int depth = 0;
+        int classDepth = 0;
+        for (int i = 0; i < expression.length(); i++) {
+            final char c = expression.charAt(i);
+
+            // Skip over escapes, character classes and groups
+            if (c == '\\' && i + 1 < expression.length() && (classDepth > 0 || depth > 0)) {
+                i++;
+                continue;
+            }
+            if (c == '[') {
+                // Classes can be nested, i.e. unions and intersections such as [a-z&&[^q]]
+                if (classDepth++ == 0) {
+                    flush(literals, run);
+                }
+                // A ']' right after the opening bracket or its negation is part of the class
+                if (i + 1 < expression.length() && expression.charAt(i + 1) == '^') {
+                    i++;
+                }
+                if (i + 1 < expression.length() && expression.charAt(i + 1) == ']') {
+                    i++;
+                }
+                continue;
+            }
+            if (classDepth > 0) {
+                if (c == ']') {
+                    classDepth--;
+                }
+                continue;
+            }
+            if (c == '(') {
+                depth++;
+                flush(literals, run);
+                continue;
+            }
+            if (c == ')') {
+                depth--;
+                continue;
+            }
+            if (depth > 0) {
+                continue;
+            }
+
+            switch (c) {
+            case '|':
+                // Top-level alternation, any of the branches may match
+                return Collections.emptyList();
+            case '*':
+            case '?':
+            case '{':
+                // The preceding character is optional or repeated
+                if (run.length() > 0) {
+                    run.setLength(run.length() - 1);
+                }
+                flush(literals, run);
+                if (c == '{') {
+                    i = expression.indexOf('}', i);
+                    if (i < 0) {
+                        return Collections.emptyList();
+                    }
+                }
+                break;
+            case '+':
+                flush(literals, run);
+                break;
+            case '.':
+            case '^':
+            case '$':
+                flush(literals, run);
+                break;
+            case '\\':
+                if (i + 1 >= expression.length()) {
+                    return Collections.emptyList();
+                }
+                final char escaped = expression.charAt(++i);
+                if (Character.isDigit(escaped) || "xucpPkN".indexOf(escaped) >= 0) {
+                    // Back references and escapes that are followed by more characters
+                    return Collections.emptyList();
+                } else if (Character.isLetter(escaped)) {
+                    // Character class, anchor or back reference
+                    flush(literals, run);
+                    run.setLength(0);
+                } else {
+                    run.append(escaped);
+                }
+                break;
+            default:
+                run.append(c);
+            }
+        }
+        if (classDepth != 0 || depth != 0) {
+            return Collections.emptyList();
+        }
+
+        flush(literals, run);
+        return literals;
+    }
+
+    private static void flush(final List<String> literals, final StringBuilder run) {
+        if (run.length() > 0) {
+            literals.add(run.toString());
+            run.setLength(0);
+        }
+    }
+
+    /**
+     * Maps the literals required by the rules to the rules that could match.
+     */
+    private static class RuleIndex {
+        private final AhoCorasick m_automaton;
+        /**
+         * The rules that require each of the literals in the automaton.
+         */
+        private final int[][] m_rulesByLiteral;
+        /**
+         * The rules that are always evaluated.
+         */
+        private final BitSet m_unfiltered = new BitSet();
+        private final int m_numRules;
+
+        /**
+         * @param literals for each rule, the strings that any text that it matches must contain
+         */
+        public RuleIndex(final List<List<String>> literals) {
+            m_numRules = literals.size();
+
+            // Count how many rules require each literal
+            final Map<String, Integer> frequencies = new HashMap<>();
+            for (final List<String> ruleLiterals : literals) {
+                for (final String literal : new HashSet<>(ruleLiterals)) {
+                    final Integer frequency = frequencies.get(literal);
+                    frequencies.put(literal, frequency == null ? 1 : frequency + 1);
+                }
+            }
+
+            // Index every rule under its most selective literal: the one that the fewest other
+            // rules share, which is then the longest one
+            final Map<String, List<Integer>> rulesByLiteral = new HashMap<>();
+            final List<String> distinctLiterals = new ArrayList<>();
+            for (int i = 0; i < literals.size(); i++) {
+                String literal = null;
+                for (final String candidate : literals.get(i)) {
+                    if (candidate.isEmpty()) {
+                        continue;
+                    }
+                    if (literal == null) {
+                        literal = candidate;
+                        continue;
+                    }
+                    final int delta = frequencies.get(candidate) - frequencies.get(literal);
+                    if (delta < 0 || (delta == 0 && candidate.length() > literal.length())) {
+                        literal = candidate;
+                    }
+                }
+                if (literal == null) {
+                    m_unfiltered.set(i);
+                    continue;
+                }
+                List<Integer> rules = rulesByLiteral.get(literal);
+                if (rules == null) {
+                    rules = new ArrayList<>();
+                    rulesByLiteral.put(literal, rules);
+                    distinctLiterals.add(literal);
+                }
+                rules.add(i);
+            }
+
+            m_automaton = distinctLiterals.isEmpty() ? null : new AhoCorasick(distinctLiterals);
+            m_rulesByLiteral = new int[distinctLiterals.size()][];
+            for (int k = 0; k < distinctLiterals.size(); k++) {
+                final List<Integer> rules = rulesByLiteral.get(distinctLiterals.get(k));
+                m_rulesByLiteral[k] = new int[rules.size()];
+                for (int j = 0; j < rules.size(); j++) {
+                    m_rulesByLiteral[k][j] = rules.get(j);
+                }
+            }
+        }
+
+        public int getUnfilteredCount() {
+            return m_unfiltered.cardinality();
+        }
+
+        /**
+         * @return the rules that could match the given text, in order
+         */
+        public BitSet candidates(final String text) {
+            final BitSet candidates = new BitSet(m_numRules);
+            candidates.or(m_unfiltered);
+            if (m_automaton == null) {
+                return candidates;
+            }
+
+            final BitSet found = new BitSet(m_rulesByLiteral.length);
+            m_automaton.findAll(text, found);
+            for (int k = found.nextSetBit(0); k >= 0; k = found.nextSetBit(k + 1)) {
+                for (final int rule : m_rulesByLiteral[k]) {
+                    candidates.set(rule);
+                }
+            }
+            return candidates;
+        }
+    }
+
+    private static class UeiRule {
+        private final Set<String> m_facilities;
+        private final Set<String> m_severities;
+        private final Pattern m_processPattern;
+        private final Pattern m_hostnamePattern;
+        private final Pattern m_hostaddrPattern;
+        private final String m_expression;
+        private final Pattern m_pattern;
+        private final String m_uei;
+        private final boolean m_discard;
+        private final boolean m_defaultParameterMapping;
+        private final List<ParameterAssignment> m_parameterAssignments;
+
+        public UeiRule(final UeiMatch ueiMatch, final Pattern pattern, final String discardUei) {
+            m_facilities = toLowerCase(ueiMatch.getFacilityCollection());
+            m_severities = toLowerCase(ueiMatch.getSeverityCollection());
+            m_processPattern = ueiMatch.getProcessMatch() == null ? null : compileOptional(ueiMatch.getProcessMatch().getExpression());
+            m_hostnamePattern = ueiMatch.getHostnameMatch() == null ? null : compileOptional(ueiMatch.getHostnameMatch().getExpression());
+            m_hostaddrPattern = ueiMatch.getHostaddrMatch() == null ? null : compileOptional(ueiMatch.getHostaddrMatch().getExpression());
+            m_expression = ueiMatch.getMatch().getExpression();
+            m_pattern = pattern;
+            m_uei = ueiMatch.getUei();
+            m_discard = discardUei != null && discardUei.equals(m_uei);
+            m_defaultParameterMapping = ueiMatch.getMatch().isDefaultParameterMapping();
+            m_parameterAssignments = new ArrayList<>(ueiMatch.getParameterAssignmentCollection());
+        }
+
+        private static Set<String> toLowerCase(final List<String> values) {
+            if (values.isEmpty()) {
+                return Collections.emptySet();
+            }
+            final Set<String> lowerCase = new HashSet<>();
+            for (final String value : values) {
+                lowerCase.add(value.toLowerCase(Locale.ROOT));
+            }
+            return lowerCase;
+        }
+
+        public boolean matchesOtherStuff(final String facility, final String priority, final String processName, final String hostName, final String hostAddress) {
+            return (m_facilities.isEmpty() || m_facilities.contains(facility)) &&
+                   (m_severities.isEmpty() || m_severities.contains(priority)) &&
+                   matchFind(m_processPattern, processName) &&
+                   matchFind(m_hostnamePattern, hostName) &&
+                   matchFind(m_hostaddrPattern, hostAddress);
+        }
+
+        private static boolean matchFind(final Pattern pattern, final String input) {
+            if (pattern == null) return true;
+            if (input == null) return false;
+            return pattern.matcher(input).find();
+        }
+
+        /**
+         * Applies the rule after it matched.
+         *
+         * @param matcher the matcher of a regex rule or null for substring rules
+         */
+        public void apply(final EventBuilder bldr, final Matcher matcher) throws MessageDiscardedException {
+            final boolean traceEnabled = LOG.isTraceEnabled();
+            if (m_discard) {
+                LOG.debug("Specified UEI '{}' is same as discard-uei, discarding this message.", m_uei);
+                throw new MessageDiscardedException();
+            }
+
+            bldr.setUei(m_uei);
+            if (matcher == null) {
+                if (traceEnabled) LOG.trace("Changed the UEI of a Syslogd event, based on substring match, to : {}", m_uei);
+                return;
+            }
+
+            if (matcher.groupCount() > 0) {
+                if (m_defaultParameterMapping) {
+                    if (traceEnabled) LOG.trace("Doing default parameter mappings for this regex match.");
+                    for (int groupNum = 1; groupNum <= matcher.groupCount(); groupNum++) {
+                        if (traceEnabled) LOG.trace("Added parm 'group{}' with value '{}' to Syslogd event based on regex match group", groupNum, matcher.group(groupNum));
+                        bldr.addParam("group"+groupNum, matcher.group(groupNum));
+                    }
+                }
+
+                if (!m_parameterAssignments.isEmpty()) {
+                    if (traceEnabled) LOG.trace("Doing user-specified parameter assignments for this regex match.");
+                    for (final ParameterAssignment assignment : m_parameterAssignments) {
+                        final String parmName = assignment.getParameterName();
+                        String parmValue = matcher.group(assignment.getMatchingGroup());
+                        parmValue = parmValue == null ? "" : parmValue;
+                        bldr.addParam(parmName, parmValue);
+                        if (traceEnabled) {
+                            LOG.trace("Added parm '{}' with value '{}' to Syslogd event based on user-specified parameter assignment", parmName, parmValue);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static class HideRule {
+        private final String m_expression;
+        private final Pattern m_pattern;
+
+        public HideRule(final String expression, final Pattern pattern) {
+            m_expression = expression;
+            m_pattern = pattern;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.ConfigurationTestUtils;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.netmgt.config.SyslogdConfigFactory;
+
+/**
+ * Verifies that the {@link ByteBufferSyslogParser} implementations produce
+ * the same {@link SyslogMessage} as the regex parsers they stand in for and
+ * that they decline the messages which must fall back to the regex parsers.
+ */
+public class ByteBufferSyslogParserTest {
+
+    private SyslogdConfigFactory m_config;
+
+    @Before
+    public void setUp() throws Exception {
+        MockLogAppender.setupLogging(true, "DEBUG");
+        final InputStream stream = ConfigurationTestUtils.getInputStreamForResource(this, "/etc/syslogd-configuration.xml");
+        try {
+            m_config = new SyslogdConfigFactory(stream);
+        } finally {
+            IOUtils.closeQuietly(stream);
+        }
+    }
+
+    @Test
+    public void testForParser() {
+        assertNotNull(ByteBufferSyslogParser.forParser(Rfc5424SyslogParser.class.getName()));
+        assertNotNull(ByteBufferSyslogParser.forParser(SyslogNGParser.class.getName()));
+        assertNotNull(ByteBufferSyslogParser.forParser(JuniperSyslogParser.class.getName()));
+        // The custom parser depends on the user supplied forwarding-regexp
+        assertNull(ByteBufferSyslogParser.forParser(CustomSyslogParser.class.getName()));
+        assertNull(ByteBufferSyslogParser.forParser(null));
+    }
+
+    @Test
+    public void testRfc5424Corpus() throws Exception {
+        assertCorpusMatches("rfc5424");
+    }
+
+    @Test
+    public void testSyslogNGCorpus() throws Exception {
+        assertCorpusMatches("syslogng");
+    }
+
+    @Test
+    public void testJuniperCorpus() throws Exception {
+        assertCorpusMatches("juniper");
+    }
+
+    @Test
+    public void testRfc5424Fields() {
+        final SyslogMessage message = parse(Rfc5424SyslogParser.class, "<165>1 2003-10-11T22:14:15.003Z mymachine.example.com evntslog - ID47 [exampleSDID@32473 iut=\"3\" eventSource=\"Application\" eventID=\"1011\"] BOMAn application event log entry...");
+        assertNotNull(message);
+        assertEquals(SyslogFacility.LOCAL4, message.getFacility());
+        assertEquals(SyslogSeverity.NOTICE, message.getSeverity());
+        assertEquals(1, message.getVersion().intValue());
+        assertEquals(1065910455003L, message.getDate().getTime());
+        assertEquals("mymachine.example.com", message.getHostName());
+        assertEquals("evntslog", message.getProcessName());
+        assertNull(message.getProcessId());
+        assertEquals("ID47", message.getMessageID());
+        assertEquals("An application event log entry...", message.getMessage());
+        assertSame(Rfc5424SyslogParser.class, message.getParserClass());
+    }
+
+    @Test
+    public void testSyslogNGFields() {
+        final SyslogMessage message = parse(SyslogNGParser.class, "<6>test: 2007-01-01 127.0.0.1 OpenNMS[1234]: A SyslogNG style message");
+        assertNotNull(message);
+        assertEquals(SyslogFacility.KERNEL, message.getFacility());
+        assertEquals(SyslogSeverity.INFO, message.getSeverity());
+        assertEquals("test", message.getMessageID());
+        assertEquals("127.0.0.1", message.getHostName());
+        assertEquals("OpenNMS", message.getProcessName());
+        assertEquals(1234, message.getProcessId().intValue());
+        assertEquals("A SyslogNG style message", message.getMessage());
+    }
+
+    @Test
+    public void testMalformedMessagesFallBack() {
+        // Missing priority
+        assertNull(parse(Rfc5424SyslogParser.class, "1 2003-10-11T22:14:15.003Z host app - - - message"));
+        // Impossible date
+        assertNull(parse(Rfc5424SyslogParser.class, "<34>1 2003-02-30T22:14:15.003Z host app - - - message"));
+        // Unterminated structured data
+        assertNull(parse(Rfc5424SyslogParser.class, "<34>1 2003-10-11T22:14:15.003Z host app - - [sd message"));
+        // Facilities beyond the known range are left to the regex parser
+        assertNull(parse(Rfc5424SyslogParser.class, "<200>1 2003-10-11T22:14:15.003Z host app - - - message"));
+        // Embedded line breaks and non-ASCII bytes
+        assertNull(parse(SyslogNGParser.class, "<6>test: 2007-01-01 127.0.0.1 OpenNMS[1234]: first\nsecond"));
+        assertNull(parse(SyslogNGParser.class, "<6>test: 2007-01-01 127.0.0.1 OpenNMS[1234]: caf\u00e9"));
+        assertNull(parse(JuniperSyslogParser.class, "<28>Mar 14 17:10:25 router1 mib2d: no pid"));
+    }
+
+    @Test
+    public void testBufferPositionIsUnchanged() {
+        final ByteBuffer buffer = ByteBuffer.wrap("xx<28>Mar 14 17:10:25 router1 mib2d[1234]: SNMP_TRAP_LINK_DOWN\0".getBytes(StandardCharsets.US_ASCII));
+        buffer.position(2);
+        final SyslogMessage message = ByteBufferSyslogParser.forParser(JuniperSyslogParser.class.getName()).parse(buffer);
+        assertNotNull(message);
+        assertEquals("SNMP_TRAP_LINK_DOWN", message.getMessage());
+        assertEquals(2, buffer.position());
+    }
+
+    private void assertCorpusMatches(final String format) throws Exception {
+        final InputStream stream = ConfigurationTestUtils.getInputStreamForResource(this, "/corpus/" + format + ".txt");
+        final List<String> lines;
+        try {
+            lines = IOUtils.readLines(stream, StandardCharsets.US_ASCII);
+        } finally {
+            IOUtils.closeQuietly(stream);
+        }
+
+        final Class<? extends SyslogParser> parserClass = parserClassFor(format);
+        for (final String line : lines) {
+            final SyslogParser regexParser = regexParser(parserClass, line);
+            final SyslogMessage expected = regexParser.find() ? regexParser.parse() : null;
+            final SyslogMessage actual = parse(parserClass, line);
+
+            assertNotNull("regex parser rejected: " + line, expected);
+            assertNotNull("fast parser rejected: " + line, actual);
+            assertEquals(line, expected.getParserClass(), actual.getParserClass());
+            assertEquals(line, expected.getFacility(), actual.getFacility());
+            assertEquals(line, expected.getSeverity(), actual.getSeverity());
+            assertEquals(line, expected.getVersion(), actual.getVersion());
+            assertEquals(line, expected.getDate(), actual.getDate());
+            assertEquals(line, expected.getHostName(), actual.getHostName());
+            assertEquals(line, expected.getProcessName(), actual.getProcessName());
+            assertEquals(line, expected.getProcessId(), actual.getProcessId());
+            assertEquals(line, expected.getMessageID(), actual.getMessageID());
+            assertEquals(line, expected.getMessage(), actual.getMessage());
+        }
+    }
+
+    static Class<? extends SyslogParser> parserClassFor(final String format) {
+        switch (format) {
+        case "rfc5424":
+            return Rfc5424SyslogParser.class;
+        case "syslogng":
+            return SyslogNGParser.class;
+        case "juniper":
+            return JuniperSyslogParser.class;
+        default:
+            throw new IllegalArgumentException("Unknown corpus: " + format);
+        }
+    }
+
+    private SyslogParser regexParser(final Class<? extends SyslogParser> parserClass, final String text) {
+        if (parserClass == Rfc5424SyslogParser.class) {
+            return new Rfc5424SyslogParser(m_config, text);
+        } else if (parserClass == SyslogNGParser.class) {
+            return new SyslogNGParser(m_config, text);
+        } else {
+            return new JuniperSyslogParser(m_config, text);
+        }
+    }
+
+    private static SyslogMessage parse(final Class<? extends SyslogParser> parserClass, final String text) {
+        return ByteBufferSyslogParser.forParser(parserClass.getName()).parse(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.opennms.core.test.ConfigurationTestUtils;
+import org.opennms.netmgt.config.SyslogdConfigFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Replays the message corpus of the given format and compares decoding the
+ * datagram and running the regex {@link SyslogParser} with scanning the
+ * datagram using the matching {@link ByteBufferSyslogParser}.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.opennms.netmgt.syslogd.SyslogParserBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SyslogParserBenchmark {
+
+    @Param({"rfc5424", "syslogng", "juniper"})
+    public String format;
+
+    private SyslogdConfigFactory m_config;
+    private ByteBufferSyslogParser m_parser;
+    private ByteBuffer[] m_datagrams;
+    private int m_next = 0;
+
+    @Setup
+    public void setUp() throws Exception {
+        final Class<? extends SyslogParser> parserClass = ByteBufferSyslogParserTest.parserClassFor(format);
+        m_config = new SyslogdConfigFactory(new ByteArrayInputStream(("<syslogd-configuration>" +
+                "<configuration " +
+                "syslog-port=\"10514\" " +
+                "new-suspect-on-message=\"false\" " +
+                "parser=\"" + parserClass.getName() + "\" " +
+                "discard-uei=\"DISCARD-MATCHING-MESSAGES\" " +
+                "/></syslogd-configuration>").getBytes(StandardCharsets.US_ASCII)));
+        m_parser = ByteBufferSyslogParser.forParser(parserClass.getName());
+
+        final InputStream corpus = ConfigurationTestUtils.getInputStreamForResource(this, "/corpus/" + format + ".txt");
+        try {
+            final List<String> lines = IOUtils.readLines(corpus, StandardCharsets.US_ASCII);
+            m_datagrams = new ByteBuffer[lines.size()];
+            for (int i = 0; i < m_datagrams.length; i++) {
+                m_datagrams[i] = ByteBuffer.wrap(lines.get(i).getBytes(StandardCharsets.US_ASCII));
+            }
+        } finally {
+            IOUtils.closeQuietly(corpus);
+        }
+    }
+
+    private ByteBuffer nextDatagram() {
+        final ByteBuffer datagram = m_datagrams[m_next];
+        m_next = (m_next + 1) % m_datagrams.length;
+        return datagram.duplicate();
+    }
+
+    @Benchmark
+    public SyslogMessage regexParser() throws Exception {
+        final String text = StandardCharsets.US_ASCII.decode(nextDatagram()).toString();
+        final SyslogParser parser = SyslogParser.getParserInstance(m_config, text);
+        return parser.find() ? parser.parse() : null;
+    }
+
+    @Benchmark
+    public SyslogMessage byteBufferParser() {
+        return m_parser.parse(nextDatagram());
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SyslogParserBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,202 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.regex.Pattern;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.ConfigurationTestUtils;
+import org.opennms.netmgt.config.SyslogdConfig;
+import org.opennms.netmgt.config.SyslogdConfigFactory;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.Event;
+
+public class SyslogRuleEngineTest {
+
+    private static final String DEFAULT_UEI = "uei.opennms.org/syslogd/user/info";
+
+    private SyslogdConfig m_config;
+
+    private SyslogRuleEngine m_engine;
+
+    @Before
+    public void setUp() throws Exception {
+        m_config = loadConfig("/etc/syslogd-configuration.xml");
+        m_engine = SyslogRuleEngine.forConfig(m_config);
+    }
+
+    private SyslogdConfig loadConfig(final String resource) throws Exception {
+        try (final InputStream stream = ConfigurationTestUtils.getInputStreamForResource(this, resource)) {
+            return new SyslogdConfigFactory(stream);
+        }
+    }
+
+    private static SyslogMessage message(final SyslogFacility facility, final SyslogSeverity severity, final String processName, final String text) {
+        final SyslogMessage message = new SyslogMessage(facility.getFacilityNumber(), severity.getSeverityNumber(), new Date(), "localhost", processName, null, text);
+        message.setMatchedMessage(text);
+        return message;
+    }
+
+    private Event match(final SyslogRuleEngine engine, final SyslogMessage message) throws MessageDiscardedException {
+        final EventBuilder bldr = new EventBuilder(DEFAULT_UEI, "syslogd");
+        engine.matchUei(message, message.getFacility().toString(), message.getSeverity().toString(), null, bldr);
+        return bldr.getEvent();
+    }
+
+    private Event match(final String text) throws MessageDiscardedException {
+        return match(m_engine, message(SyslogFacility.USER, SyslogSeverity.INFO, "test", text));
+    }
+
+    private static String parm(final Event event, final String name) {
+        return event.getParm(name) == null ? null : event.getParm(name).getValue().getContent();
+    }
+
+    @Test
+    public void testSubstringMatch() throws Exception {
+        assertEquals("uei.opennms.org/tests/syslogd/substrUeiRewriteTest", match("the CRISCO is here").getUei());
+        assertEquals(DEFAULT_UEI, match("the crisco is here").getUei());
+    }
+
+    @Test
+    public void testRegexMatchWithParameters() throws Exception {
+        Event event = match("foo: 7 out of 8 tests failed for bar");
+        assertEquals("uei.opennms.org/tests/syslogd/regexUeiRewriteTest", event.getUei());
+        assertEquals("7", parm(event, "group1"));
+        assertEquals("bar", parm(event, "group3"));
+
+        event = match("tea: Secretly replaced Folgers tea with 3 beers");
+        assertEquals("uei.opennms.org/tests/syslogd/regexParameterAssignmentTest/userSpecifiedOnly", event.getUei());
+        assertNull(parm(event, "group1"));
+        assertEquals("Folgers", parm(event, "whoseBeverage"));
+        assertEquals("3", parm(event, "count"));
+        assertEquals("beers", parm(event, "replacementItem"));
+    }
+
+    @Test
+    public void testFirstMatchWins() throws Exception {
+        // Matches both the substring and the unanchored regex rules
+        assertEquals("uei.opennms.org/tests/syslogd/substrUeiRewriteTest", match("Critical CRISCO").getUei());
+        assertEquals("uei.opennms.org/tests/syslogd/regexUeiRewriteUnanchoredTest", match("critical").getUei());
+    }
+
+    @Test
+    public void testNonMessageMatches() throws Exception {
+        assertEquals("uei.opennms.org/tests/syslogd/nonMessageMatch/processOnly",
+                match(m_engine, message(SyslogFacility.USER, SyslogSeverity.INFO, "beerd", "hello")).getUei());
+        assertEquals("uei.opennms.org/tests/syslogd/nonMessageMatch/facilityOnly",
+                match(m_engine, message(SyslogFacility.LOCAL0, SyslogSeverity.INFO, "test", "hello")).getUei());
+        assertEquals("uei.opennms.org/tests/syslogd/nonMessageMatch/facilitySeverityProcess",
+                match(m_engine, message(SyslogFacility.LOCAL1, SyslogSeverity.WARNING, "maltd", "hello")).getUei());
+        assertEquals("uei.opennms.org/tests/syslogd/nonMessageMatch/facilitySeverity",
+                match(m_engine, message(SyslogFacility.LOCAL1, SyslogSeverity.WARNING, "test", "hello")).getUei());
+        assertEquals("uei.opennms.org/tests/syslogd/nonMessageMatch/severityOnly",
+                match(m_engine, message(SyslogFacility.USER, SyslogSeverity.CRITICAL, "test", "hello")).getUei());
+        assertEquals(DEFAULT_UEI, match("hello").getUei());
+    }
+
+    @Test
+    public void testDiscard() throws Exception {
+        for (final String text : Arrays.asList("some JUNK", "tRaSh")) {
+            try {
+                match(text);
+                fail("Message should have been discarded: " + text);
+            } catch (final MessageDiscardedException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testHide() throws Exception {
+        assertTrue(m_engine.shouldHide("a TESTHIDING message"));
+        assertTrue(m_engine.shouldHide("a doublesecret message"));
+        assertFalse(m_engine.shouldHide("a double secret message"));
+    }
+
+    @Test
+    public void testLoadTestRules() throws Exception {
+        final SyslogRuleEngine engine = SyslogRuleEngine.forConfig(loadConfig("/etc/syslogd-loadtest-configuration.xml"));
+        final Event event = match(engine, message(SyslogFacility.USER, SyslogSeverity.INFO, "test", "foo1234: load test 1234 on tty1"));
+        assertEquals("uei.example.org/syslog/loadTest/foo1234", event.getUei());
+        assertEquals("1234", parm(event, "group1"));
+        assertEquals("tty1", parm(event, "group2"));
+    }
+
+    @Test
+    public void testEngineIsReused() throws Exception {
+        assertSame(m_engine, SyslogRuleEngine.forConfig(m_config));
+    }
+
+    @Test
+    public void testRequiredLiterals() {
+        assertEquals(Arrays.asList("foo0: ", "load test ", " on "), SyslogRuleEngine.requiredLiterals(".*foo0: .*load test (\\S+) on ((pts\\/\\d+)|(tty\\d+)).*"));
+        assertEquals(Arrays.asList("coffee: Secretly replaced ", " coffee with ", " "), SyslogRuleEngine.requiredLiterals("coffee: Secretly replaced (\\S+) coffee with (\\d+) (\\S+)$"));
+        assertEquals(Arrays.asList("a", "c"), SyslogRuleEngine.requiredLiterals("ab?c"));
+        assertEquals(Arrays.asList("y"), SyslogRuleEngine.requiredLiterals("x{2,3}y"));
+        assertEquals(Arrays.asList("ritical"), SyslogRuleEngine.requiredLiterals("[Cc]ritical"));
+        assertEquals(Collections.emptyList(), SyslogRuleEngine.requiredLiterals("foo|bar"));
+        assertEquals(Collections.emptyList(), SyslogRuleEngine.requiredLiterals("(?i)foo"));
+    }
+
+    @Test
+    public void testRequiredLiteralsWithNestedClasses() {
+        assertEquals(Arrays.asList("foo"), SyslogRuleEngine.requiredLiterals("[a-z&&[^q]]foo"));
+        assertEquals(Arrays.asList("foo"), SyslogRuleEngine.requiredLiterals("[a[b]]foo"));
+        assertEquals(Arrays.asList("foo"), SyslogRuleEngine.requiredLiterals("[]a]foo"));
+        assertEquals(Arrays.asList("foo"), SyslogRuleEngine.requiredLiterals("[^]a]foo"));
+        assertEquals(Arrays.asList("foo"), SyslogRuleEngine.requiredLiterals("[\\]]foo"));
+
+        // Every text the expressions match must contain the literals
+        final String[][] matches = {
+                { "[a-z&&[^q]]foo", "xfoo" },
+                { "[a[b]]foo", "bfoo" },
+                { "[]a]foo", "]foo" }
+        };
+        for (final String[] match : matches) {
+            final String expression = match[0];
+            final String text = match[1];
+            assertTrue(expression, Pattern.compile(expression).matcher(text).find());
+            for (final String literal : SyslogRuleEngine.requiredLiterals(expression)) {
+                assertTrue(expression, text.contains(literal));
+            }
+        }
+    }
+}
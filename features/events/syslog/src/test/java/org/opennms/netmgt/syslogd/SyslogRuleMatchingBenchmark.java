@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.opennms.core.test.ConfigurationTestUtils;
+import org.opennms.netmgt.config.SyslogdConfig;
+import org.opennms.netmgt.config.SyslogdConfigFactory;
+import org.opennms.netmgt.config.syslogd.UeiMatch;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Matches a mix of syslog messages against the 10000 rules of the load test
+ * configuration and compares evaluating every rule in turn with the
+ * prefiltered {@link SyslogRuleEngine}.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.opennms.netmgt.syslogd.SyslogRuleMatchingBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SyslogRuleMatchingBenchmark {
+
+    private static final int NUM_MESSAGES = 1000;
+
+    private SyslogRuleEngine m_engine;
+    private List<UeiMatch> m_ueiMatches;
+    private Pattern[] m_patterns;
+    private SyslogMessage[] m_messages;
+    private int m_next = 0;
+
+    @Setup
+    public void setUp() throws Exception {
+        final SyslogdConfig config;
+        try (final InputStream stream = ConfigurationTestUtils.getInputStreamForResource(this, "/etc/syslogd-loadtest-configuration.xml")) {
+            config = new SyslogdConfigFactory(stream);
+        }
+        m_engine = new SyslogRuleEngine(config.getUeiList(), config.getHideMessages(), config.getDiscardUei());
+
+        m_ueiMatches = config.getUeiList().getUeiMatchCollection();
+        m_patterns = new Pattern[m_ueiMatches.size()];
+        for (int i = 0; i < m_patterns.length; i++) {
+            m_patterns[i] = Pattern.compile(m_ueiMatches.get(i).getMatch().getExpression(), Pattern.MULTILINE);
+        }
+
+        final Random random = new Random(42);
+        final List<SyslogMessage> messages = new ArrayList<SyslogMessage>(NUM_MESSAGES);
+        for (int i = 0; i < NUM_MESSAGES; i++) {
+            final String text;
+            if (i % 10 == 0) {
+                // Messages that don't match any of the rules
+                text = "sshd[" + random.nextInt(65536) + "]: Accepted publickey for user" + i + " from 192.168.1." + random.nextInt(255);
+            } else {
+                final int n = random.nextInt(m_patterns.length);
+                text = "foo" + n + ": load test " + n + " on " + (random.nextBoolean() ? "tty" + random.nextInt(10) : "pts/" + random.nextInt(10));
+            }
+            final SyslogMessage message = new SyslogMessage(SyslogFacility.USER.getFacilityNumber(), SyslogSeverity.INFO.getSeverityNumber(), new Date(), "localhost", "test", null, text);
+            message.setMatchedMessage(text);
+            messages.add(message);
+        }
+        m_messages = messages.toArray(new SyslogMessage[messages.size()]);
+    }
+
+    private SyslogMessage nextMessage() {
+        final SyslogMessage message = m_messages[m_next];
+        m_next = (m_next + 1) % m_messages.length;
+        return message;
+    }
+
+    @Benchmark
+    public String linearScan() {
+        final SyslogMessage message = nextMessage();
+        for (int i = 0; i < m_patterns.length; i++) {
+            final Matcher matcher = m_patterns[i].matcher(message.getMatchedMessage());
+            if (matcher.find()) {
+                return m_ueiMatches.get(i).getUei();
+            }
+        }
+        return null;
+    }
+
+    @Benchmark
+    public boolean ruleEngine() throws MessageDiscardedException {
+        final SyslogMessage message = nextMessage();
+        final EventBuilder bldr = new EventBuilder("uei.opennms.org/syslogd/user/info", "syslogd");
+        return m_engine.matchUei(message, "user", "info", null, bldr);
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SyslogRuleMatchingBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
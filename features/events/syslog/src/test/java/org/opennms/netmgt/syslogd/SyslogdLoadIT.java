@@ -178,9 +178,14 @@ public class SyslogdLoadIT implements InitializingBean {
     }
 
     private void startSyslogdNioDisruptor() throws Exception {
+        startSyslogdNioDisruptor(1);
+    }
+
+    private void startSyslogdNioDisruptor(final int receiveSockets) throws Exception {
         m_syslogd = new Syslogd();
         SyslogReceiverNioDisruptorImpl receiver = new SyslogReceiverNioDisruptorImpl(m_config);
         receiver.setDistPollerDao(m_distPollerDao);
+        receiver.setReceiveSockets(receiveSockets);
         m_syslogd.setSyslogReceiver(receiver);
         m_syslogd.init();
         SyslogdTestUtils.startSyslogdGracefully(m_syslogd);
@@ -259,6 +264,14 @@ public class SyslogdLoadIT implements InitializingBean {
         doTestSyslogReceiver();
     }
 
+    @Test
+    @Transactional
+    public void testSyslogReceiverNioDisruptorReusePort() throws Exception {
+        // Falls back to a single socket where SO_REUSEPORT is not available
+        startSyslogdNioDisruptor(4);
+        doTestSyslogReceiver();
+    }
+
     @Test
     @Transactional
     public void testSyslogReceiverCamelNetty() throws Exception {
@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.api;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.RowSortedTable;
+
+/**
+ * Base class for {@link ColumnarFilter}s which implements the table based
+ * {@link Filter#filter(RowSortedTable)} method by converting the table
+ * to and from a {@link FetchResults}.
+ *
+ * Rows are expected to be indexed from 0. Missing cells are treated as NaNs
+ * and will be stored as NaNs once the filter has been applied.
+ */
+public abstract class AbstractColumnarFilter implements ColumnarFilter {
+
+    @Override
+    public void filter(RowSortedTable<Long, String, Double> table) throws Exception {
+        final boolean hasTimestamps = table.containsColumn(TIMESTAMP_COLUMN_NAME);
+        final FetchResults results = filter(toFetchResults(table));
+
+        table.clear();
+        final long[] timestamps = results.getTimestamps();
+        for (int i = 0; i < timestamps.length; i++) {
+            if (hasTimestamps) {
+                table.put(Long.valueOf(i), TIMESTAMP_COLUMN_NAME, (double)timestamps[i]);
+            }
+            for (Map.Entry<String, double[]> column : results.getColumns().entrySet()) {
+                table.put(Long.valueOf(i), column.getKey(), column.getValue()[i]);
+            }
+        }
+    }
+
+    private static FetchResults toFetchResults(RowSortedTable<Long, String, Double> table) {
+        final int numRows = table.isEmpty() ? 0 : (int)(table.rowKeySet().last() + 1);
+        final long[] timestamps = new long[numRows];
+        final Map<String, double[]> columns = Maps.newLinkedHashMap();
+
+        for (String columnName : table.columnKeySet()) {
+            if (TIMESTAMP_COLUMN_NAME.equals(columnName)) {
+                for (Map.Entry<Long, Double> entry : table.column(columnName).entrySet()) {
+                    if (entry.getValue() != null) {
+                        timestamps[entry.getKey().intValue()] = entry.getValue().longValue();
+                    }
+                }
+            } else {
+                final double[] column = new double[numRows];
+                Arrays.fill(column, Double.NaN);
+                for (Map.Entry<Long, Double> entry : table.column(columnName).entrySet()) {
+                    if (entry.getValue() != null) {
+                        column[entry.getKey().intValue()] = entry.getValue();
+                    }
+                }
+                columns.put(columnName, column);
+            }
+        }
+
+        return new FetchResults(timestamps, columns, 0, Maps.<String, Object>newHashMap());
+    }
+}
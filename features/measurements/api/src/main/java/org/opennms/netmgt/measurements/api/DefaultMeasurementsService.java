@@ -41,7 +41,6 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.RowSortedTable;
 
 @Component("measurementsService")
 public class DefaultMeasurementsService implements MeasurementsService {
@@ -86,9 +85,7 @@ public class DefaultMeasurementsService implements MeasurementsService {
 
         // Apply the filters
         if (!request.getFilters().isEmpty()) {
-            RowSortedTable<Long, String, Double> table = results.asRowSortedTable();
-            filterEngine.filter(request.getFilters(), table);
-            results = new FetchResults(table, results.getStep(), results.getConstants());
+            results = filterEngine.filter(request.getFilters(), results);
         }
 
         // Remove any transient values belonging to sources
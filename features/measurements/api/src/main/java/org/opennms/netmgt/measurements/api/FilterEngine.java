@@ -82,6 +82,34 @@ public class FilterEngine {
         }
     }
 
+    /**
+     * Successively applies all of the filters to the given results.
+     *
+     * Filters that do not implement {@link ColumnarFilter} are applied
+     * using a {@link TableFilterAdapter}.
+     *
+     * @return the filtered results
+     */
+    public FetchResults filter(final List<FilterDef> filterDefinitions, final FetchResults results) throws FilterException {
+        Preconditions.checkNotNull(filterDefinitions, "filterDefinitions argument");
+        Preconditions.checkNotNull(results, "results argument");
+
+        FetchResults filteredResults = results;
+        for (FilterDef filterDef : filterDefinitions) {
+            Filter filter = getFilter(filterDef);
+            if (filter == null) {
+                throw new FilterException("No filter implementation found for {}", filterDef.getName());
+            }
+            final ColumnarFilter columnarFilter = filter instanceof ColumnarFilter ? (ColumnarFilter)filter : new TableFilterAdapter(filter);
+            try {
+                filteredResults = columnarFilter.filter(filteredResults);
+            } catch (Throwable t) {
+                throw new FilterException(t, "An error occurred while applying filter {}", t.getMessage());
+            }
+        }
+        return filteredResults;
+    }
+
     /**
      * Retrieves a {@link Filter} that supports the given filter definition.
      *
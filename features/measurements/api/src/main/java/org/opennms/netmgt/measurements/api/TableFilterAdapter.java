@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.api;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.RowSortedTable;
+
+/**
+ * Allows a table based {@link Filter} to be used in place of a
+ * {@link ColumnarFilter} by converting the results to and from a table.
+ */
+public class TableFilterAdapter implements ColumnarFilter {
+
+    private final Filter m_filter;
+
+    public TableFilterAdapter(final Filter filter) {
+        m_filter = Preconditions.checkNotNull(filter, "filter argument");
+    }
+
+    @Override
+    public FetchResults filter(final FetchResults results) throws Exception {
+        final RowSortedTable<Long, String, Double> table = results.asRowSortedTable();
+        m_filter.filter(table);
+        return new FetchResults(table, results.getStep(), results.getConstants());
+    }
+
+    @Override
+    public void filter(final RowSortedTable<Long, String, Double> table) throws Exception {
+        m_filter.filter(table);
+    }
+
+    public Filter getFilter() {
+        return m_filter;
+    }
+}
@@ -28,15 +28,16 @@
 
 package org.opennms.netmgt.measurements.filters.impl;
 
-import java.util.Set;
+import java.util.Arrays;
+import java.util.Map;
 
-import org.opennms.netmgt.measurements.api.Filter;
+import org.opennms.netmgt.measurements.api.AbstractColumnarFilter;
+import org.opennms.netmgt.measurements.api.FetchResults;
 import org.opennms.netmgt.measurements.api.FilterInfo;
 import org.opennms.netmgt.measurements.api.FilterParam;
 import org.opennms.netmgt.measurements.filters.impl.Utils.TableLimits;
 
-import com.google.common.collect.RowSortedTable;
-import com.google.common.collect.Sets;
+import com.google.common.collect.Maps;
 
 /**
  * Strips leading and trailing rows that contain
@@ -49,7 +50,7 @@ import com.google.common.collect.Sets;
  * @author jwhite
  */
 @FilterInfo(name="Chomp", description="Strips leading and trailing rows that contain nothing but NaNs/null values.")
-public class Chomp implements Filter {
+public class Chomp extends AbstractColumnarFilter {
 
     @FilterParam(key="stripNaNs", value="true", displayName="Strip", description="When set, leading and trailing rows containing NaNs will be removed")
     private boolean m_stripNaNs;
@@ -65,62 +66,41 @@ public class Chomp implements Filter {
     }
 
     @Override
-    public void filter(RowSortedTable<Long, String, Double> qrAsTable)
-            throws Exception {
-
-        int numRowsInTable = qrAsTable.rowKeySet().size();
-        long lastRowToKeep = numRowsInTable;
-        long firstRowToKeep = lastRowToKeep;
+    public FetchResults filter(FetchResults results) {
+        final long[] timestamps = results.getTimestamps();
+        final int numRows = timestamps.length;
+        int lastRowToKeep = numRows - 1;
+        int firstRowToKeep = numRows;
 
         // Determine the index of the first row with a timestamp
         // on/after the cutoff date
-        for (long k : qrAsTable.rowKeySet()) {
-            if(qrAsTable.get(k, TIMESTAMP_COLUMN_NAME) >= m_cutoffDate) {
+        for (int k = 0; k < numRows; k++) {
+            if (timestamps[k] >= m_cutoffDate) {
                 firstRowToKeep = k;
                 break;
             }
         }
 
         if (m_stripNaNs) {
-            // Excluding the timestamp column, determine the
-            // index of the first and last rows which don't contain
-            // completely NaN values
-            Set<String> columnNamesNoTs = Sets.newHashSet(qrAsTable.columnKeySet());
-            columnNamesNoTs.remove(TIMESTAMP_COLUMN_NAME);
-            TableLimits limits = Utils.getRowsWithValues(qrAsTable, columnNamesNoTs.toArray(new String[0]));
-            firstRowToKeep = Math.max(firstRowToKeep, limits.firstRowWithValues);
-            lastRowToKeep = Math.min(lastRowToKeep, limits.lastRowWithValues);
+            // Determine the index of the first and last rows
+            // which don't contain completely NaN values
+            TableLimits limits = Utils.getRowsWithValues(results, results.getColumns().keySet().toArray(new String[0]));
+            firstRowToKeep = (int)Math.max(firstRowToKeep, limits.firstRowWithValues);
+            lastRowToKeep = (int)Math.min(lastRowToKeep, limits.lastRowWithValues);
         }
 
-        Set<String> columnNames = Sets.newHashSet(qrAsTable.columnKeySet());
-
-        // Remove all of the trailing rows
-        for (long i = lastRowToKeep+1; i < numRowsInTable; i++) {
-            for (String columnName : columnNames) {
-                qrAsTable.remove(i, columnName);
-            }
+        if (firstRowToKeep == 0 && lastRowToKeep == numRows - 1) {
+            // Nothing to strip
+            return results;
         }
 
-        // Remove all of the leading rows
-        for (long i = 0; i < firstRowToKeep; i++) {
-            for (String columnName : columnNames) {
-                qrAsTable.remove(i, columnName);
-            }
-        }
-
-        // Bump up the indices on the remaining rows
-        if (firstRowToKeep > 0) {
-            long j = 0;
-            for (long i = firstRowToKeep; i <= lastRowToKeep; i++) {
-                for (String columnName : columnNames) {
-                    Double value = qrAsTable.get(i, columnName);
-                    if (value != null) {
-                        qrAsTable.put(j, columnName, value);
-                    }
-                    qrAsTable.remove(i, columnName);
-                }
-                j++;
-            }
+        // Copy the remaining rows
+        final int from = Math.min(firstRowToKeep, numRows);
+        final int to = from + Math.max(0, lastRowToKeep - firstRowToKeep + 1);
+        final Map<String, double[]> columns = Maps.newLinkedHashMap(); // preserve ordering
+        for (Map.Entry<String, double[]> column : results.getColumns().entrySet()) {
+            columns.put(column.getKey(), Arrays.copyOfRange(column.getValue(), from, to));
         }
+        return new FetchResults(Arrays.copyOfRange(timestamps, from, to), columns, results.getStep(), results.getConstants());
     }
 }
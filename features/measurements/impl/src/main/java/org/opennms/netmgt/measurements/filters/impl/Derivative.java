@@ -28,21 +28,18 @@
 
 package org.opennms.netmgt.measurements.filters.impl;
 
-import java.util.Map.Entry;
-
-import org.opennms.netmgt.measurements.api.Filter;
+import org.opennms.netmgt.measurements.api.AbstractColumnarFilter;
+import org.opennms.netmgt.measurements.api.FetchResults;
 import org.opennms.netmgt.measurements.api.FilterInfo;
 import org.opennms.netmgt.measurements.api.FilterParam;
 
-import com.google.common.collect.RowSortedTable;
-
 /**
  * Calculates the derivative. Useful to converting gauges into rates.
  *
  * @author jwhite
  */
 @FilterInfo(name="Derivative", description="Calculates the derivative (rate of change) between rows.")
-public class Derivative implements Filter {
+public class Derivative extends AbstractColumnarFilter {
 
     @FilterParam(key="inputColumn", required=true, displayName="Input", description="Input column.")
     private String m_inputColumn;
@@ -58,18 +55,18 @@ public class Derivative implements Filter {
     }
 
     @Override
-    public void filter(RowSortedTable<Long, String, Double> qrAsTable) throws Exception {
-        Entry<Long, Double> lastEntry = null;
-        for (Entry<Long, Double> entry : qrAsTable.column(m_inputColumn).entrySet()) {
-            double slope = Double.NaN;
-            if (lastEntry != null) {
-                final long step = entry.getKey() - lastEntry.getKey();
-                if (step != 0) {
-                    slope = (entry.getValue() - lastEntry.getValue()) / step;
-                }
-            }
-            qrAsTable.put(entry.getKey(), m_outputColumn, slope);
-            lastEntry = entry;
+    public FetchResults filter(FetchResults results) {
+        final double[] input = results.getColumns().get(m_inputColumn);
+        if (input == null) {
+            return results;
+        }
+
+        // The rows are contiguous, so the step between them is always 1
+        final double[] output = new double[input.length];
+        for (int k = 0; k < input.length; k++) {
+            output[k] = k > 0 ? input[k] - input[k-1] : Double.NaN;
         }
+        results.getColumns().put(m_outputColumn, output);
+        return results;
     }
 }
@@ -28,16 +28,11 @@
 
 package org.opennms.netmgt.measurements.filters.impl;
 
-import java.util.Map;
-import java.util.Map.Entry;
-
-import org.opennms.netmgt.measurements.api.Filter;
+import org.opennms.netmgt.measurements.api.AbstractColumnarFilter;
+import org.opennms.netmgt.measurements.api.FetchResults;
 import org.opennms.netmgt.measurements.api.FilterInfo;
 import org.opennms.netmgt.measurements.api.FilterParam;
 
-import com.google.common.collect.Maps;
-import com.google.common.collect.RowSortedTable;
-
 /**
  * Performs outlier removal and interpolation using R.
  *
@@ -45,7 +40,7 @@ import com.google.common.collect.RowSortedTable;
  * @author jwhite
  */
 @FilterInfo(name="Outlier", description="Removes outliers and replaces them with interpolated values.")
-public class OutlierFilter implements Filter {
+public class OutlierFilter extends AbstractColumnarFilter {
 
     @FilterParam(key="inputColumn", required=true, displayName="Input", description="Input column.")
     private String m_inputColumn;
@@ -61,43 +56,41 @@ public class OutlierFilter implements Filter {
     }
 
     @Override
-    public void filter(RowSortedTable<Long, String, Double> qrAsTable) {
-        // Extract the values of the input column as a primitive array
-        final Map<Long, Double> column = qrAsTable.column(m_inputColumn);
-        final double values[] = new double[column.size()];
-        int k = 0;
-        for (Double value : column.values()) {
-            values[k++] = value;
+    public FetchResults filter(FetchResults results) {
+        final double[] column = results.getColumns().get(m_inputColumn);
+        if (column == null) {
+            return results;
         }
+        // Work on a copy, the array may be shared with other results
+        final double[] values = column.clone();
 
         // Calculate the percentile
         org.apache.commons.math3.stat.descriptive.rank.Percentile percentileCalculator = new org.apache.commons.math3.stat.descriptive.rank.Percentile();
-        Double nthPercentile = percentileCalculator.evaluate(values, 100 * m_quantile);
+        double nthPercentile = percentileCalculator.evaluate(values, 100 * m_quantile);
 
         // Replace values greater than the percentile with NaNs
-        for (Entry<Long, Double> entry : column.entrySet()) {
-            if (!entry.getValue().isNaN() && entry.getValue() > nthPercentile) {
-                entry.setValue(Double.NaN);
+        for (int k = 0; k < values.length; k++) {
+            if (!Double.isNaN(values[k]) && values[k] > nthPercentile) {
+                values[k] = Double.NaN;
             }
         }
 
         // Perform linear interpolation on missing values
-        linearInterpolation(qrAsTable);
-    }
+        linearInterpolation(values);
 
-    public void linearInterpolation(RowSortedTable<Long, String, Double> qrAsTable) {
-        final Map<Long, Double> column = qrAsTable.column(m_inputColumn);
-        final Map<Long, Double> interpolatedValues = Maps.newHashMap();
+        results.getColumns().put(m_inputColumn, values);
+        return results;
+    }
 
-        Long x0 = null;
-        for (Map.Entry<Long, Double> entry : column.entrySet()) {
-            long x = entry.getKey();
-            double y = entry.getValue();
+    public static void linearInterpolation(double[] values) {
+        int x0 = -1;
+        for (int x = 0; x < values.length; x++) {
+            double y = values[x];
 
             if (!Double.isNaN(y)) {
                 // If there was a gap in values
-                if (x0 != null && x0 != x-1) {
-                    double y0 = column.get(x0);
+                if (x0 >= 0 && x0 != x-1) {
+                    double y0 = values[x0];
 
                     // Calculate the slope (m) and intercept (b) for the line
                     // passing between the current point, and the last known value
@@ -105,9 +98,8 @@ public class OutlierFilter implements Filter {
                     double b = y0 - m * x0;
 
                     // Interpolate the missing values
-                    for (long xnot = x0 + 1; xnot < x; xnot++) {
-                        double ynot = m * xnot + b;
-                        interpolatedValues.put(xnot, ynot);
+                    for (int xnot = x0 + 1; xnot < x; xnot++) {
+                        values[xnot] = m * xnot + b;
                     }
                 }
 
@@ -115,8 +107,5 @@ public class OutlierFilter implements Filter {
                 x0 = x;
             }
         }
-
-        // Update the column values
-        column.putAll(interpolatedValues);
     }
 }
@@ -28,21 +28,20 @@
 
 package org.opennms.netmgt.measurements.filters.impl;
 
-import java.util.Map;
+import java.util.Arrays;
 
-import org.opennms.netmgt.measurements.api.Filter;
+import org.opennms.netmgt.measurements.api.AbstractColumnarFilter;
+import org.opennms.netmgt.measurements.api.FetchResults;
 import org.opennms.netmgt.measurements.api.FilterInfo;
 import org.opennms.netmgt.measurements.api.FilterParam;
 
-import com.google.common.collect.RowSortedTable;
-
 /**
  * Calculates the percentile of a column and stores it as a constant in another.
  *
  * @author jwhite
  */
 @FilterInfo(name="Percentile", description="Calculates percentiles")
-public class Percentile implements Filter {
+public class Percentile extends AbstractColumnarFilter {
 
     @FilterParam(key="inputColumn", required=true, displayName="Input", description="Input column.")
     private String m_inputColumn;
@@ -62,23 +61,20 @@ public class Percentile implements Filter {
     }
 
     @Override
-    public void filter(RowSortedTable<Long, String, Double> qrAsTable) {
-
-        // Extract the values of the input column as a primitive array
-        final Map<Long, Double> column = qrAsTable.column(m_inputColumn);
-        final double values[] = new double[column.size()];
-        int k = 0;
-        for (Double value : column.values()) {
-            values[k++] = value;
+    public FetchResults filter(FetchResults results) {
+        final double[] values = results.getColumns().get(m_inputColumn);
+        if (values == null) {
+            return results;
         }
 
         // Calculate the percentile
         org.apache.commons.math3.stat.descriptive.rank.Percentile percentileCalculator = new org.apache.commons.math3.stat.descriptive.rank.Percentile();
-        Double nthPercentile = percentileCalculator.evaluate(values, 100 * m_quantile);
+        double nthPercentile = percentileCalculator.evaluate(values, 100 * m_quantile);
 
         // Set the values of the output column to the calculated statistics
-        for (Long rowKey : column.keySet()) {
-            qrAsTable.put(rowKey, m_outputColumn, nthPercentile);
-        }
+        final double[] output = new double[values.length];
+        Arrays.fill(output, nthPercentile);
+        results.getColumns().put(m_outputColumn, output);
+        return results;
     }
 }
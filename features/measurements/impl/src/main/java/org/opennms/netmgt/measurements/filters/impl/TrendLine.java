@@ -28,13 +28,15 @@
 
 package org.opennms.netmgt.measurements.filters.impl;
 
-import java.util.Date;
+import java.util.Arrays;
 import java.util.Map;
 
 import org.opennms.netmgt.integrations.R.RScriptException;
 import org.opennms.netmgt.integrations.R.RScriptExecutor;
 import org.opennms.netmgt.integrations.R.RScriptInput;
 import org.opennms.netmgt.integrations.R.RScriptOutput;
+import org.opennms.netmgt.measurements.api.AbstractColumnarFilter;
+import org.opennms.netmgt.measurements.api.FetchResults;
 import org.opennms.netmgt.measurements.api.Filter;
 import org.opennms.netmgt.measurements.api.FilterInfo;
 import org.opennms.netmgt.measurements.api.FilterParam;
@@ -46,6 +48,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableTable;
 import com.google.common.collect.Maps;
 import com.google.common.collect.RowSortedTable;
+import com.google.common.collect.TreeBasedTable;
 
 /**
  * Fits a trend line to the samples in a column using R.
@@ -53,7 +56,7 @@ import com.google.common.collect.RowSortedTable;
  * @author jwhite
  */
 @FilterInfo(name="Trend", description="Fits a trend line or polynomial to a given column.", backend="R")
-public class TrendLine implements Filter {
+public class TrendLine extends AbstractColumnarFilter {
     private static final Logger LOG = LoggerFactory.getLogger(TrendLine.class);
     private static final String PATH_TO_R_SCRIPT = "/org/opennms/netmgt/measurements/filters/impl/trendLine.R";
 
@@ -79,23 +82,32 @@ public class TrendLine implements Filter {
     }
 
     @Override
-    public void filter(RowSortedTable<Long, String, Double> table) throws RScriptException {
+    public void filter(RowSortedTable<Long, String, Double> table) throws Exception {
         Preconditions.checkArgument(table.containsColumn(TIMESTAMP_COLUMN_NAME), String.format("Data source must have a '%s' column.", Filter.TIMESTAMP_COLUMN_NAME));
+        super.filter(table);
+    }
 
+    @Override
+    public FetchResults filter(FetchResults results) throws RScriptException {
         // Determine the index of the first and last non-NaN values
         // Assume the values between these are contiguous
-        TableLimits limits = Utils.getRowsWithValues(table, m_inputColumn);
+        TableLimits limits = Utils.getRowsWithValues(results, m_inputColumn);
 
         // Make sure we have some samples
         long numSampleRows = limits.lastRowWithValues - limits.firstRowWithValues;
         if (numSampleRows < 1) {
             LOG.error("Insufficient values in column for trending. Excluding trend from data source.");
-            return;
+            return results;
         }
 
+        final int firstRowWithValues = (int)limits.firstRowWithValues;
+        final int lastRowWithValues = (int)limits.lastRowWithValues;
+        final long[] timestamps = results.getTimestamps();
+        final double[] inputColumn = results.getColumns().get(m_inputColumn);
+
         // Determine the step size
-        Date lastTimestamp = new Date(table.get(limits.lastRowWithValues, TIMESTAMP_COLUMN_NAME).longValue());
-        long stepInMs = (long)(table.get(limits.lastRowWithValues, TIMESTAMP_COLUMN_NAME) - table.get(limits.lastRowWithValues-1, Filter.TIMESTAMP_COLUMN_NAME));
+        long lastTimestamp = timestamps[lastRowWithValues];
+        long stepInMs = timestamps[lastRowWithValues] - timestamps[lastRowWithValues-1];
 
         // Num steps ahead
         int numStepsAhead = (int)Math.floor(m_secondsAhead * 1000 / stepInMs);
@@ -111,19 +123,47 @@ public class TrendLine implements Filter {
         arguments.put("numStepsAhead", numStepsAhead);
         arguments.put("stepInMs", stepInMs);
 
+        // The script only needs the timestamps and the input column
+        // up to the last row with a value
+        RowSortedTable<Long, String, Double> inputTable = TreeBasedTable.create();
+        for (int i = 0; i <= lastRowWithValues; i++) {
+            inputTable.put(Long.valueOf(i), TIMESTAMP_COLUMN_NAME, (double)timestamps[i]);
+            inputTable.put(Long.valueOf(i), m_inputColumn, inputColumn[i]);
+        }
+
         // Calculate the trend line/curve
         RScriptExecutor executor = new RScriptExecutor();
-        RScriptOutput output = executor.exec(PATH_TO_R_SCRIPT, new RScriptInput(table, arguments));
+        RScriptOutput output = executor.exec(PATH_TO_R_SCRIPT, new RScriptInput(inputTable, arguments));
         ImmutableTable<Long, String, Double> outputTable = output.getTable();
 
+        // Grow the results if the trend extends past the last row
+        final int lastRow = lastRowWithValues + numStepsAhead;
+        final int numRows = Math.max(timestamps.length, lastRow + 1);
+        final long[] newTimestamps = Arrays.copyOf(timestamps, numRows);
+        final Map<String, double[]> columns = Maps.newLinkedHashMap(); // preserve ordering
+        for (Map.Entry<String, double[]> column : results.getColumns().entrySet()) {
+            columns.put(column.getKey(), numRows == timestamps.length ? column.getValue() : Utils.copyOf(column.getValue(), numRows));
+        }
+        double[] outputColumn = columns.get(m_outputColumn);
+        if (outputColumn == null) {
+            outputColumn = new double[numRows];
+            Arrays.fill(outputColumn, Double.NaN);
+            columns.put(m_outputColumn, outputColumn);
+        } else if (outputColumn == results.getColumns().get(m_outputColumn)) {
+            outputColumn = outputColumn.clone();
+            columns.put(m_outputColumn, outputColumn);
+        }
+
         // Calculate the value of the polynomial for all of the samples
         // and the requested number of steps ahead
         long j = 0;
-        for (long i = limits.firstRowWithValues; i <= (limits.lastRowWithValues + numStepsAhead); i++) {
-            if (i >= limits.lastRowWithValues) {
-                table.put(i, TIMESTAMP_COLUMN_NAME, (double)new Date(lastTimestamp.getTime() + stepInMs * (i-limits.lastRowWithValues)).getTime());
+        for (int i = firstRowWithValues; i <= lastRow; i++) {
+            if (i >= lastRowWithValues) {
+                newTimestamps[i] = lastTimestamp + stepInMs * (i-lastRowWithValues);
             }
-            table.put(i, m_outputColumn, outputTable.get(j++, "x"));
+            outputColumn[i] = outputTable.get(j++, "x");
         }
+
+        return new FetchResults(newTimestamps, columns, results.getStep(), results.getConstants());
     }
 }
@@ -28,6 +28,10 @@
 
 package org.opennms.netmgt.measurements.filters.impl;
 
+import java.util.Arrays;
+
+import org.opennms.netmgt.measurements.api.FetchResults;
+
 import com.google.common.collect.Table;
 
 /**
@@ -59,4 +63,46 @@ public class Utils {
 
         return limits;
     }
+
+    public static TableLimits getRowsWithValues(FetchResults results, String... columnNames) {
+        TableLimits limits = new TableLimits();
+        for (String columnName : columnNames) {
+            double[] column = results.getColumns().get(columnName);
+            if (column == null) {
+                continue;
+            }
+
+            int first = 0;
+            while (first < column.length && Double.isNaN(column[first])) {
+                first++;
+            }
+            if (first == column.length) {
+                // No values in this column
+                continue;
+            }
+            int last = column.length - 1;
+            while (Double.isNaN(column[last])) {
+                last--;
+            }
+
+            if (limits.firstRowWithValues < 0 || first < limits.firstRowWithValues) {
+                limits.firstRowWithValues = first;
+            }
+            limits.lastRowWithValues = Math.max(limits.lastRowWithValues, last);
+        }
+
+        return limits;
+    }
+
+    /**
+     * Copies the given column, truncating or padding it with NaNs
+     * so that it has the given length.
+     */
+    public static double[] copyOf(double[] column, int length) {
+        double[] copy = Arrays.copyOf(column, length);
+        if (length > column.length) {
+            Arrays.fill(copy, column.length, length, Double.NaN);
+        }
+        return copy;
+    }
 }
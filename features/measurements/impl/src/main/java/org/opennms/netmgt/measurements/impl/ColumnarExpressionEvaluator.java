@@ -0,0 +1,1033 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.model.Expression;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Evaluates expressions one column at a time, instead of one row at a time.
+ *
+ * The expressions are parsed into a typed syntax tree which supports the
+ * arithmetic, comparison, logical and ternary operators as well as the
+ * functions in the <code>math</code> and <code>strictmath</code> namespaces.
+ * The types follow the ones used by JEXL, so that the results are the same
+ * as the ones calculated by the {@link JEXLExpressionEngine}.
+ *
+ * Any construct that isn't supported, or any value that would need
+ * special handling (i.e. divisions by zero, integer overflows) causes
+ * the evaluation to be aborted so that the caller can fall back to JEXL.
+ */
+class ColumnarExpressionEvaluator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ColumnarExpressionEvaluator.class);
+
+    private static final String TIMESTAMP = "timestamp";
+
+    private static final Set<String> RESERVED_WORDS = ImmutableSet.of(
+            "or", "and", "eq", "ne", "lt", "gt", "le", "ge", "div", "mod", "not",
+            "null", "true", "false", "new", "empty", "size", "if", "else", "for",
+            "foreach", "while", "in", "var", "return", "function");
+
+    private static final Map<String, Map<String, DoubleUnaryOperator>> UNARY_FUNCTIONS = ImmutableMap.<String, Map<String, DoubleUnaryOperator>>of(
+            "math", ImmutableMap.<String, DoubleUnaryOperator>builder()
+                .put("sin", Math::sin).put("cos", Math::cos).put("tan", Math::tan)
+                .put("asin", Math::asin).put("acos", Math::acos).put("atan", Math::atan)
+                .put("sinh", Math::sinh).put("cosh", Math::cosh).put("tanh", Math::tanh)
+                .put("exp", Math::exp).put("expm1", Math::expm1)
+                .put("log", Math::log).put("log10", Math::log10).put("log1p", Math::log1p)
+                .put("sqrt", Math::sqrt).put("cbrt", Math::cbrt)
+                .put("ceil", Math::ceil).put("floor", Math::floor).put("rint", Math::rint)
+                .put("toDegrees", Math::toDegrees).put("toRadians", Math::toRadians)
+                .build(),
+            "strictmath", ImmutableMap.<String, DoubleUnaryOperator>builder()
+                .put("sin", StrictMath::sin).put("cos", StrictMath::cos).put("tan", StrictMath::tan)
+                .put("asin", StrictMath::asin).put("acos", StrictMath::acos).put("atan", StrictMath::atan)
+                .put("sinh", StrictMath::sinh).put("cosh", StrictMath::cosh).put("tanh", StrictMath::tanh)
+                .put("exp", StrictMath::exp).put("expm1", StrictMath::expm1)
+                .put("log", StrictMath::log).put("log10", StrictMath::log10).put("log1p", StrictMath::log1p)
+                .put("sqrt", StrictMath::sqrt).put("cbrt", StrictMath::cbrt)
+                .put("ceil", StrictMath::ceil).put("floor", StrictMath::floor).put("rint", StrictMath::rint)
+                .put("toDegrees", StrictMath::toDegrees).put("toRadians", StrictMath::toRadians)
+                .build());
+
+    private static final Map<String, Map<String, DoubleBinaryOperator>> BINARY_FUNCTIONS = ImmutableMap.<String, Map<String, DoubleBinaryOperator>>of(
+            "math", ImmutableMap.<String, DoubleBinaryOperator>of(
+                "atan2", Math::atan2, "pow", Math::pow, "hypot", Math::hypot, "IEEEremainder", Math::IEEEremainder),
+            "strictmath", ImmutableMap.<String, DoubleBinaryOperator>of(
+                "atan2", StrictMath::atan2, "pow", StrictMath::pow, "hypot", StrictMath::hypot, "IEEEremainder", StrictMath::IEEEremainder));
+
+    /**
+     * Functions which are overloaded for the different primitive types. JEXL
+     * picks the overload using the types of the arguments, so these are only
+     * supported when all of the arguments are doubles.
+     */
+    private static final Map<String, Map<String, DoubleUnaryOperator>> OVERLOADED_UNARY_FUNCTIONS = ImmutableMap.<String, Map<String, DoubleUnaryOperator>>of(
+            "math", ImmutableMap.<String, DoubleUnaryOperator>of("abs", Math::abs, "signum", Math::signum),
+            "strictmath", ImmutableMap.<String, DoubleUnaryOperator>of("abs", StrictMath::abs, "signum", StrictMath::signum));
+
+    private static final Map<String, Map<String, DoubleBinaryOperator>> OVERLOADED_BINARY_FUNCTIONS = ImmutableMap.<String, Map<String, DoubleBinaryOperator>>of(
+            "math", ImmutableMap.<String, DoubleBinaryOperator>of("min", Math::min, "max", Math::max),
+            "strictmath", ImmutableMap.<String, DoubleBinaryOperator>of("min", StrictMath::min, "max", StrictMath::max));
+
+    private final List<Expression> m_expressions;
+    private final List<String> m_labels = Lists.newArrayList();
+    private final Map<String, Object> m_constants;
+    private final Map<String, double[]> m_columns;
+    private final Frame m_frame;
+
+    /**
+     * Evaluates the given expressions and stores the values of the
+     * non-transient expressions in the results.
+     *
+     * @return false if the expressions could not be evaluated, in which case
+     *   the results are left untouched and JEXL should be used instead
+     */
+    public static boolean tryApply(final List<Expression> expressions, final FetchResults results) {
+        try {
+            new ColumnarExpressionEvaluator(expressions, results).apply();
+            return true;
+        } catch (UnsupportedExpressionException e) {
+            LOG.debug("Evaluating the expressions with JEXL: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private ColumnarExpressionEvaluator(final List<Expression> expressions, final FetchResults results) throws UnsupportedExpressionException {
+        m_expressions = expressions;
+        m_constants = results.getConstants();
+        m_columns = results.getColumns();
+        m_frame = new Frame(results.getTimestamps());
+
+        final Set<String> labels = new HashSet<String>();
+        for (final Expression expression : expressions) {
+            if (!labels.add(expression.getLabel())) {
+                throw new UnsupportedExpressionException("duplicate label '%s'", expression.getLabel());
+            }
+            m_labels.add(expression.getLabel());
+        }
+    }
+
+    private void apply() throws UnsupportedExpressionException {
+        // Compile all of the expressions before evaluating any of them
+        final List<Node> nodes = Lists.newArrayListWithCapacity(m_expressions.size());
+        for (int k = 0; k < m_expressions.size(); k++) {
+            final Node node = new Parser(m_expressions.get(k).getExpression(), k).parse();
+            if (node.m_type == Type.BOOLEAN) {
+                throw new UnsupportedExpressionException("expression '%s' does not return a number", m_labels.get(k));
+            }
+            nodes.add(node);
+        }
+
+        // Evaluate the expressions in the same order as which they appeared in the query,
+        // the values of the previous expressions can be referenced by the following ones
+        for (int k = 0; k < nodes.size(); k++) {
+            final Node node = nodes.get(k);
+            double[] values = node.evalDouble(m_frame, null);
+            if (node instanceof ColumnNode || node instanceof ResultNode) {
+                // Don't share arrays between columns
+                values = values.clone();
+            }
+            m_frame.m_results.put(m_labels.get(k), values);
+        }
+
+        // Only store the values for non-transient expressions
+        for (final Expression expression : m_expressions) {
+            if (!expression.getTransient()) {
+                m_columns.put(expression.getLabel(), m_frame.m_results.get(expression.getLabel()));
+            }
+        }
+    }
+
+    /**
+     * Resolves the given name in the same order as the JEXL context used
+     * by the {@link JEXLExpressionEngine}: source values, the timestamp,
+     * the values of the previous expressions, the built-in constants and
+     * finally the constants from the fetch results.
+     */
+    private Node resolve(final String name, final int expressionIndex) throws UnsupportedExpressionException {
+        if (name.indexOf('.') >= 0) {
+            // JEXL only treats the dotted name as a single variable when none of its prefixes are defined
+            for (int i = name.indexOf('.'); i >= 0; i = name.indexOf('.', i + 1)) {
+                if (isDefined(name.substring(0, i))) {
+                    throw new UnsupportedExpressionException("property access on '%s'", name.substring(0, i));
+                }
+            }
+        }
+
+        final double[] column = m_columns.get(name);
+        if (column != null) {
+            return new ColumnNode(column);
+        } else if (TIMESTAMP.equals(name)) {
+            return new TimestampNode();
+        }
+
+        final int labelIndex = m_labels.indexOf(name);
+        if (labelIndex >= 0 && labelIndex < expressionIndex) {
+            return new ResultNode(name);
+        } else if (labelIndex >= 0) {
+            // JEXL would use the value calculated for the previous row
+            throw new UnsupportedExpressionException("forward reference to '%s'", name);
+        }
+
+        switch (name) {
+        case "__inf":
+            return new ConstantNode(Type.DOUBLE, Double.POSITIVE_INFINITY);
+        case "__neg_inf":
+            return new ConstantNode(Type.DOUBLE, Double.NEGATIVE_INFINITY);
+        case "NaN":
+            return new ConstantNode(Type.DOUBLE, Double.NaN);
+        case "__diff_time":
+            return new ConstantNode(Type.DOUBLE, m_frame.m_diffTime);
+        default:
+            break;
+        }
+
+        final Object constant = m_constants.get(name);
+        if (constant instanceof Double) {
+            return new ConstantNode(Type.DOUBLE, (Double)constant);
+        } else if (constant instanceof Float) {
+            return new ConstantNode(Type.FLOAT, Double.parseDouble(constant.toString()));
+        } else if (constant instanceof Integer || constant instanceof Long || constant instanceof Short || constant instanceof Byte) {
+            return new ConstantNode(((Number)constant).longValue());
+        }
+        throw new UnsupportedExpressionException("unsupported value for '%s'", name);
+    }
+
+    private boolean isDefined(final String name) {
+        return m_columns.containsKey(name) || TIMESTAMP.equals(name) || m_labels.contains(name)
+                || "__inf".equals(name) || "__neg_inf".equals(name) || "NaN".equals(name) || "__diff_time".equals(name)
+                || m_constants.containsKey(name);
+    }
+
+    private static class UnsupportedExpressionException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedExpressionException(final String format, final Object... args) {
+            super(String.format(format, args), null, false, false);
+        }
+    }
+
+    /**
+     * The values available to the nodes while evaluating the expressions.
+     */
+    private static class Frame {
+        private final long[] m_timestamps;
+        private final int m_numRows;
+        private final double m_diffTime;
+        private final Map<String, double[]> m_results = Maps.newHashMap();
+
+        Frame(final long[] timestamps) {
+            m_timestamps = timestamps;
+            m_numRows = timestamps.length;
+            m_diffTime = m_numRows < 1 ? 0d : timestamps[m_numRows-1] - timestamps[0];
+        }
+    }
+
+    /**
+     * The class of the values JEXL would see. Float is only used for literals,
+     * and differs from Double when comparing values for equality.
+     */
+    private static enum Type {
+        DOUBLE,
+        FLOAT,
+        LONG,
+        BOOLEAN;
+
+        boolean isNumeric() {
+            return this != BOOLEAN;
+        }
+
+        boolean isFloatingPoint() {
+            return this == DOUBLE || this == FLOAT;
+        }
+    }
+
+    private static boolean isActive(final boolean[] mask, final int i) {
+        return mask == null || mask[i];
+    }
+
+    private static boolean[] and(final boolean[] mask, final boolean[] values, final boolean expected) {
+        final boolean[] result = new boolean[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = isActive(mask, i) && values[i] == expected;
+        }
+        return result;
+    }
+
+    /**
+     * A node in the syntax tree. Nodes evaluate all of the rows at once,
+     * but only need to produce valid values for the rows that are set in the
+     * given mask, or all rows if the mask is null. Arrays returned by the nodes
+     * must never be modified.
+     */
+    private static abstract class Node {
+        protected final Type m_type;
+
+        Node(final Type type) {
+            m_type = type;
+        }
+
+        double[] evalDouble(final Frame frame, final boolean[] mask) throws UnsupportedExpressionException {
+            final long[] values = evalLong(frame, mask);
+            final double[] result = new double[values.length];
+            for (int i = 0; i < values.length; i++) {
+                result[i] = values[i];
+            }
+            return result;
+        }
+
+        long[] evalLong(final Frame frame, final boolean[] mask) throws UnsupportedExpressionException {
+            throw new IllegalStateException("Node of type " + m_type + " cannot be evaluated as a long");
+        }
+
+        boolean[] evalBoolean(final Frame frame, final boolean[] mask) throws UnsupportedExpressionException {
+            throw new IllegalStateException("Node of type " + m_type + " cannot be evaluated as a boolean");
+        }
+    }
+
+    private static class ConstantNode extends Node {
+        private final double m_double;
+        private final long m_long;
+
+        ConstantNode(final Type type, final double value) {
+            super(type);
+            m_double = value;
+            m_long = 0;
+        }
+
+        ConstantNode(final long value) {
+            super(Type.LONG);
+            m_double = value;
+            m_long = value;
+        }
+
+        @Override
+        double[] evalDouble(final Frame frame, final boolean[] mask) {
+            final double[] result = new double[frame.m_numRows];
+            Arrays.fill(result, m_double);
+            return result;
+        }
+
+        @Override
+        long[] evalLong(final Frame frame, final boolean[] mask) {
+            final long[] result = new long[frame.m_numRows];
+            Arrays.fill(result, m_long);
+            return result;
+        }
+    }
+
+    private static class ColumnNode extends Node {
+        private final double[] m_values;
+
+        ColumnNode(final double[] values) {
+            super(Type.DOUBLE);
+            m_values = values;
+        }
+
+        @Override
+        double[] evalDouble(final Frame frame, final boolean[] mask) {
+            return m_values;
+        }
+    }
+
+    private static class ResultNode extends Node {
+        private final String m_label;
+
+        ResultNode(final String label) {
+            super(Type.DOUBLE);
+            m_label = label;
+        }
+
+        @Override
+        double[] evalDouble(final Frame frame, final boolean[] mask) {
+            return frame.m_results.get(m_label);
+        }
+    }
+
+    private static class TimestampNode extends Node {
+        TimestampNode() {
+            super(Type.LONG);
+        }
+
+        @Override
+        long[] evalLong(final Frame frame, final boolean[] mask) {
+            return frame.m_timestamps;
+        }
+    }
+
+    private static class NegateNode extends Node {
+        private final Node m_operand;
+
+        NegateNode(final Node operand) {
+            super(operand.m_type);
+            m_operand = operand;
+        }
+
+        @Override
+        double[] evalDouble(final Frame frame, final boolean[] mask) throws UnsupportedExpressionException {
+            if (m_type == Type.LONG) {
+                return super.evalDouble(frame, mask);
+            }
+            final double[] values = m_operand.evalDouble(frame, mask);
+            final double[] result = new double[values.length];
+            for (int i = 0; i < values.length; i++) {
+                result[i] = -values[i];
+            }
+            return result;
+        }
+
+        @Override
+        long[] evalLong(final Frame frame, final boolean[] mask) throws UnsupportedExpressionException {
+            final long[] values = m_operand.evalLong(frame, mask);
+            final long[] result = new long[values.length];
+            for (int i = 0; i < values.length; i++) {
+                result[i] = -values[i];
+            }
+            return result;
+        }
+    }
+
+    private static class ArithmeticNode extends Node {
+        private final char m_operator;
+        private final Node m_left;
+        private final Node m_right;
+
+        ArithmeticNode(final char operator, final Node left, final Node right) {
+            // JEXL only uses integer arithmetic when neither of the operands is a floating point number
+            super(left.m_type == Type.LONG && right.m_type == Type.LONG ? Type.LONG : Type.DOUBLE);
+            m_operator = operator;
+            m_left = left;
+            m_right = right;
+        }
+
+        @Override
+        double[] evalDouble(final Frame frame, final boolean[] mask) throws UnsupportedExpressionException {
+            if (m_type == Type.LONG) {
+                return super.evalDouble(frame, mask);
+            }
+
+            final double[] l = m_left.evalDouble(frame, mask);
+            final double[] r = m_right.evalDouble(frame, mask);
+            final double[] result = new double[frame.m_numRows];
+            switch (m_operator) {
+            case '+':
+                for (int i = 0; i < result.length; i++) {
+                    result[i] = l[i] + r[i];
+                }
+                break;
+            case '-':
+                for (int i = 0; i < result.length; i++) {
+                    result[i] = l[i] - r[i];
+                }
+                break;
+            case '*':
+                for (int i = 0; i < result.length; i++) {
+                    result[i] = l[i] * r[i];
+                }
+                break;
+            case '/':
+                for (int i = 0; i < result.length; i++) {
+                    if (r[i] == 0.0d && isActive(mask, i)) {
+                        throw new UnsupportedExpressionException("division by zero");
+                    }
+                    result[i] = l[i] / r[i];
+                }
+                break;
+            case '%':
+                for (int i = 0; i < result.length; i++) {
+                    if (r[i] == 0.0d && isActive(mask, i)) {
+                        throw new UnsupportedExpressionException("division by zero");
+                    }
+                    result[i] = l[i] % r[i];
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unsupported operator: " + m_operator);
+            }
+            return result;
+        }
+
+        @Override
+        long[] evalLong(final Frame frame, final boolean[] mask) throws UnsupportedExpressionException {
+            final long[] l = m_left.evalLong(frame, mask);
+            final long[] r = m_right.evalLong(frame, mask);
+            final long[] result = new long[frame.m_numRows];
+            for (int i = 0; i < result.length; i++) {
+                try {
+                    switch (m_operator) {
+                    case '+':
+                        result[i] = Math.addExact(l[i], r[i]);
+                        break;
+                    case '-':
+                        result[i] = Math.subtractExact(l[i], r[i]);
+                        break;
+                    case '*':
+                        result[i] = Math.multiplyExact(l[i], r[i]);
+                        break;
+                    case '/':
+                        if (l[i] == Long.MIN_VALUE && r[i] == -1) {
+                            throw new ArithmeticException("long overflow");
+                        }
+                        result[i] = l[i] / r[i];
+                        break;
+                    default:
+                        throw new IllegalStateException("Unsupported operator: " + m_operator);
+                    }
+                } catch (ArithmeticException e) {
+                    if (isActive(mask, i)) {
+                        // JEXL switches to BigIntegers on overflow, and handles divisions by zero leniently
+                        throw new UnsupportedExpressionException("integer %s", e.getMessage());
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+    private static class ComparisonNode extends Node {
+        private final String m_operator;
+        private final Node m_left;
+        private final Node m_right;
+
+        ComparisonNode(final String operator, final Node left, final Node right) {
+            super(Type.BOOLEAN);
+            m_operator = operator;
+            m_left = left;
+            m_right = right;
+        }
+
+        @Override
+        boolean[] evalBoolean(final Frame frame, final boolean[] mask) throws UnsupportedExpressionException {
+            final boolean[] result = new boolean[frame.m_numRows];
+            if (m_left.m_type == Type.BOOLEAN) {
+                final boolean[] l = m_left.evalBoolean(frame, mask);
+                final boolean[] r = m_right.evalBoolean(frame, mask);
+                final boolean negate = "!=".equals(m_operator);
+                for (int i = 0; i < result.length; i++) {
+                    result[i] = (l[i] == r[i]) != negate;
+                }
+            } else if (m_left.m_type == Type.LONG && m_right.m_type == Type.LONG) {
+                final long[] l = m_left.evalLong(frame, mask);
+                final long[] r = m_right.evalLong(frame, mask);
+                for (int i = 0; i < result.length; i++) {
+                    result[i] = compare(l[i] == r[i], l[i] < r[i], l[i] > r[i]);
+                }
+            } else {
+                final double[] l = m_left.evalDouble(frame, mask);
+                final double[] r = m_right.evalDouble(frame, mask);
+                // Values of the same class are compared using equals(), which treats NaNs as equal
+                final boolean sameClass = m_left.m_type == m_right.m_type;
+                for (int i = 0; i < result.length; i++) {
+                    final boolean equal = sameClass ? Double.doubleToLongBits(l[i]) == Double.doubleToLongBits(r[i]) : l[i] == r[i];
+                    result[i] = compare(equal, l[i] < r[i], l[i] > r[i]);
+                }
+            }
+            return result;
+        }
+
+        private boolean compare(final boolean equal, final boolean less, final boolean greater) {
+            switch (m_operator) {
+            case "==":
+                return equal;
+            case "!=":
+                return !equal;
+            case "<":
+                return less;
+            case ">":
+                return greater;
+            case "<=":
+                return equal || less;
+            case ">=":
+                return equal || greater;
+            default:
+                throw new IllegalStateException("Unsupported operator: " + m_operator);
+            }
+        }
+    }
+
+    private static class LogicalNode extends Node {
+        private final boolean m_and;
+        private final Node m_left;
+        private final Node m_right;
+
+        LogicalNode(final boolean and, final Node left, final Node right) {
+            super(Type.BOOLEAN);
+            m_and = and;
+            m_left = left;
+            m_right = right;
+        }
+
+        @Override
+        boolean[] evalBoolean(final Frame frame, final boolean[] mask) throws UnsupportedExpressionException {
+            final boolean[] l = m_left.evalBoolean(frame, mask);
+            // The right operand is only evaluated when the left one doesn't determine the result
+            final boolean[] r = m_right.evalBoolean(frame, and(mask, l, m_and));
+            final boolean[] result = new boolean[frame.m_numRows];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = m_and ? l[i] && r[i] : l[i] || r[i];
+            }
+            return result;
+        }
+    }
+
+    private static class NotNode extends Node {
+        private final Node m_operand;
+
+        NotNode(final Node operand) {
+            super(Type.BOOLEAN);
+            m_operand = operand;
+        }
+
+        @Override
+        boolean[] evalBoolean(final Frame frame, final boolean[] mask) throws UnsupportedExpressionException {
+            final boolean[] values = m_operand.evalBoolean(frame, mask);
+            final boolean[] result = new boolean[values.length];
+            for (int i = 0; i < values.length; i++) {
+                result[i] = !values[i];
+            }
+            return result;
+        }
+    }
+
+    private static class TernaryNode extends Node {
+        private final Node m_condition;
+        private final Node m_then;
+        private final Node m_else;
+
+        TernaryNode(final Node condition, final Node then, final Node otherwise) {
+            super(then.m_type);
+            m_condition = condition;
+            m_then = then;
+            m_else = otherwise;
+        }
+
+        @Override
+        double[] evalDouble(final Frame frame, final boolean[] mask) throws UnsupportedExpressionException {
+            if (m_type == Type.LONG) {
+                return super.evalDouble(frame, mask);
+            }
+            final boolean[] condition = m_condition.evalBoolean(frame, mask);
+            final double[] a = m_then.evalDouble(frame, and(mask, condition, true));
+            final double[] b = m_else.evalDouble(frame, and(mask, condition, false));
+            final double[] result = new double[condition.length];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = condition[i] ? a[i] : b[i];
+            }
+            return result;
+        }
+
+        @Override
+        long[] evalLong(final Frame frame, final boolean[] mask) throws UnsupportedExpressionException {
+            final boolean[] condition = m_condition.evalBoolean(frame, mask);
+            final long[] a = m_then.evalLong(frame, and(mask, condition, true));
+            final long[] b = m_else.evalLong(frame, and(mask, condition, false));
+            final long[] result = new long[condition.length];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = condition[i] ? a[i] : b[i];
+            }
+            return result;
+        }
+
+        @Override
+        boolean[] evalBoolean(final Frame frame, final boolean[] mask) throws UnsupportedExpressionException {
+            final boolean[] condition = m_condition.evalBoolean(frame, mask);
+            final boolean[] a = m_then.evalBoolean(frame, and(mask, condition, true));
+            final boolean[] b = m_else.evalBoolean(frame, and(mask, condition, false));
+            final boolean[] result = new boolean[condition.length];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = condition[i] ? a[i] : b[i];
+            }
+            return result;
+        }
+    }
+
+    private static class FunctionNode extends Node {
+        private final DoubleUnaryOperator m_unary;
+        private final DoubleBinaryOperator m_binary;
+        private final List<Node> m_arguments;
+
+        FunctionNode(final DoubleUnaryOperator unary, final DoubleBinaryOperator binary, final List<Node> arguments) {
+            super(Type.DOUBLE);
+            m_unary = unary;
+            m_binary = binary;
+            m_arguments = arguments;
+        }
+
+        @Override
+        double[] evalDouble(final Frame frame, final boolean[] mask) throws UnsupportedExpressionException {
+            final double[] x = m_arguments.get(0).evalDouble(frame, mask);
+            final double[] result = new double[frame.m_numRows];
+            if (m_unary != null) {
+                for (int i = 0; i < result.length; i++) {
+                    result[i] = m_unary.applyAsDouble(x[i]);
+                }
+            } else {
+                final double[] y = m_arguments.get(1).evalDouble(frame, mask);
+                for (int i = 0; i < result.length; i++) {
+                    result[i] = m_binary.applyAsDouble(x[i], y[i]);
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Recursive descent parser for the subset of the JEXL grammar that is
+     * supported by the evaluator, using the same operator precedence.
+     */
+    private class Parser {
+        private final String m_input;
+        private final int m_expressionIndex;
+        private int m_pos = 0;
+
+        Parser(final String input, final int expressionIndex) {
+            m_input = input == null ? "" : input;
+            m_expressionIndex = expressionIndex;
+        }
+
+        Node parse() throws UnsupportedExpressionException {
+            final Node node = parseTernary();
+            skipWhitespace();
+            if (m_pos < m_input.length()) {
+                throw unsupported();
+            }
+            return node;
+        }
+
+        private Node parseTernary() throws UnsupportedExpressionException {
+            final Node condition = parseOr();
+            if (!accept("?")) {
+                return condition;
+            }
+            final Node then = parseTernary();
+            expect(":");
+            final Node otherwise = parseTernary();
+            if (condition.m_type != Type.BOOLEAN || then.m_type != otherwise.m_type) {
+                throw unsupported();
+            }
+            return new TernaryNode(condition, then, otherwise);
+        }
+
+        private Node parseOr() throws UnsupportedExpressionException {
+            Node node = parseAnd();
+            while (accept("||")) {
+                node = new LogicalNode(false, checkBoolean(node), checkBoolean(parseAnd()));
+            }
+            return node;
+        }
+
+        private Node parseAnd() throws UnsupportedExpressionException {
+            Node node = parseEquality();
+            while (accept("&&")) {
+                node = new LogicalNode(true, checkBoolean(node), checkBoolean(parseEquality()));
+            }
+            return node;
+        }
+
+        private Node parseEquality() throws UnsupportedExpressionException {
+            Node node = parseRelational();
+            while (true) {
+                final String operator = accept("==") ? "==" : accept("!=") ? "!=" : null;
+                if (operator == null) {
+                    return node;
+                }
+                final Node right = parseRelational();
+                if (node.m_type.isNumeric() != right.m_type.isNumeric()) {
+                    throw unsupported();
+                }
+                node = new ComparisonNode(operator, node, right);
+            }
+        }
+
+        private Node parseRelational() throws UnsupportedExpressionException {
+            Node node = parseAdditive();
+            while (true) {
+                final String operator = accept("<=") ? "<=" : accept(">=") ? ">=" : accept("<") ? "<" : accept(">") ? ">" : null;
+                if (operator == null) {
+                    return node;
+                }
+                node = new ComparisonNode(operator, checkNumeric(node), checkNumeric(parseAdditive()));
+            }
+        }
+
+        private Node parseAdditive() throws UnsupportedExpressionException {
+            Node node = parseMultiplicative();
+            while (true) {
+                final char operator = accept("+") ? '+' : accept("-") ? '-' : 0;
+                if (operator == 0) {
+                    return node;
+                }
+                node = new ArithmeticNode(operator, checkNumeric(node), checkNumeric(parseMultiplicative()));
+            }
+        }
+
+        private Node parseMultiplicative() throws UnsupportedExpressionException {
+            Node node = parseUnary();
+            while (true) {
+                final char operator = accept("*") ? '*' : accept("/") ? '/' : accept("%") ? '%' : 0;
+                if (operator == 0) {
+                    return node;
+                }
+                final Node right = checkNumeric(parseUnary());
+                if (operator == '%' && node.m_type == Type.LONG && right.m_type == Type.LONG) {
+                    throw unsupported();
+                }
+                node = new ArithmeticNode(operator, checkNumeric(node), right);
+            }
+        }
+
+        private Node parseUnary() throws UnsupportedExpressionException {
+            if (accept("-")) {
+                return new NegateNode(checkNumeric(parseUnary()));
+            } else if (accept("!")) {
+                return new NotNode(checkBoolean(parseUnary()));
+            }
+            return parsePrimary();
+        }
+
+        private Node parsePrimary() throws UnsupportedExpressionException {
+            skipWhitespace();
+            if (m_pos >= m_input.length()) {
+                throw unsupported();
+            }
+
+            final char c = m_input.charAt(m_pos);
+            if (c == '(') {
+                m_pos++;
+                final Node node = parseTernary();
+                expect(")");
+                return node;
+            } else if (Character.isDigit(c)) {
+                return parseNumber();
+            } else if (isIdentifierStart(c)) {
+                final String name = parseIdentifier();
+                if (m_pos < m_input.length() && m_input.charAt(m_pos) == ':') {
+                    m_pos++;
+                    return parseFunction(name, parseIdentifier());
+                }
+                // Dotted names are resolved as a single variable
+                final StringBuilder sb = new StringBuilder(name);
+                while (m_pos + 1 < m_input.length() && m_input.charAt(m_pos) == '.' && isIdentifierStart(m_input.charAt(m_pos + 1))) {
+                    m_pos++;
+                    sb.append('.').append(parseIdentifier());
+                }
+                if (m_pos < m_input.length() && (m_input.charAt(m_pos) == '.' || m_input.charAt(m_pos) == '[')) {
+                    throw unsupported();
+                }
+                return resolve(sb.toString(), m_expressionIndex);
+            }
+            throw unsupported();
+        }
+
+        private Node parseFunction(final String namespace, final String name) throws UnsupportedExpressionException {
+            expect("(");
+            final List<Node> arguments = Lists.newArrayList();
+            if (!accept(")")) {
+                do {
+                    arguments.add(checkNumeric(parseTernary()));
+                } while (accept(","));
+                expect(")");
+            }
+
+            boolean allDoubles = true;
+            for (final Node argument : arguments) {
+                if (argument.m_type == Type.FLOAT) {
+                    // Floats are converted differently by the method invocation
+                    throw unsupported();
+                }
+                allDoubles &= argument.m_type == Type.DOUBLE;
+            }
+
+            DoubleUnaryOperator unary = null;
+            DoubleBinaryOperator binary = null;
+            if (arguments.size() == 1) {
+                unary = lookup(UNARY_FUNCTIONS, namespace, name);
+                if (unary == null && allDoubles) {
+                    unary = lookup(OVERLOADED_UNARY_FUNCTIONS, namespace, name);
+                }
+            } else if (arguments.size() == 2) {
+                binary = lookup(BINARY_FUNCTIONS, namespace, name);
+                if (binary == null && allDoubles) {
+                    binary = lookup(OVERLOADED_BINARY_FUNCTIONS, namespace, name);
+                }
+            }
+            if (unary == null && binary == null) {
+                throw unsupported();
+            }
+            return new FunctionNode(unary, binary, arguments);
+        }
+
+        private Node parseNumber() throws UnsupportedExpressionException {
+            final int start = m_pos;
+            while (m_pos < m_input.length() && Character.isDigit(m_input.charAt(m_pos))) {
+                m_pos++;
+            }
+            if (m_pos + 1 < m_input.length() && m_input.charAt(m_pos) == '.' && Character.isDigit(m_input.charAt(m_pos + 1))) {
+                m_pos++;
+                while (m_pos < m_input.length() && Character.isDigit(m_input.charAt(m_pos))) {
+                    m_pos++;
+                }
+                final String literal = m_input.substring(start, m_pos);
+                final char suffix = m_pos < m_input.length() ? m_input.charAt(m_pos) : 0;
+                if (suffix == 'd' || suffix == 'D') {
+                    m_pos++;
+                    checkEndOfNumber();
+                    return new ConstantNode(Type.DOUBLE, Double.parseDouble(literal));
+                }
+                if (suffix == 'f' || suffix == 'F') {
+                    m_pos++;
+                }
+                checkEndOfNumber();
+                // JEXL parses real literals as floats by default, and converts them to doubles using their string value
+                return new ConstantNode(Type.FLOAT, Double.parseDouble(Float.valueOf(literal).toString()));
+            }
+
+            final String literal = m_input.substring(start, m_pos);
+            if (literal.length() > 1 && literal.charAt(0) == '0') {
+                // octal
+                throw unsupported();
+            }
+            if (m_pos < m_input.length() && (m_input.charAt(m_pos) == 'l' || m_input.charAt(m_pos) == 'L')) {
+                m_pos++;
+            }
+            checkEndOfNumber();
+            try {
+                return new ConstantNode(Long.parseLong(literal));
+            } catch (NumberFormatException e) {
+                throw unsupported();
+            }
+        }
+
+        private void checkEndOfNumber() throws UnsupportedExpressionException {
+            if (m_pos < m_input.length()) {
+                final char c = m_input.charAt(m_pos);
+                if (Character.isLetterOrDigit(c) || c == '.' || c == '_' || c == '$') {
+                    throw unsupported();
+                }
+            }
+        }
+
+        private String parseIdentifier() throws UnsupportedExpressionException {
+            final int start = m_pos;
+            if (m_pos >= m_input.length() || !isIdentifierStart(m_input.charAt(m_pos))) {
+                throw unsupported();
+            }
+            while (m_pos < m_input.length() && isIdentifierPart(m_input.charAt(m_pos))) {
+                m_pos++;
+            }
+            final String identifier = m_input.substring(start, m_pos);
+            if (RESERVED_WORDS.contains(identifier)) {
+                throw unsupported();
+            }
+            return identifier;
+        }
+
+        private Node checkNumeric(final Node node) throws UnsupportedExpressionException {
+            if (!node.m_type.isNumeric()) {
+                throw unsupported();
+            }
+            return node;
+        }
+
+        private Node checkBoolean(final Node node) throws UnsupportedExpressionException {
+            if (node.m_type != Type.BOOLEAN) {
+                throw unsupported();
+            }
+            return node;
+        }
+
+        /**
+         * Consumes the given operator if it is next in the input. Operators
+         * that start with the same characters as a longer, unsupported
+         * operator are never accepted.
+         */
+        private boolean accept(final String operator) throws UnsupportedExpressionException {
+            skipWhitespace();
+            if (!m_input.startsWith(operator, m_pos)) {
+                return false;
+            }
+            final int end = m_pos + operator.length();
+            final char next = end < m_input.length() ? m_input.charAt(end) : 0;
+            if ((operator.equals("!") && (next == '=' || next == '~'))
+                    || (operator.equals("<") && next == '=')
+                    || (operator.equals(">") && next == '=')
+                    || (operator.equals("?") && next == ':')
+                    || (operator.equals("/") && (next == '/' || next == '*'))) {
+                return false;
+            }
+            m_pos = end;
+            return true;
+        }
+
+        private void expect(final String token) throws UnsupportedExpressionException {
+            if (!accept(token)) {
+                throw unsupported();
+            }
+        }
+
+        private void skipWhitespace() {
+            while (m_pos < m_input.length() && Character.isWhitespace(m_input.charAt(m_pos))) {
+                m_pos++;
+            }
+        }
+
+        private UnsupportedExpressionException unsupported() {
+            return new UnsupportedExpressionException("unsupported construct at position %d of '%s'", m_pos, m_input);
+        }
+    }
+
+    private static boolean isIdentifierStart(final char c) {
+        return Character.isLetter(c) || c == '_' || c == '$';
+    }
+
+    private static boolean isIdentifierPart(final char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+
+    private static <T> T lookup(final Map<String, Map<String, T>> functions, final String namespace, final String name) {
+        final Map<String, T> functionsInNamespace = functions.get(namespace);
+        return functionsInNamespace == null ? null : functionsInNamespace.get(name);
+    }
+}
@@ -35,6 +35,13 @@ public class JEXLExpressionEngine implements ExpressionEngine {
      */
     private final JexlEngine jexl = new JexlEngine();
 
+    /**
+     * When set, the expressions are first evaluated one column at a time
+     * using the {@link ColumnarExpressionEvaluator}, falling back to JEXL
+     * when an expression contains unsupported constructs.
+     */
+    private boolean useColumnarEvaluation = Boolean.parseBoolean(System.getProperty("org.opennms.netmgt.measurements.columnarExpressions", "true"));
+
     public JEXLExpressionEngine() {
         // Add additional functions to the engine
         Map<String, Object> functions = Maps.newHashMap();
@@ -58,6 +65,10 @@ public class JEXLExpressionEngine implements ExpressionEngine {
             return;
         }
 
+        if (useColumnarEvaluation && ColumnarExpressionEvaluator.tryApply(request.getExpressions(), results)) {
+            return;
+        }
+
         // Use to keep track of transient expression so that we don't
         // allocate memory to store their results
         int numNonTransientExpression = 0;
@@ -149,4 +160,12 @@ public class JEXLExpressionEngine implements ExpressionEngine {
             }
         }
     }
+
+    public boolean isUseColumnarEvaluation() {
+        return useColumnarEvaluation;
+    }
+
+    public void setUseColumnarEvaluation(boolean useColumnarEvaluation) {
+        this.useColumnarEvaluation = useColumnarEvaluation;
+    }
 }
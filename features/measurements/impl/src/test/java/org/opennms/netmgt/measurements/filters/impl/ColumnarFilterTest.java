@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.filters.impl;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.model.FilterDef;
+
+import com.google.common.collect.Maps;
+
+public class ColumnarFilterTest extends AnalyticsFilterTest {
+
+    @Test
+    public void canChainColumnarAndTableFilters() throws Exception {
+        final List<FilterDef> filterDefs = Arrays.asList(
+                new FilterDef("Chomp", "stripNaNs", "true"),
+                new FilterDef("Derivative", "inputColumn", "X", "outputColumn", "Y"),
+                // The JEXL filter only supports tables
+                new FilterDef("JEXL", "expression", "for (k : table.rowKeySet()) {table.put(k, \"Z\", table.get(k, \"Y\") * 2);}"));
+
+        final long[] timestamps = new long[100];
+        final double[] values = new double[100];
+        for (int k = 0; k < 100; k++) {
+            timestamps[k] = k * 1000;
+            values[k] = k < 10 || k >= 90 ? Double.NaN : k * k;
+        }
+        final Map<String, double[]> columns = Maps.newLinkedHashMap();
+        columns.put("X", values);
+        final Map<String, Object> constants = Maps.newHashMap();
+        constants.put("c", 1);
+
+        // Apply the filters
+        final FetchResults results = getFilterEngine().filter(filterDefs, new FetchResults(timestamps, columns, 300, constants));
+
+        // Verify
+        Assert.assertEquals(300, results.getStep());
+        Assert.assertEquals(constants, results.getConstants());
+        Assert.assertEquals(80, results.getTimestamps().length);
+        Assert.assertEquals(Arrays.asList("X", "Y", "Z"), Arrays.asList(results.getColumns().keySet().toArray()));
+        for (int k = 0; k < 80; k++) {
+            final long i = k + 10;
+            Assert.assertEquals(i * 1000, results.getTimestamps()[k]);
+            Assert.assertEquals(i * i, results.getColumns().get("X")[k], 0.0001);
+            if (k == 0) {
+                Assert.assertTrue(Double.isNaN(results.getColumns().get("Y")[k]));
+                Assert.assertTrue(Double.isNaN(results.getColumns().get("Z")[k]));
+            } else {
+                Assert.assertEquals(2 * i - 1, results.getColumns().get("Y")[k], 0.0001);
+                Assert.assertEquals(2 * (2 * i - 1), results.getColumns().get("Z")[k], 0.0001);
+            }
+        }
+    }
+
+    @Test
+    public void canStripNaNsWithoutModifyingInput() throws Exception {
+        final long[] timestamps = new long[] { 0, 1, 2, 3 };
+        final double[] values = new double[] { Double.NaN, 1, 2, Double.NaN };
+        final Map<String, double[]> columns = Maps.newLinkedHashMap();
+        columns.put("X", values);
+
+        final FetchResults results = new Chomp(0, true).filter(new FetchResults(timestamps, columns, 1, Maps.<String, Object>newHashMap()));
+
+        Assert.assertArrayEquals(new long[] { 1, 2 }, results.getTimestamps());
+        Assert.assertArrayEquals(new double[] { 1, 2 }, results.getColumns().get("X"), 0.0001);
+        Assert.assertEquals(4, values.length);
+    }
+}
@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.api.exceptions.ExpressionException;
+import org.opennms.netmgt.measurements.model.Expression;
+import org.opennms.netmgt.measurements.model.QueryRequest;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+public class ColumnarExpressionEvaluatorTest {
+
+    private static final int N = 100;
+
+    @Test
+    public void evaluatesLikeJexl() throws ExpressionException {
+        assertSameAsJexl("x * 5 + 7");
+        assertSameAsJexl("-x - 0.5");
+        assertSameAsJexl("x % 3");
+        assertSameAsJexl("timestamp / 125.0d");
+        assertSameAsJexl("timestamp / 1000 * 3");
+        assertSameAsJexl("speed / 0.62137");
+        assertSameAsJexl("src.ifSpeed * 8");
+        assertSameAsJexl("1 * __diff_time");
+        assertSameAsJexl("math:sin(x) + strictmath:sqrt(speed)");
+        assertSameAsJexl("math:max(x, y) - math:abs(y)");
+        assertSameAsJexl("math:atan2(x, 2)");
+        assertSameAsJexl("(y == 0) ? NaN : x / y");
+        assertSameAsJexl("y != 0 && x / y > 2 ? 1.0d : 0.0d");
+        assertSameAsJexl("(x == NaN) ? -1.0d : x");
+        assertSameAsJexl("(x <= NaN || x >= 50) ? x : NaN");
+        assertSameAsJexl("( ( (x == __inf) || (x == __neg_inf) || (x < 10) || (x > 90) ) ? NaN : x )");
+        assertSameAsJexl("!(x < 50) ? timestamp : 0");
+    }
+
+    @Test
+    public void canReferencePreviousExpressions() throws ExpressionException {
+        final List<Expression> expressions = Lists.newArrayList(
+                expression("a", "x * 2", true),
+                expression("b", "a + y", false),
+                expression("x", "b - a", false),
+                expression("c", "x * 2", false));
+
+        final FetchResults columnar = evaluate(expressions, true);
+        final FetchResults jexl = evaluate(expressions, false);
+
+        assertFalse(columnar.getColumns().containsKey("a"));
+        for (final String label : new String[] { "b", "x", "c" }) {
+            assertArrayEquals(jexl.getColumns().get(label), columnar.getColumns().get(label), 0.0d);
+        }
+    }
+
+    @Test
+    public void fallsBackOnUnsupportedConstructs() throws ExpressionException {
+        assertFallsBack("x / y");
+        assertFallsBack("timestamp % 7");
+        assertFallsBack("timestamp * 9223372036854775807");
+        assertFallsBack("size(x)");
+        assertFallsBack("x.value");
+        assertFallsBack("math:sin(0.5)");
+        assertFallsBack("math:abs(speed)");
+        assertFallsBack("unknown + 1");
+        assertFallsBack("name + 1");
+        assertFallsBack("x > 1");
+        assertFallsBack("x ?: 1");
+        assertFallsBack("010 + x");
+        assertFallsBack("x =~ 1");
+    }
+
+    @Test
+    public void fallsBackOnForwardReferences() throws ExpressionException {
+        final List<Expression> expressions = Lists.newArrayList(
+                expression("a", "b + 1", false),
+                expression("b", "x", false));
+        assertFalse(ColumnarExpressionEvaluator.tryApply(expressions, createResults()));
+    }
+
+    @Test(expected=ExpressionException.class)
+    public void reportsErrorsFromJexl() throws ExpressionException {
+        evaluate(Lists.newArrayList(expression("y", "!(!true)", false)), true);
+    }
+
+    private static void assertSameAsJexl(final String expression) throws ExpressionException {
+        final List<Expression> expressions = Lists.newArrayList(expression("z", expression, false));
+        assertTrue(expression, ColumnarExpressionEvaluator.tryApply(expressions, createResults()));
+
+        final double[] columnar = evaluate(expressions, true).getColumns().get("z");
+        final double[] jexl = evaluate(expressions, false).getColumns().get("z");
+        assertEquals(N, columnar.length);
+        assertArrayEquals(expression, jexl, columnar, 0.0d);
+    }
+
+    private static void assertFallsBack(final String expression) throws ExpressionException {
+        final FetchResults results = createResults();
+        assertFalse(expression, ColumnarExpressionEvaluator.tryApply(Lists.newArrayList(expression("z", expression, false)), results));
+        assertFalse(results.getColumns().containsKey("z"));
+    }
+
+    private static FetchResults evaluate(final List<Expression> expressions, final boolean columnar) throws ExpressionException {
+        final JEXLExpressionEngine engine = new JEXLExpressionEngine();
+        engine.setUseColumnarEvaluation(columnar);
+
+        final QueryRequest request = new QueryRequest();
+        request.setExpressions(expressions);
+
+        final FetchResults results = createResults();
+        engine.applyExpressions(request, results);
+        return results;
+    }
+
+    private static FetchResults createResults() {
+        final long[] timestamps = new long[N];
+        final double[] x = new double[N];
+        final double[] y = new double[N];
+        for (int i = 0; i < N; i++) {
+            timestamps[i] = 1450000000000L + i * 300000L;
+            x[i] = i % 17 == 0 ? Double.NaN : i;
+            y[i] = i % 5;
+        }
+        final Map<String, double[]> columns = Maps.newHashMap();
+        columns.put("x", x);
+        columns.put("y", y);
+
+        final Map<String, Object> constants = Maps.newHashMap();
+        constants.put("speed", 65);
+        constants.put("src.ifSpeed", 1.0E8d);
+        constants.put("name", "eth0");
+        return new FetchResults(timestamps, columns, 300, constants);
+    }
+
+    private static Expression expression(final String label, final String expression, final boolean transientFlag) {
+        final Expression e = new Expression();
+        e.setLabel(label);
+        e.setExpression(expression);
+        e.setTransient(transientFlag);
+        return e;
+    }
+}
@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.model.Expression;
+import org.opennms.netmgt.measurements.model.QueryRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Compares the row by row JEXL evaluation with the columnar evaluation
+ * using a year's worth of 5 minute samples and a typical set of derived
+ * metrics.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.opennms.netmgt.measurements.impl.ExpressionEngineBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ExpressionEngineBenchmark {
+
+    private static final int NUM_ROWS = 365 * 24 * 12;
+
+    private final JEXLExpressionEngine m_jexlEngine = new JEXLExpressionEngine();
+    private final JEXLExpressionEngine m_columnarEngine = new JEXLExpressionEngine();
+    private final QueryRequest m_request = new QueryRequest();
+    private long[] m_timestamps;
+    private Map<String, double[]> m_columns;
+
+    @Setup
+    public void setUp() {
+        m_jexlEngine.setUseColumnarEvaluation(false);
+        m_columnarEngine.setUseColumnarEvaluation(true);
+
+        final List<Expression> expressions = Lists.newArrayList(
+                new Expression("inBits", "ifInOctets * 8", false),
+                new Expression("outBits", "ifOutOctets * 8", false),
+                new Expression("outBitsNeg", "-1.0 * outBits", false),
+                new Expression("totalBits", "inBits + outBits", false),
+                new Expression("inPercent", "(ifSpeed == 0) ? NaN : inBits / ifSpeed * 100.0d", false),
+                new Expression("inLimited", "( (inPercent < 0) || (inPercent > 100) ) ? NaN : inPercent", false),
+                new Expression("inLog", "math:log(inBits + 1)", false));
+        m_request.setExpressions(expressions);
+
+        m_timestamps = new long[NUM_ROWS];
+        final double[] ifInOctets = new double[NUM_ROWS];
+        final double[] ifOutOctets = new double[NUM_ROWS];
+        final double[] ifSpeed = new double[NUM_ROWS];
+        for (int i = 0; i < NUM_ROWS; i++) {
+            m_timestamps[i] = 1451606400000L + i * 300000L;
+            ifInOctets[i] = i % 1000 == 0 ? Double.NaN : 1000000 + 500000 * Math.sin(i / 288.0);
+            ifOutOctets[i] = 200000 + 100000 * Math.cos(i / 288.0);
+            ifSpeed[i] = i % 5000 == 0 ? 0 : 1.0E8;
+        }
+        m_columns = Maps.newHashMap();
+        m_columns.put("ifInOctets", ifInOctets);
+        m_columns.put("ifOutOctets", ifOutOctets);
+        m_columns.put("ifSpeed", ifSpeed);
+    }
+
+    private FetchResults newResults() {
+        return new FetchResults(m_timestamps, Maps.newHashMap(m_columns), 300, Maps.<String, Object>newHashMap());
+    }
+
+    @Benchmark
+    public FetchResults jexl() throws Exception {
+        final FetchResults results = newResults();
+        m_jexlEngine.applyExpressions(m_request, results);
+        return results;
+    }
+
+    @Benchmark
+    public FetchResults columnar() throws Exception {
+        final FetchResults results = newResults();
+        m_columnarEngine.applyExpressions(m_request, results);
+        return results;
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ExpressionEngineBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -29,9 +29,11 @@
 package org.opennms.netmgt.newts;
 
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
@@ -50,16 +52,23 @@ import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.math.DoubleMath;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.lmax.disruptor.BlockingWaitStrategy;
 import com.lmax.disruptor.EventTranslatorOneArg;
 import com.lmax.disruptor.FatalExceptionHandler;
+import com.lmax.disruptor.LifecycleAware;
 import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.TimeoutBlockingWaitStrategy;
+import com.lmax.disruptor.TimeoutHandler;
+import com.lmax.disruptor.WaitStrategy;
 import com.lmax.disruptor.WorkHandler;
 import com.lmax.disruptor.WorkerPool;
 import com.swrve.ratelimitedlogger.RateLimitedLog;
@@ -70,9 +79,17 @@ import com.swrve.ratelimitedlogger.RateLimitedLog;
  * Calls to {@link #insert()} publish the samples to a ring buffer so
  * that they don't block while the data is being persisted.
  *
+ * Each writer thread merges the samples of consecutive ring buffer entries
+ * and writes them out once max_batch_size samples are available, or once the
+ * oldest pending sample has waited for max_batch_delay milliseconds.
+ *
+ * When the ring buffer is full, the samples are dropped unless
+ * ring_buffer_blocking is set, in which case the caller blocks until there
+ * is room.
+ *
  * @author jwhite
  */
-public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBean {
+public class NewtsWriter implements DisposableBean {
 
     private static final Logger LOG = LoggerFactory.getLogger(NewtsWriter.class);
 
@@ -93,31 +110,56 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
 
     private final int m_maxBatchSize;
 
+    private final long m_maxBatchDelayNanos;
+
     private final int m_ringBufferSize;
 
     private final int m_numWriterThreads;
 
+    private final boolean m_blockWhenFull;
+
     private final Meter m_droppedSamples;
 
+    private final Timer m_blockedTime;
+
+    private final Timer m_queueLatency;
+
+    private final Timer m_insertLatency;
+
+    private final Histogram m_batchSizes;
+
+    private final CountDownLatch m_writersStopped;
+
     /**
      * The {@link RingBuffer} doesn't appear to expose any methods that indicate the number
      * of elements that are currently "queued", so we keep track of them with this atomic counter.
      */
     private final AtomicLong m_numEntriesOnRingBuffer = new AtomicLong();
 
+    @VisibleForTesting
+    public NewtsWriter(Integer maxBatchSize, Integer ringBufferSize, Integer numWriterThreads, MetricRegistry registry) {
+        this(maxBatchSize, ringBufferSize, numWriterThreads, 0, false, registry);
+    }
+
     @Inject
     public NewtsWriter(@Named("newts.max_batch_size") Integer maxBatchSize, @Named("newts.ring_buffer_size") Integer ringBufferSize,
-            @Named("newts.writer_threads") Integer numWriterThreads, MetricRegistry registry) {
+            @Named("newts.writer_threads") Integer numWriterThreads, @Named("newts.max_batch_delay") Integer maxBatchDelay,
+            @Named("newts.ring_buffer_blocking") Boolean blockWhenFull, MetricRegistry registry) {
         Preconditions.checkArgument(maxBatchSize > 0, "maxBatchSize must be strictly positive");
         Preconditions.checkArgument(ringBufferSize > 0, "ringBufferSize must be positive");
         Preconditions.checkArgument(DoubleMath.isMathematicalInteger(Math.log(ringBufferSize) / Math.log(2)), "ringBufferSize must be a power of two");
         Preconditions.checkArgument(numWriterThreads > 0, "numWriterThreads must be positive");
+        Preconditions.checkArgument(maxBatchDelay >= 0, "maxBatchDelay must be positive or zero");
+        Preconditions.checkNotNull(blockWhenFull, "blockWhenFull");
         Preconditions.checkNotNull(registry, "metric registry");
 
         m_maxBatchSize = maxBatchSize;
+        m_maxBatchDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxBatchDelay);
         m_ringBufferSize = ringBufferSize;
         m_numWriterThreads = numWriterThreads;
+        m_blockWhenFull = blockWhenFull;
         m_numEntriesOnRingBuffer.set(0L);
+        m_writersStopped = new CountDownLatch(numWriterThreads);
 
         registry.register(MetricRegistry.name("ring-buffer", "size"),
                 new Gauge<Long>() {
@@ -135,8 +177,16 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
                 });
 
         m_droppedSamples = registry.meter(MetricRegistry.name("ring-buffer", "dropped-samples"));
-
-        LOG.debug("Using max_batch_size: {} and ring_buffer_size: {}", maxBatchSize, m_ringBufferSize);
+        // Time spent by the callers waiting for room on the ring buffer when blocking
+        m_blockedTime = registry.timer(MetricRegistry.name("ring-buffer", "blocked"));
+        // Time spent by the entries on the ring buffer before being picked up by a writer
+        m_queueLatency = registry.timer(MetricRegistry.name("ring-buffer", "queue-latency"));
+        // Time between the publication of the oldest sample in a batch and the completion of the insert
+        m_insertLatency = registry.timer(MetricRegistry.name("ring-buffer", "insert-latency"));
+        m_batchSizes = registry.histogram(MetricRegistry.name("ring-buffer", "batch-size"));
+
+        LOG.debug("Using max_batch_size: {}, max_batch_delay: {}ms, ring_buffer_size: {} and ring_buffer_blocking: {}",
+                maxBatchSize, maxBatchDelay, m_ringBufferSize, m_blockWhenFull);
         setUpWorkerPool();
     }
 
@@ -149,10 +199,13 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
         @SuppressWarnings("unchecked")
         final WorkHandler<SampleBatchEvent> handlers[] = new WorkHandler[m_numWriterThreads];
         for (int i = 0; i < m_numWriterThreads; i++) {
-            handlers[i] = this;
+            handlers[i] = new SampleBatchAggregator();
         }
 
-        m_ringBuffer = RingBuffer.createMultiProducer(SampleBatchEvent::new, m_ringBufferSize);
+        // Wake up the writers periodically so that they can flush their pending samples
+        final WaitStrategy waitStrategy = m_maxBatchDelayNanos > 0 ?
+                new TimeoutBlockingWaitStrategy(m_maxBatchDelayNanos, TimeUnit.NANOSECONDS) : new BlockingWaitStrategy();
+        m_ringBuffer = RingBuffer.createMultiProducer(SampleBatchEvent::new, m_ringBufferSize, waitStrategy);
         m_workerPool = new WorkerPool<SampleBatchEvent>(
                 m_ringBuffer,
                 m_ringBuffer.newBarrier(),
@@ -167,6 +220,10 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
     public void destroy() throws Exception {
         if (m_workerPool != null) {
             m_workerPool.drainAndHalt();
+            // Wait for the writers to flush their pending samples
+            if (!m_writersStopped.await(30, TimeUnit.SECONDS)) {
+                LOG.warn("Timed out waiting for the writer threads to flush their pending samples.");
+            }
         }
     }
 
@@ -181,55 +238,144 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
     private void pushToRingBuffer(List<Sample> samples, EventTranslatorOneArg<SampleBatchEvent, List<Sample>> translator) {
         // Add the samples to the ring buffer
         if (!m_ringBuffer.tryPublishEvent(translator, samples)) {
-            RATE_LIMITED_LOGGER.error("The ring buffer is full. {} samples associated with resource ids {} will be dropped.",
-                    samples.size(), new Object() {
-                        @Override
-                        public String toString() {
-                            // We wrap this in a toString() method to avoid build the string
-                            // unless the log message is actually printed
-                            return samples.stream()
-                                    .map(s -> s.getResource().getId())
-                                    .distinct()
-                                    .collect(Collectors.joining(", "));
-                        }
-                    });
-            m_droppedSamples.mark(samples.size());
-            return;
+            if (m_blockWhenFull) {
+                // Wait for a slot instead of dropping the samples
+                final Timer.Context context = m_blockedTime.time();
+                try {
+                    m_ringBuffer.publishEvent(translator, samples);
+                } finally {
+                    context.stop();
+                }
+            } else {
+                RATE_LIMITED_LOGGER.error("The ring buffer is full. {} samples associated with resource ids {} will be dropped.",
+                        samples.size(), new Object() {
+                            @Override
+                            public String toString() {
+                                // We wrap this in a toString() method to avoid build the string
+                                // unless the log message is actually printed
+                                return samples.stream()
+                                        .map(s -> s.getResource().getId())
+                                        .distinct()
+                                        .collect(Collectors.joining(", "));
+                            }
+                        });
+                m_droppedSamples.mark(samples.size());
+                return;
+            }
         }
         // Increase our entry counter
         m_numEntriesOnRingBuffer.incrementAndGet();
     }
 
-    @Override
-    public void onEvent(SampleBatchEvent event) throws Exception {
-        // We'd expect the logs from this thread to be in collectd.log
-        Logging.putPrefix("collectd");
-
-        List<Sample> samples = event.getSamples();
-        // Decrement our entry counter
-        m_numEntriesOnRingBuffer.decrementAndGet();
+    /**
+     * Merges the samples from consecutive ring buffer entries handled by
+     * one writer thread into batches of max_batch_size samples.
+     *
+     * Samples that don't fill a complete batch are held until max_batch_delay
+     * has elapsed. The {@link TimeoutBlockingWaitStrategy} wakes the writer up
+     * through {@link #onTimeout(long)} when no new entries are published.
+     */
+    private class SampleBatchAggregator implements WorkHandler<SampleBatchEvent>, TimeoutHandler, LifecycleAware {
+        private final List<Sample> m_pendingInserts = Lists.newArrayList();
+        private final List<Sample> m_pendingIndexes = Lists.newArrayList();
+        private long m_oldestPublishedAt;
+
+        @Override
+        public void onStart() {
+            // We'd expect the logs from this thread to be in collectd.log
+            Logging.putPrefix("collectd");
+        }
 
-        // Partition the samples into collections smaller then max_batch_size
-        for (List<Sample> batch : Lists.partition(samples, m_maxBatchSize)) {
+        @Override
+        public void onShutdown() {
             try {
-                if (event.isIndexOnly() && !NewtsUtils.DISABLE_INDEXING) {
-                    LOG.debug("Indexing {} samples", batch.size());
-                    m_indexer.update(batch);
-                } else {
-                    LOG.debug("Inserting {} samples", batch.size());
-                    m_sampleRepository.insert(batch);
+                flush(m_pendingInserts, false);
+                flush(m_pendingIndexes, true);
+            } finally {
+                m_writersStopped.countDown();
+            }
+        }
+
+        @Override
+        public void onEvent(SampleBatchEvent event) throws Exception {
+            // Decrement our entry counter
+            m_numEntriesOnRingBuffer.decrementAndGet();
+            m_queueLatency.update(System.nanoTime() - event.getPublishedAt(), TimeUnit.NANOSECONDS);
+
+            if (m_pendingInserts.isEmpty() && m_pendingIndexes.isEmpty()) {
+                m_oldestPublishedAt = event.getPublishedAt();
+            }
+
+            final List<Sample> pending = event.isIndexOnly() ? m_pendingIndexes : m_pendingInserts;
+            final List<Sample> other = event.isIndexOnly() ? m_pendingInserts : m_pendingIndexes;
+            final int added = event.getSamples().size();
+            pending.addAll(event.getSamples());
+            // Don't hold on to the samples from the ring buffer slot
+            event.setSamples(null);
+
+            // Write out all of the complete batches
+            final int complete = pending.size() - pending.size() % m_maxBatchSize;
+            if (complete > 0) {
+                write(pending, complete, event.isIndexOnly());
+                if (pending.size() <= added && other.isEmpty()) {
+                    // The samples that remain were all published with this event
+                    m_oldestPublishedAt = event.getPublishedAt();
                 }
+            }
+
+            flushIfExpired();
+        }
 
-                if (LOG.isDebugEnabled()) {
-                    String uniqueResourceIds = batch.stream()
-                        .map(s -> s.getResource().getId())
-                        .distinct()
-                        .collect(Collectors.joining(", "));
-                    LOG.debug("Successfully inserted samples for resources with ids {}", uniqueResourceIds);
+        @Override
+        public void onTimeout(long sequence) throws Exception {
+            flushIfExpired();
+        }
+
+        private void flushIfExpired() {
+            if ((!m_pendingInserts.isEmpty() || !m_pendingIndexes.isEmpty())
+                    && System.nanoTime() - m_oldestPublishedAt >= m_maxBatchDelayNanos) {
+                flush(m_pendingInserts, false);
+                flush(m_pendingIndexes, true);
+            }
+        }
+
+        private void flush(List<Sample> pending, boolean indexOnly) {
+            if (!pending.isEmpty()) {
+                write(pending, pending.size(), indexOnly);
+            }
+        }
+
+        /**
+         * Writes and removes the first count samples from the pending list.
+         */
+        private void write(List<Sample> pending, int count, boolean indexOnly) {
+            final List<Sample> samples = Lists.newArrayList(pending.subList(0, count));
+            pending.subList(0, count).clear();
+
+            // Partition the samples into collections smaller then max_batch_size
+            for (List<Sample> batch : Lists.partition(samples, m_maxBatchSize)) {
+                try {
+                    if (indexOnly && !NewtsUtils.DISABLE_INDEXING) {
+                        LOG.debug("Indexing {} samples", batch.size());
+                        m_indexer.update(batch);
+                    } else {
+                        LOG.debug("Inserting {} samples", batch.size());
+                        m_sampleRepository.insert(batch);
+                    }
+                    m_batchSizes.update(batch.size());
+
+                    if (LOG.isDebugEnabled()) {
+                        String uniqueResourceIds = batch.stream()
+                            .map(s -> s.getResource().getId())
+                            .distinct()
+                            .collect(Collectors.joining(", "));
+                        LOG.debug("Successfully inserted samples for resources with ids {}", uniqueResourceIds);
+                    }
+                } catch (Throwable t) {
+                    RATE_LIMITED_LOGGER.error("An error occurred while inserting samples. Some sample may be lost.", t);
                 }
-            } catch (Throwable t) {
-                RATE_LIMITED_LOGGER.error("An error occurred while inserting samples. Some sample may be lost.", t);
             }
+            m_insertLatency.update(System.nanoTime() - m_oldestPublishedAt, TimeUnit.NANOSECONDS);
         }
     }
 
@@ -238,6 +384,7 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
                 public void translateTo(SampleBatchEvent event, long sequence, List<Sample> samples) {
                     event.setIndexOnly(false);
                     event.setSamples(samples);
+                    event.setPublishedAt(System.nanoTime());
                 }
             };
 
@@ -246,6 +393,7 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
                 public void translateTo(SampleBatchEvent event, long sequence, List<Sample> samples) {
                     event.setIndexOnly(true);
                     event.setSamples(samples);
+                    event.setPublishedAt(System.nanoTime());
                 }
             };
 
@@ -42,6 +42,7 @@ import org.opennms.newts.api.Sample;
 public class SampleBatchEvent {
     private List<Sample> m_samples;
     private boolean m_indexOnly;
+    private long m_publishedAt;
 
     public void setSamples(List<Sample> samples) {
         m_samples = samples;
@@ -58,4 +59,15 @@ public class SampleBatchEvent {
     public boolean isIndexOnly() {
         return m_indexOnly;
     }
+
+    /**
+     * @param publishedAt value of {@link System#nanoTime()} when the event was published
+     */
+    public void setPublishedAt(long publishedAt) {
+        m_publishedAt = publishedAt;
+    }
+
+    public long getPublishedAt() {
+        return m_publishedAt;
+    }
 }
@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.newts.support;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.nustaq.serialization.FSTConfiguration;
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.cassandra.search.ResourceMetadata;
+import org.springframework.beans.factory.DisposableBean;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+
+/**
+ * A caching strategy that stores the {@link org.opennms.newts.cassandra.search.ResourceMetadata} in
+ * a {@link MappedSortedKeyStore} on the local file system.
+ *
+ * Only the most recently updated entries are kept on the heap, the remainder are stored in
+ * memory-mapped segment files which are searched in place. This allows the cache to hold
+ * many more entries than the {@link GuavaSearchableResourceMetadataCache} for the same heap size,
+ * and since the segments are persisted, the cache does not need to be rebuilt
+ * (and the resources re-indexed in Cassandra) after a restart.
+ *
+ * FST is used for serialization instead Java's default implementation.
+ */
+public class MappedResourceMetadataCache implements SearchableResourceMetadataCache, DisposableBean {
+
+    private static final FSTConfiguration conf = FSTConfiguration.createDefaultConfiguration();
+
+    private static final Joiner m_keyJoiner = Joiner.on(":");
+
+    private final MappedSortedKeyStore m_store;
+
+    @Inject
+    public MappedResourceMetadataCache(@Named("cache.directory") String directory, @Named("search.resourceMetadata.maxCacheEntries") long maxCacheEntries, MetricRegistry registry) throws IOException {
+        Preconditions.checkNotNull(directory, "directory argument");
+        Preconditions.checkArgument(maxCacheEntries > 0 && maxCacheEntries <= Integer.MAX_VALUE, "maxCacheEntries must be strictly positive");
+        m_store = new MappedSortedKeyStore(new File(directory), (int)maxCacheEntries);
+
+        Preconditions.checkNotNull(registry, "registry argument");
+        registry.register(MetricRegistry.name("cache", "size"),
+                new Gauge<Long>() {
+                    @Override
+                    public Long getValue() {
+                        return m_store.size();
+                    }
+                });
+        registry.register(MetricRegistry.name("cache", "max-size"),
+                new Gauge<Long>() {
+                    @Override
+                    public Long getValue() {
+                        return 0L;
+                    }
+                });
+        registry.register(MetricRegistry.name("cache", "segments"),
+                new Gauge<Integer>() {
+                    @Override
+                    public Integer getValue() {
+                        return m_store.getNumSegments();
+                    }
+                });
+    }
+
+    @Override
+    public void merge(Context context, Resource resource, ResourceMetadata metadata) {
+        final Optional<ResourceMetadata> o = get(context, resource);
+
+        if (!o.isPresent()) {
+            final ResourceMetadata newMetadata = new ResourceMetadata();
+            newMetadata.merge(metadata);
+            m_store.put(key(context, resource.getId()), conf.asByteArray(newMetadata));
+        } else if (o.get().merge(metadata)) {
+            // Update the value stored in the cache if it was changed as a result of the merge
+            m_store.put(key(context, resource.getId()), conf.asByteArray(o.get()));
+        }
+    }
+
+    @Override
+    public Optional<ResourceMetadata> get(Context context, Resource resource) {
+        final byte[] bytes = m_store.get(key(context, resource.getId()));
+        return bytes == null ? Optional.<ResourceMetadata>absent() : Optional.of((ResourceMetadata)conf.asObject(bytes));
+    }
+
+    @Override
+    public void delete(Context context, Resource resource) {
+        m_store.delete(key(context, resource.getId()));
+    }
+
+    @Override
+    public List<String> getResourceIdsWithPrefix(Context context, String resourceIdPrefix) {
+        return m_store.getKeysWithPrefix(key(context, resourceIdPrefix)).stream()
+                .map(key -> resourceId(context, key))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Flushes the entries held on the heap to disk, so that they are available
+     * when the cache is next created.
+     */
+    @Override
+    public void destroy() throws IOException {
+        m_store.close();
+    }
+
+    private static String key(Context context, String resourceId) {
+        return m_keyJoiner.join(context.getId(), resourceId);
+    }
+
+    private static String resourceId(Context context, String key) {
+        return key.substring(context.getId().length() + 1);
+    }
+}
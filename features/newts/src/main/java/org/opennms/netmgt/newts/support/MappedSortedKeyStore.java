@@ -0,0 +1,699 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.newts.support;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A persistent, sorted key/value store with prefix iteration.
+ *
+ * Recent writes are held in an on-heap memtable which is flushed
+ * to an immutable, sorted segment file once it reaches the configured
+ * number of entries. Segments are memory-mapped and searched in place,
+ * so their contents do not count against the heap. Adjacent segments
+ * of similar size are merged in the background to keep the number of
+ * segments that need to be searched small.
+ *
+ * The memtable is flushed when the store is closed, so the contents
+ * survive restarts. Entries written after the last flush are lost
+ * if the JVM terminates abruptly.
+ *
+ * Each segment file is laid out as:
+ * <pre>
+ *   record*  := key-length (int) | key (UTF-8) | value-length (int, -1 for deletes) | value
+ *   index    := record-offset (int) * count
+ *   footer   := count (int) | magic (int)
+ * </pre>
+ */
+class MappedSortedKeyStore implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MappedSortedKeyStore.class);
+
+    private static final int MAGIC = 0x4f4e4d53;
+
+    private static final int FOOTER_SIZE = 8;
+
+    /**
+     * Segments are mapped with a single buffer, which limits their size.
+     */
+    private static final long MAX_SEGMENT_SIZE = Integer.MAX_VALUE;
+
+    /**
+     * Adjacent segments are merged when the older segment is at most
+     * this many times larger than the newer segment.
+     */
+    private static final int COMPACTION_RATIO = 4;
+
+    /**
+     * Adjacent segments are always merged (size permitting) when there are more
+     * than this many segments.
+     */
+    private static final int MAX_SEGMENTS = 16;
+
+    private static final Pattern SEGMENT_PATTERN = Pattern.compile("segment-([0-9a-f]{16})-([0-9a-f]{16})\\.dat");
+
+    /**
+     * Sentinel used to mark deleted keys, compared by reference.
+     */
+    private static final byte[] TOMBSTONE = new byte[0];
+
+    private final File m_directory;
+
+    private final int m_maxMemtableEntries;
+
+    private final ReadWriteLock m_lock = new ReentrantReadWriteLock();
+
+    private volatile ConcurrentSkipListMap<String, byte[]> m_memtable = new ConcurrentSkipListMap<>();
+
+    private final AtomicInteger m_memtableSize = new AtomicInteger(0);
+
+    private volatile NavigableMap<String, byte[]> m_flushing = null;
+
+    /**
+     * Ordered from oldest to newest, replaced on every change.
+     */
+    private volatile List<Segment> m_segments;
+
+    private final AtomicBoolean m_flushPending = new AtomicBoolean(false);
+
+    private final ExecutorService m_flusher;
+
+    private long m_nextGeneration;
+
+    public MappedSortedKeyStore(File directory, int maxMemtableEntries) throws IOException {
+        Preconditions.checkArgument(maxMemtableEntries > 0, "maxMemtableEntries must be strictly positive");
+        m_directory = Preconditions.checkNotNull(directory, "directory argument");
+        m_maxMemtableEntries = maxMemtableEntries;
+
+        if (!m_directory.isDirectory() && !m_directory.mkdirs()) {
+            throw new IOException("Unable to create directory " + m_directory);
+        }
+        m_segments = Collections.unmodifiableList(loadSegments());
+        m_nextGeneration = m_segments.isEmpty() ? 0 : m_segments.get(m_segments.size() - 1).m_lastGeneration + 1;
+
+        m_flusher = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("mapped-key-store-flusher-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    /**
+     * Retrieves the value associated with the given key.
+     *
+     * @return the value, or null if the key is not present
+     */
+    public byte[] get(String key) {
+        m_lock.readLock().lock();
+        try {
+            byte[] value = m_memtable.get(key);
+            if (value != null) {
+                return live(value);
+            }
+            final NavigableMap<String, byte[]> flushing = m_flushing;
+            if (flushing != null) {
+                value = flushing.get(key);
+                if (value != null) {
+                    return live(value);
+                }
+            }
+            final List<Segment> segments = m_segments;
+            for (int i = segments.size() - 1; i >= 0; i--) {
+                value = segments.get(i).get(key);
+                if (value != null) {
+                    return live(value);
+                }
+            }
+            return null;
+        } finally {
+            m_lock.readLock().unlock();
+        }
+    }
+
+    public void put(String key, byte[] value) {
+        Preconditions.checkNotNull(value, "value argument");
+        write(key, value);
+    }
+
+    public void delete(String key) {
+        write(key, TOMBSTONE);
+    }
+
+    /**
+     * Retrieves all of the keys that start with the given prefix, in order.
+     */
+    public List<String> getKeysWithPrefix(String prefix) {
+        // Newer entries override older ones, so visit the sources from oldest to newest
+        final SortedMap<String, Boolean> live = new TreeMap<>();
+        m_lock.readLock().lock();
+        try {
+            for (Segment segment : m_segments) {
+                segment.collectKeysWithPrefix(prefix, live);
+            }
+            final NavigableMap<String, byte[]> flushing = m_flushing;
+            if (flushing != null) {
+                collectKeysWithPrefix(flushing, prefix, live);
+            }
+            collectKeysWithPrefix(m_memtable, prefix, live);
+        } finally {
+            m_lock.readLock().unlock();
+        }
+
+        final List<String> keys = new ArrayList<>(live.size());
+        for (Map.Entry<String, Boolean> entry : live.entrySet()) {
+            if (entry.getValue()) {
+                keys.add(entry.getKey());
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the number of entries held by the store. Keys which have been
+     * overwritten or deleted, but not yet compacted, are counted more than once.
+     */
+    public long size() {
+        long size = m_memtableSize.get();
+        final NavigableMap<String, byte[]> flushing = m_flushing;
+        if (flushing != null) {
+            size += flushing.size();
+        }
+        for (Segment segment : m_segments) {
+            size += segment.m_count;
+        }
+        return size;
+    }
+
+    public int getNumSegments() {
+        return m_segments.size();
+    }
+
+    /**
+     * Synchronously flushes the memtable to disk.
+     */
+    public void flush() throws IOException {
+        try {
+            m_flusher.submit(() -> {
+                flushAndCompact();
+                return null;
+            }).get();
+        } catch (Exception e) {
+            throw new IOException("Flush failed.", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        m_flusher.shutdown();
+        try {
+            m_flusher.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushAndCompact();
+    }
+
+    private void write(String key, byte[] value) {
+        m_lock.readLock().lock();
+        try {
+            if (m_memtable.put(key, value) == null) {
+                m_memtableSize.incrementAndGet();
+            }
+        } finally {
+            m_lock.readLock().unlock();
+        }
+
+        if (m_memtableSize.get() >= m_maxMemtableEntries && m_flushPending.compareAndSet(false, true)) {
+            m_flusher.execute(() -> {
+                try {
+                    flushAndCompact();
+                } catch (Throwable t) {
+                    LOG.error("Failed to flush the memtable to {}.", m_directory, t);
+                } finally {
+                    m_flushPending.set(false);
+                }
+            });
+        }
+    }
+
+    private synchronized void flushAndCompact() throws IOException {
+        final NavigableMap<String, byte[]> memtable;
+        m_lock.writeLock().lock();
+        try {
+            memtable = m_memtable;
+            if (memtable.isEmpty()) {
+                return;
+            }
+            // Keep the entries readable while the segment is being written
+            m_flushing = memtable;
+            m_memtable = new ConcurrentSkipListMap<>();
+            m_memtableSize.set(0);
+        } finally {
+            m_lock.writeLock().unlock();
+        }
+
+        final long generation = m_nextGeneration++;
+        final Segment segment;
+        try {
+            segment = Segment.write(segmentFile(generation, generation), generation, generation,
+                    memtable.entrySet().iterator(), m_segments.isEmpty());
+        } catch (IOException | RuntimeException e) {
+            restore(memtable);
+            throw e;
+        }
+        LOG.debug("Flushed {} entries to {}.", segment.m_count, segment.m_file);
+
+        m_lock.writeLock().lock();
+        try {
+            final List<Segment> segments = new ArrayList<>(m_segments);
+            segments.add(segment);
+            m_segments = Collections.unmodifiableList(segments);
+            m_flushing = null;
+        } finally {
+            m_lock.writeLock().unlock();
+        }
+
+        try {
+            compact();
+        } catch (IOException e) {
+            // The entries are safe in the flushed segment, merging is retried after the next flush
+            LOG.warn("Failed to merge the segments in {}.", m_directory, e);
+        }
+    }
+
+    /**
+     * Merges the entries of a memtable that couldn't be flushed back into the
+     * current memtable, so that they are part of the next flush. Entries
+     * written since are newer and are kept.
+     */
+    private void restore(NavigableMap<String, byte[]> memtable) {
+        m_lock.writeLock().lock();
+        try {
+            for (Map.Entry<String, byte[]> entry : memtable.entrySet()) {
+                if (m_memtable.putIfAbsent(entry.getKey(), entry.getValue()) == null) {
+                    m_memtableSize.incrementAndGet();
+                }
+            }
+            m_flushing = null;
+        } finally {
+            m_lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Merges adjacent segments. The merged segment is written in full before
+     * it replaces the segments it was merged from, which are only deleted
+     * afterwards. If the process stops in between, the segments that the
+     * merged one covers are deleted on the next start.
+     */
+    private void compact() throws IOException {
+        while (true) {
+            final List<Segment> segments = m_segments;
+            final int n = segments.size();
+            if (n < 2) {
+                return;
+            }
+            final Segment older = segments.get(n - 2);
+            final Segment newer = segments.get(n - 1);
+            if (n <= MAX_SEGMENTS && older.size() > COMPACTION_RATIO * newer.size()) {
+                return;
+            }
+            if (older.size() + newer.size() > MAX_SEGMENT_SIZE) {
+                return;
+            }
+
+            // Deletes only need to be retained if there are older segments that may contain the key
+            final Segment merged = Segment.write(segmentFile(older.m_firstGeneration, newer.m_lastGeneration),
+                    older.m_firstGeneration, newer.m_lastGeneration, new MergingIterator(older.iterator(), newer.iterator()), n == 2);
+            LOG.debug("Merged {} and {} into {}.", older.m_file, newer.m_file, merged.m_file);
+
+            boolean swapped = false;
+            m_lock.writeLock().lock();
+            try {
+                final List<Segment> updated = new ArrayList<>(m_segments);
+                final int index = updated.indexOf(older);
+                if (index >= 0 && index + 1 < updated.size() && updated.get(index + 1) == newer) {
+                    updated.set(index, merged);
+                    updated.remove(index + 1);
+                    m_segments = Collections.unmodifiableList(updated);
+                    swapped = true;
+                }
+            } finally {
+                m_lock.writeLock().unlock();
+            }
+            if (!swapped) {
+                // Should not happen, compactions and flushes don't overlap
+                LOG.warn("Segments changed while merging {} and {}, discarding {}.", older.m_file, newer.m_file, merged.m_file);
+                merged.delete();
+                return;
+            }
+            older.delete();
+            newer.delete();
+        }
+    }
+
+    private List<Segment> loadSegments() throws IOException {
+        final List<Segment> segments = new ArrayList<>();
+        final File[] files = m_directory.listFiles();
+        if (files == null) {
+            return segments;
+        }
+
+        for (File file : files) {
+            if (file.getName().endsWith(".tmp")) {
+                // Left behind by an interrupted flush or merge
+                Files.deleteIfExists(file.toPath());
+                continue;
+            }
+            final Matcher m = SEGMENT_PATTERN.matcher(file.getName());
+            if (!m.matches()) {
+                continue;
+            }
+            try {
+                segments.add(Segment.open(file, Long.parseLong(m.group(1), 16), Long.parseLong(m.group(2), 16)));
+            } catch (IOException e) {
+                LOG.warn("Ignoring unreadable segment {}.", file, e);
+            }
+        }
+
+        // A merge may have been interrupted before the segments it replaced were removed
+        final List<Segment> obsolete = new ArrayList<>();
+        for (Segment segment : segments) {
+            for (Segment other : segments) {
+                if (other != segment && other.covers(segment)) {
+                    obsolete.add(segment);
+                    break;
+                }
+            }
+        }
+        for (Segment segment : obsolete) {
+            segments.remove(segment);
+            segment.delete();
+        }
+
+        segments.sort(Comparator.comparingLong(s -> s.m_lastGeneration));
+        return segments;
+    }
+
+    private File segmentFile(long firstGeneration, long lastGeneration) {
+        return new File(m_directory, String.format("segment-%016x-%016x.dat", firstGeneration, lastGeneration));
+    }
+
+    private static byte[] live(byte[] value) {
+        return value == TOMBSTONE ? null : value;
+    }
+
+    private static void collectKeysWithPrefix(NavigableMap<String, byte[]> map, String prefix, SortedMap<String, Boolean> live) {
+        for (Map.Entry<String, byte[]> entry : map.tailMap(prefix, true).entrySet()) {
+            if (!entry.getKey().startsWith(prefix)) {
+                break;
+            }
+            live.put(entry.getKey(), entry.getValue() != TOMBSTONE);
+        }
+    }
+
+    /**
+     * Merges two sorted iterators. Entries from the newer iterator take
+     * precedence when both contain the same key.
+     */
+    private static class MergingIterator implements Iterator<Map.Entry<String, byte[]>> {
+        private final PeekingIterator<Map.Entry<String, byte[]>> m_older;
+        private final PeekingIterator<Map.Entry<String, byte[]>> m_newer;
+
+        public MergingIterator(Iterator<Map.Entry<String, byte[]>> older, Iterator<Map.Entry<String, byte[]>> newer) {
+            m_older = Iterators.peekingIterator(older);
+            m_newer = Iterators.peekingIterator(newer);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return m_older.hasNext() || m_newer.hasNext();
+        }
+
+        @Override
+        public Map.Entry<String, byte[]> next() {
+            if (!m_older.hasNext()) {
+                return m_newer.next();
+            } else if (!m_newer.hasNext()) {
+                return m_older.next();
+            }
+            final int cmp = m_older.peek().getKey().compareTo(m_newer.peek().getKey());
+            if (cmp < 0) {
+                return m_older.next();
+            } else if (cmp > 0) {
+                return m_newer.next();
+            }
+            m_older.next();
+            return m_newer.next();
+        }
+    }
+
+    private static class Segment implements Iterable<Map.Entry<String, byte[]>> {
+        private final File m_file;
+        private final long m_firstGeneration;
+        private final long m_lastGeneration;
+        private final MappedByteBuffer m_buffer;
+        private final int m_count;
+        private final int m_indexOffset;
+
+        private Segment(File file, long firstGeneration, long lastGeneration, MappedByteBuffer buffer) throws IOException {
+            m_file = file;
+            m_firstGeneration = firstGeneration;
+            m_lastGeneration = lastGeneration;
+            m_buffer = buffer;
+
+            final int limit = buffer.limit();
+            if (limit < FOOTER_SIZE || buffer.getInt(limit - 4) != MAGIC) {
+                throw new IOException("Invalid segment " + file);
+            }
+            m_count = buffer.getInt(limit - FOOTER_SIZE);
+            m_indexOffset = limit - FOOTER_SIZE - 4 * m_count;
+            if (m_count < 0 || m_indexOffset < 0) {
+                throw new IOException("Invalid segment " + file);
+            }
+        }
+
+        public static Segment open(File file, long firstGeneration, long lastGeneration) throws IOException {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                    FileChannel channel = raf.getChannel()) {
+                if (channel.size() > MAX_SEGMENT_SIZE) {
+                    throw new IOException("Segment " + file + " is too large");
+                }
+                return new Segment(file, firstGeneration, lastGeneration, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
+
+        /**
+         * Writes the given sorted entries to a new segment. The segment is first written to a
+         * temporary file, and then moved in place so that partially written segments are never loaded.
+         */
+        public static Segment write(File file, long firstGeneration, long lastGeneration, Iterator<Map.Entry<String, byte[]>> entries, boolean dropDeletes) throws IOException {
+            final File tmpFile = new File(file.getPath() + ".tmp");
+            int[] offsets = new int[1024];
+            int count = 0;
+            try (FileOutputStream fos = new FileOutputStream(tmpFile)) {
+                final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 64 * 1024));
+                while (entries.hasNext()) {
+                    final Map.Entry<String, byte[]> entry = entries.next();
+                    final byte[] value = entry.getValue();
+                    if (value == TOMBSTONE && dropDeletes) {
+                        continue;
+                    }
+                    if (count == offsets.length) {
+                        offsets = Arrays.copyOf(offsets, count * 2);
+                    }
+                    offsets[count++] = out.size();
+
+                    final byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(key.length);
+                    out.write(key);
+                    if (value == TOMBSTONE) {
+                        out.writeInt(-1);
+                    } else {
+                        out.writeInt(value.length);
+                        out.write(value);
+                    }
+                    if (out.size() == Integer.MAX_VALUE) {
+                        throw new IOException("Segment " + file + " is too large");
+                    }
+                }
+                for (int i = 0; i < count; i++) {
+                    out.writeInt(offsets[i]);
+                }
+                out.writeInt(count);
+                out.writeInt(MAGIC);
+                out.flush();
+                fos.getFD().sync();
+            } catch (IOException e) {
+                Files.deleteIfExists(tmpFile.toPath());
+                throw e;
+            }
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            return open(file, firstGeneration, lastGeneration);
+        }
+
+        public long size() {
+            return m_buffer.limit();
+        }
+
+        public boolean covers(Segment other) {
+            return m_firstGeneration <= other.m_firstGeneration && m_lastGeneration >= other.m_lastGeneration
+                    && (m_firstGeneration != other.m_firstGeneration || m_lastGeneration != other.m_lastGeneration);
+        }
+
+        public byte[] get(String key) {
+            final int index = lowerBound(key);
+            if (index < m_count && key.equals(keyAt(recordOffset(index)))) {
+                return valueAt(recordOffset(index));
+            }
+            return null;
+        }
+
+        public void collectKeysWithPrefix(String prefix, SortedMap<String, Boolean> live) {
+            for (int i = lowerBound(prefix); i < m_count; i++) {
+                final int offset = recordOffset(i);
+                final String key = keyAt(offset);
+                if (!key.startsWith(prefix)) {
+                    break;
+                }
+                live.put(key, m_buffer.getInt(offset + 4 + m_buffer.getInt(offset)) >= 0);
+            }
+        }
+
+        @Override
+        public Iterator<Map.Entry<String, byte[]>> iterator() {
+            return new Iterator<Map.Entry<String, byte[]>>() {
+                private int m_index = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return m_index < m_count;
+                }
+
+                @Override
+                public Map.Entry<String, byte[]> next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    final int offset = recordOffset(m_index++);
+                    return new AbstractMap.SimpleImmutableEntry<>(keyAt(offset), valueAt(offset));
+                }
+            };
+        }
+
+        public void delete() {
+            try {
+                Files.deleteIfExists(m_file.toPath());
+            } catch (IOException e) {
+                LOG.warn("Failed to delete segment {}.", m_file, e);
+            }
+        }
+
+        /**
+         * Returns the index of the first key that is greater than or equal to the given key.
+         */
+        private int lowerBound(String key) {
+            int lo = 0;
+            int hi = m_count;
+            while (lo < hi) {
+                final int mid = (lo + hi) >>> 1;
+                if (keyAt(recordOffset(mid)).compareTo(key) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        private int recordOffset(int index) {
+            return m_buffer.getInt(m_indexOffset + 4 * index);
+        }
+
+        private String keyAt(int offset) {
+            return new String(bytesAt(offset + 4, m_buffer.getInt(offset)), StandardCharsets.UTF_8);
+        }
+
+        private byte[] valueAt(int offset) {
+            final int valueOffset = offset + 4 + m_buffer.getInt(offset);
+            final int length = m_buffer.getInt(valueOffset);
+            return length < 0 ? TOMBSTONE : bytesAt(valueOffset + 4, length);
+        }
+
+        private byte[] bytesAt(int offset, int length) {
+            final byte[] bytes = new byte[length];
+            // Use a duplicate so that concurrent readers don't share the position
+            final ByteBuffer buffer = m_buffer.duplicate();
+            buffer.position(offset);
+            buffer.get(bytes);
+            return bytes;
+        }
+    }
+}
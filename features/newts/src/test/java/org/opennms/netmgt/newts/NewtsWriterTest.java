@@ -29,8 +29,11 @@
 package org.opennms.netmgt.newts;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
@@ -119,6 +122,117 @@ public class NewtsWriterTest {
         assertEquals(ringBufferSize, sampleRepo.getNumSamplesInserted());
     }
 
+    /**
+     * Verifies that consecutive entries are merged into batches of
+     * max_batch_size and that the remainder is flushed on shutdown.
+     */
+    @Test
+    public void samplesAreMergedIntoBatches() throws Exception {
+        Resource x = new Resource("x");
+
+        RecordingSampleRepository sampleRepo = new RecordingSampleRepository();
+        MetricRegistry registry = new MetricRegistry();
+        NewtsWriter writer = new NewtsWriter(10, 1024, 1, 60000, false, registry);
+        writer.setSampleRepository(sampleRepo);
+
+        for (int i = 0; i < 25; i++) {
+            Sample s = new Sample(Timestamp.now(), x, "y", MetricType.COUNTER, new Counter(i));
+            writer.insert(Lists.newArrayList(s));
+        }
+
+        writer.destroy();
+
+        assertEquals(Lists.newArrayList(10, 10, 5), sampleRepo.getBatchSizes());
+        assertEquals(25, registry.timer("ring-buffer.queue-latency").getCount());
+        assertEquals(3, registry.histogram("ring-buffer.batch-size").getCount());
+    }
+
+    /**
+     * Verifies that the pending samples are written once the delay expires
+     * even if no other entries are published.
+     */
+    @Test
+    public void pendingSamplesAreFlushedAfterDelay() throws Exception {
+        Resource x = new Resource("x");
+
+        RecordingSampleRepository sampleRepo = new RecordingSampleRepository();
+        NewtsWriter writer = new NewtsWriter(10, 1024, 1, 50, false, new MetricRegistry());
+        writer.setSampleRepository(sampleRepo);
+
+        for (int i = 0; i < 3; i++) {
+            Sample s = new Sample(Timestamp.now(), x, "y", MetricType.COUNTER, new Counter(i));
+            writer.insert(Lists.newArrayList(s));
+        }
+
+        long timeout = System.currentTimeMillis() + 5000;
+        while (sampleRepo.getBatchSizes().isEmpty() && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        assertEquals(Lists.newArrayList(3), sampleRepo.getBatchSizes());
+
+        writer.destroy();
+    }
+
+    /**
+     * Fills the ring buffer and verifies that additional samples are not
+     * dropped when blocking is enabled.
+     */
+    @Test
+    public void samplesAreNotDroppedWhenBlocking() throws Exception {
+        Resource x = new Resource("x");
+        int ringBufferSize = 1024;
+        int numWriterThreads = 8;
+
+        Lock lock = new ReentrantLock();
+        LockedSampleRepository sampleRepo = new LockedSampleRepository(lock);
+        MetricRegistry registry = new MetricRegistry();
+        NewtsWriter writer = new NewtsWriter(1, ringBufferSize, numWriterThreads, 0, true, registry);
+        writer.setSampleRepository(sampleRepo);
+
+        lock.lock();
+        for (int i = 0; i < ringBufferSize; i++) {
+            Sample s = new Sample(Timestamp.now(), x, "y", MetricType.COUNTER, new Counter(i));
+            writer.insert(Lists.newArrayList(s));
+        }
+
+        // The ring buffer should be full, so this producer will block
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 8; i++) {
+                    Sample s = new Sample(Timestamp.now(), x, "y", MetricType.COUNTER, new Counter(i));
+                    writer.insert(Lists.newArrayList(s));
+                }
+            }
+        };
+        producer.start();
+        Thread.sleep(250);
+        assertEquals(numWriterThreads, sampleRepo.getNumThreadsLocked());
+
+        // Unlock the writer threads and wait for the ring buffer to drain
+        lock.unlock();
+        producer.join();
+        writer.destroy();
+
+        // Verify that all of the samples were inserted
+        assertEquals(ringBufferSize + 8, sampleRepo.getNumSamplesInserted());
+        assertEquals(0, registry.meter("ring-buffer.dropped-samples").getCount());
+        assertTrue(registry.timer("ring-buffer.blocked").getCount() > 0);
+    }
+
+    private static class RecordingSampleRepository extends MockSampleRepository {
+        private final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void insert(Collection<Sample> samples, boolean calculateTimeToLive) {
+            batchSizes.add(samples.size());
+        }
+
+        public List<Integer> getBatchSizes() {
+            return Lists.newArrayList(batchSizes);
+        }
+    }
+
     private static class LatchedSampleRepository extends MockSampleRepository {
         private final CountDownLatch latch;
 
@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.newts.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.cassandra.search.ResourceMetadata;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class MappedResourceMetadataCacheTest {
+
+    @Rule
+    public TemporaryFolder m_tempFolder = new TemporaryFolder();
+
+    @Test
+    public void canGetEntriesWithPrefix() throws Exception {
+        Context ctx = Context.DEFAULT_CONTEXT;
+        MappedResourceMetadataCache cache = new MappedResourceMetadataCache(m_tempFolder.getRoot().getAbsolutePath(), 2048, new MetricRegistry());
+
+        assertTrue(cache.getResourceIdsWithPrefix(ctx, "a").isEmpty());
+
+        Resource resource = new Resource("a:b:c");
+        ResourceMetadata resourceMetadata = new ResourceMetadata();
+        cache.merge(ctx, resource, resourceMetadata);
+
+        assertTrue(cache.getResourceIdsWithPrefix(ctx, "a").contains("a:b:c"));
+        assertTrue(cache.getResourceIdsWithPrefix(ctx, "a:b").contains("a:b:c"));
+        assertTrue(cache.getResourceIdsWithPrefix(ctx, "a:b:c").contains("a:b:c"));
+        assertTrue(cache.getResourceIdsWithPrefix(ctx, "a:b:c:d").isEmpty());
+        assertTrue(cache.getResourceIdsWithPrefix(new Context("other"), "a").isEmpty());
+
+        cache.delete(ctx, resource);
+        assertFalse(cache.get(ctx, resource).isPresent());
+        assertTrue(cache.getResourceIdsWithPrefix(ctx, "a").isEmpty());
+        cache.destroy();
+    }
+
+    @Test
+    public void canSurviveRestarts() throws Exception {
+        Context ctx = Context.DEFAULT_CONTEXT;
+        // Use a small number of entries so that several segments are flushed and merged
+        MappedResourceMetadataCache cache = new MappedResourceMetadataCache(m_tempFolder.getRoot().getAbsolutePath(), 16, new MetricRegistry());
+
+        for (int k = 0; k < 1000; k++) {
+            ResourceMetadata resourceMetadata = new ResourceMetadata();
+            resourceMetadata.putMetric("ifHCInOctets");
+            resourceMetadata.putAttribute("ifIndex", Integer.toString(k));
+            cache.merge(ctx, new Resource(String.format("snmp:%d:eth0-x:mib2-X-interfaces", k)), resourceMetadata);
+        }
+        cache.delete(ctx, new Resource("snmp:42:eth0-x:mib2-X-interfaces"));
+        cache.destroy();
+
+        cache = new MappedResourceMetadataCache(m_tempFolder.getRoot().getAbsolutePath(), 16, new MetricRegistry());
+        ResourceMetadata resourceMetadata = cache.get(ctx, new Resource("snmp:7:eth0-x:mib2-X-interfaces")).get();
+        assertTrue(resourceMetadata.containsMetric("ifHCInOctets"));
+        assertTrue(resourceMetadata.containsAttribute("ifIndex", "7"));
+        assertFalse(cache.get(ctx, new Resource("snmp:42:eth0-x:mib2-X-interfaces")).isPresent());
+
+        assertEquals(110, cache.getResourceIdsWithPrefix(ctx, "snmp:4").size());
+        assertEquals(10, cache.getResourceIdsWithPrefix(ctx, "snmp:42").size());
+        assertEquals(1, cache.getResourceIdsWithPrefix(ctx, "snmp:999:").size());
+        cache.destroy();
+    }
+}
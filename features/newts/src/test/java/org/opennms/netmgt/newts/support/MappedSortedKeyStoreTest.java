@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.newts.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedSortedKeyStoreTest {
+
+    @Rule
+    public TemporaryFolder m_tempFolder = new TemporaryFolder();
+
+    @Test
+    public void keepsTheEntriesOfAFailedFlush() throws Exception {
+        final File directory = new File(m_tempFolder.getRoot(), "store");
+        MappedSortedKeyStore store = new MappedSortedKeyStore(directory, 1000);
+        store.put("a", bytes("1"));
+        store.put("b", bytes("2"));
+
+        // Fail the flush by removing the directory the segment is written to
+        assertTrue(directory.delete());
+        try {
+            store.flush();
+            fail("the flush should have failed");
+        } catch (IOException e) {
+            // Expected
+        }
+        store.put("b", bytes("3"));
+        assertEquals("1", string(store.get("a")));
+        assertEquals("3", string(store.get("b")));
+        assertEquals(2, store.size());
+
+        // The entries are part of the next flush
+        assertTrue(directory.mkdir());
+        store.flush();
+        store.close();
+
+        store = new MappedSortedKeyStore(directory, 1000);
+        assertEquals("1", string(store.get("a")));
+        assertEquals("3", string(store.get("b")));
+        store.close();
+    }
+
+    @Test
+    public void deletesMergedSegmentsLeftBehind() throws Exception {
+        final File directory = m_tempFolder.getRoot();
+        MappedSortedKeyStore store = new MappedSortedKeyStore(directory, 1000);
+        store.put("a", bytes("1"));
+        store.flush();
+        final File first = directory.listFiles()[0];
+        final File copy = new File(m_tempFolder.getRoot().getParentFile(), first.getName() + ".copy");
+        Files.copy(first.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        // The second segment is merged with the first one
+        store.put("a", bytes("2"));
+        store.flush();
+        assertEquals(1, store.getNumSegments());
+        store.close();
+
+        // Restore the first segment, as if the process stopped before it was deleted
+        Files.move(copy.toPath(), first.toPath());
+        store = new MappedSortedKeyStore(directory, 1000);
+        assertEquals(1, store.getNumSegments());
+        assertEquals("2", string(store.get("a")));
+        store.close();
+        assertEquals(1, directory.listFiles().length);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(byte[] value) {
+        return value == null ? null : new String(value, StandardCharsets.UTF_8);
+    }
+}
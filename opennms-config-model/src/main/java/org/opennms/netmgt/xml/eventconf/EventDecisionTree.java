@@ -0,0 +1,303 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.xml.eventconf;
+
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_SNMP_EID;
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_SNMP_GENERIC;
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_SNMP_SPECIFIC;
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_UEI;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opennms.netmgt.xml.eventconf.Events.EventCallback;
+
+/**
+ * A decision tree compiled from a fully initialized {@link Events} hierarchy.
+ *
+ * Each level of the tree branches on one of the mask elements that are most
+ * commonly used to select an event definition: the UEI, the enterprise id,
+ * and the generic and specific trap numbers.  Exact values are indexed in a
+ * hash map, '%' terminated values are indexed in a character trie and
+ * everything else (regular expressions, missing mask elements) falls through
+ * to a wildcard branch.
+ *
+ * The tree only narrows down the set of candidate definitions, every candidate
+ * is still verified using {@link Event#matches(org.opennms.netmgt.xml.event.Event)}.
+ * Candidates are kept in the order in which {@link Events#findFirstMatchingEvent(org.opennms.netmgt.xml.event.Event)}
+ * would visit them, so the first matching definition is returned in both cases.
+ *
+ * Instances are immutable once compiled and may be shared between threads.
+ */
+public class EventDecisionTree {
+
+    private static final String[] LEVELS = { TAG_UEI, TAG_SNMP_EID, TAG_SNMP_GENERIC, TAG_SNMP_SPECIFIC };
+
+    private final Field[] m_fields;
+    private final Node m_root = new Node();
+    private int m_size = 0;
+
+    private EventDecisionTree() {
+        m_fields = new Field[LEVELS.length];
+        for (int i = 0; i < LEVELS.length; i++) {
+            m_fields[i] = EventMatchers.field(LEVELS[i]);
+        }
+    }
+
+    /**
+     * Compiles a decision tree for the given events.  The events must already
+     * have been initialized using {@link Events#initialize(Partition, EventOrdering)}.
+     */
+    public static EventDecisionTree compile(final Events events) {
+        final EventDecisionTree tree = new EventDecisionTree();
+        events.forEachEvent(tree, new EventCallback<EventDecisionTree>() {
+            @Override
+            public EventDecisionTree process(EventDecisionTree accum, Event event) {
+                accum.add(event);
+                return accum;
+            }
+        });
+        return tree;
+    }
+
+    /**
+     * @return the number of event definitions indexed by this tree
+     */
+    public int size() {
+        return m_size;
+    }
+
+    public Event findFirstMatchingEvent(final org.opennms.netmgt.xml.event.Event matchingEvent) {
+        final List<List<Candidate>> leaves = new ArrayList<List<Candidate>>(4);
+        collect(m_root, 0, matchingEvent, leaves);
+
+        Event match = null;
+        int matchPosition = Integer.MAX_VALUE;
+        for (final List<Candidate> leaf : leaves) {
+            for (final Candidate candidate : leaf) {
+                if (candidate.m_position >= matchPosition) {
+                    // anything else in this leaf comes after the current match
+                    break;
+                }
+                if (candidate.m_event.matches(matchingEvent)) {
+                    match = candidate.m_event;
+                    matchPosition = candidate.m_position;
+                    break;
+                }
+            }
+        }
+        return match;
+    }
+
+    private void add(final Event event) {
+        final Criterion[] criteria = new Criterion[LEVELS.length];
+        if (event.getMask() == null || event.getMask().getMaskelementCount() <= 0) {
+            if (event.getUei() == null) {
+                // constructMatcher() yields a matcher that is always false
+                m_size++;
+                return;
+            }
+            criteria[0] = Criterion.exact(Collections.singletonList(event.getUei()));
+        } else {
+            criteria[0] = Criterion.of(event.getMaskElementValues(TAG_UEI));
+        }
+        for (int level = 1; level < LEVELS.length; level++) {
+            criteria[level] = Criterion.of(event.getMaskElementValues(LEVELS[level]));
+        }
+
+        insert(m_root, 0, criteria, new Candidate(m_size++, event));
+    }
+
+    private void insert(final Node node, final int level, final Criterion[] criteria, final Candidate candidate) {
+        if (level == LEVELS.length) {
+            node.m_leaf.add(candidate);
+            return;
+        }
+
+        final Criterion criterion = criteria[level];
+        if (criterion == null) {
+            insert(node.wildcard(), level + 1, criteria, candidate);
+            return;
+        }
+        for (final String value : criterion.m_exact) {
+            insert(node.exact(value), level + 1, criteria, candidate);
+        }
+        for (final String prefix : criterion.m_prefixes) {
+            insert(node.prefix(prefix), level + 1, criteria, candidate);
+        }
+    }
+
+    private void collect(final Node node, final int level, final org.opennms.netmgt.xml.event.Event matchingEvent, final List<List<Candidate>> leaves) {
+        if (level == LEVELS.length) {
+            if (!node.m_leaf.isEmpty()) {
+                leaves.add(node.m_leaf);
+            }
+            return;
+        }
+
+        if (node.m_wildcard != null) {
+            collect(node.m_wildcard, level + 1, matchingEvent, leaves);
+        }
+        if (node.m_exact == null && node.m_prefixes == null) {
+            return;
+        }
+
+        final String value = m_fields[level].get(matchingEvent);
+        if (value == null) {
+            return;
+        }
+        if (node.m_exact != null) {
+            final Node child = node.m_exact.get(value);
+            if (child != null) {
+                collect(child, level + 1, matchingEvent, leaves);
+            }
+        }
+        if (node.m_prefixes != null) {
+            TrieNode trie = node.m_prefixes;
+            for (int i = 0; trie != null; i++) {
+                if (trie.m_target != null) {
+                    collect(trie.m_target, level + 1, matchingEvent, leaves);
+                }
+                trie = i < value.length() ? trie.child(value.charAt(i)) : null;
+            }
+        }
+    }
+
+    /**
+     * The values a single level of the tree is restricted to.  A
+     * <code>null</code> criterion matches any value.
+     */
+    private static class Criterion {
+        private final List<String> m_exact = new ArrayList<String>(1);
+        private final List<String> m_prefixes = new ArrayList<String>(0);
+
+        static Criterion exact(final List<String> values) {
+            final Criterion criterion = new Criterion();
+            criterion.m_exact.addAll(values);
+            return criterion;
+        }
+
+        static Criterion of(final List<String> values) {
+            if (values == null) {
+                return null;
+            }
+            final Criterion criterion = new Criterion();
+            for (final String value : values) {
+                if (value == null) {
+                    continue;
+                } else if (value.startsWith("~")) {
+                    // regular expressions can't be indexed, treat the level as a wildcard
+                    return null;
+                } else if (value.endsWith("%")) {
+                    criterion.m_prefixes.add(value.substring(0, value.length() - 1));
+                } else {
+                    criterion.m_exact.add(value);
+                }
+            }
+            if (criterion.m_exact.isEmpty() && criterion.m_prefixes.isEmpty()) {
+                return null;
+            }
+            return criterion;
+        }
+    }
+
+    private static class Candidate {
+        private final int m_position;
+        private final Event m_event;
+
+        Candidate(final int position, final Event event) {
+            m_position = position;
+            m_event = event;
+        }
+    }
+
+    private static class Node {
+        private Map<String, Node> m_exact;
+        private TrieNode m_prefixes;
+        private Node m_wildcard;
+        private final List<Candidate> m_leaf = new ArrayList<Candidate>(1);
+
+        Node wildcard() {
+            if (m_wildcard == null) {
+                m_wildcard = new Node();
+            }
+            return m_wildcard;
+        }
+
+        Node exact(final String value) {
+            if (m_exact == null) {
+                m_exact = new HashMap<String, Node>();
+            }
+            Node child = m_exact.get(value);
+            if (child == null) {
+                child = new Node();
+                m_exact.put(value, child);
+            }
+            return child;
+        }
+
+        Node prefix(final String prefix) {
+            if (m_prefixes == null) {
+                m_prefixes = new TrieNode();
+            }
+            TrieNode trie = m_prefixes;
+            for (int i = 0; i < prefix.length(); i++) {
+                trie = trie.getOrCreateChild(prefix.charAt(i));
+            }
+            if (trie.m_target == null) {
+                trie.m_target = new Node();
+            }
+            return trie.m_target;
+        }
+    }
+
+    private static class TrieNode {
+        private Map<Character, TrieNode> m_children;
+        private Node m_target;
+
+        TrieNode child(final char c) {
+            return m_children == null ? null : m_children.get(c);
+        }
+
+        TrieNode getOrCreateChild(final char c) {
+            if (m_children == null) {
+                m_children = new HashMap<Character, TrieNode>();
+            }
+            TrieNode child = m_children.get(c);
+            if (child == null) {
+                child = new TrieNode();
+                m_children.put(c, child);
+            }
+            return child;
+        }
+    }
+}
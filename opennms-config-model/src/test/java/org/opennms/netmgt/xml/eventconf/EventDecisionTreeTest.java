@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.xml.eventconf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.xml.event.Snmp;
+import org.opennms.netmgt.xml.eventconf.Events.EventCriteria;
+
+public class EventDecisionTreeTest {
+
+    private Events m_events;
+    private EventDecisionTree m_tree;
+
+    @Before
+    public void setUp() {
+        m_events = new Events();
+        m_events.addEvent(trap("uei.opennms.org/test/exactSpecific", ".1.3.6.1.4.1.9", "6", "1"));
+        m_events.addEvent(trap("uei.opennms.org/test/prefix", ".1.3.6.1.4.1.9.%", "6", null));
+        m_events.addEvent(trap("uei.opennms.org/test/regex", "~^\\.1\\.3\\.6\\.1\\.4\\.1\\.2636.*", null, null));
+        m_events.addEvent(trap("uei.opennms.org/test/exact", ".1.3.6.1.4.1.9", "6", null));
+        m_events.addEvent(uei("uei.opennms.org/test/uei"));
+        m_events.addEvent(trap("uei.opennms.org/test/anyTrap", null, "6", "99"));
+
+        final Events subEvents = new Events();
+        // shadowed by the root events
+        subEvents.addEvent(trap("uei.opennms.org/test/shadowed", ".1.3.6.1.4.1.9", "6", "1"));
+        subEvents.addEvent(trap("uei.opennms.org/test/subfile", ".1.3.6.1.4.1.5813", "6", "1"));
+        subEvents.addEvent(uei("uei.opennms.org/test/uei"));
+        m_events.addLoadedEventFile("sub.events.xml", subEvents);
+
+        m_events.initialize(new EnterpriseIdPartition(), new EventOrdering());
+        m_tree = EventDecisionTree.compile(m_events);
+    }
+
+    @Test
+    public void testSize() {
+        assertEquals(9, m_tree.size());
+    }
+
+    @Test
+    public void testFirstMatchWins() {
+        assertMatches("uei.opennms.org/test/exactSpecific", event(null, ".1.3.6.1.4.1.9", 6, 1));
+        assertMatches("uei.opennms.org/test/exact", event(null, ".1.3.6.1.4.1.9", 6, 2));
+        assertMatches("uei.opennms.org/test/prefix", event(null, ".1.3.6.1.4.1.9.1", 6, 2));
+        assertMatches("uei.opennms.org/test/regex", event(null, ".1.3.6.1.4.1.2636.3", 6, 2));
+        assertMatches("uei.opennms.org/test/anyTrap", event(null, ".1.3.6.1.4.1.8072", 6, 99));
+        assertMatches("uei.opennms.org/test/subfile", event(null, ".1.3.6.1.4.1.5813", 6, 1));
+    }
+
+    @Test
+    public void testUeiOnly() {
+        assertMatches("uei.opennms.org/test/uei", event("uei.opennms.org/test/uei", null, null, null));
+        assertSame(m_events.getEvent(4), m_tree.findFirstMatchingEvent(event("uei.opennms.org/test/uei", null, null, null)));
+    }
+
+    @Test
+    public void testNoMatch() {
+        assertNull(m_tree.findFirstMatchingEvent(event("uei.opennms.org/test/unknown", null, null, null)));
+        assertNull(m_tree.findFirstMatchingEvent(event(null, ".1.3.6.1.4.1.9", 1, 0)));
+    }
+
+    private void assertMatches(final String uei, final org.opennms.netmgt.xml.event.Event e) {
+        // linear scan over all of the events in search order
+        final Event expected = m_events.findFirstMatchingEvent(new EventCriteria() {
+            @Override
+            public boolean matches(final Event eventConf) {
+                return eventConf.matches(e);
+            }
+        });
+        assertEquals(uei, expected.getUei());
+        assertSame(expected, m_tree.findFirstMatchingEvent(e));
+    }
+
+    private static org.opennms.netmgt.xml.event.Event event(final String uei, final String id, final Integer generic, final Integer specific) {
+        final org.opennms.netmgt.xml.event.Event e = new org.opennms.netmgt.xml.event.Event();
+        e.setUei(uei);
+        if (id != null) {
+            final Snmp snmp = new Snmp();
+            snmp.setId(id);
+            snmp.setGeneric(generic);
+            snmp.setSpecific(specific);
+            e.setSnmp(snmp);
+        }
+        return e;
+    }
+
+    private static Event uei(final String uei) {
+        final Event event = new Event();
+        event.setUei(uei);
+        return event;
+    }
+
+    private static Event trap(final String uei, final String id, final String generic, final String specific) {
+        final Event event = uei(uei);
+        final Mask mask = new Mask();
+        if (id != null) {
+            mask.addMaskelement(maskElement(Maskelement.TAG_SNMP_EID, id));
+        }
+        if (generic != null) {
+            mask.addMaskelement(maskElement(Maskelement.TAG_SNMP_GENERIC, generic));
+        }
+        if (specific != null) {
+            mask.addMaskelement(maskElement(Maskelement.TAG_SNMP_SPECIFIC, specific));
+        }
+        event.setMask(mask);
+        return event;
+    }
+
+    private static Maskelement maskElement(final String name, final String value) {
+        final Maskelement element = new Maskelement();
+        element.setMename(name);
+        element.addMevalue(value);
+        return element;
+    }
+}
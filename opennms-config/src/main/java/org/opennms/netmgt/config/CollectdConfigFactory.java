@@ -39,12 +39,20 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.InetAddress;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.IOUtils;
+import org.opennms.core.network.IpListFromUrl;
 import org.opennms.core.utils.ConfigFileConstants;
 import org.opennms.core.xml.JaxbUtils;
 import org.opennms.netmgt.config.collectd.CollectdConfiguration;
+import org.opennms.netmgt.config.collectd.ExcludeRange;
+import org.opennms.netmgt.config.collectd.IncludeRange;
 import org.opennms.netmgt.config.collectd.Package;
 import org.opennms.netmgt.filter.FilterDaoFactory;
 import org.opennms.netmgt.model.OnmsIpInterface;
@@ -57,7 +65,10 @@ import org.slf4j.LoggerFactory;
  * Collection Daemon from the collectd-configuration.xml file.
  *
  * A mapping of the configured URLs to the IP list they contain is built at
- * init() time so as to avoid numerous file reads.
+ * init() time so as to avoid numerous file reads. The URLs are fetched again
+ * once the mapping is older than the interval set by the
+ * <code>org.opennms.collectd.includeUrlRefreshInterval</code> system property
+ * (in milliseconds, 5 minutes by default).
  *
  * <strong>Note: </strong>Users of this class should make sure the
  * <em>init()</em> is called before calling any other method to ensure the
@@ -71,9 +82,29 @@ public class CollectdConfigFactory implements org.opennms.netmgt.config.api.Coll
     private static final Logger LOG = LoggerFactory.getLogger(CollectdConfigFactory.class);
     public static final String SELECT_METHOD_MIN = "min";
 
+    private static final long INCLUDE_URL_REFRESH_INTERVAL = Long.getLong("org.opennms.collectd.includeUrlRefreshInterval", TimeUnit.MINUTES.toMillis(5));
+
     private CollectdConfiguration m_collectdConfig;
     private final Object m_collectdConfigMutex = new Object();
 
+    /**
+     * Index of the ranges, specifics and URL includes of the configured packages,
+     * rebuilt whenever the configuration is (re)loaded.
+     */
+    private volatile PackageMembershipIndex<Package> m_packageIndex;
+
+    /**
+     * When the index was built, only tracked if some of the packages have include URLs.
+     */
+    private volatile long m_packageIndexCreated;
+
+    private volatile boolean m_hasIncludeUrls;
+
+    /**
+     * The IP addresses selected by each package's filter, keyed by package name.
+     */
+    private final ConcurrentMap<String, FilterMatches> m_filterMatches = new ConcurrentHashMap<String, FilterMatches>();
+
     private final String m_fileName;
     private final String m_serverName;
     private final boolean m_verifyServer;
@@ -126,12 +157,65 @@ public class CollectdConfigFactory implements org.opennms.netmgt.config.api.Coll
             CollectdConfiguration config = JaxbUtils.unmarshal(CollectdConfiguration.class, isr);
             synchronized (m_collectdConfigMutex) {
                 m_collectdConfig = config;
+                m_packageIndex = createPackageIndex(config);
+                m_packageIndexCreated = System.currentTimeMillis();
+                m_hasIncludeUrls = config.getPackages().stream().anyMatch(pkg -> pkg.getIncludeUrls().size() > 0);
+                m_filterMatches.clear();
             }
         } finally {
             IOUtils.closeQuietly(isr);
         }
     }
 
+    /**
+     * Indexes the ranges, specifics and URL includes of all the packages,
+     * so that they don't need to be scanned for every interface.
+     */
+    private static PackageMembershipIndex<Package> createPackageIndex(final CollectdConfiguration config) {
+        final PackageMembershipIndex.Builder<Package> indexBuilder = new PackageMembershipIndex.Builder<Package>();
+        for (final Package pkg : config.getPackages()) {
+            // Same as Package.hasIncludeRange(), include all addresses when no ranges or specifics are defined
+            indexBuilder.addPackage(pkg, pkg.getIncludeRanges().size() == 0 && pkg.getSpecifics().size() == 0);
+            try {
+                for (final IncludeRange rng : pkg.getIncludeRanges()) {
+                    indexBuilder.includeRange(rng.getBegin(), rng.getEnd());
+                }
+                for (final ExcludeRange rng : pkg.getExcludeRanges()) {
+                    indexBuilder.excludeRange(rng.getBegin(), rng.getEnd());
+                }
+                for (final String spec : pkg.getSpecifics()) {
+                    indexBuilder.specific(spec);
+                }
+                for (final String includeUrl : pkg.getIncludeUrls()) {
+                    for (final String addr : IpListFromUrl.fetch(includeUrl)) {
+                        indexBuilder.specific(addr);
+                    }
+                }
+            } catch (final Throwable t) {
+                LOG.error("createPackageIndex: failed to index the ranges and specifics of package: {}", pkg.getName(), t);
+            }
+        }
+        return indexBuilder.build();
+    }
+
+    /**
+     * Returns the package index, rebuilding it first if the contents of the
+     * include URLs it was built from are due for a refresh.
+     */
+    private PackageMembershipIndex<Package> getPackageIndex() {
+        if (m_hasIncludeUrls && System.currentTimeMillis() - m_packageIndexCreated > INCLUDE_URL_REFRESH_INTERVAL) {
+            synchronized (m_collectdConfigMutex) {
+                // Another thread may have refreshed it while we were waiting
+                if (System.currentTimeMillis() - m_packageIndexCreated > INCLUDE_URL_REFRESH_INTERVAL) {
+                    LOG.debug("getPackageIndex: refreshing the include URLs of the collectd packages");
+                    m_packageIndex = createPackageIndex(m_collectdConfig);
+                    m_packageIndexCreated = System.currentTimeMillis();
+                }
+            }
+        }
+        return m_packageIndex;
+    }
+
     /**
      * Reload the config from the default config file
      *
@@ -340,7 +424,7 @@ public class CollectdConfigFactory implements org.opennms.netmgt.config.api.Coll
         LOG.debug("interfaceInFilter: package is {}. filter rules are {}", pkg.getName(), filterRules);
         try {
             ipList = FilterDaoFactory.getInstance().getActiveIPAddressList(filterRules);
-            filterPassed = ipList.contains(ifaceAddress);
+            filterPassed = getFilterMatches(pkg, ipList).contains(ifaceAddress);
             if (!filterPassed) {
                 LOG.debug("interfaceInFilter: Interface {} passed filter for package {}?: false", iface, pkg.getName());
             }
@@ -351,6 +435,20 @@ public class CollectdConfigFactory implements org.opennms.netmgt.config.api.Coll
         return filterPassed;
     }
 
+    /**
+     * Returns the set of addresses in the given filter result. The set is reused for
+     * as long as the filter DAO keeps returning the same (cached) list.
+     */
+    private Set<InetAddress> getFilterMatches(final Package pkg, final List<InetAddress> ipList) {
+        final FilterMatches matches = m_filterMatches.get(pkg.getName());
+        if (matches != null && matches.m_ipList == ipList) {
+            return matches.m_addresses;
+        }
+        final FilterMatches newMatches = new FilterMatches(ipList);
+        m_filterMatches.put(pkg.getName(), newMatches);
+        return newMatches.m_addresses;
+    }
+
     /**
      * This method is used to determine if the named interface is included in
      * the passed package definition. If the interface belongs to the package
@@ -380,15 +478,22 @@ public class CollectdConfigFactory implements org.opennms.netmgt.config.api.Coll
         // that it is in the include range and is not excluded
         //
 
-        byte[] addr = toIpAddrBytes(iface);
+        final boolean packagePassed;
+        final PackageMembershipIndex<Package> index = getPackageIndex();
+        if (index != null && index.isIndexed(pkg)) {
+            packagePassed = index.contains(addr(iface), pkg);
+        } else {
+            // The package was added to the configuration after it was loaded
+            byte[] addr = toIpAddrBytes(iface);
 
-        boolean has_range_include = pkg.hasIncludeRange(iface);
-        boolean has_specific = pkg.hasSpecific(addr);
+            boolean has_range_include = pkg.hasIncludeRange(iface);
+            boolean has_specific = pkg.hasSpecific(addr);
 
-        has_specific = pkg.hasSpecificUrl(iface, has_specific);
-        boolean has_range_exclude = pkg.hasExcludeRange(iface);
+            has_specific = pkg.hasSpecificUrl(iface, has_specific);
+            boolean has_range_exclude = pkg.hasExcludeRange(iface);
 
-        boolean packagePassed = has_specific || (has_range_include && !has_range_exclude);
+            packagePassed = has_specific || (has_range_include && !has_range_exclude);
+        }
         if(packagePassed) {
             LOG.info("interfaceInPackage: Interface {} passed filter and specific/range for package {}?: {}", iface, pkg.getName(), packagePassed);
         } else {
@@ -414,4 +519,14 @@ public class CollectdConfigFactory implements org.opennms.netmgt.config.api.Coll
     public boolean interfaceInPackage(final OnmsIpInterface iface, Package pkg) {
         return interfaceInPackage(iface.getIpAddressAsString(), pkg);
     }
+
+    private static class FilterMatches {
+        private final List<InetAddress> m_ipList;
+        private final Set<InetAddress> m_addresses;
+
+        private FilterMatches(final List<InetAddress> ipList) {
+            m_ipList = ipList;
+            m_addresses = new HashSet<InetAddress>(ipList);
+        }
+    }
 }
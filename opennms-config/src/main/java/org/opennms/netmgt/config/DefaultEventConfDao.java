@@ -42,6 +42,7 @@ import java.util.TreeSet;
 import org.opennms.core.xml.JaxbUtils;
 import org.opennms.netmgt.config.api.EventConfDao;
 import org.opennms.netmgt.xml.eventconf.Event;
+import org.opennms.netmgt.xml.eventconf.EventDecisionTree;
 import org.opennms.netmgt.xml.eventconf.EventLabelComparator;
 import org.opennms.netmgt.xml.eventconf.EventMatchers;
 import org.opennms.netmgt.xml.eventconf.EventOrdering;
@@ -66,6 +67,12 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 
 	private Events m_events;
 
+	/**
+	 * Decision tree compiled from {@link #m_events} that is used to speed up
+	 * {@link #findByEvent(org.opennms.netmgt.xml.event.Event)}.
+	 */
+	private volatile EventDecisionTree m_decisionTree;
+
 	private Resource m_configResource;
 
 	private Partition m_partition;
@@ -176,7 +183,7 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 	@Override
 	public void addEvent(Event event) {
 		m_events.addEvent(event);
-		m_events.initialize(m_partition, new EventOrdering());
+		initializeEvents(m_events);
 	}
 
 	@Override
@@ -188,7 +195,7 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 		}
 
 		programmaticEvents.addEvent(event);
-		m_events.initialize(m_partition, new EventOrdering());
+		initializeEvents(m_events);
 
 	}
 
@@ -202,7 +209,7 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 			m_events.removeLoadedEventFile(m_programmaticStoreRelativePath);
 		} 
 
-		m_events.initialize(m_partition, new EventOrdering());
+		initializeEvents(m_events);
 
 		return true;
 
@@ -227,7 +234,7 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 
 	@Override
 	public Event findByEvent(final org.opennms.netmgt.xml.event.Event matchingEvent) {
-		return m_events.findFirstMatchingEvent(matchingEvent);
+		return m_decisionTree.findFirstMatchingEvent(matchingEvent);
 	}
 
 	@Override
@@ -269,6 +276,11 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 		
 	}
 
+    private void initializeEvents(Events events) {
+        events.initialize(m_partition, new EventOrdering());
+        m_decisionTree = EventDecisionTree.compile(events);
+    }
+
     private synchronized void reloadConfig() throws DataAccessException {
         try {
             // Load the root event file
@@ -292,7 +304,7 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
             events.loadEventFilesIfModified(m_configResource, m_lastModifiedEventFiles);
 
             // Order the events for efficient searching
-            events.initialize(m_partition, new EventOrdering());
+            initializeEvents(events);
 
             m_events = events;
         } catch (Exception e) {
@@ -306,7 +318,7 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 			m_lastModifiedEventFiles = events.loadEventFiles(m_configResource);
 
 			m_partition = new EnterpriseIdPartition();
-			events.initialize(m_partition, new EventOrdering());
+			initializeEvents(events);
 
 			m_events = events;
 		} catch (Exception e) {
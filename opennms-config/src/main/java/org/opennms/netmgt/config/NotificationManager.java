@@ -817,6 +817,100 @@ public abstract class NotificationManager {
         }
     }
 
+    /**
+     * Inserts the rows of several notified users into the usersNotified table
+     * with a single connection and batch. Notices with a negative id are ignored
+     * like in {@link #updateNoticeWithUserInfo(String, int, String, String, String)}.
+     *
+     * @param userNotifications the rows to insert
+     * @throws java.sql.SQLException if any.
+     * @throws java.io.IOException if any.
+     * @throws org.exolab.castor.xml.ValidationException if any.
+     * @throws org.exolab.castor.xml.MarshalException if any.
+     */
+    public void updateNoticesWithUserInfo(final List<UserNotification> userNotifications) throws SQLException, MarshalException, ValidationException, IOException {
+        final String nextIdSql = m_configManager.getNextUserNotifIdSql();
+        final DBUtils d = new DBUtils(getClass());
+        try {
+            final Connection connection = getConnection();
+            d.watch(connection);
+            final Statement nextId = connection.createStatement();
+            d.watch(nextId);
+            final PreparedStatement insert = connection.prepareStatement("INSERT INTO usersNotified (id, userid, notifyid, notifytime, media, contactinfo, autonotify) values (?,?,?,?,?,?,?)");
+            d.watch(insert);
+
+            int rows = 0;
+            for (final UserNotification userNotification : userNotifications) {
+                if (userNotification.getNoticeId() < 0) continue;
+                final ResultSet results = nextId.executeQuery(nextIdSql);
+                d.watch(results);
+                results.next();
+                final int userNotifId = results.getInt(1);
+                LOG.debug("updating usersnotified: ID = {} User = {}, notice ID = {}, contactinfo = {}, media = {}, autoNotify = {}", userNotifId, userNotification.getUserId(), userNotification.getNoticeId(), userNotification.getContactInfo(), userNotification.getMedia(), userNotification.getAutoNotify());
+
+                insert.setInt(1, userNotifId);
+                insert.setString(2, userNotification.getUserId());
+                insert.setInt(3, userNotification.getNoticeId());
+                insert.setTimestamp(4, new Timestamp(userNotification.getNotifyTime()));
+                insert.setString(5, userNotification.getMedia());
+                insert.setString(6, userNotification.getContactInfo());
+                insert.setString(7, userNotification.getAutoNotify());
+                insert.addBatch();
+                rows++;
+            }
+            if (rows > 0) {
+                insert.executeBatch();
+            }
+        } finally {
+            d.cleanUp();
+        }
+    }
+
+    /**
+     * A row of the usersNotified table.
+     */
+    public static final class UserNotification {
+        private final String m_userId;
+        private final int m_noticeId;
+        private final String m_media;
+        private final String m_contactInfo;
+        private final String m_autoNotify;
+        private final long m_notifyTime;
+
+        public UserNotification(final String userId, final int noticeId, final String media, final String contactInfo, final String autoNotify, final long notifyTime) {
+            m_userId = userId;
+            m_noticeId = noticeId;
+            m_media = media;
+            m_contactInfo = contactInfo;
+            m_autoNotify = autoNotify;
+            m_notifyTime = notifyTime;
+        }
+
+        public String getUserId() {
+            return m_userId;
+        }
+
+        public int getNoticeId() {
+            return m_noticeId;
+        }
+
+        public String getMedia() {
+            return m_media;
+        }
+
+        public String getContactInfo() {
+            return m_contactInfo;
+        }
+
+        public String getAutoNotify() {
+            return m_autoNotify;
+        }
+
+        public long getNotifyTime() {
+            return m_notifyTime;
+        }
+    }
+
     /**
      * This method inserts a row into the notifications table in the database.
      * This row indicates that the page has been sent out.
@@ -0,0 +1,340 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.config;
+
+import static org.opennms.core.utils.InetAddressUtils.addr;
+import static org.opennms.core.utils.InetAddressUtils.toIpAddrBytes;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.opennms.core.utils.ByteArrayComparator;
+
+/**
+ * Index used to determine which packages of a daemon configuration
+ * include a given interface address.
+ *
+ * An address is part of a package when it matches the package's filter, and it is
+ * either listed as a specific (or in one of the include URLs), or falls within one
+ * of the include ranges without falling within one of the exclude ranges.
+ *
+ * The include and exclude ranges of all the packages are split into disjoint
+ * intervals, each of which is associated with the set of packages whose ranges
+ * cover it. This allows an address to be checked against every package with a single
+ * binary search, instead of scanning the ranges of every package in turn.
+ *
+ * Instances are immutable and safe to share between threads. Use the {@link Builder}
+ * to create them.
+ *
+ * @param <P> the package type
+ */
+public class PackageMembershipIndex<P> {
+
+    private static final ByteArrayComparator COMPARATOR = new ByteArrayComparator();
+
+    private static final BitSet EMPTY = new BitSet();
+
+    private final List<P> m_packages;
+
+    private final Map<P, Integer> m_packageIds;
+
+    /**
+     * Packages that don't define any ranges or specifics, and include all addresses.
+     */
+    private final BitSet m_includeAll;
+
+    /**
+     * Packages for which filter matches were indexed.
+     */
+    private final BitSet m_filtered;
+
+    private final Map<InetAddress, BitSet> m_filterMatches;
+
+    private final Map<InetAddress, BitSet> m_specifics;
+
+    /**
+     * Sorted lower bounds of the disjoint intervals. The interval at index i
+     * includes all of the addresses in [m_boundaries[i], m_boundaries[i+1]).
+     */
+    private final byte[][] m_boundaries;
+
+    private final BitSet[] m_includes;
+
+    private final BitSet[] m_excludes;
+
+    private PackageMembershipIndex(Builder<P> builder) {
+        m_packages = Collections.unmodifiableList(new ArrayList<P>(builder.m_packages));
+        m_packageIds = new IdentityHashMap<P, Integer>();
+        for (int i = 0; i < m_packages.size(); i++) {
+            m_packageIds.put(m_packages.get(i), i);
+        }
+        m_includeAll = builder.m_includeAll;
+        m_filtered = builder.m_filtered;
+        m_filterMatches = builder.m_filterMatches;
+        m_specifics = builder.m_specifics;
+
+        // Every range contributes its first address, and the address following its last address as boundaries
+        final TreeSet<byte[]> boundaries = new TreeSet<byte[]>(COMPARATOR);
+        for (final Range range : builder.m_ranges) {
+            boundaries.add(range.m_begin);
+            if (range.m_endExclusive != null) {
+                boundaries.add(range.m_endExclusive);
+            }
+        }
+        m_boundaries = boundaries.toArray(new byte[boundaries.size()][]);
+        m_includes = new BitSet[m_boundaries.length];
+        m_excludes = new BitSet[m_boundaries.length];
+        for (int i = 0; i < m_boundaries.length; i++) {
+            m_includes[i] = new BitSet();
+            m_excludes[i] = new BitSet();
+        }
+
+        for (final Range range : builder.m_ranges) {
+            final int first = Arrays.binarySearch(m_boundaries, range.m_begin, COMPARATOR);
+            final int last = range.m_endExclusive == null ? m_boundaries.length : Arrays.binarySearch(m_boundaries, range.m_endExclusive, COMPARATOR);
+            final BitSet[] intervals = range.m_include ? m_includes : m_excludes;
+            for (int i = first; i < last; i++) {
+                intervals[i].set(range.m_packageId);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the given package was part of the configuration
+     * when the index was built.
+     */
+    public boolean isIndexed(final P pkg) {
+        return getPackageId(pkg) >= 0;
+    }
+
+    /**
+     * Determines whether the given address is part of the given package.
+     *
+     * If no filter matches were indexed for the package, then
+     * the filter must be evaluated by the caller.
+     *
+     * @throws IllegalArgumentException if the package is not indexed
+     */
+    public boolean contains(final InetAddress addr, final P pkg) {
+        final int id = getPackageId(pkg);
+        if (id < 0) {
+            throw new IllegalArgumentException("Package is not indexed: " + pkg);
+        }
+        if (addr == null) {
+            return false;
+        }
+        if (m_filtered.get(id) && !get(m_filterMatches, addr).get(id)) {
+            return false;
+        }
+        if (get(m_specifics, addr).get(id)) {
+            return true;
+        }
+        final int interval = getInterval(addr.getAddress());
+        final boolean included = m_includeAll.get(id) || (interval >= 0 && m_includes[interval].get(id));
+        return included && !(interval >= 0 && m_excludes[interval].get(id));
+    }
+
+    /**
+     * Returns all of the packages that include the given address, in configuration order.
+     */
+    public List<P> getPackages(final InetAddress addr) {
+        if (addr == null) {
+            return Collections.emptyList();
+        }
+
+        final BitSet matches = (BitSet)m_includeAll.clone();
+        final int interval = getInterval(addr.getAddress());
+        if (interval >= 0) {
+            matches.or(m_includes[interval]);
+            matches.andNot(m_excludes[interval]);
+        }
+        matches.or(get(m_specifics, addr));
+
+        // Only keep the packages whose filter passed, or that weren't filtered
+        final BitSet filterPassed = (BitSet)m_filtered.clone();
+        filterPassed.flip(0, m_packages.size());
+        filterPassed.or(get(m_filterMatches, addr));
+        matches.and(filterPassed);
+
+        final List<P> packages = new ArrayList<P>(matches.cardinality());
+        for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+            packages.add(m_packages.get(i));
+        }
+        return packages;
+    }
+
+    public List<P> getPackages() {
+        return m_packages;
+    }
+
+    private int getPackageId(final P pkg) {
+        final Integer id = m_packageIds.get(pkg);
+        if (id != null) {
+            return id;
+        }
+        // Fall back to equality for copies of the indexed packages
+        return m_packages.indexOf(pkg);
+    }
+
+    /**
+     * Returns the index of the interval which contains the given address,
+     * or -1 if the address comes before all of the ranges.
+     */
+    private int getInterval(final byte[] addr) {
+        final int idx = Arrays.binarySearch(m_boundaries, addr, COMPARATOR);
+        return idx >= 0 ? idx : -(idx + 1) - 1;
+    }
+
+    private static BitSet get(final Map<InetAddress, BitSet> map, final InetAddress addr) {
+        final BitSet bits = map.get(addr);
+        return bits != null ? bits : EMPTY;
+    }
+
+    private static class Range {
+        private final int m_packageId;
+        private final boolean m_include;
+        private final byte[] m_begin;
+        private final byte[] m_endExclusive;
+
+        private Range(final int packageId, final boolean include, final byte[] begin, final byte[] endExclusive) {
+            m_packageId = packageId;
+            m_include = include;
+            m_begin = begin;
+            m_endExclusive = endExclusive;
+        }
+    }
+
+    /**
+     * Builds a {@link PackageMembershipIndex}. Ranges, specifics and filter matches
+     * apply to the package that was most recently added.
+     */
+    public static class Builder<P> {
+        private final List<P> m_packages = new ArrayList<P>();
+        private final BitSet m_includeAll = new BitSet();
+        private final BitSet m_filtered = new BitSet();
+        private final Map<InetAddress, BitSet> m_filterMatches = new HashMap<InetAddress, BitSet>();
+        private final Map<InetAddress, BitSet> m_specifics = new HashMap<InetAddress, BitSet>();
+        private final List<Range> m_ranges = new ArrayList<Range>();
+
+        /**
+         * Adds a package to the index.
+         *
+         * @param includeAll true if the package includes all addresses that pass its filter,
+         *   and are not excluded, i.e. when no include ranges or specifics are defined
+         */
+        public Builder<P> addPackage(final P pkg, final boolean includeAll) {
+            m_packages.add(pkg);
+            if (includeAll) {
+                m_includeAll.set(currentPackageId());
+            }
+            return this;
+        }
+
+        /**
+         * Sets the addresses which matched the filter of the current package.
+         */
+        public Builder<P> filterMatches(final Collection<InetAddress> addrs) {
+            final int id = currentPackageId();
+            m_filtered.set(id);
+            for (final InetAddress addr : addrs) {
+                set(m_filterMatches, addr, id);
+            }
+            return this;
+        }
+
+        public Builder<P> specific(final String specific) {
+            final InetAddress addr = addr(specific);
+            if (addr != null) {
+                set(m_specifics, addr, currentPackageId());
+            }
+            return this;
+        }
+
+        public Builder<P> includeRange(final String begin, final String end) {
+            return range(true, begin, end);
+        }
+
+        public Builder<P> excludeRange(final String begin, final String end) {
+            return range(false, begin, end);
+        }
+
+        public PackageMembershipIndex<P> build() {
+            return new PackageMembershipIndex<P>(this);
+        }
+
+        private Builder<P> range(final boolean include, final String begin, final String end) {
+            final byte[] beginBytes = toIpAddrBytes(begin);
+            final byte[] endBytes = toIpAddrBytes(end);
+            if (COMPARATOR.compare(beginBytes, endBytes) <= 0) {
+                m_ranges.add(new Range(currentPackageId(), include, beginBytes, successor(endBytes)));
+            }
+            return this;
+        }
+
+        private int currentPackageId() {
+            if (m_packages.isEmpty()) {
+                throw new IllegalStateException("No package was added.");
+            }
+            return m_packages.size() - 1;
+        }
+
+        private static void set(final Map<InetAddress, BitSet> map, final InetAddress addr, final int id) {
+            BitSet bits = map.get(addr);
+            if (bits == null) {
+                bits = new BitSet();
+                map.put(addr, bits);
+            }
+            bits.set(id);
+        }
+
+        /**
+         * Returns the address that immediately follows the given address, or null
+         * if it is the last IPv6 address. Since shorter addresses sort first, the
+         * last IPv4 address is followed by the first IPv6 address.
+         */
+        private static byte[] successor(final byte[] addr) {
+            final byte[] next = addr.clone();
+            for (int i = next.length - 1; i >= 0; i--) {
+                if (++next[i] != 0) {
+                    return next;
+                }
+            }
+            return next.length == 4 ? new byte[16] : null;
+        }
+    }
+}
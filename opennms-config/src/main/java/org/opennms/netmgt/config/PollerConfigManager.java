@@ -29,7 +29,6 @@
 package org.opennms.netmgt.config;
 
 import static org.opennms.core.utils.InetAddressUtils.addr;
-import static org.opennms.core.utils.InetAddressUtils.toIpAddrBytes;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -52,7 +51,6 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.commons.io.IOUtils;
 import org.opennms.core.network.IpListFromUrl;
-import org.opennms.core.utils.ByteArrayComparator;
 import org.opennms.core.xml.JaxbUtils;
 import org.opennms.core.xml.MarshallingResourceFailureException;
 import org.opennms.netmgt.config.poller.CriticalService;
@@ -153,10 +151,11 @@ abstract public class PollerConfigManager implements PollerConfig {
      */
     private Map<String, List<String>> m_urlIPMap;
     /**
-     * A mapping of the configured package to a list of IPs selected via filter
-     * rules, so as to avoid repetitive database access.
+     * An index of the configured packages, their ranges, specifics and
+     * the IPs selected via filter rules, so as to avoid repetitive database
+     * access and scanning every package when matching interfaces.
      */
-    private AtomicReference<Map<Package, List<InetAddress>>> m_pkgIpMap = new AtomicReference<Map<Package, List<InetAddress>>>();;
+    private AtomicReference<PackageMembershipIndex<Package>> m_packageIndex = new AtomicReference<PackageMembershipIndex<Package>>(new PackageMembershipIndex.Builder<Package>().build());
     /**
      * A mapp of service names to service monitors. Constructed based on data in
      * the configuration file.
@@ -283,46 +282,6 @@ abstract public class PollerConfigManager implements PollerConfig {
         }
     }
 
-    /**
-     * This method is used to determine if the named interface is included in
-     * the passed package's url includes. If the interface is found in any of
-     * the URL files, then a value of true is returned, else a false value is
-     * returned.
-     * 
-     * <pre>
-     * 
-     *  The file URL is read and each entry in this file checked. Each line
-     *   in the URL file can be one of -
-     *   &lt;IP&gt;&lt;space&gt;#&lt;comments&gt;
-     *   or
-     *   &lt;IP&gt;
-     *   or
-     *   #&lt;comments&gt;
-     *  
-     *   Lines starting with a '#' are ignored and so are characters after
-     *   a '&lt;space&gt;#' in a line.
-     *  
-     * </pre>
-     * 
-     * @param addr
-     *            The interface to test against the package's URL
-     * @param url
-     *            The url file to read
-     * 
-     * @return True if the interface is included in the url, false otherwise.
-     */
-    private boolean interfaceInUrl(final String addr, final String url) {
-        boolean bRet = false;
-    
-        // get list of IPs in this URL
-        final List<String> iplist = m_urlIPMap.get(url);
-        if (iplist != null && iplist.size() > 0) {
-            bRet = iplist.contains(addr);
-        }
-    
-        return bRet;
-    }
-
     /**
      * This method returns the boolean flag pathOutageEnabled to indicate if
      * path outage processing on nodeDown events is enabled
@@ -423,28 +382,49 @@ abstract public class PollerConfigManager implements PollerConfig {
         getReadLock().lock();
         
         try {
-            Map<Package, List<InetAddress>> pkgIpMap = new HashMap<Package, List<InetAddress>>();
+            final PackageMembershipIndex.Builder<Package> indexBuilder = new PackageMembershipIndex.Builder<Package>();
             
             for(final Package pkg : packages()) {
+                // If there are NO include ranges then treat act as if the user include
+                // the range of all valid addresses (0.0.0.0 - 255.255.255.255, ::1 - ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff)
+                indexBuilder.addPackage(pkg, pkg.getIncludeRanges().size() == 0 && pkg.getSpecifics().size() == 0 && pkg.getIncludeUrls().size() == 0);
         
                 // Get a list of ipaddress per package against the filter rules from
-                // database and populate the package, IP list map.
+                // database and populate the package index.
                 //
                 try {
                     List<InetAddress> ipList = getIpList(pkg);
                     LOG.debug("createPackageIpMap: package {}: ipList size = {}", pkg.getName(), ipList.size());
-        
-                    if (ipList.size() > 0) {
-                        pkgIpMap.put(pkg, ipList);
-                    }
-                    
+                    indexBuilder.filterMatches(ipList);
                 } catch (final Throwable t) {
                     LOG.error("createPackageIpMap: failed to map package: {} to an IP List with filter \"{}\"", pkg.getName(), pkg.getFilter().getContent(), t);
+                    indexBuilder.filterMatches(Collections.<InetAddress>emptyList());
+                }
+
+                try {
+                    for (final IncludeRange rng : pkg.getIncludeRanges()) {
+                        indexBuilder.includeRange(rng.getBegin(), rng.getEnd());
+                    }
+                    for (final ExcludeRange rng : pkg.getExcludeRanges()) {
+                        indexBuilder.excludeRange(rng.getBegin(), rng.getEnd());
+                    }
+                    for (final String spec : pkg.getSpecifics()) {
+                        indexBuilder.specific(spec);
+                    }
+                    for (final String includeUrl : pkg.getIncludeUrls()) {
+                        final List<String> iplist = m_urlIPMap.get(includeUrl);
+                        if (iplist != null) {
+                            for (final String addr : iplist) {
+                                indexBuilder.specific(addr);
+                            }
+                        }
+                    }
+                } catch (final Throwable t) {
+                    LOG.error("createPackageIpMap: failed to index the ranges and specifics of package: {}", pkg.getName(), t);
                 }
-                
             }
             
-            m_pkgIpMap.set(pkgIpMap);
+            m_packageIndex.set(indexBuilder.build());
             
         } finally {
             getReadLock().unlock();
@@ -497,82 +477,24 @@ abstract public class PollerConfigManager implements PollerConfig {
      */
     @Override
     public boolean isInterfaceInPackage(final String iface, final Package pkg) {
-        boolean filterPassed = false;
-        final InetAddress ifaceAddr = addr(iface);
-    
-        // get list of IPs in this package
-        final List<InetAddress> ipList = m_pkgIpMap.get().get(pkg);
-        if (ipList != null && ipList.size() > 0) {
-			filterPassed = ipList.contains(ifaceAddr);
+        final PackageMembershipIndex<Package> index = m_packageIndex.get();
+        if (!index.isIndexed(pkg)) {
+            // The package was added after the package IP list map was last built
+            LOG.debug("interfaceInPackage: Package {} has not been mapped to an IP list yet.", pkg.getName());
+            return false;
         }
 
-        LOG.debug("interfaceInPackage: Interface {} passed filter for package {}?: {}", iface, pkg.getName(), Boolean.valueOf(filterPassed));
-    
-        if (!filterPassed) return false;
-    
-        //
-        // Ensure that the interface is in the specific list or
-        // that it is in the include range and is not excluded
-        //
-        boolean has_specific = false;
-        boolean has_range_include = false;
-        boolean has_range_exclude = false;
- 
-        // if there are NO include ranges then treat act as if the user include
-        // the range of all valid addresses (0.0.0.0 - 255.255.255.255, ::1 - ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff)
-        has_range_include = pkg.getIncludeRanges().size() == 0 && pkg.getSpecifics().size() == 0 && pkg.getIncludeUrls().size() == 0;
-        
-        final byte[] addr = toIpAddrBytes(iface);
-
-        for (final IncludeRange rng : pkg.getIncludeRanges()) {
-            int comparison = new ByteArrayComparator().compare(addr, toIpAddrBytes(rng.getBegin()));
-            if (comparison > 0) {
-                int endComparison = new ByteArrayComparator().compare(addr, toIpAddrBytes(rng.getEnd()));
-                if (endComparison <= 0) {
-                    has_range_include = true;
-                    break;
-                }
-            } else if (comparison == 0) {
-                has_range_include = true;
-                break;
-            }
-        }
-
-        for (final String spec : pkg.getSpecifics()) {
-            if (new ByteArrayComparator().compare(addr, toIpAddrBytes(spec)) == 0) {
-                has_specific = true;
-                LOG.debug("interfaceInPackage: Interface {} defined as 'specific'", iface);
-                break;
-            }
-        }
-    
-        for (final String includeUrl : pkg.getIncludeUrls()) {
-            if (interfaceInUrl(iface, includeUrl)) {
-                has_specific = true;
-                LOG.debug("interfaceInPackage: Interface {} exist on {}", iface, includeUrl);
-                break;
-            }
-        }
-
-        if (!has_specific) {
-            for (final ExcludeRange rng : pkg.getExcludeRanges()) {
-                int comparison = new ByteArrayComparator().compare(addr, toIpAddrBytes(rng.getBegin()));
-                if (comparison > 0) {
-                    int endComparison = new ByteArrayComparator().compare(addr, toIpAddrBytes(rng.getEnd()));
-                    if (endComparison <= 0) {
-                        LOG.debug("interfaceInPackage: Interface {} matches an exclude range", iface);
-                        has_range_exclude = true;
-                        break;
-                    }
-                } else if (comparison == 0) {
-                    LOG.debug("interfaceInPackage: Interface {} matches an exclude range", iface);
-                    has_range_exclude = true;
-                    break;
-                }
-            }
-        }
+        final boolean inPackage = index.contains(addr(iface), pkg);
+        LOG.debug("interfaceInPackage: Interface {} passed filter and specific/range for package {}?: {}", iface, pkg.getName(), Boolean.valueOf(inPackage));
+        return inPackage;
+    }
 
-        return has_specific || (has_range_include && !has_range_exclude);
+    /**
+     * Returns the packages that include the given interface, in the order
+     * in which they are configured.
+     */
+    private List<Package> matchingPackages(final String ipaddr) {
+        return m_packageIndex.get().getPackages(addr(ipaddr));
     }
 
     /**
@@ -659,10 +581,9 @@ abstract public class PollerConfigManager implements PollerConfig {
     public Package getFirstPackageMatch(final String ipaddr) {
         try {
             getReadLock().lock();
-            for(final Package pkg : packages()) {
-                if (isInterfaceInPackage(ipaddr, pkg)) {
-                    return pkg;
-                }
+            final List<Package> matches = matchingPackages(ipaddr);
+            if (!matches.isEmpty()) {
+                return matches.get(0);
             }
         } finally {
             getReadLock().unlock();
@@ -675,8 +596,8 @@ abstract public class PollerConfigManager implements PollerConfig {
     public Package getFirstLocalPackageMatch(final String ipaddr) {
         try {
             getReadLock().lock();
-            for(final Package pkg : packages()) {
-                if (!pkg.getRemote() && isInterfaceInPackage(ipaddr, pkg)) {
+            for(final Package pkg : matchingPackages(ipaddr)) {
+                if (!pkg.getRemote()) {
                     return pkg;
                 }
             }
@@ -700,11 +621,8 @@ abstract public class PollerConfigManager implements PollerConfig {
 
         try {
             getReadLock().lock();
-            for (final Package pkg : packages()) {
-                if (isInterfaceInPackage(ipaddr, pkg)) {
-                    matchingPkgs.add(pkg.getName());
-                }
-    
+            for (final Package pkg : matchingPackages(ipaddr)) {
+                matchingPkgs.add(pkg.getName());
             }
         } finally {
             getReadLock().unlock();
@@ -724,9 +642,7 @@ abstract public class PollerConfigManager implements PollerConfig {
     public boolean isPolled(final String ipaddr) {
         try {
             getReadLock().lock();
-            for(final Package pkg : packages()) {
-                if (isInterfaceInPackage(ipaddr, pkg)) return true;
-            }
+            if (!matchingPackages(ipaddr).isEmpty()) return true;
         } finally {
             getReadLock().unlock();
         }
@@ -738,8 +654,8 @@ abstract public class PollerConfigManager implements PollerConfig {
     public boolean isPolledLocally(final String ipaddr) {
         try {
             getReadLock().lock();
-            for(final Package pkg : packages()) {
-                if (!pkg.getRemote() && isInterfaceInPackage(ipaddr, pkg)) {
+            for(final Package pkg : matchingPackages(ipaddr)) {
+                if (!pkg.getRemote()) {
                     return true;
                 }
             }
@@ -788,8 +704,8 @@ abstract public class PollerConfigManager implements PollerConfig {
             if (!isServiceMonitored(svcName)) {
                 return false;
             }
-            for(final Package pkg : packages()) {
-                if (isServiceInPackageAndEnabled(svcName, pkg) && isInterfaceInPackage(ipaddr, pkg)) {
+            for(final Package pkg : matchingPackages(ipaddr)) {
+                if (isServiceInPackageAndEnabled(svcName, pkg)) {
                     return true;
                 }
             }
@@ -807,8 +723,8 @@ abstract public class PollerConfigManager implements PollerConfig {
             if (!isServiceMonitored(svcName)) {
                 return false;
             }
-            for(final Package pkg : packages()) {
-                if (isServiceInPackageAndEnabled(svcName, pkg) && isInterfaceInPackage(ipaddr, pkg)) {
+            for(final Package pkg : matchingPackages(ipaddr)) {
+                if (isServiceInPackageAndEnabled(svcName, pkg)) {
                     return true;
                 }
             }
@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.filter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The filter columns that are indexed by the {@link InMemoryFilterDao}.
+ *
+ * Each column belongs to the table that database-schema.xml maps it to, and the
+ * table determines which join a rule that references the column implies. Rules
+ * that use any other column are handed to the {@link JdbcFilterDao}.
+ */
+enum FilterColumn {
+    NODE_ID(Table.NODE, "nodeID", true),
+    NODE_TYPE(Table.NODE, "nodeType", false),
+    NODE_SYS_OID(Table.NODE, "nodeSysOID", false),
+    NODE_SYS_NAME(Table.NODE, "nodeSysName", false),
+    NODE_SYS_DESCRIPTION(Table.NODE, "nodeSysDescription", false),
+    NODE_SYS_LOCATION(Table.NODE, "nodeSysLocation", false),
+    NODE_SYS_CONTACT(Table.NODE, "nodeSysContact", false),
+    NODE_LABEL(Table.NODE, "nodeLabel", false),
+    FOREIGN_SOURCE(Table.NODE, "foreignSource", false),
+    FOREIGN_ID(Table.NODE, "foreignID", false),
+    LOCATION(Table.NODE, "location", false),
+
+    DISPLAY_CATEGORY(Table.ASSETS, "displayCategory", false),
+    NOTIFY_CATEGORY(Table.ASSETS, "notifyCategory", false),
+    POLLER_CATEGORY(Table.ASSETS, "pollerCategory", false),
+    THRESHOLD_CATEGORY(Table.ASSETS, "thresholdCategory", false),
+    MANUFACTURER(Table.ASSETS, "manufacturer", false),
+    VENDOR(Table.ASSETS, "vendor", false),
+    MODEL_NUMBER(Table.ASSETS, "modelNumber", false),
+    SERIAL_NUMBER(Table.ASSETS, "serialNumber", false),
+    REGION(Table.ASSETS, "region", false),
+    DIVISION(Table.ASSETS, "division", false),
+    DEPARTMENT(Table.ASSETS, "department", false),
+    BUILDING(Table.ASSETS, "building", false),
+    CITY(Table.ASSETS, "city", false),
+    STATE(Table.ASSETS, "state", false),
+    COUNTRY(Table.ASSETS, "country", false),
+
+    IP_ADDR(Table.IP_INTERFACE, "ipAddr", false),
+    IP_HOSTNAME(Table.IP_INTERFACE, "ipHostname", false),
+
+    SNMP_IF_INDEX(Table.SNMP_INTERFACE, "snmpIfIndex", true),
+    SNMP_IF_DESCR(Table.SNMP_INTERFACE, "snmpIfDescr", false),
+    SNMP_IF_TYPE(Table.SNMP_INTERFACE, "snmpIfType", true),
+    SNMP_IF_SPEED(Table.SNMP_INTERFACE, "snmpIfSpeed", true),
+    SNMP_IF_ALIAS(Table.SNMP_INTERFACE, "snmpIfAlias", false),
+    SNMP_IF_ADMIN_STATUS(Table.SNMP_INTERFACE, "snmpIfAdminStatus", true),
+    SNMP_IF_OPER_STATUS(Table.SNMP_INTERFACE, "snmpIfOperStatus", true),
+    SNMP_PHYS_ADDR(Table.SNMP_INTERFACE, "snmpPhysAddr", false),
+
+    SERVICE_NAME(Table.SERVICE, "serviceName", false),
+
+    CATEGORY_NAME(Table.CATEGORY, "categoryName", false);
+
+    /**
+     * The tables of the filter joins, in the order used to load the snapshot.
+     */
+    enum Table {
+        NODE("node"),
+        ASSETS("assets"),
+        IP_INTERFACE("ipInterface"),
+        SNMP_INTERFACE("snmpInterface"),
+        SERVICE("service"),
+        CATEGORY("categories");
+
+        private final String m_tableName;
+
+        private Table(final String tableName) {
+            m_tableName = tableName;
+        }
+
+        public String getTableName() {
+            return m_tableName;
+        }
+    }
+
+    private static final Map<Table, List<FilterColumn>> s_columnsByTable = new EnumMap<Table, List<FilterColumn>>(Table.class);
+
+    static {
+        for (final Table table : Table.values()) {
+            s_columnsByTable.put(table, new ArrayList<FilterColumn>());
+        }
+        for (final FilterColumn column : values()) {
+            final List<FilterColumn> columns = s_columnsByTable.get(column.m_table);
+            column.m_index = columns.size();
+            columns.add(column);
+        }
+        for (final Table table : Table.values()) {
+            s_columnsByTable.put(table, Collections.unmodifiableList(s_columnsByTable.get(table)));
+        }
+    }
+
+    private final Table m_table;
+    private final String m_columnName;
+    private final boolean m_numeric;
+    private int m_index;
+
+    private FilterColumn(final Table table, final String columnName, final boolean numeric) {
+        m_table = table;
+        m_columnName = columnName;
+        m_numeric = numeric;
+    }
+
+    public Table getTable() {
+        return m_table;
+    }
+
+    public String getColumnName() {
+        return m_columnName;
+    }
+
+    /**
+     * @return the fully qualified column name, as used in the SQL that loads the snapshot
+     */
+    public String getQualifiedName() {
+        return m_table.getTableName() + "." + m_columnName;
+    }
+
+    /**
+     * @return true if the column holds integers, which are stored as {@link Long}s, false if it holds strings
+     */
+    public boolean isNumeric() {
+        return m_numeric;
+    }
+
+    /**
+     * @return the position of the column's value within the values of its table
+     */
+    public int getIndex() {
+        return m_index;
+    }
+
+    public static List<FilterColumn> getColumns(final Table table) {
+        return s_columnsByTable.get(table);
+    }
+
+    /**
+     * Column names are matched ignoring case, like {@link org.opennms.netmgt.config.DatabaseSchemaConfigFactory#addColumn} does.
+     *
+     * @return the column, or null if the column isn't indexed
+     */
+    public static FilterColumn forName(final String columnName) {
+        for (final FilterColumn column : values()) {
+            if (column.m_columnName.equalsIgnoreCase(columnName)) {
+                return column;
+            }
+        }
+        return null;
+    }
+}
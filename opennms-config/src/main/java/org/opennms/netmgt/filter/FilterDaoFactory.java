@@ -65,11 +65,18 @@ public class FilterDaoFactory {
     /**
      * <p>setInstance</p>
      *
+     * When the {@value InMemoryFilterDao#ENABLED_PROPERTY} system property is true,
+     * the filter DAO is wrapped in an {@link InMemoryFilterDao}.
+     *
      * @param filterDao a {@link org.opennms.netmgt.filter.api.FilterDao} object.
      */
     public static void setInstance(final FilterDao filterDao) {
         LOG.debug("setInstance({})", filterDao);
-        m_filterDao = filterDao;
+        if (filterDao != null && !(filterDao instanceof InMemoryFilterDao) && Boolean.getBoolean(InMemoryFilterDao.ENABLED_PROPERTY)) {
+            m_filterDao = new InMemoryFilterDao(filterDao, DataSourceFactory.getInstance());
+        } else {
+            m_filterDao = filterDao;
+        }
     }
 
     /**
@@ -0,0 +1,325 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.filter;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.opennms.core.utils.IPLike;
+import org.opennms.netmgt.filter.FilterColumn.Table;
+import org.opennms.netmgt.filter.FilterSnapshot.Row;
+
+/**
+ * Predicate tree of a filter rule, as built by the {@link FilterRuleParser}.
+ *
+ * Expressions are evaluated with the three-valued logic of SQL: comparing a
+ * NULL column yields null (unknown), which propagates through NOT, and a row
+ * only matches the rule when the whole expression evaluates to true.
+ */
+abstract class FilterExpression {
+
+    /**
+     * The expression of an empty rule, which matches every row.
+     */
+    static final FilterExpression ALL = new FilterExpression() {
+        @Override
+        public Boolean evaluate(final Row row) {
+            return Boolean.TRUE;
+        }
+
+        @Override
+        protected void addTables(final Set<Table> tables) {
+        }
+    };
+
+    /**
+     * @return {@link Boolean#TRUE} or {@link Boolean#FALSE}, or null if the result is unknown
+     */
+    public abstract Boolean evaluate(Row row);
+
+    /**
+     * @return the tables that the expression references, and that therefore need to be joined
+     */
+    public Set<Table> getTables() {
+        final Set<Table> tables = EnumSet.noneOf(Table.class);
+        addTables(tables);
+        return tables;
+    }
+
+    protected abstract void addTables(Set<Table> tables);
+
+    static final class And extends FilterExpression {
+        private final List<FilterExpression> m_operands;
+
+        And(final List<FilterExpression> operands) {
+            m_operands = operands;
+        }
+
+        @Override
+        public Boolean evaluate(final Row row) {
+            Boolean result = Boolean.TRUE;
+            for (final FilterExpression operand : m_operands) {
+                final Boolean value = operand.evaluate(row);
+                if (Boolean.FALSE.equals(value)) {
+                    return Boolean.FALSE;
+                } else if (value == null) {
+                    result = null;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        protected void addTables(final Set<Table> tables) {
+            for (final FilterExpression operand : m_operands) {
+                operand.addTables(tables);
+            }
+        }
+    }
+
+    static final class Or extends FilterExpression {
+        private final List<FilterExpression> m_operands;
+
+        Or(final List<FilterExpression> operands) {
+            m_operands = operands;
+        }
+
+        @Override
+        public Boolean evaluate(final Row row) {
+            Boolean result = Boolean.FALSE;
+            for (final FilterExpression operand : m_operands) {
+                final Boolean value = operand.evaluate(row);
+                if (Boolean.TRUE.equals(value)) {
+                    return Boolean.TRUE;
+                } else if (value == null) {
+                    result = null;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        protected void addTables(final Set<Table> tables) {
+            for (final FilterExpression operand : m_operands) {
+                operand.addTables(tables);
+            }
+        }
+    }
+
+    static final class Not extends FilterExpression {
+        private final FilterExpression m_operand;
+
+        Not(final FilterExpression operand) {
+            m_operand = operand;
+        }
+
+        @Override
+        public Boolean evaluate(final Row row) {
+            final Boolean value = m_operand.evaluate(row);
+            return value == null ? null : Boolean.valueOf(!value);
+        }
+
+        @Override
+        protected void addTables(final Set<Table> tables) {
+            m_operand.addTables(tables);
+        }
+    }
+
+    /**
+     * Base class of the predicates on a single column.
+     */
+    abstract static class ColumnPredicate extends FilterExpression {
+        protected final FilterColumn m_column;
+
+        ColumnPredicate(final FilterColumn column) {
+            m_column = column;
+        }
+
+        @Override
+        public Boolean evaluate(final Row row) {
+            final Object value = row.getValue(m_column);
+            return value == null ? null : Boolean.valueOf(test(value));
+        }
+
+        /**
+         * @param value the non-null value of the column
+         */
+        protected abstract boolean test(Object value);
+
+        @Override
+        protected void addTables(final Set<Table> tables) {
+            tables.add(m_column.getTable());
+        }
+    }
+
+    static final class Comparison extends ColumnPredicate {
+        enum Operator { EQ, NE, LT, LE, GT, GE }
+
+        private final Operator m_operator;
+        private final Object m_value;
+
+        /**
+         * @param value a {@link Long} for numeric columns, otherwise a {@link String};
+         *   only equality operators are supported on strings
+         */
+        Comparison(final FilterColumn column, final Operator operator, final Object value) {
+            super(column);
+            m_operator = operator;
+            m_value = value;
+        }
+
+        @Override
+        protected boolean test(final Object value) {
+            if (m_operator == Operator.EQ) {
+                return m_value.equals(value);
+            } else if (m_operator == Operator.NE) {
+                return !m_value.equals(value);
+            }
+            final int cmp = ((Long)value).compareTo((Long)m_value);
+            switch (m_operator) {
+            case LT: return cmp < 0;
+            case LE: return cmp <= 0;
+            case GT: return cmp > 0;
+            case GE: return cmp >= 0;
+            default: throw new IllegalStateException("unknown operator " + m_operator);
+            }
+        }
+    }
+
+    static final class In extends ColumnPredicate {
+        private final Set<Object> m_values;
+        private final boolean m_negated;
+
+        In(final FilterColumn column, final Set<Object> values, final boolean negated) {
+            super(column);
+            m_values = values;
+            m_negated = negated;
+        }
+
+        @Override
+        protected boolean test(final Object value) {
+            return m_values.contains(value) != m_negated;
+        }
+    }
+
+    static final class Like extends ColumnPredicate {
+        private final Pattern m_pattern;
+        private final boolean m_negated;
+
+        Like(final FilterColumn column, final String pattern, final boolean negated) {
+            super(column);
+            m_pattern = toPattern(pattern);
+            m_negated = negated;
+        }
+
+        @Override
+        protected boolean test(final Object value) {
+            return m_pattern.matcher((String)value).matches() != m_negated;
+        }
+
+        /**
+         * Converts a SQL LIKE pattern, where '%' and '_' are wildcards and '\' escapes
+         * the next character, to a regular expression.
+         */
+        private static Pattern toPattern(final String like) {
+            final StringBuilder regex = new StringBuilder();
+            for (int i = 0; i < like.length(); i++) {
+                final char c = like.charAt(i);
+                if (c == '%') {
+                    regex.append(".*");
+                } else if (c == '_') {
+                    regex.append('.');
+                } else if (c == '\\' && i + 1 < like.length()) {
+                    regex.append(Pattern.quote(String.valueOf(like.charAt(++i))));
+                } else {
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+            return Pattern.compile(regex.toString(), Pattern.DOTALL);
+        }
+    }
+
+    static final class IpLike extends ColumnPredicate {
+        private final String m_pattern;
+
+        IpLike(final FilterColumn column, final String pattern) {
+            super(column);
+            m_pattern = pattern;
+        }
+
+        @Override
+        protected boolean test(final Object value) {
+            return IPLike.matches((String)value, m_pattern);
+        }
+    }
+
+    static final class IsNull extends FilterExpression {
+        private final FilterColumn m_column;
+        private final boolean m_negated;
+
+        IsNull(final FilterColumn column, final boolean negated) {
+            m_column = column;
+            m_negated = negated;
+        }
+
+        @Override
+        public Boolean evaluate(final Row row) {
+            return Boolean.valueOf((row.getValue(m_column) == null) != m_negated);
+        }
+
+        @Override
+        protected void addTables(final Set<Table> tables) {
+            tables.add(m_column.getTable());
+        }
+    }
+
+    /**
+     * The "catincCATEGORY" prefixed value: the node is a member of the category.
+     * Unlike a comparison on categoryName, this is a sub-select in SQL and doesn't
+     * join the categories.
+     */
+    static final class CategoryMember extends FilterExpression {
+        private final String m_categoryName;
+
+        CategoryMember(final String categoryName) {
+            m_categoryName = categoryName;
+        }
+
+        @Override
+        public Boolean evaluate(final Row row) {
+            return Boolean.valueOf(row.getNode().getCategories().contains(m_categoryName));
+        }
+
+        @Override
+        protected void addTables(final Set<Table> tables) {
+        }
+    }
+}
@@ -0,0 +1,398 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.filter;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.opennms.netmgt.filter.FilterExpression.Comparison.Operator;
+
+/**
+ * Parses filter rules into a {@link FilterExpression}.
+ *
+ * The parser accepts the subset of the filter grammar documented on
+ * {@link JdbcFilterDao} that can be evaluated against a {@link FilterSnapshot}:
+ * AND, OR and NOT (and their "&amp;", "|" and "!" aliases), parentheses, the
+ * comparison operators, [NOT] LIKE, [NOT] IN, IS [NOT] NULL, IPLIKE as both an
+ * operator and a function, and the "is" and "catinc" prefixed values, on the
+ * columns listed in {@link FilterColumn}.
+ *
+ * Anything else, including rules that are invalid, is rejected with an
+ * {@link UnsupportedRuleException} so that the rule can be handed to the
+ * {@link JdbcFilterDao}, which remains the reference for the semantics and
+ * the error reporting of the filter rules.
+ */
+final class FilterRuleParser {
+
+    static final class UnsupportedRuleException extends Exception {
+        private static final long serialVersionUID = 8105927683409274951L;
+
+        UnsupportedRuleException(final String message) {
+            super(message);
+        }
+    }
+
+    private enum Type { WORD, STRING, AND, OR, NOT, EQ, NE, LT, LE, GT, GE, LPAREN, RPAREN, COMMA, END }
+
+    private static final class Token {
+        private final Type m_type;
+        private final String m_text;
+
+        private Token(final Type type, final String text) {
+            m_type = type;
+            m_text = text;
+        }
+
+        private boolean isKeyword(final String keyword) {
+            return m_type == Type.WORD && m_text.equalsIgnoreCase(keyword);
+        }
+
+        @Override
+        public String toString() {
+            return m_type == Type.END ? "end of rule" : m_text;
+        }
+    }
+
+    private final String m_rule;
+    private final List<Token> m_tokens;
+    private int m_position = 0;
+
+    private FilterRuleParser(final String rule) throws UnsupportedRuleException {
+        m_rule = rule;
+        m_tokens = tokenize(rule);
+    }
+
+    /**
+     * @return the expression, which is {@link FilterExpression#ALL} for a null or empty rule
+     * @throws UnsupportedRuleException if the rule can't be evaluated in memory
+     */
+    public static FilterExpression parse(final String rule) throws UnsupportedRuleException {
+        if (rule == null || rule.isEmpty()) {
+            return FilterExpression.ALL;
+        }
+        final FilterRuleParser parser = new FilterRuleParser(rule);
+        final FilterExpression expression = parser.parseOr();
+        parser.expect(Type.END);
+        return expression;
+    }
+
+    private FilterExpression parseOr() throws UnsupportedRuleException {
+        final List<FilterExpression> operands = new ArrayList<FilterExpression>();
+        operands.add(parseAnd());
+        while (accept(Type.OR)) {
+            operands.add(parseAnd());
+        }
+        return operands.size() == 1 ? operands.get(0) : new FilterExpression.Or(operands);
+    }
+
+    private FilterExpression parseAnd() throws UnsupportedRuleException {
+        final List<FilterExpression> operands = new ArrayList<FilterExpression>();
+        operands.add(parseNot());
+        while (accept(Type.AND)) {
+            operands.add(parseNot());
+        }
+        return operands.size() == 1 ? operands.get(0) : new FilterExpression.And(operands);
+    }
+
+    private FilterExpression parseNot() throws UnsupportedRuleException {
+        if (accept(Type.NOT)) {
+            return new FilterExpression.Not(parseNot());
+        }
+        return parsePrimary();
+    }
+
+    private FilterExpression parsePrimary() throws UnsupportedRuleException {
+        if (accept(Type.LPAREN)) {
+            final FilterExpression expression = parseOr();
+            expect(Type.RPAREN);
+            return expression;
+        }
+
+        final Token word = expect(Type.WORD);
+        if (word.isKeyword("IPLIKE") && accept(Type.LPAREN)) {
+            final FilterColumn column = getColumn(expect(Type.WORD));
+            expect(Type.COMMA);
+            final Token pattern = expect(Type.STRING);
+            expect(Type.RPAREN);
+            return ipLike(column, pattern.m_text);
+        }
+
+        // Prefixed values, checked in the same order as JdbcFilterDao.parseRule()
+        final String text = word.m_text;
+        if (text.startsWith("is") && text.length() > 2) {
+            return new FilterExpression.Comparison(FilterColumn.SERVICE_NAME, Operator.EQ, text.substring(2));
+        } else if (text.startsWith("notis")) {
+            throw unsupported("the notis prefix is not supported");
+        } else if (text.startsWith("catinc") && text.length() > 6) {
+            return new FilterExpression.CategoryMember(text.substring(6));
+        }
+
+        return parsePredicate(getColumn(word));
+    }
+
+    private FilterExpression parsePredicate(final FilterColumn column) throws UnsupportedRuleException {
+        final Token token = next();
+        switch (token.m_type) {
+        case EQ: return comparison(column, Operator.EQ);
+        case NE: return comparison(column, Operator.NE);
+        case LT: return comparison(column, Operator.LT);
+        case LE: return comparison(column, Operator.LE);
+        case GT: return comparison(column, Operator.GT);
+        case GE: return comparison(column, Operator.GE);
+        case NOT:
+            final Token negated = expect(Type.WORD);
+            if (negated.isKeyword("LIKE")) {
+                return like(column, true);
+            } else if (negated.isKeyword("IN")) {
+                return in(column, true);
+            }
+            throw unexpected(negated);
+        case WORD:
+            if (token.isKeyword("LIKE")) {
+                return like(column, false);
+            } else if (token.isKeyword("IN")) {
+                return in(column, false);
+            } else if (token.isKeyword("IPLIKE")) {
+                return ipLike(column, expect(Type.STRING).m_text);
+            } else if (token.isKeyword("IS")) {
+                final boolean isNotNull = accept(Type.NOT);
+                if (!expect(Type.WORD).isKeyword("NULL")) {
+                    throw unsupported("only IS [NOT] NULL is supported");
+                }
+                return new FilterExpression.IsNull(column, isNotNull);
+            }
+            throw unexpected(token);
+        default:
+            throw unexpected(token);
+        }
+    }
+
+    private FilterExpression comparison(final FilterColumn column, final Operator operator) throws UnsupportedRuleException {
+        if (!column.isNumeric() && operator != Operator.EQ && operator != Operator.NE) {
+            // string ordering depends on the collation of the database
+            throw unsupported("ordering comparisons on " + column.getColumnName() + " are not supported");
+        }
+        return new FilterExpression.Comparison(column, operator, literal(column));
+    }
+
+    private FilterExpression like(final FilterColumn column, final boolean negated) throws UnsupportedRuleException {
+        if (column.isNumeric()) {
+            throw unsupported("LIKE on numeric column " + column.getColumnName());
+        }
+        return new FilterExpression.Like(column, expect(Type.STRING).m_text, negated);
+    }
+
+    private FilterExpression in(final FilterColumn column, final boolean negated) throws UnsupportedRuleException {
+        final Set<Object> values = new HashSet<Object>();
+        expect(Type.LPAREN);
+        do {
+            values.add(literal(column));
+        } while (accept(Type.COMMA));
+        expect(Type.RPAREN);
+        return new FilterExpression.In(column, values, negated);
+    }
+
+    private FilterExpression ipLike(final FilterColumn column, final String pattern) throws UnsupportedRuleException {
+        if (column != FilterColumn.IP_ADDR) {
+            throw unsupported("IPLIKE is only supported on ipAddr");
+        }
+        return new FilterExpression.IpLike(column, pattern);
+    }
+
+    /**
+     * @return a {@link Long} for numeric columns, where quoted numbers are accepted as in SQL,
+     *   otherwise the {@link String} value, which must be quoted
+     */
+    private Object literal(final FilterColumn column) throws UnsupportedRuleException {
+        final Token token = next();
+        if (column.isNumeric() && (token.m_type == Type.STRING || token.m_type == Type.WORD)) {
+            try {
+                return Long.valueOf(token.m_text.trim());
+            } catch (final NumberFormatException e) {
+                throw unsupported("'" + token.m_text + "' is not a valid value for " + column.getColumnName());
+            }
+        } else if (!column.isNumeric() && token.m_type == Type.STRING) {
+            return token.m_text;
+        }
+        throw unexpected(token);
+    }
+
+    private static FilterColumn getColumn(final Token token) throws UnsupportedRuleException {
+        final FilterColumn column = FilterColumn.forName(token.m_text);
+        if (column == null) {
+            throw new UnsupportedRuleException("column " + token.m_text + " is not indexed");
+        }
+        return column;
+    }
+
+    private Token next() {
+        final Token token = m_tokens.get(m_position);
+        if (token.m_type != Type.END) {
+            m_position++;
+        }
+        return token;
+    }
+
+    private boolean accept(final Type type) {
+        if (m_tokens.get(m_position).m_type == type) {
+            next();
+            return true;
+        }
+        return false;
+    }
+
+    private Token expect(final Type type) throws UnsupportedRuleException {
+        final Token token = next();
+        if (token.m_type != type) {
+            throw unexpected(token);
+        }
+        return token;
+    }
+
+    private UnsupportedRuleException unexpected(final Token token) {
+        return unsupported("unexpected " + token);
+    }
+
+    private UnsupportedRuleException unsupported(final String message) {
+        return new UnsupportedRuleException(message + " in filter rule '" + m_rule + "'");
+    }
+
+    private static boolean isWordChar(final char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.';
+    }
+
+    private static boolean isIpLikeChar(final char c) {
+        return Character.digit(c, 16) >= 0 || c == '.' || c == ':' || c == '*' || c == ',' || c == '-';
+    }
+
+    private static List<Token> tokenize(final String rule) throws UnsupportedRuleException {
+        final List<Token> tokens = new ArrayList<Token>();
+        final int length = rule.length();
+        int i = 0;
+        while (i < length) {
+            final char c = rule.charAt(i);
+            final char next = i + 1 < length ? rule.charAt(i + 1) : '\0';
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '\'' || c == '"') {
+                // As in SQL, a pair of quotes within a quoted string is an escaped quote
+                final StringBuilder value = new StringBuilder();
+                int j = i + 1;
+                while (true) {
+                    if (j >= length) {
+                        throw new UnsupportedRuleException("Unmatched " + c + " in filter rule '" + rule + "'");
+                    } else if (rule.charAt(j) != c) {
+                        value.append(rule.charAt(j++));
+                    } else if (j + 1 < length && rule.charAt(j + 1) == c) {
+                        value.append(c);
+                        j += 2;
+                    } else {
+                        break;
+                    }
+                }
+                tokens.add(new Token(Type.STRING, value.toString()));
+                i = j + 1;
+            } else if (c == '(') {
+                tokens.add(new Token(Type.LPAREN, "("));
+                i++;
+            } else if (c == ')') {
+                tokens.add(new Token(Type.RPAREN, ")"));
+                i++;
+            } else if (c == ',') {
+                tokens.add(new Token(Type.COMMA, ","));
+                i++;
+            } else if (c == '&') {
+                tokens.add(new Token(Type.AND, "&"));
+                i += next == '&' ? 2 : 1;
+            } else if (c == '|') {
+                tokens.add(new Token(Type.OR, "|"));
+                i += next == '|' ? 2 : 1;
+            } else if (c == '!') {
+                tokens.add(next == '=' ? new Token(Type.NE, "!=") : new Token(Type.NOT, "!"));
+                i += next == '=' ? 2 : 1;
+            } else if (c == '=') {
+                tokens.add(new Token(Type.EQ, "="));
+                i += next == '=' ? 2 : 1;
+            } else if (c == '<') {
+                if (next == '>') {
+                    tokens.add(new Token(Type.NE, "<>"));
+                    i += 2;
+                } else if (next == '=') {
+                    tokens.add(new Token(Type.LE, "<="));
+                    i += 2;
+                } else {
+                    tokens.add(new Token(Type.LT, "<"));
+                    i++;
+                }
+            } else if (c == '>') {
+                tokens.add(next == '=' ? new Token(Type.GE, ">=") : new Token(Type.GT, ">"));
+                i += next == '=' ? 2 : 1;
+            } else if (isWordChar(c)) {
+                int j = i;
+                while (j < length && isWordChar(rule.charAt(j))) {
+                    j++;
+                }
+                final String word = rule.substring(i, j);
+                i = j;
+                if (word.indexOf('.') >= 0) {
+                    throw new UnsupportedRuleException("unexpected " + word + " in filter rule '" + rule + "'");
+                } else if (word.equalsIgnoreCase("AND")) {
+                    tokens.add(new Token(Type.AND, word));
+                } else if (word.equalsIgnoreCase("OR")) {
+                    tokens.add(new Token(Type.OR, word));
+                } else if (word.equalsIgnoreCase("NOT")) {
+                    tokens.add(new Token(Type.NOT, word));
+                } else {
+                    tokens.add(new Token(Type.WORD, word));
+                    if (word.equalsIgnoreCase("IPLIKE")) {
+                        // The IPLIKE operator doesn't require its pattern to be quoted
+                        int k = i;
+                        while (k < length && Character.isWhitespace(rule.charAt(k))) {
+                            k++;
+                        }
+                        int end = k;
+                        while (end < length && isIpLikeChar(rule.charAt(end))) {
+                            end++;
+                        }
+                        if (end > k) {
+                            tokens.add(new Token(Type.STRING, rule.substring(k, end)));
+                            i = end;
+                        }
+                    }
+                }
+            } else {
+                throw new UnsupportedRuleException("unexpected '" + c + "' in filter rule '" + rule + "'");
+            }
+        }
+        tokens.add(new Token(Type.END, null));
+        return tokens;
+    }
+}
@@ -0,0 +1,421 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.filter;
+
+import static org.opennms.core.utils.InetAddressUtils.addr;
+
+import java.net.InetAddress;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.sql.DataSource;
+
+import org.opennms.core.utils.DBUtils;
+import org.opennms.netmgt.filter.FilterColumn.Table;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory copy of the nodes, interfaces, services, categories and assets
+ * that filter rules are evaluated against by the {@link InMemoryFilterDao}.
+ *
+ * A snapshot is built once, either by {@link #load(DataSource)} or through
+ * {@link #addNode(int)} and {@link #addInterface(Node, String)}, and is not
+ * modified afterwards, so it can be shared between threads.
+ */
+final class FilterSnapshot {
+    private static final Logger LOG = LoggerFactory.getLogger(FilterSnapshot.class);
+
+    private static final List<String> NO_JOIN = Collections.singletonList(null);
+
+    private final Map<Integer, Node> m_nodes = new HashMap<Integer, Node>();
+    private final List<Interface> m_interfaces = new ArrayList<Interface>();
+    private final Map<InetAddress, List<Interface>> m_interfacesByAddress = new HashMap<InetAddress, List<Interface>>();
+    private final long m_created = System.currentTimeMillis();
+
+    /**
+     * Receives the rows of the filter joins that match a rule.
+     */
+    interface RowVisitor {
+        /**
+         * @return true to continue with the remaining rows of the same interface,
+         *   false to skip to the next interface
+         */
+        boolean visit(Interface iface, String serviceName);
+    }
+
+    static final class Node {
+        private final int m_nodeId;
+        private final Object[] m_values = new Object[FilterColumn.getColumns(Table.NODE).size()];
+        private Object[] m_assets;
+        private final List<String> m_categories = new ArrayList<String>(0);
+
+        private Node(final int nodeId) {
+            m_nodeId = nodeId;
+            m_values[FilterColumn.NODE_ID.getIndex()] = Long.valueOf(nodeId);
+        }
+
+        public int getNodeId() {
+            return m_nodeId;
+        }
+
+        public String getNodeLabel() {
+            return (String)m_values[FilterColumn.NODE_LABEL.getIndex()];
+        }
+
+        public List<String> getCategories() {
+            return m_categories;
+        }
+
+        public void addCategory(final String categoryName) {
+            m_categories.add(categoryName);
+        }
+
+        public void setValue(final FilterColumn column, final Object value) {
+            if (column.getTable() == Table.NODE) {
+                m_values[column.getIndex()] = value;
+            } else if (column.getTable() == Table.ASSETS) {
+                if (m_assets == null) {
+                    m_assets = new Object[FilterColumn.getColumns(Table.ASSETS).size()];
+                }
+                m_assets[column.getIndex()] = value;
+            } else {
+                throw new IllegalArgumentException("column " + column.getColumnName() + " is not a node or asset column");
+            }
+        }
+
+        /**
+         * Marks the node as having an assets record, even if none of the indexed asset columns are set.
+         */
+        public void setHasAssets() {
+            if (m_assets == null) {
+                m_assets = new Object[FilterColumn.getColumns(Table.ASSETS).size()];
+            }
+        }
+    }
+
+    static final class Interface {
+        private final Node m_node;
+        private final String m_ipAddr;
+        private final InetAddress m_address;
+        private final Object[] m_values = new Object[FilterColumn.getColumns(Table.IP_INTERFACE).size()];
+        private Object[] m_snmpValues;
+        private String m_isManaged;
+        private final List<String> m_serviceNames = new ArrayList<String>(2);
+
+        private Interface(final Node node, final String ipAddr) {
+            m_node = node;
+            m_ipAddr = ipAddr;
+            m_address = addr(ipAddr);
+            m_values[FilterColumn.IP_ADDR.getIndex()] = ipAddr;
+        }
+
+        public Node getNode() {
+            return m_node;
+        }
+
+        public String getIpAddr() {
+            return m_ipAddr;
+        }
+
+        public InetAddress getAddress() {
+            return m_address;
+        }
+
+        public boolean isDeleted() {
+            return "D".equals(m_isManaged);
+        }
+
+        public void setIsManaged(final String isManaged) {
+            m_isManaged = isManaged;
+        }
+
+        public void addService(final String serviceName) {
+            m_serviceNames.add(serviceName);
+        }
+
+        public void setValue(final FilterColumn column, final Object value) {
+            if (column.getTable() == Table.IP_INTERFACE) {
+                m_values[column.getIndex()] = value;
+            } else if (column.getTable() == Table.SNMP_INTERFACE) {
+                if (m_snmpValues == null) {
+                    m_snmpValues = new Object[FilterColumn.getColumns(Table.SNMP_INTERFACE).size()];
+                }
+                m_snmpValues[column.getIndex()] = value;
+            } else {
+                throw new IllegalArgumentException("column " + column.getColumnName() + " is not an interface column");
+            }
+        }
+
+        /**
+         * Marks the interface as having an snmpInterface record, even if none of the indexed SNMP columns are set.
+         */
+        public void setHasSnmpInterface() {
+            if (m_snmpValues == null) {
+                m_snmpValues = new Object[FilterColumn.getColumns(Table.SNMP_INTERFACE).size()];
+            }
+        }
+    }
+
+    /**
+     * One row of the filter joins: an interface, combined with one of its services
+     * and one of its node's categories when the rule joins those tables.
+     */
+    static final class Row {
+        private Interface m_interface;
+        private String m_serviceName;
+        private String m_categoryName;
+
+        public Object getValue(final FilterColumn column) {
+            switch (column.getTable()) {
+            case NODE:
+                return m_interface.m_node.m_values[column.getIndex()];
+            case ASSETS:
+                return m_interface.m_node.m_assets == null ? null : m_interface.m_node.m_assets[column.getIndex()];
+            case IP_INTERFACE:
+                return m_interface.m_values[column.getIndex()];
+            case SNMP_INTERFACE:
+                return m_interface.m_snmpValues == null ? null : m_interface.m_snmpValues[column.getIndex()];
+            case SERVICE:
+                return m_serviceName;
+            case CATEGORY:
+                return m_categoryName;
+            default:
+                throw new IllegalStateException("unknown table " + column.getTable());
+            }
+        }
+
+        public Node getNode() {
+            return m_interface.m_node;
+        }
+    }
+
+    public Node addNode(final int nodeId) {
+        Node node = m_nodes.get(nodeId);
+        if (node == null) {
+            node = new Node(nodeId);
+            m_nodes.put(nodeId, node);
+        }
+        return node;
+    }
+
+    public Node getNode(final int nodeId) {
+        return m_nodes.get(nodeId);
+    }
+
+    public Interface addInterface(final Node node, final String ipAddr) {
+        final Interface iface = new Interface(node, ipAddr);
+        m_interfaces.add(iface);
+        if (iface.m_address != null) {
+            List<Interface> interfaces = m_interfacesByAddress.get(iface.m_address);
+            if (interfaces == null) {
+                interfaces = new ArrayList<Interface>(1);
+                m_interfacesByAddress.put(iface.m_address, interfaces);
+            }
+            interfaces.add(iface);
+        }
+        return iface;
+    }
+
+    public List<Interface> getInterfaces() {
+        return m_interfaces;
+    }
+
+    public List<Interface> getInterfaces(final InetAddress address) {
+        final List<Interface> interfaces = m_interfacesByAddress.get(address);
+        return interfaces == null ? Collections.<Interface>emptyList() : interfaces;
+    }
+
+    public boolean isOlderThan(final long maxAge) {
+        return System.currentTimeMillis() - m_created > maxAge;
+    }
+
+    /**
+     * Visits the rows of the joins implied by the expression, and by the extra tables,
+     * that the expression evaluates to true for.
+     *
+     * As in the SQL generated by the {@link JdbcFilterDao}, the service, SNMP interface
+     * and assets tables are inner joins, so interfaces without a matching record
+     * don't produce any rows, while the categories are a left join.
+     */
+    public void match(final FilterExpression expression, final Set<Table> extraTables, final Collection<Interface> interfaces, final RowVisitor visitor) {
+        final Set<Table> tables = expression.getTables();
+        final boolean joinServices = tables.contains(Table.SERVICE) || extraTables.contains(Table.SERVICE);
+        final boolean joinCategories = tables.contains(Table.CATEGORY) || extraTables.contains(Table.CATEGORY);
+        final boolean joinSnmpInterfaces = tables.contains(Table.SNMP_INTERFACE) || extraTables.contains(Table.SNMP_INTERFACE);
+        final boolean joinAssets = tables.contains(Table.ASSETS) || extraTables.contains(Table.ASSETS);
+
+        final Row row = new Row();
+        for (final Interface iface : interfaces) {
+            if ((joinSnmpInterfaces && iface.m_snmpValues == null) || (joinAssets && iface.m_node.m_assets == null)) {
+                continue;
+            }
+            row.m_interface = iface;
+
+            final List<String> serviceNames = joinServices ? iface.m_serviceNames : NO_JOIN;
+            final List<String> categoryNames = joinCategories && !iface.m_node.m_categories.isEmpty() ? iface.m_node.m_categories : NO_JOIN;
+            ROWS: for (final String serviceName : serviceNames) {
+                row.m_serviceName = serviceName;
+                for (final String categoryName : categoryNames) {
+                    row.m_categoryName = categoryName;
+                    if (Boolean.TRUE.equals(expression.evaluate(row)) && !visitor.visit(iface, serviceName)) {
+                        break ROWS;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads the indexed columns of all the nodes, interfaces, services, categories and assets.
+     */
+    public static FilterSnapshot load(final DataSource dataSource) throws SQLException {
+        final FilterSnapshot snapshot = new FilterSnapshot();
+        final long start = System.currentTimeMillis();
+
+        final DBUtils d = new DBUtils(FilterSnapshot.class);
+        try {
+            final Connection conn = dataSource.getConnection();
+            d.watch(conn);
+            final Statement stmt = conn.createStatement();
+            d.watch(stmt);
+
+            ResultSet rset = stmt.executeQuery("SELECT node.nodeID" + columnList(Table.NODE) + " FROM node");
+            d.watch(rset);
+            while (rset.next()) {
+                final Node node = snapshot.addNode(rset.getInt(1));
+                readValues(rset, Table.NODE, node::setValue);
+            }
+
+            rset = stmt.executeQuery("SELECT assets.nodeID" + columnList(Table.ASSETS) + " FROM assets");
+            d.watch(rset);
+            while (rset.next()) {
+                final Node node = snapshot.getNode(rset.getInt(1));
+                if (node != null) {
+                    node.setHasAssets();
+                    readValues(rset, Table.ASSETS, node::setValue);
+                }
+            }
+
+            rset = stmt.executeQuery("SELECT category_node.nodeID, categories.categoryName FROM category_node JOIN categories ON (categories.categoryID = category_node.categoryID)");
+            d.watch(rset);
+            while (rset.next()) {
+                final Node node = snapshot.getNode(rset.getInt(1));
+                if (node != null) {
+                    node.addCategory(rset.getString(2));
+                }
+            }
+
+            final Map<Integer, Interface> interfacesById = new HashMap<Integer, Interface>();
+            final List<FilterColumn> ifColumns = new ArrayList<FilterColumn>(FilterColumn.getColumns(Table.IP_INTERFACE));
+            ifColumns.addAll(FilterColumn.getColumns(Table.SNMP_INTERFACE));
+            final StringBuilder sql = new StringBuilder("SELECT ipInterface.id, ipInterface.nodeID, ipInterface.ipAddr, ipInterface.isManaged, snmpInterface.id");
+            for (final FilterColumn column : ifColumns) {
+                sql.append(", ").append(column.getQualifiedName());
+            }
+            sql.append(" FROM ipInterface LEFT JOIN snmpInterface ON (ipInterface.snmpInterfaceId = snmpInterface.id)");
+            rset = stmt.executeQuery(sql.toString());
+            d.watch(rset);
+            while (rset.next()) {
+                final Node node = snapshot.getNode(rset.getInt(2));
+                if (node == null) {
+                    continue;
+                }
+                final Interface iface = snapshot.addInterface(node, rset.getString(3));
+                iface.setIsManaged(rset.getString(4));
+                rset.getInt(5);
+                if (!rset.wasNull()) {
+                    iface.setHasSnmpInterface();
+                }
+                for (int i = 0; i < ifColumns.size(); i++) {
+                    final FilterColumn column = ifColumns.get(i);
+                    final Object value = readValue(rset, 6 + i, column);
+                    if (value != null) {
+                        iface.setValue(column, value);
+                    }
+                }
+                interfacesById.put(rset.getInt(1), iface);
+            }
+
+            rset = stmt.executeQuery("SELECT ifServices.ipInterfaceId, service.serviceName FROM ifServices JOIN service ON (service.serviceID = ifServices.serviceID)");
+            d.watch(rset);
+            while (rset.next()) {
+                final Interface iface = interfacesById.get(rset.getInt(1));
+                if (iface != null) {
+                    iface.addService(rset.getString(2));
+                }
+            }
+        } finally {
+            d.cleanUp();
+        }
+
+        LOG.debug("load: loaded {} nodes and {} interfaces in {}ms", snapshot.m_nodes.size(), snapshot.m_interfaces.size(), System.currentTimeMillis() - start);
+        return snapshot;
+    }
+
+    private interface ValueSetter {
+        void setValue(FilterColumn column, Object value);
+    }
+
+    private static String columnList(final Table table) {
+        final StringBuilder columns = new StringBuilder();
+        for (final FilterColumn column : FilterColumn.getColumns(table)) {
+            columns.append(", ").append(column.getQualifiedName());
+        }
+        return columns.toString();
+    }
+
+    private static void readValues(final ResultSet rset, final Table table, final ValueSetter setter) throws SQLException {
+        final List<FilterColumn> columns = FilterColumn.getColumns(table);
+        for (int i = 0; i < columns.size(); i++) {
+            final Object value = readValue(rset, 2 + i, columns.get(i));
+            if (value != null) {
+                setter.setValue(columns.get(i), value);
+            }
+        }
+    }
+
+    private static Object readValue(final ResultSet rset, final int index, final FilterColumn column) throws SQLException {
+        if (column.isNumeric()) {
+            final long value = rset.getLong(index);
+            return rset.wasNull() ? null : Long.valueOf(value);
+        } else {
+            return rset.getString(index);
+        }
+    }
+}
@@ -0,0 +1,491 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.filter;
+
+import static org.opennms.core.utils.InetAddressUtils.addr;
+
+import java.net.InetAddress;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.opennms.core.utils.InetAddressComparator;
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.events.api.EventIpcManagerFactory;
+import org.opennms.netmgt.events.api.EventListener;
+import org.opennms.netmgt.events.api.EventSubscriptionService;
+import org.opennms.netmgt.filter.FilterColumn.Table;
+import org.opennms.netmgt.filter.FilterRuleParser.UnsupportedRuleException;
+import org.opennms.netmgt.filter.api.FilterDao;
+import org.opennms.netmgt.filter.api.FilterParseException;
+import org.opennms.netmgt.xml.event.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link FilterDao} that evaluates filter rules against an in-memory
+ * {@link FilterSnapshot} of the nodes, interfaces, services, categories and
+ * assets instead of running a query for every call.
+ *
+ * Rules are parsed once into a {@link FilterExpression}. Rules that use columns
+ * or constructs the parser doesn't support, as well as invalid rules, are passed
+ * to the wrapped {@link FilterDao}, normally a {@link JdbcFilterDao}, as is every
+ * call while the snapshot can't be loaded.
+ *
+ * The snapshot is out of date once an event that changes the inventory is
+ * received, or {@link #flushActiveIpAddressListCache()} is called. The daemons
+ * call the latter before they query the inventory they were notified about,
+ * so this doesn't depend on the order in which the event listeners run. Calls
+ * made while the snapshot is out of date are passed to the wrapped
+ * {@link FilterDao}, and the snapshot is reloaded in the background. Reloads
+ * start no more often than the minimum reload interval, so a burst of changes
+ * costs a single reload. A snapshot that is merely older than the maximum age
+ * is still used while it is reloaded.
+ */
+public class InMemoryFilterDao implements FilterDao, EventListener {
+    private static final Logger LOG = LoggerFactory.getLogger(InMemoryFilterDao.class);
+
+    /**
+     * System property that enables the in-memory evaluation of filter rules in the {@link FilterDaoFactory}.
+     */
+    public static final String ENABLED_PROPERTY = "org.opennms.netmgt.filter.inMemory";
+
+    /**
+     * System property with the maximum age of the snapshot, in milliseconds.
+     */
+    public static final String MAX_AGE_PROPERTY = "org.opennms.netmgt.filter.inMemory.maxAge";
+
+    private static final long DEFAULT_MAX_AGE = 300000;
+
+    /**
+     * System property with the minimum interval between the starts of two reloads, in milliseconds.
+     */
+    public static final String MIN_RELOAD_INTERVAL_PROPERTY = "org.opennms.netmgt.filter.inMemory.minReloadInterval";
+
+    private static final long DEFAULT_MIN_RELOAD_INTERVAL = 5000;
+
+    /**
+     * The number of parsed rules that are kept before the cache is cleared.
+     */
+    private static final int MAX_CACHED_RULES = 1000;
+
+    private static final List<String> UEIS = Arrays.asList(
+        EventConstants.NODE_ADDED_EVENT_UEI,
+        EventConstants.NODE_UPDATED_EVENT_UEI,
+        EventConstants.NODE_DELETED_EVENT_UEI,
+        EventConstants.NODE_LABEL_CHANGED_EVENT_UEI,
+        EventConstants.NODE_INFO_CHANGED_EVENT_UEI,
+        EventConstants.NODE_CATEGORY_MEMBERSHIP_CHANGED_EVENT_UEI,
+        EventConstants.NODE_GAINED_INTERFACE_EVENT_UEI,
+        EventConstants.INTERFACE_DELETED_EVENT_UEI,
+        EventConstants.INTERFACE_REPARENTED_EVENT_UEI,
+        EventConstants.INTERFACE_INDEX_CHANGED_EVENT_UEI,
+        EventConstants.PRIMARY_SNMP_INTERFACE_CHANGED_EVENT_UEI,
+        EventConstants.NODE_GAINED_SERVICE_EVENT_UEI,
+        EventConstants.SERVICE_DELETED_EVENT_UEI,
+        EventConstants.SERVICE_UNMANAGED_EVENT_UEI,
+        EventConstants.ASSET_INFO_CHANGED_EVENT_UEI
+    );
+
+    private static final Set<Table> NO_TABLES = EnumSet.noneOf(Table.class);
+    private static final Set<Table> SERVICE_TABLE = EnumSet.of(Table.SERVICE);
+
+    /**
+     * Loads a new snapshot.
+     */
+    interface SnapshotLoader {
+        FilterSnapshot load() throws SQLException;
+    }
+
+    private final FilterDao m_fallback;
+    private final SnapshotLoader m_loader;
+    private final long m_maxAge = Long.getLong(MAX_AGE_PROPERTY, DEFAULT_MAX_AGE);
+    private final long m_minReloadInterval;
+    private final Map<String, Optional<FilterExpression>> m_expressions = new ConcurrentHashMap<String, Optional<FilterExpression>>();
+    private final Object m_loadLock = new Object();
+    private final ScheduledExecutorService m_reloader;
+    private final AtomicBoolean m_reloadScheduled = new AtomicBoolean(false);
+
+    private EventSubscriptionService m_eventSubscriptionService;
+    private volatile boolean m_subscribed = false;
+    /**
+     * Counts the changes to the inventory, a snapshot is current while it was
+     * loaded at the same count.
+     */
+    private final AtomicLong m_generation = new AtomicLong();
+    private volatile LoadedSnapshot m_loaded;
+    private volatile long m_lastLoad = 0;
+
+    private static final class LoadedSnapshot {
+        private final FilterSnapshot m_snapshot;
+        private final long m_generation;
+
+        private LoadedSnapshot(final FilterSnapshot snapshot, final long generation) {
+            m_snapshot = snapshot;
+            m_generation = generation;
+        }
+    }
+
+    /**
+     * @param fallback the DAO used for the rules that can't be evaluated in memory
+     * @param dataSource the data source the snapshot is loaded from
+     */
+    public InMemoryFilterDao(final FilterDao fallback, final DataSource dataSource) {
+        this(fallback, () -> FilterSnapshot.load(dataSource), Long.getLong(MIN_RELOAD_INTERVAL_PROPERTY, DEFAULT_MIN_RELOAD_INTERVAL));
+    }
+
+    InMemoryFilterDao(final FilterDao fallback, final SnapshotLoader loader, final long minReloadInterval) {
+        m_fallback = fallback;
+        m_loader = loader;
+        m_minReloadInterval = minReloadInterval;
+        m_reloader = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, getClass().getSimpleName() + "-Reloader");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Creates a DAO that evaluates rules against a fixed snapshot, which is never reloaded.
+     */
+    InMemoryFilterDao(final FilterDao fallback, final FilterSnapshot snapshot) {
+        m_fallback = fallback;
+        m_loader = null;
+        m_minReloadInterval = 0;
+        m_reloader = null;
+        m_loaded = new LoadedSnapshot(snapshot, 0);
+        m_subscribed = true;
+    }
+
+    public FilterDao getFallback() {
+        return m_fallback;
+    }
+
+    /**
+     * Sets the service used to receive the events that invalidate the snapshot.
+     * When none is set, the {@link EventIpcManagerFactory} is used once it has
+     * been initialized.
+     */
+    public void setEventSubscriptionService(final EventSubscriptionService eventSubscriptionService) {
+        m_eventSubscriptionService = eventSubscriptionService;
+    }
+
+    @Override
+    public String getName() {
+        return getClass().getSimpleName();
+    }
+
+    @Override
+    public void onEvent(final Event e) {
+        LOG.debug("onEvent: {} invalidates the filter snapshot", e.getUei());
+        m_generation.incrementAndGet();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public SortedMap<Integer, String> getNodeMap(final String rule) throws FilterParseException {
+        final FilterExpression expression = getExpression(rule);
+        final FilterSnapshot snapshot = expression == null ? null : getSnapshot();
+        if (snapshot == null) {
+            return m_fallback.getNodeMap(rule);
+        }
+
+        final SortedMap<Integer, String> nodes = new TreeMap<Integer, String>();
+        snapshot.match(expression, NO_TABLES, snapshot.getInterfaces(), (iface, serviceName) -> {
+            nodes.put(iface.getNode().getNodeId(), iface.getNode().getNodeLabel());
+            return false;
+        });
+        return Collections.unmodifiableSortedMap(nodes);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Map<InetAddress, Set<String>> getIPAddressServiceMap(final String rule) throws FilterParseException {
+        final FilterExpression expression = getExpression(rule);
+        final FilterSnapshot snapshot = expression == null ? null : getSnapshot();
+        if (snapshot == null) {
+            return m_fallback.getIPAddressServiceMap(rule);
+        }
+
+        final Map<InetAddress, Set<String>> ipServices = new TreeMap<InetAddress, Set<String>>(new InetAddressComparator());
+        snapshot.match(expression, SERVICE_TABLE, snapshot.getInterfaces(), (iface, serviceName) -> {
+            if (iface.getAddress() != null) {
+                Set<String> serviceNames = ipServices.get(iface.getAddress());
+                if (serviceNames == null) {
+                    serviceNames = new TreeSet<String>();
+                    ipServices.put(iface.getAddress(), serviceNames);
+                }
+                serviceNames.add(serviceName);
+            }
+            return true;
+        });
+        return ipServices;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void flushActiveIpAddressListCache() {
+        m_generation.incrementAndGet();
+        m_fallback.flushActiveIpAddressListCache();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<InetAddress> getActiveIPAddressList(final String rule) throws FilterParseException {
+        final FilterExpression expression = getActiveExpression(rule);
+        final FilterSnapshot snapshot = expression == null ? null : getSnapshot();
+        if (snapshot == null) {
+            return m_fallback.getActiveIPAddressList(rule);
+        }
+        return getIPAddressList(snapshot, expression, true);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<InetAddress> getIPAddressList(final String rule) throws FilterParseException {
+        final FilterExpression expression = getExpression(rule);
+        final FilterSnapshot snapshot = expression == null ? null : getSnapshot();
+        if (snapshot == null) {
+            return m_fallback.getIPAddressList(rule);
+        }
+        return getIPAddressList(snapshot, expression, false);
+    }
+
+    private static List<InetAddress> getIPAddressList(final FilterSnapshot snapshot, final FilterExpression expression, final boolean filterDeleted) {
+        final Set<InetAddress> addresses = new LinkedHashSet<InetAddress>();
+        snapshot.match(expression, NO_TABLES, snapshot.getInterfaces(), (iface, serviceName) -> {
+            if (!filterDeleted || !iface.isDeleted()) {
+                addresses.add(iface.getAddress());
+            }
+            return false;
+        });
+        return new ArrayList<InetAddress>(addresses);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Only the interfaces with the given address are evaluated.
+     */
+    @Override
+    public boolean isValid(final String addr, final String rule) throws FilterParseException {
+        if (rule.length() == 0) {
+            return true;
+        }
+
+        final InetAddress address = addr(addr);
+        final FilterExpression expression = address == null ? null : getActiveExpression(rule);
+        final FilterSnapshot snapshot = expression == null ? null : getSnapshot();
+        if (snapshot == null) {
+            return m_fallback.isValid(addr, rule);
+        }
+
+        final boolean[] valid = { false };
+        snapshot.match(expression, NO_TABLES, snapshot.getInterfaces(address), (iface, serviceName) -> {
+            valid[0] |= !iface.isDeleted();
+            return false;
+        });
+        return valid[0];
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean isRuleMatching(final String rule) throws FilterParseException {
+        final FilterExpression expression = getExpression(rule);
+        final FilterSnapshot snapshot = expression == null ? null : getSnapshot();
+        if (snapshot == null) {
+            return m_fallback.isRuleMatching(rule);
+        }
+
+        final boolean[] matches = { false };
+        snapshot.match(expression, NO_TABLES, snapshot.getInterfaces(), (iface, serviceName) -> {
+            matches[0] = true;
+            return false;
+        });
+        return matches[0];
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Rules that can be parsed only reference indexed columns, and are valid.
+     */
+    @Override
+    public void validateRule(final String rule) throws FilterParseException {
+        if (getExpression(rule) == null) {
+            m_fallback.validateRule(rule);
+        }
+    }
+
+    /**
+     * @return the parsed rule, or null if the rule can't be evaluated in memory
+     */
+    private FilterExpression getExpression(final String rule) {
+        final String key = rule == null ? "" : rule;
+        Optional<FilterExpression> expression = m_expressions.get(key);
+        if (expression == null) {
+            try {
+                expression = Optional.of(FilterRuleParser.parse(rule));
+            } catch (final UnsupportedRuleException e) {
+                LOG.debug("getExpression: using the database: {}", e.getMessage());
+                expression = Optional.empty();
+            }
+            if (m_expressions.size() >= MAX_CACHED_RULES) {
+                m_expressions.clear();
+            }
+            m_expressions.put(key, expression);
+        }
+        return expression.orElse(null);
+    }
+
+    /**
+     * Like {@link #getExpression(String)}, for the active address lists, which
+     * the {@link JdbcFilterDao} doesn't restrict to managed interfaces when the
+     * statement mentions isManaged.
+     */
+    private FilterExpression getActiveExpression(final String rule) {
+        if (rule != null && rule.contains("isManaged")) {
+            return null;
+        }
+        return getExpression(rule);
+    }
+
+    /**
+     * @return the current snapshot, or null if it is out of date or can't be
+     * loaded. An out of date snapshot is reloaded in the background.
+     */
+    private FilterSnapshot getSnapshot() {
+        final LoadedSnapshot loaded = m_loaded;
+        if (m_loader == null) {
+            return loaded.m_snapshot;
+        }
+        if (loaded == null) {
+            return loadSnapshot();
+        }
+        if (loaded.m_generation != m_generation.get()) {
+            scheduleReload();
+            return null;
+        }
+        if (loaded.m_snapshot.isOlderThan(m_maxAge)) {
+            scheduleReload();
+        }
+        return loaded.m_snapshot;
+    }
+
+    private boolean isCurrent(final LoadedSnapshot loaded) {
+        return loaded != null && loaded.m_generation == m_generation.get() && !loaded.m_snapshot.isOlderThan(m_maxAge);
+    }
+
+    /**
+     * Reloads the snapshot in the background, once the minimum reload interval
+     * has elapsed since the last load started.
+     */
+    private void scheduleReload() {
+        if (!m_reloadScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        final long delay = Math.max(m_lastLoad + m_minReloadInterval - System.currentTimeMillis(), 0);
+        try {
+            m_reloader.schedule(() -> {
+                try {
+                    loadSnapshot();
+                } finally {
+                    m_reloadScheduled.set(false);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (final RejectedExecutionException e) {
+            m_reloadScheduled.set(false);
+            LOG.warn("Unable to schedule the reload of the filter snapshot.", e);
+        }
+    }
+
+    /**
+     * @return the new snapshot, or null if it couldn't be loaded or the
+     * inventory changed while it was loaded
+     */
+    private FilterSnapshot loadSnapshot() {
+        synchronized (m_loadLock) {
+            final LoadedSnapshot loaded = m_loaded;
+            if (isCurrent(loaded)) {
+                return loaded.m_snapshot;
+            }
+
+            subscribe();
+
+            // Read before loading, so that changes made while loading mark the new snapshot as out of date
+            final long generation = m_generation.get();
+            m_lastLoad = System.currentTimeMillis();
+            final FilterSnapshot snapshot;
+            try {
+                snapshot = m_loader.load();
+            } catch (final SQLException e) {
+                LOG.warn("Unable to load the filter snapshot, using the database.", e);
+                return null;
+            }
+            m_loaded = new LoadedSnapshot(snapshot, generation);
+            return generation == m_generation.get() ? snapshot : null;
+        }
+    }
+
+    private void subscribe() {
+        if (m_subscribed) {
+            return;
+        }
+        EventSubscriptionService eventSubscriptionService = m_eventSubscriptionService;
+        if (eventSubscriptionService == null) {
+            try {
+                eventSubscriptionService = EventIpcManagerFactory.getIpcManager();
+            } catch (final IllegalStateException e) {
+                LOG.debug("subscribe: no event manager is available yet, relying on the maximum age of {}ms", m_maxAge);
+                return;
+            }
+        }
+        eventSubscriptionService.addEventListener(this, UEIS);
+        m_subscribed = true;
+    }
+}
@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.core.test.ConfigurationTestUtils;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.Event;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.core.io.FileSystemResource;
+
+/**
+ * Replays a synthetic mix of traps against the stock eventconf.xml and
+ * compares the partitioned search in {@link org.opennms.netmgt.xml.eventconf.Events}
+ * with the compiled {@link org.opennms.netmgt.xml.eventconf.EventDecisionTree}.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.opennms.netmgt.config.EventConfMatchingBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class EventConfMatchingBenchmark {
+
+    private static final int NUM_TRAPS = 10000;
+
+    private DefaultEventConfDao m_eventConfDao;
+    private Event[] m_traps;
+    private int m_next = 0;
+
+    @Setup
+    public void setUp() throws Exception {
+        m_eventConfDao = new DefaultEventConfDao();
+        m_eventConfDao.setConfigResource(new FileSystemResource(ConfigurationTestUtils.getFileForConfigFile("eventconf.xml")));
+        m_eventConfDao.afterPropertiesSet();
+
+        // Gather the enterprise ids that are used by the stock trap definitions
+        final List<org.opennms.netmgt.xml.eventconf.Event> trapDefinitions = new ArrayList<org.opennms.netmgt.xml.eventconf.Event>();
+        for (final org.opennms.netmgt.xml.eventconf.Event eventConf : m_eventConfDao.getAllEvents()) {
+            final List<String> ids = eventConf.getMaskElementValues("id");
+            if (ids != null && !ids.isEmpty() && !ids.get(0).startsWith("~") && !ids.get(0).endsWith("%")) {
+                trapDefinitions.add(eventConf);
+            }
+        }
+
+        final Random random = new Random(42);
+        final List<Event> traps = new ArrayList<Event>(NUM_TRAPS);
+        for (int i = 0; i < NUM_TRAPS; i++) {
+            final EventBuilder bldr = new EventBuilder("uei.opennms.org/default/trap", "trapd");
+            bldr.setSnmpVersion("v1");
+            if (i % 10 == 0) {
+                // Traps from enterprises that aren't covered by any definition
+                bldr.setEnterpriseId(".1.3.6.1.4.1.99999." + random.nextInt(100));
+                bldr.setGeneric(6);
+                bldr.setSpecific(random.nextInt(100));
+            } else {
+                final org.opennms.netmgt.xml.eventconf.Event eventConf = trapDefinitions.get(random.nextInt(trapDefinitions.size()));
+                bldr.setEnterpriseId(eventConf.getMaskElementValues("id").get(0));
+                bldr.setGeneric(intValue(eventConf.getMaskElementValues("generic"), 6));
+                bldr.setSpecific(intValue(eventConf.getMaskElementValues("specific"), random.nextInt(100)));
+            }
+            traps.add(bldr.getEvent());
+        }
+        Collections.shuffle(traps, random);
+        m_traps = traps.toArray(new Event[traps.size()]);
+    }
+
+    private static int intValue(final List<String> values, final int defaultValue) {
+        if (values == null || values.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(values.get(0));
+        } catch (final NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private Event nextTrap() {
+        final Event trap = m_traps[m_next];
+        m_next = (m_next + 1) % m_traps.length;
+        return trap;
+    }
+
+    @Benchmark
+    public org.opennms.netmgt.xml.eventconf.Event partitionedSearch() {
+        return m_eventConfDao.getRootEvents().findFirstMatchingEvent(nextTrap());
+    }
+
+    @Benchmark
+    public org.opennms.netmgt.xml.eventconf.Event decisionTree() {
+        return m_eventConfDao.findByEvent(nextTrap());
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(EventConfMatchingBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.config;
+
+import static org.opennms.core.utils.InetAddressUtils.addr;
+import static org.opennms.core.utils.InetAddressUtils.toIpAddrBytes;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.core.utils.ByteArrayComparator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Matches a large synthetic set of interfaces against a large number of
+ * packages, as is done when scheduling services in pollerd and collectd, and
+ * compares the {@link PackageMembershipIndex} with scanning the filter results,
+ * ranges and specifics of every package in turn.
+ *
+ * The time required to schedule all of the interfaces is the average time
+ * per operation multiplied by the number of interfaces.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.opennms.netmgt.config.PackageMembershipBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PackageMembershipBenchmark {
+
+    private static final ByteArrayComparator COMPARATOR = new ByteArrayComparator();
+
+    @Param({"200"})
+    public int numPackages;
+
+    @Param({"80000"})
+    public int numInterfaces;
+
+    private List<SyntheticPackage> m_packages;
+    private PackageMembershipIndex<SyntheticPackage> m_index;
+    private InetAddress[] m_interfaces;
+    private int m_next = 0;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+
+        // Spread the interfaces over 10.0.0.0/12
+        final List<InetAddress> interfaces = new ArrayList<InetAddress>(numInterfaces);
+        for (int i = 0; i < numInterfaces; i++) {
+            final int host = random.nextInt(1 << 20);
+            interfaces.add(addr(String.format("10.%d.%d.%d", host >> 16, (host >> 8) & 0xff, host & 0xff)));
+        }
+
+        // Each package covers a /20 and a couple of specifics, excludes a /24,
+        // and has a filter that selects most of the interfaces that are in range
+        m_packages = new ArrayList<SyntheticPackage>(numPackages);
+        for (int i = 0; i < numPackages; i++) {
+            final SyntheticPackage pkg = new SyntheticPackage();
+            final int net = random.nextInt(1 << 8);
+            pkg.includeRanges.add(new String[] { String.format("10.%d.%d.0", net >> 4, (net & 0xf) << 4), String.format("10.%d.%d.255", net >> 4, ((net & 0xf) << 4) + 15) });
+            pkg.excludeRanges.add(new String[] { String.format("10.%d.%d.0", net >> 4, (net & 0xf) << 4), String.format("10.%d.%d.255", net >> 4, (net & 0xf) << 4) });
+            for (int k = 0; k < 2; k++) {
+                pkg.specifics.add(interfaces.get(random.nextInt(numInterfaces)).getHostAddress());
+            }
+            for (final InetAddress iface : interfaces) {
+                if (random.nextInt(100) < 90) {
+                    pkg.filterMatches.add(iface);
+                }
+            }
+            m_packages.add(pkg);
+        }
+
+        m_index = buildIndex();
+
+        Collections.shuffle(interfaces, random);
+        m_interfaces = interfaces.toArray(new InetAddress[interfaces.size()]);
+    }
+
+    private InetAddress nextInterface() {
+        final InetAddress iface = m_interfaces[m_next];
+        m_next = (m_next + 1) % m_interfaces.length;
+        return iface;
+    }
+
+    @Benchmark
+    public PackageMembershipIndex<SyntheticPackage> buildIndex() {
+        final PackageMembershipIndex.Builder<SyntheticPackage> indexBuilder = new PackageMembershipIndex.Builder<SyntheticPackage>();
+        for (final SyntheticPackage pkg : m_packages) {
+            indexBuilder.addPackage(pkg, false).filterMatches(pkg.filterMatches);
+            for (final String[] rng : pkg.includeRanges) {
+                indexBuilder.includeRange(rng[0], rng[1]);
+            }
+            for (final String[] rng : pkg.excludeRanges) {
+                indexBuilder.excludeRange(rng[0], rng[1]);
+            }
+            for (final String spec : pkg.specifics) {
+                indexBuilder.specific(spec);
+            }
+        }
+        return indexBuilder.build();
+    }
+
+    @Benchmark
+    public List<SyntheticPackage> indexedMatch() {
+        return m_index.getPackages(nextInterface());
+    }
+
+    @Benchmark
+    public List<SyntheticPackage> scanningMatch() {
+        final InetAddress iface = nextInterface();
+        final List<SyntheticPackage> matches = new ArrayList<SyntheticPackage>();
+        for (final SyntheticPackage pkg : m_packages) {
+            if (pkg.scan(iface)) {
+                matches.add(pkg);
+            }
+        }
+        return matches;
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(PackageMembershipBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+
+    public static class SyntheticPackage {
+        private final List<InetAddress> filterMatches = new ArrayList<InetAddress>();
+        private final List<String[]> includeRanges = new ArrayList<String[]>();
+        private final List<String[]> excludeRanges = new ArrayList<String[]>();
+        private final List<String> specifics = new ArrayList<String>();
+
+        /**
+         * Evaluates the package the same way that the configuration managers
+         * did before the index was introduced.
+         */
+        private boolean scan(final InetAddress iface) {
+            if (!filterMatches.contains(iface)) {
+                return false;
+            }
+            final byte[] addr = iface.getAddress();
+            for (final String spec : specifics) {
+                if (COMPARATOR.compare(addr, toIpAddrBytes(spec)) == 0) {
+                    return true;
+                }
+            }
+            boolean included = false;
+            for (final String[] rng : includeRanges) {
+                if (COMPARATOR.compare(addr, toIpAddrBytes(rng[0])) >= 0 && COMPARATOR.compare(addr, toIpAddrBytes(rng[1])) <= 0) {
+                    included = true;
+                    break;
+                }
+            }
+            if (!included) {
+                return false;
+            }
+            for (final String[] rng : excludeRanges) {
+                if (COMPARATOR.compare(addr, toIpAddrBytes(rng[0])) >= 0 && COMPARATOR.compare(addr, toIpAddrBytes(rng[1])) <= 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
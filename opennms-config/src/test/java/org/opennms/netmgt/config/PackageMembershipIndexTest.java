@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.opennms.core.utils.InetAddressUtils.addr;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class PackageMembershipIndexTest {
+
+    @Test
+    public void canMatchRangesAndSpecifics() {
+        final PackageMembershipIndex<String> index = new PackageMembershipIndex.Builder<String>()
+                .addPackage("ranges", false)
+                .includeRange("10.0.0.0", "10.0.255.255")
+                .includeRange("10.1.0.0", "10.1.0.255")
+                .excludeRange("10.0.1.0", "10.0.1.255")
+                .addPackage("specifics", false)
+                .specific("10.0.1.1")
+                .specific("fe80::1")
+                .excludeRange("10.0.0.0", "10.255.255.255")
+                .addPackage("all", true)
+                .excludeRange("fe80::", "fe80::ffff")
+                .addPackage("v6", false)
+                .includeRange("fe80::", "fe80::ffff")
+                .build();
+
+        assertEquals(Arrays.asList("ranges", "all"), index.getPackages(addr("10.0.0.1")));
+        assertEquals(Arrays.asList("ranges", "all"), index.getPackages(addr("10.0.255.255")));
+        assertEquals(Arrays.asList("specifics", "all"), index.getPackages(addr("10.0.1.1")));
+        assertEquals(Arrays.asList("ranges", "all"), index.getPackages(addr("10.1.0.0")));
+        assertEquals(Arrays.asList("all"), index.getPackages(addr("10.1.1.0")));
+        assertEquals(Arrays.asList("all"), index.getPackages(addr("9.255.255.255")));
+        assertEquals(Arrays.asList("specifics", "v6"), index.getPackages(addr("fe80::1")));
+        assertEquals(Arrays.asList("v6"), index.getPackages(addr("fe80::ffff")));
+        assertEquals(Arrays.asList("all"), index.getPackages(addr("fe80::1:0")));
+
+        assertTrue(index.contains(addr("10.0.0.1"), "ranges"));
+        assertFalse(index.contains(addr("10.0.1.1"), "ranges"));
+        assertTrue(index.contains(addr("10.0.1.1"), "specifics"));
+        assertFalse(index.contains(addr("10.0.1.2"), "specifics"));
+        assertFalse(index.contains(addr("fe80::2"), "all"));
+        assertTrue(index.contains(addr("255.255.255.255"), "all"));
+    }
+
+    @Test
+    public void canMatchFilters() {
+        final PackageMembershipIndex<String> index = new PackageMembershipIndex.Builder<String>()
+                .addPackage("filtered", true)
+                .filterMatches(Arrays.asList(addr("192.168.1.1"), addr("192.168.1.2")))
+                .addPackage("empty", true)
+                .filterMatches(Collections.emptyList())
+                .addPackage("unfiltered", false)
+                .includeRange("192.168.1.0", "192.168.1.255")
+                .build();
+
+        assertEquals(Arrays.asList("filtered", "unfiltered"), index.getPackages(addr("192.168.1.1")));
+        assertEquals(Arrays.asList("unfiltered"), index.getPackages(addr("192.168.1.3")));
+        assertTrue(index.contains(addr("192.168.1.2"), "filtered"));
+        assertFalse(index.contains(addr("192.168.1.3"), "filtered"));
+        assertFalse(index.contains(addr("192.168.1.1"), "empty"));
+        assertFalse(index.isIndexed("other"));
+    }
+
+    @Test
+    public void canIncludeTheEntireAddressSpace() {
+        final PackageMembershipIndex<String> index = new PackageMembershipIndex.Builder<String>()
+                .addPackage("v4", false)
+                .includeRange("0.0.0.0", "255.255.255.255")
+                .addPackage("everything", false)
+                .includeRange("0.0.0.0", "ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff")
+                .build();
+
+        assertEquals(Arrays.asList("v4", "everything"), index.getPackages(addr("0.0.0.0")));
+        assertEquals(Arrays.asList("v4", "everything"), index.getPackages(addr("255.255.255.255")));
+        assertEquals(Arrays.asList("everything"), index.getPackages(addr("::")));
+        assertEquals(Arrays.asList("everything"), index.getPackages(addr("ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff")));
+    }
+}
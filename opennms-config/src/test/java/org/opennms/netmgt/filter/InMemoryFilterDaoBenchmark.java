@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.filter;
+
+import java.net.InetAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.core.test.ConfigurationTestUtils;
+import org.opennms.core.test.db.MockDatabase;
+import org.opennms.netmgt.config.DatabaseSchemaConfigFactory;
+import org.opennms.netmgt.mock.MockNetwork;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Evaluates filter rules against a database with a large number of interfaces,
+ * and compares the {@link InMemoryFilterDao} with the {@link JdbcFilterDao}.
+ *
+ * The {@link JdbcFilterDao} is used without the cache of the active address
+ * lists, which is flushed whenever the inventory changes. The time required to
+ * load the snapshot is measured separately.
+ *
+ * Requires the same PostgreSQL database as the integration tests.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.opennms.netmgt.filter.InMemoryFilterDaoBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class InMemoryFilterDaoBenchmark {
+
+    private static final int INTERFACES_PER_NODE = 10;
+
+    @Param({"100000"})
+    public int numInterfaces;
+
+    @Param({"IPADDR IPLIKE *.*.*.*", "isSNMP & IPADDR IPLIKE 10.1.*.*", "nodeLabel LIKE 'node-1%' | (nodeID > 5000 & !isHTTP)"})
+    public String rule;
+
+    private MockDatabase m_db;
+    private JdbcFilterDao m_jdbcFilterDao;
+    private InMemoryFilterDao m_inMemoryFilterDao;
+    private String[] m_addresses;
+    private int m_next = 0;
+
+    @Setup
+    public void setUp() throws Exception {
+        final MockNetwork network = new MockNetwork();
+        m_addresses = new String[numInterfaces];
+        for (int i = 0; i < numInterfaces; i++) {
+            if (i % INTERFACES_PER_NODE == 0) {
+                final int nodeId = i / INTERFACES_PER_NODE + 1;
+                network.addNode(nodeId, "node-" + nodeId);
+            }
+            m_addresses[i] = String.format("10.%d.%d.%d", i >> 16, (i >> 8) & 0xff, i & 0xff);
+            network.addInterface(m_addresses[i]);
+            network.addService("ICMP");
+            if (i % 3 == 0) {
+                network.addService("SNMP");
+            }
+            if (i % 7 == 0) {
+                network.addService("HTTP");
+            }
+        }
+
+        m_db = new MockDatabase();
+        m_db.populate(network);
+
+        m_jdbcFilterDao = new JdbcFilterDao();
+        m_jdbcFilterDao.setDataSource(m_db);
+        m_jdbcFilterDao.setDatabaseSchemaConfigFactory(new DatabaseSchemaConfigFactory(ConfigurationTestUtils.getInputStreamForConfigFile("database-schema.xml")));
+        m_jdbcFilterDao.afterPropertiesSet();
+
+        m_inMemoryFilterDao = new InMemoryFilterDao(m_jdbcFilterDao, m_db);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        m_db.drop();
+    }
+
+    private String nextAddress() {
+        final String address = m_addresses[m_next];
+        m_next = (m_next + 7919) % m_addresses.length;
+        return address;
+    }
+
+    @Benchmark
+    public int loadSnapshot() throws Exception {
+        return FilterSnapshot.load(m_db).getInterfaces().size();
+    }
+
+    @Benchmark
+    public List<InetAddress> jdbcActiveIPAddressList() {
+        return m_jdbcFilterDao.getActiveIPAddressList(rule);
+    }
+
+    @Benchmark
+    public List<InetAddress> inMemoryActiveIPAddressList() {
+        return m_inMemoryFilterDao.getActiveIPAddressList(rule);
+    }
+
+    @Benchmark
+    public Map<InetAddress, Set<String>> jdbcIPAddressServiceMap() {
+        return m_jdbcFilterDao.getIPAddressServiceMap(rule);
+    }
+
+    @Benchmark
+    public Map<InetAddress, Set<String>> inMemoryIPAddressServiceMap() {
+        return m_inMemoryFilterDao.getIPAddressServiceMap(rule);
+    }
+
+    @Benchmark
+    public boolean jdbcIsValid() {
+        return m_jdbcFilterDao.isValid(nextAddress(), rule);
+    }
+
+    @Benchmark
+    public boolean inMemoryIsValid() {
+        return m_inMemoryFilterDao.isValid(nextAddress(), rule);
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(InMemoryFilterDaoBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,321 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.opennms.core.utils.InetAddressUtils.addr;
+
+import java.net.InetAddress;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.filter.api.FilterDao;
+import org.opennms.netmgt.filter.api.FilterParseException;
+import org.opennms.netmgt.xml.event.Event;
+
+public class InMemoryFilterDaoTest {
+
+    private FallbackFilterDao m_fallback;
+    private InMemoryFilterDao m_filterDao;
+
+    @Before
+    public void setUp() {
+        final FilterSnapshot snapshot = new FilterSnapshot();
+
+        final FilterSnapshot.Node router = snapshot.addNode(1);
+        router.setValue(FilterColumn.NODE_LABEL, "router");
+        router.setValue(FilterColumn.NODE_SYS_OID, ".1.3.6.1.4.1.9.1.1");
+        router.setHasAssets();
+        router.addCategory("Routers");
+        router.addCategory("Production");
+        FilterSnapshot.Interface iface = snapshot.addInterface(router, "10.0.0.1");
+        iface.setValue(FilterColumn.SNMP_IF_INDEX, 1L);
+        iface.addService("ICMP");
+        iface.addService("SNMP");
+        iface = snapshot.addInterface(router, "10.0.1.1");
+        iface.setIsManaged("D");
+        iface.addService("ICMP");
+
+        final FilterSnapshot.Node server = snapshot.addNode(2);
+        server.setValue(FilterColumn.NODE_LABEL, "server");
+        server.setValue(FilterColumn.MANUFACTURER, "Dell");
+        iface = snapshot.addInterface(server, "192.168.0.1");
+        iface.addService("ICMP");
+        iface.addService("HTTP");
+
+        final FilterSnapshot.Node printer = snapshot.addNode(3);
+        printer.setValue(FilterColumn.NODE_LABEL, "printer");
+        printer.setValue(FilterColumn.NODE_SYS_NAME, "lp0");
+        snapshot.addInterface(printer, "192.168.0.2");
+
+        m_fallback = new FallbackFilterDao();
+        m_filterDao = new InMemoryFilterDao(m_fallback, snapshot);
+    }
+
+    @Test
+    public void canParseRules() throws Exception {
+        FilterRuleParser.parse("IPADDR IPLIKE *.*.*.* & (isICMP | catincRouters) & !(nodeLabel LIKE 'x%')");
+        FilterRuleParser.parse("ipaddr iplike 10.1-2,4.*.* and nodeID in (1, 2, '3') or nodeSysName is not null");
+        FilterRuleParser.parse("IPLIKE(ipAddr, '192.168.*.*') && snmpIfIndex >= '1' && nodeLabel != \"a\"\"b\"");
+        assertUnsupported("ipLastCapsdPoll > '2016-01-01'");
+        assertUnsupported("notisICMP");
+        assertUnsupported("nodeLabel > 'a'");
+        assertUnsupported("nodeLabel == 1");
+        assertUnsupported("nodeID == 'x'");
+        assertUnsupported("(nodeID == 1");
+        assertUnsupported("nodeLabel == 'a");
+        assertUnsupported("nodeLabel IS DISTINCT FROM 'a'");
+        assertUnsupported("ipAddr::INET = '10.0.0.1'");
+    }
+
+    @Test
+    public void canGetNodeMap() {
+        assertEquals(nodes(1, "router", 2, "server"), m_filterDao.getNodeMap("isICMP"));
+        assertEquals(nodes(1, "router"), m_filterDao.getNodeMap("catincRouters & IPADDR IPLIKE 10.*.*.*"));
+        assertEquals(nodes(2, "server"), m_filterDao.getNodeMap("manufacturer == 'Dell'"));
+        assertEquals(nodes(1, "router", 2, "server", 3, "printer"), m_filterDao.getNodeMap(""));
+        assertEquals(0, m_fallback.m_calls);
+    }
+
+    @Test
+    public void canJoinServicesAndCategories() {
+        final Map<InetAddress, Set<String>> ipServices = m_filterDao.getIPAddressServiceMap("IPADDR IPLIKE *.*.*.*");
+        assertEquals(3, ipServices.size());
+        assertEquals(new TreeSet<String>(Arrays.asList("ICMP", "SNMP")), ipServices.get(addr("10.0.0.1")));
+        assertEquals(new TreeSet<String>(Arrays.asList("HTTP", "ICMP")), ipServices.get(addr("192.168.0.1")));
+
+        // Interfaces without services are dropped by the service join
+        assertEquals(addrs("10.0.0.1", "10.0.1.1", "192.168.0.1"), m_filterDao.getIPAddressList("serviceName LIKE '%'"));
+
+        // ...but nodes without categories are kept by the category join
+        assertEquals(addrs("192.168.0.1", "192.168.0.2"), m_filterDao.getIPAddressList("categoryName IS NULL"));
+        assertEquals(addrs("10.0.0.1", "10.0.1.1"), m_filterDao.getIPAddressList("categoryName == 'Routers' & categoryName != 'Production'"));
+        assertEquals(addrs("10.0.0.1"), m_filterDao.getIPAddressList("snmpIfIndex == 1"));
+    }
+
+    @Test
+    public void treatsNullsLikeSql() {
+        // printer is the only node with a sysName, the other nodes are unknown in both rules
+        assertEquals(addrs("192.168.0.2"), m_filterDao.getIPAddressList("nodeSysName == 'lp0'"));
+        assertEquals(addrs("192.168.0.2"), m_filterDao.getIPAddressList("!(nodeSysName == 'lp1')"));
+        assertEquals(addrs("10.0.0.1", "10.0.1.1", "192.168.0.1"), m_filterDao.getIPAddressList("nodeSysName IS NULL"));
+        assertEquals(addrs("10.0.0.1", "10.0.1.1"), m_filterDao.getIPAddressList("nodeSysName == 'lp1' | nodeID == 1"));
+    }
+
+    @Test
+    public void excludesDeletedInterfacesFromActiveList() {
+        assertEquals(addrs("10.0.0.1"), m_filterDao.getActiveIPAddressList("nodeLabel == 'router'"));
+        assertEquals(addrs("10.0.0.1", "10.0.1.1"), m_filterDao.getIPAddressList("nodeLabel == 'router'"));
+        assertTrue(m_filterDao.isValid("10.0.0.1", "nodeLabel == 'router'"));
+        assertFalse(m_filterDao.isValid("10.0.1.1", "nodeLabel == 'router'"));
+        assertFalse(m_filterDao.isValid("192.168.0.1", "nodeLabel == 'router'"));
+        assertTrue(m_filterDao.isRuleMatching("nodeLabel == 'printer'"));
+        assertFalse(m_filterDao.isRuleMatching("nodeLabel == 'scanner'"));
+        assertEquals(0, m_fallback.m_calls);
+    }
+
+    @Test
+    public void usesFallbackForUnsupportedRules() {
+        m_filterDao.getIPAddressList("ipLastCapsdPoll > '2016-01-01'");
+        m_filterDao.getActiveIPAddressList("isManaged == 'M'");
+        m_filterDao.validateRule("notisICMP");
+        m_filterDao.validateRule("isICMP");
+        assertEquals(3, m_fallback.m_calls);
+    }
+
+    @Test
+    public void usesTheDatabaseWhileReloading() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger loads = new AtomicInteger();
+        final InMemoryFilterDao filterDao = new InMemoryFilterDao(m_fallback, () -> {
+            if (loads.incrementAndGet() > 1) {
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    throw new SQLException(e);
+                }
+            }
+            return snapshotWithNodes(loads.get());
+        }, 0);
+
+        assertEquals(nodes(1, "node1"), filterDao.getNodeMap(""));
+        assertEquals(0, m_fallback.m_calls);
+        filterDao.onEvent(new Event());
+
+        // The reload is blocked, the calls don't wait for it
+        assertEquals(nodes(), filterDao.getNodeMap(""));
+        assertFalse(filterDao.isValid("10.0.0.1", "nodeLabel == 'node1'"));
+        assertEquals(2, m_fallback.m_calls);
+
+        release.countDown();
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (filterDao.getNodeMap("").size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        final int calls = m_fallback.m_calls;
+        assertEquals(nodes(1, "node1", 2, "node2"), filterDao.getNodeMap(""));
+        assertTrue(filterDao.isValid("10.0.0.2", "nodeLabel == 'node2'"));
+        assertEquals(2, loads.get());
+        assertEquals(calls, m_fallback.m_calls);
+    }
+
+    @Test
+    public void limitsTheReloadRate() throws Exception {
+        final AtomicInteger loads = new AtomicInteger();
+        final InMemoryFilterDao filterDao = new InMemoryFilterDao(m_fallback, () -> snapshotWithNodes(loads.incrementAndGet()), 100);
+
+        final long start = System.currentTimeMillis();
+        for (int i = 0; i < 50; i++) {
+            filterDao.onEvent(new Event());
+            filterDao.getNodeMap("");
+            Thread.sleep(10);
+        }
+        final long elapsed = System.currentTimeMillis() - start;
+
+        // The first load, then at most one per interval
+        assertTrue("loaded " + loads.get() + " times in " + elapsed + "ms", loads.get() <= 2 + elapsed / 100);
+        assertTrue(loads.get() > 1);
+    }
+
+    @Test
+    public void doesNotWaitForTheReloadAfterAFlush() throws Exception {
+        final AtomicInteger loads = new AtomicInteger();
+        final InMemoryFilterDao filterDao = new InMemoryFilterDao(m_fallback, () -> snapshotWithNodes(loads.incrementAndGet()), TimeUnit.MINUTES.toMillis(1));
+
+        assertEquals(nodes(1, "node1"), filterDao.getNodeMap(""));
+        filterDao.flushActiveIpAddressListCache();
+
+        // The reload waits for the minimum interval, the changes are read from the database meanwhile
+        assertEquals(nodes(), filterDao.getNodeMap(""));
+        assertEquals(1, m_fallback.m_calls);
+        assertEquals(1, loads.get());
+    }
+
+    /**
+     * @return a snapshot with the nodes 1 to count, each with the interface 10.0.0.&lt;nodeId&gt;
+     */
+    private static FilterSnapshot snapshotWithNodes(final int count) {
+        final FilterSnapshot snapshot = new FilterSnapshot();
+        for (int nodeId = 1; nodeId <= count; nodeId++) {
+            final FilterSnapshot.Node node = snapshot.addNode(nodeId);
+            node.setValue(FilterColumn.NODE_LABEL, "node" + nodeId);
+            snapshot.addInterface(node, "10.0.0." + nodeId);
+        }
+        return snapshot;
+    }
+
+    private static void assertUnsupported(final String rule) {
+        try {
+            FilterRuleParser.parse(rule);
+        } catch (final FilterRuleParser.UnsupportedRuleException e) {
+            return;
+        }
+        throw new AssertionError("rule '" + rule + "' should not be supported");
+    }
+
+    private static SortedMap<Integer, String> nodes(final Object... idsAndLabels) {
+        final SortedMap<Integer, String> nodes = new TreeMap<Integer, String>();
+        for (int i = 0; i < idsAndLabels.length; i += 2) {
+            nodes.put((Integer)idsAndLabels[i], (String)idsAndLabels[i + 1]);
+        }
+        return nodes;
+    }
+
+    private static List<InetAddress> addrs(final String... addresses) {
+        final List<InetAddress> list = new ArrayList<InetAddress>();
+        for (final String address : addresses) {
+            list.add(addr(address));
+        }
+        return list;
+    }
+
+    private static class FallbackFilterDao implements FilterDao {
+        private int m_calls = 0;
+
+        @Override
+        public SortedMap<Integer, String> getNodeMap(final String rule) throws FilterParseException {
+            m_calls++;
+            return new TreeMap<Integer, String>();
+        }
+
+        @Override
+        public Map<InetAddress, Set<String>> getIPAddressServiceMap(final String rule) throws FilterParseException {
+            m_calls++;
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public void flushActiveIpAddressListCache() {
+        }
+
+        @Override
+        public List<InetAddress> getActiveIPAddressList(final String rule) throws FilterParseException {
+            m_calls++;
+            return Collections.emptyList();
+        }
+
+        @Override
+        public List<InetAddress> getIPAddressList(final String rule) throws FilterParseException {
+            m_calls++;
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isValid(final String addr, final String rule) throws FilterParseException {
+            m_calls++;
+            return false;
+        }
+
+        @Override
+        public boolean isRuleMatching(final String rule) throws FilterParseException {
+            m_calls++;
+            return false;
+        }
+
+        @Override
+        public void validateRule(final String rule) throws FilterParseException {
+            m_calls++;
+        }
+    }
+}
@@ -31,15 +31,21 @@ package org.opennms.netmgt.rrd;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.opennms.core.logging.Logging;
 import org.slf4j.Logger;
@@ -96,6 +102,13 @@ import org.slf4j.LoggerFactory;
  * org.opennms.rrd.queuing.category: (default "queued") the log routing prefix
  * to place the statistics output in
  *
+ * org.opennms.rrd.queuing.shards: (default 0) the number of shards the queue
+ * is split into. Each file always hashes to the same shard and operations are
+ * enqueued onto a shard without locking. A write thread claims a whole shard,
+ * drains it and coalesces consecutive updates for each file into a single
+ * multi-value update. Zero means a single queue with the prioritization
+ * described above.
+ *
  *
  *
  * TODO: Promote files when ZeroUpdate operations can't be merged. This may be a
@@ -157,6 +170,10 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
 
     private long m_writeThreadExitDelay;
 
+    private QueueShard[] m_queueShards = new QueueShard[0];
+
+    private final AtomicInteger m_nextShard = new AtomicInteger();
+
     /**
      * <p>getWriteThreads</p>
      *
@@ -357,6 +374,28 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         m_writeThreadExitDelay = writeThreadExitDelay;
     }
 
+    /**
+     * <p>getShards</p>
+     *
+     * @return a int.
+     */
+    public int getShards() {
+        return m_queueShards.length;
+    }
+
+    /**
+     * <p>setShards</p>
+     *
+     * @param shards a int.
+     */
+    public void setShards(int shards) {
+        final QueueShard[] queueShards = new QueueShard[Math.max(shards, 0)];
+        for (int i = 0; i < queueShards.length; i++) {
+            queueShards[i] = new QueueShard(i);
+        }
+        m_queueShards = queueShards;
+    }
+
     LinkedList<String> filesWithSignificantWork = new LinkedList<String>();
 
     LinkedList<String> filesWithInsignificantWork = new LinkedList<String>();
@@ -381,13 +420,17 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
 
     private long m_dequeuedItems = 0;
 
+    private long m_coalescedOperations = 0;
+
     private long m_createsCompleted = 0;
 
     private long m_updatesCompleted = 0;
 
     private long m_errors = 0;
 
-    int threadsRunning = 0;
+    private long m_droppedOperations = 0;
+
+    volatile int threadsRunning = 0;
 
     private long m_startTime = 0;
 
@@ -510,8 +553,14 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
             // open the file if we need to
             if (rrd == null) rrd = m_delegate.openFile(getFileName());
 
-            final String update = (String) getData();
+            processUpdate(rrd, (String) getData());
+
+            // return the open rrd for further processing
+            return rrd;
+
+        }
 
+        void processUpdate(Object rrd, String update) throws Exception {
             try {
                 // process the update
                 m_delegate.updateFile(rrd, "", update);
@@ -526,9 +575,60 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
             if (getUpdatesCompleted() % m_modulus == 0) {
                 logStats();
             }
-            // return the open rrd for further processing
-            return rrd;
+        }
+
+        /**
+         * Consecutive updates for the same file are merged into a single
+         * {@link CoalescedUpdateOperation}.
+         */
+        @Override
+        void addToPendingList(LinkedList<Operation> pendingOperations) {
+            if (pendingOperations.size() > 0 && pendingOperations.getLast() instanceof CoalescedUpdateOperation) {
+                ((CoalescedUpdateOperation) pendingOperations.getLast()).addUpdate(this);
+            } else if (pendingOperations.size() > 0 && pendingOperations.getLast().getClass() == UpdateOperation.class) {
+                final UpdateOperation previous = (UpdateOperation) pendingOperations.removeLast();
+                pendingOperations.add(new CoalescedUpdateOperation(previous, this));
+            } else {
+                super.addToPendingList(pendingOperations);
+            }
+        }
+
+    }
+
+    /**
+     * Represents consecutive updates to a rrd file that are written together.
+     * The delegate receives all of the values against a single open file so
+     * strategies that batch their updates (i.e. rrdtool) write them as one
+     * multi-value update.
+     */
+    public class CoalescedUpdateOperation extends UpdateOperation {
+
+        final List<String> updates = new ArrayList<String>(4);
+
+        CoalescedUpdateOperation(UpdateOperation first, UpdateOperation second) {
+            super(first.getFileName(), (String) first.getData(), first.isSignificant() || second.isSignificant());
+            updates.add((String) first.getData());
+            updates.add((String) second.getData());
+        }
+
+        void addUpdate(UpdateOperation op) {
+            updates.add((String) op.getData());
+        }
+
+        @Override
+        public int getCount() {
+            return updates.size();
+        }
 
+        @Override
+        Object process(Object rrd) throws Exception {
+            // open the file if we need to
+            if (rrd == null) rrd = m_delegate.openFile(getFileName());
+
+            for (final String update : updates) {
+                processUpdate(rrd, update);
+            }
+            return rrd;
         }
 
     }
@@ -633,10 +733,10 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
                     zeroOp.mergeUpdates(this);
                 } catch (IllegalArgumentException e) {
                     m_log.debug("Unable to mergeUpdates {}", e.getMessage());
-                    super.addToPendingList(pendingOperations);
+                    pendingOperations.add(this);
                 }
             } else {
-                super.addToPendingList(pendingOperations);
+                pendingOperations.add(this);
             }
         }
     }
@@ -676,6 +776,121 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         return new UpdateOperation(fileName, update);
     }
 
+    /**
+     * A shard of the queue. Every file hashes to exactly one shard and a shard
+     * is drained by at most one write thread at a time, so operations for a
+     * file are never processed concurrently.
+     */
+    class QueueShard {
+        final int index;
+        final ConcurrentLinkedQueue<Operation> inbox = new ConcurrentLinkedQueue<Operation>();
+        final AtomicBoolean busy = new AtomicBoolean(false);
+        final AtomicLong depth = new AtomicLong();
+        final AtomicLong enqueued = new AtomicLong();
+        final AtomicLong significantEnqueued = new AtomicLong();
+        final AtomicLong dequeued = new AtomicLong();
+        final AtomicLong significantDequeued = new AtomicLong();
+        final AtomicLong dequeuedItems = new AtomicLong();
+        final AtomicLong coalesced = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+
+        QueueShard(final int index) {
+            this.index = index;
+        }
+
+        /**
+         * Enqueue the operation unless a high water mark has been reached.
+         *
+         * @return true if the operation was enqueued
+         */
+        boolean offer(final Operation op) {
+            final long pending = depth.get();
+            if (isFull(pending, m_queueHighWaterMark)
+                    || (op.isSignificant() && isFull(pending, m_sigHighWaterMark))
+                    || (!op.isSignificant() && isFull(pending, m_inSigHighWaterMark))) {
+                dropped.incrementAndGet();
+                m_log.error("RRD Data Queue shard {} is Full!! Discarding operation for file {}", index, op.getFileName());
+                return false;
+            }
+
+            depth.incrementAndGet();
+            enqueued.incrementAndGet();
+            if (op.isSignificant()) {
+                significantEnqueued.incrementAndGet();
+            }
+            inbox.offer(op);
+            return true;
+        }
+
+        /**
+         * The high water marks apply to the whole queue so each shard gets an
+         * equal share.
+         */
+        private boolean isFull(final long pending, final long highWaterMark) {
+            if (highWaterMark <= 0) {
+                return false;
+            }
+            return pending >= (highWaterMark + m_queueShards.length - 1) / m_queueShards.length;
+        }
+
+        boolean tryAcquire() {
+            return !inbox.isEmpty() && busy.compareAndSet(false, true);
+        }
+
+        void release() {
+            busy.set(false);
+        }
+
+        /**
+         * Take the operations that are currently enqueued and group them by
+         * file, preserving the order in which they were enqueued. An update
+         * that is merged into the previous operation for its file is counted
+         * as coalesced and is no longer counted as enqueued.
+         */
+        Map<String, LinkedList<Operation>> drain() {
+            final Map<String, LinkedList<Operation>> pendingOperations = new LinkedHashMap<String, LinkedList<Operation>>();
+            Operation op;
+            for (long remaining = depth.get(); remaining > 0 && (op = inbox.poll()) != null; remaining--) {
+                LinkedList<Operation> ops = pendingOperations.get(op.getFileName());
+                if (ops == null) {
+                    ops = new LinkedList<Operation>();
+                    pendingOperations.put(op.getFileName(), ops);
+                }
+                final int size = ops.size();
+                op.addToPendingList(ops);
+
+                depth.decrementAndGet();
+                if (ops.size() > size) {
+                    dequeued.incrementAndGet();
+                    if (op.isSignificant()) {
+                        significantDequeued.incrementAndGet();
+                    }
+                } else {
+                    coalesced.incrementAndGet();
+                    enqueued.decrementAndGet();
+                    if (op.isSignificant()) {
+                        significantEnqueued.decrementAndGet();
+                    }
+                }
+            }
+            dequeuedItems.addAndGet(pendingOperations.size());
+            return pendingOperations;
+        }
+
+        /**
+         * @return the average number of operations written per file update
+         */
+        double getCoalesceRatio() {
+            final long items = dequeuedItems.get();
+            return items == 0 ? 0.0 : (double) (dequeued.get() + coalesced.get()) / items;
+        }
+    }
+
+    private QueueShard getShard(final String fileName) {
+        final QueueShard[] queueShards = m_queueShards;
+        return queueShards[(fileName.hashCode() & Integer.MAX_VALUE) % queueShards.length];
+    }
+
     //
     // Queue management functions.
     //
@@ -688,28 +903,40 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param op a {@link org.opennms.netmgt.rrd.QueuingRrdStrategy.Operation} object.
      */
     private void addOperation(final Operation op) {
+        if (m_queueShards.length > 0) {
+            if (getShard(op.getFileName()).offer(op) && threadsRunning < m_writeThreads) {
+                ensureThreadsStarted();
+            }
+            return;
+        }
+
         synchronized (this) {
             if (queueIsFull()) {
                 m_log.error("RRD Data Queue is Full!! Discarding operation for file {}", op.getFileName());
+                m_droppedOperations++;
                 return;
             }
 
             if (op.isSignificant() && sigQueueIsFull()) {
                 m_log.error("RRD Data Significant Queue is Full!! Discarding operation for file {}", op.getFileName());
+                m_droppedOperations++;
                 return;
             }
 
             if (!op.isSignificant() && inSigQueueIsFull()) {
                 m_log.error("RRD Insignificant Data Queue is Full!! Discarding operation for file {}", op.getFileName());
+                m_droppedOperations++;
                 return;
             }
 
-            storeAssignment(op);
-
             setTotalOperationsPending(getTotalOperationsPending() + 1);
-            setEnqueuedOperations(getEnqueuedOperations() + 1);
-            if (op.isSignificant())
-                setSignificantOpsEnqueued(getSignificantOpsEnqueued() + 1);
+            if (storeAssignment(op)) {
+                setEnqueuedOperations(getEnqueuedOperations() + 1);
+                if (op.isSignificant())
+                    setSignificantOpsEnqueued(getSignificantOpsEnqueued() + 1);
+            } else {
+                setCoalescedOperations(getCoalescedOperations() + 1);
+            }
             notifyAll();
             ensureThreadsStarted();
         }
@@ -779,9 +1006,9 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
             if (ops != null) {
                 for(Operation op : ops) {
                     setTotalOperationsPending(getTotalOperationsPending()-op.getCount());
-                    setDequeuedOperations(getDequeuedOperations() + op.getCount());
+                    setDequeuedOperations(getDequeuedOperations() + 1);
                     if (op.isSignificant()) {
-                        setSignificantOpsDequeued(getSignificantOpsDequeued() + op.getCount());
+                        setSignificantOpsDequeued(getSignificantOpsDequeued() + 1);
                     }
                 }
                 setDequeuedItems(getDequeuedItems() + 1);
@@ -796,8 +1023,10 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * We need to track which files are being processed by which threads so that
      * we don't try to process updates for the same file on more than one
      * thread.
+     *
+     * @return false if the operation was merged into one that is already pending
      */
-    private synchronized void storeAssignment(Operation op) {
+    private synchronized boolean storeAssignment(Operation op) {
         // look and see if there a pending ops list for this file
         LinkedList<Operation> pendingOperations = pendingFileOperations.get(op.getFileName());
 
@@ -824,7 +1053,9 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
 
         promoteAgedFiles();
 
+        final int size = pendingOperations.size();
         op.addToPendingList(pendingOperations);
+        return pendingOperations.size() > size;
     }
 
     /**
@@ -867,7 +1098,10 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
     /** {@inheritDoc} */
     @Override
     public synchronized void promoteEnqueuedFiles(Collection<String> rrdFiles) {
-        filesWithSignificantWork.addAll(0, rrdFiles);
+        // the shards are not prioritized, every file is written on the next pass
+        if (m_queueShards.length == 0) {
+            filesWithSignificantWork.addAll(0, rrdFiles);
+        }
         m_delegate.promoteEnqueuedFiles(rrdFiles);
     }
 
@@ -1070,10 +1304,9 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
             long waitStart = -1L;
             long delayed = 0;
             while (delayed < m_writeThreadExitDelay) {
-                if (getTotalOperationsPending() > 0) {
+                if (getTotalOperationsPending() > 0 && processPendingOperations()) {
                     delayed = 0;
                     waitStart = -1L;
-                    processPendingOperations();
                 } else {
                     if (waitStart < 0) {
                         waitStart = System.currentTimeMillis();
@@ -1098,40 +1331,85 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
     /**
      * Actually process the operations be calling the underlying delegate
      * strategy
+     *
+     * @return false if there was no work that this thread could claim
      */
-    private void processPendingOperations() {
+    private boolean processPendingOperations() {
+        if (m_queueShards.length > 0) {
+            return processShardedOperations();
+        }
+
         Logging.withPrefix(m_category, new Runnable() {
             @Override public void run() {
-                Object rrd = null;
-                String fileName = null;
+                processOperations(getNext());
+            }
+        });
+        return true;
+    }
 
-                try {
-                    final LinkedList<Operation> ops = getNext();
-                    if (ops == null) {
-                        return;
-                    }
-                    // update stats correctly we update them even if an exception occurs
-                    // while we are processing
-                    for (final Operation op : ops) {
-                        if (op.isSignificant()) {
-                            setSignificantOpsCompleted(getSignificantOpsCompleted() + 1);
+    /**
+     * Claim the next shard with pending work and write all of its files.
+     * Threads start their search at different shards to spread the load.
+     */
+    private boolean processShardedOperations() {
+        final QueueShard[] queueShards = m_queueShards;
+        final int start = Math.floorMod(m_nextShard.getAndIncrement(), queueShards.length);
+        for (int i = 0; i < queueShards.length; i++) {
+            final QueueShard shard = queueShards[(start + i) % queueShards.length];
+            if (!shard.tryAcquire()) {
+                continue;
+            }
+            try {
+                if (getStartTime() == 0) {
+                    setStartTime(System.currentTimeMillis());
+                }
+                final Map<String, LinkedList<Operation>> pendingOperations = shard.drain();
+                Logging.withPrefix(m_category, new Runnable() {
+                    @Override public void run() {
+                        for (final LinkedList<Operation> ops : pendingOperations.values()) {
+                            processOperations(ops);
                         }
-
-                    }
-                    // now we actually process the events
-                    for (final Operation op : ops) {
-                        fileName = op.getFileName();
-                        rrd = op.process(rrd);
                     }
-                } catch (final Throwable e) {
-                    setErrors(getErrors() + 1);
-                    logLapTime("Error updating file " + fileName + ": " + e.getMessage());
-                    m_log.debug("Error updating file {}: {}", fileName, e.getMessage(), e);
-                } finally {
-                    processClose(rrd);
+                });
+            } finally {
+                shard.release();
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Process the operations for a single file.
+     */
+    private void processOperations(final LinkedList<Operation> ops) {
+        Object rrd = null;
+        String fileName = null;
+
+        try {
+            if (ops == null) {
+                return;
+            }
+            // update stats correctly we update them even if an exception occurs
+            // while we are processing
+            for (final Operation op : ops) {
+                if (op.isSignificant()) {
+                    setSignificantOpsCompleted(getSignificantOpsCompleted() + 1);
                 }
+
             }
-        });
+            // now we actually process the events
+            for (final Operation op : ops) {
+                fileName = op.getFileName();
+                rrd = op.process(rrd);
+            }
+        } catch (final Throwable e) {
+            setErrors(getErrors() + 1);
+            logLapTime("Error updating file " + fileName + ": " + e.getMessage());
+            m_log.debug("Error updating file {}: {}", fileName, e.getMessage(), e);
+        } finally {
+            processClose(rrd);
+        }
     }
 
     /**
@@ -1194,6 +1472,9 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
                 + "\nQS:\t" + ", createsCompleted=" + getCreatesCompleted() +
                 ", updatesCompleted=" + getUpdatesCompleted() +
                 ", errors=" + getErrors() +
+                ", droppedOperations=" + getDroppedOperations() +
+                ", coalescedOperations=" + getCoalescedOperations() +
+                ", shards=" + getShards() +
                 ", promotionRate=" + ((double) (getPromotionCount() * 1000.0 / totalElapsedMillis)) +
                 ", promotionCount=" + getPromotionCount()
 
@@ -1304,7 +1585,11 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getTotalOperationsPending() {
-        return m_totalOperationsPending;
+        long total = m_totalOperationsPending;
+        for (final QueueShard shard : m_queueShards) {
+            total += shard.depth.get();
+        }
+        return total;
     }
 
     /**
@@ -1394,7 +1679,11 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getSignificantOpsEnqueued() {
-        return m_significantOpsEnqueued;
+        long total = m_significantOpsEnqueued;
+        for (final QueueShard shard : m_queueShards) {
+            total += shard.significantEnqueued.get();
+        }
+        return total;
     }
 
     /**
@@ -1412,7 +1701,11 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getSignificantOpsDequeued() {
-        return m_significantOpsDequeued;
+        long total = m_significantOpsDequeued;
+        for (final QueueShard shard : m_queueShards) {
+            total += shard.significantDequeued.get();
+        }
+        return total;
     }
 
     /**
@@ -1430,7 +1723,11 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getEnqueuedOperations() {
-        return m_enqueuedOperations;
+        long total = m_enqueuedOperations;
+        for (final QueueShard shard : m_queueShards) {
+            total += shard.enqueued.get();
+        }
+        return total;
     }
 
     /**
@@ -1448,7 +1745,11 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getDequeuedOperations() {
-        return m_dequeuedOperations;
+        long total = m_dequeuedOperations;
+        for (final QueueShard shard : m_queueShards) {
+            total += shard.dequeued.get();
+        }
+        return total;
     }
 
     /**
@@ -1466,7 +1767,11 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getDequeuedItems() {
-        return m_dequeuedItems;
+        long total = m_dequeuedItems;
+        for (final QueueShard shard : m_queueShards) {
+            total += shard.dequeuedItems.get();
+        }
+        return total;
     }
 
     /**
@@ -1478,6 +1783,28 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         m_dequeuedItems = dequeuedItems;
     }
 
+    /**
+     * <p>getCoalescedOperations</p>
+     *
+     * @return the number of updates that were merged into an operation that was already pending
+     */
+    public long getCoalescedOperations() {
+        long total = m_coalescedOperations;
+        for (final QueueShard shard : m_queueShards) {
+            total += shard.coalesced.get();
+        }
+        return total;
+    }
+
+    /**
+     * <p>setCoalescedOperations</p>
+     *
+     * @param coalescedOperations a long.
+     */
+    public void setCoalescedOperations(long coalescedOperations) {
+        m_coalescedOperations = coalescedOperations;
+    }
+
     /**
      * <p>getSignificantOpsCompleted</p>
      *
@@ -1514,5 +1841,69 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         m_startTime = updateStart;
     }
 
+    /**
+     * <p>getDroppedOperations</p>
+     *
+     * @return the number of operations discarded because a high water mark was reached
+     */
+    public long getDroppedOperations() {
+        long total = m_droppedOperations;
+        for (final QueueShard shard : m_queueShards) {
+            total += shard.dropped.get();
+        }
+        return total;
+    }
+
+    /**
+     * <p>getCoalesceRatio</p>
+     *
+     * @return the average number of operations written per file update
+     */
+    public double getCoalesceRatio() {
+        return (double) (getDequeuedOperations() + getCoalescedOperations()) / Math.max(getDequeuedItems(), 1L);
+    }
+
+    /**
+     * <p>getShardDepths</p>
+     *
+     * @return the number of operations pending in each shard
+     */
+    public long[] getShardDepths() {
+        final QueueShard[] queueShards = m_queueShards;
+        final long[] depths = new long[queueShards.length];
+        for (int i = 0; i < queueShards.length; i++) {
+            depths[i] = queueShards[i].depth.get();
+        }
+        return depths;
+    }
+
+    /**
+     * <p>getShardCoalesceRatios</p>
+     *
+     * @return the average number of operations written per file update for each shard
+     */
+    public double[] getShardCoalesceRatios() {
+        final QueueShard[] queueShards = m_queueShards;
+        final double[] ratios = new double[queueShards.length];
+        for (int i = 0; i < queueShards.length; i++) {
+            ratios[i] = queueShards[i].getCoalesceRatio();
+        }
+        return ratios;
+    }
+
+    /**
+     * <p>getShardDroppedOperations</p>
+     *
+     * @return the number of operations discarded by each shard
+     */
+    public long[] getShardDroppedOperations() {
+        final QueueShard[] queueShards = m_queueShards;
+        final long[] dropped = new long[queueShards.length];
+        for (int i = 0; i < queueShards.length; i++) {
+            dropped[i] = queueShards[i].dropped.get();
+        }
+        return dropped;
+    }
+
 
 }
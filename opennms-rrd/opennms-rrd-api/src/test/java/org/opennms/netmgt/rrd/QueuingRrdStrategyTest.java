@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class QueuingRrdStrategyTest {
+
+    private RecordingRrdStrategy m_delegate;
+
+    private QueuingRrdStrategy m_strategy;
+
+    @Before
+    public void setUp() {
+        m_delegate = new RecordingRrdStrategy();
+
+        m_strategy = new QueuingRrdStrategy(m_delegate);
+        m_strategy.setModulus(10000);
+        m_strategy.setWriteThreadSleepTime(1);
+        m_strategy.setWriteThreadExitDelay(10);
+        m_strategy.setShards(4);
+    }
+
+    @Test
+    public void testConsecutiveUpdatesAreCoalesced() throws Exception {
+        // no write threads, the queue is processed by the test thread
+        m_strategy.setWriteThreads(0);
+
+        m_strategy.updateFile("a.jrb", "test", "1000:1");
+        m_strategy.updateFile("a.jrb", "test", "1300:2");
+        m_strategy.updateFile("a.jrb", "test", "1600:3");
+        m_strategy.updateFile("b.jrb", "test", "1000:4");
+        assertEquals(4, m_strategy.getTotalOperationsPending());
+
+        m_strategy.run();
+
+        assertEquals(0, m_strategy.getTotalOperationsPending());
+        assertEquals(4, m_strategy.getUpdatesCompleted());
+        assertEquals(1, m_delegate.getOpens("a.jrb"));
+        assertEquals(1, m_delegate.getOpens("b.jrb"));
+        assertEquals(3, m_delegate.getUpdates("a.jrb").size());
+        assertEquals("1000:1", m_delegate.getUpdates("a.jrb").get(0));
+        assertEquals("1600:3", m_delegate.getUpdates("a.jrb").get(2));
+        assertEquals(2, m_strategy.getEnqueuedOperations());
+        assertEquals(2, m_strategy.getDequeuedOperations());
+        assertEquals(2, m_strategy.getCoalescedOperations());
+        assertEquals(2, m_strategy.getSignificantOpsEnqueued());
+        assertEquals(2, m_strategy.getSignificantOpsDequeued());
+        assertEquals(2.0, m_strategy.getCoalesceRatio(), 0.0001);
+    }
+
+    @Test
+    public void testUpdatesAreWrittenInOrder() throws Exception {
+        m_strategy.setWriteThreads(3);
+
+        final int files = 100;
+        final int updatesPerFile = 20;
+        for (int i = 0; i < updatesPerFile; i++) {
+            for (int j = 0; j < files; j++) {
+                m_strategy.updateFile("file" + j + ".jrb", "test", (1000 + i * 300) + ":" + (i + 1));
+            }
+        }
+
+        final long timeout = System.currentTimeMillis() + 10000;
+        while (m_strategy.getUpdatesCompleted() < files * updatesPerFile && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(files * updatesPerFile, m_strategy.getUpdatesCompleted());
+        assertEquals(files * updatesPerFile, m_strategy.getEnqueuedOperations() + m_strategy.getCoalescedOperations());
+        assertEquals(m_strategy.getEnqueuedOperations(), m_strategy.getDequeuedOperations());
+        assertEquals(0, m_strategy.getDroppedOperations());
+        assertEquals(0, m_strategy.getErrors());
+        for (int j = 0; j < files; j++) {
+            final List<String> updates = m_delegate.getUpdates("file" + j + ".jrb");
+            assertEquals(updatesPerFile, updates.size());
+            for (int i = 0; i < updatesPerFile; i++) {
+                assertEquals((1000 + i * 300) + ":" + (i + 1), updates.get(i));
+            }
+        }
+        assertTrue(m_strategy.getCoalesceRatio() >= 1.0);
+    }
+
+    @Test
+    public void testHighWaterMarkIsSharedAcrossShards() throws Exception {
+        m_strategy.setWriteThreads(0);
+        m_strategy.setQueueHighWaterMark(8);
+
+        // all updates for the same file end up in the same shard which may hold 2 operations
+        for (int i = 0; i < 10; i++) {
+            m_strategy.updateFile("a.jrb", "test", (1000 + i * 300) + ":1");
+        }
+
+        assertEquals(2, m_strategy.getTotalOperationsPending());
+        assertEquals(8, m_strategy.getDroppedOperations());
+
+        long dropped = 0;
+        for (final long shardDropped : m_strategy.getShardDroppedOperations()) {
+            dropped += shardDropped;
+        }
+        assertEquals(8, dropped);
+        assertEquals(4, m_strategy.getShardDepths().length);
+    }
+
+    private static class RecordingRrdStrategy extends NullRrdStrategy {
+        private final Map<String, Integer> m_opens = new HashMap<String, Integer>();
+        private final Map<String, List<String>> m_updates = new HashMap<String, List<String>>();
+
+        @Override
+        public synchronized Object openFile(String fileName) {
+            final Integer opens = m_opens.get(fileName);
+            m_opens.put(fileName, opens == null ? 1 : opens + 1);
+            return fileName;
+        }
+
+        @Override
+        public synchronized void updateFile(Object rrd, String owner, String data) {
+            List<String> updates = m_updates.get(rrd);
+            if (updates == null) {
+                updates = new ArrayList<String>();
+                m_updates.put((String) rrd, updates);
+            }
+            updates.add(data);
+        }
+
+        public synchronized int getOpens(String fileName) {
+            final Integer opens = m_opens.get(fileName);
+            return opens == null ? 0 : opens;
+        }
+
+        public synchronized List<String> getUpdates(String fileName) {
+            final List<String> updates = m_updates.get(fileName);
+            return updates == null ? new ArrayList<String>() : new ArrayList<String>(updates);
+        }
+    }
+}
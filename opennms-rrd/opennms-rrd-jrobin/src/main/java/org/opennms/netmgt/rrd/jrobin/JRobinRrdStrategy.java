@@ -44,6 +44,7 @@ import java.util.Map.Entry;
 import java.util.Properties;
 
 import org.jrobin.core.FetchData;
+import org.jrobin.core.RrdBackendFactory;
 import org.jrobin.core.RrdDb;
 import org.jrobin.core.RrdDef;
 import org.jrobin.core.RrdException;
@@ -73,6 +74,8 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
     private static final Logger LOG = LoggerFactory.getLogger(JRobinRrdStrategy.class);
     private static final String BACKEND_FACTORY_PROPERTY = "org.jrobin.core.RrdBackendFactory";
     private static final String DEFAULT_BACKEND_FACTORY = "FILE";
+    private static final String MMAP_POOL_SIZE_PROPERTY = "org.opennms.rrd.jrobin.mmap.poolSize";
+    private static final String MMAP_SYNC_PERIOD_PROPERTY = "org.opennms.rrd.jrobin.mmap.syncPeriod";
 
     /*
      * Ensure that we only initialize certain things *once* per
@@ -132,6 +135,11 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
                 factory = (String)m_configurationProperties.get(BACKEND_FACTORY_PROPERTY);
             }
             try {
+                if (MappedRrdBackendFactory.NAME.equals(factory)) {
+                    RrdBackendFactory.registerFactory(new MappedRrdBackendFactory(
+                            getIntegerProperty(MMAP_POOL_SIZE_PROPERTY, MappedRrdBackendFactory.DEFAULT_POOL_SIZE),
+                            getIntegerProperty(MMAP_SYNC_PERIOD_PROPERTY, MappedRrdBackendFactory.DEFAULT_SYNC_PERIOD)));
+                }
                 RrdDb.setDefaultFactory(factory);
                 s_initialized=true;
             } catch (RrdException e) {
@@ -140,6 +148,19 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         }
     }
 
+    private int getIntegerProperty(final String key, final int defaultValue) {
+        final String value = m_configurationProperties == null ? null : m_configurationProperties.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (final NumberFormatException e) {
+            LOG.warn("Invalid value {} for {}, using {}", value, key, defaultValue);
+            return defaultValue;
+        }
+    }
+
     /**
      * Closes the JRobin RrdDb.
      *
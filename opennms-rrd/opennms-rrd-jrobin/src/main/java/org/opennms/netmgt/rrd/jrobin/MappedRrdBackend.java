@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import java.io.IOException;
+
+import org.jrobin.core.RrdBackend;
+
+/**
+ * JRobin backend that reads and writes through a file mapped by the
+ * {@link MappedRrdBackendFactory}.
+ */
+public class MappedRrdBackend extends RrdBackend {
+
+    private final MappedRrdBackendFactory m_factory;
+
+    private final MappedRrdBackendFactory.MappedFile m_file;
+
+    private boolean m_closed = false;
+
+    MappedRrdBackend(final MappedRrdBackendFactory factory, final MappedRrdBackendFactory.MappedFile file) {
+        super(file.getPath());
+        m_factory = factory;
+        m_file = file;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void write(final long offset, final byte[] b) throws IOException {
+        m_file.write(offset, b);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void read(final long offset, final byte[] b) throws IOException {
+        m_file.read(offset, b);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getLength() throws IOException {
+        return m_file.getLength();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void setLength(final long length) throws IOException {
+        m_file.setLength(length);
+    }
+
+    /**
+     * Returns the file to the pool, the mapping stays open until it is
+     * evicted.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!m_closed) {
+            m_closed = true;
+            m_factory.release(m_file);
+        }
+    }
+}
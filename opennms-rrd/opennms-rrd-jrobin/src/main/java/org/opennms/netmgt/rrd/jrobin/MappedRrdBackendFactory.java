@@ -0,0 +1,332 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.jrobin.core.RrdBackend;
+import org.jrobin.core.RrdBackendFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JRobin backend factory that keeps a bounded LRU pool of memory-mapped RRD
+ * files.
+ *
+ * Opening a pooled file does not touch the disk, and every update to it is a
+ * memory store into the mapping. Dirty mappings are forced to disk by a
+ * background thread every <code>syncPeriod</code> seconds and when they are
+ * evicted from the pool, so several collection cycles worth of updates to the
+ * same archive reach the disk in a single pass.
+ *
+ * Files that are only opened for reading (graphing, fetches) and are not
+ * already pooled are mapped read-only and are not added to the pool.
+ */
+public class MappedRrdBackendFactory extends RrdBackendFactory {
+    private static final Logger LOG = LoggerFactory.getLogger(MappedRrdBackendFactory.class);
+
+    /** The name used to select this factory. */
+    public static final String NAME = "MMAP";
+
+    /** The default maximum number of mapped files. */
+    public static final int DEFAULT_POOL_SIZE = 1024;
+
+    /** The default number of seconds between flushes of the dirty mappings. */
+    public static final int DEFAULT_SYNC_PERIOD = 300;
+
+    private final int m_poolSize;
+
+    private final Map<String, MappedFile> m_pool = new LinkedHashMap<String, MappedFile>(16, 0.75f, true);
+
+    private final ScheduledExecutorService m_syncExecutor;
+
+    /**
+     * <p>Constructor for MappedRrdBackendFactory.</p>
+     *
+     * @param poolSize the maximum number of files that are kept mapped
+     * @param syncPeriod the number of seconds between flushes of the dirty mappings
+     */
+    public MappedRrdBackendFactory(final int poolSize, final int syncPeriod) {
+        m_poolSize = Math.max(poolSize, 1);
+        final int period;
+        if (syncPeriod > 0) {
+            period = syncPeriod;
+        } else {
+            LOG.warn("Invalid sync period {}, using {}", syncPeriod, DEFAULT_SYNC_PERIOD);
+            period = DEFAULT_SYNC_PERIOD;
+        }
+        m_syncExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "JRobin-MappedRrdSync");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        m_syncExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                sync();
+            }
+        }, period, period, TimeUnit.SECONDS);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected RrdBackend open(final String path, final boolean readOnly) throws IOException {
+        MappedFile file;
+        synchronized (m_pool) {
+            file = m_pool.get(path);
+            if (file == null && !readOnly) {
+                file = new MappedFile(path, false);
+                m_pool.put(path, file);
+            }
+            if (file != null) {
+                file.references++;
+                evict();
+                return new MappedRrdBackend(this, file);
+            }
+        }
+        return new MappedRrdBackend(this, new MappedFile(path, true));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected boolean exists(final String path) throws IOException {
+        synchronized (m_pool) {
+            if (m_pool.containsKey(path)) {
+                return true;
+            }
+        }
+        return new File(path).exists();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getFactoryName() {
+        return NAME;
+    }
+
+    /**
+     * <p>getPoolSize</p>
+     *
+     * @return the maximum number of files that are kept mapped
+     */
+    public int getPoolSize() {
+        return m_poolSize;
+    }
+
+    /**
+     * <p>getMappedFiles</p>
+     *
+     * @return the number of files that are currently mapped
+     */
+    public int getMappedFiles() {
+        synchronized (m_pool) {
+            return m_pool.size();
+        }
+    }
+
+    /**
+     * Called when a backend is closed by JRobin.
+     */
+    void release(final MappedFile file) throws IOException {
+        if (file.isReadOnly()) {
+            file.close();
+            return;
+        }
+        synchronized (m_pool) {
+            file.references--;
+            evict();
+        }
+    }
+
+    /**
+     * Close the least recently used files until the pool fits again.
+     * Files that are still open by JRobin are skipped.
+     */
+    private void evict() {
+        if (m_pool.size() <= m_poolSize) {
+            return;
+        }
+        for (final Iterator<MappedFile> it = m_pool.values().iterator(); it.hasNext() && m_pool.size() > m_poolSize;) {
+            final MappedFile file = it.next();
+            if (file.references > 0) {
+                continue;
+            }
+            it.remove();
+            try {
+                file.close();
+            } catch (final IOException e) {
+                LOG.warn("Failed to close mapped RRD file {}", file.getPath(), e);
+            }
+        }
+    }
+
+    /**
+     * Force all dirty mappings to disk.
+     */
+    public void sync() {
+        final List<MappedFile> files;
+        synchronized (m_pool) {
+            files = new ArrayList<MappedFile>(m_pool.values());
+        }
+        for (final MappedFile file : files) {
+            try {
+                file.sync();
+            } catch (final Throwable t) {
+                LOG.warn("Failed to sync mapped RRD file {}", file.getPath(), t);
+            }
+        }
+    }
+
+    /**
+     * Flush and close all of the mapped files.
+     */
+    public void close() {
+        m_syncExecutor.shutdown();
+        synchronized (m_pool) {
+            for (final MappedFile file : m_pool.values()) {
+                try {
+                    file.close();
+                } catch (final IOException e) {
+                    LOG.warn("Failed to close mapped RRD file {}", file.getPath(), e);
+                }
+            }
+            m_pool.clear();
+        }
+    }
+
+    /**
+     * A memory-mapped file. The mapping is only released once it has been
+     * garbage collected, which is why the number of pooled files is bounded.
+     */
+    static class MappedFile {
+        private final String m_path;
+        private final boolean m_readOnly;
+        private RandomAccessFile m_file;
+        private MappedByteBuffer m_buffer;
+        private boolean m_dirty = false;
+
+        /** Number of open backends using this file, guarded by the pool. */
+        int references = 0;
+
+        MappedFile(final String path, final boolean readOnly) throws IOException {
+            m_path = path;
+            m_readOnly = readOnly;
+            m_file = new RandomAccessFile(path, readOnly ? "r" : "rw");
+            map(m_file.length());
+        }
+
+        String getPath() {
+            return m_path;
+        }
+
+        boolean isReadOnly() {
+            return m_readOnly;
+        }
+
+        private void map(final long length) throws IOException {
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("RRD file " + m_path + " is too large to be mapped: " + length);
+            }
+            m_buffer = m_file.getChannel().map(m_readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE, 0, length);
+        }
+
+        private void ensureOpen() throws IOException {
+            if (m_file == null) {
+                throw new IOException("RRD file " + m_path + " has been closed");
+            }
+        }
+
+        synchronized long getLength() throws IOException {
+            ensureOpen();
+            return m_buffer.capacity();
+        }
+
+        synchronized void setLength(final long length) throws IOException {
+            ensureOpen();
+            if (length == m_buffer.capacity()) {
+                return;
+            }
+            if (m_dirty) {
+                m_buffer.force();
+                m_dirty = false;
+            }
+            m_file.setLength(length);
+            map(length);
+        }
+
+        synchronized void read(final long offset, final byte[] b) throws IOException {
+            ensureOpen();
+            final ByteBuffer buffer = m_buffer.duplicate();
+            buffer.position((int) offset);
+            buffer.get(b);
+        }
+
+        synchronized void write(final long offset, final byte[] b) throws IOException {
+            ensureOpen();
+            final ByteBuffer buffer = m_buffer.duplicate();
+            buffer.position((int) offset);
+            buffer.put(b);
+            m_dirty = true;
+        }
+
+        synchronized void sync() throws IOException {
+            if (m_dirty && m_buffer != null) {
+                m_buffer.force();
+                m_dirty = false;
+            }
+        }
+
+        synchronized void close() throws IOException {
+            if (m_file == null) {
+                return;
+            }
+            sync();
+            m_buffer = null;
+            m_file.close();
+            m_file = null;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+
+import org.jrobin.core.RrdBackendFactory;
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDef;
+import org.jrobin.core.Sample;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Simulates a 5 minute collection cycle against a temporary directory of
+ * JRobin files and compares the FILE backend with the pooled
+ * {@link MappedRrdBackendFactory}.
+ *
+ * Each invocation opens every file once and writes <code>updatesPerFile</code>
+ * samples to it, which is what the write threads do when the queue coalesces
+ * the updates of several cycles.
+ *
+ * The default of 100k files uses a few GB of disk, use -p files=... to scale down.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.opennms.netmgt.rrd.jrobin.MappedRrdBackendBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MappedRrdBackendBenchmark {
+
+    private static final int STEP = 300;
+
+    private static final int FILES_PER_DIRECTORY = 1000;
+
+    @Param({"FILE", MappedRrdBackendFactory.NAME})
+    public String backend;
+
+    @Param({"100000"})
+    public int files;
+
+    @Param({"1", "3"})
+    public int updatesPerFile;
+
+    private File m_directory;
+
+    private String[] m_paths;
+
+    private RrdBackendFactory m_factory;
+
+    private long m_timestamp;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        if (MappedRrdBackendFactory.NAME.equals(backend)) {
+            m_factory = new MappedRrdBackendFactory(MappedRrdBackendFactory.DEFAULT_POOL_SIZE, MappedRrdBackendFactory.DEFAULT_SYNC_PERIOD);
+        } else {
+            m_factory = RrdBackendFactory.getFactory(backend);
+        }
+
+        m_directory = Files.createTempDirectory("rrd-benchmark").toFile();
+        m_timestamp = System.currentTimeMillis() / 1000 / STEP * STEP - 10 * STEP;
+
+        m_paths = new String[files];
+        for (int i = 0; i < files; i++) {
+            final File directory = new File(m_directory, Integer.toString(i / FILES_PER_DIRECTORY));
+            directory.mkdirs();
+            m_paths[i] = new File(directory, "ifHCInOctets" + i + ".jrb").getAbsolutePath();
+
+            final RrdDef def = new RrdDef(m_paths[i], m_timestamp - STEP, STEP);
+            def.addDatasource("ifHCInOctets", "COUNTER", 2 * STEP, Double.NaN, Double.NaN);
+            def.addArchive("AVERAGE", 0.5, 1, 2016);
+            def.addArchive("AVERAGE", 0.5, 12, 1488);
+            def.addArchive("MAX", 0.5, 288, 366);
+            new RrdDb(def, m_factory).close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (m_factory instanceof MappedRrdBackendFactory) {
+            ((MappedRrdBackendFactory) m_factory).close();
+        }
+        Files.walkFileTree(m_directory.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(final Path dir, final IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @Benchmark
+    public void collectionCycle() throws Exception {
+        for (int i = 0; i < m_paths.length; i++) {
+            final RrdDb rrdDb = new RrdDb(m_paths[i], m_factory);
+            try {
+                for (int j = 0; j < updatesPerFile; j++) {
+                    final Sample sample = rrdDb.createSample(m_timestamp + j * STEP);
+                    sample.setValue(0, (m_timestamp + j * STEP) * 1000.0 + i);
+                    sample.update();
+                }
+            } finally {
+                rrdDb.close();
+            }
+        }
+        m_timestamp += updatesPerFile * STEP;
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(MappedRrdBackendBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
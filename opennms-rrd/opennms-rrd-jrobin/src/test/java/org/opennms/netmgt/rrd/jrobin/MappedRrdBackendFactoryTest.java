@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+
+import org.jrobin.core.RrdBackendFactory;
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDef;
+import org.jrobin.core.Sample;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.test.FileAnticipator;
+
+public class MappedRrdBackendFactoryTest {
+
+    private static final long START = 1000000000L;
+
+    private FileAnticipator m_fileAnticipator;
+
+    private MappedRrdBackendFactory m_factory;
+
+    @Before
+    public void setUp() throws Exception {
+        m_fileAnticipator = new FileAnticipator();
+        m_factory = new MappedRrdBackendFactory(2, 300);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_factory.close();
+        m_fileAnticipator.deleteExpected();
+        m_fileAnticipator.tearDown();
+    }
+
+    @Test
+    public void testPoolIsBounded() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            createFile("test" + i + ".jrb");
+        }
+        assertEquals(2, m_factory.getMappedFiles());
+    }
+
+    @Test
+    public void testUpdatesAreWrittenToDisk() throws Exception {
+        final String path = createFile("test.jrb");
+
+        final RrdDb rrdDb = new RrdDb(path, m_factory);
+        for (int i = 1; i <= 3; i++) {
+            final Sample sample = rrdDb.createSample(START + i * 300);
+            sample.setValue(0, 42.0 + i);
+            sample.update();
+        }
+        rrdDb.close();
+        m_factory.sync();
+
+        final RrdDb fileRrdDb = new RrdDb(path, RrdBackendFactory.getFactory("FILE"));
+        try {
+            assertEquals(START + 900, fileRrdDb.getLastUpdateTime());
+            assertEquals(45.0, fileRrdDb.getDatasource(0).getLastValue(), 0.0);
+        } finally {
+            fileRrdDb.close();
+        }
+    }
+
+    private String createFile(final String name) throws Exception {
+        final File file = m_fileAnticipator.expecting(name);
+        final RrdDef def = new RrdDef(file.getAbsolutePath(), START, 300);
+        def.addDatasource("test", "GAUGE", 600, Double.NaN, Double.NaN);
+        def.addArchive("AVERAGE", 0.5, 1, 100);
+        new RrdDb(def, m_factory).close();
+        return file.getAbsolutePath();
+    }
+}
@@ -29,6 +29,10 @@
 package org.opennms.netmgt.collectd;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 
 import org.opennms.core.logging.Logging;
 import org.opennms.core.utils.InetAddressUtils;
@@ -41,6 +45,7 @@ import org.opennms.netmgt.collection.api.CollectionSetVisitor;
 import org.opennms.netmgt.collection.api.PersisterFactory;
 import org.opennms.netmgt.collection.api.ServiceCollector;
 import org.opennms.netmgt.collection.api.ServiceParameters;
+import org.opennms.netmgt.collection.support.CompositeCollectionSetVisitor;
 import org.opennms.netmgt.config.CollectdConfigFactory;
 import org.opennms.netmgt.config.DataCollectionConfigFactory;
 import org.opennms.netmgt.dao.api.IpInterfaceDao;
@@ -104,6 +109,12 @@ final class CollectableService implements ReadyRunnable {
      */
     private static final boolean ABORT_COLLECTION = true;
 
+    /**
+     * Enables persisting and thresholding the resources of the collectors
+     * that support it while they are collected.
+     */
+    static final String STREAMING_PROPERTY = "org.opennms.netmgt.collectd.streaming";
+
 	private final CollectionSpecification m_spec;
 
 	private final SchedulingCompletedFlag m_schedulingCompletedFlag;
@@ -392,25 +403,28 @@ final class CollectableService implements ReadyRunnable {
 		LOG.info("run: starting new collection for {}/{}/{}/{}", m_nodeId, getHostAddress(), m_spec.getServiceName(), m_spec.getPackageName());
 		CollectionSet result = null;
 		try {
-		    result = m_spec.collect(m_agent);
+		    // Persist and threshold the resources while they are collected if the collector supports it
+		    final AtomicBoolean streamed = new AtomicBoolean(false);
+		    final Function<CollectionSet, CollectionSetVisitor> visitorFactory = Boolean.getBoolean(STREAMING_PROPERTY) ? set -> {
+		        streamed.set(true);
+		        return createVisitor(set);
+		    } : null;
+		    result = m_spec.collect(m_agent, visitorFactory);
 		    if (result != null) {
-                        Collectd.instrumentation().beginPersistingServiceData(m_spec.getPackageName(), m_nodeId, getHostAddress(), m_spec.getServiceName());
-                        try {
-                            CollectionSetVisitor persister = m_persisterFactory.createPersister(m_params, m_repository, result.ignorePersist(), false, false);
-                            result.visit(persister);
-                        } finally {
-                            Collectd.instrumentation().endPersistingServiceData(m_spec.getPackageName(), m_nodeId, getHostAddress(), m_spec.getServiceName());
-                        }
+                        if (!streamed.get()) {
+                            Collectd.instrumentation().beginPersistingServiceData(m_spec.getPackageName(), m_nodeId, getHostAddress(), m_spec.getServiceName());
+                            try {
+                                CollectionSetVisitor persister = m_persisterFactory.createPersister(m_params, m_repository, result.ignorePersist(), false, false);
+                                result.visit(persister);
+                            } finally {
+                                Collectd.instrumentation().endPersistingServiceData(m_spec.getPackageName(), m_nodeId, getHostAddress(), m_spec.getServiceName());
+                            }
 
-                        /*
-                         * Do the thresholding; this could be made more generic (listeners being passed the collectionset), but frankly, why bother?
-                         * The first person who actually needs to configure that sort of thing on the fly can code it up.
-                         */
-                        if (m_thresholdVisitor != null) {
-                            if (m_thresholdVisitor.isNodeInOutage()) {
-                                LOG.info("run: the threshold processing will be skipped because the node {} is on a scheduled outage.", m_nodeId);
-                            } else if (m_thresholdVisitor.hasThresholds()) {
-                                m_thresholdVisitor.setCounterReset(result.ignorePersist()); // Required to reinitialize the counters.
+                            /*
+                             * Do the thresholding; this could be made more generic (listeners being passed the collectionset), but frankly, why bother?
+                             * The first person who actually needs to configure that sort of thing on the fly can code it up.
+                             */
+                            if (shouldApplyThresholds(result)) {
                                 result.visit(m_thresholdVisitor);
                             }
                         }
@@ -429,6 +443,34 @@ final class CollectableService implements ReadyRunnable {
 		LOG.info("run: finished collection for {}/{}/{}/{}", m_nodeId, getHostAddress(), m_spec.getServiceName(), m_spec.getPackageName());
 	}
 
+	/**
+	 * Creates the visitor that persists and thresholds a collection set that
+	 * is streamed by its collector.
+	 */
+	private CollectionSetVisitor createVisitor(CollectionSet result) {
+	    final List<CollectionSetVisitor> visitors = new ArrayList<CollectionSetVisitor>(2);
+	    visitors.add(m_persisterFactory.createPersister(m_params, m_repository, result.ignorePersist(), false, false));
+	    if (shouldApplyThresholds(result)) {
+	        visitors.add(m_thresholdVisitor);
+	    }
+	    return new CompositeCollectionSetVisitor(visitors);
+	}
+
+	private boolean shouldApplyThresholds(CollectionSet result) {
+	    if (m_thresholdVisitor == null) {
+	        return false;
+	    }
+	    if (m_thresholdVisitor.isNodeInOutage()) {
+	        LOG.info("run: the threshold processing will be skipped because the node {} is on a scheduled outage.", m_nodeId);
+	        return false;
+	    }
+	    if (!m_thresholdVisitor.hasThresholds()) {
+	        return false;
+	    }
+	    m_thresholdVisitor.setCounterReset(result.ignorePersist()); // Required to reinitialize the counters.
+	    return true;
+	}
+
 	/**
      * Process any outstanding updates.
      * 
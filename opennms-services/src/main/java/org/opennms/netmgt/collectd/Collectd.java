@@ -74,9 +74,9 @@ import org.opennms.netmgt.model.OnmsMonitoredService;
 import org.opennms.netmgt.model.OnmsNode;
 import org.opennms.netmgt.model.events.EventBuilder;
 import org.opennms.netmgt.model.events.EventUtils;
-import org.opennms.netmgt.scheduler.LegacyScheduler;
 import org.opennms.netmgt.scheduler.ReadyRunnable;
 import org.opennms.netmgt.scheduler.Scheduler;
+import org.opennms.netmgt.scheduler.Schedulers;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.Parm;
 import org.opennms.netmgt.xml.event.Value;
@@ -315,7 +315,7 @@ public class Collectd extends AbstractServiceDaemon implements
                 // Create a scheduler
                 try {
                     LOG.debug("init: Creating collectd scheduler");
-                    setScheduler(new LegacyScheduler("Collectd", m_collectdConfigFactory.getCollectdConfig().getThreads()));
+                    setScheduler(Schedulers.createScheduler("Collectd", m_collectdConfigFactory.getCollectdConfig().getThreads()));
                 } catch (final RuntimeException e) {
                     LOG.error("init: Failed to create collectd scheduler", e);
                     throw e;
@@ -521,8 +521,8 @@ public class Collectd extends AbstractServiceDaemon implements
                 // Add new collectable service to the collectable service list.
                 m_collectableServices.add(cSvc);
 
-                // Schedule the collectable service for immediate collection
-                getScheduler().schedule(0, cSvc.getReadyRunnable());
+                // Schedule the collectable service, the scheduler may spread the first collections over the interval
+                getScheduler().schedule(getScheduler().getInitialDelay(cSvc, spec.getInterval()), cSvc.getReadyRunnable());
 
                 LOG.debug("scheduleInterface: {}/{} collection, scheduled", iface, svcName);
             } catch (CollectionInitializationException e) {
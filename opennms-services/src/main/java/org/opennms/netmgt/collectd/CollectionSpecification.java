@@ -32,12 +32,14 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.function.Function;
 
 import org.opennms.netmgt.collection.api.CollectionAgent;
 import org.opennms.netmgt.collection.api.CollectionException;
 import org.opennms.netmgt.collection.api.CollectionInitializationException;
 import org.opennms.netmgt.collection.api.CollectionInstrumentation;
 import org.opennms.netmgt.collection.api.CollectionSet;
+import org.opennms.netmgt.collection.api.CollectionSetVisitor;
 import org.opennms.netmgt.collection.api.ServiceCollector;
 import org.opennms.netmgt.collection.api.ServiceParameters;
 import org.opennms.netmgt.config.CollectdConfigFactory;
@@ -269,9 +271,37 @@ public class CollectionSpecification {
      * @throws org.opennms.netmgt.collection.api.CollectionException if any.
      */
     public CollectionSet collect(CollectionAgent agent) throws CollectionException {
+        return collect(agent, null);
+    }
+
+    /**
+     * <p>isStreaming</p>
+     *
+     * @return true if the collector can visit the collection set while collecting it
+     */
+    public boolean isStreaming() {
+        return getCollector() instanceof StreamingServiceCollector;
+    }
+
+    /**
+     * Collects the data, visiting it with the visitor created by
+     * <code>visitorFactory</code> while it is collected if the collector
+     * {@link #isStreaming() is streaming}. Otherwise the factory isn't called.
+     *
+     * @param agent a {@link org.opennms.netmgt.collection.api.CollectionAgent} object.
+     * @param visitorFactory creates the visitor for the collection set, may be null
+     * @return a {@link org.opennms.netmgt.collection.api.CollectionSet} object.
+     * @throws org.opennms.netmgt.collection.api.CollectionException if any.
+     */
+    public CollectionSet collect(CollectionAgent agent, Function<CollectionSet, CollectionSetVisitor> visitorFactory) throws CollectionException {
         m_instrumentation.beginCollectorCollect(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName);
         try {
-            CollectionSet set = getCollector().collect(agent, EventIpcManagerFactory.getIpcManager(), getPropertyMap());
+            final CollectionSet set;
+            if (visitorFactory != null && isStreaming()) {
+                set = ((StreamingServiceCollector)getCollector()).collect(agent, EventIpcManagerFactory.getIpcManager(), getPropertyMap(), visitorFactory);
+            } else {
+                set = getCollector().collect(agent, EventIpcManagerFactory.getIpcManager(), getPropertyMap());
+            }
             // There are collector implementations that never throw an exception just return a collection failed
             if (set.getStatus() == ServiceCollector.COLLECTION_FAILED) {
                 m_instrumentation.reportCollectionException(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName, new CollectionFailed(ServiceCollector.COLLECTION_FAILED));
@@ -28,7 +28,9 @@
 
 package org.opennms.netmgt.collectd;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -36,6 +38,7 @@ import org.opennms.netmgt.config.datacollection.MibObject;
 import org.opennms.netmgt.snmp.AbstractSnmpStore;
 import org.opennms.netmgt.snmp.SnmpInstId;
 import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpObjIdTrie;
 import org.opennms.netmgt.snmp.SnmpResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -69,6 +72,16 @@ public final class SNMPCollectorEntry extends AbstractSnmpStore {
     private Collection<SnmpAttributeType> m_attrList;
     private SnmpCollectionSet m_collectionSet;
 
+    /**
+     * The attribute types of m_attrList by OID.
+     */
+    private SnmpObjIdTrie<List<SnmpAttributeType>> m_attrIndex;
+
+    /**
+     * The resources that the values of this entry were stored in.
+     */
+    private List<SnmpCollectionResource> m_resources = new ArrayList<SnmpCollectionResource>(2);
+
     /**
      * <p>Constructor for SNMPCollectorEntry.</p>
      *
@@ -76,18 +89,57 @@ public final class SNMPCollectorEntry extends AbstractSnmpStore {
      * @param collectionSet a {@link org.opennms.netmgt.collectd.SnmpCollectionSet} object.
      */
     public SNMPCollectorEntry(Collection<SnmpAttributeType> attrList, SnmpCollectionSet collectionSet) {
+        this(attrList, indexAttributeTypes(attrList), collectionSet);
+    }
+
+    /**
+     * <p>Constructor for SNMPCollectorEntry.</p>
+     *
+     * @param attrList a {@link java.util.Collection} object.
+     * @param attrIndex the attribute types of attrList, as returned by {@link #indexAttributeTypes(Collection)}
+     * @param collectionSet a {@link org.opennms.netmgt.collectd.SnmpCollectionSet} object.
+     */
+    SNMPCollectorEntry(Collection<SnmpAttributeType> attrList, SnmpObjIdTrie<List<SnmpAttributeType>> attrIndex, SnmpCollectionSet collectionSet) {
         super();
         if (attrList == null) {
             throw new NullPointerException("attrList is null!");
         }
         m_attrList = attrList;
+        m_attrIndex = attrIndex;
         m_collectionSet = collectionSet;
     }
 
+    /**
+     * Indexes attribute types by OID so that the types matching a result
+     * are found in one walk of the result OID rather than a scan of the
+     * whole list. Entries that collect the same list can share the index.
+     *
+     * @param attrList a {@link java.util.Collection} object.
+     * @return the index
+     */
+    static SnmpObjIdTrie<List<SnmpAttributeType>> indexAttributeTypes(Collection<SnmpAttributeType> attrList) {
+        if (attrList == null) {
+            throw new NullPointerException("attrList is null!");
+        }
+        SnmpObjIdTrie<List<SnmpAttributeType>> index = new SnmpObjIdTrie<List<SnmpAttributeType>>();
+        for (SnmpAttributeType attrType : attrList) {
+            List<SnmpAttributeType> attrTypes = index.get(attrType.getSnmpObjId());
+            if (attrTypes == null) {
+                attrTypes = new ArrayList<SnmpAttributeType>(1);
+                index.put(attrType.getSnmpObjId(), attrTypes);
+            }
+            attrTypes.add(attrType);
+        }
+        return index;
+    }
 
     private List<SnmpAttributeType> findAttributeTypeForOid(SnmpObjId base, SnmpInstId inst) {
+        List<SnmpAttributeType> attrTypes = m_attrIndex.get(base);
+        if (attrTypes == null) {
+            return Collections.emptyList();
+        }
         List<SnmpAttributeType> matching = new LinkedList<SnmpAttributeType>();
-        for (SnmpAttributeType attrType : m_attrList) {
+        for (SnmpAttributeType attrType : attrTypes) {
             if (attrType.matches(base, inst)) {
                 matching.add(attrType);
             }
@@ -110,12 +162,24 @@ public final class SNMPCollectorEntry extends AbstractSnmpStore {
             if (attrType.getInstance().equals(MibObject.INSTANCE_IFINDEX)) {
                 putIfIndex(res.getInstance().toInt());
             }
-            attrType.storeResult(m_collectionSet, this, res);
+            SnmpCollectionResource resource = attrType.storeResult(m_collectionSet, this, res);
+            if (resource != null && !m_resources.contains(resource)) {
+                m_resources.add(resource);
+            }
             LOG.debug("storeResult: added value for {}: {}", attrType.getAlias(), res.toString());
         }
     }
 
 
+    /**
+     * Returns the resources that the values of this entry were stored in.
+     *
+     * @return a {@link java.util.List} object.
+     */
+    List<SnmpCollectionResource> getResources() {
+        return m_resources;
+    }
+
     String getValueForBase(String baseOid) {
     
         String instance = String.valueOf(getIfIndex()); 
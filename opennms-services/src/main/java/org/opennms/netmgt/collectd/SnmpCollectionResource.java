@@ -176,6 +176,14 @@ public abstract class SnmpCollectionResource implements CollectionResource {
         return m_groups.values();
     }
 
+    /**
+     * Drops the collected values once the resource has been visited by a
+     * streaming collection.
+     */
+    void releaseAttributes() {
+        m_groups.clear();
+    }
+
     public List<CollectionAttribute> getStringAttributes() {
         return m_groups.values().stream()
         .flatMap(g -> g.getAttributes().stream())
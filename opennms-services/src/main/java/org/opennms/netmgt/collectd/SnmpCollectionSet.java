@@ -30,13 +30,17 @@ package org.opennms.netmgt.collectd;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
 
 import org.opennms.core.utils.ParameterMap;
 import org.opennms.netmgt.collection.api.CollectionAgent;
@@ -46,6 +50,7 @@ import org.opennms.netmgt.collection.api.CollectionResource;
 import org.opennms.netmgt.collection.api.CollectionSet;
 import org.opennms.netmgt.collection.api.CollectionSetVisitor;
 import org.opennms.netmgt.collection.api.ServiceCollector;
+import org.opennms.netmgt.dao.api.MonitoringLocationDao;
 import org.opennms.netmgt.snmp.AggregateTracker;
 import org.opennms.netmgt.snmp.Collectable;
 import org.opennms.netmgt.snmp.CollectionTracker;
@@ -93,7 +98,12 @@ public class SnmpCollectionSet implements Collectable, CollectionSet {
     private SnmpNodeCollector m_nodeCollector;
     private int m_status=ServiceCollector.COLLECTION_FAILED;
     private boolean m_ignorePersist;
+    private boolean m_systemRestartChecked;
     private Date m_timestamp;
+    private Function<CollectionSet, CollectionSetVisitor> m_visitorFactory;
+    private boolean m_streaming;
+    private CollectionSetVisitor m_visitor;
+    private final Set<CollectionResource> m_visitedResources = Collections.newSetFromMap(new IdentityHashMap<CollectionResource, Boolean>());
 
     /**
      * <p>toString</p>
@@ -357,6 +367,25 @@ public class SnmpCollectionSet implements Collectable, CollectionSet {
                 getCollectionAgent().getHostAddress(), getCollectionAgent().getLocationName());
     }
 
+    /**
+     * Collects the data, streaming the complete resources through the
+     * visitor created by <code>visitorFactory</code> while the walk is still
+     * running. Call {@link #completeVisit()} once the collection is done to
+     * visit the remaining resources.
+     * <p>Custom MibObj properties are applied across all the resources, so
+     * collection sets that have them are only visited once they are complete.</p>
+     *
+     * @param visitorFactory creates the visitor once {@link #ignorePersist()} is known
+     */
+    void collect(Function<CollectionSet, CollectionSetVisitor> visitorFactory) throws CollectionException {
+        m_visitorFactory = Objects.requireNonNull(visitorFactory);
+        m_streaming = !new SnmpPropertyExtenderProcessor().hasProperties(m_snmpCollection.getName(), m_agent.getSysObjectId(), m_agent.getHostAddress());
+        if (!m_streaming) {
+            LOG.debug("collect: not streaming the collection for {} since it has custom MibObj properties", m_agent.getHostAddress());
+        }
+        collect();
+    }
+
     void collect() throws CollectionException {
         // XXX Should we have a call to hasDataToCollect here?
         try {
@@ -364,21 +393,29 @@ public class SnmpCollectionSet implements Collectable, CollectionSet {
             CollectionAgent agent = getCollectionAgent();
             logStartedWalker();
 
-            CompletableFuture<CollectionTracker> future = m_client.walk(getAgentConfig(), getTracker())
-                .withDescription("SnmpCollectors for " + agent.getHostAddress())
-                .withLocation(getCollectionAgent().getLocationName())
-                .execute();
-
-            // wait for collection to finish
-            try {
-                future.get();
-            } finally {
-                logFinishedWalker();
+            if (m_streaming && isDefaultLocation()) {
+                // Walk in place so that the rows reach the trackers as the responses arrive,
+                // the RPC client only hands them over once the whole walk is done
+                walk();
+            } else {
+                CompletableFuture<CollectionTracker> future = m_client.walk(getAgentConfig(), getTracker())
+                    .withDescription("SnmpCollectors for " + agent.getHostAddress())
+                    .withLocation(getCollectionAgent().getLocationName())
+                    .execute();
+
+                // wait for collection to finish
+                try {
+                    future.get();
+                } finally {
+                    logFinishedWalker();
+                }
             }
 
             // Execute POST Updates (add custom parameters)
-            SnmpPropertyExtenderProcessor processor = new SnmpPropertyExtenderProcessor();
-            processor.process(this, m_snmpCollection.getName(), m_agent.getSysObjectId(), m_agent.getHostAddress());
+            if (!m_streaming) {
+                SnmpPropertyExtenderProcessor processor = new SnmpPropertyExtenderProcessor();
+                processor.process(this, m_snmpCollection.getName(), m_agent.getSysObjectId(), m_agent.getHostAddress());
+            }
 
             m_status = ServiceCollector.COLLECTION_SUCCEEDED;
         } catch (InterruptedException e) {
@@ -391,6 +428,84 @@ public class SnmpCollectionSet implements Collectable, CollectionSet {
         }
     }
 
+    private boolean isDefaultLocation() {
+        final String location = getCollectionAgent().getLocationName();
+        return location == null || MonitoringLocationDao.DEFAULT_MONITORING_LOCATION_ID.equals(location);
+    }
+
+    private void walk() throws InterruptedException, CollectionException {
+        final SnmpWalker walker = createWalker();
+        walker.start();
+        try {
+            walker.waitFor();
+        } finally {
+            logFinishedWalker();
+        }
+        if (walker.timedOut()) {
+            throw new CollectionTimedOut(walker.getErrorMessage());
+        } else if (walker.failed()) {
+            throw new CollectionWarning(walker.getErrorMessage(), walker.getErrorThrowable());
+        }
+    }
+
+    /**
+     * <p>isStreaming</p>
+     *
+     * @return true if complete resources are visited while the data is collected
+     */
+    boolean isStreaming() {
+        return m_streaming;
+    }
+
+    /**
+     * Visits resources of a streaming collection that no tracker is going to
+     * add values to anymore, and releases their values.
+     *
+     * @param resources the complete resources
+     * @return false if the resources can't be visited yet since it isn't known
+     *         whether the agent was restarted
+     */
+    boolean visitStreamed(Collection<? extends SnmpCollectionResource> resources) {
+        if (m_visitor == null && !getSysUpTime().isFinished()) {
+            return false;
+        }
+        final CollectionSetVisitor visitor = getVisitor();
+        for (SnmpCollectionResource resource : resources) {
+            if (m_visitedResources.add(resource)) {
+                resource.visit(visitor);
+            }
+        }
+        // Aliased resources share the values of their interface, so release them only once all are visited
+        for (SnmpCollectionResource resource : resources) {
+            resource.releaseAttributes();
+        }
+        return true;
+    }
+
+    /**
+     * Visits the resources that weren't streamed during the collection and
+     * completes the visit of the collection set.
+     */
+    void completeVisit() {
+        final CollectionSetVisitor visitor = getVisitor();
+        for (CollectionResource resource : getResources()) {
+            if (!m_visitedResources.contains(resource)) {
+                resource.visit(visitor);
+            }
+        }
+        visitor.completeCollectionSet(this);
+    }
+
+    private CollectionSetVisitor getVisitor() {
+        if (m_visitor == null) {
+            // The visitor needs to know whether to ignore the values
+            checkForSystemRestart();
+            m_visitor = m_visitorFactory.apply(this);
+            m_visitor.visitCollectionSet(this);
+        }
+        return m_visitor;
+    }
+
     boolean checkDisableForceRescan(final String disabledString) {
         final Map<String, Object> parameters = m_snmpCollection.getServiceParameters().getParameters();
         final String src = ParameterMap.getKeyedString(parameters, "disableForceRescan", null);
@@ -435,6 +550,11 @@ public class SnmpCollectionSet implements Collectable, CollectionSet {
     }
 
     void checkForSystemRestart() {
+        // The saved sysUpTime is updated below, so a second check would always see an unchanged value
+        if (m_systemRestartChecked) {
+            return;
+        }
+        m_systemRestartChecked = true;
         logSysUpTime();
         m_ignorePersist = false;
         if (getSysUpTime().isChanged(getCollectionAgent().getSavedSysUpTime())) {
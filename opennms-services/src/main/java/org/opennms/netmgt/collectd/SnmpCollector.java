@@ -32,13 +32,14 @@ import java.io.IOException;
 import java.lang.reflect.UndeclaredThrowableException;
 import java.util.Date;
 import java.util.Map;
+import java.util.function.Function;
 
 import org.opennms.core.spring.BeanUtils;
 import org.opennms.netmgt.collection.api.CollectionAgent;
 import org.opennms.netmgt.collection.api.CollectionException;
 import org.opennms.netmgt.collection.api.CollectionInitializationException;
 import org.opennms.netmgt.collection.api.CollectionSet;
-import org.opennms.netmgt.collection.api.ServiceCollector;
+import org.opennms.netmgt.collection.api.CollectionSetVisitor;
 import org.opennms.netmgt.collection.api.ServiceParameters;
 import org.opennms.netmgt.config.DataCollectionConfigFactory;
 import org.opennms.netmgt.config.SnmpPeerFactory;
@@ -56,7 +57,7 @@ import org.slf4j.LoggerFactory;
  *
  * @author <A HREF="mailto:brozow@opennms.org">Matt Brozowski</A>
  */
-public class SnmpCollector implements ServiceCollector {
+public class SnmpCollector implements StreamingServiceCollector {
     
     private static final Logger LOG = LoggerFactory.getLogger(SnmpCollector.class);
     
@@ -307,6 +308,17 @@ public class SnmpCollector implements ServiceCollector {
      */
     @Override
     public CollectionSet collect(CollectionAgent agent, EventProxy eventProxy, Map<String, Object> parameters) throws CollectionException {
+        return collect(agent, eventProxy, parameters, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Perform data collection, visiting the interface and generic index
+     * resources as soon as all their columns have been walked.
+     */
+    @Override
+    public CollectionSet collect(CollectionAgent agent, EventProxy eventProxy, Map<String, Object> parameters, Function<CollectionSet, CollectionSetVisitor> visitorFactory) throws CollectionException {
         try {
             // XXX: Experimental code that reuses the OnmsSnmpCollection
             // OnmsSnmpCollection snmpCollection = (OnmsSnmpCollection)agent.getAttribute("SNMP_COLLECTION");
@@ -330,7 +342,11 @@ public class SnmpCollector implements ServiceCollector {
                 // should we return here?
             }
             
-            collectionSet.collect();
+            if (visitorFactory == null) {
+                collectionSet.collect();
+            } else {
+                collectionSet.collect(visitorFactory);
+            }
 
             /*
              * FIXME: Should we even be doing this? I say we get rid of this force rescan thingie
@@ -347,6 +363,9 @@ public class SnmpCollector implements ServiceCollector {
             } else {
                 collectionSet.checkForSystemRestart();
             }
+            if (visitorFactory != null) {
+                collectionSet.completeVisit();
+            }
             return collectionSet;
         } catch (CollectionException e) {
             throw e;
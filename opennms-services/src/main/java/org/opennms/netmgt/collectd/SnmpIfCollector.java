@@ -30,6 +30,7 @@ package org.opennms.netmgt.collectd;
 
 import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
@@ -37,7 +38,12 @@ import java.util.TreeMap;
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.netmgt.collection.api.CollectionSet;
 import org.opennms.netmgt.snmp.AggregateTracker;
+import org.opennms.netmgt.snmp.Collectable;
+import org.opennms.netmgt.snmp.CollectionTracker;
+import org.opennms.netmgt.snmp.ColumnTracker;
 import org.opennms.netmgt.snmp.SnmpInstId;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpObjIdTrie;
 import org.opennms.netmgt.snmp.SnmpResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -57,6 +63,8 @@ import org.slf4j.LoggerFactory;
 public class SnmpIfCollector extends AggregateTracker {
     
     private static final Logger LOG = LoggerFactory.getLogger(SnmpIfCollector.class);
+
+    private static final SnmpObjId IFALIAS_OBJID = SnmpObjId.get(SnmpCollector.IFALIAS_OID);
     
     private Map<SnmpInstId, SNMPCollectorEntry> m_results = new TreeMap<SnmpInstId, SNMPCollectorEntry>();
     
@@ -67,7 +75,15 @@ public class SnmpIfCollector extends AggregateTracker {
 
     private List<SnmpAttributeType> m_objList;
 
+    private SnmpObjIdTrie<List<SnmpAttributeType>> m_objIndex;
+
     private SnmpCollectionSet m_collectionSet;
+
+    /**
+     * The trackers of the columns in m_objList, used to tell which entries
+     * are complete when the collection set is streamed.
+     */
+    private CollectionTracker[] m_trackers;
     
     /**
      * <p>toString</p>
@@ -107,7 +123,11 @@ public class SnmpIfCollector extends AggregateTracker {
      * @param collectionSet TODO
      */
     public SnmpIfCollector(InetAddress address, List<SnmpAttributeType> objList, SnmpCollectionSet collectionSet) {
-        super(SnmpAttributeType.getCollectionTrackers(objList));
+        this(address, objList, SnmpAttributeType.getCollectionTrackers(objList), collectionSet);
+    }
+
+    private SnmpIfCollector(InetAddress address, List<SnmpAttributeType> objList, List<Collectable> trackers, SnmpCollectionSet collectionSet) {
+        super(trackers);
         
         LOG.debug("COLLECTING on list of {} items", objList.size());
         LOG.debug("List is {}", objList);
@@ -115,7 +135,12 @@ public class SnmpIfCollector extends AggregateTracker {
         //
         m_primaryIf = InetAddressUtils.str(address);
         m_objList = objList;
+        m_objIndex = SNMPCollectorEntry.indexAttributeTypes(objList);
         m_collectionSet = collectionSet;
+        m_trackers = new CollectionTracker[trackers.size()];
+        for (int i = 0; i < m_trackers.length; i++) {
+            m_trackers[i] = trackers.get(i).getCollectionTracker();
+        }
     }
 
     /**
@@ -149,18 +174,58 @@ public class SnmpIfCollector extends AggregateTracker {
     /** {@inheritDoc} */
     @Override
     protected void storeResult(SnmpResult res) {
-        if(res.getBase().toString().equals(SnmpCollector.IFALIAS_OID) && (res.getValue().isNull() || res.getValue().toDisplayString() == null || res.getValue().toDisplayString().equals(""))) {
+        if(res.getBase().equals(IFALIAS_OBJID) && (res.getValue().isNull() || res.getValue().toDisplayString() == null || res.getValue().toDisplayString().equals(""))) {
             LOG.debug("Skipping storeResult. Null or zero length ifAlias");
             return;
         }
         SNMPCollectorEntry entry = m_results.get(res.getInstance());
         if (entry == null) {
             LOG.debug("Creating new SNMPCollectorEntry entry");
-            entry = new SNMPCollectorEntry(m_objList, m_collectionSet);
+            entry = new SNMPCollectorEntry(m_objList, m_objIndex, m_collectionSet);
             m_results.put(res.getInstance(), entry);
         }
         entry.storeResult(res);
 
+        if (m_collectionSet.isStreaming()) {
+            streamCompletedEntries();
+        }
+    }
+
+    /**
+     * Hands the entries that no column can add values to anymore over to the
+     * streaming visitor of the collection set and forgets them, so that only
+     * the rows between the slowest and the fastest column are held in memory.
+     */
+    private void streamCompletedEntries() {
+        Iterator<Map.Entry<SnmpInstId, SNMPCollectorEntry>> it = m_results.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<SnmpInstId, SNMPCollectorEntry> result = it.next();
+            if (!isComplete(result.getKey()) || !m_collectionSet.visitStreamed(result.getValue().getResources())) {
+                return;
+            }
+            it.remove();
+        }
+    }
+
+    /**
+     * An instance is complete once every column is finished or has walked up
+     * to or past it. Columns that are not walked, such as the instance lists
+     * used to limit the collection, only count once they are finished.
+     */
+    private boolean isComplete(SnmpInstId inst) {
+        for (CollectionTracker tracker : m_trackers) {
+            if (tracker.isFinished()) {
+                continue;
+            }
+            if (!(tracker instanceof ColumnTracker)) {
+                return false;
+            }
+            SnmpInstId last = ((ColumnTracker)tracker).getLastInstance();
+            if (last == null || last.compareTo(inst) < 0) {
+                return false;
+            }
+        }
+        return true;
     }
     
     /**
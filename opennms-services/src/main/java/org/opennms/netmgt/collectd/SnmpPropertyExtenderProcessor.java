@@ -75,6 +75,18 @@ public class SnmpPropertyExtenderProcessor {
         m_dataCollectionConfigDao = config;
     }
 
+    /**
+     * Checks if there are custom MibObj properties to apply.
+     * <p>The properties are applied across all the resources of a collection set, so
+     * a collection set that has them can't be visited before it is complete.</p>
+     *
+     * @param collectionName the collection name
+     * @return true, if there are properties to process
+     */
+    public boolean hasProperties(final String collectionName, final String sysObjectId, final String ipAddress) {
+        return !getDataCollectionConfigDao().getMibObjProperties(collectionName, sysObjectId, ipAddress).isEmpty();
+    }
+
     /**
      * Process.
      *
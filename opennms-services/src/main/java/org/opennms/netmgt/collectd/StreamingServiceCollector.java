@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.collectd;
+
+import java.util.Map;
+import java.util.function.Function;
+
+import org.opennms.netmgt.collection.api.CollectionAgent;
+import org.opennms.netmgt.collection.api.CollectionException;
+import org.opennms.netmgt.collection.api.CollectionSet;
+import org.opennms.netmgt.collection.api.CollectionSetVisitor;
+import org.opennms.netmgt.collection.api.ServiceCollector;
+import org.opennms.netmgt.events.api.EventProxy;
+
+/**
+ * A {@link ServiceCollector} that can hand the resources of a collection set
+ * to a visitor as soon as they are complete, rather than once the whole
+ * collection set has been built.
+ */
+public interface StreamingServiceCollector extends ServiceCollector {
+
+    /**
+     * Collects the data like {@link #collect(CollectionAgent, EventProxy, Map)},
+     * visiting it with the visitor created by <code>visitorFactory</code>.
+     * <p>The factory is called once per collection with the collection set
+     * being collected, as soon as {@link CollectionSet#ignorePersist()} is
+     * known. When the collection succeeds, the returned collection set has
+     * been visited completely by that visitor. When it fails, the resources
+     * that were complete at that point may have been visited.</p>
+     *
+     * @param agent a {@link org.opennms.netmgt.collection.api.CollectionAgent} object.
+     * @param eproxy a {@link org.opennms.netmgt.events.api.EventProxy} object.
+     * @param parameters a {@link java.util.Map} object.
+     * @param visitorFactory creates the visitor for the collection set
+     * @return a {@link org.opennms.netmgt.collection.api.CollectionSet} object.
+     * @throws org.opennms.netmgt.collection.api.CollectionException if any.
+     */
+    CollectionSet collect(CollectionAgent agent, EventProxy eproxy, Map<String, Object> parameters, Function<CollectionSet, CollectionSetVisitor> visitorFactory) throws CollectionException;
+}
@@ -0,0 +1,269 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.enlinkd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opennms.netmgt.model.BridgeMacLink;
+import org.opennms.netmgt.model.BridgeMacLink.BridgeDot1qTpFdbStatus;
+
+/**
+ * The forwarding table of a bridge with its MAC addresses held as
+ * {@link BitSet}s of {@link MacAddressDictionary} ids.
+ *
+ * Tables that share a dictionary can be intersected with bitwise operations
+ * instead of building and intersecting sets of strings.
+ */
+public class BridgeForwardingTable {
+
+    private static final int NO_PORT = Integer.MIN_VALUE;
+
+    private final MacAddressDictionary m_macs;
+
+    /**
+     * Learned MAC addresses of the bridge.
+     */
+    private final BitSet m_learned = new BitSet();
+
+    /**
+     * MAC addresses of the bridge itself.
+     */
+    private final BitSet m_self = new BitSet();
+
+    /**
+     * The port on which each learned MAC address was found, by id.
+     */
+    private int[] m_ports;
+
+    /**
+     * Learned MAC addresses by port.
+     */
+    private final Map<Integer, BitSet> m_forwardingSets = new HashMap<Integer, BitSet>();
+
+    /**
+     * Learned links of the bridge by port.
+     */
+    private final Map<Integer, List<BridgeMacLink>> m_throughSets = new HashMap<Integer, List<BridgeMacLink>>();
+
+    /**
+     * All of the learned links in the table, whatever the bridge, with their
+     * MAC address ids.
+     */
+    private final List<BridgeMacLink> m_learnedLinks = new ArrayList<BridgeMacLink>();
+    private int[] m_learnedLinkIds;
+
+    /**
+     * @param macs
+     *            the dictionary shared by all the tables that are compared
+     * @param bridgeId
+     *            the node id of the bridge
+     * @param bft
+     *            the bridge forwarding table
+     * @param bridgeMacs
+     *            additional MAC addresses of the bridge, may be null
+     */
+    public BridgeForwardingTable(MacAddressDictionary macs, int bridgeId, List<BridgeMacLink> bft, Collection<String> bridgeMacs) {
+        m_macs = macs;
+        m_ports = new int[Math.max(16, macs.size() + bft.size())];
+        Arrays.fill(m_ports, NO_PORT);
+        m_learnedLinkIds = new int[bft.size()];
+
+        for (BridgeMacLink link : bft) {
+            final boolean onBridge = link.getNode() != null && link.getNode().getId() != null && link.getNode().getId().intValue() == bridgeId;
+            if (link.getBridgeDot1qTpFdbStatus() == BridgeDot1qTpFdbStatus.DOT1D_TP_FDB_STATUS_LEARNED) {
+                final int id = macs.getId(link.getMacAddress());
+                m_learnedLinkIds[m_learnedLinks.size()] = id;
+                m_learnedLinks.add(link);
+                if (onBridge && link.getBridgePort() != null) {
+                    final Integer port = link.getBridgePort();
+                    m_learned.set(id);
+                    setPort(id, port);
+                    BitSet forwardingSet = m_forwardingSets.get(port);
+                    if (forwardingSet == null) {
+                        forwardingSet = new BitSet();
+                        m_forwardingSets.put(port, forwardingSet);
+                    }
+                    forwardingSet.set(id);
+                    List<BridgeMacLink> throughSet = m_throughSets.get(port);
+                    if (throughSet == null) {
+                        throughSet = new ArrayList<BridgeMacLink>();
+                        m_throughSets.put(port, throughSet);
+                    }
+                    throughSet.add(link);
+                }
+            } else if (onBridge && link.getBridgeDot1qTpFdbStatus() == BridgeDot1qTpFdbStatus.DOT1D_TP_FDB_STATUS_SELF) {
+                m_self.set(macs.getId(link.getMacAddress()));
+            }
+        }
+        if (bridgeMacs != null) {
+            for (String mac : bridgeMacs) {
+                m_self.set(macs.getId(mac));
+            }
+        }
+    }
+
+    private void setPort(int id, int port) {
+        if (id >= m_ports.length) {
+            final int length = m_ports.length;
+            m_ports = Arrays.copyOf(m_ports, Math.max(id + 1, length * 2));
+            Arrays.fill(m_ports, length, m_ports.length, NO_PORT);
+        }
+        // as with a map, the last link for a MAC address wins
+        m_ports[id] = port;
+    }
+
+    public MacAddressDictionary getDictionary() {
+        return m_macs;
+    }
+
+    public BitSet getLearnedMacs() {
+        return m_learned;
+    }
+
+    public BitSet getSelfMacs() {
+        return m_self;
+    }
+
+    public boolean isLearned(int id) {
+        return m_learned.get(id);
+    }
+
+    /**
+     * Returns the port on which the MAC address was learned. Must only be
+     * called for ids that are learned.
+     */
+    public int getPort(int id) {
+        return m_ports[id];
+    }
+
+    /**
+     * Returns the MAC addresses learned on the port, or an empty set.
+     */
+    public BitSet getForwardingSet(int port) {
+        final BitSet forwardingSet = m_forwardingSets.get(port);
+        return forwardingSet == null ? new BitSet() : forwardingSet;
+    }
+
+    /**
+     * Returns the id of the first MAC address of this bridge that was
+     * learned by the other one, or -1.
+     */
+    public int findSelfMacLearnedBy(BridgeForwardingTable other) {
+        if (!m_self.intersects(other.m_learned)) {
+            return -1;
+        }
+        final BitSet found = (BitSet) m_self.clone();
+        found.and(other.m_learned);
+        return found.nextSetBit(0);
+    }
+
+    /**
+     * Returns the MAC addresses learned by both bridges.
+     */
+    public BitSet getCommonLearnedMacs(BridgeForwardingTable other) {
+        final BitSet common = (BitSet) m_learned.clone();
+        common.and(other.m_learned);
+        return common;
+    }
+
+    /**
+     * Returns a copy of the learned links of the bridge by port.
+     */
+    public Map<Integer, List<BridgeMacLink>> getThroughSets() {
+        final Map<Integer, List<BridgeMacLink>> throughSets = new HashMap<Integer, List<BridgeMacLink>>(m_throughSets.size() * 2);
+        for (Map.Entry<Integer, List<BridgeMacLink>> entry : m_throughSets.entrySet()) {
+            throughSets.put(entry.getKey(), new ArrayList<BridgeMacLink>(entry.getValue()));
+        }
+        return throughSets;
+    }
+
+    /**
+     * Returns the learned links, in table order, whose MAC address is on the
+     * given port and either is not learned by the other bridge or is learned
+     * on the other port.
+     */
+    public List<BridgeMacLink> getLinksOnSegment(int port, BridgeForwardingTable other, int otherPort) {
+        final List<BridgeMacLink> links = new ArrayList<BridgeMacLink>();
+        for (int i = 0; i < m_learnedLinks.size(); i++) {
+            final BridgeMacLink link = m_learnedLinks.get(i);
+            if (link.getBridgePort() == null || link.getBridgePort().intValue() != port) {
+                continue;
+            }
+            final int id = m_learnedLinkIds[i];
+            if (!other.isLearned(id) || other.getPort(id) == otherPort) {
+                links.add(link);
+            }
+        }
+        return links;
+    }
+
+    /**
+     * Returns the first learned link on the port, or null.
+     */
+    public BridgeMacLink getFirstLinkOnPort(int port) {
+        for (BridgeMacLink link : m_learnedLinks) {
+            if (link.getBridgePort() != null && link.getBridgePort().intValue() == port) {
+                return link;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes duplicated links (same bridge port and MAC address) from a
+     * bridge forwarding table. The last of the duplicated links is kept.
+     */
+    public static List<BridgeMacLink> deduplicate(List<BridgeMacLink> bft) {
+        final MacAddressDictionary macs = new MacAddressDictionary(bft.size());
+        final Map<Integer, BitSet> seen = new HashMap<Integer, BitSet>();
+        final List<BridgeMacLink> links = new ArrayList<BridgeMacLink>(bft.size());
+        for (int i = bft.size() - 1; i >= 0; i--) {
+            final BridgeMacLink link = bft.get(i);
+            BitSet macsOnPort = seen.get(link.getBridgePort());
+            if (macsOnPort == null) {
+                macsOnPort = new BitSet();
+                seen.put(link.getBridgePort(), macsOnPort);
+            }
+            final int id = macs.getId(link.getMacAddress());
+            if (!macsOnPort.get(id)) {
+                macsOnPort.set(id);
+                links.add(link);
+            }
+        }
+        Collections.reverse(links);
+        return links;
+    }
+}
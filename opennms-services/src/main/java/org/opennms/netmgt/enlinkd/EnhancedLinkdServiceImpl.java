@@ -61,7 +61,6 @@ import org.opennms.netmgt.model.OnmsNode.NodeType;
 import org.opennms.netmgt.model.OspfElement;
 import org.opennms.netmgt.model.OspfLink;
 import org.opennms.netmgt.model.PrimaryType;
-import org.opennms.netmgt.model.topology.BridgeMacLinkHash;
 import org.opennms.netmgt.model.topology.BroadcastDomain;
 import org.opennms.netmgt.model.topology.SharedSegment;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -599,14 +598,12 @@ public class EnhancedLinkdServiceImpl implements EnhancedLinkdService {
 
     @Override
     public void store(int nodeId, List<BridgeMacLink> bft) {
-        Map<BridgeMacLinkHash,BridgeMacLink> effectiveBFT=new HashMap<BridgeMacLinkHash,BridgeMacLink>();        
         for (BridgeMacLink link : bft) {
             OnmsNode node = new OnmsNode();
             node.setId(nodeId);
             link.setNode(node);
-            effectiveBFT.put(new BridgeMacLinkHash(link), link);
         }
-        m_nodetoBroadcastDomainMap.put(nodeId, new ArrayList<BridgeMacLink>(effectiveBFT.values()));
+        m_nodetoBroadcastDomainMap.put(nodeId, BridgeForwardingTable.deduplicate(bft));
     }
 
     public Map<Integer,List<BridgeMacLink>> getUpdateBftMap() {
@@ -0,0 +1,243 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.enlinkd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns dense integer ids to MAC addresses so that sets of MAC addresses
+ * can be held in {@link BitSet}s.
+ *
+ * MAC addresses in the canonical form used by the bridge forwarding tables
+ * (12 lower case hex digits) are encoded as a primitive long and looked up in
+ * an open addressing table. Any other string is kept as is.
+ */
+public class MacAddressDictionary {
+
+    private static final long NO_MAC = -1L;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private long[] m_keys;
+    private int[] m_values;
+    private int m_mask;
+
+    /**
+     * The encoded MAC address for every id, or NO_MAC for the ids that are
+     * found in m_otherMacs.
+     */
+    private long[] m_macs = new long[1024];
+
+    private final Map<String, Integer> m_otherIds = new HashMap<String, Integer>();
+    private final Map<Integer, String> m_otherMacs = new HashMap<Integer, String>();
+
+    private int m_size = 0;
+
+    public MacAddressDictionary() {
+        this(1024);
+    }
+
+    public MacAddressDictionary(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        m_keys = new long[capacity];
+        Arrays.fill(m_keys, NO_MAC);
+        m_values = new int[capacity];
+        m_mask = capacity - 1;
+    }
+
+    /**
+     * Encodes a MAC address of 12 lower case hex digits as a long.
+     *
+     * @return the encoded address or -1 if the string is not in canonical form
+     */
+    public static long encode(String mac) {
+        if (mac == null || mac.length() != 12) {
+            return NO_MAC;
+        }
+        long value = 0;
+        for (int i = 0; i < 12; i++) {
+            final char c = mac.charAt(i);
+            final int digit;
+            if (c >= '0' && c <= '9') {
+                digit = c - '0';
+            } else if (c >= 'a' && c <= 'f') {
+                digit = c - 'a' + 10;
+            } else {
+                return NO_MAC;
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    /**
+     * Decodes a MAC address that was encoded with {@link #encode(String)}.
+     */
+    public static String decode(long mac) {
+        final char[] chars = new char[12];
+        for (int i = 11; i >= 0; i--) {
+            chars[i] = HEX[(int) (mac & 0xf)];
+            mac >>>= 4;
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Returns the id of the MAC address, assigning a new one if needed.
+     */
+    public int getId(String mac) {
+        final long encoded = encode(mac);
+        if (encoded == NO_MAC) {
+            Integer id = m_otherIds.get(mac);
+            if (id == null) {
+                id = nextId(NO_MAC);
+                m_otherIds.put(mac, id);
+                m_otherMacs.put(id, mac);
+            }
+            return id;
+        }
+
+        int slot = slot(encoded);
+        while (m_keys[slot] != NO_MAC) {
+            if (m_keys[slot] == encoded) {
+                return m_values[slot];
+            }
+            slot = (slot + 1) & m_mask;
+        }
+        final int id = nextId(encoded);
+        m_keys[slot] = encoded;
+        m_values[slot] = id;
+        if (m_size * 2 > m_keys.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    /**
+     * Returns the id of the MAC address.
+     *
+     * @return the id or -1 if the MAC address was never added
+     */
+    public int lookup(String mac) {
+        final long encoded = encode(mac);
+        if (encoded == NO_MAC) {
+            final Integer id = m_otherIds.get(mac);
+            return id == null ? -1 : id;
+        }
+
+        int slot = slot(encoded);
+        while (m_keys[slot] != NO_MAC) {
+            if (m_keys[slot] == encoded) {
+                return m_values[slot];
+            }
+            slot = (slot + 1) & m_mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the MAC address for the given id.
+     */
+    public String getMac(int id) {
+        if (id < 0 || id >= m_size) {
+            throw new IllegalArgumentException("Unknown MAC address id: " + id);
+        }
+        final long mac = m_macs[id];
+        return mac == NO_MAC ? m_otherMacs.get(id) : decode(mac);
+    }
+
+    public int size() {
+        return m_size;
+    }
+
+    /**
+     * Returns the set of ids for the MAC addresses, assigning ids as needed.
+     */
+    public BitSet getIds(Collection<String> macs) {
+        final BitSet ids = new BitSet(m_size);
+        for (String mac : macs) {
+            ids.set(getId(mac));
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the MAC addresses for a set of ids.
+     */
+    public List<String> getMacs(BitSet ids) {
+        final List<String> macs = new ArrayList<String>(ids.cardinality());
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+            macs.add(getMac(id));
+        }
+        return macs;
+    }
+
+    private int nextId(long encoded) {
+        if (m_size == m_macs.length) {
+            m_macs = Arrays.copyOf(m_macs, m_size * 2);
+        }
+        m_macs[m_size] = encoded;
+        return m_size++;
+    }
+
+    private int slot(long key) {
+        // spread the vendor bits, they are shared by a lot of addresses
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & m_mask;
+    }
+
+    private void rehash() {
+        final long[] keys = m_keys;
+        final int[] values = m_values;
+        m_keys = new long[keys.length * 2];
+        Arrays.fill(m_keys, NO_MAC);
+        m_values = new int[keys.length * 2];
+        m_mask = m_keys.length - 1;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == NO_MAC) {
+                continue;
+            }
+            int slot = slot(keys[i]);
+            while (m_keys[slot] != NO_MAC) {
+                slot = (slot + 1) & m_mask;
+            }
+            m_keys[slot] = keys[i];
+            m_values[slot] = values[i];
+        }
+    }
+}
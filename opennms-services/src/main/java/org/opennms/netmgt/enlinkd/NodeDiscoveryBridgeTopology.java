@@ -1,6 +1,7 @@
 package org.opennms.netmgt.enlinkd;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -75,13 +76,11 @@ public class NodeDiscoveryBridgeTopology extends NodeDiscovery {
         
         Integer m_xy;
         Integer m_yx;
-        Map<String,BridgeMacLink> xmactoport = new HashMap<String, BridgeMacLink>();
-        Map<String,BridgeMacLink> ymactoport = new HashMap<String, BridgeMacLink>();
-        Map<Integer, List<BridgeMacLink>> m_throughSetX = new HashMap<Integer, List<BridgeMacLink>>();
-        Map<Integer, List<BridgeMacLink>> m_throughSetY = new HashMap<Integer, List<BridgeMacLink>>();
+        BridgeForwardingTable m_x;
+        BridgeForwardingTable m_y;
+        Map<Integer, List<BridgeMacLink>> m_throughSetX;
+        Map<Integer, List<BridgeMacLink>> m_throughSetY;
         SimpleConnection m_simpleconnection; 
-        Set<String> xmacs = new HashSet<String>();
-        Set<String> ymacs = new HashSet<String>();
         public BridgeTopologyHelper(Bridge xBridge, List<BridgeMacLink> xBFT, Bridge yBridge, List<BridgeMacLink> yBFT) {
             super();
             LOG.debug("BridgeTopologyHelper: searching simple connection between bridgeX: {} and bridgeY",
@@ -93,35 +92,16 @@ public class NodeDiscoveryBridgeTopology extends NodeDiscovery {
             LOG.debug("BridgeTopologyHelper: bridgeY has bft size {}",
                       yBFT.size());
             
-            for (BridgeMacLink xlink: xBFT) {
-                if (xBridge.getId().intValue() == xlink.getNode().getId().intValue() && xlink.getBridgeDot1qTpFdbStatus() == BridgeDot1qTpFdbStatus.DOT1D_TP_FDB_STATUS_LEARNED) {
-                    xmactoport.put(xlink.getMacAddress(), xlink);
-                    if (!m_throughSetX.containsKey(xlink.getBridgePort()))
-                        m_throughSetX.put(xlink.getBridgePort(), new ArrayList<BridgeMacLink>());
-                    m_throughSetX.get(xlink.getBridgePort()).add(xlink);
-                }
-                if (xBridge.getId().intValue() == xlink.getNode().getId().intValue() && xlink.getBridgeDot1qTpFdbStatus() == BridgeDot1qTpFdbStatus.DOT1D_TP_FDB_STATUS_SELF) 
-                    xmacs.add(xlink.getMacAddress());
-            }
-            for (BridgeMacLink ylink: yBFT) {
-                if (yBridge.getId().intValue() == ylink.getNode().getId().intValue() && ylink.getBridgeDot1qTpFdbStatus() == BridgeDot1qTpFdbStatus.DOT1D_TP_FDB_STATUS_LEARNED) {
-                    ymactoport.put(ylink.getMacAddress(), ylink);
-                    if (!m_throughSetY.containsKey(ylink.getBridgePort()))
-                        m_throughSetY.put(ylink.getBridgePort(), new ArrayList<BridgeMacLink>());
-                    m_throughSetY.get(ylink.getBridgePort()).add(ylink);
-                }
-                if (yBridge.getId().intValue() == ylink.getNode().getId().intValue() && ylink.getBridgeDot1qTpFdbStatus() == BridgeDot1qTpFdbStatus.DOT1D_TP_FDB_STATUS_SELF) 
-                    ymacs.add(ylink.getMacAddress());
-            }
-            xmacs.addAll(m_nodeToBridgeMacIdMap.get(xBridge.getId()));
-            ymacs.addAll(m_nodeToBridgeMacIdMap.get(yBridge.getId()));
+            m_x = getForwardingTable(xBridge, xBFT);
+            m_y = getForwardingTable(yBridge, yBFT);
+            m_throughSetX = m_x.getThroughSets();
+            m_throughSetY = m_y.getThroughSets();
             boolean cond1X = condition1BridgeX();
             boolean cond1Y = condition1BridgeY();
             
             if (!cond1X || !cond1Y) {
-                Set<String> commonlearnedmacs = new HashSet<String>(xmactoport.keySet()); 
-                commonlearnedmacs.retainAll(new HashSet<String>(ymactoport.keySet()));
-                LOG.debug("BridgeTopologyHelper: common (learned mac) size: {} for X: {}, Y: {}",commonlearnedmacs.size(),xBridge.getId(),yBridge.getId());
+                BitSet commonlearnedmacs = m_x.getCommonLearnedMacs(m_y);
+                LOG.debug("BridgeTopologyHelper: common (learned mac) size: {} for X: {}, Y: {}",commonlearnedmacs.cardinality(),xBridge.getId(),yBridge.getId());
                 if (cond1X && !cond1Y) 
                     condition2BridgeX(commonlearnedmacs);
                 if (!cond1X && cond1Y)
@@ -136,27 +116,16 @@ public class NodeDiscoveryBridgeTopology extends NodeDiscovery {
             LOG.debug("BridgeTopologyHelper: found port m_xy: {} on X: {}", m_xy, xBridge.getId());
             LOG.debug("BridgeTopologyHelper: found port m_yx: {} on Y: {}", m_yx, yBridge.getId());
             
-            BridgeMacLink xylink = null;
-            BridgeMacLink yxlink = null;
             List<BridgeMacLink> connectionsOnSegment=new ArrayList<BridgeMacLink>();
-            for (BridgeMacLink xlink: xBFT) {
-                if (xlink.getBridgePort() == m_xy && xlink.getBridgeDot1qTpFdbStatus() == BridgeDot1qTpFdbStatus.DOT1D_TP_FDB_STATUS_LEARNED) {
-                    if (!ymactoport.containsKey(xlink.getMacAddress()) || m_yx == ymactoport.get(xlink.getMacAddress()).getBridgePort())
-                        connectionsOnSegment.add(xlink);
-                    if (xylink == null)
-                        xylink = xlink;
-                }
-            }
+            BridgeMacLink xylink = m_x.getFirstLinkOnPort(m_xy);
+            connectionsOnSegment.addAll(m_x.getLinksOnSegment(m_xy, m_y, m_yx == null ? Integer.MIN_VALUE : m_yx));
             int xlinks = connectionsOnSegment.size();
             LOG.debug("BridgeTopologyHelper: added {}, links on simple connection for X: {}", xlinks, xBridge.getId());
             
-            for (BridgeMacLink ylink: yBFT) {
-                if (ylink.getBridgePort() == m_yx && ylink.getBridgeDot1qTpFdbStatus() == BridgeDot1qTpFdbStatus.DOT1D_TP_FDB_STATUS_LEARNED) {
-                    if (!xmactoport.containsKey(ylink.getMacAddress()) || m_xy == xmactoport.get(ylink.getMacAddress()).getBridgePort())
-                        connectionsOnSegment.add(ylink);
-                    if (yxlink == null)
-                        yxlink = ylink;
-                }
+            BridgeMacLink yxlink = null;
+            if (m_yx != null) {
+                yxlink = m_y.getFirstLinkOnPort(m_yx);
+                connectionsOnSegment.addAll(m_y.getLinksOnSegment(m_yx, m_x, m_xy));
             }
             int ylinks = connectionsOnSegment.size() - xlinks;
             LOG.info("BridgeTopologyHelper: added {}, links on simple connection for Y: {}", ylinks,yBridge.getId());
@@ -183,7 +152,7 @@ public class NodeDiscoveryBridgeTopology extends NodeDiscovery {
             m_throughSetY.remove(m_yx);            
         }
 
-        private void condition3(Set<String> commonlearnedmacs) {
+        private void condition3(BitSet commonlearnedmacs) {
         
         //
         // condition 3XY
@@ -195,36 +164,38 @@ public class NodeDiscoveryBridgeTopology extends NodeDiscovery {
         //                                                  m_2 belongs to FDB(p2,X) FDB(yx,Y) 
         //                                                  m_3 belongs to FDB(xy,X) FDB(p3,Y)
         //
-            String mac1=null;
-            String mac2=null;
-            Integer yp1=null;
-            Integer yp2=null;
-            Integer xp1=null;
-            Integer xp2=null;
+            int mac1=-1;
+            int mac2=-1;
+            int yp1=0;
+            int yp2=0;
+            int xp1=0;
+            int xp2=0;
 
-            for (String mac: commonlearnedmacs) {
-                LOG.debug("BridgeTopologyHelper: condition3: parsing common BFT mac: {}",mac);
-                if (mac1 == null) {
+            for (int mac = commonlearnedmacs.nextSetBit(0); mac >= 0; mac = commonlearnedmacs.nextSetBit(mac + 1)) {
+                final int yp = m_y.getPort(mac);
+                final int xp = m_x.getPort(mac);
+                LOG.debug("BridgeTopologyHelper: condition3: parsing common BFT mac: {}",m_x.getDictionary().getMac(mac));
+                if (mac1 == -1) {
                     mac1=mac;
-                    yp1=ymactoport.get(mac).getBridgePort();
-                    xp1=xmactoport.get(mac).getBridgePort();
-                    LOG.debug("BridgeTopologyHelper: condition3: mac1: {} xp1: {} yp1: {} ", mac1,xp1,yp1);
+                    yp1=yp;
+                    xp1=xp;
+                    LOG.debug("BridgeTopologyHelper: condition3: mac1: {} xp1: {} yp1: {} ", m_x.getDictionary().getMac(mac1),xp1,yp1);
                     continue;
                 }
-                if (ymactoport.get(mac).getBridgePort() == yp1 && xmactoport.get(mac).getBridgePort() == xp1)
+                if (yp == yp1 && xp == xp1)
                     continue;
-                if (mac2 == null) {
+                if (mac2 == -1) {
                     mac2=mac;
-                    yp2=ymactoport.get(mac).getBridgePort();
-                    xp2=xmactoport.get(mac).getBridgePort();
-                    LOG.debug("BridgeTopologyHelper: condition3: mac2: {} xp2: {} yp2: {} ", mac2,xp2,yp2);
+                    yp2=yp;
+                    xp2=xp;
+                    LOG.debug("BridgeTopologyHelper: condition3: mac2: {} xp2: {} yp2: {} ", m_x.getDictionary().getMac(mac2),xp2,yp2);
                     continue;
                 }
-                if (ymactoport.get(mac).getBridgePort() == yp2 && xmactoport.get(mac).getBridgePort() == xp2)
+                if (yp == yp2 && xp == xp2)
                     continue;
-                Integer yp3 = ymactoport.get(mac).getBridgePort();
-                Integer xp3 = xmactoport.get(mac).getBridgePort();
-                LOG.debug("BridgeTopologyHelper: condition3: mac3: {} x3: {} yp3: {} ", mac,xp3,yp3);
+                int yp3 = yp;
+                int xp3 = xp;
+                LOG.debug("BridgeTopologyHelper: condition3: mac3: {} x3: {} yp3: {} ", m_x.getDictionary().getMac(mac),xp3,yp3);
 
                 //m_1 belongs to FDB(p1,Y) FDB(xy,X) 
                 //m_2 belongs to FDB(p2,Y) FDB(xy,X) 
@@ -284,7 +255,7 @@ public class NodeDiscoveryBridgeTopology extends NodeDiscovery {
 
             }
             // all macs on the same port
-            if (mac2 == null) {
+            if (mac1 != -1 && mac2 == -1) {
                 m_xy=xp1;
                 m_yx=yp1;
             }
@@ -294,47 +265,49 @@ public class NodeDiscoveryBridgeTopology extends NodeDiscovery {
         // if exists m_x, m_1 and m_2, p1 and p2 on Y : m_x belongs to FDB(yx,Y) 
         //                                              m_1 belongs to FDB(p1,Y) FDB(xy,X)
         //                                              m_2 belongs to FDB(p2,Y) FDB(xy,X)
-        private void condition2BridgeX(Set<String> commonlearnedmacs) {
-            LOG.info("BridgeTopologyHelper: condition2BridgeX: found m_yx: {}, search m_xy using common macs size: {} ", m_yx, commonlearnedmacs.size() );
-            String mac1=null;
-            String mac2=null;
-            Integer p1=null;
-            Integer xy1=null;
-            Integer p2=null;
-            Integer xy2=null;
-            for (String mac: commonlearnedmacs) {
+        private void condition2BridgeX(BitSet commonlearnedmacs) {
+            LOG.info("BridgeTopologyHelper: condition2BridgeX: found m_yx: {}, search m_xy using common macs size: {} ", m_yx, commonlearnedmacs.cardinality() );
+            int mac1=-1;
+            int mac2=-1;
+            int p1=0;
+            int xy1=0;
+            int p2=0;
+            int xy2=0;
+            for (int mac = commonlearnedmacs.nextSetBit(0); mac >= 0; mac = commonlearnedmacs.nextSetBit(mac + 1)) {
+                final int yp = m_y.getPort(mac);
+                final int xp = m_x.getPort(mac);
                 LOG.debug("BridgeTopologyHelper: condition2BridgeX: parsing common BFT mac: {} portX: {}, portY: {} ",
-                          mac,xmactoport.get(mac).getBridgePort(),ymactoport.get(mac).getBridgePort() );
-                if (mac1 == null) {
+                          m_x.getDictionary().getMac(mac),xp,yp );
+                if (mac1 == -1) {
                     mac1 = mac;
-                    p1 = ymactoport.get(mac).getBridgePort();
-                    xy1= xmactoport.get(mac).getBridgePort();
-                    LOG.debug("BridgeTopologyHelper: condition2BridgeX: mac1: {} xy1: {} p1: {} ", mac1,xy1,p1);
+                    p1 = yp;
+                    xy1= xp;
+                    LOG.debug("BridgeTopologyHelper: condition2BridgeX: mac1: {} xy1: {} p1: {} ", m_x.getDictionary().getMac(mac1),xy1,p1);
                     continue;
                 }
-                if (ymactoport.get(mac).getBridgePort().intValue() == p1.intValue())
+                if (yp == p1)
                     continue;
-                if (xmactoport.get(mac).getBridgePort().intValue() == xy1.intValue()) {
-                    LOG.debug("BridgeTopologyHelper: condition2BridgeX: xy1 bridge port {}",ymactoport.get(mac).getBridgePort());
+                if (xp == xy1) {
+                    LOG.debug("BridgeTopologyHelper: condition2BridgeX: xy1 bridge port {}",yp);
                     m_xy=xy1;
                     return;
                 }
-                if (mac2 == null) {
+                if (mac2 == -1) {
                     mac2 = mac;
-                    p2 = ymactoport.get(mac).getBridgePort();
-                    xy2= xmactoport.get(mac).getBridgePort();
-                    LOG.debug("BridgeTopologyHelper: condition2BridgeX: mac2: {} xy2: {} p2: {} ", mac2,xy2,p2);
+                    p2 = yp;
+                    xy2= xp;
+                    LOG.debug("BridgeTopologyHelper: condition2BridgeX: mac2: {} xy2: {} p2: {} ", m_x.getDictionary().getMac(mac2),xy2,p2);
                     continue;
                 }
-                if (ymactoport.get(mac).getBridgePort().intValue() == p2.intValue())
+                if (yp == p2)
                     continue;
-                if (xmactoport.get(mac).getBridgePort().intValue() == xy2.intValue()) {
-                    LOG.debug("BridgeTopologyHelper: condition2BridgeX: xy2 bridge port {}",ymactoport.get(mac).getBridgePort());
+                if (xp == xy2) {
+                    LOG.debug("BridgeTopologyHelper: condition2BridgeX: xy2 bridge port {}",yp);
                     m_xy=xy2;
                     return;
                 }
             }
-            if (xy2 == null) 
+            if (mac1 != -1 && mac2 == -1) 
                 m_xy=xy1;
         }
         
@@ -342,76 +315,74 @@ public class NodeDiscoveryBridgeTopology extends NodeDiscovery {
         // if exists m_y, m_1 and m_2, p1 and p2 on X : m_y belongs to FDB(xy,X) 
         //                                              m_1 belongs to FDB(p1,X) FDB(yx,Y)
         //                                              m_2 belongs to FDB(p2,X) FDB(yx,Y)
-        private void condition2BridgeY(Set<String> commonlearnedmacs) {
-            LOG.info("BridgeTopologyHelper: condition2BridgeY: found m_xy: {}, search m_yx using common macs size: {} ", m_xy, commonlearnedmacs.size() );
-            String mac1=null;
-            String mac2=null;
-            Integer p1=null;
-            Integer yx1=null;
-            Integer p2=null;
-            Integer yx2=null;
+        private void condition2BridgeY(BitSet commonlearnedmacs) {
+            LOG.info("BridgeTopologyHelper: condition2BridgeY: found m_xy: {}, search m_yx using common macs size: {} ", m_xy, commonlearnedmacs.cardinality() );
+            int mac1=-1;
+            int mac2=-1;
+            int p1=0;
+            int yx1=0;
+            int p2=0;
+            int yx2=0;
 
-            for (String mac: commonlearnedmacs) {
+            for (int mac = commonlearnedmacs.nextSetBit(0); mac >= 0; mac = commonlearnedmacs.nextSetBit(mac + 1)) {
+                final int yp = m_y.getPort(mac);
+                final int xp = m_x.getPort(mac);
                 LOG.debug("BridgeTopologyHelper: condition2BridgeY: parsing common BFT mac: {} portX: {}, portY: {} ",
-                          mac,xmactoport.get(mac).getBridgePort(),ymactoport.get(mac).getBridgePort() );
-                if (mac1 == null) {
+                          m_x.getDictionary().getMac(mac),xp,yp );
+                if (mac1 == -1) {
                     mac1 = mac;
-                    p1 = xmactoport.get(mac).getBridgePort();
-                    yx1= ymactoport.get(mac).getBridgePort();
-                    LOG.debug("BridgeTopologyHelper: condition2BridgeY: mac1: {} yx1: {} p1: {} ", mac1,yx1,p1);
+                    p1 = xp;
+                    yx1= yp;
+                    LOG.debug("BridgeTopologyHelper: condition2BridgeY: mac1: {} yx1: {} p1: {} ", m_x.getDictionary().getMac(mac1),yx1,p1);
                     continue;
                 }
-                if (xmactoport.get(mac).getBridgePort() == p1)
+                if (xp == p1)
                     continue;
-                if (ymactoport.get(mac).getBridgePort() == yx1) {
-                    LOG.debug("BridgeTopologyHelper: condition2BridgeY: yx1 bridge port {}",ymactoport.get(mac).getBridgePort());
+                if (yp == yx1) {
+                    LOG.debug("BridgeTopologyHelper: condition2BridgeY: yx1 bridge port {}",yp);
                     m_yx=yx1;
                     return;
                 }
-                if (mac2 == null) {
+                if (mac2 == -1) {
                     mac2 = mac;
-                    p2 = xmactoport.get(mac).getBridgePort();
-                    yx2= ymactoport.get(mac).getBridgePort();
-                    LOG.debug("BridgeTopologyHelper: condition2BridgeY: mac2: {} yx2: {} p2: {} ", mac2,yx2,p2);
+                    p2 = xp;
+                    yx2= yp;
+                    LOG.debug("BridgeTopologyHelper: condition2BridgeY: mac2: {} yx2: {} p2: {} ", m_x.getDictionary().getMac(mac2),yx2,p2);
                     continue;
                 }
-                if (xmactoport.get(mac).getBridgePort().intValue() == p2.intValue())
+                if (xp == p2)
                     continue;
-                if (ymactoport.get(mac).getBridgePort().intValue() == yx2.intValue()) {
-                    LOG.debug("BridgeTopologyHelper: condition2BridgeY: yx2 bridge port {}",ymactoport.get(mac).getBridgePort());
+                if (yp == yx2) {
+                    LOG.debug("BridgeTopologyHelper: condition2BridgeY: yx2 bridge port {}",yp);
                     m_yx=yx2;
                     return;
                 }
             }
-            if (yx2 == null) {
+            if (mac1 != -1 && mac2 == -1) {
                 m_yx=yx1;
             }
         }
         
         // there is a mac of X found on Y BFT
         private boolean condition1BridgeX() {
-            LOG.info("BridgeTopologyHelper: condition1BridgeX: bridge X macs size {} ", xmacs.size() );
-            for (String xmac: xmacs) {
-                LOG.debug("BridgeTopologyHelper: condition1BridgeX: bridge X mac: {} ", xmac );
-                if (ymactoport.containsKey(xmac)) {
-                    m_yx = ymactoport.get(xmac).getBridgePort();
-                    LOG.info("BridgeTopologyHelper: condition1BridgeX: found X mac: {} on Y port: {}", xmac,m_yx);
-                    return true;
-                }
+            LOG.info("BridgeTopologyHelper: condition1BridgeX: bridge X macs size {} ", m_x.getSelfMacs().cardinality() );
+            int xmac = m_x.findSelfMacLearnedBy(m_y);
+            if (xmac >= 0) {
+                m_yx = m_y.getPort(xmac);
+                LOG.info("BridgeTopologyHelper: condition1BridgeX: found X mac: {} on Y port: {}", m_x.getDictionary().getMac(xmac),m_yx);
+                return true;
             }
             return false;
         }
             
         // there is a mac of Y found on X BFT
         private boolean condition1BridgeY() {
-            LOG.info("BridgeTopologyHelper: condition1BridgeY: bridge Y macs size {} ", ymacs.size() );
-            for (String ymac: ymacs) {
-                LOG.debug("BridgeTopologyHelper: condition1BridgeY: bridge Y mac: {} ", ymac );
-                if (xmactoport.containsKey(ymac)) {
-                    m_xy = xmactoport.get(ymac).getBridgePort();
-                    LOG.info("BridgeTopologyHelper: condition1BridgeY: found Y mac: {} on X port: {}", ymac,m_xy);
-                    return true;
-                }
+            LOG.info("BridgeTopologyHelper: condition1BridgeY: bridge Y macs size {} ", m_y.getSelfMacs().cardinality() );
+            int ymac = m_y.findSelfMacLearnedBy(m_x);
+            if (ymac >= 0) {
+                m_xy = m_x.getPort(ymac);
+                LOG.info("BridgeTopologyHelper: condition1BridgeY: found Y mac: {} on X port: {}", m_y.getDictionary().getMac(ymac),m_xy);
+                return true;
             }
             return false;
         }
@@ -444,6 +415,7 @@ public class NodeDiscoveryBridgeTopology extends NodeDiscovery {
     //List<BridgeStpLink> m_STPLinks = new ArrayList<BridgeStpLink>();
     List<BridgeElement> m_bridgeelements = new ArrayList<BridgeElement>();
     Map<Integer,Set<String>> m_nodeToBridgeMacIdMap = new HashMap<Integer, Set<String>>();
+    MacAddressDictionary m_macs = new MacAddressDictionary();
     
     public List<BridgeElement> getBridgeelements() {
         return m_bridgeelements;
@@ -460,6 +432,10 @@ public class NodeDiscoveryBridgeTopology extends NodeDiscovery {
         m_bridgeelements = bridgeelements;
     }
 
+    private BridgeForwardingTable getForwardingTable(Bridge bridge, List<BridgeMacLink> bft) {
+        return new BridgeForwardingTable(m_macs, bridge.getId(), bft, m_nodeToBridgeMacIdMap.get(bridge.getId()));
+    }
+
     public List<BridgeMacLink> getRootBridgeBFT() {
         return m_rootBridgeBFT;
     }
@@ -501,11 +477,14 @@ public class NodeDiscoveryBridgeTopology extends NodeDiscovery {
         
         Date now = new Date();
                 
-        Set<String> incomingSet = new HashSet<String>();
+        MacAddressDictionary macs = new MacAddressDictionary();
+        BitSet incomingSet = new BitSet();
         for (BridgeMacLink link : m_linkd.getQueryManager().getBridgeTopologyUpdateBFT(getNodeId())) {
-            incomingSet.add(link.getMacAddress());
+            incomingSet.set(macs.getId(link.getMacAddress()));
         }
-        LOG.debug("run: node: {}. macs found: {}", getNodeId(), incomingSet);
+        int incomingSize = incomingSet.cardinality();
+        if (LOG.isDebugEnabled())
+            LOG.debug("run: node: {}. macs found: {}", getNodeId(), macs.getMacs(incomingSet));
 
         Set<Integer> nodeswithupdatedbftonbroadcastdomain= new HashSet<Integer>();
         nodeswithupdatedbftonbroadcastdomain.add(getNodeId());
@@ -515,19 +494,22 @@ public class NodeDiscoveryBridgeTopology extends NodeDiscovery {
         for (Integer curNodeId: nodeBftMap.keySet()) {
             if (curNodeId.intValue() == getNodeId())
                 continue;
-            Set<String>retainedSet = new HashSet<String>();
+            BitSet retainedSet = new BitSet();
             for (BridgeMacLink link: nodeBftMap.get(curNodeId)) {
-                retainedSet.add(link.getMacAddress());
+                int id = macs.lookup(link.getMacAddress());
+                if (id >= 0)
+                    retainedSet.set(id);
             }
-            LOG.debug("run: node: {}, parsing updated bft node: {}, macs {}", getNodeId(), curNodeId,retainedSet);
-            retainedSet.retainAll(incomingSet);
-            LOG.debug("run: node: {}, node: {} - common mac address set: {}", getNodeId(), curNodeId, retainedSet);
-            if (retainedSet.size() > 10
-                    || retainedSet.size() >= incomingSet.size() * 0.1) {
+            retainedSet.and(incomingSet);
+            if (LOG.isDebugEnabled())
+                LOG.debug("run: node: {}, node: {} - common mac address set: {}", getNodeId(), curNodeId, macs.getMacs(retainedSet));
+            int retainedSize = retainedSet.cardinality();
+            if (retainedSize > 10
+                    || retainedSize >= incomingSize * 0.1) {
                 nodeswithupdatedbftonbroadcastdomain.add(curNodeId);
                 LOG.info("run: node: {}, node: {} - put on same broadcast domain, common macs: {} ", getNodeId(), 
                          curNodeId,
-                         retainedSet);
+                         retainedSize);
             }
         }
         LOG.info("run: node: {}, getting nodes with updated bft on broadcast domain. End", getNodeId());
@@ -535,13 +517,19 @@ public class NodeDiscoveryBridgeTopology extends NodeDiscovery {
         LOG.info("run: node: {}, getting broadcast domain. Start", getNodeId());
         for (BroadcastDomain domain : m_linkd.getQueryManager().getAllBroadcastDomains()) {
             LOG.debug("run: node: {}, parsing domain with nodes: {}, macs: {}", getNodeId(), domain.getBridgeNodesOnDomain(),domain.getMacsOnDomain());
-            Set<String>retainedSet = new HashSet<String>(
-                                                          domain.getMacsOnDomain());
-            retainedSet.retainAll(incomingSet);
-            LOG.debug("run: node: {}, retained: {}", getNodeId(), retainedSet);
+            BitSet retainedSet = new BitSet();
+            for (String mac: domain.getMacsOnDomain()) {
+                int id = macs.lookup(mac);
+                if (id >= 0)
+                    retainedSet.set(id);
+            }
+            retainedSet.and(incomingSet);
+            if (LOG.isDebugEnabled())
+                LOG.debug("run: node: {}, retained: {}", getNodeId(), macs.getMacs(retainedSet));
+            int retainedSize = retainedSet.cardinality();
             // should contain at list 10 or 10% of the all size
-            if (retainedSet.size() > 10
-                    || retainedSet.size() >= incomingSet.size() * 0.1) {
+            if (retainedSize > 10
+                    || retainedSize >= incomingSize * 0.1) {
                 m_domain = domain;
                 LOG.debug("run: node: {}, domain found!",getNodeId());
                 continue;
@@ -671,6 +659,7 @@ public class NodeDiscoveryBridgeTopology extends NodeDiscovery {
 
     protected  void calculate() {
         LOG.info("calculate: start:  calculate topology");
+        m_macs = new MacAddressDictionary();
 
         for (Bridge xBridge: m_notYetParsedBFTMap.keySet()) {
             LOG.info("calculate: bridge: {} has an updated bft. Clear bridge topology", xBridge.getId());
@@ -617,8 +617,8 @@ public final class BroadcastEventProcessor implements EventListener {
                         try {
                             synchronized(m_noticeQueues) {
                                 NoticeQueue noticeQueue = m_noticeQueues.get(queueID);
-                                processTargets(targets, targetSiblings, noticeQueue, startTime, paramMap, noticeId);
-                                processEscalations(escalations, targetSiblings, noticeQueue, startTime, paramMap, noticeId);
+                                processTargets(targets, targetSiblings, noticeQueue, startTime, paramMap, noticeId, notification.getDestinationPath());
+                                processEscalations(escalations, targetSiblings, noticeQueue, startTime, paramMap, noticeId, notification.getDestinationPath());
                             }
                         } catch (Throwable e) {
                             LOG.error("notice not scheduled due to error: ", e);
@@ -781,7 +781,7 @@ public final class BroadcastEventProcessor implements EventListener {
     /**
      * 
      */
-    private void processTargets(Target[] targets, List<NotificationTask> targetSiblings, NoticeQueue noticeQueue, long startTime, Map<String, String> params, int noticeId) throws IOException, MarshalException, ValidationException {
+    private void processTargets(Target[] targets, List<NotificationTask> targetSiblings, NoticeQueue noticeQueue, long startTime, Map<String, String> params, int noticeId, String destinationPath) throws IOException, MarshalException, ValidationException {
         for (int i = 0; i < targets.length; i++) {
             String interval = (targets[i].getInterval() == null ? "0s" : targets[i].getInterval());
 
@@ -820,6 +820,7 @@ public final class BroadcastEventProcessor implements EventListener {
                 for (int index = 0; index < tasks.length; index++) {
                     NotificationTask task = tasks[index];
                     if (task != null) {
+                        task.setDestinationPath(destinationPath);
                         synchronized(noticeQueue) {
                             noticeQueue.putItem(task.getSendTime(), task);
                         }
@@ -891,11 +892,11 @@ public final class BroadcastEventProcessor implements EventListener {
     /**
      * 
      */
-    private void processEscalations(Escalate[] escalations, List<NotificationTask> targetSiblings, NoticeQueue noticeQueue, long startTime, Map<String, String> params, int noticeId) throws IOException, MarshalException, ValidationException {
+    private void processEscalations(Escalate[] escalations, List<NotificationTask> targetSiblings, NoticeQueue noticeQueue, long startTime, Map<String, String> params, int noticeId, String destinationPath) throws IOException, MarshalException, ValidationException {
         for (int i = 0; i < escalations.length; i++) {
             Target[] targets = escalations[i].getTarget();
             startTime += TimeConverter.convertToMillis(escalations[i].getDelay());
-            processTargets(targets, targetSiblings, noticeQueue, startTime, params, noticeId);
+            processTargets(targets, targetSiblings, noticeQueue, startTime, params, noticeId, destinationPath);
         }
     }
 
@@ -68,6 +68,11 @@ public class DefaultQueueHandler implements NotifdQueueHandler {
      */
     private int m_status;
 
+    /**
+     * Delivers the released notices, they are run on their own thread without it.
+     */
+    private volatile NotificationDeliveryEngine m_deliveryEngine;
+
     /**
      * <p>Constructor for DefaultQueueHandler.</p>
      */
@@ -93,6 +98,12 @@ public class DefaultQueueHandler implements NotifdQueueHandler {
         m_interval = TimeConverter.convertToMillis(interval);
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public void setDeliveryEngine(final NotificationDeliveryEngine deliveryEngine) {
+        m_deliveryEngine = deliveryEngine;
+    }
+
     /**
      * The main worker of the fiber. This method is executed by the encapsulated
      * thread to read commands from the execution queue and to execute those
@@ -180,8 +191,15 @@ public class DefaultQueueHandler implements NotifdQueueHandler {
     }
 
 	private void startTask(final NotificationTask task) {
-		if (!task.isStarted())
-			task.start();
+		if (!task.isStarted()) {
+			task.setStarted();
+			final NotificationDeliveryEngine deliveryEngine = m_deliveryEngine;
+			if (deliveryEngine == null) {
+				new Thread(task, task.getClass().getSimpleName() + "-" + task.getNotifyId()).start();
+			} else {
+				deliveryEngine.deliver(task);
+			}
+		}
 	}
 
     /**
@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.notifd;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivery counters of the notification tasks of a single destination path,
+ * registered as <code>OpenNMS:Name=Notifd,type=DestinationPath,path=&lt;path&gt;</code>.
+ */
+public class DestinationPathStats implements DestinationPathStatsMBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DestinationPathStats.class);
+
+    private final String m_destinationPath;
+
+    private final AtomicLong m_queued = new AtomicLong();
+    private final AtomicLong m_delivered = new AtomicLong();
+    private final AtomicLong m_totalLatency = new AtomicLong();
+    private final AtomicLong m_maxLatency = new AtomicLong();
+
+    private ObjectName m_objectName;
+
+    public DestinationPathStats(final String destinationPath) {
+        m_destinationPath = destinationPath;
+    }
+
+    public String getDestinationPath() {
+        return m_destinationPath;
+    }
+
+    public void queued() {
+        m_queued.incrementAndGet();
+    }
+
+    public void delivered(final long latency) {
+        m_queued.decrementAndGet();
+        m_delivered.incrementAndGet();
+        m_totalLatency.addAndGet(latency);
+        m_maxLatency.accumulateAndGet(latency, Math::max);
+    }
+
+    @Override
+    public long getQueueDepth() {
+        return m_queued.get();
+    }
+
+    @Override
+    public long getDelivered() {
+        return m_delivered.get();
+    }
+
+    @Override
+    public long getAverageLatency() {
+        final long delivered = m_delivered.get();
+        return delivered == 0 ? 0 : m_totalLatency.get() / delivered;
+    }
+
+    @Override
+    public long getMaxLatency() {
+        return m_maxLatency.get();
+    }
+
+    /**
+     * Registers the counters with the platform MBean server. Failures are
+     * logged and otherwise ignored.
+     */
+    public synchronized void register() {
+        unregister();
+        try {
+            final ObjectName objectName = new ObjectName("OpenNMS:Name=Notifd,type=DestinationPath,path=" + ObjectName.quote(m_destinationPath));
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+            m_objectName = objectName;
+        } catch (final JMException e) {
+            LOG.warn("Failed to register the statistics of destination path {}", m_destinationPath, e);
+        }
+    }
+
+    public synchronized void unregister() {
+        if (m_objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(m_objectName);
+        } catch (final JMException e) {
+            LOG.debug("Failed to unregister {}", m_objectName, e);
+        } finally {
+            m_objectName = null;
+        }
+    }
+}
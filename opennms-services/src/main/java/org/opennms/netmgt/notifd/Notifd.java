@@ -74,6 +74,11 @@ public final class Notifd extends AbstractServiceDaemon {
      */
     private final Map<String, NotifdQueueHandler> m_queueHandlers = new HashMap<String, NotifdQueueHandler>();
 
+    /**
+     * Delivers the notices released by the queue handlers.
+     */
+    private volatile NotificationDeliveryEngine m_deliveryEngine;
+
     /**
      * The broadcast event receiver.
      */
@@ -101,6 +106,8 @@ public final class Notifd extends AbstractServiceDaemon {
      */
     @Override
     protected void onInit() {
+        m_deliveryEngine = new NotificationDeliveryEngine(getNotificationManager());
+
         try {
             LOG.info("Notification status = {}", getConfigManager().getNotificationStatus());
 
@@ -114,6 +121,7 @@ public final class Notifd extends AbstractServiceDaemon {
                 handlerQueue.setQueueID(queue.getQueueId());
                 handlerQueue.setNoticeQueue(curQueue);
                 handlerQueue.setInterval(queue.getInterval());
+                handlerQueue.setDeliveryEngine(m_deliveryEngine);
 
                 m_noticeQueues.put(queue.getQueueId(), curQueue);
                 m_queueHandlers.put(queue.getQueueId(), handlerQueue);
@@ -169,11 +177,16 @@ public final class Notifd extends AbstractServiceDaemon {
         return m_notificationManager;
     }
 
+    public NotificationDeliveryEngine getDeliveryEngine() {
+        return m_deliveryEngine;
+    }
+
     /**
      * <p>onStart</p>
      */
     @Override
     protected void onStart() {
+        m_deliveryEngine.start();
         for (NotifdQueueHandler curHandler : m_queueHandlers.values()) {
             curHandler.start();
         }
@@ -191,6 +204,10 @@ public final class Notifd extends AbstractServiceDaemon {
         } catch (Throwable e) {
         }
 
+        if (m_deliveryEngine != null) {
+            m_deliveryEngine.stop();
+        }
+
         if (m_eventReader != null) {
             m_eventReader.close();
         }
@@ -67,4 +67,12 @@ public interface NotifdQueueHandler extends Runnable, PausableFiber {
      * <p>processQueue</p>
      */
     public void processQueue();
+
+    /**
+     * Sets the engine that delivers the notices released by the handler.
+     *
+     * @param deliveryEngine a {@link org.opennms.netmgt.notifd.NotificationDeliveryEngine} object.
+     */
+    public default void setDeliveryEngine(NotificationDeliveryEngine deliveryEngine) {
+    }
 }
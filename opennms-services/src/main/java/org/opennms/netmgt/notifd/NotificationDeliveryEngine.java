@@ -0,0 +1,274 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.notifd;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.netmgt.config.NotificationManager;
+import org.opennms.netmgt.config.NotificationManager.UserNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers the notification tasks released by the queue handlers.
+ * <p>
+ * The tasks are run by bounded worker pools, one per set of notification
+ * commands, so a slow strategy (an HTTP endpoint that doesn't answer, an XMPP
+ * server that is down) only delays the notices sent with it. The number of
+ * workers of each pool is set with the
+ * <code>org.opennms.notifd.delivery.threads</code> system property.
+ * </p>
+ * <p>
+ * The rows that the tasks insert into the usersNotified table are written by
+ * a single writer that takes all the rows pending at that time and inserts
+ * them as one batch. If the batch fails, its rows are inserted one by one so
+ * that a bad row only fails its own task. A task still waits for its row to
+ * be written before sending the notice.
+ * </p>
+ */
+public class NotificationDeliveryEngine {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NotificationDeliveryEngine.class);
+
+    public static final String THREADS_PROPERTY = "org.opennms.notifd.delivery.threads";
+
+    public static final String BATCH_SIZE_PROPERTY = "org.opennms.notifd.delivery.batchSize";
+
+    private static final String NO_DESTINATION_PATH = "none";
+
+    private final NotificationManager m_notificationManager;
+
+    private final int m_threads;
+
+    private final int m_batchSize;
+
+    private final ConcurrentHashMap<String, ThreadPoolExecutor> m_pools = new ConcurrentHashMap<String, ThreadPoolExecutor>();
+
+    private final ConcurrentHashMap<String, DestinationPathStats> m_stats = new ConcurrentHashMap<String, DestinationPathStats>();
+
+    private final LinkedBlockingQueue<PendingUserNotification> m_pendingUserNotifications = new LinkedBlockingQueue<PendingUserNotification>();
+
+    private volatile Thread m_writer;
+
+    private static final class PendingUserNotification {
+        private final UserNotification m_userNotification;
+        private final CompletableFuture<Void> m_written = new CompletableFuture<Void>();
+
+        private PendingUserNotification(final UserNotification userNotification) {
+            m_userNotification = userNotification;
+        }
+    }
+
+    /**
+     * <p>Constructor for NotificationDeliveryEngine.</p>
+     *
+     * @param notificationManager a {@link org.opennms.netmgt.config.NotificationManager} object.
+     */
+    public NotificationDeliveryEngine(final NotificationManager notificationManager) {
+        this(notificationManager, Integer.getInteger(THREADS_PROPERTY, 10), Integer.getInteger(BATCH_SIZE_PROPERTY, 100));
+    }
+
+    public NotificationDeliveryEngine(final NotificationManager notificationManager, final int threads, final int batchSize) {
+        m_notificationManager = notificationManager;
+        m_threads = Math.max(threads, 1);
+        m_batchSize = Math.max(batchSize, 1);
+    }
+
+    /**
+     * Starts the writer of the usersNotified rows.
+     */
+    public synchronized void start() {
+        if (m_writer != null) {
+            return;
+        }
+        m_writer = new Thread(this::writeUserNotifications, getClass().getSimpleName() + "-Writer");
+        m_writer.setDaemon(true);
+        m_writer.start();
+    }
+
+    /**
+     * Stops the worker pools and the writer. The tasks that are still queued
+     * are dropped.
+     */
+    public synchronized void stop() {
+        for (final ThreadPoolExecutor pool : m_pools.values()) {
+            pool.shutdownNow();
+        }
+        m_pools.clear();
+        for (final DestinationPathStats stats : m_stats.values()) {
+            stats.unregister();
+        }
+        m_stats.clear();
+        final Thread writer = m_writer;
+        m_writer = null;
+        if (writer != null) {
+            writer.interrupt();
+        }
+    }
+
+    /**
+     * Hands a task over to the worker pool of its commands.
+     *
+     * @param task a {@link org.opennms.netmgt.notifd.NotificationTask} object.
+     */
+    public void deliver(final NotificationTask task) {
+        final DestinationPathStats stats = getStats(task.getDestinationPath());
+        task.setDeliveryEngine(this);
+        stats.queued();
+        try {
+            getPool(task.getCommandNames()).execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    stats.delivered(Math.max(System.currentTimeMillis() - task.getSendTime(), 0));
+                }
+            });
+        } catch (final RuntimeException e) {
+            stats.delivered(0);
+            throw e;
+        }
+    }
+
+    /**
+     * Inserts a row into the usersNotified table with the next batch and
+     * waits until it has been written.
+     *
+     * @throws java.lang.Exception if the row could not be written
+     */
+    public void updateNoticeWithUserInfo(final String userId, final int noticeId, final String media, final String contactInfo, final String autoNotify) throws Exception {
+        final UserNotification userNotification = new UserNotification(userId, noticeId, media, contactInfo, autoNotify, System.currentTimeMillis());
+        if (m_writer == null) {
+            m_notificationManager.updateNoticesWithUserInfo(Collections.singletonList(userNotification));
+            return;
+        }
+        final PendingUserNotification pending = new PendingUserNotification(userNotification);
+        m_pendingUserNotifications.add(pending);
+        if (m_writer == null && m_pendingUserNotifications.remove(pending)) {
+            // The writer was stopped, and may have exited, before the row was queued
+            m_notificationManager.updateNoticesWithUserInfo(Collections.singletonList(userNotification));
+            return;
+        }
+        try {
+            pending.m_written.get();
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private void writeUserNotifications() {
+        final List<PendingUserNotification> batch = new ArrayList<PendingUserNotification>(m_batchSize);
+        final List<UserNotification> rows = new ArrayList<UserNotification>(m_batchSize);
+        while (m_writer == Thread.currentThread() || !m_pendingUserNotifications.isEmpty()) {
+            try {
+                final PendingUserNotification first = m_pendingUserNotifications.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+            } catch (final InterruptedException e) {
+                LOG.debug("writeUserNotifications: interrupted, writing the remaining {} rows", m_pendingUserNotifications.size());
+                Thread.interrupted();
+            }
+            m_pendingUserNotifications.drainTo(batch, m_batchSize - batch.size());
+            if (batch.isEmpty()) {
+                continue;
+            }
+            for (final PendingUserNotification pending : batch) {
+                rows.add(pending.m_userNotification);
+            }
+            try {
+                m_notificationManager.updateNoticesWithUserInfo(rows);
+                LOG.debug("writeUserNotifications: inserted {} rows into usersNotified", rows.size());
+                for (final PendingUserNotification pending : batch) {
+                    pending.m_written.complete(null);
+                }
+            } catch (final Throwable e) {
+                if (batch.size() == 1) {
+                    batch.get(0).m_written.completeExceptionally(e);
+                } else {
+                    LOG.warn("writeUserNotifications: failed to insert {} rows into usersNotified, inserting them one by one", rows.size(), e);
+                    writeUserNotificationsOneByOne(batch);
+                }
+            }
+            batch.clear();
+            rows.clear();
+        }
+    }
+
+    private void writeUserNotificationsOneByOne(final List<PendingUserNotification> batch) {
+        for (final PendingUserNotification pending : batch) {
+            try {
+                m_notificationManager.updateNoticesWithUserInfo(Collections.singletonList(pending.m_userNotification));
+                pending.m_written.complete(null);
+            } catch (final Throwable e) {
+                pending.m_written.completeExceptionally(e);
+            }
+        }
+    }
+
+    private ThreadPoolExecutor getPool(final String commandNames) {
+        return m_pools.computeIfAbsent(commandNames, key -> {
+            final ThreadPoolExecutor pool = new ThreadPoolExecutor(m_threads, m_threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new LogPreservingThreadFactory(getClass().getSimpleName() + "-" + key, m_threads));
+            pool.allowCoreThreadTimeOut(true);
+            LOG.debug("getPool: created a pool of {} workers for {}", m_threads, key);
+            return pool;
+        });
+    }
+
+    private DestinationPathStats getStats(final String destinationPath) {
+        return m_stats.computeIfAbsent(destinationPath == null ? NO_DESTINATION_PATH : destinationPath, key -> {
+            final DestinationPathStats stats = new DestinationPathStats(key);
+            stats.register();
+            return stats;
+        });
+    }
+
+    /**
+     * Returns the delivery counters of a destination path.
+     *
+     * @param destinationPath the name of the path, or null for the notices sent without one
+     * @return the counters, or null if no task of the path has been delivered
+     */
+    public DestinationPathStats getDestinationPathStats(final String destinationPath) {
+        return m_stats.get(destinationPath == null ? NO_DESTINATION_PATH : destinationPath);
+    }
+}
@@ -62,7 +62,7 @@ import org.slf4j.LoggerFactory;
  * notificationCommands.xml by:
  * @author <A HREF="mailto:david@opennms.org">David Hustace </A>
  */
-public class NotificationTask extends Thread {
+public class NotificationTask implements Runnable {
     
     private static final Logger LOG = LoggerFactory.getLogger(NotificationTask.class);
     
@@ -96,6 +96,17 @@ public class NotificationTask extends Thread {
 
     private volatile boolean m_started = false;
 
+    /**
+     * The destination path the task was created for, null for the notices
+     * that are sent without one.
+     */
+    private volatile String m_destinationPath;
+
+    /**
+     * The engine delivering this task, null when the task runs on its own thread.
+     */
+    private volatile NotificationDeliveryEngine m_deliveryEngine;
+
     private final NotificationManager m_notificationManager;
 
     private final UserManager m_userManager;
@@ -202,6 +213,28 @@ public class NotificationTask extends Thread {
     }
     
 
+    /**
+     * <p>getDestinationPath</p>
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    public String getDestinationPath() {
+        return m_destinationPath;
+    }
+
+    /**
+     * Sets the name of the destination path the task was created for.
+     *
+     * @param destinationPath a {@link java.lang.String} object.
+     */
+    public void setDestinationPath(String destinationPath) {
+        m_destinationPath = destinationPath;
+    }
+
+    void setDeliveryEngine(NotificationDeliveryEngine deliveryEngine) {
+        m_deliveryEngine = deliveryEngine;
+    }
+
     /**
      * This method will construct the command that will be issued to send the
      * actual page.
@@ -222,6 +255,26 @@ public class NotificationTask extends Thread {
         return m_commands.clone();
     }
 
+    /**
+     * Names the commands of this task, the tasks with the same commands are
+     * delivered by the same worker pool.
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    public String getCommandNames() {
+        if (m_commands == null) {
+            return "null";
+        }
+        final StringBuilder names = new StringBuilder();
+        for (Command command : m_commands) {
+            if (names.length() > 0) {
+                names.append('+');
+            }
+            names.append(command == null ? "null" : command.getName());
+        }
+        return names.toString();
+    }
+
     /**
      * <p>run</p>
      */
@@ -247,7 +300,7 @@ public class NotificationTask extends Thread {
                         try {
                             cntct = getContactInfo(command.getName());
                             try {
-                                getNotificationManager().updateNoticeWithUserInfo(m_user.getUserId(), m_notifyId, command.getName(), cntct, m_autoNotify);
+                                updateNoticeWithUserInfo(command.getName(), cntct);
                             } catch (Throwable e) {
                                 LOG.error("Could not insert notice info into database, aborting send notice", e);
                                 continue;
@@ -305,6 +358,15 @@ public class NotificationTask extends Thread {
         }
     }
 
+    private void updateNoticeWithUserInfo(String media, String contactInfo) throws Exception {
+        final NotificationDeliveryEngine deliveryEngine = m_deliveryEngine;
+        if (deliveryEngine == null) {
+            getNotificationManager().updateNoticeWithUserInfo(m_user.getUserId(), m_notifyId, media, contactInfo, m_autoNotify);
+        } else {
+            deliveryEngine.updateNoticeWithUserInfo(m_user.getUserId(), m_notifyId, media, contactInfo, m_autoNotify);
+        }
+    }
+
     private NotificationManager getNotificationManager() {
         return m_notificationManager;
     }
@@ -400,12 +462,10 @@ public class NotificationTask extends Thread {
     }
 
     /**
-     * <p>start</p>
+     * Marks the task as handed over for delivery, it must only be run once.
      */
-    @Override
-    public synchronized void start() {
+    public void setStarted() {
         m_started = true;
-        super.start();
     }
 
     /**
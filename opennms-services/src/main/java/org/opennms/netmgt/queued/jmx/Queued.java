@@ -247,5 +247,89 @@ public class Queued extends AbstractSpringContextJmxServiceDaemon<org.opennms.ne
         }
     }
 
+    /**
+     * <p>getDroppedOperations</p>
+     *
+     * @return a long.
+     */
+    @Override
+    public long getDroppedOperations() {
+        if (getStatsStatus()) {
+            return getRrdStrategy().getDroppedOperations();
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * <p>getCoalescedOperations</p>
+     *
+     * @return a long.
+     */
+    @Override
+    public long getCoalescedOperations() {
+        if (getStatsStatus()) {
+            return getRrdStrategy().getCoalescedOperations();
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * <p>getCoalesceRatio</p>
+     *
+     * @return a double.
+     */
+    @Override
+    public double getCoalesceRatio() {
+        if (getStatsStatus()) {
+            return getRrdStrategy().getCoalesceRatio();
+        } else {
+            return 0.0;
+        }
+    }
+
+    /**
+     * <p>getShardDepths</p>
+     *
+     * @return an array of long.
+     */
+    @Override
+    public long[] getShardDepths() {
+        if (getStatsStatus()) {
+            return getRrdStrategy().getShardDepths();
+        } else {
+            return new long[0];
+        }
+    }
+
+    /**
+     * <p>getShardCoalesceRatios</p>
+     *
+     * @return an array of double.
+     */
+    @Override
+    public double[] getShardCoalesceRatios() {
+        if (getStatsStatus()) {
+            return getRrdStrategy().getShardCoalesceRatios();
+        } else {
+            return new double[0];
+        }
+    }
+
+    /**
+     * <p>getShardDroppedOperations</p>
+     *
+     * @return an array of long.
+     */
+    @Override
+    public long[] getShardDroppedOperations() {
+        if (getStatsStatus()) {
+            return getRrdStrategy().getShardDroppedOperations();
+        } else {
+            return new long[0];
+        }
+    }
+
 
 }
@@ -115,5 +115,41 @@ public interface QueuedMBean extends BaseOnmsMBean {
 	 * @return a long.
 	 */
 	public long getStartTime();
+	/**
+	 * <p>getDroppedOperations</p>
+	 *
+	 * @return a long.
+	 */
+	public long getDroppedOperations();
+	/**
+	 * <p>getCoalescedOperations</p>
+	 *
+	 * @return the number of updates merged into an operation that was already pending.
+	 */
+	public long getCoalescedOperations();
+	/**
+	 * <p>getCoalesceRatio</p>
+	 *
+	 * @return the average number of operations written per file update.
+	 */
+	public double getCoalesceRatio();
+	/**
+	 * <p>getShardDepths</p>
+	 *
+	 * @return the number of operations pending in each queue shard.
+	 */
+	public long[] getShardDepths();
+	/**
+	 * <p>getShardCoalesceRatios</p>
+	 *
+	 * @return the average number of operations written per file update for each queue shard.
+	 */
+	public double[] getShardCoalesceRatios();
+	/**
+	 * <p>getShardDroppedOperations</p>
+	 *
+	 * @return the number of operations discarded by each queue shard.
+	 */
+	public long[] getShardDroppedOperations();
 
 }
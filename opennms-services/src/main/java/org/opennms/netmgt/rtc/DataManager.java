@@ -33,6 +33,7 @@ import java.net.InetAddress;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
@@ -49,6 +50,8 @@ import org.opennms.netmgt.dao.api.MonitoredServiceDao;
 import org.opennms.netmgt.events.api.EventConstants;
 import org.opennms.netmgt.filter.api.FilterDao;
 import org.opennms.netmgt.filter.api.FilterParseException;
+import org.opennms.netmgt.rtc.datablock.RTCAvailabilityEngine;
+import org.opennms.netmgt.rtc.datablock.RTCAvailabilityEngine.CategorySnapshot;
 import org.opennms.netmgt.rtc.datablock.RTCCategory;
 import org.opennms.netmgt.rtc.datablock.RTCHashMap;
 import org.opennms.netmgt.rtc.datablock.RTCNode;
@@ -80,6 +83,9 @@ import org.springframework.transaction.support.TransactionTemplate;
  * 'nodeGainedService' event would result in the 'nodeGainedService()' method
  * being called by the DataUpdater(s).
  *
+ * Availability values are served by a {@link RTCAvailabilityEngine} that is
+ * updated along with the map, so reads do not contend with the updaters.
+ *
  * @author <A HREF="mailto:sowmya@opennms.org">Sowmya Nataraj </A>
  * @author <A HREF="http://www.opennms.org">OpenNMS.org </A>
  */
@@ -87,6 +93,12 @@ public class DataManager implements AvailabilityService, InitializingBean {
     
     private static final Logger LOG = LoggerFactory.getLogger(DataManager.class);
 
+    /**
+     * How often outages that left the rolling window are removed from the
+     * availability sums.
+     */
+    private static final long AVAILABILITY_REFRESH_INTERVAL = 60000L;
+
     @Autowired
 	private FilterDao m_filterDao;
 
@@ -112,6 +124,7 @@ public class DataManager implements AvailabilityService, InitializingBean {
 
 		Map<String,Set<Integer>> m_categoryNodeIdLists = new HashMap<String,Set<Integer>>();
 
+		List<RTCNode> m_createdNodes = new ArrayList<RTCNode>();
 
 		@Override
 		public void processRow(ResultSet rs) throws SQLException {
@@ -147,6 +160,7 @@ public class DataManager implements AvailabilityService, InitializingBean {
 			if (rtcN == null) {
 				rtcN = new RTCNode(key, m_configFactory.getRollingWindow());
 				addRTCNode(rtcN);
+				m_createdNodes.add(rtcN);
 			}
 			return rtcN;
 		}
@@ -190,6 +204,11 @@ public class DataManager implements AvailabilityService, InitializingBean {
      */
     private RTCHashMap m_map;
 
+    /**
+     * running down time sums for the categories and their nodes
+     */
+    private RTCAvailabilityEngine m_availability;
+
 	private static void addOutageToRTCNode(RTCNode rtcN, Timestamp lostTimeTS, Timestamp regainedTimeTS) {
 		if (lostTimeTS == null) return;
 		long lostTime = lostTimeTS.getTime();
@@ -270,12 +289,17 @@ public class DataManager implements AvailabilityService, InitializingBean {
 		long window = (new Date()).getTime() - (24L * 60L * 60L * 1000L);
 		Timestamp windowTS = new Timestamp(window);
 
-    	RowCallbackHandler rowHandler = new RTCNodeProcessor();
+    	RTCNodeProcessor rowHandler = new RTCNodeProcessor();
 
     	Object[] sqlArgs = createArgs(windowTS, windowTS, args);
     	
     	m_jdbcTemplate.query(getOutagesInWindow, sqlArgs, rowHandler);
-    	
+
+    	// the outages are only complete once all of the rows were processed
+    	final long now = System.currentTimeMillis();
+    	for (RTCNode rtcN : rowHandler.m_createdNodes) {
+    		m_availability.addService(rtcN, now);
+    	}
     }
 
 	private static Object[] createArgs(Object arg1, Object arg2, Object[] remaining) {
@@ -323,6 +347,7 @@ public class DataManager implements AvailabilityService, InitializingBean {
 
     	// create data holder
     	m_map = new RTCHashMap(30000);
+    	m_availability = new RTCAvailabilityEngine(m_configFactory.getRollingWindow(), AVAILABILITY_REFRESH_INTERVAL, System.currentTimeMillis());
 
     	m_transactionTemplate.execute(new TransactionCallbackWithoutResult() {
 
@@ -425,7 +450,7 @@ public class DataManager implements AvailabilityService, InitializingBean {
 
         // inform node
         rtcN.nodeLostService(t);
-
+        m_availability.updateService(rtcN, System.currentTimeMillis());
     }
 
     /**
@@ -452,6 +477,7 @@ public class DataManager implements AvailabilityService, InitializingBean {
 
         // inform node
         rtcN.nodeRegainedService(t);
+        m_availability.updateService(rtcN, System.currentTimeMillis());
     }
 
     /**
@@ -476,6 +502,9 @@ public class DataManager implements AvailabilityService, InitializingBean {
             return;
         }
 
+        // must happen before the categories are removed from the node
+        m_availability.removeService(rtcN);
+
         //
         // Go through from all the categories this node belongs to
         // and delete the service
@@ -572,6 +601,10 @@ public class DataManager implements AvailabilityService, InitializingBean {
     	for (RTCCategory cat : m_categories.values()) {
 			cat.deleteNode(nodeid);
 		}
+
+    	for (RTCNode rtcN : m_map.getRTCNodes(nodeid)) {
+    		m_availability.removeService(rtcN);
+    	}
     	
     	m_map.deleteNode(nodeid);
     	
@@ -605,6 +638,7 @@ public class DataManager implements AvailabilityService, InitializingBean {
 
             // remove the node with the old node id from the map
             m_map.delete(rtcN);
+            m_availability.removeService(rtcN);
 
             // change the node ID on the RTCNode
             rtcN.setNodeID(newNodeId);
@@ -620,6 +654,7 @@ public class DataManager implements AvailabilityService, InitializingBean {
                 rtcCat.addNode(newNodeId);
             }
 
+            m_availability.addService(rtcN, System.currentTimeMillis());
         }
     }
 
@@ -636,8 +671,13 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @return the value(uptime) for the category in the last 'rollingWindow'
      *         starting at current time
      */
-    public synchronized double getValue(RTCCategory category, long curTime, long rollingWindow) {
-        return m_map.getValue(category.getLabel(), curTime, rollingWindow);
+    public double getValue(RTCCategory category, long curTime, long rollingWindow) {
+        if (rollingWindow != m_availability.getRollingWindow()) {
+            synchronized (this) {
+                return m_map.getValue(category.getLabel(), curTime, rollingWindow);
+            }
+        }
+        return getSnapshot(category, curTime).getValue(curTime);
     }
 
     /**
@@ -655,8 +695,13 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @return the value(uptime) for the node in the last 'rollingWindow'
      *         starting at current time in the context of the passed category
      */
-    public synchronized double getValue(int nodeid, RTCCategory category, long curTime, long rollingWindow) {
-        return m_map.getValue(nodeid, category.getLabel(), curTime, rollingWindow);
+    public double getValue(int nodeid, RTCCategory category, long curTime, long rollingWindow) {
+        if (rollingWindow != m_availability.getRollingWindow()) {
+            synchronized (this) {
+                return m_map.getValue(nodeid, category.getLabel(), curTime, rollingWindow);
+            }
+        }
+        return getSnapshot(category, curTime).getValue(nodeid, curTime);
     }
 
     /**
@@ -670,8 +715,8 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @return the service count for the nodeid in the context of the passed
      *         category
      */
-    public synchronized int getServiceCount(int nodeid, RTCCategory category) {
-        return m_map.getServiceCount(nodeid, category.getLabel());
+    public int getServiceCount(int nodeid, RTCCategory category) {
+        return getSnapshot(category, System.currentTimeMillis()).getServiceCount(nodeid);
     }
 
     /**
@@ -685,8 +730,23 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @return the service down count for the nodeid in the context of the
      *         passed category
      */
-    public synchronized int getServiceDownCount(int nodeid, RTCCategory category) {
-        return m_map.getServiceDownCount(nodeid, category.getLabel());
+    public int getServiceDownCount(int nodeid, RTCCategory category) {
+        return getSnapshot(category, System.currentTimeMillis()).getServiceDownCount(nodeid);
+    }
+
+    /**
+     * Get a consistent view of the availability of the category. This does
+     * not wait for updates in progress; the last published view is returned
+     * instead.
+     *
+     * @param category
+     *            the category
+     * @param curTime
+     *            the current time
+     * @return a {@link org.opennms.netmgt.rtc.datablock.RTCAvailabilityEngine.CategorySnapshot} object.
+     */
+    public CategorySnapshot getSnapshot(RTCCategory category, long curTime) {
+        return m_availability.getSnapshot(category.getLabel(), curTime);
     }
 
     /**
@@ -695,7 +755,7 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @return the categories
      */
     @Override
-    public synchronized Map<String, RTCCategory> getCategories() {
+    public Map<String, RTCCategory> getCategories() {
         return m_categories;
     }
 
@@ -0,0 +1,517 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rtc.datablock;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.opennms.netmgt.rtc.RTCUtils;
+
+/**
+ * Maintains running down time sums for every category and for every node
+ * within a category so that availability values can be read in constant time.
+ *
+ * <p>
+ * Writers register each 'RTCNode' (a nodeid/ip/svc tuple) once it has been
+ * added to its categories and re-register it whenever its outages change.
+ * The contribution of the service is then added to primitive arrays that are
+ * indexed by node and kept for each category. Since open outages keep
+ * accumulating down time, they are tracked as a count and a sum of lost
+ * times so that their down time can be extrapolated to the time of the read.
+ * Closed outages that slide out of the rolling window are accounted for by
+ * re-evaluating all of the services every 'refreshInterval' milliseconds.
+ * </p>
+ *
+ * <p>
+ * Readers never wait for writers: the values are served from immutable
+ * {@link CategorySnapshot}s that are republished lazily, and only if the
+ * lock can be acquired without waiting.
+ * </p>
+ */
+public class RTCAvailabilityEngine {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final long m_rollingWindow;
+
+    private final long m_refreshInterval;
+
+    /**
+     * Guards the contributions and the category states.
+     */
+    private final ReentrantLock m_lock = new ReentrantLock();
+
+    /**
+     * Array index for every node id, shared by all of the categories. Entries
+     * are never removed so that published snapshots stay valid.
+     */
+    private final ConcurrentMap<Integer, Integer> m_slots = new ConcurrentHashMap<Integer, Integer>();
+
+    private final ConcurrentMap<String, CategoryState> m_categories = new ConcurrentHashMap<String, CategoryState>();
+
+    private final ConcurrentMap<String, CategorySnapshot> m_snapshots = new ConcurrentHashMap<String, CategorySnapshot>();
+
+    /**
+     * Keyed by identity since the hash code of an 'RTCNode' changes along
+     * with its outages.
+     */
+    private final Map<RTCNode, Contribution> m_contributions = new IdentityHashMap<RTCNode, Contribution>();
+
+    private volatile long m_lastRefresh;
+
+    /**
+     * <p>Constructor for RTCAvailabilityEngine.</p>
+     *
+     * @param rollingWindow
+     *            the window for which availability is calculated
+     * @param refreshInterval
+     *            how often expired outages are removed from the sums
+     * @param now
+     *            the current time
+     */
+    public RTCAvailabilityEngine(long rollingWindow, long refreshInterval, long now) {
+        if (rollingWindow <= 0) {
+            throw new IllegalArgumentException("rollingWindow must be positive: " + rollingWindow);
+        }
+        m_rollingWindow = rollingWindow;
+        m_refreshInterval = refreshInterval;
+        m_lastRefresh = now;
+    }
+
+    /**
+     * Return the window for which availability is calculated.
+     *
+     * @return the rolling window in milliseconds
+     */
+    public long getRollingWindow() {
+        return m_rollingWindow;
+    }
+
+    /**
+     * Add or re-evaluate the contribution of a service. This must be called
+     * after the categories of the node are set, and again every time that
+     * its outages change.
+     *
+     * @param rtcN
+     *            the service
+     * @param now
+     *            the current time
+     */
+    public void addService(RTCNode rtcN, long now) {
+        // Copy the outages so that the service can be re-evaluated without
+        // touching the (unsynchronized) list on later refreshes
+        final List<RTCNodeSvcTime> svcTimes = rtcN.getSvcTimesList();
+        final long[] lostTimes = new long[svcTimes.size()];
+        final long[] regainedTimes = new long[svcTimes.size()];
+        int i = 0;
+        for (RTCNodeSvcTime svcTime : svcTimes) {
+            lostTimes[i] = svcTime.getLostTime();
+            regainedTimes[i] = svcTime.getRegainedTime();
+            i++;
+        }
+
+        final List<String> catLabels = rtcN.getCategories();
+        final CategoryState[] states = new CategoryState[catLabels.size()];
+        for (int j = 0; j < states.length; j++) {
+            states[j] = getCategoryState(catLabels.get(j));
+        }
+
+        final Contribution contribution = new Contribution(getSlot(rtcN.getNodeID()), states, lostTimes, regainedTimes);
+
+        m_lock.lock();
+        try {
+            final Contribution previous = m_contributions.put(rtcN, contribution);
+            if (previous != null) {
+                previous.apply(-1);
+            }
+            contribution.evaluate(now, m_rollingWindow);
+            contribution.apply(1);
+
+            refreshIfNeeded(now);
+        } finally {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Re-evaluate the contribution of a service after one of its outages
+     * was created or resolved.
+     *
+     * @param rtcN
+     *            the service
+     * @param now
+     *            the current time
+     */
+    public void updateService(RTCNode rtcN, long now) {
+        addService(rtcN, now);
+    }
+
+    /**
+     * Remove the contribution of a service. This must be called before the
+     * node id or the categories of the service are changed.
+     *
+     * @param rtcN
+     *            the service
+     */
+    public void removeService(RTCNode rtcN) {
+        m_lock.lock();
+        try {
+            final Contribution previous = m_contributions.remove(rtcN);
+            if (previous != null) {
+                previous.apply(-1);
+            }
+        } finally {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Re-evaluate every service so that outages that left the rolling window
+     * are no longer counted.
+     *
+     * @param now
+     *            the current time
+     */
+    public void refresh(long now) {
+        m_lock.lock();
+        try {
+            doRefresh(now);
+        } finally {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Return a consistent view of the availability of the category. This
+     * never waits for writers: if the lock is busy, the last published view
+     * is returned instead.
+     *
+     * @param catLabel
+     *            the category label
+     * @param now
+     *            the current time
+     * @return a {@link CategorySnapshot} object.
+     */
+    public CategorySnapshot getSnapshot(String catLabel, long now) {
+        CategorySnapshot snapshot = m_snapshots.get(catLabel);
+        final CategoryState state = m_categories.get(catLabel);
+        final boolean stale = now - m_lastRefresh >= m_refreshInterval;
+
+        if (state == null) {
+            // No services were ever added to this category
+            return snapshot != null ? snapshot : CategorySnapshot.empty(m_slots, m_rollingWindow);
+        } else if (snapshot != null && snapshot.m_version == state.m_version && !stale) {
+            return snapshot;
+        }
+
+        // Wait for the lock only if there is nothing to fall back to
+        if (snapshot == null) {
+            m_lock.lock();
+        } else if (!m_lock.tryLock()) {
+            return snapshot;
+        }
+        try {
+            if (stale) {
+                doRefresh(now);
+            }
+            snapshot = m_snapshots.get(catLabel);
+            if (snapshot == null || snapshot.m_version != state.m_version) {
+                snapshot = state.snapshot(m_slots, m_rollingWindow);
+                m_snapshots.put(catLabel, snapshot);
+            }
+            return snapshot;
+        } finally {
+            m_lock.unlock();
+        }
+    }
+
+    private void refreshIfNeeded(long now) {
+        if (now - m_lastRefresh >= m_refreshInterval) {
+            doRefresh(now);
+        }
+    }
+
+    private void doRefresh(long now) {
+        for (Contribution contribution : m_contributions.values()) {
+            contribution.apply(-1);
+            contribution.evaluate(now, m_rollingWindow);
+            contribution.apply(1);
+        }
+        m_lastRefresh = now;
+    }
+
+    private int getSlot(int nodeid) {
+        final Integer slot = m_slots.get(nodeid);
+        if (slot != null) {
+            return slot;
+        }
+        m_lock.lock();
+        try {
+            Integer newSlot = m_slots.get(nodeid);
+            if (newSlot == null) {
+                newSlot = m_slots.size();
+                m_slots.put(nodeid, newSlot);
+            }
+            return newSlot;
+        } finally {
+            m_lock.unlock();
+        }
+    }
+
+    private CategoryState getCategoryState(String catLabel) {
+        CategoryState state = m_categories.get(catLabel);
+        if (state == null) {
+            final CategoryState newState = new CategoryState();
+            state = m_categories.putIfAbsent(catLabel, newState);
+            if (state == null) {
+                state = newState;
+            }
+        }
+        return state;
+    }
+
+    /**
+     * The down time of a single service, as last added to its categories.
+     */
+    private static final class Contribution {
+        private final int m_slot;
+        private final CategoryState[] m_states;
+        private final long[] m_lostTimes;
+        private final long[] m_regainedTimes;
+
+        private long m_closedDownTime;
+        private long m_openLostTime;
+        private int m_openOutages;
+        private int m_down;
+
+        private Contribution(int slot, CategoryState[] states, long[] lostTimes, long[] regainedTimes) {
+            m_slot = slot;
+            m_states = states;
+            m_lostTimes = lostTimes;
+            m_regainedTimes = regainedTimes;
+        }
+
+        /**
+         * Mirrors {@link RTCNodeSvcTime#getDownTime(long, long)}, except that
+         * open outages are kept apart so that they can be extrapolated.
+         */
+        private void evaluate(long now, long rollingWindow) {
+            final long startTime = now - rollingWindow;
+
+            m_closedDownTime = 0;
+            m_openLostTime = 0;
+            m_openOutages = 0;
+            for (int i = 0; i < m_lostTimes.length; i++) {
+                final long lostTime = m_lostTimes[i];
+                final long regainedTime = m_regainedTimes[i];
+                if (lostTime > now) {
+                    continue;
+                }
+                if (regainedTime < 0 || regainedTime > now) {
+                    m_openOutages++;
+                    m_openLostTime += Math.max(lostTime, startTime);
+                } else if (regainedTime >= startTime) {
+                    m_closedDownTime += regainedTime - Math.max(lostTime, startTime);
+                }
+            }
+
+            final int last = m_lostTimes.length - 1;
+            m_down = (last >= 0 && m_regainedTimes[last] == -1 && m_lostTimes[last] != -1) ? 1 : 0;
+        }
+
+        private void apply(int sign) {
+            for (CategoryState state : m_states) {
+                state.add(m_slot, sign * m_closedDownTime, sign * m_openLostTime, sign * m_openOutages, sign * m_down, sign);
+            }
+        }
+    }
+
+    /**
+     * The mutable sums for a category, guarded by the engine lock.
+     */
+    private static final class CategoryState {
+        private long[] m_closedDownTime = new long[INITIAL_CAPACITY];
+        private long[] m_openLostTime = new long[INITIAL_CAPACITY];
+        private int[] m_openOutages = new int[INITIAL_CAPACITY];
+        private int[] m_downCount = new int[INITIAL_CAPACITY];
+        private int[] m_serviceCount = new int[INITIAL_CAPACITY];
+
+        private long m_totalClosedDownTime;
+        private long m_totalOpenLostTime;
+        private int m_totalOpenOutages;
+        private int m_totalServiceCount;
+
+        private volatile int m_version;
+
+        private void add(int slot, long closedDownTime, long openLostTime, int openOutages, int downCount, int serviceCount) {
+            if (slot >= m_serviceCount.length) {
+                final int capacity = Math.max(slot + 1, m_serviceCount.length * 2);
+                m_closedDownTime = Arrays.copyOf(m_closedDownTime, capacity);
+                m_openLostTime = Arrays.copyOf(m_openLostTime, capacity);
+                m_openOutages = Arrays.copyOf(m_openOutages, capacity);
+                m_downCount = Arrays.copyOf(m_downCount, capacity);
+                m_serviceCount = Arrays.copyOf(m_serviceCount, capacity);
+            }
+            m_closedDownTime[slot] += closedDownTime;
+            m_openLostTime[slot] += openLostTime;
+            m_openOutages[slot] += openOutages;
+            m_downCount[slot] += downCount;
+            m_serviceCount[slot] += serviceCount;
+
+            m_totalClosedDownTime += closedDownTime;
+            m_totalOpenLostTime += openLostTime;
+            m_totalOpenOutages += openOutages;
+            m_totalServiceCount += serviceCount;
+
+            m_version++;
+        }
+
+        private CategorySnapshot snapshot(Map<Integer, Integer> slots, long rollingWindow) {
+            return new CategorySnapshot(slots, rollingWindow, m_version,
+                    m_closedDownTime.clone(), m_openLostTime.clone(), m_openOutages.clone(), m_downCount.clone(), m_serviceCount.clone(),
+                    m_totalClosedDownTime, m_totalOpenLostTime, m_totalOpenOutages, m_totalServiceCount);
+        }
+    }
+
+    /**
+     * An immutable view of the availability of a category.
+     */
+    public static final class CategorySnapshot {
+        private final Map<Integer, Integer> m_slots;
+        private final long m_rollingWindow;
+        private final int m_version;
+
+        private final long[] m_closedDownTime;
+        private final long[] m_openLostTime;
+        private final int[] m_openOutages;
+        private final int[] m_downCount;
+        private final int[] m_serviceCount;
+
+        private final long m_totalClosedDownTime;
+        private final long m_totalOpenLostTime;
+        private final int m_totalOpenOutages;
+        private final int m_totalServiceCount;
+
+        private CategorySnapshot(Map<Integer, Integer> slots, long rollingWindow, int version,
+                long[] closedDownTime, long[] openLostTime, int[] openOutages, int[] downCount, int[] serviceCount,
+                long totalClosedDownTime, long totalOpenLostTime, int totalOpenOutages, int totalServiceCount) {
+            m_slots = slots;
+            m_rollingWindow = rollingWindow;
+            m_version = version;
+            m_closedDownTime = closedDownTime;
+            m_openLostTime = openLostTime;
+            m_openOutages = openOutages;
+            m_downCount = downCount;
+            m_serviceCount = serviceCount;
+            m_totalClosedDownTime = totalClosedDownTime;
+            m_totalOpenLostTime = totalOpenLostTime;
+            m_totalOpenOutages = totalOpenOutages;
+            m_totalServiceCount = totalServiceCount;
+        }
+
+        private static CategorySnapshot empty(Map<Integer, Integer> slots, long rollingWindow) {
+            return new CategorySnapshot(slots, rollingWindow, -1, new long[0], new long[0], new int[0], new int[0], new int[0], 0, 0, 0, 0);
+        }
+
+        /**
+         * Get the value (uptime) for the category in the last rolling window
+         * starting at 'curTime'.
+         *
+         * @param curTime
+         *            the current time
+         * @return the value(uptime) for the category
+         */
+        public double getValue(long curTime) {
+            return value(m_totalClosedDownTime, m_totalOpenLostTime, m_totalOpenOutages, m_totalServiceCount, curTime);
+        }
+
+        /**
+         * Get the value (uptime) for a node in the context of the category in
+         * the last rolling window starting at 'curTime'.
+         *
+         * @param nodeid
+         *            the node for which value is to be calculated
+         * @param curTime
+         *            the current time
+         * @return the value(uptime) for the node
+         */
+        public double getValue(int nodeid, long curTime) {
+            final int slot = getSlot(nodeid);
+            if (slot < 0) {
+                return 100.0;
+            }
+            return value(m_closedDownTime[slot], m_openLostTime[slot], m_openOutages[slot], m_serviceCount[slot], curTime);
+        }
+
+        /**
+         * Get the count of services for a node in the context of the category.
+         *
+         * @param nodeid
+         *            the node
+         * @return the service count
+         */
+        public int getServiceCount(int nodeid) {
+            final int slot = getSlot(nodeid);
+            return slot < 0 ? 0 : m_serviceCount[slot];
+        }
+
+        /**
+         * Get the count of services currently down for a node in the context
+         * of the category.
+         *
+         * @param nodeid
+         *            the node
+         * @return the service down count
+         */
+        public int getServiceDownCount(int nodeid) {
+            final int slot = getSlot(nodeid);
+            return slot < 0 ? 0 : m_downCount[slot];
+        }
+
+        private int getSlot(int nodeid) {
+            final Integer slot = m_slots.get(nodeid);
+            if (slot == null || slot >= m_serviceCount.length) {
+                return -1;
+            }
+            return slot;
+        }
+
+        private double value(long closedDownTime, long openLostTime, int openOutages, int serviceCount, long curTime) {
+            // open outages are still accumulating down time
+            long downTime = closedDownTime + (openOutages * curTime - openLostTime);
+            downTime = Math.max(0, Math.min(downTime, serviceCount * m_rollingWindow));
+            return RTCUtils.getOutagePercentage(downTime, m_rollingWindow, serviceCount);
+        }
+    }
+}
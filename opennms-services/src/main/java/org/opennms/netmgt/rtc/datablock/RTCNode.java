@@ -261,6 +261,15 @@ public class RTCNode {
         return m_categories;
     }
 
+    /**
+     * Return the lost/regained service times for this node.
+     *
+     * @return list of service times for the node.
+     */
+    RTCNodeSvcTimesList getSvcTimesList() {
+        return m_svcTimesList;
+    }
+
     /**
      * Get the down time. Return the total outage time for this node in the
      * 'rollingWindow' milliseconds since 'curTime' for the category
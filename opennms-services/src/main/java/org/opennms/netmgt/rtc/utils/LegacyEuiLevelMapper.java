@@ -28,10 +28,12 @@
 
 package org.opennms.netmgt.rtc.utils;
 
+import java.util.ArrayList;
 import java.util.Date;
 
 import org.opennms.netmgt.events.api.EventConstants;
 import org.opennms.netmgt.rtc.DataManager;
+import org.opennms.netmgt.rtc.datablock.RTCAvailabilityEngine.CategorySnapshot;
 import org.opennms.netmgt.rtc.datablock.RTCCategory;
 import org.opennms.netmgt.xml.rtc.EuiLevel;
 import org.opennms.netmgt.xml.rtc.Header;
@@ -80,9 +82,6 @@ public class LegacyEuiLevelMapper {
         Date curDate = new Date();
         long curTime = curDate.getTime();
 
-        // get the rolling window
-        long rWindow = 24L * 60L * 60L * 1000L;
-
         LOG.debug("curdate: {}", curDate);
 
         // create the data
@@ -94,32 +93,33 @@ public class LegacyEuiLevelMapper {
 
         org.opennms.netmgt.xml.rtc.Category levelCat = new org.opennms.netmgt.xml.rtc.Category();
 
-        // get a handle to data
-        synchronized (m_dataMgr) {
-            // category label
-            levelCat.setCatlabel(rtcCat.getLabel());
+        // category label
+        levelCat.setCatlabel(rtcCat.getLabel());
+
+        // the values are read from a single snapshot of the category over
+        // the configured rolling window, this does not block the updaters
+        final CategorySnapshot snapshot = m_dataMgr.getSnapshot(rtcCat, curTime);
 
-            // availability value for this category
-            levelCat.setCatvalue(m_dataMgr.getValue(rtcCat, curTime, rWindow));
+        // availability value for this category
+        levelCat.setCatvalue(snapshot.getValue(curTime));
 
-            // nodes in this category
-            for (int nodeID : m_dataMgr.getNodes(rtcCat)) {
+        // nodes in this category, copied since the list may be updated
+        for (int nodeID : new ArrayList<Integer>(m_dataMgr.getNodes(rtcCat))) {
 
-                Node levelNode = new Node();
-                levelNode.setNodeid(nodeID);
+            Node levelNode = new Node();
+            levelNode.setNodeid(nodeID);
 
-                // value for this node for this category
-                levelNode.setNodevalue(m_dataMgr.getValue(nodeID, rtcCat, curTime, rWindow));
+            // value for this node for this category
+            levelNode.setNodevalue(snapshot.getValue(nodeID, curTime));
 
-                // node service count
-                levelNode.setNodesvccount(m_dataMgr.getServiceCount(nodeID, rtcCat));
+            // node service count
+            levelNode.setNodesvccount(snapshot.getServiceCount(nodeID));
 
-                // node service down count
-                levelNode.setNodesvcdowncount(m_dataMgr.getServiceDownCount(nodeID, rtcCat));
+            // node service down count
+            levelNode.setNodesvcdowncount(snapshot.getServiceDownCount(nodeID));
 
-                // add the node
-                levelCat.addNode(levelNode);
-            }
+            // add the node
+            levelCat.addNode(levelNode);
         }
 
         // add category
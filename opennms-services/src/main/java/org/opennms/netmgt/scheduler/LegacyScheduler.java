@@ -40,7 +40,6 @@ import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 
 import org.opennms.core.concurrent.LogPreservingThreadFactory;
-import org.opennms.core.fiber.PausableFiber;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.util.Assert;
@@ -54,7 +53,7 @@ import org.springframework.util.Assert;
  * @author <a href="mailto:weave@oculan.com">Brian Weaver </a>
  * @author <a href="http://www.opennms.org/">OpenNMS </a>
  */
-public class LegacyScheduler implements Runnable, PausableFiber, Scheduler {
+public class LegacyScheduler implements Runnable, PooledScheduler {
     
     private static final Logger LOG = LoggerFactory.getLogger(LegacyScheduler.class);
     
@@ -301,6 +300,7 @@ public class LegacyScheduler implements Runnable, PausableFiber, Scheduler {
      *
      * @return the sum of all the elements in the various queues
      */
+    @Override
     public int getScheduled() {
         return m_scheduled;
     }
@@ -311,6 +311,7 @@ public class LegacyScheduler implements Runnable, PausableFiber, Scheduler {
      *
      * @return thread pool
      */
+    @Override
     public ExecutorService getRunner() {
         return m_runner;
     }
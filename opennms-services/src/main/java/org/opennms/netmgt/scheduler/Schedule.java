@@ -127,7 +127,7 @@ public class Schedule {
      */
     public void schedule() {
         m_scheduled = true;
-        schedule(0);
+        schedule(m_timer.getInitialDelay(m_schedulable, m_interval.getInterval()));
     }
 
     private void schedule(long interval) {
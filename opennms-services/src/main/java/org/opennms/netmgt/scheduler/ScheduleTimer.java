@@ -45,4 +45,17 @@ public interface ScheduleTimer extends Timer {
      */
     public void schedule(long interval, ReadyRunnable schedule);
 
+    /**
+     * Returns the delay before the first run of a recurring task, which
+     * allows a timer to spread the start times of many tasks across their
+     * interval. Defaults to running immediately.
+     *
+     * @param task the task, its string form identifies it
+     * @param interval the interval at which the task recurs
+     * @return the delay in milliseconds
+     */
+    default long getInitialDelay(Object task, long interval) {
+        return 0;
+    }
+
 }
@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+/**
+ * Creates the {@link PooledScheduler} used by the daemons.
+ *
+ * The implementation is chosen with the
+ * <code>org.opennms.netmgt.scheduler.implementation</code> system property,
+ * either <code>legacy</code> (default) for the {@link LegacyScheduler} or
+ * <code>wheel</code> for the {@link TimingWheelScheduler}.
+ */
+public abstract class Schedulers {
+
+    public static final String IMPLEMENTATION_PROPERTY = "org.opennms.netmgt.scheduler.implementation";
+
+    /**
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     */
+    public static PooledScheduler createScheduler(final String parent, final int maxSize) {
+        if ("wheel".equalsIgnoreCase(System.getProperty(IMPLEMENTATION_PROPERTY, "legacy"))) {
+            return new TimingWheelScheduler(parent, maxSize);
+        }
+        return new LegacyScheduler(parent, maxSize);
+    }
+}
@@ -0,0 +1,497 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Scheduler that keeps the runnables in a hierarchical timing wheel.
+ *
+ * Time advances in ticks of <code>org.opennms.netmgt.scheduler.tickMs</code>
+ * milliseconds (10 by default). The wheel has four levels of 256 slots each,
+ * the first level covers the next 256 ticks and every further level covers
+ * 256 times the span of the level below. Scheduling a runnable only adds it
+ * to a slot, and on every tick the worker only looks at the slot that
+ * expires, so the cost does not grow with the number of scheduled
+ * runnables. When a lower level wraps around, the slot of the next level is
+ * moved down.
+ *
+ * Runnables that are due but not ready are checked again a second later,
+ * like the {@link LegacyScheduler} does.
+ *
+ * The lag between the time at which a runnable was due and the time at which
+ * it was handed to the thread pool, and at which it actually started to run,
+ * is tracked in histograms that are exposed in JMX under
+ * <code>org.opennms.netmgt.scheduler.&lt;parent&gt;</code>.
+ */
+public class TimingWheelScheduler implements Runnable, PooledScheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TimingWheelScheduler.class);
+
+    public static final long DEFAULT_TICK_MS = Long.getLong("org.opennms.netmgt.scheduler.tickMs", 10);
+
+    /**
+     * When enabled, the first run of a recurring task is delayed by an offset
+     * within its interval that is derived from the task's string form, so that
+     * tasks which are scheduled at the same time don't all run at once.
+     */
+    public static final boolean DEFAULT_SPREAD_START_TIMES = Boolean.valueOf(System.getProperty("org.opennms.netmgt.scheduler.spreadStartTimes", "true"));
+
+    private static final int WHEEL_BITS = 8;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 4;
+
+    private static final long NOT_READY_RETRY_MS = 1000;
+
+    private final String m_parent;
+
+    private final long m_tickMs;
+
+    private final boolean m_spreadStartTimes;
+
+    /**
+     * The pool of threads that are used to executed the runnable instances
+     * scheduled by the class' instance.
+     */
+    private final ExecutorService m_runner;
+
+    /**
+     * The slots of every level, guarded by this.
+     */
+    private final List<ArrayDeque<Entry>> m_slots = new ArrayList<>(LEVELS * WHEEL_SIZE);
+
+    /**
+     * The time at tick 0.
+     */
+    private final long m_startTime;
+
+    /**
+     * The last tick that was processed, guarded by this.
+     */
+    private long m_currentTick = 0;
+
+    /**
+     * The number of runnables in the wheel, guarded by this.
+     */
+    private int m_scheduled = 0;
+
+    private volatile int m_status;
+
+    private volatile Thread m_worker;
+
+    private final AtomicLong m_numTasksExecuted = new AtomicLong(0);
+
+    private final MetricRegistry m_metrics = new MetricRegistry();
+
+    private final Histogram m_dispatchLag;
+
+    private final Histogram m_startLag;
+
+    private JmxReporter m_reporter;
+
+    private static final class Entry {
+        private final ReadyRunnable m_runnable;
+        private final long m_due;
+        private final long m_dueTick;
+
+        private Entry(ReadyRunnable runnable, long due, long dueTick) {
+            m_runnable = runnable;
+            m_due = due;
+            m_dueTick = dueTick;
+        }
+    }
+
+    /**
+     * Constructs a new instance of the scheduler.
+     *
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     */
+    public TimingWheelScheduler(final String parent, final int maxSize) {
+        this(parent, maxSize, DEFAULT_TICK_MS, DEFAULT_SPREAD_START_TIMES);
+    }
+
+    /**
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     * @param tickMs
+     *            The resolution of the wheel in milliseconds.
+     * @param spreadStartTimes
+     *            Whether the first runs of recurring tasks are spread over their interval.
+     */
+    public TimingWheelScheduler(final String parent, final int maxSize, final long tickMs, final boolean spreadStartTimes) {
+        Assert.isTrue(tickMs > 0, "tickMs must be positive");
+        m_parent = parent;
+        m_tickMs = tickMs;
+        m_spreadStartTimes = spreadStartTimes;
+        m_status = START_PENDING;
+        m_runner = Executors.newFixedThreadPool(maxSize, new LogPreservingThreadFactory(parent, maxSize));
+        for (int i = 0; i < LEVELS * WHEEL_SIZE; i++) {
+            m_slots.add(new ArrayDeque<Entry>());
+        }
+        m_startTime = getCurrentTime();
+        m_dispatchLag = m_metrics.histogram("dispatch-lag");
+        m_startLag = m_metrics.histogram("start-lag");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void schedule(final long interval, final ReadyRunnable runnable) {
+        LOG.debug("schedule: Adding ready runnable {} at interval {}", runnable, interval);
+        add(runnable, getCurrentTime() + Math.max(0, interval));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Derives the offset from the task's string form, so that a task keeps
+     * its place within the interval across restarts.
+     */
+    @Override
+    public long getInitialDelay(final Object task, final long interval) {
+        if (!m_spreadStartTimes || interval <= 0 || task == null) {
+            return 0;
+        }
+        // Spread the bits of the hash code, similar values are common for names that only differ in a suffix
+        long hash = task.toString().hashCode() * 0x9E3779B97F4A7C15L;
+        hash ^= (hash >>> 32);
+        return Math.floorMod(hash, interval);
+    }
+
+    private synchronized void add(final ReadyRunnable runnable, final long due) {
+        if (m_scheduled == 0) {
+            // Nothing to expire, the wheel can jump to the current time
+            m_currentTick = Math.max(m_currentTick, toTick(getCurrentTime()));
+        }
+        // Never add to the slot of the current tick, it has already been expired
+        final long dueTick = Math.max(m_currentTick + 1, toTickRoundedUp(due));
+        insert(new Entry(runnable, due, dueTick));
+        if (m_scheduled++ == 0) {
+            notifyAll();
+        }
+    }
+
+    private long toTick(final long time) {
+        return (time - m_startTime) / m_tickMs;
+    }
+
+    private long toTickRoundedUp(final long time) {
+        return (time - m_startTime + m_tickMs - 1) / m_tickMs;
+    }
+
+    /**
+     * Adds the entry to the lowest level that spans its due tick. Must be
+     * called while holding the lock.
+     */
+    private void insert(final Entry entry) {
+        final long dueTick = Math.max(entry.m_dueTick, m_currentTick);
+        final long delta = dueTick - m_currentTick;
+        for (int level = 0; level < LEVELS; level++) {
+            if (delta < 1L << (WHEEL_BITS * (level + 1))) {
+                final int slot = (int)((dueTick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+                m_slots.get(level * WHEEL_SIZE + slot).add(entry);
+                return;
+            }
+        }
+        // Further away than the wheel spans, park it in the slot of the top
+        // level that is moved down last and re-insert it from there
+        final int top = LEVELS - 1;
+        final int slot = (int)(((m_currentTick >>> (WHEEL_BITS * top)) - 1) & WHEEL_MASK);
+        m_slots.get(top * WHEEL_SIZE + slot).add(entry);
+    }
+
+    /**
+     * Advances the wheel by a single tick and collects the entries that
+     * expire. Must be called while holding the lock.
+     */
+    private void advance(final List<Entry> expired) {
+        m_currentTick++;
+
+        // Move the slots of the levels that wrapped around down, the highest first
+        int wrapped = 0;
+        while (wrapped + 1 < LEVELS && (m_currentTick & ((1L << (WHEEL_BITS * (wrapped + 1))) - 1)) == 0) {
+            wrapped++;
+        }
+        for (int level = wrapped; level > 0; level--) {
+            final ArrayDeque<Entry> slot = m_slots.get(level * WHEEL_SIZE + (int)((m_currentTick >>> (WHEEL_BITS * level)) & WHEEL_MASK));
+            final int size = slot.size();
+            for (int i = 0; i < size; i++) {
+                insert(slot.poll());
+            }
+        }
+
+        final ArrayDeque<Entry> slot = m_slots.get((int)(m_currentTick & WHEEL_MASK));
+        m_scheduled -= slot.size();
+        expired.addAll(slot);
+        slot.clear();
+    }
+
+    private void dispatch(final List<Entry> expired) {
+        final long now = getCurrentTime();
+        for (final Entry entry : expired) {
+            final ReadyRunnable runnable = entry.m_runnable;
+            boolean ready;
+            try {
+                ready = runnable.isReady();
+            } catch (final Throwable t) {
+                LOG.warn("run: failed to determine whether {} is ready, will check again", runnable, t);
+                ready = false;
+            }
+            if (!ready) {
+                add(runnable, now + NOT_READY_RETRY_MS);
+                continue;
+            }
+
+            LOG.debug("run: found ready runnable {}", runnable);
+            m_dispatchLag.update(now - entry.m_due);
+            try {
+                m_runner.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        m_startLag.update(getCurrentTime() - entry.m_due);
+                        runnable.run();
+                    }
+                    @Override
+                    public String toString() {
+                        return runnable.toString();
+                    }
+                });
+                m_numTasksExecuted.incrementAndGet();
+            } catch (final RejectedExecutionException e) {
+                if (m_runner.isShutdown()) {
+                    LOG.debug("run: scheduler is stopping, not running {}", runnable);
+                    return;
+                }
+                throw e;
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getCurrentTime() {
+        return System.currentTimeMillis();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void start() {
+        Assert.state(m_worker == null, "The fiber has already run or is running");
+
+        m_reporter = JmxReporter.forRegistry(m_metrics)
+                .inDomain("org.opennms.netmgt.scheduler." + m_parent)
+                .convertDurationsTo(TimeUnit.MILLISECONDS)
+                .build();
+        m_reporter.start();
+
+        m_worker = new Thread(this, getName());
+        m_worker.start();
+        m_status = STARTING;
+
+        LOG.info("start: scheduler started");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void stop() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+
+        m_status = STOP_PENDING;
+        m_worker.interrupt();
+        m_runner.shutdown();
+        if (m_reporter != null) {
+            m_reporter.stop();
+        }
+
+        LOG.info("stop: scheduler stopped");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void pause() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+        Assert.state(m_status != STOPPED && m_status != STOP_PENDING, "The fiber is not running or a stop is pending");
+
+        if (m_status == PAUSED) {
+            return;
+        }
+
+        m_status = PAUSE_PENDING;
+        notifyAll();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void resume() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+        Assert.state(m_status != STOPPED && m_status != STOP_PENDING, "The fiber is not running or a stop is pending");
+
+        if (m_status == RUNNING) {
+            return;
+        }
+
+        m_status = RESUME_PENDING;
+        notifyAll();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized int getStatus() {
+        if (m_worker != null && m_worker.isAlive() == false) {
+            m_status = STOPPED;
+        }
+        return m_status;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getName() {
+        return m_runner.toString();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized int getScheduled() {
+        return m_scheduled;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public ExecutorService getRunner() {
+        return m_runner;
+    }
+
+    /**
+     * Returns the registry that holds the lag histograms.
+     *
+     * @return the registry
+     */
+    public MetricRegistry getMetricRegistry() {
+        return m_metrics;
+    }
+
+    /**
+     * The main method of the scheduler. Advances the wheel tick by tick and
+     * hands the runnables that expire to the thread pool.
+     */
+    @Override
+    public void run() {
+        synchronized (this) {
+            m_status = RUNNING;
+        }
+
+        LOG.debug("run: scheduler running");
+
+        final List<Entry> expired = new ArrayList<>();
+        for (;;) {
+            synchronized (this) {
+                if (m_status != RUNNING && m_status != PAUSED && m_status != PAUSE_PENDING && m_status != RESUME_PENDING) {
+                    LOG.debug("run: status = {}, time to exit", m_status);
+                    break;
+                }
+
+                try {
+                    // if paused or pause pending then block
+                    while (m_status == PAUSE_PENDING || m_status == PAUSED) {
+                        if (m_status == PAUSE_PENDING) {
+                            LOG.debug("run: pausing.");
+                        }
+                        m_status = PAUSED;
+                        wait();
+                    }
+
+                    // if resume pending then change to running
+                    if (m_status == RESUME_PENDING) {
+                        LOG.debug("run: resuming.");
+                        m_status = RUNNING;
+                    }
+
+                    if (m_scheduled == 0) {
+                        LOG.debug("run: no ready runnables scheduled, waiting...");
+                        wait();
+                        continue;
+                    }
+
+                    final long targetTick = toTick(getCurrentTime());
+                    if (targetTick <= m_currentTick) {
+                        final long nextTickTime = m_startTime + (m_currentTick + 1) * m_tickMs;
+                        wait(Math.max(1, nextTickTime - getCurrentTime()));
+                        continue;
+                    }
+
+                    while (m_currentTick < targetTick && m_scheduled > 0) {
+                        advance(expired);
+                    }
+                    if (m_scheduled == 0) {
+                        m_currentTick = targetTick;
+                    }
+                } catch (final InterruptedException e) {
+                    break;
+                }
+            }
+
+            if (!expired.isEmpty()) {
+                dispatch(expired);
+                expired.clear();
+            }
+        }
+
+        LOG.debug("run: scheduler exiting, state = STOPPED");
+        synchronized (this) {
+            m_status = STOPPED;
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getNumTasksExecuted() {
+        return m_numTasksExecuted.get();
+    }
+}
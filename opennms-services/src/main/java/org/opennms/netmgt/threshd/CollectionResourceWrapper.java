@@ -34,7 +34,6 @@ import java.io.File;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.opennms.netmgt.collectd.AliasedResource;
 import org.opennms.netmgt.collectd.IfInfo;
@@ -76,46 +75,26 @@ public class CollectionResourceWrapper {
     private final Map<String, CollectionAttribute> m_attributes;
     private final ResourceStorageDao m_resourceStorageDao;
 
-    /**
-     * Keeps track of both the Double value, and when it was collected, for the static cache of attributes
-     * 
-     * This is necessary for the *correct* calculation of Counter rates, across variable collection times and possible
-     * collection failures (see NMS-4244)
+    /*
+     * Holds last values for counter attributes (in order to calculate delta)
      */
-    public static class CacheEntry {
-        private final Date m_timestamp;
-        private final Double m_value;
-
-        public CacheEntry(final Date timestamp, final Double value) {
-            if (timestamp == null) {
-                throw new IllegalArgumentException("Illegal null timestamp in cache value");
-            } else if (value == null) {
-                throw new IllegalArgumentException("Illegal null value in cache value");
-            }
-            this.m_timestamp = timestamp;
-            this.m_value = value;
-        }
+    static final CounterCache s_cache = new CounterCache();
 
-        public Date getTimestamp() {
-            return m_timestamp;
-        }
-
-        public Double getValue() {
-            return m_value;
-        }
+    static {
+        s_cache.register();
     }
 
-    /*
-     * Holds last values for counter attributes (in order to calculate delta)
-     */
-    static final ConcurrentHashMap<String, CacheEntry> s_cache = new ConcurrentHashMap<String,CacheEntry>();
-    
     /*
      * To avoid update static cache on every call of getAttributeValue.
      * In some cases, the same DS could be needed in many thresholds definitions for same resource.
      * See Bug 3193
      */
     private final Map<String, Double> m_localCache = new HashMap<String,Double>();
+
+    /*
+     * Identifies the resource inside the counters cache, shared by all the counters of the resource.
+     */
+    private String m_cacheResourceId;
     
     /*
      * Holds interface ifInfo data for interface resource only. This avoid multiple calls to database for same resource.
@@ -397,33 +376,42 @@ public class CollectionResourceWrapper {
             LOG.info("getAttributeValue: can't find numeric value for {} on {}", ds, m_resource);
             return null;
         }
-        // Generating a unique ID for the node/resourceType/resource/metric combination.
-        String id =  "node[" + m_nodeId + "].resourceType[" + m_resource.getResourceTypeName() + "].instance[" + m_resource.getInterfaceLabel() + "].metric[" + ds + "]";
         Double current = numValue.doubleValue();
         if (m_attributes.get(ds).getType().toLowerCase().startsWith("counter") == false) {
-            LOG.debug("getAttributeValue: id={}, value= {}", id, current);
+            LOG.debug("getAttributeValue: ds={}, value= {}", ds, current);
             return current;
         } else {
-            return getCounterValue(id, current);
+            return getCounterValue(ds, current);
+        }
+    }
+
+    /*
+     * Generating a unique ID for the node/resourceType/resource combination.
+     */
+    private String getCacheResourceId() {
+        if (m_cacheResourceId == null) {
+            m_cacheResourceId = "node[" + m_nodeId + "].resourceType[" + m_resource.getResourceTypeName() + "].instance[" + m_resource.getInterfaceLabel() + "]";
         }
+        return m_cacheResourceId;
     }
 
     /*
      * This will return the rate based on configured collection step
      */
-    private Double getCounterValue(String id, Double current) {
+    private Double getCounterValue(String ds, Double current) {
         synchronized (m_localCache) {
 
-        if (m_localCache.containsKey(id) == false) {
-            // Atomically replace the CacheEntry with the new value
+        if (m_localCache.containsKey(ds) == false) {
+            final CounterCache.Key id = new CounterCache.Key(getCacheResourceId(), ds);
+            // Atomically replace the cache entry with the new value
             // If the sysUpTime was changed, the "last" value must be null (to force update the cache).
-            CacheEntry last = m_counterReset ? null : s_cache.put(id, new CacheEntry(m_collectionTimestamp, current));
-            LOG.debug("getCounterValue: id={}, last={}, current={}", id, (last==null ? last : last.m_value +"@"+ last.m_timestamp), current);
+            CounterCache.Entry last = m_counterReset ? null : s_cache.put(id, current.doubleValue(), m_collectionTimestamp.getTime());
+            LOG.debug("getCounterValue: id={}, last={}, current={}", id, last, current);
             if (last == null) {
-                m_localCache.put(id, Double.NaN);
+                m_localCache.put(ds, Double.NaN);
                 LOG.info("getCounterValue: unknown last value for {}, ignoring current", id);
             } else {                
-                Double delta = current.doubleValue() - last.m_value.doubleValue();
+                Double delta = current.doubleValue() - last.getValue().doubleValue();
                 // wrapped counter handling(negative delta), rrd style
                 if (delta < 0) {
                     double newDelta = delta.doubleValue();
@@ -434,31 +422,31 @@ public class CollectionResourceWrapper {
                         // try 64-bit adjustment
                         newDelta += Math.pow(2, 64) - Math.pow(2, 32);
                     }
-                    LOG.info("getCounterValue: {}(counter) wrapped counter adjusted last={}@{}, current={}, olddelta={}, newdelta={}", id, last.m_value, last.m_timestamp, current, delta, newDelta);
+                    LOG.info("getCounterValue: {}(counter) wrapped counter adjusted last={}, current={}, olddelta={}, newdelta={}", id, last, current, delta, newDelta);
                     delta = newDelta;
                 }
                 // Get the interval between when this current collection was taken, and the last time this
                 // value was collected (and had a counter rate calculated for it).
                 // If the interval is zero, than the current rate must returned as 0.0 since there can be 
                 // no delta across a time interval of zero.
-                long interval = ( m_collectionTimestamp.getTime() - last.m_timestamp.getTime() ) / 1000;
+                long interval = ( m_collectionTimestamp.getTime() - last.getTimestamp() ) / 1000;
                 if (interval > 0) {
                     final Double value = (delta/interval);
                     LOG.debug("getCounterValue: id={}, value={}, delta={}, interval={}", id, value, delta, interval);
-                    m_localCache.put(id, value);
+                    m_localCache.put(ds, value);
                 } else {
                     LOG.info("getCounterValue: invalid zero-length rate interval for {}, returning rate of zero", id);
-                    m_localCache.put(id, 0.0);
+                    m_localCache.put(ds, 0.0);
                     // Restore the original value inside the static cache
-                    s_cache.put(id, last);
+                    s_cache.restore(id, last);
                 }
             }
         }
-        Double value = m_localCache.get(id);
+        Double value = m_localCache.get(ds);
         // This is just a sanity check, we should never have a value of null for the value at this point
         if (value == null) {
-            LOG.error("getCounterValue: value was not calculated correctly for {}, using NaN", id);
-            m_localCache.put(id, Double.NaN);
+            LOG.error("getCounterValue: value was not calculated correctly for {}, using NaN", ds);
+            m_localCache.put(ds, Double.NaN);
             return Double.NaN;
         } else {
             return value;
@@ -0,0 +1,264 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.threshd;
+
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Last collected value of every counter attribute that is used by a threshold,
+ * needed to turn the counter into a rate on the next collection.
+ *
+ * Entries that have not been updated for longer than the maximum age (the
+ * <code>org.opennms.thresholds.counterCache.maxAge</code> system property, in
+ * milliseconds) are dropped, so the cache doesn't keep the history of resources
+ * that are no longer collected.
+ */
+public class CounterCache implements CounterCacheMBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CounterCache.class);
+
+    public static final String MAX_AGE_PROPERTY = "org.opennms.thresholds.counterCache.maxAge";
+
+    private static final long DEFAULT_MAX_AGE = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * Identifies a counter by the resource it belongs to and the name of the
+     * attribute. The resource id is shared by all the keys of the same resource.
+     */
+    public static final class Key {
+        private final String m_resourceId;
+        private final String m_attribute;
+        private final int m_hashCode;
+
+        public Key(final String resourceId, final String attribute) {
+            m_resourceId = Objects.requireNonNull(resourceId);
+            m_attribute = Objects.requireNonNull(attribute);
+            m_hashCode = 31 * resourceId.hashCode() + attribute.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return m_hashCode;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return m_hashCode == other.m_hashCode && m_attribute.equals(other.m_attribute) && m_resourceId.equals(other.m_resourceId);
+        }
+
+        @Override
+        public String toString() {
+            return m_resourceId + ".metric[" + m_attribute + "]";
+        }
+    }
+
+    /**
+     * Keeps track of both the value, and when it was collected.
+     * 
+     * This is necessary for the *correct* calculation of Counter rates, across variable collection times and possible
+     * collection failures (see NMS-4244)
+     */
+    public static final class Entry {
+        private final double m_value;
+        private final long m_timestamp;
+        private final long m_updated;
+
+        private Entry(final double value, final long timestamp, final long updated) {
+            m_value = value;
+            m_timestamp = timestamp;
+            m_updated = updated;
+        }
+
+        public Double getValue() {
+            return m_value;
+        }
+
+        public long getTimestamp() {
+            return m_timestamp;
+        }
+
+        @Override
+        public String toString() {
+            return m_value + "@" + m_timestamp;
+        }
+    }
+
+    private final ConcurrentHashMap<Key, Entry> m_entries = new ConcurrentHashMap<>();
+
+    private final AtomicLong m_hits = new AtomicLong();
+    private final AtomicLong m_misses = new AtomicLong();
+    private final AtomicLong m_expired = new AtomicLong();
+    private final AtomicLong m_nextExpiration;
+
+    private final long m_maxAge;
+
+    private ObjectName m_objectName;
+
+    public CounterCache() {
+        this(Long.getLong(MAX_AGE_PROPERTY, DEFAULT_MAX_AGE));
+    }
+
+    public CounterCache(final long maxAge) {
+        m_maxAge = maxAge > 0 ? maxAge : DEFAULT_MAX_AGE;
+        m_nextExpiration = new AtomicLong(System.currentTimeMillis() + m_maxAge);
+    }
+
+    /**
+     * Stores the value collected at the given time and returns the previous
+     * entry for the counter, or null if the counter wasn't known.
+     */
+    public Entry put(final Key key, final double value, final long timestamp) {
+        final long now = System.currentTimeMillis();
+        final Entry last = m_entries.put(key, new Entry(value, timestamp, now));
+        if (last == null) {
+            m_misses.incrementAndGet();
+        } else {
+            m_hits.incrementAndGet();
+        }
+        expireIfDue(now);
+        return last;
+    }
+
+    /**
+     * Puts back an entry previously returned by {@link #put(Key, double, long)}.
+     */
+    public void restore(final Key key, final Entry entry) {
+        m_entries.put(key, entry);
+    }
+
+    public Entry get(final Key key) {
+        return m_entries.get(key);
+    }
+
+    public boolean containsKey(final Key key) {
+        return m_entries.containsKey(key);
+    }
+
+    public void clear() {
+        m_entries.clear();
+    }
+
+    private void expireIfDue(final long now) {
+        final long next = m_nextExpiration.get();
+        // Only the thread that moves the deadline forward does the sweep
+        if (now >= next && m_nextExpiration.compareAndSet(next, now + Math.max(m_maxAge / 10, 1))) {
+            expire(now);
+        }
+    }
+
+    /**
+     * Removes the entries that were not updated within the maximum age.
+     */
+    void expire(final long now) {
+        final long oldest = now - m_maxAge;
+        int removed = 0;
+        for (final Iterator<Entry> it = m_entries.values().iterator(); it.hasNext();) {
+            if (it.next().m_updated < oldest) {
+                it.remove();
+                removed++;
+            }
+        }
+        if (removed > 0) {
+            m_expired.addAndGet(removed);
+            LOG.debug("expire: removed {} counters that were not updated in the last {} ms", removed, m_maxAge);
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return m_entries.size();
+    }
+
+    @Override
+    public long getHits() {
+        return m_hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return m_misses.get();
+    }
+
+    @Override
+    public double getHitRatio() {
+        final long hits = m_hits.get();
+        final long total = hits + m_misses.get();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    @Override
+    public long getExpired() {
+        return m_expired.get();
+    }
+
+    @Override
+    public long getMaxAge() {
+        return m_maxAge;
+    }
+
+    /**
+     * Registers the statistics as <code>OpenNMS:Name=Thresholds,type=CounterCache</code>.
+     * Failures are logged and otherwise ignored.
+     */
+    public synchronized void register() {
+        if (m_objectName != null) {
+            return;
+        }
+        try {
+            final ObjectName objectName = new ObjectName("OpenNMS:Name=Thresholds,type=CounterCache");
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+            m_objectName = objectName;
+        } catch (final JMException e) {
+            LOG.warn("Failed to register the counter cache statistics", e);
+        }
+    }
+}
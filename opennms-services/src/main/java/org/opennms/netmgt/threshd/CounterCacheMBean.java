@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.threshd;
+
+/**
+ * Management interface of {@link CounterCache}.
+ */
+public interface CounterCacheMBean {
+
+    /** @return the number of counters in the cache */
+    int getSize();
+
+    /** @return the number of updates that found the previous value of the counter */
+    long getHits();
+
+    /** @return the number of updates of counters that were not in the cache */
+    long getMisses();
+
+    /** @return the fraction of the updates that found the previous value of the counter */
+    double getHitRatio();
+
+    /** @return the number of counters that were dropped because they were not updated */
+    long getExpired();
+
+    /** @return the age in milliseconds after which a counter that is not updated is dropped */
+    long getMaxAge();
+}
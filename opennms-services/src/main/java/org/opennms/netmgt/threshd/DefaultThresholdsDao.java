@@ -101,7 +101,11 @@ public class DefaultThresholdsDao implements ThresholdsDao, InitializingBean {
             thresholdMap = new HashMap<String, Set<ThresholdEntity>>();
             fillThresholdStateMap(groupName, typeName, thresholdMap);
         } else {
-            thresholdMap = type.getThresholdMap();
+            // Merge into a copy, the current map may still be in use by the thresholding sets
+            thresholdMap = new HashMap<String, Set<ThresholdEntity>>();
+            for (final Entry<String, Set<ThresholdEntity>> entry : type.getThresholdMap().entrySet()) {
+                thresholdMap.put(entry.getKey(), new LinkedHashSet<ThresholdEntity>(entry.getValue()));
+            }
             fillThresholdStateMap(groupName, type.getDsType(), thresholdMap);
 
         }
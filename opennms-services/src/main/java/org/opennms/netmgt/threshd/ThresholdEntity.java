@@ -59,6 +59,7 @@ public final class ThresholdEntity implements Cloneable {
     
     //Contains a list of evaluators for each used "instance".  Is populated with the list for the "default" instance (the "null" key)
     // in the Constructor.  Note that this means we must use a null-key capable map like HashMap
+    // Guarded by the entity itself, as the thresholding sets evaluate their entities without holding a lock
     private Map<String,List<ThresholdEvaluatorState>> m_thresholdEvaluatorStates = new HashMap<String,List<ThresholdEvaluatorState>>();
 
     // the commands for these need to be listed in ThresholdController as well
@@ -227,7 +228,7 @@ public final class ThresholdEntity implements Cloneable {
      * @return List of events
      * @param resource a {@link org.opennms.netmgt.threshd.CollectionResourceWrapper} object.
      */
-    public List<Event> evaluateAndCreateEvents(CollectionResourceWrapper resource, Map<String, Double> values, Date date) {
+    public synchronized List<Event> evaluateAndCreateEvents(CollectionResourceWrapper resource, Map<String, Double> values, Date date) {
         List<Event> events = new LinkedList<Event>();
         double dsValue=0.0;
         String instance = resource != null ? resource.getInstance() : null;
@@ -293,7 +294,7 @@ public final class ThresholdEntity implements Cloneable {
      * @param instance The key to use to identify the instance to get states for. Can be null to get the default instance
      * @return a {@link java.util.List} object.
      */
-    public List<ThresholdEvaluatorState> getThresholdEvaluatorStates(String instance) {
+    public synchronized List<ThresholdEvaluatorState> getThresholdEvaluatorStates(String instance) {
         List<ThresholdEvaluatorState> result= m_thresholdEvaluatorStates.get(instance);
         if(result==null) {
             //There is no set of evaluators for this instance; create a list by copying the base ones
@@ -316,7 +317,7 @@ public final class ThresholdEntity implements Cloneable {
      *
      * @param entity a {@link org.opennms.netmgt.threshd.ThresholdEntity} object.
      */
-    public void merge(ThresholdEntity entity) {
+    public synchronized void merge(ThresholdEntity entity) {
         if (getThresholdConfig().equals(entity.getThresholdConfig()) == false) {
             sendRearmForTriggeredStates();
             getThresholdConfig().merge(entity.getThresholdConfig());
@@ -326,7 +327,7 @@ public final class ThresholdEntity implements Cloneable {
     /**
      * Delete this will check states and will send rearm for all triggered.
      */
-    public void delete() {
+    public synchronized void delete() {
         sendRearmForTriggeredStates();
     }
     
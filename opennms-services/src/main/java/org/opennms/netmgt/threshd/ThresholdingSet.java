@@ -33,7 +33,6 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -73,9 +72,13 @@ public class ThresholdingSet {
     protected ThresholdsDao m_thresholdsDao;
 
     private boolean m_initialized = false;
-    private boolean m_hasThresholds = false;
 
-    protected final List<ThresholdGroup> m_thresholdGroups = new LinkedList<ThresholdGroup>();
+    /*
+     * Immutable snapshot of the threshold groups, replaced as a whole when the configuration is reloaded
+     * so the collectors can apply the thresholds without taking a lock.
+     */
+    private volatile List<ThresholdGroup> m_thresholdGroups = Collections.emptyList();
+    private final Object m_reloadLock = new Object();
     protected final List<String> m_scheduledOutages = new ArrayList<String>();
 
     /**
@@ -102,22 +105,22 @@ public class ThresholdingSet {
     protected void initialize() {
         final String logHeader = "initialize(nodeId=" + m_nodeId + ",ipAddr=" + m_hostAddress + ",svc=" + m_serviceName + ")";
         List<String> groupNameList = getThresholdGroupNames(m_nodeId, m_hostAddress, m_serviceName);
-        synchronized(m_thresholdGroups) {
-            m_thresholdGroups.clear();
+        synchronized(m_reloadLock) {
+            final List<ThresholdGroup> thresholdGroups = new ArrayList<ThresholdGroup>(groupNameList.size());
             for (String groupName : groupNameList) {
                 try {
                     ThresholdGroup thresholdGroup = m_thresholdsDao.get(groupName);
                     if (thresholdGroup == null) {
                         LOG.error("{}: Could not get threshold group with name {}", logHeader, groupName);
                     } else {
-                        m_thresholdGroups.add(thresholdGroup);
+                        thresholdGroups.add(thresholdGroup);
                         LOG.debug("{}: Adding threshold group: {}", logHeader, thresholdGroup);
                     }
                 } catch (Throwable e) {
                     LOG.error("{}: Can't process threshold group {}", logHeader, groupName, e);
                 }
             }
-            m_hasThresholds = !m_thresholdGroups.isEmpty();
+            m_thresholdGroups = Collections.unmodifiableList(thresholdGroups);
         }
         updateScheduledOutages();
     }
@@ -146,25 +149,24 @@ public class ThresholdingSet {
         final String logHeader = "mergeThresholdGroups(nodeId=" + nodeId + ",ipAddr=" + hostAddress + ",svc=" + serviceName + ")";
         LOG.debug("{}: Begin merging operation", logHeader);
         List<String> groupNameList = getThresholdGroupNames(nodeId, hostAddress, serviceName);
-        synchronized(m_thresholdGroups) {
+        synchronized(m_reloadLock) {
+            final List<ThresholdGroup> currentThresholdGroups = m_thresholdGroups;
             // If size differs its because some groups where deleted.
-            if (groupNameList.size() != m_thresholdGroups.size()) {
+            if (groupNameList.size() != currentThresholdGroups.size()) {
                 // Deleting Groups
                 LOG.debug("{}: New group name list differs from current threshold group list", logHeader);
-                for (Iterator<ThresholdGroup> i = m_thresholdGroups.iterator(); i.hasNext();) {
-                    ThresholdGroup group = i.next();
+                for (ThresholdGroup group : currentThresholdGroups) {
                     if (!groupNameList.contains(group.getName())) {
                         LOG.info("{}: deleting group {}", logHeader, group);
                         group.delete();
-                        i.remove();
                     }
                 }
             }
-            List<ThresholdGroup> newThresholdGroupList = new LinkedList<ThresholdGroup>();
+            List<ThresholdGroup> newThresholdGroupList = new ArrayList<ThresholdGroup>(groupNameList.size());
             for (String groupName : groupNameList) {
                 // Check if group exist on current configured list
                 ThresholdGroup foundGroup = null;
-                for (ThresholdGroup group : m_thresholdGroups) {
+                for (ThresholdGroup group : currentThresholdGroups) {
                     if (group.getName().equals(groupName))
                         foundGroup = group;
                 }
@@ -184,9 +186,7 @@ public class ThresholdingSet {
                     LOG.debug("{}: Merging threshold group: {}", logHeader, thresholdGroup);
                 }
             }
-            m_thresholdGroups.clear();
-            m_thresholdGroups.addAll(newThresholdGroupList);
-            m_hasThresholds = !m_thresholdGroups.isEmpty();
+            m_thresholdGroups = Collections.unmodifiableList(newThresholdGroupList);
         }
     }
 
@@ -199,7 +199,16 @@ public class ThresholdingSet {
      * @return a boolean.
      */
     public boolean hasThresholds() {
-        return m_hasThresholds;
+        return !m_thresholdGroups.isEmpty();
+    }
+
+    /**
+     * Returns the current snapshot of the threshold groups.
+     *
+     * @return an unmodifiable {@link java.util.List} object.
+     */
+    List<ThresholdGroup> getThresholdGroups() {
+        return m_thresholdGroups;
     }
 
     /*
@@ -211,20 +220,18 @@ public class ThresholdingSet {
      */
     public boolean hasThresholds(final String resourceTypeName, final String attributeName) {
         boolean ok = false;
-        synchronized(m_thresholdGroups) {
-            for (ThresholdGroup group : m_thresholdGroups) {
-                Map<String,Set<ThresholdEntity>> entityMap = getEntityMap(group, resourceTypeName);
-                if (entityMap != null) {
-                    for (final Entry<String, Set<ThresholdEntity>> entry : entityMap.entrySet()) {
-                        final Set<ThresholdEntity> value = entry.getValue();
-                        for (final ThresholdEntity thresholdEntity : value) {
-                            final Collection<String> requiredDatasources = thresholdEntity.getRequiredDatasources();
-                            if (requiredDatasources.contains(attributeName)) {
-                                ok = true;
-                                LOG.debug("hasThresholds: {}@{}? {}", resourceTypeName, attributeName, ok);
-                            } else {
-                                LOG.trace("hasThresholds: {}@{}? {}", resourceTypeName, attributeName, ok);
-                            }
+        for (ThresholdGroup group : m_thresholdGroups) {
+            Map<String,Set<ThresholdEntity>> entityMap = getEntityMap(group, resourceTypeName);
+            if (entityMap != null) {
+                for (final Entry<String, Set<ThresholdEntity>> entry : entityMap.entrySet()) {
+                    final Set<ThresholdEntity> value = entry.getValue();
+                    for (final ThresholdEntity thresholdEntity : value) {
+                        final Collection<String> requiredDatasources = thresholdEntity.getRequiredDatasources();
+                        if (requiredDatasources.contains(attributeName)) {
+                            ok = true;
+                            LOG.debug("hasThresholds: {}@{}? {}", resourceTypeName, attributeName, ok);
+                        } else {
+                            LOG.trace("hasThresholds: {}@{}? {}", resourceTypeName, attributeName, ok);
                         }
                     }
                 }
@@ -267,41 +274,41 @@ public class ThresholdingSet {
         }
         LOG.debug("applyThresholds: Applying thresholds on {} using {} attributes.", resourceWrapper, attributesMap.size());
         Date date = new Date();
-        synchronized(m_thresholdGroups) {
-            for (ThresholdGroup group : m_thresholdGroups) {
-                Map<String,Set<ThresholdEntity>> entityMap = getEntityMap(group, resourceWrapper.getResourceTypeName());
-                if (entityMap != null) {
-                    for (final Entry<String, Set<ThresholdEntity>> entry : entityMap.entrySet()) {
-                        final String key = entry.getKey();
-                        final Set<ThresholdEntity> value = entry.getValue();
-                        for (final ThresholdEntity thresholdEntity : value) {
-                            if (passedThresholdFilters(resourceWrapper, thresholdEntity)) {
-                                LOG.info("applyThresholds: Processing threshold {} : {} on resource {}", key, thresholdEntity, resourceWrapper);
-                                Collection<String> requiredDatasources = thresholdEntity.getThresholdConfig().getRequiredDatasources();
-                                final Map<String, Double> values = new HashMap<String,Double>();
-                                boolean valueMissing = false;
-                                boolean relaxed = thresholdEntity.getThresholdConfig().getBasethresholddef().isRelaxed();
-                                for(final String ds : requiredDatasources) {
-                                    final Double dsValue = resourceWrapper.getAttributeValue(ds);
-                                    if(dsValue == null) {
-                                        LOG.info("applyThresholds: Could not get data source value for '{}', {}", ds, (relaxed ? "but the expression will be evaluated (relaxed mode enabled)" : "not evaluating threshold"));
-                                        valueMissing = true;
-                                    }
-                                    values.put(ds,dsValue);
+        // Reused for every entity, the values are only read while evaluating an entity
+        final Map<String, Double> values = new HashMap<String,Double>();
+        for (ThresholdGroup group : m_thresholdGroups) {
+            Map<String,Set<ThresholdEntity>> entityMap = getEntityMap(group, resourceWrapper.getResourceTypeName());
+            if (entityMap != null) {
+                for (final Entry<String, Set<ThresholdEntity>> entry : entityMap.entrySet()) {
+                    final String key = entry.getKey();
+                    final Set<ThresholdEntity> value = entry.getValue();
+                    for (final ThresholdEntity thresholdEntity : value) {
+                        if (passedThresholdFilters(resourceWrapper, thresholdEntity)) {
+                            LOG.info("applyThresholds: Processing threshold {} : {} on resource {}", key, thresholdEntity, resourceWrapper);
+                            Collection<String> requiredDatasources = thresholdEntity.getThresholdConfig().getRequiredDatasources();
+                            values.clear();
+                            boolean valueMissing = false;
+                            boolean relaxed = thresholdEntity.getThresholdConfig().getBasethresholddef().isRelaxed();
+                            for(final String ds : requiredDatasources) {
+                                final Double dsValue = resourceWrapper.getAttributeValue(ds);
+                                if(dsValue == null) {
+                                    LOG.info("applyThresholds: Could not get data source value for '{}', {}", ds, (relaxed ? "but the expression will be evaluated (relaxed mode enabled)" : "not evaluating threshold"));
+                                    valueMissing = true;
                                 }
-                                if(!valueMissing || relaxed) {
-                                    LOG.info("applyThresholds: All attributes found for {}, evaluating", resourceWrapper);
-                                    resourceWrapper.setDsLabel(thresholdEntity.getDatasourceLabel());
-                                    try {
-                                        List<Event> thresholdEvents = thresholdEntity.evaluateAndCreateEvents(resourceWrapper, values, date);
-                                        eventsList.addAll(thresholdEvents);
-                                    } catch (Exception e) {
-                                        LOG.warn("applyThresholds: Can't evaluate {} on {} because {}", key, resourceWrapper, e.getMessage());
-                                    }
+                                values.put(ds,dsValue);
+                            }
+                            if(!valueMissing || relaxed) {
+                                LOG.info("applyThresholds: All attributes found for {}, evaluating", resourceWrapper);
+                                resourceWrapper.setDsLabel(thresholdEntity.getDatasourceLabel());
+                                try {
+                                    List<Event> thresholdEvents = thresholdEntity.evaluateAndCreateEvents(resourceWrapper, values, date);
+                                    eventsList.addAll(thresholdEvents);
+                                } catch (Exception e) {
+                                    LOG.warn("applyThresholds: Can't evaluate {} on {} because {}", key, resourceWrapper, e.getMessage());
                                 }
-                            } else {
-                                LOG.info("applyThresholds: Not processing threshold {} : {} because no filters matched", key, thresholdEntity);
                             }
+                        } else {
+                            LOG.info("applyThresholds: Not processing threshold {} : {} because no filters matched", key, thresholdEntity);
                         }
                     }
                 }
@@ -480,8 +487,6 @@ public class ThresholdingSet {
     /** {@inheritDoc} */
     @Override
     public String toString() {
-        synchronized (m_thresholdGroups) {
-            return m_thresholdGroups.toString();
-        }
+        return m_thresholdGroups.toString();
     }
 }
@@ -137,7 +137,7 @@ public class ThresholdingVisitor extends AbstractCollectionSetVisitor {
      * @return a {@link java.util.List} object.
      */
     List<ThresholdGroup> getThresholdGroups() {
-        return Collections.unmodifiableList(m_thresholdingSet.m_thresholdGroups);
+        return m_thresholdingSet.getThresholdGroups();
     }
     
     /**
@@ -70,6 +70,11 @@ public abstract class CollectorTestUtils {
 
     public static void persistCollectionSet(RrdStrategy<?, ?> rrdStrategy, ResourceStorageDao resourceStorageDao,
             CollectionSpecification spec, CollectionSet collectionSet) {
+        CollectionSetVisitor persister = createPersister(rrdStrategy, resourceStorageDao, spec);
+        collectionSet.visit(persister);
+    }
+
+    public static CollectionSetVisitor createPersister(RrdStrategy<?, ?> rrdStrategy, ResourceStorageDao resourceStorageDao, CollectionSpecification spec) {
         RrdRepository repository=spec.getRrdRepository("default");
         System.err.println("repository = " + repository);
         ServiceParameters params = spec.getServiceParameters();
@@ -81,7 +86,7 @@ public abstract class CollectorTestUtils {
         CollectionSetVisitor persister = persisterFactory.createPersister(params, repository);
 
         System.err.println("persister = " + persister);
-        collectionSet.visit(persister);
+        return persister;
     }
 
     public static void collectNTimes(RrdStrategy<?, ?> rrdStrategy, ResourceStorageDao resourceStorageDao,
@@ -37,8 +37,10 @@ import java.net.InetAddress;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jrobin.core.RrdDb;
 import org.jrobin.core.RrdDef;
@@ -54,8 +56,10 @@ import org.opennms.core.test.db.annotations.JUnitTemporaryDatabase;
 import org.opennms.core.test.snmp.annotations.JUnitSnmpAgent;
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.netmgt.collection.api.CollectionAgent;
+import org.opennms.netmgt.collection.api.CollectionResource;
 import org.opennms.netmgt.collection.api.CollectionSet;
 import org.opennms.netmgt.collection.api.ServiceCollector;
+import org.opennms.netmgt.collection.support.CollectionSetVisitorWrapper;
 import org.opennms.netmgt.config.SnmpPeerFactory;
 import org.opennms.netmgt.dao.api.IpInterfaceDao;
 import org.opennms.netmgt.dao.api.NodeDao;
@@ -410,6 +414,85 @@ public class SnmpCollectorIT implements InitializingBean, TestContextAware {
         m_collectionSpecification.release(m_collectionAgent);
     }
 
+    @Test
+    @Transactional
+    @JUnitCollector(
+                    datacollectionConfig="/org/opennms/netmgt/config/datacollection-brocade-config.xml", 
+                    datacollectionType="snmp",
+                    anticipateRrds={ 
+                            "1/brocadeFCPortIndex/1/swFCPortTxWords",
+                            "1/brocadeFCPortIndex/1/swFCPortRxWords",
+                            "1/brocadeFCPortIndex/2/swFCPortTxWords",
+                            "1/brocadeFCPortIndex/2/swFCPortRxWords",
+                            "1/brocadeFCPortIndex/3/swFCPortTxWords",
+                            "1/brocadeFCPortIndex/3/swFCPortRxWords",
+                            "1/brocadeFCPortIndex/4/swFCPortTxWords",
+                            "1/brocadeFCPortIndex/4/swFCPortRxWords",
+                            "1/brocadeFCPortIndex/5/swFCPortTxWords",
+                            "1/brocadeFCPortIndex/5/swFCPortRxWords",
+                            "1/brocadeFCPortIndex/6/swFCPortTxWords",
+                            "1/brocadeFCPortIndex/6/swFCPortRxWords",
+                            "1/brocadeFCPortIndex/7/swFCPortTxWords",
+                            "1/brocadeFCPortIndex/7/swFCPortRxWords",
+                            "1/brocadeFCPortIndex/8/swFCPortTxWords",
+                            "1/brocadeFCPortIndex/8/swFCPortRxWords"
+                    }, 
+                    anticipateFiles={ 
+                            "1",
+                            "1/brocadeFCPortIndex",
+                            "1/brocadeFCPortIndex/1/strings.properties",
+                            "1/brocadeFCPortIndex/1",
+                            "1/brocadeFCPortIndex/2/strings.properties",
+                            "1/brocadeFCPortIndex/2",
+                            "1/brocadeFCPortIndex/3/strings.properties",
+                            "1/brocadeFCPortIndex/3",
+                            "1/brocadeFCPortIndex/4/strings.properties",
+                            "1/brocadeFCPortIndex/4",
+                            "1/brocadeFCPortIndex/5/strings.properties",
+                            "1/brocadeFCPortIndex/5",
+                            "1/brocadeFCPortIndex/6/strings.properties",
+                            "1/brocadeFCPortIndex/6",
+                            "1/brocadeFCPortIndex/7/strings.properties",
+                            "1/brocadeFCPortIndex/7",
+                            "1/brocadeFCPortIndex/8/strings.properties",
+                            "1/brocadeFCPortIndex/8"
+                    }
+            )
+    @JUnitSnmpAgent(resource = "/org/opennms/netmgt/snmp/brocadeTestData1.properties")
+    public void testStreamingCollect() throws Exception {
+        m_collectionSpecification.initialize(m_collectionAgent);
+        assertTrue(m_collectionSpecification.isStreaming());
+
+        final AtomicInteger visitorsCreated = new AtomicInteger(0);
+        final AtomicInteger setsCompleted = new AtomicInteger(0);
+        final Set<CollectionResource> resources = Collections.newSetFromMap(new IdentityHashMap<CollectionResource, Boolean>());
+        CollectionSet collectionSet = m_collectionSpecification.collect(m_collectionAgent, set -> {
+            visitorsCreated.incrementAndGet();
+            return new CollectionSetVisitorWrapper(CollectorTestUtils.createPersister(m_rrdStrategy, m_resourceStorageDao, m_collectionSpecification)) {
+                @Override
+                public void visitResource(CollectionResource resource) {
+                    // Every resource is visited exactly once
+                    assertTrue(resource.toString(), resources.add(resource));
+                    super.visitResource(resource);
+                }
+
+                @Override
+                public void completeCollectionSet(CollectionSet set) {
+                    setsCompleted.incrementAndGet();
+                    super.completeCollectionSet(set);
+                }
+            };
+        });
+        assertEquals("collection status",
+                     ServiceCollector.COLLECTION_SUCCEEDED,
+                     collectionSet.getStatus());
+        assertEquals(1, visitorsCreated.get());
+        assertEquals(1, setsCompleted.get());
+        assertEquals(((SnmpCollectionSet)collectionSet).getResources().size(), resources.size());
+
+        m_collectionSpecification.release(m_collectionAgent);
+    }
+
     @Test
     @Transactional
     @JUnitCollector(
@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.enlinkd;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.netmgt.model.BridgeMacLink;
+import org.opennms.netmgt.model.BridgeMacLink.BridgeDot1qTpFdbStatus;
+import org.opennms.netmgt.model.OnmsNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Intersects the forwarding tables of two synthetic bridges that share most
+ * of their MAC addresses, once with sets of strings and once with
+ * {@link BridgeForwardingTable}s.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.opennms.netmgt.enlinkd.BridgeForwardingTableBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class BridgeForwardingTableBenchmark {
+
+    private static final int PORTS = 48;
+
+    @Param({"1000", "10000"})
+    public int m_macCount;
+
+    private List<BridgeMacLink> m_xBft;
+    private List<BridgeMacLink> m_yBft;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        final List<String> macs = new ArrayList<String>(m_macCount);
+        for (int i = 0; i < m_macCount; i++) {
+            macs.add(String.format("%012x", random.nextLong() & 0xffffffffffffL));
+        }
+        m_xBft = getBft(1, macs, random);
+        m_yBft = getBft(2, macs.subList(m_macCount / 10, m_macCount), random);
+    }
+
+    private static List<BridgeMacLink> getBft(int nodeid, List<String> macs, Random random) {
+        final OnmsNode node = new OnmsNode();
+        node.setId(nodeid);
+        final List<BridgeMacLink> bft = new ArrayList<BridgeMacLink>(macs.size());
+        for (String mac : macs) {
+            final BridgeMacLink link = new BridgeMacLink();
+            link.setNode(node);
+            link.setMacAddress(mac);
+            link.setBridgePort(1 + random.nextInt(PORTS));
+            link.setBridgePortIfIndex(link.getBridgePort());
+            link.setBridgeDot1qTpFdbStatus(BridgeDot1qTpFdbStatus.DOT1D_TP_FDB_STATUS_LEARNED);
+            bft.add(link);
+        }
+        return bft;
+    }
+
+    @Benchmark
+    public int stringSets() {
+        final Map<String, BridgeMacLink> xmactoport = new HashMap<String, BridgeMacLink>();
+        for (BridgeMacLink link : m_xBft) {
+            xmactoport.put(link.getMacAddress(), link);
+        }
+        final Map<String, BridgeMacLink> ymactoport = new HashMap<String, BridgeMacLink>();
+        for (BridgeMacLink link : m_yBft) {
+            ymactoport.put(link.getMacAddress(), link);
+        }
+        final Set<String> common = new HashSet<String>(xmactoport.keySet());
+        common.retainAll(new HashSet<String>(ymactoport.keySet()));
+        return common.size();
+    }
+
+    @Benchmark
+    public int forwardingTables() {
+        final MacAddressDictionary macs = new MacAddressDictionary();
+        final BridgeForwardingTable x = new BridgeForwardingTable(macs, 1, m_xBft, null);
+        final BridgeForwardingTable y = new BridgeForwardingTable(macs, 2, m_yBft, null);
+        final BitSet common = x.getCommonLearnedMacs(y);
+        return common.cardinality();
+    }
+
+    @Benchmark
+    public int deduplicate() {
+        return BridgeForwardingTable.deduplicate(m_xBft).size();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(BridgeForwardingTableBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.enlinkd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.opennms.netmgt.model.BridgeMacLink;
+import org.opennms.netmgt.model.BridgeMacLink.BridgeDot1qTpFdbStatus;
+import org.opennms.netmgt.model.OnmsNode;
+
+public class BridgeForwardingTableTest {
+
+    @Test
+    public void testEncodeDecode() {
+        assertEquals(0x001122aabbccL, MacAddressDictionary.encode("001122aabbcc"));
+        assertEquals("001122aabbcc", MacAddressDictionary.decode(0x001122aabbccL));
+        assertEquals(-1, MacAddressDictionary.encode("001122AABBCC"));
+        assertEquals(-1, MacAddressDictionary.encode("00:11:22:aa:bb:cc"));
+        assertEquals(-1, MacAddressDictionary.encode(null));
+    }
+
+    @Test
+    public void testDictionary() {
+        final MacAddressDictionary macs = new MacAddressDictionary(2);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, macs.getId(String.format("%012x", i * 7919L)));
+        }
+        assertEquals(100, macs.size());
+        assertEquals(42, macs.lookup(String.format("%012x", 42 * 7919L)));
+        assertEquals(-1, macs.lookup("ffffffffffff"));
+
+        // non canonical addresses are kept as they are
+        final int id = macs.getId("not-a-mac");
+        assertEquals(id, macs.getId("not-a-mac"));
+        assertEquals("not-a-mac", macs.getMac(id));
+        assertEquals(101, macs.size());
+    }
+
+    @Test
+    public void testSimpleConnection() {
+        final MacAddressDictionary macs = new MacAddressDictionary();
+        final List<BridgeMacLink> xbft = new ArrayList<BridgeMacLink>();
+        xbft.add(getLink(1, 1, "000000000001", BridgeDot1qTpFdbStatus.DOT1D_TP_FDB_STATUS_LEARNED));
+        xbft.add(getLink(1, 2, "000000000002", BridgeDot1qTpFdbStatus.DOT1D_TP_FDB_STATUS_LEARNED));
+        xbft.add(getLink(1, 200, "0000000000bb", BridgeDot1qTpFdbStatus.DOT1D_TP_FDB_STATUS_LEARNED));
+        xbft.add(getLink(1, 200, "000000000003", BridgeDot1qTpFdbStatus.DOT1D_TP_FDB_STATUS_LEARNED));
+        xbft.add(getLink(1, 0, "0000000000aa", BridgeDot1qTpFdbStatus.DOT1D_TP_FDB_STATUS_SELF));
+        final List<BridgeMacLink> ybft = new ArrayList<BridgeMacLink>();
+        ybft.add(getLink(2, 300, "000000000001", BridgeDot1qTpFdbStatus.DOT1D_TP_FDB_STATUS_LEARNED));
+        ybft.add(getLink(2, 300, "000000000002", BridgeDot1qTpFdbStatus.DOT1D_TP_FDB_STATUS_LEARNED));
+        ybft.add(getLink(2, 300, "0000000000aa", BridgeDot1qTpFdbStatus.DOT1D_TP_FDB_STATUS_LEARNED));
+        ybft.add(getLink(2, 4, "000000000004", BridgeDot1qTpFdbStatus.DOT1D_TP_FDB_STATUS_LEARNED));
+
+        final BridgeForwardingTable x = new BridgeForwardingTable(macs, 1, xbft, null);
+        final BridgeForwardingTable y = new BridgeForwardingTable(macs, 2, ybft, Collections.singleton("0000000000bb"));
+
+        final int xmac = x.findSelfMacLearnedBy(y);
+        assertEquals("0000000000aa", macs.getMac(xmac));
+        assertEquals(300, y.getPort(xmac));
+        final int ymac = y.findSelfMacLearnedBy(x);
+        assertEquals("0000000000bb", macs.getMac(ymac));
+        assertEquals(200, x.getPort(ymac));
+
+        final BitSet common = x.getCommonLearnedMacs(y);
+        assertEquals(2, common.cardinality());
+        assertTrue(common.get(macs.lookup("000000000001")));
+        assertTrue(common.get(macs.lookup("000000000002")));
+        assertFalse(x.isLearned(macs.lookup("000000000004")));
+
+        final List<BridgeMacLink> xlinks = x.getLinksOnSegment(200, y, 300);
+        assertEquals(2, xlinks.size());
+        final List<BridgeMacLink> ylinks = y.getLinksOnSegment(300, x, 200);
+        assertEquals(1, ylinks.size());
+        assertEquals("0000000000aa", ylinks.get(0).getMacAddress());
+        assertEquals(xbft.get(2), x.getFirstLinkOnPort(200));
+        assertNull(x.getFirstLinkOnPort(300));
+
+        assertEquals(3, x.getThroughSets().size());
+        x.getThroughSets().remove(200);
+        assertEquals(3, x.getThroughSets().size());
+        assertEquals(2, x.getForwardingSet(200).cardinality());
+    }
+
+    @Test
+    public void testDeduplicate() {
+        final List<BridgeMacLink> bft = new ArrayList<BridgeMacLink>();
+        bft.add(getLink(1, 1, "000000000001", BridgeDot1qTpFdbStatus.DOT1D_TP_FDB_STATUS_LEARNED));
+        bft.add(getLink(1, 2, "000000000001", BridgeDot1qTpFdbStatus.DOT1D_TP_FDB_STATUS_LEARNED));
+        bft.add(getLink(1, 1, "000000000002", BridgeDot1qTpFdbStatus.DOT1D_TP_FDB_STATUS_LEARNED));
+        final BridgeMacLink last = getLink(1, 1, "000000000001", BridgeDot1qTpFdbStatus.DOT1D_TP_FDB_STATUS_LEARNED);
+        bft.add(last);
+
+        final List<BridgeMacLink> links = BridgeForwardingTable.deduplicate(bft);
+        assertEquals(3, links.size());
+        assertTrue(links.contains(last));
+        assertFalse(links.contains(bft.get(0)));
+    }
+
+    private static BridgeMacLink getLink(int nodeid, int port, String mac, BridgeDot1qTpFdbStatus status) {
+        final OnmsNode node = new OnmsNode();
+        node.setId(nodeid);
+        final BridgeMacLink link = new BridgeMacLink();
+        link.setNode(node);
+        link.setBridgePort(port);
+        link.setMacAddress(mac);
+        link.setBridgeDot1qTpFdbStatus(status);
+        return link;
+    }
+}
@@ -0,0 +1,344 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.notifd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.netmgt.config.NotificationManager;
+import org.opennms.netmgt.config.notificationCommands.Command;
+
+public class NotificationDeliveryEngineTest {
+
+    private final RecordingNotificationManager m_notificationManager = new RecordingNotificationManager();
+
+    private final ExecutorService m_callers = Executors.newCachedThreadPool();
+
+    private NotificationDeliveryEngine m_engine;
+
+    @After
+    public void tearDown() {
+        if (m_engine != null) {
+            m_engine.stop();
+        }
+        m_callers.shutdownNow();
+    }
+
+    @Test
+    public void testSlowCommandOnlyDelaysItsOwnPool() throws Exception {
+        m_engine = new NotificationDeliveryEngine(m_notificationManager, 1, 100);
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch xmppStarted = new CountDownLatch(1);
+        final CountDownLatch xmppDone = new CountDownLatch(1);
+        m_engine.deliver(new TestTask("path", () -> {
+            xmppStarted.countDown();
+            release.await();
+            xmppDone.countDown();
+        }, "xmpp"));
+        assertTrue(xmppStarted.await(10, TimeUnit.SECONDS));
+
+        // The only xmpp worker is busy, the email pool has its own
+        final CountDownLatch emailDone = new CountDownLatch(1);
+        final List<String> emailThreads = Collections.synchronizedList(new ArrayList<>());
+        m_engine.deliver(new TestTask("path", () -> {
+            emailThreads.add(Thread.currentThread().getName());
+            emailDone.countDown();
+        }, "email"));
+        assertTrue(emailDone.await(10, TimeUnit.SECONDS));
+        assertTrue(emailThreads.get(0), emailThreads.get(0).contains("-email-"));
+        assertEquals(1, xmppDone.getCount());
+
+        release.countDown();
+        assertTrue(xmppDone.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testTasksWithTheSameCommandsShareAPool() throws Exception {
+        m_engine = new NotificationDeliveryEngine(m_notificationManager, 1, 100);
+
+        final List<String> threads = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch done = new CountDownLatch(2);
+        for (int i = 0; i < 2; i++) {
+            m_engine.deliver(new TestTask("path", () -> {
+                threads.add(Thread.currentThread().getName());
+                done.countDown();
+            }, "email", "xmpp"));
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(threads.get(0), threads.get(1));
+        assertTrue(threads.get(0), threads.get(0).contains("-email+xmpp-"));
+    }
+
+    @Test
+    public void testWriterInsertsAllRows() throws Exception {
+        m_engine = new NotificationDeliveryEngine(m_notificationManager, 1, 100);
+        m_engine.start();
+
+        final List<Future<?>> callers = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            final int noticeId = i;
+            callers.add(m_callers.submit(() -> {
+                m_engine.updateNoticeWithUserInfo("user", noticeId, "email", "user@example.com", "auto");
+                return null;
+            }));
+        }
+        for (final Future<?> caller : callers) {
+            caller.get(10, TimeUnit.SECONDS);
+        }
+
+        assertEquals(50, m_notificationManager.getRows().size());
+        assertTrue(m_notificationManager.getCalls() <= 50);
+    }
+
+    @Test
+    public void testFailedRowOnlyFailsItsOwnTask() throws Exception {
+        m_engine = new NotificationDeliveryEngine(m_notificationManager, 1, 100);
+        m_engine.start();
+
+        // Hold the writer so that the next rows end up in the same batch
+        final CountDownLatch release = new CountDownLatch(1);
+        m_notificationManager.blockOn("blocker", release);
+        final Future<?> blocker = m_callers.submit(() -> {
+            m_engine.updateNoticeWithUserInfo("blocker", 0, "email", "", "auto");
+            return null;
+        });
+        m_notificationManager.awaitBlocked();
+
+        final List<Future<?>> good = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            final int noticeId = i;
+            good.add(m_callers.submit(() -> {
+                m_engine.updateNoticeWithUserInfo("user", noticeId, "email", "", "auto");
+                return null;
+            }));
+        }
+        final Future<?> bad = m_callers.submit(() -> {
+            m_engine.updateNoticeWithUserInfo(RecordingNotificationManager.BAD_USER, 6, "email", "", "auto");
+            return null;
+        });
+        release.countDown();
+
+        blocker.get(10, TimeUnit.SECONDS);
+        for (final Future<?> caller : good) {
+            caller.get(10, TimeUnit.SECONDS);
+        }
+        try {
+            bad.get(10, TimeUnit.SECONDS);
+            fail("Expected the row of the bad user to fail.");
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof SQLException);
+        }
+        assertEquals(6, m_notificationManager.getRows().size());
+    }
+
+    @Test
+    public void testRowsAreWrittenDirectlyWhenStopped() throws Exception {
+        m_engine = new NotificationDeliveryEngine(m_notificationManager, 1, 100);
+        m_engine.updateNoticeWithUserInfo("user", 1, "email", "", "auto");
+        assertEquals(1, m_notificationManager.getRows().size());
+
+        m_engine.start();
+        m_engine.stop();
+        m_engine.updateNoticeWithUserInfo("user", 2, "email", "", "auto");
+        assertEquals(2, m_notificationManager.getRows().size());
+    }
+
+    @Test
+    public void testStopDoesNotStrandPendingRows() throws Exception {
+        m_engine = new NotificationDeliveryEngine(m_notificationManager, 1, 100);
+        int noticeId = 0;
+        for (int i = 0; i < 20; i++) {
+            m_engine.start();
+            final List<Future<?>> callers = new ArrayList<>();
+            for (int j = 0; j < 10; j++) {
+                final int id = noticeId++;
+                callers.add(m_callers.submit(() -> {
+                    m_engine.updateNoticeWithUserInfo("user", id, "email", "", "auto");
+                    return null;
+                }));
+            }
+            m_engine.stop();
+            for (final Future<?> caller : callers) {
+                caller.get(10, TimeUnit.SECONDS);
+            }
+        }
+        assertEquals(noticeId, m_notificationManager.getRows().size());
+    }
+
+    @Test
+    public void testStatsPerDestinationPath() throws Exception {
+        m_engine = new NotificationDeliveryEngine(m_notificationManager, 2, 100);
+
+        final CountDownLatch done = new CountDownLatch(3);
+        m_engine.deliver(new TestTask("oncall", done::countDown, "email"));
+        m_engine.deliver(new TestTask("oncall", done::countDown, "email"));
+        m_engine.deliver(new TestTask(null, done::countDown, "email"));
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        final DestinationPathStats onCall = m_engine.getDestinationPathStats("oncall");
+        assertNotNull(onCall);
+        awaitDelivered(onCall, 2);
+        assertEquals(0, onCall.getQueueDepth());
+
+        final DestinationPathStats none = m_engine.getDestinationPathStats(null);
+        assertNotNull(none);
+        awaitDelivered(none, 1);
+        assertEquals("none", none.getDestinationPath());
+
+        m_engine.stop();
+        assertNull(m_engine.getDestinationPathStats("oncall"));
+    }
+
+    /**
+     * The counters are updated after the task has run, so they may trail
+     * the latch slightly.
+     */
+    private static void awaitDelivered(final DestinationPathStats stats, final long delivered) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (stats.getDelivered() < delivered && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(delivered, stats.getDelivered());
+    }
+
+    private interface Body {
+        void run() throws Exception;
+    }
+
+    private static class TestTask extends NotificationTask {
+        private final Body m_body;
+
+        private TestTask(final String destinationPath, final Body body, final String... commandNames) {
+            super(null, null, System.currentTimeMillis(), Collections.<String, String>emptyMap(), null, "auto");
+            m_body = body;
+            setDestinationPath(destinationPath);
+            final Command[] commands = new Command[commandNames.length];
+            for (int i = 0; i < commandNames.length; i++) {
+                commands[i] = new Command();
+                commands[i].setName(commandNames[i]);
+            }
+            setCommands(commands);
+        }
+
+        @Override
+        public void run() {
+            try {
+                m_body.run();
+            } catch (final Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Records the inserted rows and rejects every batch that contains a row
+     * of {@link #BAD_USER}.
+     */
+    private static class RecordingNotificationManager extends NotificationManager {
+        private static final String BAD_USER = "bad";
+
+        private final List<UserNotification> m_rows = new ArrayList<>();
+        private int m_calls;
+        private String m_blockOn;
+        private CountDownLatch m_release;
+        private final CountDownLatch m_blocked = new CountDownLatch(1);
+
+        private RecordingNotificationManager() {
+            super(null, null);
+        }
+
+        private synchronized void blockOn(final String userId, final CountDownLatch release) {
+            m_blockOn = userId;
+            m_release = release;
+        }
+
+        private void awaitBlocked() throws InterruptedException {
+            assertTrue(m_blocked.await(10, TimeUnit.SECONDS));
+        }
+
+        @Override
+        public void updateNoticesWithUserInfo(final List<UserNotification> userNotifications) throws SQLException {
+            final CountDownLatch release;
+            synchronized (this) {
+                release = m_blockOn != null && userNotifications.get(0).getUserId().equals(m_blockOn) ? m_release : null;
+            }
+            if (release != null) {
+                m_blocked.countDown();
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    throw new SQLException(e);
+                }
+            }
+            synchronized (this) {
+                m_calls++;
+                for (final UserNotification userNotification : userNotifications) {
+                    if (BAD_USER.equals(userNotification.getUserId())) {
+                        throw new SQLException("bad row");
+                    }
+                }
+                m_rows.addAll(userNotifications);
+            }
+        }
+
+        private synchronized List<UserNotification> getRows() {
+            return new ArrayList<>(m_rows);
+        }
+
+        private synchronized int getCalls() {
+            return m_calls;
+        }
+
+        @Override
+        protected void saveXML(final String xmlString) throws IOException {
+        }
+
+        @Override
+        public void update() {
+        }
+    }
+}
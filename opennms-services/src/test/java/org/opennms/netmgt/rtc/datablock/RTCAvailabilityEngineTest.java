@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rtc.datablock;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.InetAddress;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.rtc.datablock.RTCAvailabilityEngine.CategorySnapshot;
+
+public class RTCAvailabilityEngineTest {
+
+    private static final long WINDOW = 60L * 60L * 1000L;
+
+    private static final long REFRESH_INTERVAL = 60L * 1000L;
+
+    private long m_now;
+
+    private RTCHashMap m_map;
+
+    private RTCAvailabilityEngine m_engine;
+
+    @Before
+    public void setUp() {
+        // the service time lists expire outages using the system clock
+        m_now = System.currentTimeMillis();
+        m_map = new RTCHashMap(16);
+        m_engine = new RTCAvailabilityEngine(WINDOW, REFRESH_INTERVAL, m_now);
+    }
+
+    @Test
+    public void categoryIsFullyAvailableWithoutServices() {
+        final CategorySnapshot snapshot = m_engine.getSnapshot("Routers", m_now);
+        assertEquals(100.0, snapshot.getValue(m_now), 0.0);
+        assertEquals(100.0, snapshot.getValue(1, m_now), 0.0);
+        assertEquals(0, snapshot.getServiceCount(1));
+        assertEquals(0, snapshot.getServiceDownCount(1));
+    }
+
+    @Test
+    public void matchesLegacyCalculation() throws Exception {
+        // closed outage within the window
+        final RTCNode icmp1 = addService(1, "192.168.1.1", "ICMP", "A");
+        icmp1.addSvcTime(m_now - 600000, m_now - 300000);
+        final RTCNode http1 = addService(1, "192.168.1.1", "HTTP", "A", "B");
+
+        // open outage
+        final RTCNode icmp2 = addService(2, "192.168.1.2", "ICMP", "A");
+        icmp2.nodeLostService(m_now - 100000);
+
+        // closed outage that started before the window
+        final RTCNode icmp3 = addService(3, "192.168.1.3", "ICMP", "A", "B");
+        icmp3.addSvcTime(m_now - WINDOW - 1000, m_now - WINDOW + 5000);
+
+        for (RTCNode rtcN : new RTCNode[] { icmp1, http1, icmp2, icmp3 }) {
+            m_engine.addService(rtcN, m_now);
+        }
+
+        CategorySnapshot a = m_engine.getSnapshot("A", m_now);
+        assertEquals(100.0 * (1.0 - (300000.0 + 100000.0 + 5000.0) / (4 * WINDOW)), a.getValue(m_now), 0.0001);
+        for (int nodeid = 1; nodeid <= 3; nodeid++) {
+            assertEquals(m_map.getValue(nodeid, "A", m_now, WINDOW), a.getValue(nodeid, m_now), 0.0001);
+            assertEquals(m_map.getServiceCount(nodeid, "A"), a.getServiceCount(nodeid));
+            assertEquals(m_map.getServiceDownCount(nodeid, "A"), a.getServiceDownCount(nodeid));
+        }
+        assertEquals(2, a.getServiceCount(1));
+        assertEquals(1, a.getServiceDownCount(2));
+
+        final CategorySnapshot b = m_engine.getSnapshot("B", m_now);
+        assertEquals(100.0 * (1.0 - 5000.0 / (2 * WINDOW)), b.getValue(m_now), 0.0001);
+        assertEquals(1, b.getServiceCount(1));
+        assertEquals(0, b.getServiceCount(2));
+        assertEquals(100.0, b.getValue(2, m_now), 0.0);
+
+        // open outages keep accumulating down time between updates
+        final long later = m_now + 50000;
+        assertEquals(m_map.getValue(2, "A", later, WINDOW), a.getValue(2, later), 0.0001);
+
+        // resolve the open outage
+        icmp2.nodeRegainedService(m_now + 1000);
+        m_engine.updateService(icmp2, m_now + 1000);
+        a = m_engine.getSnapshot("A", m_now + 1000);
+        assertEquals(0, a.getServiceDownCount(2));
+        assertEquals(m_map.getValue(2, "A", later, WINDOW), a.getValue(2, later), 0.0001);
+    }
+
+    @Test
+    public void snapshotsAreImmutable() throws Exception {
+        final RTCNode icmp = addService(1, "192.168.1.1", "ICMP", "A");
+        m_engine.addService(icmp, m_now);
+
+        final CategorySnapshot before = m_engine.getSnapshot("A", m_now);
+
+        icmp.nodeLostService(m_now - 1000);
+        m_engine.updateService(icmp, m_now);
+
+        assertEquals(100.0, before.getValue(1, m_now), 0.0);
+        assertEquals(0, before.getServiceDownCount(1));
+
+        final CategorySnapshot after = m_engine.getSnapshot("A", m_now);
+        assertEquals(1, after.getServiceDownCount(1));
+        assertEquals(100.0 * (1.0 - 1000.0 / WINDOW), after.getValue(1, m_now), 0.0001);
+    }
+
+    @Test
+    public void canRemoveServices() throws Exception {
+        final RTCNode icmp = addService(1, "192.168.1.1", "ICMP", "A");
+        icmp.nodeLostService(m_now - 1000);
+        final RTCNode http = addService(1, "192.168.1.1", "HTTP", "A");
+        m_engine.addService(icmp, m_now);
+        m_engine.addService(http, m_now);
+
+        // adding a service again replaces its previous contribution
+        m_engine.addService(icmp, m_now);
+        assertEquals(2, m_engine.getSnapshot("A", m_now).getServiceCount(1));
+
+        m_engine.removeService(icmp);
+        final CategorySnapshot snapshot = m_engine.getSnapshot("A", m_now);
+        assertEquals(1, snapshot.getServiceCount(1));
+        assertEquals(0, snapshot.getServiceDownCount(1));
+        assertEquals(100.0, snapshot.getValue(m_now), 0.0);
+    }
+
+    @Test
+    public void expiredOutagesAreRemovedOnRefresh() throws Exception {
+        final RTCNode icmp = addService(1, "192.168.1.1", "ICMP", "A");
+        icmp.addSvcTime(m_now - 2000, m_now - 1000);
+        final RTCNode http = addService(1, "192.168.1.1", "HTTP", "A");
+        http.nodeLostService(m_now - 1000);
+        m_engine.addService(icmp, m_now);
+        m_engine.addService(http, m_now);
+
+        assertEquals(100.0 * (1.0 - 2000.0 / (2 * WINDOW)), m_engine.getSnapshot("A", m_now).getValue(m_now), 0.0001);
+
+        // once the window has moved past the closed outage, only the open
+        // outage is counted, and for no more than the length of the window
+        final long later = m_now + WINDOW + REFRESH_INTERVAL;
+        final CategorySnapshot snapshot = m_engine.getSnapshot("A", later);
+        assertEquals(50.0, snapshot.getValue(later), 0.0001);
+        assertEquals(1, snapshot.getServiceDownCount(1));
+    }
+
+    private RTCNode addService(int nodeid, String ip, String svcName, String... catLabels) throws Exception {
+        final RTCNode rtcN = new RTCNode(nodeid, InetAddress.getByName(ip), svcName, WINDOW);
+        for (String catLabel : catLabels) {
+            rtcN.addCategory(catLabel);
+        }
+        m_map.add(rtcN);
+        return rtcN;
+    }
+}
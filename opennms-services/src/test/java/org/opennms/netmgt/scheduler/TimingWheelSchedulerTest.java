@@ -0,0 +1,194 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TimingWheelSchedulerTest {
+
+    private final AtomicLong m_now = new AtomicLong(1000000L);
+
+    private final List<String> m_ran = new CopyOnWriteArrayList<>();
+
+    private TimingWheelScheduler m_scheduler;
+
+    @Before
+    public void setUp() {
+        // Use a clock that only moves when the test says so
+        m_scheduler = new TimingWheelScheduler("TimingWheelSchedulerTest", 2, 1, true) {
+            @Override
+            public long getCurrentTime() {
+                return m_now.get();
+            }
+        };
+        m_scheduler.start();
+    }
+
+    @After
+    public void tearDown() {
+        m_scheduler.stop();
+    }
+
+    @Test
+    public void runsTasksWhenTheyAreDue() throws Exception {
+        final long[] intervals = new long[] {
+                5, // first level
+                300, // second level
+                70000, // third level
+                TimeUnit.HOURS.toMillis(6), // fourth level
+        };
+        for (long interval : intervals) {
+            m_scheduler.schedule(interval, task("task-" + interval));
+        }
+        assertEquals(intervals.length, m_scheduler.getScheduled());
+
+        final long start = m_now.get();
+        for (int i = 0; i < intervals.length; i++) {
+            m_now.set(start + intervals[i] - 1);
+            assertRanEventually(i);
+            m_now.set(start + intervals[i]);
+            assertRanEventually(i + 1);
+            assertEquals("task-" + intervals[i], m_ran.get(i));
+        }
+        assertEquals(0, m_scheduler.getScheduled());
+        assertEquals(intervals.length, m_scheduler.getNumTasksExecuted());
+        assertEquals(intervals.length, m_scheduler.getMetricRegistry().histogram("dispatch-lag").getCount());
+    }
+
+    @Test
+    public void runsTasksThatAreScheduledWhileIdle() throws Exception {
+        m_now.addAndGet(TimeUnit.DAYS.toMillis(2));
+        m_scheduler.schedule(0, task("now"));
+        m_now.incrementAndGet();
+        assertRanEventually(1);
+
+        m_now.addAndGet(TimeUnit.DAYS.toMillis(1));
+        m_scheduler.schedule(10, task("later"));
+        m_now.addAndGet(9);
+        assertRanEventually(1);
+        m_now.incrementAndGet();
+        assertRanEventually(2);
+    }
+
+    @Test
+    public void checksTasksThatAreNotReadyAgain() throws Exception {
+        final AtomicBoolean ready = new AtomicBoolean(false);
+        final AtomicInteger checks = new AtomicInteger(0);
+        m_scheduler.schedule(10, new ReadyRunnable() {
+            @Override
+            public boolean isReady() {
+                checks.incrementAndGet();
+                return ready.get();
+            }
+            @Override
+            public void run() {
+                m_ran.add("eventually");
+            }
+        });
+
+        m_now.addAndGet(10);
+        // Wait until the task was found not ready and was put back
+        waitUntil(() -> checks.get() == 1 && m_scheduler.getScheduled() == 1);
+        ready.set(true);
+        m_now.addAndGet(999);
+        assertRanEventually(0);
+        m_now.incrementAndGet();
+        assertRanEventually(1);
+    }
+
+    @Test
+    public void spreadsStartTimesDeterministically() {
+        final long interval = TimeUnit.MINUTES.toMillis(5);
+        final int[] buckets = new int[10];
+        for (int i = 0; i < 1000; i++) {
+            final String task = "PollableService[location=Default, interface=10.0.0." + i + ", svcName=ICMP]";
+            final long delay = m_scheduler.getInitialDelay(task, interval);
+            assertTrue(delay >= 0 && delay < interval);
+            assertEquals(delay, m_scheduler.getInitialDelay(task, interval));
+            buckets[(int)(delay * buckets.length / interval)]++;
+        }
+        for (int bucket : buckets) {
+            assertTrue("uneven spread: " + bucket, bucket > 50);
+        }
+
+        assertEquals(0, m_scheduler.getInitialDelay("task", 0));
+        assertEquals(0, new TimingWheelScheduler("NoSpread", 1, 1, false).getInitialDelay("task", interval));
+    }
+
+    private ReadyRunnable task(final String name) {
+        return new ReadyRunnable() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+            @Override
+            public void run() {
+                m_ran.add(name);
+            }
+            @Override
+            public String toString() {
+                return name;
+            }
+        };
+    }
+
+    /**
+     * Gives the worker time to catch up with the clock, and verifies that
+     * exactly the given number of tasks ran.
+     */
+    private void assertRanEventually(int count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 500;
+        while (m_ran.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Thread.sleep(20);
+        assertEquals(m_ran.toString(), count, m_ran.size());
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue("timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+}
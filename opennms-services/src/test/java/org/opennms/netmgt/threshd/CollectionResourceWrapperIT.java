@@ -154,7 +154,7 @@ public class CollectionResourceWrapperIT {
 
         // Add Counter Attribute
         String attributeName = "myCounter";
-        String attributeId = "node[1].resourceType[node].instance[null].metric[" + attributeName + "]";
+        CounterCache.Key attributeId = new CounterCache.Key("node[1].resourceType[node].instance[null]", attributeName);
         Map<String, CollectionAttribute> attributes = new HashMap<String, CollectionAttribute>();
         SnmpAttribute attribute = addAttributeToCollectionResource(resource, attributeName, "counter", "0", "1000");
         attributes.put(attribute.getName(), attribute);
@@ -222,7 +222,7 @@ public class CollectionResourceWrapperIT {
 
 		// Add Counter Attribute
 		String attributeName = "myCounter";
-	        String attributeId = "node[1].resourceType[node].instance[null].metric[" + attributeName + "]";
+	        CounterCache.Key attributeId = new CounterCache.Key("node[1].resourceType[node].instance[null]", attributeName);
 		Map<String, CollectionAttribute> attributes = new HashMap<String, CollectionAttribute>();
 		SnmpAttribute attribute = addAttributeToCollectionResource(resource, attributeName, "counter", "0", "1000");
 		attributes.put(attribute.getName(), attribute);
@@ -319,7 +319,7 @@ public class CollectionResourceWrapperIT {
 
         // Add Counter Attribute
         String attributeName = "myCounter";
-        String attributeId = "node[1].resourceType[node].instance[null].metric[" + attributeName + "]";
+        CounterCache.Key attributeId = new CounterCache.Key("node[1].resourceType[node].instance[null]", attributeName);
         Map<String, CollectionAttribute> attributes = new HashMap<String, CollectionAttribute>();
         BigInteger initialValue = new BigDecimal(Math.pow(2, 32) - 20000).toBigInteger();
         SnmpAttribute attribute = addAttributeToCollectionResource(resource, attributeName, "counter", "0", initialValue);
@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.threshd;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CounterCacheTest {
+
+    @Test
+    public void testPutReturnsPreviousEntry() {
+        CounterCache cache = new CounterCache();
+        CounterCache.Key key = new CounterCache.Key("node[1].resourceType[node].instance[null]", "myCounter");
+
+        Assert.assertNull(cache.put(key, 1000.0, 1000L));
+        CounterCache.Entry last = cache.put(new CounterCache.Key("node[1].resourceType[node].instance[null]", "myCounter"), 2500.0, 301000L);
+        Assert.assertEquals(Double.valueOf(1000.0), last.getValue());
+        Assert.assertEquals(1000L, last.getTimestamp());
+        Assert.assertEquals(Double.valueOf(2500.0), cache.get(key).getValue());
+
+        cache.restore(key, last);
+        Assert.assertEquals(Double.valueOf(1000.0), cache.get(key).getValue());
+
+        Assert.assertEquals(1, cache.getSize());
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertEquals(0.5, cache.getHitRatio(), 0.0);
+    }
+
+    @Test
+    public void testExpire() {
+        CounterCache cache = new CounterCache(60000L);
+        CounterCache.Key key1 = new CounterCache.Key("node[1].resourceType[node].instance[null]", "myCounter");
+        CounterCache.Key key2 = new CounterCache.Key("node[2].resourceType[node].instance[null]", "myCounter");
+        cache.put(key1, 1.0, 0L);
+        cache.put(key2, 2.0, 0L);
+
+        cache.expire(System.currentTimeMillis());
+        Assert.assertEquals(2, cache.getSize());
+
+        cache.expire(System.currentTimeMillis() + 120000L);
+        Assert.assertEquals(0, cache.getSize());
+        Assert.assertEquals(2, cache.getExpired());
+        Assert.assertFalse(cache.containsKey(key1));
+    }
+}
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.threshd;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.jexl2.JexlEngine;
+import org.apache.commons.jexl2.MapContext;
+import org.opennms.netmgt.config.threshd.Expression;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Evaluates a typical interface utilization threshold expression, once with
+ * the expression compiled when the configuration is loaded and once parsed
+ * for every sample, as it used to be.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.opennms.netmgt.threshd.ExpressionConfigWrapperBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ExpressionConfigWrapperBenchmark {
+
+    private static final String FORMULA = "ifSpeed > 0 and ifSpeed < 100000000 ? ((ifInOctets * 8 / ifSpeed) * 100) : (ifHighSpeed > 0 ? (((ifHCInOctets * 8) / (ifHighSpeed * 1000000)) * 100) : 0)";
+
+    private ExpressionConfigWrapper m_wrapper;
+
+    private Map<String, Double> m_values;
+
+    @Setup
+    public void setUp() throws Exception {
+        Expression exp = new Expression();
+        exp.setExpression(FORMULA);
+        m_wrapper = new ExpressionConfigWrapper(exp);
+
+        m_values = new HashMap<String, Double>();
+        m_values.put("ifInOctets", 200000.0);
+        m_values.put("ifHCInOctets", 200000.0);
+        m_values.put("ifSpeed", 10000000.0);
+        m_values.put("ifHighSpeed", 10.0);
+    }
+
+    @Benchmark
+    public double compiled() throws ThresholdExpressionException {
+        return m_wrapper.evaluate(m_values);
+    }
+
+    @Benchmark
+    public double parsedPerSample() {
+        Map<String,Object> context = new HashMap<String,Object>();
+        context.putAll(m_values);
+        context.put("datasources", new HashMap<String, Double>(m_values));
+        context.put("math", new ExpressionConfigWrapper.MathBinding());
+        Object resultObject = new JexlEngine().createExpression(FORMULA).evaluate(new MapContext(context));
+        return Double.parseDouble(resultObject.toString());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ExpressionConfigWrapperBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -171,4 +171,18 @@ public class ExpressionConfigWrapperTest {
         values.put("ifSpeed", 10.0);
         Assert.assertEquals(160.0, wrapper.evaluate(values), 0.0);
     }
+
+    @Test
+    public void testReevaluate() throws Exception {
+        Expression exp = new Expression();
+        exp.setExpression("datasources['ns-dskTotal'] + math.abs(ns)");
+        ExpressionConfigWrapper wrapper = new ExpressionConfigWrapper(exp);
+        for (int i = 0; i < 3; i++) {
+            Map<String, Double> values = new HashMap<String,Double>();
+            values.put("ns-dskTotal", 100.0 * i);
+            values.put("ns", -1.0 * i);
+            Assert.assertEquals(101.0 * i, wrapper.evaluate(values), 0.0);
+            Assert.assertEquals(2, values.size());
+        }
+    }
 }